@@ -20,6 +20,7 @@ import java.io.File;
 import java.io.FileNotFoundException;
 import java.io.FileOutputStream;
 import java.io.IOException;
+import java.util.concurrent.atomic.AtomicLong;
 
 import org.apache.commons.io.IOUtils;
 import org.slf4j.Logger;
@@ -29,7 +30,9 @@ import org.slf4j.LoggerFactory;
  * ADS書き込み失敗ログへの出力処理を司るクラス.
  * 本クラスは singleton で実装し、スレッド間での出力を排他する。<br />
  * また、プロセス間(PCSバージョン間)での出力は、別ファイルへの出力とすることで排他を考慮しない。<br />
- * なお、ADS書き込み失敗ログは、実行サーバのローカルファイルシステムへ出力するため、複数サーバ間での排他は考慮しない。
+ * なお、ADS書き込み失敗ログは、実行サーバのローカルファイルシステムへ出力するため、複数サーバ間での排他は考慮しない。<br />
+ * 書き込んだレコードは、DISKへのsync完了後に書き込み処理から戻る。
+ * ただし、sync中に他スレッドが書き込んだレコードは次のsyncでまとめて確定させる(グループコミット)ことで、sync回数を削減する。
  */
 public final class AdsWriteFailureLogWriter extends AbstractAdsWriteFailureLog {
 
@@ -56,6 +59,15 @@ public final class AdsWriteFailureLogWriter extends AbstractAdsWriteFailureLog {
 
     private FileOutputStream activeFileOutputStream = null;
 
+    /** DISKへのsyncを行うスレッドを1つに限定するためのロック. */
+    private final Object syncLock = new Object();
+    /** 書き込んだレコードの通番. */
+    private long writtenSequence = 0L;
+    /** DISKへのsyncが完了したレコードの通番. */
+    private volatile long syncedSequence = 0L;
+    /** DISKへのsync回数. */
+    private final AtomicLong syncCount = new AtomicLong();
+
     /**
      * デフォルトコンストラクタ（使用不可）.
      */
@@ -239,6 +251,14 @@ public final class AdsWriteFailureLogWriter extends AbstractAdsWriteFailureLog {
             logger.info("Acitve adsWriteFailureLog is not opened.");
             return;
         }
+        try {
+            // sync待ちのレコードが残らないよう、クローズ前にDISKへの書き込みを確定させる。
+            activeFileOutputStream.getFD().sync();
+            syncCount.incrementAndGet();
+            markSynced(writtenSequence);
+        } catch (IOException e) {
+            logger.info("Failed to sync acitve adsWriteFailureLog.", e);
+        }
         IOUtils.closeQuietly(activeFileOutputStream);
         resetFilelds();
     }
@@ -248,7 +268,7 @@ public final class AdsWriteFailureLogWriter extends AbstractAdsWriteFailureLog {
      * @param output ログ出力情報
      * @throws AdsWriteFailureLogException ログへの書き込みに失敗した場合
      */
-    public synchronized void writeActiveFile(AdsWriteFailureLogInfo output) throws AdsWriteFailureLogException {
+    public void writeActiveFile(AdsWriteFailureLogInfo output) throws AdsWriteFailureLogException {
         if (null == output) {
             String message = "No data log infomation.";
             throw new AdsWriteFailureLogException(message);
@@ -261,19 +281,21 @@ public final class AdsWriteFailureLogWriter extends AbstractAdsWriteFailureLog {
      * @param output ログ出力情報の文字列表現
      * @throws AdsWriteFailureLogException ログへの書き込みに失敗した場合
      */
-    public synchronized void writeActiveFile(String output) throws AdsWriteFailureLogException {
+    public void writeActiveFile(String output) throws AdsWriteFailureLogException {
         if (null == output) {
             String message = "No data log infomation.";
             throw new AdsWriteFailureLogException(message);
         }
 
         byte[] outputBytes = output.getBytes();
-        // ファイルが未オープンの場合には、オープンする
-        openActiveFile();
-
-        File file = new File(getBaseDir(), String.format(fileFormat, getPcsVersion(), createdTime));
+        File file;
+        long sequence;
         // ファイルのクローズ、新規オープン処理等とは排他が必要
         synchronized (this) {
+            // ファイルが未オープンの場合には、オープンする
+            openActiveFile();
+
+            file = new File(getBaseDir(), String.format(fileFormat, getPcsVersion(), createdTime));
             if (null == activeFileOutputStream) {
                 String message = String.format("Acitve adsWriteFailureLog does not exist. [%s]",
                         file.getAbsolutePath());
@@ -282,16 +304,73 @@ public final class AdsWriteFailureLogWriter extends AbstractAdsWriteFailureLog {
             }
 
             try {
-                // DISKへの書き込みを確定させるため、ファイルディスクリプタでsyncする。
-                // これにより処理性能が劣化するが、書き込み保証を優先する。
                 activeFileOutputStream.write(outputBytes);
-                activeFileOutputStream.getFD().sync();
             } catch (IOException e) {
                 // ここでエラーを検知してもフィールドは初期化しない。初期化したい場合は、closeすること。
                 String message = String.format("Failed to write acitve adsWriteFailureLog. [%s]",
                         file.getAbsolutePath());
                 throw new AdsWriteFailureLogException(message, e);
             }
+            sequence = ++writtenSequence;
+        }
+        // DISKへの書き込みを確定させるため、ファイルディスクリプタでsyncする。
+        // これにより処理性能が劣化するが、書き込み保証を優先する。
+        syncActiveFile(sequence, file);
+    }
+
+    /**
+     * 指定した通番までのレコードをDISKへ確定させる. <br />
+     * sync中のスレッドがある場合はその完了を待ち、待機中に書き込まれたレコードは次の1回のsyncでまとめて確定させる。
+     * @param sequence 確定させるレコードの通番
+     * @param file 出力中のADS書き込み失敗ログ
+     * @throws AdsWriteFailureLogException DISKへの書き込みに失敗した場合
+     */
+    private void syncActiveFile(long sequence, File file) throws AdsWriteFailureLogException {
+        synchronized (syncLock) {
+            // 待機中に他スレッドのsyncで確定済みとなった場合は何もしない。
+            if (syncedSequence >= sequence) {
+                return;
+            }
+            FileOutputStream stream;
+            long target;
+            synchronized (this) {
+                stream = activeFileOutputStream;
+                target = writtenSequence;
+            }
+            try {
+                if (null == stream) {
+                    throw new IOException("Acitve adsWriteFailureLog is already closed.");
+                }
+                stream.getFD().sync();
+                syncCount.incrementAndGet();
+            } catch (IOException e) {
+                // sync中にクローズされた場合は、クローズ時のsyncで確定していればよい。
+                if (syncedSequence >= sequence) {
+                    return;
+                }
+                String message = String.format("Failed to write acitve adsWriteFailureLog. [%s]",
+                        file.getAbsolutePath());
+                throw new AdsWriteFailureLogException(message, e);
+            }
+            markSynced(target);
+        }
+    }
+
+    /**
+     * DISKへのsync回数を返す.
+     * @return sync回数
+     */
+    long getSyncCount() {
+        return syncCount.get();
+    }
+
+    /**
+     * DISKへのsyncが完了したレコードの通番を更新する.
+     * @param sequence syncが完了したレコードの通番
+     */
+    private synchronized void markSynced(long sequence) {
+        if (sequence > syncedSequence) {
+            syncedSequence = sequence;
         }
     }
 
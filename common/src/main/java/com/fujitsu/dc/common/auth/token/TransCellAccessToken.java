@@ -103,6 +103,25 @@ public final class TransCellAccessToken extends AbstractOAuth2Token implements I
     private static KeyInfo keyInfo;
     private static PrivateKey privKey;
 
+    /** 署名検証に成功したトークンのキャッシュ. */
+    private static final VerifiedTokenCache VERIFIED_TOKEN_CACHE =
+            new VerifiedTokenCache(VerifiedTokenCache.DEFAULT_MAX_ENTRIES);
+
+    /** パース用のDocumentBuilder. DocumentBuilderはスレッドセーフではないためスレッド毎に使い回す. */
+    private static final ThreadLocal<DocumentBuilder> DOCUMENT_BUILDER = new ThreadLocal<DocumentBuilder>() {
+        @Override
+        protected DocumentBuilder initialValue() {
+            DocumentBuilderFactory dbf = DocumentBuilderFactory.newInstance();
+            dbf.setNamespaceAware(true);
+            try {
+                return dbf.newDocumentBuilder();
+            } catch (ParserConfigurationException e) {
+                // 重大な異常なので非チェックにして上に上げる
+                throw new RuntimeException(e);
+            }
+        }
+    };
+
     /**
      * コンストラクタ.
      * @param id トークンの一意識別子
@@ -355,6 +374,7 @@ public final class TransCellAccessToken extends AbstractOAuth2Token implements I
 
     /**
      * TransCellAccessTokenをパースしてオブジェクト生成する.
+     * 署名検証に成功したトークンはトークンの有効期限まで保持し、同じトークン文字列の場合は署名検証を省略する.
      * @param token トークン文字列
      * @return TransCellAccessTokenオブジェクト(パース成功時)
      * @throws AbstractOAuth2Token.TokenParseException トークンのパース失敗
@@ -363,18 +383,23 @@ public final class TransCellAccessToken extends AbstractOAuth2Token implements I
      */
     public static TransCellAccessToken parse(final String token) throws AbstractOAuth2Token.TokenParseException,
     AbstractOAuth2Token.TokenDsigException, AbstractOAuth2Token.TokenRootCrtException {
+        TransCellAccessToken cached = VERIFIED_TOKEN_CACHE.get(token);
+        if (cached != null) {
+            return cached;
+        }
+        TransCellAccessToken verified = parseAndVerify(token);
+        VERIFIED_TOKEN_CACHE.put(token, verified);
+        return verified;
+    }
+
+    private static TransCellAccessToken parseAndVerify(final String token)
+            throws AbstractOAuth2Token.TokenParseException, AbstractOAuth2Token.TokenDsigException,
+            AbstractOAuth2Token.TokenRootCrtException {
         try {
             byte[] samlBytes = DcCoreUtils.decodeBase64Url(token);
             ByteArrayInputStream bais = new ByteArrayInputStream(samlBytes);
-            DocumentBuilderFactory dbf = DocumentBuilderFactory.newInstance();
-            dbf.setNamespaceAware(true);
-            DocumentBuilder builder = null;
-            try {
-                builder = dbf.newDocumentBuilder();
-            } catch (ParserConfigurationException e) {
-                // 重大な異常なので非チェックにして上に上げる
-                throw new RuntimeException(e);
-            }
+            DocumentBuilder builder = DOCUMENT_BUILDER.get();
+            builder.reset();
 
             Document doc = builder.parse(bais);
 
@@ -510,6 +535,8 @@ public final class TransCellAccessToken extends AbstractOAuth2Token implements I
             throws IOException, NoSuchAlgorithmException, InvalidKeySpecException, CertificateException {
 
         xmlSignatureFactory = XMLSignatureFactory.getInstance("DOM");
+        // 証明書の設定が変わるため、検証済みのトークンは信用しない
+        VERIFIED_TOKEN_CACHE.clear();
 
         // Read RootCA Certificate
         x509RootCertificateFileNames = new ArrayList<String>();
@@ -562,6 +589,14 @@ public final class TransCellAccessToken extends AbstractOAuth2Token implements I
 
 
 
+    /**
+     * 署名検証に成功したトークンを保持する数の上限を設定する. 保持しているトークンは破棄する.
+     * @param maxEntries 保持するトークン数の上限. 0以下の場合はキャッシュしない
+     */
+    public static void configureVerifiedTokenCache(int maxEntries) {
+        VERIFIED_TOKEN_CACHE.reset(maxEntries);
+    }
+
     @Override
     public String getExtCellUrl() {
         return this.getIssuer();
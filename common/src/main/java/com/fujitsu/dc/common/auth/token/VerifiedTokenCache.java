@@ -0,0 +1,122 @@
+/**
+ * personium.io
+ * Copyright 2014 FUJITSU LIMITED
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.fujitsu.dc.common.auth.token;
+
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+import org.apache.commons.codec.binary.StringUtils;
+import org.apache.commons.codec.digest.DigestUtils;
+
+/**
+ * 署名検証に成功したTransCellAccessTokenを保持するキャッシュ.
+ * <p>
+ * トークン文字列のダイジェストをキーとし、トークン自身の有効期限まで保持する。
+ * エントリ数の上限を超えた場合は最も古く参照されたものから追い出す(LRU)。
+ * 取得時はトークンの複製を返すため、呼び出し元での変更はキャッシュに影響しない。
+ * </p>
+ */
+final class VerifiedTokenCache {
+
+    /** 保持するトークン数の上限のデフォルト値. */
+    static final int DEFAULT_MAX_ENTRIES = 10000;
+
+    private int maxEntries;
+    private final Map<String, TransCellAccessToken> entries;
+
+    /**
+     * コンストラクタ.
+     * @param maxEntries 保持するトークン数の上限. 0以下の場合はキャッシュしない
+     */
+    VerifiedTokenCache(int maxEntries) {
+        this.maxEntries = maxEntries;
+        this.entries = new LinkedHashMap<String, TransCellAccessToken>(16, 0.75f, true) {
+            private static final long serialVersionUID = 1L;
+
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<String, TransCellAccessToken> eldest) {
+                return size() > VerifiedTokenCache.this.maxEntries;
+            }
+        };
+    }
+
+    /**
+     * 検証済みのトークンを取得する.
+     * @param token トークン文字列
+     * @return トークンの複製. 保持していない場合や有効期限切れの場合はnull
+     */
+    synchronized TransCellAccessToken get(String token) {
+        if (this.maxEntries <= 0) {
+            return null;
+        }
+        String key = digest(token);
+        TransCellAccessToken cached = this.entries.get(key);
+        if (cached == null) {
+            return null;
+        }
+        if (cached.isExpired()) {
+            this.entries.remove(key);
+            return null;
+        }
+        return copy(cached);
+    }
+
+    /**
+     * 検証済みのトークンを登録する. 有効期限切れのトークンは登録しない.
+     * @param token トークン文字列
+     * @param verified 署名検証に成功したトークン
+     */
+    synchronized void put(String token, TransCellAccessToken verified) {
+        if (this.maxEntries <= 0 || verified.isExpired()) {
+            return;
+        }
+        this.entries.put(digest(token), copy(verified));
+    }
+
+    /**
+     * 保持するトークン数の上限を変更し、保持しているトークンを全て破棄する.
+     * @param newMaxEntries 保持するトークン数の上限. 0以下の場合はキャッシュしない
+     */
+    synchronized void reset(int newMaxEntries) {
+        this.maxEntries = newMaxEntries;
+        this.entries.clear();
+    }
+
+    /**
+     * 保持しているトークンを全て破棄する.
+     */
+    synchronized void clear() {
+        this.entries.clear();
+    }
+
+    /**
+     * @return 保持しているトークン数
+     */
+    synchronized int size() {
+        return this.entries.size();
+    }
+
+    private static String digest(String token) {
+        return DigestUtils.sha256Hex(StringUtils.getBytesUtf8(token));
+    }
+
+    private static TransCellAccessToken copy(TransCellAccessToken token) {
+        return new TransCellAccessToken(token.getId(), token.issuedAt, token.lifespan, token.getIssuer(),
+                token.getSubject(), token.getTarget(), new ArrayList<Role>(token.getRoles()), token.getSchema());
+    }
+}
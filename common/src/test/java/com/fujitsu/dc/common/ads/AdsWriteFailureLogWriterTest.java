@@ -28,6 +28,7 @@ import java.io.IOException;
 import java.lang.reflect.Field;
 import java.util.ArrayList;
 import java.util.List;
+import java.util.concurrent.atomic.AtomicReference;
 
 import org.apache.commons.io.FileUtils;
 import org.apache.commons.io.IOUtils;
@@ -394,6 +395,145 @@ public class AdsWriteFailureLogWriterTest {
         }
     }
 
+    /**
+     * sync待ちの間に書き込まれた複数スレッドのレコードが1回のsyncでまとめて確定されること.
+     * @throws Exception Exception
+     */
+    @Test
+    public void sync待ちの間に書き込まれた複数スレッドのレコードが1回のsyncでまとめて確定されること() throws Exception {
+        File dir = createTestDir();
+        File file = null;
+        List<Thread> threadList = new ArrayList<Thread>();
+        AtomicReference<Throwable> error = new AtomicReference<Throwable>();
+        try {
+            writer.openActiveFile();
+            file = getAdsWriteFailureLog();
+            long writtenBefore = getWrittenSequence();
+            long syncCountBefore;
+            // sync中のスレッドがいる状態を再現するため、syncのロックを取得した状態で書き込ませる
+            synchronized (getSyncLock()) {
+                syncCountBefore = writer.getSyncCount();
+                for (int i = 0; i < 10; i++) {
+                    threadList.add(startWriter("record" + i + "\n", error));
+                }
+                waitForWrittenSequence(writtenBefore + 10);
+            }
+            for (Thread thread : threadList) {
+                thread.join();
+            }
+            assertEquals(null, error.get());
+            assertEquals(syncCountBefore + 1, writer.getSyncCount());
+            assertEquals(10, readLines(file).size());
+        } finally {
+            writer.closeActiveFile();
+            FileUtils.forceDelete(dir);
+        }
+    }
+
+    /**
+     * sync待ちの間にローテートされた場合もレコードがローテート後のログに確定されること.
+     * @throws Exception Exception
+     */
+    @Test
+    public void sync待ちの間にローテートされた場合もレコードがローテート後のログに確定されること() throws Exception {
+        File dir = createTestDir();
+        AtomicReference<Throwable> error = new AtomicReference<Throwable>();
+        try {
+            writer.openActiveFile();
+            File srcFile = getAdsWriteFailureLog();
+            long writtenBefore = getWrittenSequence();
+            Thread thread;
+            File dstFile;
+            synchronized (getSyncLock()) {
+                thread = startWriter("record\n", error);
+                waitForWrittenSequence(writtenBefore + 1);
+                // 書き込んだスレッドがsyncを待っている間にローテートする
+                dstFile = writer.rotateActiveFile();
+            }
+            thread.join();
+
+            // ローテート時のクローズでsyncされるため、書き込んだスレッドはエラーとならない
+            assertEquals(null, error.get());
+            assertFalse(srcFile.exists());
+            List<String> lines = readLines(dstFile);
+            assertEquals(1, lines.size());
+            assertEquals("record", lines.get(0));
+        } finally {
+            writer.closeActiveFile();
+            FileUtils.forceDelete(dir);
+        }
+    }
+
+    /**
+     * テスト用の出力ディレクトリを作成し、ログの出力先とする.
+     * @return 出力ディレクトリ
+     * @throws Exception Exception
+     */
+    private File createTestDir() throws Exception {
+        File dir = new File("./testdir");
+        Field baseDir = AbstractAdsWriteFailureLog.class.getDeclaredField("baseDir");
+        baseDir.setAccessible(true);
+        baseDir.set(writer, "./testdir");
+        if (!dir.mkdir()) {
+            fail("mkdir failed(environment error): " + dir.getAbsolutePath());
+        }
+        return dir;
+    }
+
+    private Object getSyncLock() throws Exception {
+        Field syncLock = writer.getClass().getDeclaredField("syncLock");
+        syncLock.setAccessible(true);
+        return syncLock.get(writer);
+    }
+
+    private long getWrittenSequence() throws Exception {
+        Field writtenSequence = writer.getClass().getDeclaredField("writtenSequence");
+        writtenSequence.setAccessible(true);
+        synchronized (writer) {
+            return writtenSequence.getLong(writer);
+        }
+    }
+
+    private void waitForWrittenSequence(long sequence) throws Exception {
+        long deadline = System.currentTimeMillis() + 10000;
+        while (getWrittenSequence() < sequence) {
+            if (System.currentTimeMillis() > deadline) {
+                fail("write timed out.");
+            }
+            Thread.sleep(10);
+        }
+    }
+
+    private Thread startWriter(final String record, final AtomicReference<Throwable> error) {
+        Thread thread = new Thread() {
+            @Override
+            public void run() {
+                try {
+                    writer.writeActiveFile(record);
+                } catch (Throwable e) {
+                    error.set(e);
+                }
+            }
+        };
+        thread.start();
+        return thread;
+    }
+
+    private List<String> readLines(File file) throws IOException {
+        List<String> lines = new ArrayList<String>();
+        BufferedReader reader = null;
+        try {
+            reader = new BufferedReader(new FileReader(file));
+            String line;
+            while ((line = reader.readLine()) != null) {
+                lines.add(line);
+            }
+        } finally {
+            IOUtils.closeQuietly(reader);
+        }
+        return lines;
+    }
+
     /**
      * ADS書き込み失敗ログを多重実行させるためのクラス.
      */
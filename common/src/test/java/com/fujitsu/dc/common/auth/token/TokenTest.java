@@ -17,6 +17,7 @@
 package com.fujitsu.dc.common.auth.token;
 
 import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotSame;
 import static org.junit.Assert.assertTrue;
 import static org.junit.Assert.fail;
 
@@ -119,6 +120,43 @@ public class TokenTest {
             assertTrue(hit);
         }
     }
+    /**
+     * 同じTransCellAccessTokenを再度パースした場合に検証済みのトークンが返ること.
+     * @throws TokenParseException TokenParseException
+     * @throws TokenRootCrtException TokenRootCrtException
+     * @throws TokenDsigException TokenDsigException
+     */
+    @Test
+    public void 同じTransCellAccessTokenを再度パースした場合に検証済みのトークンが返ること()
+            throws TokenParseException, TokenDsigException, TokenRootCrtException {
+        String cellRootUrl = "https://localhost/TranscellAccessTokenTestCell/";
+        List<Role> roleList = new ArrayList<Role>();
+        roleList.add(new Role("admin"));
+        String token = new TransCellAccessToken(cellRootUrl, cellRootUrl + "#admin", "https://example.com/targetCell/",
+                roleList, null).toTokenString();
+
+        TransCellAccessToken first = TransCellAccessToken.parse(token);
+        TransCellAccessToken second = TransCellAccessToken.parse(token);
+        assertNotSame(first, second);
+        assertEquals(first.getId(), second.getId());
+        assertEquals(first.getSubject(), second.getSubject());
+        assertEquals(first.getRoles().size(), second.getRoles().size());
+
+        // 呼び出し元でロールを変更しても、次回のパース結果には影響しないこと
+        second.getRoles().clear();
+        assertEquals(1, TransCellAccessToken.parse(token).getRoles().size());
+
+        // 改ざんされたトークンはキャッシュされず、署名検証で失敗すること
+        try {
+            TransCellAccessToken.parse(token.substring(0, token.length() - 8) + "AAAAAAAA");
+            fail("tampered token must not be accepted");
+        } catch (TokenParseException e) {
+            assertTrue(true);
+        } catch (TokenDsigException e) {
+            assertTrue(true);
+        }
+    }
+
     /**
      * testCellLocalAccessTokenのテスト.
      * @throws MalformedURLException URLパースエラー
@@ -27,6 +27,8 @@ import java.util.Properties;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
+import com.fujitsu.dc.common.es.EsRefreshPolicy;
+
 import java.util.Arrays;
 
 /**
@@ -163,6 +165,47 @@ public class DcCoreConfig {
         public static final String ORDERBY_SORT_ORDER = KEY_ROOT
                 + "odata.query.orderby.sort.order";
 
+        /**
+         * 一覧取得で続きのページを$skiptokenで返却するか否か.
+         */
+        public static final String SKIPTOKEN_ENABLED = KEY_ROOT + "odata.query.skiptoken.enabled";
+
+        /**
+         * 一覧取得のレスポンスを文字列として組み立てずに逐次出力するか否か.
+         * 逐次出力ではステータスコードの送信後にエラーとなった場合、レスポンスボディが途中で切れた200応答となる.
+         */
+        public static final String FEED_STREAMING_ENABLED = KEY_ROOT + "odata.feed.streaming.enabled";
+
+        /**
+         * $filterのパース結果とESクエリへの変換結果をクエリの形ごとにキャッシュするか否か.
+         */
+        public static final String QUERY_CACHE_ENABLED = KEY_ROOT + "odata.query.cache.enabled";
+
+        /**
+         * キャッシュするクエリの形の数の上限.
+         */
+        public static final String QUERY_CACHE_MAX_ENTRIES = KEY_ROOT + "odata.query.cache.maxEntries";
+
+        /**
+         * 件数取得の結果を、エンティティタイプへの書き込みがあるまでキャッシュするか否か.
+         */
+        public static final String COUNT_CACHE_ENABLED = KEY_ROOT + "odata.count.cache.enabled";
+
+        /**
+         * キャッシュする件数の数の上限.
+         */
+        public static final String COUNT_CACHE_MAX_ENTRIES = KEY_ROOT + "odata.count.cache.maxEntries";
+
+        /**
+         * キャッシュした件数の有効期限(ms).
+         */
+        public static final String COUNT_CACHE_TTL = KEY_ROOT + "odata.count.cache.ttlInMillis";
+
+        /**
+         * 概算件数の指定時に、書き込み後の古い件数を返してよい期間(ms).
+         */
+        public static final String COUNT_APPROXIMATE_MAX_AGE = KEY_ROOT + "odata.count.approximate.maxAgeInMillis";
+
     }
 
     /**
@@ -203,6 +246,12 @@ public class DcCoreConfig {
          * トークンを暗号化する際に利用している秘密鍵.
          */
         public static final String AUTH_PASSWORD_SALT = KEY_ROOT + "security.auth.password.salt";
+
+        /**
+         * 署名検証に成功したTransCellAccessTokenを保持する数の上限. 0の場合は保持しない.
+         */
+        public static final String TRANS_CELL_TOKEN_CACHE_MAX_ENTRIES = KEY_ROOT
+                + "security.transCellToken.cache.maxEntries";
     }
 
     /**
@@ -230,6 +279,17 @@ public class DcCoreConfig {
          */
         public static final String RETRY_INTERVAL = KEY_ROOT + "lock.retry.interval";
 
+        /**
+         * ロック取得リトライ時のバックオフの初期値(ms). リトライ毎に倍増する.
+         * ロック取得の待ち時間の上限はリトライ回数×リトライ間隔となる.
+         */
+        public static final String RETRY_BACKOFF_INITIAL = KEY_ROOT + "lock.retry.backoff.initialInMillis";
+
+        /**
+         * ロック取得リトライ時のバックオフの上限(ms).
+         */
+        public static final String RETRY_BACKOFF_MAX = KEY_ROOT + "lock.retry.backoff.maxInMillis";
+
         /**
          * セルロック取得時のリトライ回数.
          */
@@ -254,6 +314,34 @@ public class DcCoreConfig {
          * ロック用memcached operationタイムアウト値(ms).
          */
         public static final String MEMCACHED_OPTIMEOUT = KEY_ROOT + "lock.memcached.opTimeout";
+
+        /**
+         * ReadDeleteOnlyモード・セルの処理ステータスをローカルに保持するか否か.
+         * 許容値： true/false
+         */
+        public static final String LOCAL_VIEW_ENABLED = KEY_ROOT + "lock.localView.enabled";
+
+        /**
+         * ローカルに保持した状態をロックストアから再取得する間隔(ms).
+         */
+        public static final String LOCAL_VIEW_REFRESH_INTERVAL = KEY_ROOT + "lock.localView.refreshIntervalInMillis";
+
+        /**
+         * ローカルに保持した状態を使用できる期間(ms). 他ノードでの変更が反映されるまでの最大時間となる.
+         */
+        public static final String LOCAL_VIEW_LEASE = KEY_ROOT + "lock.localView.leaseInMillis";
+
+        /**
+         * セルへのアクセス数をノード内で数え、ロックストアへは差分を定期的に反映するか否か.
+         * 許容値： true/false
+         */
+        public static final String CELL_ACCESS_COUNT_LOCAL_ENABLED = KEY_ROOT + "lock.cellAccessCount.local.enabled";
+
+        /**
+         * ノード内で数えたセルへのアクセス数をロックストアへ反映する間隔(ms).
+         */
+        public static final String CELL_ACCESS_COUNT_PUBLISH_INTERVAL =
+                KEY_ROOT + "lock.cellAccessCount.publishIntervalInMillis";
     }
 
     /**
@@ -299,6 +387,88 @@ public class DcCoreConfig {
          */
         public static final String RETRY_INTERVAL = KEY_ROOT + "es.retryInterval";
 
+        /**
+         * 書き込みを検索に反映させる方針.
+         * 許容値： immediate/deferred/waitForVisible
+         */
+        public static final String REFRESH_POLICY = KEY_ROOT + "es.refreshPolicy";
+
+        /**
+         * リトライの予算としてリクエスト1件あたりに許可するリトライ回数.
+         */
+        public static final String RETRY_BUDGET_RATIO = KEY_ROOT + "es.retryBudget.ratio";
+
+        /**
+         * リトライの予算によらず許可する1秒あたりのリトライ回数.
+         */
+        public static final String RETRY_BUDGET_MIN_PER_SECOND = KEY_ROOT + "es.retryBudget.minRetriesPerSecond";
+
+        /**
+         * 1リクエストの処理中にESの応答を待てる時間(ms). 0の場合は期限を設けない.
+         */
+        public static final String REQUEST_BUDGET = KEY_ROOT + "es.requestBudgetInMillis";
+
+        /**
+         * 操作種別ごとのサーキットブレーカを使用するか否か.
+         */
+        public static final String CIRCUIT_BREAKER_ENABLED = KEY_ROOT + "es.circuitBreaker.enabled";
+
+        /**
+         * サーキットブレーカがエラー率・遅延した要求の割合を集計する期間(ms).
+         */
+        public static final String CIRCUIT_BREAKER_WINDOW = KEY_ROOT + "es.circuitBreaker.windowInMillis";
+
+        /**
+         * サーキットブレーカが開状態への遷移を判定する最小の要求数.
+         */
+        public static final String CIRCUIT_BREAKER_MIN_REQUESTS = KEY_ROOT + "es.circuitBreaker.minimumRequests";
+
+        /**
+         * サーキットブレーカが開状態へ遷移するエラー率.
+         */
+        public static final String CIRCUIT_BREAKER_ERROR_RATE = KEY_ROOT + "es.circuitBreaker.errorRateThreshold";
+
+        /**
+         * サーキットブレーカが遅延とみなす応答時間(ms).
+         */
+        public static final String CIRCUIT_BREAKER_SLOW_CALL = KEY_ROOT + "es.circuitBreaker.slowCallThresholdInMillis";
+
+        /**
+         * サーキットブレーカが開状態へ遷移する遅延した要求の割合.
+         */
+        public static final String CIRCUIT_BREAKER_SLOW_RATE = KEY_ROOT + "es.circuitBreaker.slowCallRateThreshold";
+
+        /**
+         * サーキットブレーカが開状態を維持する時間(ms).
+         */
+        public static final String CIRCUIT_BREAKER_OPEN_DURATION = KEY_ROOT + "es.circuitBreaker.openDurationInMillis";
+
+        /**
+         * サーキットブレーカが半開状態で通す試行要求の数.
+         */
+        public static final String CIRCUIT_BREAKER_HALF_OPEN_PROBES = KEY_ROOT + "es.circuitBreaker.halfOpenProbes";
+
+        /**
+         * 同一ドキュメントへの同時の取得要求を1回のES問い合わせにまとめるか否か.
+         */
+        public static final String GET_COALESCING_ENABLED = KEY_ROOT + "es.get.coalescing.enabled";
+
+        /**
+         * 取得したドキュメントを他のリクエストへの応答に使い回す期間(ms). 0の場合は使い回さない.
+         * 使い回す前にソースを含まない取得で現在のバージョンと照合し、他ノードで書き込まれていた場合は取得し直す.
+         */
+        public static final String GET_SNAPSHOT_TTL = KEY_ROOT + "es.get.snapshotTtlInMillis";
+
+        /**
+         * 複数のリクエストからのユーザデータ登録を1回のバルク登録にまとめるか否か.
+         */
+        public static final String WRITE_BATCH_ENABLED = KEY_ROOT + "es.writeBatch.enabled";
+
+        /**
+         * 1回のバルク登録にまとめる件数の上限.
+         */
+        public static final String WRITE_BATCH_MAX_SIZE = KEY_ROOT + "es.writeBatch.maxSize";
+
         /**
          * AuthenticDataStoreの設定.
          */
@@ -353,6 +523,23 @@ public class DcCoreConfig {
              * コネクションプールのvalidationQuery.
              */
             public static final String CP_VALIDATION_QUERY = ADS_ROOT + "jdbc.cp.validationQuery";
+            /**
+             * コネクションプールでPreparedStatementをキャッシュするか否か.
+             */
+            public static final String CP_POOL_PREPARED_STATEMENTS = ADS_ROOT + "jdbc.cp.poolPreparedStatements";
+            /**
+             * コネクションごとにキャッシュするPreparedStatementの最大数.
+             */
+            public static final String CP_MAX_OPEN_PREPARED_STATEMENTS =
+                    ADS_ROOT + "jdbc.cp.maxOpenPreparedStatements";
+            /**
+             * JDBCドライバに渡す接続プロパティ. 「名前=値」を「;」で区切って指定する.
+             */
+            public static final String JDBC_CONNECTION_PROPERTIES = ADS_ROOT + "jdbc.connectionProperties";
+            /**
+             * 一括登録・更新時に1回のexecuteBatchで送信する件数.
+             */
+            public static final String JDBC_BATCH_SIZE = ADS_ROOT + "jdbc.batchSize";
         }
     }
 
@@ -442,7 +629,7 @@ public class DcCoreConfig {
     public static final class Cache {
         /**
          * Cacheのタイプ.
-         * 許容値： none/memcached
+         * 許容値： none/memcached/inProcess
          */
         public static final String TYPE = KEY_ROOT + "cache.type";
 
@@ -458,12 +645,29 @@ public class DcCoreConfig {
          */
         public static final String BOX_CACHE_ENABLED = KEY_ROOT + "cache.box.enabled";
 
+        /**
+         * アカウントに結びつくロールのキャッシュを有効とするか否か. ニアキャッシュが有効な場合のみ使用する.
+         * 許容値： true/false
+         */
+        public static final String ROLE_CACHE_ENABLED = KEY_ROOT + "cache.role.enabled";
+
         /**
          * スキーマのキャッシュを有効とするか否か.
          * 許容値： true/false
          */
         public static final String SCHEMA_CACHE_ENABLED = KEY_ROOT + "cache.schema.enabled";
 
+        /**
+         * パース済みのユーザデータスキーマをプロセス内に保持するか否か.
+         * 許容値： true/false
+         */
+        public static final String SCHEMA_LOCAL_CACHE_ENABLED = KEY_ROOT + "cache.schema.local.enabled";
+
+        /**
+         * プロセス内に保持するユーザデータスキーマ(ODataSvcコレクション)数の上限.
+         */
+        public static final String SCHEMA_LOCAL_CACHE_MAX_ENTRIES = KEY_ROOT + "cache.schema.local.maxEntries";
+
         /**
          * memcachedホスト名.
          */
@@ -483,6 +687,33 @@ public class DcCoreConfig {
          * キャッシュ有効期限.
          */
         public static final String MEMCACHED_EXPIRES_IN = KEY_ROOT + "cache.memcached.expiresin";
+
+        /**
+         * プロセス内キャッシュ(cache.typeがinProcessの場合)に保持するバイト数の上限.
+         */
+        public static final String IN_PROCESS_MAX_BYTES = KEY_ROOT + "cache.inProcess.maxBytes";
+
+        /**
+         * ニアキャッシュ(memcachedの手前に置くプロセス内キャッシュ)を有効とするか否か.
+         * 許容値： true/false
+         */
+        public static final String NEAR_CACHE_ENABLED = KEY_ROOT + "cache.near.enabled";
+
+        /**
+         * ニアキャッシュに保持するエントリ数の上限.
+         */
+        public static final String NEAR_CACHE_MAX_ENTRIES = KEY_ROOT + "cache.near.maxEntries";
+
+        /**
+         * ニアキャッシュのエントリ有効期限(ms).
+         */
+        public static final String NEAR_CACHE_TTL_IN_MILLIS = KEY_ROOT + "cache.near.ttlInMillis";
+
+        /**
+         * ニアキャッシュの世代キー確認間隔(ms).
+         */
+        public static final String NEAR_CACHE_GENERATION_CHECK_INTERVAL_IN_MILLIS = KEY_ROOT
+                + "cache.near.generationCheckIntervalInMillis";
     }
 
     /**
@@ -615,6 +846,11 @@ public class DcCoreConfig {
          */
         public static final String REPAIR_SERVICE_AWAIT_SHUTDOWN_IN_SEC = KEY_ROOT + "es.ads.repair.awaitShutdownInSec";
         static final long DEFAULT_REPAIR_SERVICE_AWAIT_SHUTDOWN_IN_SEC = 600L;
+        /**
+         * Repair処理でインデックス(ユニットユーザ)ごとに並行して補正するワーカスレッド数.
+         */
+        public static final String REPAIR_SERVICE_WORKER_THREADS = KEY_ROOT + "es.ads.repair.workerThreads";
+        static final int DEFAULT_REPAIR_SERVICE_WORKER_THREADS = 4;
 
         /**
          * RepairAdsを起動するか否かを示すファイルのパス. ファイルが存在する場合のみ、RepairAdsが起動する。
@@ -641,6 +877,70 @@ public class DcCoreConfig {
         public static final String COUNT_ITERATION = KEY_ROOT + "es.ads.log.count.iteration";
     }
 
+    /**
+     * ADSへの非同期反映(write-behind)の設定.
+     */
+    public static final class AdsWriteBehind {
+        /**
+         * ADSへの書き込みを非同期に行うか否か.
+         */
+        public static final String ENABLED = KEY_ROOT + "es.ads.writeBehind.enabled";
+        /**
+         * 未反映の更新を記録するジャーナルの格納ディレクトリ.
+         */
+        public static final String JOURNAL_DIR = KEY_ROOT + "es.ads.writeBehind.journalDir";
+        /**
+         * ジャーナルのセグメントを切り替えるサイズ(byte).
+         */
+        public static final String SEGMENT_MAX_BYTES = KEY_ROOT + "es.ads.writeBehind.segmentMaxBytes";
+        /**
+         * ADSへの反映間隔(ms).
+         */
+        public static final String DRAIN_INTERVAL = KEY_ROOT + "es.ads.writeBehind.drainIntervalInMillis";
+        /**
+         * 1回にまとめてADSへ反映する件数.
+         */
+        public static final String BATCH_SIZE = KEY_ROOT + "es.ads.writeBehind.batchSize";
+        /**
+         * 未反映の更新の上限(byte). 超えた場合はADSへ同期的に書き込む.
+         */
+        public static final String MAX_BACKLOG_BYTES = KEY_ROOT + "es.ads.writeBehind.maxBacklogBytes";
+        /**
+         * 未反映の更新が上限を超えた場合に空きを待つ時間(ms).
+         */
+        public static final String BACKPRESSURE_WAIT = KEY_ROOT + "es.ads.writeBehind.backpressureWaitInMillis";
+    }
+
+    /**
+     * ESとADSの整合性検証の設定.
+     */
+    public static final class AdsVerify {
+        /**
+         * 整合性検証を行うか否か.
+         */
+        public static final String ENABLED = KEY_ROOT + "es.ads.verify.enabled";
+        /**
+         * 整合性検証の実行間隔(秒).
+         */
+        public static final String INTERVAL = KEY_ROOT + "es.ads.verify.intervalInSec";
+        /**
+         * 1回の実行で検証を続ける時間の上限(秒). 続きは次回の実行で検証する.
+         */
+        public static final String MAX_RUN = KEY_ROOT + "es.ads.verify.maxRunInSec";
+        /**
+         * 1秒あたりにES/ADSから読み込む件数の上限.
+         */
+        public static final String IO_BUDGET = KEY_ROOT + "es.ads.verify.ioBudgetPerSec";
+        /**
+         * ID・更新日時を直接比較するIDの範囲の件数の上限. 超える範囲は分割する.
+         */
+        public static final String LEAF_SIZE = KEY_ROOT + "es.ads.verify.leafSize";
+        /**
+         * 検証対象外とする直近の更新の期間(秒). ADSへの反映中のデータを不整合とみなさないため.
+         */
+        public static final String GRACE = KEY_ROOT + "es.ads.verify.graceInSec";
+    }
+
     static {
         // 各種メッセージ出力クラスを強制的にロードする
         DcCoreLog.loadConfig();
@@ -1022,6 +1322,62 @@ public class DcCoreConfig {
         return Boolean.parseBoolean(get(OData.ORDERBY_SORT_ORDER));
     }
 
+    /**
+     * @return 一覧取得で続きのページを$skiptokenで返却するか否か.
+     */
+    public static boolean isSkipTokenEnabled() {
+        return Boolean.parseBoolean(get(OData.SKIPTOKEN_ENABLED));
+    }
+
+    /**
+     * @return 一覧取得のレスポンスを文字列として組み立てずに逐次出力するか否か. デフォルトは無効
+     */
+    public static boolean isFeedStreamingEnabled() {
+        return Boolean.parseBoolean(get(OData.FEED_STREAMING_ENABLED));
+    }
+
+    /**
+     * @return $filterのパース結果とESクエリへの変換結果をクエリの形ごとにキャッシュするか否か.
+     */
+    public static boolean isQueryCacheEnabled() {
+        return Boolean.parseBoolean(get(OData.QUERY_CACHE_ENABLED));
+    }
+
+    /**
+     * @return キャッシュするクエリの形の数の上限.
+     */
+    public static int getQueryCacheMaxEntries() {
+        return Integer.parseInt(get(OData.QUERY_CACHE_MAX_ENTRIES));
+    }
+
+    /**
+     * @return 件数取得の結果を、エンティティタイプへの書き込みがあるまでキャッシュするか否か.
+     */
+    public static boolean isCountCacheEnabled() {
+        return Boolean.parseBoolean(get(OData.COUNT_CACHE_ENABLED));
+    }
+
+    /**
+     * @return キャッシュする件数の数の上限.
+     */
+    public static int getCountCacheMaxEntries() {
+        return Integer.parseInt(get(OData.COUNT_CACHE_MAX_ENTRIES));
+    }
+
+    /**
+     * @return キャッシュした件数の有効期限(ms).
+     */
+    public static long getCountCacheTtlInMillis() {
+        return Long.parseLong(get(OData.COUNT_CACHE_TTL));
+    }
+
+    /**
+     * @return 概算件数の指定時に、書き込み後の古い件数を返してよい期間(ms).
+     */
+    public static long getCountApproximateMaxAgeInMillis() {
+        return Long.parseLong(get(OData.COUNT_APPROXIMATE_MAX_AGE));
+    }
+
     /**
      * @return Lockのタイプ.
      */
@@ -1050,6 +1406,20 @@ public class DcCoreConfig {
         return get(Lock.RETRY_INTERVAL);
     }
 
+    /**
+     * @return ロック取得リトライ時のバックオフの初期値(ms).
+     */
+    public static long getLockRetryBackoffInitialInMillis() {
+        return Long.parseLong(get(Lock.RETRY_BACKOFF_INITIAL));
+    }
+
+    /**
+     * @return ロック取得リトライ時のバックオフの上限(ms).
+     */
+    public static long getLockRetryBackoffMaxInMillis() {
+        return Long.parseLong(get(Lock.RETRY_BACKOFF_MAX));
+    }
+
     /**
      * @return セルロック取得時のリトライ回数.
      */
@@ -1085,6 +1455,41 @@ public class DcCoreConfig {
         return Long.parseLong(get(Lock.MEMCACHED_OPTIMEOUT));
     }
 
+    /**
+     * @return ReadDeleteOnlyモード・セルの処理ステータスをローカルに保持するか否か.
+     */
+    public static boolean isLockLocalViewEnabled() {
+        return Boolean.parseBoolean(get(Lock.LOCAL_VIEW_ENABLED));
+    }
+
+    /**
+     * @return ローカルに保持した状態をロックストアから再取得する間隔(ms).
+     */
+    public static long getLockLocalViewRefreshIntervalInMillis() {
+        return Long.parseLong(get(Lock.LOCAL_VIEW_REFRESH_INTERVAL));
+    }
+
+    /**
+     * @return ローカルに保持した状態を使用できる期間(ms).
+     */
+    public static long getLockLocalViewLeaseInMillis() {
+        return Long.parseLong(get(Lock.LOCAL_VIEW_LEASE));
+    }
+
+    /**
+     * @return セルへのアクセス数をノード内で数えるか否か.
+     */
+    public static boolean isCellAccessCountLocalEnabled() {
+        return Boolean.parseBoolean(get(Lock.CELL_ACCESS_COUNT_LOCAL_ENABLED));
+    }
+
+    /**
+     * @return ノード内で数えたセルへのアクセス数をロックストアへ反映する間隔(ms).
+     */
+    public static long getCellAccessCountPublishIntervalInMillis() {
+        return Long.parseLong(get(Lock.CELL_ACCESS_COUNT_PUBLISH_INTERVAL));
+    }
+
     /**
      * @return 最新のイベントログファイルの格納ディレクトリ.
      */
@@ -1196,6 +1601,118 @@ public class DcCoreConfig {
         return get(ES.RETRY_INTERVAL);
     }
 
+    /**
+     * @return ESへの書き込みを検索に反映させる方針.
+     */
+    public static EsRefreshPolicy getEsRefreshPolicy() {
+        return EsRefreshPolicy.fromValue(get(ES.REFRESH_POLICY));
+    }
+
+    /**
+     * @return ESへのリトライの予算としてリクエスト1件あたりに許可するリトライ回数.
+     */
+    public static double getEsRetryBudgetRatio() {
+        return Double.parseDouble(get(ES.RETRY_BUDGET_RATIO));
+    }
+
+    /**
+     * @return ESへのリトライの予算によらず許可する1秒あたりのリトライ回数.
+     */
+    public static int getEsRetryBudgetMinRetriesPerSecond() {
+        return Integer.parseInt(get(ES.RETRY_BUDGET_MIN_PER_SECOND));
+    }
+
+    /**
+     * @return 1リクエストの処理中にESの応答を待てる時間(ms). 0の場合は期限を設けない.
+     */
+    public static long getEsRequestBudgetInMillis() {
+        return Long.parseLong(get(ES.REQUEST_BUDGET));
+    }
+
+    /**
+     * @return ESへの操作種別ごとのサーキットブレーカを使用するか否か.
+     */
+    public static boolean isEsCircuitBreakerEnabled() {
+        return Boolean.parseBoolean(get(ES.CIRCUIT_BREAKER_ENABLED));
+    }
+
+    /**
+     * @return サーキットブレーカがエラー率・遅延した要求の割合を集計する期間(ms).
+     */
+    public static long getEsCircuitBreakerWindowInMillis() {
+        return Long.parseLong(get(ES.CIRCUIT_BREAKER_WINDOW));
+    }
+
+    /**
+     * @return サーキットブレーカが開状態への遷移を判定する最小の要求数.
+     */
+    public static int getEsCircuitBreakerMinimumRequests() {
+        return Integer.parseInt(get(ES.CIRCUIT_BREAKER_MIN_REQUESTS));
+    }
+
+    /**
+     * @return サーキットブレーカが開状態へ遷移するエラー率.
+     */
+    public static double getEsCircuitBreakerErrorRateThreshold() {
+        return Double.parseDouble(get(ES.CIRCUIT_BREAKER_ERROR_RATE));
+    }
+
+    /**
+     * @return サーキットブレーカが遅延とみなす応答時間(ms).
+     */
+    public static long getEsCircuitBreakerSlowCallThresholdInMillis() {
+        return Long.parseLong(get(ES.CIRCUIT_BREAKER_SLOW_CALL));
+    }
+
+    /**
+     * @return サーキットブレーカが開状態へ遷移する遅延した要求の割合.
+     */
+    public static double getEsCircuitBreakerSlowCallRateThreshold() {
+        return Double.parseDouble(get(ES.CIRCUIT_BREAKER_SLOW_RATE));
+    }
+
+    /**
+     * @return サーキットブレーカが開状態を維持する時間(ms).
+     */
+    public static long getEsCircuitBreakerOpenDurationInMillis() {
+        return Long.parseLong(get(ES.CIRCUIT_BREAKER_OPEN_DURATION));
+    }
+
+    /**
+     * @return サーキットブレーカが半開状態で通す試行要求の数.
+     */
+    public static int getEsCircuitBreakerHalfOpenProbes() {
+        return Integer.parseInt(get(ES.CIRCUIT_BREAKER_HALF_OPEN_PROBES));
+    }
+
+    /**
+     * @return 同一ドキュメントへの同時の取得要求を1回のES問い合わせにまとめるか否か.
+     */
+    public static boolean isEsGetCoalescingEnabled() {
+        return Boolean.parseBoolean(get(ES.GET_COALESCING_ENABLED));
+    }
+
+    /**
+     * @return 取得したドキュメントを他のリクエストへの応答に使い回す期間(ms).
+     */
+    public static long getEsGetSnapshotTtlInMillis() {
+        return Long.parseLong(get(ES.GET_SNAPSHOT_TTL));
+    }
+
+    /**
+     * @return 複数のリクエストからのユーザデータ登録を1回のバルク登録にまとめるか否か.
+     */
+    public static boolean isEsWriteBatchEnabled() {
+        return Boolean.parseBoolean(get(ES.WRITE_BATCH_ENABLED));
+    }
+
+    /**
+     * @return 1回のバルク登録にまとめる件数の上限.
+     */
+    public static int getEsWriteBatchMaxSize() {
+        return Integer.parseInt(get(ES.WRITE_BATCH_MAX_SIZE));
+    }
+
     /**
      * @return barインストールの非同期処理状況の有効期限(s).
      */
@@ -1217,9 +1734,19 @@ public class DcCoreConfig {
         ret.setProperty("maxIdle", get(ES.ADS.CP_MAX_IDLE));
         ret.setProperty("maxWait", get(ES.ADS.CP_MAX_WAIT));
         ret.setProperty("validationQuery", get(ES.ADS.CP_VALIDATION_QUERY));
+        ret.setProperty("poolPreparedStatements", get(ES.ADS.CP_POOL_PREPARED_STATEMENTS));
+        ret.setProperty("maxOpenPreparedStatements", get(ES.ADS.CP_MAX_OPEN_PREPARED_STATEMENTS));
+        ret.setProperty("connectionProperties", get(ES.ADS.JDBC_CONNECTION_PROPERTIES));
         return ret;
     }
 
+    /**
+     * @return ES ADSにjdbcを使うときの、一括登録・更新時に1回のexecuteBatchで送信する件数.
+     */
+    public static int getEsAdsJdbcBatchSize() {
+        return Integer.parseInt(get(ES.ADS.JDBC_BATCH_SIZE));
+    }
+
     /**
      * @return Cacheのタイプ.
      */
@@ -1264,6 +1791,14 @@ public class DcCoreConfig {
         return Boolean.parseBoolean(get(Cache.BOX_CACHE_ENABLED));
     }
 
+    /**
+     * アカウントに結びつくロールのキャッシュが有効か否かを返す.
+     * @return 有効な場合はtrue.
+     */
+    public static boolean isRoleCacheEnabled() {
+        return Boolean.parseBoolean(get(Cache.ROLE_CACHE_ENABLED));
+    }
+
     /**
      * スキーマのキャッシュが有効か否かを返す.
      * @return 有効な場合はtrue.
@@ -1272,6 +1807,20 @@ public class DcCoreConfig {
         return Boolean.parseBoolean(get(Cache.SCHEMA_CACHE_ENABLED));
     }
 
+    /**
+     * @return パース済みのユーザデータスキーマをプロセス内に保持するか否か.
+     */
+    public static boolean isSchemaLocalCacheEnabled() {
+        return Boolean.parseBoolean(get(Cache.SCHEMA_LOCAL_CACHE_ENABLED));
+    }
+
+    /**
+     * @return プロセス内に保持するユーザデータスキーマ数の上限.
+     */
+    public static int getSchemaLocalCacheMaxEntries() {
+        return Integer.parseInt(get(Cache.SCHEMA_LOCAL_CACHE_MAX_ENTRIES));
+    }
+
     /**
      * @return memcachedキャッシュ有効期限.
      */
@@ -1279,6 +1828,41 @@ public class DcCoreConfig {
         return Integer.parseInt(get(Cache.MEMCACHED_EXPIRES_IN));
     }
 
+    /**
+     * @return プロセス内キャッシュに保持するバイト数の上限.
+     */
+    public static long getCacheInProcessMaxBytes() {
+        return Long.parseLong(get(Cache.IN_PROCESS_MAX_BYTES));
+    }
+
+    /**
+     * @return ニアキャッシュを有効とするか否か.
+     */
+    public static boolean isNearCacheEnabled() {
+        return Boolean.parseBoolean(get(Cache.NEAR_CACHE_ENABLED));
+    }
+
+    /**
+     * @return ニアキャッシュに保持するエントリ数の上限.
+     */
+    public static int getNearCacheMaxEntries() {
+        return Integer.parseInt(get(Cache.NEAR_CACHE_MAX_ENTRIES));
+    }
+
+    /**
+     * @return ニアキャッシュのエントリ有効期限(ms).
+     */
+    public static long getNearCacheTtlInMillis() {
+        return Long.parseLong(get(Cache.NEAR_CACHE_TTL_IN_MILLIS));
+    }
+
+    /**
+     * @return ニアキャッシュの世代キー確認間隔(ms).
+     */
+    public static long getNearCacheGenerationCheckIntervalInMillis() {
+        return Long.parseLong(get(Cache.NEAR_CACHE_GENERATION_CHECK_INTERVAL_IN_MILLIS));
+    }
+
     /**
      * Engineが有効かどうかを返却する.
      * @return true:Engine有効 / false:Engine無効
@@ -1396,6 +1980,14 @@ public class DcCoreConfig {
         return get(Security.AUTH_PASSWORD_SALT);
     }
 
+    /**
+     * 署名検証に成功したTransCellAccessTokenを保持する数の上限.
+     * @return 保持する数の上限
+     */
+    public static int getTransCellTokenCacheMaxEntries() {
+        return Integer.parseInt(get(Security.TRANS_CELL_TOKEN_CACHE_MAX_ENTRIES));
+    }
+
     /**
      * Repair処理が最初に起動するまでの遅延時間.
      * @return Repair処理が最初に起動するまでの遅延時間.
@@ -1452,6 +2044,20 @@ public class DcCoreConfig {
         }
     }
 
+    /**
+     * Repair処理でインデックスごとに並行して補正するワーカスレッド数.
+     * @return ワーカスレッド数
+     */
+    public static int getAdsRepairWorkerThreads() {
+        String value = get(AdsRepair.REPAIR_SERVICE_WORKER_THREADS);
+        if (null != value && !value.isEmpty()) {
+            return Integer.valueOf(value);
+        } else {
+            // Default値.
+            return AdsRepair.DEFAULT_REPAIR_SERVICE_WORKER_THREADS;
+        }
+    }
+
     /**
      * 設定情報をリロードします.
      */
@@ -1544,6 +2150,110 @@ public class DcCoreConfig {
         return Integer.parseInt(get(AdsFailureLog.COUNT_ITERATION));
     }
 
+    /**
+     * ADSへの書き込みを非同期に行うか否かを取得.
+     * @return 非同期に行う場合はtrue
+     */
+    public static boolean isAdsWriteBehindEnabled() {
+        return Boolean.parseBoolean(get(AdsWriteBehind.ENABLED));
+    }
+
+    /**
+     * ADS非同期反映用ジャーナルの格納ディレクトリを取得.
+     * @return ジャーナルの格納ディレクトリ
+     */
+    public static String getAdsWriteBehindJournalDir() {
+        return get(AdsWriteBehind.JOURNAL_DIR);
+    }
+
+    /**
+     * ADS非同期反映用ジャーナルのセグメントを切り替えるサイズを取得.
+     * @return セグメントを切り替えるサイズ(byte)
+     */
+    public static long getAdsWriteBehindSegmentMaxBytes() {
+        return Long.parseLong(get(AdsWriteBehind.SEGMENT_MAX_BYTES));
+    }
+
+    /**
+     * ADSへの反映間隔を取得.
+     * @return 反映間隔(ms)
+     */
+    public static long getAdsWriteBehindDrainIntervalInMillis() {
+        return Long.parseLong(get(AdsWriteBehind.DRAIN_INTERVAL));
+    }
+
+    /**
+     * 1回にまとめてADSへ反映する件数を取得.
+     * @return 件数
+     */
+    public static int getAdsWriteBehindBatchSize() {
+        return Integer.parseInt(get(AdsWriteBehind.BATCH_SIZE));
+    }
+
+    /**
+     * ADSへ未反映の更新の上限を取得.
+     * @return 上限(byte)
+     */
+    public static long getAdsWriteBehindMaxBacklogBytes() {
+        return Long.parseLong(get(AdsWriteBehind.MAX_BACKLOG_BYTES));
+    }
+
+    /**
+     * ADSへ未反映の更新が上限を超えた場合に空きを待つ時間を取得.
+     * @return 待ち時間(ms)
+     */
+    public static long getAdsWriteBehindBackpressureWaitInMillis() {
+        return Long.parseLong(get(AdsWriteBehind.BACKPRESSURE_WAIT));
+    }
+
+    /**
+     * ESとADSの整合性検証を行うか否かを取得.
+     * @return 行う場合はtrue
+     */
+    public static boolean isAdsVerifyEnabled() {
+        return Boolean.parseBoolean(get(AdsVerify.ENABLED));
+    }
+
+    /**
+     * ESとADSの整合性検証の実行間隔を取得.
+     * @return 実行間隔(秒)
+     */
+    public static long getAdsVerifyIntervalInSec() {
+        return Long.parseLong(get(AdsVerify.INTERVAL));
+    }
+
+    /**
+     * ESとADSの整合性検証を1回の実行で続ける時間の上限を取得.
+     * @return 時間の上限(秒)
+     */
+    public static long getAdsVerifyMaxRunInSec() {
+        return Long.parseLong(get(AdsVerify.MAX_RUN));
+    }
+
+    /**
+     * ESとADSの整合性検証で1秒あたりに読み込む件数の上限を取得.
+     * @return 件数の上限
+     */
+    public static long getAdsVerifyIoBudgetPerSec() {
+        return Long.parseLong(get(AdsVerify.IO_BUDGET));
+    }
+
+    /**
+     * ESとADSの整合性検証でID・更新日時を直接比較する範囲の件数の上限を取得.
+     * @return 件数の上限
+     */
+    public static int getAdsVerifyLeafSize() {
+        return Integer.parseInt(get(AdsVerify.LEAF_SIZE));
+    }
+
+    /**
+     * ESとADSの整合性検証で対象外とする直近の更新の期間を取得.
+     * @return 期間(秒)
+     */
+    public static long getAdsVerifyGraceInSec() {
+        return Long.parseLong(get(AdsVerify.GRACE));
+    }
+
     /**
      * パスワード認証成功時に、Accountの最終ログイン時刻を更新するか否か().
      * @return true:更新する(デフォルト) false:更新しない
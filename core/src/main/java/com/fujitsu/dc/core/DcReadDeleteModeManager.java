@@ -82,6 +82,11 @@ public class DcReadDeleteModeManager {
             return;
         }
 
+        // 動作モードの変更を即時に反映させるため、__statusに対するPOSTは例外として許可する
+        if (isStatusPath(pathSegment)) {
+            return;
+        }
+
         // $batchはPOSTメソッドだが参照と削除のリクエストも実行可能であるため
         // $batch内部で書き込み系処理をエラーとする
         if (isBatchPath(pathSegment)) {
@@ -104,6 +109,10 @@ public class DcReadDeleteModeManager {
         return false;
     }
 
+    private static boolean isStatusPath(List<PathSegment> pathSegment) {
+        return pathSegment.size() == 1 && "__status".equals(pathSegment.get(0).getPath());
+    }
+
     private static boolean isAuthPath(List<PathSegment> pathSegment) {
         // 認証のパスは/cell名/__auth または /cell名/__authz のためサイズを2とする
         if (pathSegment.size() == 2) {
@@ -32,6 +32,7 @@ import javax.ws.rs.core.UriBuilder;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
+import com.fujitsu.dc.common.es.EsRequestDeadline;
 import com.fujitsu.dc.common.utils.DcCoreUtils;
 import com.fujitsu.dc.common.utils.DcCoreUtils.HttpHeaders;
 import com.fujitsu.dc.core.DcCoreConfig;
@@ -77,6 +78,8 @@ public final class DcCoreContainerFilter implements ContainerRequestFilter, Cont
         long requestTime = System.currentTimeMillis();
         // リクエストの時間をセッションに保存する
         this.httpServletRequest.setAttribute("requestTime", requestTime);
+        // ESの応答を待つ期限をリクエストの時間予算から定める
+        EsRequestDeadline.start(DcCoreConfig.getEsRequestBudgetInMillis());
 
         methodOverride(request);
         headerOverride(request);
@@ -107,6 +110,7 @@ public final class DcCoreContainerFilter implements ContainerRequestFilter, Cont
         if (cellId != null) {
             CellLockManager.decrementReferenceCount(cellId);
         }
+        EsRequestDeadline.clear();
 
         // 全てのレスポンスに共通するヘッダを追加する
         addResponseHeaders(request, response);
@@ -18,9 +18,13 @@ package com.fujitsu.dc.core.model.impl.es;
 
 import java.net.URI;
 import java.util.ArrayList;
+import java.util.Collection;
 import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashSet;
 import java.util.List;
 import java.util.Map;
+import java.util.Set;
 import java.util.regex.Matcher;
 import java.util.regex.Pattern;
 
@@ -69,6 +73,7 @@ import com.fujitsu.dc.core.model.impl.es.accessor.EntitySetAccessor;
 import com.fujitsu.dc.core.model.impl.es.accessor.ODataLinkAccessor;
 import com.fujitsu.dc.core.model.impl.es.cache.BoxCache;
 import com.fujitsu.dc.core.model.impl.es.cache.CellCache;
+import com.fujitsu.dc.core.model.impl.es.cache.RoleCache;
 import com.fujitsu.dc.core.model.impl.es.doc.OEntityDocHandler;
 import com.fujitsu.dc.core.model.impl.es.odata.CellCtlODataProducer;
 import com.fujitsu.dc.core.odata.OEntityWrapper;
@@ -342,9 +347,27 @@ public final class CellEsImpl implements Cell {
         return false;
     }
 
-    @SuppressWarnings("unchecked")
     @Override
     public List<Role> getRoleListForAccount(final String username) {
+        List<Role> cached = RoleCache.get(this.id, username);
+        if (cached != null) {
+            return cached;
+        }
+        long epoch = RoleCache.currentEpoch();
+        Object generation = RoleCache.currentGeneration(this.id);
+        List<Role> roles = searchRoleListForAccount(username);
+        RoleCache.cache(this.id, username, roles, epoch, generation);
+        return roles;
+    }
+
+    /**
+     * アカウントに結びつくロールの一覧をESから取得する.
+     * ロールとBoxはそれぞれ1回の検索でまとめて取得する.
+     * @param username アカウント名
+     * @return ロールの一覧. アカウントが存在しない場合はnull
+     */
+    @SuppressWarnings("unchecked")
+    private List<Role> searchRoleListForAccount(final String username) {
         // Accountを取得
         EntitySetAccessor accountType = EsModel.cellCtl(this, Account.EDM_TYPE_NAME);
 
@@ -395,17 +418,29 @@ public final class CellEsImpl implements Cell {
         if (res == null) {
             return ret;
         }
-        DcSearchHit[] hits2 = res.getHits().getHits();
-        for (DcSearchHit hit2 : hits2) {
-            Map<String, Object> row = hit2.getSource();
-            String role = (String) row.get("k2");
-            log.debug(this.id);
-            EntitySetAccessor roleDao = EsModel.cellCtl(this, Role.EDM_TYPE_NAME);
-            DcGetResponse gRes = roleDao.get(role);
-            if (gRes == null) {
+        List<String> roleIds = new ArrayList<String>();
+        for (DcSearchHit hit2 : res.getHits().getHits()) {
+            roleIds.add((String) hit2.getSource().get("k2"));
+        }
+        // ロールをまとめて取得
+        Map<String, Map<String, Object>> roleSources = getByIds(
+                EsModel.cellCtl(this, Role.EDM_TYPE_NAME), roleIds);
+
+        // ロールが属するBoxをまとめて取得
+        Set<String> boxIds = new HashSet<String>();
+        for (Map<String, Object> src : roleSources.values()) {
+            String boxId = (String) ((Map<String, Object>) src.get("l")).get("Box");
+            if (boxId != null) {
+                boxIds.add(boxId);
+            }
+        }
+        Map<String, Map<String, Object>> boxSources = getByIds(EsModel.box(this), boxIds);
+
+        for (String roleId : roleIds) {
+            Map<String, Object> src = roleSources.get(roleId);
+            if (src == null) {
                 continue;
             }
-            Map<String, Object> src = gRes.getSource();
             Map<String, Object> s = (Map<String, Object>) src.get("s");
             Map<String, Object> l = (Map<String, Object>) src.get("l");
             String roleName = (String) s.get(KEY_NAME);
@@ -413,13 +448,10 @@ public final class CellEsImpl implements Cell {
             String boxName = null;
             String schema = null;
             if (boxId != null) {
-                // Boxの検索
-                EntitySetAccessor box = EsModel.box(this);
-                DcGetResponse getRes = box.get(boxId);
-                if (getRes == null || !getRes.isExists()) {
+                Map<String, Object> boxsrc = boxSources.get(boxId);
+                if (boxsrc == null) {
                     continue;
                 }
-                Map<String, Object> boxsrc = getRes.getSource();
                 Map<String, Object> boxs = (Map<String, Object>) boxsrc.get("s");
                 boxName = (String) boxs.get(KEY_NAME);
                 schema = (String) boxs.get(KEY_SCHEMA);
@@ -431,6 +463,25 @@ public final class CellEsImpl implements Cell {
         return ret;
     }
 
+    /**
+     * 指定したIDのドキュメントを1回の要求でまとめて取得する.
+     * @param accessor 取得対象のアクセサ
+     * @param ids ドキュメントのIDの一覧
+     * @return IDとドキュメントのソースのMap. 存在しないIDは含まない
+     */
+    private static Map<String, Map<String, Object>> getByIds(EntitySetAccessor accessor, Collection<String> ids) {
+        Map<String, Map<String, Object>> ret = new HashMap<String, Map<String, Object>>();
+        if (ids.isEmpty()) {
+            return ret;
+        }
+        for (DcGetResponse res : accessor.multiGet(new ArrayList<String>(new LinkedHashSet<String>(ids)))) {
+            if (res != null) {
+                ret.put(res.getId(), res.getSource());
+            }
+        }
+        return ret;
+    }
+
     @Override
     public List<Role> getRoleListHere(final IExtRoleContainingToken token) {
         List<Role> ret = new ArrayList<Role>();
@@ -28,8 +28,10 @@ import java.util.ArrayList;
 import java.util.Date;
 import java.util.HashMap;
 import java.util.Iterator;
+import java.util.LinkedHashSet;
 import java.util.List;
 import java.util.Map;
+import java.util.TreeSet;
 
 import javax.ws.rs.WebApplicationException;
 import javax.ws.rs.core.HttpHeaders;
@@ -130,6 +132,11 @@ public class DavCmpEsImpl implements DavCmp, EsDocHandler {
      */
     private static final int TOP_NUM = DcCoreConfig.getEsTopNum();
 
+    /**
+     * ロック対象のノードがロック取得中に変わった場合に、ロックを取り直す回数の上限.
+     */
+    private static final int DAV_LOCK_RETRY_TIMES = 3;
+
     /**
      * ログ.
      */
@@ -139,12 +146,43 @@ public class DavCmpEsImpl implements DavCmp, EsDocHandler {
     }
 
     /**
-     * Boxをロックする.
+     * 自ノードをロックする. 自ノードのみを更新する処理で使用する.
      * @return 自ノードのロック
      */
     public Lock lock() {
-        log.debug("lock:" + LockKeyComposer.fullKeyFromCategoryAndKey(Lock.CATEGORY_DAV, null, this.box.getId(), null));
-        return LockManager.getLock(Lock.CATEGORY_DAV, null, this.box.getId(), null);
+        log.debug("lock:"
+                + LockKeyComposer.fullKeyFromCategoryAndKey(Lock.CATEGORY_DAV, null, this.box.getId(), this.nodeId));
+        return LockManager.getLock(Lock.CATEGORY_DAV, null, this.box.getId(), this.nodeId);
+    }
+
+    /**
+     * 自ノードと親ノードをロックする. 親ノードの子の一覧を変更する処理で使用する.
+     * @return 自ノードと親ノードのロック
+     */
+    protected Lock lockWithParent() {
+        if (this.parent == null) {
+            return this.lock();
+        }
+        return this.lockNodes(this.parent.nodeId, this.nodeId);
+    }
+
+    /**
+     * 指定したノードをまとめてロックする. デッドロックを避けるため、ロックはキーの昇順に取得される.
+     * @param nodeIds ロック対象のノードID(nullは無視する)
+     * @return 指定したノードのロック
+     */
+    Lock lockNodes(String... nodeIds) {
+        List<String> keys = new ArrayList<String>();
+        for (String id : nodeIds) {
+            if (id != null) {
+                keys.add(LockKeyComposer.fullKeyFromCategoryAndKey(Lock.CATEGORY_DAV, null, this.box.getId(), id));
+            }
+        }
+        if (keys.isEmpty()) {
+            keys.add(LockKeyComposer.fullKeyFromCategoryAndKey(Lock.CATEGORY_DAV, null, this.box.getId(), null));
+        }
+        log.debug("lock:" + keys);
+        return LockManager.getLocks(Lock.CATEGORY_DAV, keys);
     }
 
     /**
@@ -726,18 +764,31 @@ public class DavCmpEsImpl implements DavCmp, EsDocHandler {
 
     @Override
     public final ResponseBuilder putForCreate(final String contentType, final InputStream inputStream) {
-        // ロック
-        Lock lock = this.lock();
+        Lock lock = null;
         try {
-            // 新規作成時には、作成対象のDavNodeは存在しないため、親DavNodeをリロードして存在確認する。
-            // 親DavNodeが存在しない場合：他のリクエストによって削除されたたため、404を返却
-            // 親DavNodeが存在するが、作成対象のDavNodeが存在する場合：他のリクエストによって作成されたたｔめ、更新処理を実行
-            this.parent.load();
-            if (!this.parent.isExists()) {
-                throw DcCoreException.Dav.HAS_NOT_PARENT.params(this.parent.getUrl());
-            }
+            for (int retry = 0;; retry++) {
+                // ロック
+                String lockedNodeId = this.nodeId;
+                lock = this.lockWithParent();
+                // 新規作成時には、作成対象のDavNodeは存在しないため、親DavNodeをリロードして存在確認する。
+                // 親DavNodeが存在しない場合：他のリクエストによって削除されたたため、404を返却
+                // 親DavNodeが存在するが、作成対象のDavNodeが存在する場合：他のリクエストによって作成されたたｔめ、更新処理を実行
+                this.parent.load();
+                if (!this.parent.isExists()) {
+                    throw DcCoreException.Dav.HAS_NOT_PARENT.params(this.parent.getUrl());
+                }
 
-            this.nodeId = this.parent.davNode.getChildren().get(this.name);
+                this.nodeId = this.parent.davNode.getChildren().get(this.name);
+                if (this.nodeId == null || this.nodeId.equals(lockedNodeId)) {
+                    break;
+                }
+                // ロック取得前に他のリクエストによって作成されたDavNodeを含めてロックを取り直す
+                lock.release();
+                lock = null;
+                if (retry >= DAV_LOCK_RETRY_TIMES) {
+                    throw DcCoreException.Misc.TOO_MANY_CONCURRENT_REQUESTS;
+                }
+            }
             if (this.nodeId != null) {
                 this.load();
                 // 作成対象のDavNodeが存在する場合は更新処理
@@ -749,8 +800,10 @@ public class DavCmpEsImpl implements DavCmp, EsDocHandler {
             return this.doPutForCreate(contentType, inputStream);
         } finally {
             // ★UNLOCK
-            lock.release();
-            log.debug("unlock1");
+            if (lock != null) {
+                lock.release();
+                log.debug("unlock1");
+            }
         }
     }
 
@@ -778,8 +831,8 @@ public class DavCmpEsImpl implements DavCmp, EsDocHandler {
 
     @Override
     public final ResponseBuilder putForUpdate(final String contentType, final InputStream inputStream, String etag) {
-        // ロック
-        Lock lock = this.lock();
+        // ロック(更新対象が削除されていた場合は親DavNodeの配下に作成するため、親DavNodeもロックする)
+        Lock lock = this.lockWithParent();
         try {
             // 更新には、更新対象のDavNodeが存在するため、更新対象のDavNodeをリロードして存在確認する。
             // 更新対象のDavNodeが存在しない場合：
@@ -1146,8 +1199,8 @@ public class DavCmpEsImpl implements DavCmp, EsDocHandler {
         this.davNode = new DavNode(this.cell.getId(), this.box.getId(), type);
         this.davNode.setParentId(this.parent.nodeId);
 
-        // ロック
-        Lock lock = this.lock();
+        // ロック(作成するコレクションは他のリクエストから参照されないため、親DavNodeのみをロックする)
+        Lock lock = this.lockNodes(this.parent.nodeId);
         try {
             // ここで改めて存在確認が必要。
             // 親をロードしなおして、自身へのパスがないことの確認
@@ -1211,7 +1264,7 @@ public class DavCmpEsImpl implements DavCmp, EsDocHandler {
     @Override
     public ResponseBuilder move(String etag, String overwrite, DavDestination davDestination) {
         // ロック
-        Lock lock = this.lock();
+        Lock lock = this.lockForMove(davDestination);
         try {
             // 移動元リソースの存在チェック
             this.load();
@@ -1286,6 +1339,63 @@ public class DavCmpEsImpl implements DavCmp, EsDocHandler {
         return res;
     }
 
+    /**
+     * MOVEの対象となるノード(移動元とその親、移動先とその親)をまとめてロックする.
+     * <p>
+     * 移動先はロック前に解決したものをロックするため、ロック後に解決し直した結果が異なる場合はロックを取り直す。
+     * また、コレクションの移動同士で互いの配下へ移動して循環が生じないよう、Box内のMOVEは直列化する。
+     * </p>
+     * @param davDestination 移動先の階層情報
+     * @return 取得したロック
+     */
+    private Lock lockForMove(DavDestination davDestination) {
+        for (int retry = 0; retry <= DAV_LOCK_RETRY_TIMES; retry++) {
+            davDestination.loadDestinationHierarchy();
+            List<String> keys = this.getMoveLockKeys(davDestination);
+            log.debug("lock:" + keys);
+            Lock lock = LockManager.getLocks(Lock.CATEGORY_DAV, keys);
+            boolean locked = false;
+            try {
+                this.load();
+                davDestination.loadDestinationHierarchy();
+                if (new TreeSet<String>(keys).equals(new TreeSet<String>(this.getMoveLockKeys(davDestination)))) {
+                    locked = true;
+                    return lock;
+                }
+            } finally {
+                if (!locked) {
+                    lock.release();
+                }
+            }
+        }
+        throw DcCoreException.Misc.TOO_MANY_CONCURRENT_REQUESTS;
+    }
+
+    private List<String> getMoveLockKeys(DavDestination davDestination) {
+        List<String> keys = new ArrayList<String>();
+        keys.add(LockKeyComposer.fullKeyFromCategoryAndKey(Lock.CATEGORY_DAV_MOVE, null, this.box.getId(), null));
+        List<String> nodeIds = new ArrayList<String>();
+        nodeIds.add(this.nodeId);
+        if (this.davNode != null) {
+            nodeIds.add(this.davNode.getParentId());
+        } else if (this.parent != null) {
+            nodeIds.add(this.parent.nodeId);
+        }
+        DavCmpEsImpl dstCmp = (DavCmpEsImpl) davDestination.getDestinationCmp();
+        if (dstCmp != null) {
+            nodeIds.add(dstCmp.nodeId);
+            if (dstCmp.parent != null) {
+                nodeIds.add(dstCmp.parent.nodeId);
+            }
+        }
+        for (String id : nodeIds) {
+            if (id != null) {
+                keys.add(LockKeyComposer.fullKeyFromCategoryAndKey(Lock.CATEGORY_DAV, null, this.box.getId(), id));
+            }
+        }
+        return keys;
+    }
+
     private void checkChildResourceCount() {
         // 親コレクション内のコレクション・ファイル数のチェック
         int maxChildResource = DcCoreConfig.getMaxChildResourceCount();
@@ -1326,8 +1436,12 @@ public class DavCmpEsImpl implements DavCmp, EsDocHandler {
             throw DcCoreException.Dav.ETAG_NOT_MATCH;
         }
         long now = new Date().getTime();
-        // ロック
-        Lock lock = this.lock();
+        // ロック(Serviceコレクションの場合は配下の__srcも削除するため、__srcもロックする)
+        String srcNodeId = null;
+        if (TYPE_COL_SVC.equals(this.getType()) && this.davNode != null) {
+            srcNodeId = this.davNode.getChildren().get(DavCmp.SERVICE_SRC_COLLECTION);
+        }
+        Lock lock = this.parent == null ? this.lock() : this.lockNodes(this.parent.nodeId, this.nodeId, srcNodeId);
         try {
             // リロード
             this.load();
@@ -1532,13 +1646,22 @@ public class DavCmpEsImpl implements DavCmp, EsDocHandler {
             array = (JSONArray) jsonObj;
         }
         if (array != null) {
+            // ACE内のロールをまとめて取得する
+            List<String> roleIds = new ArrayList<String>();
+            for (Object ace : array) {
+                Object href = ((JSONObject) ((JSONObject) ace).get(KEY_ACL_PRINCIPAL)).get(KEY_ACL_HREF);
+                if (href != null) {
+                    roleIds.add((String) href);
+                }
+            }
+            Map<String, String> roleResourceUrls = roleIdsToRoleResourceUrls(roleIds);
             // xml:base対応
             for (int i = 0; i < array.size(); i++) {
                 JSONObject aceJson = (JSONObject) array.get(i);
                 JSONObject principal = (JSONObject) aceJson.get(KEY_ACL_PRINCIPAL);
                 if (principal.get(KEY_ACL_HREF) != null) {
                     // ロールIDに該当するロール名が無かった場合はロールが削除済みと判断し、無視する。
-                    String roloResourceUrl = roleIdToRoleResourceUrl((String) principal.get(KEY_ACL_HREF));
+                    String roloResourceUrl = roleResourceUrls.get((String) principal.get(KEY_ACL_HREF));
                     if (roloResourceUrl == null) {
                         // ロールIDに該当するロール名が無かった場合はロールが削除済みと判断し、ACEタグごと削除する。
                         array.remove(i);
@@ -1561,36 +1684,63 @@ public class DavCmpEsImpl implements DavCmp, EsDocHandler {
     }
 
     /**
-     * ロールIDからロール名を取得.
-     * @param roleId ロールID
-     * @return ロール名
+     * ロールIDからロールリソースURLをまとめて取得する.
+     * ロールとBoxはそれぞれ1回の要求で取得する.
+     * @param roleIds ロールIDの一覧
+     * @return ロールIDとロールリソースURLのMap. 存在しないロールのIDは含まない
      */
     @SuppressWarnings("unchecked")
-    private String roleIdToRoleResourceUrl(String roleId) {
-        String boxName = null;
-        String schema = null;
-
+    private Map<String, String> roleIdsToRoleResourceUrls(List<String> roleIds) {
+        Map<String, String> ret = new HashMap<String, String>();
+        if (roleIds.isEmpty()) {
+            return ret;
+        }
         EntitySetAccessor roleType = EsModel.cellCtl(this.cell, Role.EDM_TYPE_NAME);
-        DcGetResponse hit = roleType.get(roleId);
-
-        if (hit == null || !hit.isExists()) {
-            // ロールが存在しない場合、nullを返す。
-            return null;
-        }
-        Map<String, Object> role = hit.getSource();
-        Map<String, Object> s = (Map<String, Object>) role.get(DavNode.KEY_PARENT);
-        Map<String, Object> l = (Map<String, Object>) role.get(KEY_LINK);
-        String roleName = (String) s.get(KEY_NAME);
-        String boxId = (String) l.get(Box.EDM_TYPE_NAME);
-        if (boxId != null) {
-            // Boxの検索
-            Map<String, Object> boxsrc = searchBox(this.cell, boxId);
-            Map<String, Object> boxs = (Map<String, Object>) boxsrc.get("s");
-            boxName = (String) boxs.get(KEY_NAME);
-            schema = (String) boxs.get(KEY_SCHEMA);
-        }
-        Role roleObj = new Role(roleName, boxName, schema, this.cell.getUrl());
-        return roleObj.createUrl();
+        Map<String, Map<String, Object>> roles = new HashMap<String, Map<String, Object>>();
+        List<String> boxIds = new ArrayList<String>();
+        for (DcGetResponse hit : roleType.multiGet(new ArrayList<String>(new LinkedHashSet<String>(roleIds)))) {
+            if (hit == null) {
+                // ロールが存在しない場合、結果に含めない。
+                continue;
+            }
+            Map<String, Object> l = (Map<String, Object>) hit.getSource().get(KEY_LINK);
+            String boxId = (String) l.get(Box.EDM_TYPE_NAME);
+            if (boxId != null && !boxIds.contains(boxId)) {
+                boxIds.add(boxId);
+            }
+            roles.put(hit.getId(), hit.getSource());
+        }
+
+        // Boxの検索
+        Map<String, Map<String, Object>> boxes = new HashMap<String, Map<String, Object>>();
+        if (!boxIds.isEmpty()) {
+            List<DcGetResponse> boxRes = EsModel.box(this.cell).multiGet(boxIds);
+            for (int i = 0; i < boxIds.size(); i++) {
+                if (boxRes.get(i) == null) {
+                    DcCoreLog.Dav.ROLE_NOT_FOUND.params("Box Id Not Hit").writeLog();
+                    throw DcCoreException.Dav.ROLE_NOT_FOUND;
+                }
+                boxes.put(boxIds.get(i), (Map<String, Object>) boxRes.get(i).getSource().get("s"));
+            }
+        }
+
+        for (Map.Entry<String, Map<String, Object>> entry : roles.entrySet()) {
+            Map<String, Object> role = entry.getValue();
+            Map<String, Object> s = (Map<String, Object>) role.get(DavNode.KEY_PARENT);
+            Map<String, Object> l = (Map<String, Object>) role.get(KEY_LINK);
+            String roleName = (String) s.get(KEY_NAME);
+            String boxName = null;
+            String schema = null;
+            String boxId = (String) l.get(Box.EDM_TYPE_NAME);
+            if (boxId != null) {
+                Map<String, Object> boxs = boxes.get(boxId);
+                boxName = (String) boxs.get(KEY_NAME);
+                schema = (String) boxs.get(KEY_SCHEMA);
+            }
+            Role roleObj = new Role(roleName, boxName, schema, this.cell.getUrl());
+            ret.put(entry.getKey(), roleObj.createUrl());
+        }
+        return ret;
     }
 
     /**
@@ -92,6 +92,18 @@ public class EsModel {
         });
 
         esClient = new EsClient(DcCoreConfig.getEsClusterName(), DcCoreConfig.getEsHosts());
+        esClient.setRefreshPolicy(DcCoreConfig.getEsRefreshPolicy());
+        esClient.setRetryBudget(DcCoreConfig.getEsRetryBudgetRatio(),
+                DcCoreConfig.getEsRetryBudgetMinRetriesPerSecond());
+        if (DcCoreConfig.isEsCircuitBreakerEnabled()) {
+            esClient.setCircuitBreaker(DcCoreConfig.getEsCircuitBreakerWindowInMillis(),
+                    DcCoreConfig.getEsCircuitBreakerMinimumRequests(),
+                    DcCoreConfig.getEsCircuitBreakerErrorRateThreshold(),
+                    DcCoreConfig.getEsCircuitBreakerSlowCallThresholdInMillis(),
+                    DcCoreConfig.getEsCircuitBreakerSlowCallRateThreshold(),
+                    DcCoreConfig.getEsCircuitBreakerOpenDurationInMillis(),
+                    DcCoreConfig.getEsCircuitBreakerHalfOpenProbes());
+        }
     }
 
     private EsModel() {
@@ -103,6 +103,19 @@ public final class QueryMapFactory {
         return bool;
     }
 
+    /**
+     * idsフィルターの情報を格納したMapのインスタンスを生成して返却する.
+     * @param ids ドキュメントのIDの一覧
+     * @return 入力値を格納したMap
+     */
+    public static Map<String, Object> idsFilter(List<String> ids) {
+        Map<String, Object> filter = new HashMap<String, Object>();
+        Map<String, Object> values = new HashMap<String, Object>();
+        values.put("values", ids);
+        filter.put("ids", values);
+        return filter;
+    }
+
     /**
      * missingクエリの情報を格納したMapのインスタンスを生成して返却する.
      * @param key 検索キー
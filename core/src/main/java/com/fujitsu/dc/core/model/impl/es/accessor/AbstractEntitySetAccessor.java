@@ -16,11 +16,22 @@
  */
 package com.fujitsu.dc.core.model.impl.es.accessor;
 
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import com.fujitsu.dc.common.es.EsBulkRequest;
 import com.fujitsu.dc.common.es.EsIndex;
+import com.fujitsu.dc.common.es.response.DcBulkItemResponse;
+import com.fujitsu.dc.common.es.response.DcBulkResponse;
 import com.fujitsu.dc.common.es.response.DcDeleteResponse;
 import com.fujitsu.dc.common.es.response.DcIndexResponse;
+import com.fujitsu.dc.common.es.response.EsClientException;
 import com.fujitsu.dc.common.es.util.DcUUID;
+import com.fujitsu.dc.core.DcCoreException;
 import com.fujitsu.dc.core.model.impl.es.doc.EntitySetDocHandler;
+import com.fujitsu.dc.core.model.impl.es.doc.OEntityDocHandler;
 
 /**
  * ODataEntityのアクセス処理の抽象クラス.
@@ -48,6 +59,16 @@ public abstract class AbstractEntitySetAccessor extends DataSourceAccessor imple
      */
     protected abstract void createAds(EntitySetDocHandler docHandler);
 
+    /**
+     * マスターデータを一括登録する.
+     * @param docHandlers 登録データ
+     */
+    protected void createAds(List<EntitySetDocHandler> docHandlers) {
+        for (EntitySetDocHandler docHandler : docHandlers) {
+            createAds(docHandler);
+        }
+    }
+
     /**
      * マスターデータを更新する.
      * @param docHandler 登録データ
@@ -88,6 +109,54 @@ public abstract class AbstractEntitySetAccessor extends DataSourceAccessor imple
         return response;
     }
 
+    /**
+     * 複数のODataEntityのデータ登録を、ESへの1回のバルク登録とADSへの1回の一括登録で行う.
+     * ESへの登録に失敗したドキュメントは登録結果をnullとする。呼出し元で{@link #create(String, EntitySetDocHandler)}により
+     * 個別に登録し直し、エラー内容を判定すること。
+     * @param docHandlers 登録データ(IDは設定済みであること)
+     * @return 登録結果. 登録データと同じ順
+     */
+    public List<DcIndexResponse> createAll(List<EntitySetDocHandler> docHandlers) {
+        // マスタ書き込みでエラーが発生したためES更新を不可能とする
+        prepareDataUpdate(getIndex().getName());
+        List<EsBulkRequest> requests = new ArrayList<EsBulkRequest>();
+        for (EntitySetDocHandler docHandler : docHandlers) {
+            requests.add(new CreateRequest(docHandler));
+        }
+        List<DcIndexResponse> responses = new ArrayList<DcIndexResponse>();
+        DcBulkResponse response;
+        try {
+            response = bulkRequest(getRoutingId(), requests, false);
+        } catch (EsClientException.EsNoResponseException e) {
+            throw DcCoreException.Server.ES_RETRY_OVER.params(e.getMessage());
+        } catch (RuntimeException e) {
+            // まとめて登録できなかった場合は、呼出し元で個別に登録し直す
+            for (int i = 0; i < docHandlers.size(); i++) {
+                responses.add(null);
+            }
+            return responses;
+        } finally {
+            invalidateGet(requests);
+        }
+
+        DcBulkItemResponse[] items = response.items();
+        List<EntitySetDocHandler> adsRequests = new ArrayList<EntitySetDocHandler>();
+        for (int i = 0; i < docHandlers.size(); i++) {
+            if (items[i].isFailed()) {
+                responses.add(null);
+            } else {
+                EntitySetDocHandler docHandler = docHandlers.get(i);
+                responses.add(new BulkItemIndexResponse(getIndex().getName(), docHandler.getType(),
+                        docHandler.getId(), items[i].version()));
+                adsRequests.add(docHandler);
+            }
+        }
+        if (!adsRequests.isEmpty()) {
+            createAds(adsRequests);
+        }
+        return responses;
+    }
+
     /**
      * Cellのデータ更新を行う.
      * @param id 更新データのID
@@ -136,8 +205,100 @@ public abstract class AbstractEntitySetAccessor extends DataSourceAccessor imple
 
         // マスタ書き込みでエラーが発生したためES更新を不可能とする
         super.prepareDataUpdate(getIndex().getName());
-        DcDeleteResponse response = super.delete(id, version);
+        DcDeleteResponse response = super.delete(id, version, scopeOf(docHandler));
         deleteAds(docHandler, response.getVersion());
         return response;
     }
+
+    /**
+     * 件数のキャッシュのスコープの特定に使用する、ドキュメントのCell / Box / Node / EntityTypeのIDを返す.
+     * @param docHandler ドキュメント
+     * @return Cell / Box / Node / EntityTypeのID
+     */
+    private static Map<String, Object> scopeOf(EntitySetDocHandler docHandler) {
+        Map<String, Object> scope = new HashMap<String, Object>();
+        scope.put(OEntityDocHandler.KEY_CELL_ID, docHandler.getCellId());
+        scope.put(OEntityDocHandler.KEY_BOX_ID, docHandler.getBoxId());
+        scope.put(OEntityDocHandler.KEY_NODE_ID, docHandler.getNodeId());
+        scope.put(OEntityDocHandler.KEY_ENTITY_ID, docHandler.getEntityTypeId());
+        return scope;
+    }
+
+    /**
+     * バルク登録のドキュメント.
+     */
+    static final class CreateRequest implements EsBulkRequest {
+        private final EntitySetDocHandler docHandler;
+
+        CreateRequest(EntitySetDocHandler docHandler) {
+            this.docHandler = docHandler;
+        }
+
+        @Override
+        public BULK_REQUEST_TYPE getRequestType() {
+            return BULK_REQUEST_TYPE.INDEX;
+        }
+
+        @Override
+        public String getType() {
+            return this.docHandler.getType();
+        }
+
+        @Override
+        public String getId() {
+            return this.docHandler.getId();
+        }
+
+        @Override
+        public Map<String, Object> getSource() {
+            return this.docHandler.getSource();
+        }
+    }
+
+    /**
+     * バルク登録の結果から生成する、ドキュメントごとの登録結果.
+     */
+    static final class BulkItemIndexResponse implements DcIndexResponse {
+        private final String index;
+        private final String type;
+        private final String id;
+        private final long version;
+
+        BulkItemIndexResponse(String index, String type, String id, long version) {
+            this.index = index;
+            this.type = type;
+            this.id = id;
+            this.version = version;
+        }
+
+        @Override
+        public boolean isNull() {
+            return false;
+        }
+
+        @Override
+        public String getIndex() {
+            return this.index;
+        }
+
+        @Override
+        public String getType() {
+            return this.type;
+        }
+
+        @Override
+        public String getId() {
+            return this.id;
+        }
+
+        @Override
+        public long version() {
+            return this.version;
+        }
+
+        @Override
+        public long getVersion() {
+            return this.version;
+        }
+    }
 }
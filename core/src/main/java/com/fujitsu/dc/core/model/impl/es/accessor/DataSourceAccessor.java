@@ -16,7 +16,9 @@
  */
 package com.fujitsu.dc.core.model.impl.es.accessor;
 
+import java.util.ArrayList;
 import java.util.HashMap;
+import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
 
@@ -27,7 +29,9 @@ import com.fujitsu.dc.common.ads.AdsWriteFailureLogException;
 import com.fujitsu.dc.common.ads.AdsWriteFailureLogInfo;
 import com.fujitsu.dc.common.ads.AdsWriteFailureLogWriter;
 import com.fujitsu.dc.common.es.EsBulkRequest;
+import com.fujitsu.dc.common.es.EsFuture;
 import com.fujitsu.dc.common.es.EsIndex;
+import com.fujitsu.dc.common.es.EsRefreshPolicy;
 import com.fujitsu.dc.common.es.EsType;
 import com.fujitsu.dc.common.es.query.DcQueryBuilder;
 import com.fujitsu.dc.common.es.response.DcActionResponse;
@@ -47,8 +51,11 @@ import com.fujitsu.dc.core.model.impl.es.EsModel;
 import com.fujitsu.dc.core.model.impl.es.ads.AdsConnectionException;
 import com.fujitsu.dc.core.model.impl.es.ads.AdsException;
 import com.fujitsu.dc.core.model.impl.es.ads.JdbcAds;
+import com.fujitsu.dc.core.model.impl.es.cache.EntityCountCache;
 import com.fujitsu.dc.core.model.impl.es.doc.EntitySetDocHandler;
 import com.fujitsu.dc.core.model.impl.es.doc.LinkDocHandler;
+import com.fujitsu.dc.core.model.impl.es.doc.OEntityDocHandler;
+import com.fujitsu.dc.core.model.impl.es.repair.AdsReplicator;
 import com.fujitsu.dc.core.model.lock.Lock;
 import com.fujitsu.dc.core.model.lock.LockKeyComposer;
 
@@ -60,6 +67,8 @@ public class DataSourceAccessor {
     private EsType type;
     private JdbcAds ads;
     private String routingid;
+    /** 書き込み時のrefresh方針. nullの場合はESクライアントに設定されたrefresh方針を用いる. */
+    private EsRefreshPolicy refreshPolicy;
 
     /** ログ用オブジェクト. */
     static Logger log = LoggerFactory.getLogger(DataSourceAccessor.class);
@@ -140,6 +149,15 @@ public class DataSourceAccessor {
         return this.type.getType();
     }
 
+    /**
+     * このアクセサからの書き込みで用いるrefresh方針を設定する.
+     * 書き込み直後の検索に反映させる必要があるデータで{@link EsRefreshPolicy#IMMEDIATE}を指定する.
+     * @param policy refresh方針. nullの場合はESクライアントに設定されたrefresh方針を用いる
+     */
+    public void setRefreshPolicy(EsRefreshPolicy policy) {
+        this.refreshPolicy = policy;
+    }
+
     /**
      * ESへの検索時に使用するルーティングIDを取得する.
      * @return ルーティングID
@@ -154,13 +172,109 @@ public class DataSourceAccessor {
      * @return 応答
      */
     public DcGetResponse get(final String id) {
+        // 同一ドキュメントへの同時の取得要求は1回の問い合わせにまとめる
+        String key = EsGetCoalescer.key(this.index.getName(), this.type.getType(), id);
+        return EsGetCoalescer.getInstance().get(key, new EsGetCoalescer.Loader() {
+            @Override
+            public DcGetResponse load() {
+                try {
+                    return type.get(id);
+                } catch (EsClientException.EsNoResponseException e) {
+                    throw DcCoreException.Server.ES_RETRY_OVER.params(e.getMessage());
+                }
+            }
+
+            @Override
+            public Long loadVersion() {
+                try {
+                    return type.getVersion(id);
+                } catch (EsClientException.EsNoResponseException e) {
+                    throw DcCoreException.Server.ES_RETRY_OVER.params(e.getMessage());
+                }
+            }
+        });
+    }
+
+    /**
+     * 複数のドキュメントを1回の要求でまとめて取得する.
+     * @param ids ドキュメントのIDのリスト
+     * @return idsと同じ順序の応答のリスト. 存在しないドキュメントの位置はnull
+     */
+    public List<DcGetResponse> multiGet(final List<String> ids) {
         try {
-            return this.type.get(id);
+            return this.type.multiGet(ids);
         } catch (EsClientException.EsNoResponseException e) {
             throw DcCoreException.Server.ES_RETRY_OVER.params(e.getMessage());
         }
     }
 
+    /**
+     * 複数のドキュメントを1回の要求でまとめて、応答を待たずに取得する.
+     * @param ids ドキュメントのIDのリスト
+     * @return idsと同じ順序の応答のリストの非同期応答. 存在しないドキュメントの位置はnull
+     */
+    public EsFuture<List<DcGetResponse>> multiGetAsync(final List<String> ids) {
+        return this.type.multiGetAsync(ids, true);
+    }
+
+    /**
+     * 書き込んだドキュメントについて、書き込み前に開始された取得の結果と、ドキュメントを含み得る件数のキャッシュを使わないようにする.
+     * @param typeName タイプ名
+     * @param id ドキュメントのID
+     * @param source 書き込んだドキュメント. 不明な場合はnull
+     */
+    protected void invalidateGet(String typeName, String id, Map<?, ?> source) {
+        EsGetCoalescer.getInstance().invalidate(EsGetCoalescer.key(this.index.getName(), typeName, id));
+        invalidateCount(typeName, source);
+    }
+
+    /**
+     * バルクで書き込んだドキュメントについて、書き込み前に開始された取得の結果と、ドキュメントを含み得る件数のキャッシュを使わないようにする.
+     * @param esBulkRequest ES用バルク登録ドキュメントリスト
+     */
+    protected void invalidateGet(List<EsBulkRequest> esBulkRequest) {
+        Map<String, EsBulkRequest> scopes = new LinkedHashMap<String, EsBulkRequest>();
+        for (EsBulkRequest request : esBulkRequest) {
+            EsGetCoalescer.getInstance().invalidate(
+                    EsGetCoalescer.key(this.index.getName(), request.getType(), request.getId()));
+            Map<String, Object> source = request.getSource();
+            String scope = null;
+            if (source != null) {
+                scope = EntityCountCache.scope(idOf(source, OEntityDocHandler.KEY_CELL_ID),
+                        idOf(source, OEntityDocHandler.KEY_BOX_ID), idOf(source, OEntityDocHandler.KEY_NODE_ID),
+                        idOf(source, OEntityDocHandler.KEY_ENTITY_ID));
+            }
+            scopes.put(request.getType() + ":" + scope, request);
+        }
+        // 件数のキャッシュの無効化はタイプ・スコープごとに1回だけ行う
+        for (EsBulkRequest request : scopes.values()) {
+            invalidateCount(request.getType(), request.getSource());
+        }
+    }
+
+    /**
+     * 書き込んだドキュメントを含み得るスコープの件数のキャッシュを使わないようにする.
+     * @param typeName タイプ名
+     * @param source 書き込んだドキュメント. 不明な場合はタイプ全体の件数のキャッシュを使わないようにする
+     */
+    private void invalidateCount(String typeName, Map<?, ?> source) {
+        if (source == null) {
+            EntityCountCache.getInstance().invalidate(this.index.getName(), typeName);
+            return;
+        }
+        EntityCountCache.getInstance().invalidate(this.index.getName(), typeName,
+                idOf(source, OEntityDocHandler.KEY_CELL_ID), idOf(source, OEntityDocHandler.KEY_BOX_ID),
+                idOf(source, OEntityDocHandler.KEY_NODE_ID), idOf(source, OEntityDocHandler.KEY_ENTITY_ID));
+    }
+
+    private static String idOf(Map<?, ?> source, String key) {
+        Object id = source.get(key);
+        if (id instanceof String) {
+            return (String) id;
+        }
+        return null;
+    }
+
     /**
      * ドキュメント新規作成.
      * @param data ドキュメント
@@ -193,7 +307,7 @@ public class DataSourceAccessor {
     @SuppressWarnings({"rawtypes" })
     public DcIndexResponse create(final String id, final Map data) {
         try {
-            return this.type.create(id, data);
+            return createDocument(id, data);
         } catch (EsClientException.EsSchemaMismatchException e) {
             throw DcCoreException.OData.SCHEMA_MISMATCH;
         } catch (EsClientException.EsIndexMissingException e) {
@@ -201,12 +315,14 @@ public class DataSourceAccessor {
             try {
                 this.index.create();
                 createAdsIndex(null);
-                return this.type.create(id, data);
+                return createDocument(id, data);
             } catch (EsClientException.EsNoResponseException esRetry) {
                 throw DcCoreException.Server.ES_RETRY_OVER.params(esRetry.getMessage());
             }
         } catch (EsClientException.EsNoResponseException e) {
             throw DcCoreException.Server.ES_RETRY_OVER.params(e.getMessage());
+        } finally {
+            invalidateGet(this.type.getType(), id, data);
         }
     }
 
@@ -220,7 +336,7 @@ public class DataSourceAccessor {
     @SuppressWarnings({"rawtypes" })
     public DcIndexResponse create(final String id, final Map data, final EntitySetDocHandler docHandler) {
         try {
-            return this.type.create(id, data);
+            return createDocument(id, data);
         } catch (EsClientException.EsSchemaMismatchException e) {
             throw DcCoreException.OData.SCHEMA_MISMATCH;
         } catch (EsClientException.EsIndexMissingException e) {
@@ -228,12 +344,14 @@ public class DataSourceAccessor {
             try {
                 this.index.create();
                 createAdsIndex(docHandler.getUnitUserName());
-                return this.type.create(id, data);
+                return createDocument(id, data);
             } catch (EsClientException.EsNoResponseException esRetry) {
                 throw DcCoreException.Server.ES_RETRY_OVER.params(esRetry.getMessage());
             }
         } catch (EsClientException.EsNoResponseException e) {
             throw DcCoreException.Server.ES_RETRY_OVER.params(e.getMessage());
+        } finally {
+            invalidateGet(this.type.getType(), id, data);
         }
     }
 
@@ -247,7 +365,7 @@ public class DataSourceAccessor {
     @SuppressWarnings({"rawtypes" })
     public DcIndexResponse update(final String id, final Map data, final long version) {
         try {
-            return this.type.update(id, data, version);
+            return updateDocument(id, data, version);
         } catch (EsClientException.EsSchemaMismatchException e) {
             throw DcCoreException.OData.SCHEMA_MISMATCH;
         } catch (EsClientException.EsIndexMissingException e) {
@@ -255,12 +373,14 @@ public class DataSourceAccessor {
             try {
                 this.index.create();
                 createAdsIndex(null);
-                return this.type.update(id, data, version);
+                return updateDocument(id, data, version);
             } catch (EsClientException.EsNoResponseException esRetry) {
                 throw DcCoreException.Server.ES_RETRY_OVER.params(esRetry.getMessage());
             }
         } catch (EsClientException.EsNoResponseException e) {
             throw DcCoreException.Server.ES_RETRY_OVER.params(e.getMessage());
+        } finally {
+            invalidateGet(this.type.getType(), id, data);
         }
     }
 
@@ -275,6 +395,55 @@ public class DataSourceAccessor {
         return this.update(id, data, -1);
     }
 
+    @SuppressWarnings("rawtypes")
+    private DcIndexResponse createDocument(final String id, final Map data) {
+        if (this.refreshPolicy == null) {
+            return this.type.create(id, data);
+        }
+        return this.type.create(id, data, this.refreshPolicy);
+    }
+
+    @SuppressWarnings("rawtypes")
+    private DcIndexResponse updateDocument(final String id, final Map data, final long version) {
+        if (this.refreshPolicy == null) {
+            return this.type.update(id, data, version);
+        }
+        return this.type.update(id, data, version, this.refreshPolicy);
+    }
+
+    private DcDeleteResponse deleteDocument(final String docId, final long version) {
+        if (this.refreshPolicy == null) {
+            return this.type.delete(docId, version);
+        }
+        return this.type.delete(docId, version, this.refreshPolicy);
+    }
+
+    /**
+     * このアクセサのrefresh方針に従ってバルクでドキュメントを登録/更新/削除する.
+     * @param routingId routingId
+     * @param datas バルクドキュメント
+     * @param isWriteLog リクエスト情報のログ出力有無
+     * @return ES応答
+     */
+    protected DcBulkResponse bulkRequest(final String routingId, final List<EsBulkRequest> datas,
+            boolean isWriteLog) {
+        if (this.refreshPolicy == null) {
+            return this.index.bulkRequest(routingId, datas, isWriteLog);
+        }
+        return this.index.bulkRequest(routingId, datas, isWriteLog, this.refreshPolicy);
+    }
+
+    /**
+     * 書き込み直後に検索を行う処理の前に呼び出し、それまでの書き込みを検索に反映させる.
+     * refresh方針がimmediateの場合は書き込み時に反映済のため何もしない.
+     */
+    public void refreshForSearch() {
+        if (this.index.getRefreshPolicy() == EsRefreshPolicy.IMMEDIATE) {
+            return;
+        }
+        this.index.refresh();
+    }
+
     /**
      * ドキュメントの件数を取得.
      * @param query クエリ情報
@@ -296,6 +465,28 @@ public class DataSourceAccessor {
         }
     }
 
+    /**
+     * 件数のキャッシュを使用してドキュメントの件数を取得する.
+     * キャッシュ後にタイプへの書き込みが無い場合は、キャッシュした件数を返す.
+     * @param query クエリ情報
+     * @param scope 暗黙の検索条件から{@link EntityCountCache#scope(String, String, String, String)}で求めたスコープ
+     * @param approximate 書き込み後の古い件数を概算件数として許容する場合はtrue
+     * @return 件数
+     */
+    public EntityCountCache.Count count(final Map<String, Object> query, String scope, boolean approximate) {
+        EntityCountCache cache = EntityCountCache.getInstance();
+        // 件数の取得中に書き込まれた場合に古い件数を使わないよう、世代は件数の取得前に確認する
+        String generation = cache.getGeneration(this.index.getName(), this.type.getType(), scope);
+        EntityCountCache.Count cached = cache.get(this.index.getName(), this.type.getType(), scope, query,
+                generation, approximate);
+        if (cached != null) {
+            return cached;
+        }
+        long count = this.count(query);
+        cache.put(this.index.getName(), this.type.getType(), scope, query, generation, count);
+        return new EntityCountCache.Count(count, true);
+    }
+
     /**
      * ドキュメントを検索.
      * @param query クエリ情報
@@ -364,13 +555,26 @@ public class DataSourceAccessor {
      * @return 応答
      */
     public DcDeleteResponse delete(final String docId, final long version) {
+        return this.delete(docId, version, null);
+    }
+
+    /**
+     * ドキュメントを削除する.
+     * @param docId 削除するドキュメントのID
+     * @param version 削除するドキュメントのバージョン
+     * @param source 削除するドキュメント. 件数のキャッシュを使わないようにするスコープの特定に使用し、不明な場合はnull
+     * @return 応答
+     */
+    protected DcDeleteResponse delete(final String docId, final long version, final Map<?, ?> source) {
         try {
-            return this.type.delete(docId, version);
+            return deleteDocument(docId, version);
         } catch (EsClientException.EsIndexMissingException e) {
             DcCoreLog.Server.ES_INDEX_NOT_EXIST.params(this.index.getName()).writeLog();
             return null;
         } catch (EsClientException.EsNoResponseException e) {
             throw DcCoreException.Server.ES_RETRY_OVER.params(e.getMessage());
+        } finally {
+            invalidateGet(this.type.getType(), docId, source);
         }
     }
 
@@ -390,11 +594,14 @@ public class DataSourceAccessor {
 
         DcBulkResponse response = null;
         try {
-            response = this.index.bulkRequest(routingId, esBulkRequest, false);
+            response = bulkRequest(routingId, esBulkRequest, false);
         } catch (EsClientException.EsNoResponseException e) {
             throw DcCoreException.Server.ES_RETRY_OVER.params(e.getMessage());
+        } finally {
+            invalidateGet(esBulkRequest);
         }
-        if (this.ads != null) {
+        if (this.ads != null && !replicateAds(adsBulkRequest,
+                AdsWriteFailureLogInfo.OperationKind.CREATE, new ArrayList<LinkDocHandler>())) {
             try {
                 this.ads.bulkEntity(this.index.getName(), adsBulkRequest);
             } catch (AdsException e) {
@@ -433,11 +640,14 @@ public class DataSourceAccessor {
 
         DcBulkResponse response = null;
         try {
-            response = this.index.bulkRequest(routingId, esBulkRequest, false);
+            response = bulkRequest(routingId, esBulkRequest, false);
         } catch (EsClientException.EsNoResponseException e) {
             throw DcCoreException.Server.ES_RETRY_OVER.params(e.getMessage());
+        } finally {
+            invalidateGet(esBulkRequest);
         }
-        if (this.ads != null) {
+        if (this.ads != null && !replicateAds(adsBulkEntityRequest,
+                AdsWriteFailureLogInfo.OperationKind.UPDATE, adsBulkLinkRequest)) {
             try {
                 // Entityテーブル更新
                 if (adsBulkEntityRequest.size() > 0) {
@@ -497,7 +707,12 @@ public class DataSourceAccessor {
      * @param deleteQuery 削除対象を指定するクエリ
      */
     protected void deleteByQuery(String routingId, DcQueryBuilder deleteQuery) {
-        this.index.deleteByQuery(routingId, deleteQuery);
+        try {
+            this.index.deleteByQuery(routingId, deleteQuery);
+        } finally {
+            // 削除したドキュメントを特定できないため、取得結果は全て使わないようにする
+            EsGetCoalescer.getInstance().invalidateAll();
+        }
     }
 
     /**
@@ -610,4 +825,72 @@ public class DataSourceAccessor {
         }
     }
 
+
+    /**
+     * ADSへの書き込みを非同期に行うよう依頼する.
+     * 受け付けた場合、更新対象のキーはジャーナルに永続化されており、ADSへはバックグラウンドで反映される.
+     * @param docHandler 書き込んだデータ
+     * @param operation 操作種別
+     * @param version Elasticsearchに登録されたドキュメントのバージョン
+     * @return 受け付けた場合は真. 偽の場合は同期的にADSへ書き込むこと
+     */
+    protected boolean replicateAds(EntitySetDocHandler docHandler,
+            AdsWriteFailureLogInfo.OperationKind operation, long version) {
+        if (!AdsReplicator.getInstance().isEnabled()) {
+            return false;
+        }
+        List<AdsWriteFailureLogInfo> records = new ArrayList<AdsWriteFailureLogInfo>();
+        records.add(adsLogInfo(docHandler.getType(), docHandler.getCellId(), docHandler.getNodeId(),
+                docHandler.getId(), operation, version, docHandler.getUpdated()));
+        return AdsReplicator.getInstance().replicate(records);
+    }
+
+    /**
+     * ADSへの書き込みを非同期に行うよう依頼する.
+     * @param docHandler 書き込んだデータ
+     * @param operation 操作種別
+     * @param version Elasticsearchに登録されたドキュメントのバージョン
+     * @return 受け付けた場合は真. 偽の場合は同期的にADSへ書き込むこと
+     */
+    protected boolean replicateAds(LinkDocHandler docHandler,
+            AdsWriteFailureLogInfo.OperationKind operation, long version) {
+        if (!AdsReplicator.getInstance().isEnabled()) {
+            return false;
+        }
+        List<AdsWriteFailureLogInfo> records = new ArrayList<AdsWriteFailureLogInfo>();
+        records.add(adsLogInfo(EsModel.TYPE_CTL_LINK, docHandler.getCellId(), docHandler.getNodeId(),
+                docHandler.getId(), operation, version, docHandler.getUpdated()));
+        return AdsReplicator.getInstance().replicate(records);
+    }
+
+    /**
+     * ADSへの一括書き込みを非同期に行うよう依頼する. Linkは登録として扱う.
+     * @param entities 書き込んだEntity
+     * @param entityOperation Entityの操作種別
+     * @param links 登録したLink
+     * @return 受け付けた場合は真. 偽の場合は同期的にADSへ書き込むこと
+     */
+    protected boolean replicateAds(List<EntitySetDocHandler> entities,
+            AdsWriteFailureLogInfo.OperationKind entityOperation, List<LinkDocHandler> links) {
+        if (!AdsReplicator.getInstance().isEnabled()) {
+            return false;
+        }
+        List<AdsWriteFailureLogInfo> records = new ArrayList<AdsWriteFailureLogInfo>();
+        for (EntitySetDocHandler docHandler : entities) {
+            records.add(adsLogInfo(docHandler.getType(), docHandler.getCellId(), docHandler.getNodeId(),
+                    docHandler.getId(), entityOperation, 1, docHandler.getUpdated()));
+        }
+        for (LinkDocHandler docHandler : links) {
+            records.add(adsLogInfo(EsModel.TYPE_CTL_LINK, docHandler.getCellId(), docHandler.getNodeId(),
+                    docHandler.getId(), AdsWriteFailureLogInfo.OperationKind.CREATE, 1, docHandler.getUpdated()));
+        }
+        return AdsReplicator.getInstance().replicate(records);
+    }
+
+    private AdsWriteFailureLogInfo adsLogInfo(String docType, String cellId, String nodeId, String id,
+            AdsWriteFailureLogInfo.OperationKind operation, long version, long updated) {
+        String lockKey = LockKeyComposer.fullKeyFromCategoryAndKey(Lock.CATEGORY_ODATA, cellId, null, nodeId);
+        return new AdsWriteFailureLogInfo(this.getIndex().getName(), docType, lockKey, cellId, id,
+                operation, version, updated);
+    }
 }
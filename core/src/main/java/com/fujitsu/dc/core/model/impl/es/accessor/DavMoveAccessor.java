@@ -248,9 +248,11 @@ public class DavMoveAccessor extends DavNodeAccessor {
 
         DcBulkResponse response = null;
         try {
-            response = getIndex().bulkRequest(getRoutingId(), esRequest, true);
+            response = bulkRequest(getRoutingId(), esRequest, true);
         } catch (EsClientException.EsNoResponseException e) {
             throw DcCoreException.Server.ES_RETRY_OVER.params(e.getMessage());
+        } finally {
+            invalidateGet(esRequest);
         }
         return response;
     }
@@ -278,7 +280,7 @@ public class DavMoveAccessor extends DavNodeAccessor {
                 // Adsの登録に失敗した場合は、専用のログに書込む
                 DcBulkItemResponse itemResponse = responseItems[responseIndex++];
                 String lockKey = LockKeyComposer.fullKeyFromCategoryAndKey(Lock.CATEGORY_DAV,
-                        null, docHandler.getBoxId(), null);
+                        null, docHandler.getBoxId(), docHandler.getId());
                 AdsWriteFailureLogInfo loginfo = new AdsWriteFailureLogInfo(
                         this.getIndex().getName(), "dav", lockKey,
                         docHandler.getCellId(), docHandler.getId(),
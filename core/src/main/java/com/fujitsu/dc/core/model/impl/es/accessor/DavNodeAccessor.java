@@ -140,7 +140,7 @@ public class DavNodeAccessor extends DataSourceAccessor {
 
                 // Adsの登録に失敗した場合は、専用のログに書込む
                 String lockKey = LockKeyComposer.fullKeyFromCategoryAndKey(Lock.CATEGORY_DAV, null,
-                        davNode.getBoxId(), null);
+                        davNode.getBoxId(), davNode.getId());
                 AdsWriteFailureLogInfo loginfo = new AdsWriteFailureLogInfo(
                         this.getIndex().getName(), "dav", lockKey, davNode.getCellId(), davNode.getId(),
                         AdsWriteFailureLogInfo.OperationKind.CREATE, 1, davNode.getUpdated());
@@ -191,7 +191,7 @@ public class DavNodeAccessor extends DataSourceAccessor {
 
                 // Adsの登録に失敗した場合は、専用のログに書込む
                 String lockKey = LockKeyComposer.fullKeyFromCategoryAndKey(Lock.CATEGORY_DAV, null,
-                        davNode.getBoxId(), null);
+                        davNode.getBoxId(), davNode.getId());
                 AdsWriteFailureLogInfo loginfo = new AdsWriteFailureLogInfo(
                         this.getIndex().getName(), "dav", lockKey, davNode.getCellId(), davNode.getId(),
                         AdsWriteFailureLogInfo.OperationKind.DELETE, version, davNode.getUpdated());
@@ -274,7 +274,7 @@ public class DavNodeAccessor extends DataSourceAccessor {
 
                 // Adsの登録に失敗した場合は、専用のログに書込む
                 String lockKey = LockKeyComposer.fullKeyFromCategoryAndKey(Lock.CATEGORY_DAV, null,
-                        davNode.getBoxId(), null);
+                        davNode.getBoxId(), davNode.getId());
                 AdsWriteFailureLogInfo loginfo = new AdsWriteFailureLogInfo(
                         this.getIndex().getName(), "dav", lockKey, davNode.getCellId(), davNode.getId(),
                         AdsWriteFailureLogInfo.OperationKind.UPDATE, version, davNode.getUpdated());
@@ -16,12 +16,16 @@
  */
 package com.fujitsu.dc.core.model.impl.es.accessor;
 
+import java.util.List;
 import java.util.Map;
 
+import com.fujitsu.dc.common.es.EsFuture;
+import com.fujitsu.dc.common.es.EsRefreshPolicy;
 import com.fujitsu.dc.common.es.response.DcDeleteResponse;
 import com.fujitsu.dc.common.es.response.DcGetResponse;
 import com.fujitsu.dc.common.es.response.DcIndexResponse;
 import com.fujitsu.dc.common.es.response.DcSearchResponse;
+import com.fujitsu.dc.core.model.impl.es.cache.EntityCountCache;
 import com.fujitsu.dc.core.model.impl.es.doc.EntitySetDocHandler;
 
 /**
@@ -36,6 +40,20 @@ public interface EntitySetAccessor {
      */
     DcGetResponse get(String id);
 
+    /**
+     * 複数のドキュメントをまとめて取得する.
+     * @param ids ドキュメントのIDのリスト
+     * @return idsと同じ順序の応答のリスト. 存在しないドキュメントの位置はnull
+     */
+    List<DcGetResponse> multiGet(List<String> ids);
+
+    /**
+     * 複数のドキュメントをまとめて、応答を待たずに取得する.
+     * @param ids ドキュメントのIDのリスト
+     * @return idsと同じ順序の応答のリストの非同期応答. 存在しないドキュメントの位置はnull
+     */
+    EsFuture<List<DcGetResponse>> multiGetAsync(List<String> ids);
+
     /**
      * UUIDでデータ登録を行う.
      * @param docHandler 登録データ
@@ -82,6 +100,15 @@ public interface EntitySetAccessor {
      */
     long count(Map<String, Object> query);
 
+    /**
+     * 件数のキャッシュを使用してドキュメントの件数を取得.
+     * @param query クエリ情報
+     * @param scope 暗黙の検索条件から{@link EntityCountCache#scope(String, String, String, String)}で求めたスコープ
+     * @param approximate 書き込み後の古い件数を概算件数として許容する場合はtrue
+     * @return 件数
+     */
+    EntityCountCache.Count count(Map<String, Object> query, String scope, boolean approximate);
+
     /**
      * ドキュメントを検索.
      * @param query クエリ情報
@@ -89,6 +116,17 @@ public interface EntitySetAccessor {
      */
     DcSearchResponse search(Map<String, Object> query);
 
+    /**
+     * 書き込み直後に検索を行う処理の前に呼び出し、それまでの書き込みを検索に反映させる.
+     */
+    void refreshForSearch();
+
+    /**
+     * このアクセサからの書き込みで用いるrefresh方針を設定する.
+     * @param policy refresh方針. nullの場合はESクライアントに設定されたrefresh方針を用いる
+     */
+    void setRefreshPolicy(EsRefreshPolicy policy);
+
     /**
      * データ削除を行う.
      * @param docHandler 削除データ
@@ -0,0 +1,253 @@
+/**
+ * personium.io
+ * Copyright 2014 FUJITSU LIMITED
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.fujitsu.dc.core.model.impl.es.accessor;
+
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import com.fujitsu.dc.common.es.response.DcGetResponse;
+import com.fujitsu.dc.core.DcCoreConfig;
+import com.fujitsu.dc.core.DcCoreException;
+import com.fujitsu.dc.core.model.lock.LockManager;
+
+/**
+ * 同一ドキュメントへの同時の取得要求を1回のESへの問い合わせにまとめる.
+ * <p>
+ * 同じドキュメントの取得中に届いた要求は、新たに問い合わせずにその結果を待って共有する。
+ * ただし、呼び出し元スレッドが最後にロックを取得した時刻より前に開始された取得には相乗りしない。
+ * ロック取得前に開始された取得は、前のロック保持者の書き込みを反映していない可能性があるため。
+ * 自プロセスで書き込んだドキュメントは{@link #invalidate(String)}で取得中の要求と保持している結果から切り離し、
+ * 書き込み後の取得が書き込み前に開始された取得の結果を受け取らないようにする。
+ * スナップショットの有効期間を指定した場合は、取得結果をその期間だけ後続の取得要求にも使い回す。
+ * 切り離しは自プロセスでの書き込みに対してのみ行われ、他ノードでの書き込みは通知されないため、
+ * スナップショットを返す前に、ソースを含まない取得で現在のドキュメントのバージョンと照合する。
+ * バージョンが異なる場合やドキュメントが削除されている場合は、スナップショットを破棄して取得し直す。
+ * 共有する取得結果のソースは呼び出し元ごとに複製して返すため、呼び出し元での変更は他に影響しない。
+ * </p>
+ */
+final class EsGetCoalescer {
+
+    /** 保持するスナップショット数の上限. 超えた場合は全て破棄する. */
+    static final int MAX_SNAPSHOTS = 10000;
+
+    private static EsGetCoalescer instance = new EsGetCoalescer(
+            DcCoreConfig.isEsGetCoalescingEnabled(),
+            DcCoreConfig.getEsGetSnapshotTtlInMillis());
+
+    /**
+     * ESからドキュメントを取得する処理.
+     */
+    interface Loader {
+        /**
+         * ドキュメントを取得する.
+         * @return 取得結果
+         */
+        DcGetResponse load();
+
+        /**
+         * ソースを取得せずに、ドキュメントの現在のバージョンを取得する.
+         * @return バージョン. ドキュメントが存在しない場合はnull
+         */
+        Long loadVersion();
+    }
+
+    private final boolean enabled;
+    private final long snapshotTtlInNanos;
+    private final ConcurrentMap<String, Flight> flights = new ConcurrentHashMap<String, Flight>();
+    private final ConcurrentMap<String, Flight> snapshots = new ConcurrentHashMap<String, Flight>();
+
+    /**
+     * コンストラクタ.
+     * @param enabled 取得要求をまとめるか否か
+     * @param snapshotTtlInMillis 取得結果を使い回す期間(ms). 0の場合は使い回さない
+     */
+    EsGetCoalescer(boolean enabled, long snapshotTtlInMillis) {
+        this.enabled = enabled;
+        this.snapshotTtlInNanos = TimeUnit.MILLISECONDS.toNanos(Math.max(snapshotTtlInMillis, 0));
+    }
+
+    /**
+     * @return インスタンス
+     */
+    static EsGetCoalescer getInstance() {
+        return instance;
+    }
+
+    /**
+     * ドキュメントのキーを生成する.
+     * @param indexName インデックス名
+     * @param type タイプ名
+     * @param id ドキュメントのID
+     * @return キー
+     */
+    static String key(String indexName, String type, String id) {
+        return indexName + "/" + type + "/" + id;
+    }
+
+    /**
+     * ドキュメントを取得する. 同じドキュメントを取得中の場合は、その結果を共有する.
+     * @param key ドキュメントのキー
+     * @param loader ESからドキュメントを取得する処理
+     * @return 取得結果
+     */
+    DcGetResponse get(String key, Loader loader) {
+        if (!this.enabled) {
+            return loader.load();
+        }
+        Long lockedAt = LockManager.getLastAcquiredNanoTime();
+        long now = System.nanoTime();
+        if (this.snapshotTtlInNanos > 0) {
+            Flight snapshot = this.snapshots.get(key);
+            if (snapshot != null) {
+                if (now - snapshot.startedAt > this.snapshotTtlInNanos) {
+                    this.snapshots.remove(key, snapshot);
+                } else if (snapshot.startedAfter(lockedAt)) {
+                    if (snapshot.isCurrent(loader.loadVersion())) {
+                        return snapshot.share();
+                    }
+                    // 他ノードで書き込まれたスナップショットは破棄して取得し直す
+                    this.snapshots.remove(key, snapshot);
+                }
+            }
+        }
+
+        Flight created = new Flight(now);
+        Flight flight = this.flights.putIfAbsent(key, created);
+        if (flight != null) {
+            if (flight.startedAfter(lockedAt)) {
+                return flight.await();
+            }
+            // 取得中の要求がロック取得前に開始されたものである場合は、まとめずに取得する
+            return loader.load();
+        }
+
+        try {
+            created.complete(loader.load(), null);
+        } catch (RuntimeException e) {
+            created.complete(null, e);
+        } finally {
+            if (!created.isDone()) {
+                created.complete(null, DcCoreException.Server.DATA_STORE_UNKNOWN_ERROR);
+            }
+            finish(key, created);
+        }
+        return created.share();
+    }
+
+    /**
+     * 書き込んだドキュメントについて、取得中の要求と保持している取得結果を切り離す.
+     * @param key ドキュメントのキー
+     */
+    void invalidate(String key) {
+        if (!this.enabled) {
+            return;
+        }
+        Flight flight = this.flights.remove(key);
+        if (flight != null) {
+            flight.invalidated = true;
+        }
+        this.snapshots.remove(key);
+    }
+
+    /**
+     * クエリ指定の削除など、書き込んだドキュメントを特定できない場合に、取得中の要求と保持している取得結果を全て切り離す.
+     */
+    void invalidateAll() {
+        if (!this.enabled) {
+            return;
+        }
+        for (String key : this.flights.keySet()) {
+            invalidate(key);
+        }
+        this.snapshots.clear();
+    }
+
+    private void finish(String key, Flight flight) {
+        // 取得中に書き込まれた場合は、取得結果を使い回さない
+        if (this.snapshotTtlInNanos > 0 && flight.error == null && flight.response != null && !flight.invalidated) {
+            if (this.snapshots.size() >= MAX_SNAPSHOTS) {
+                this.snapshots.clear();
+            }
+            this.snapshots.put(key, flight);
+            if (flight.invalidated) {
+                this.snapshots.remove(key, flight);
+            }
+        }
+        this.flights.remove(key, flight);
+    }
+
+    /**
+     * 1回分のESへの取得要求.
+     */
+    static final class Flight {
+        private final long startedAt;
+        private final CountDownLatch done = new CountDownLatch(1);
+        private volatile DcGetResponse response;
+        private volatile RuntimeException error;
+        private volatile boolean invalidated;
+
+        Flight(long startedAt) {
+            this.startedAt = startedAt;
+        }
+
+        boolean startedAfter(Long nanoTime) {
+            return nanoTime == null || this.startedAt - nanoTime >= 0;
+        }
+
+        boolean isCurrent(Long version) {
+            return version != null && this.response.version() == version;
+        }
+
+        boolean isDone() {
+            return this.done.getCount() == 0;
+        }
+
+        void complete(DcGetResponse res, RuntimeException e) {
+            this.response = res;
+            this.error = e;
+            this.done.countDown();
+        }
+
+        DcGetResponse await() {
+            boolean interrupted = false;
+            while (true) {
+                try {
+                    this.done.await();
+                    break;
+                } catch (InterruptedException e) {
+                    interrupted = true;
+                }
+            }
+            if (interrupted) {
+                Thread.currentThread().interrupt();
+            }
+            return share();
+        }
+
+        DcGetResponse share() {
+            if (this.error != null) {
+                throw this.error;
+            }
+            if (this.response == null) {
+                return null;
+            }
+            return new SharedGetResponse(this.response);
+        }
+    }
+}
@@ -0,0 +1,269 @@
+/**
+ * personium.io
+ * Copyright 2014 FUJITSU LIMITED
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.fujitsu.dc.core.model.impl.es.accessor;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CountDownLatch;
+
+import com.fujitsu.dc.core.DcCoreConfig;
+import com.fujitsu.dc.core.DcCoreException;
+
+/**
+ * 同じロックで直列化される登録を、ロックを取得したスレッドがまとめて処理する.
+ * <p>
+ * 登録を依頼したスレッドは、依頼をロックのキーごとの待ち行列に積んでからロックを取得する。
+ * ロックを取得したスレッド(リーダ)は、待ち行列に積まれた依頼を他スレッドのものも含めてまとめて処理する。
+ * ロックの待ち合わせ中に他スレッドのリーダが自分の依頼を処理した場合は、ロックを取得した後に何もせず結果を返す。
+ * 登録を待ち合わせる時間は設けないため、同時に依頼がない場合は1件ずつ処理する。
+ * </p>
+ */
+public final class EsWriteBatcher {
+
+    private static EsWriteBatcher instance = new EsWriteBatcher(
+            DcCoreConfig.isEsWriteBatchEnabled(),
+            DcCoreConfig.getEsWriteBatchMaxSize());
+
+    /**
+     * 依頼をまとめて処理する間に保持するロック.
+     */
+    public interface LockHolder {
+        /**
+         * ロックを取得する.
+         */
+        void acquire();
+
+        /**
+         * ロックを解放する.
+         */
+        void release();
+    }
+
+    /**
+     * まとめた依頼を処理する. ロックを取得した状態で呼び出される.
+     * @param <T> 依頼の型
+     * @param <R> 処理結果の型
+     */
+    public interface Handler<T, R> {
+        /**
+         * 依頼を処理し、依頼ごとに{@link Entry#complete(Object)}または{@link Entry#fail(RuntimeException)}を呼び出す.
+         * @param entries 依頼. 依頼された順
+         */
+        void handle(List<Entry<T, R>> entries);
+    }
+
+    private final boolean enabled;
+    private final int maxSize;
+    // 以下は batches で保護する
+    private final Map<String, Batch<?, ?>> batches = new HashMap<String, Batch<?, ?>>();
+
+    /**
+     * コンストラクタ.
+     * @param enabled 登録をまとめるか否か
+     * @param maxSize 1回にまとめる件数の上限
+     */
+    EsWriteBatcher(boolean enabled, int maxSize) {
+        this.enabled = enabled;
+        this.maxSize = Math.max(maxSize, 1);
+    }
+
+    /**
+     * @return インスタンス
+     */
+    public static EsWriteBatcher getInstance() {
+        return instance;
+    }
+
+    /**
+     * @return 登録をまとめるか否か
+     */
+    public boolean isEnabled() {
+        return this.enabled;
+    }
+
+    /**
+     * 依頼を処理する. ロックの待ち合わせ中に同じキーで積まれた他スレッドの依頼とまとめて処理する.
+     * @param <T> 依頼の型
+     * @param <R> 処理結果の型
+     * @param key ロックのキー
+     * @param task 依頼
+     * @param lock ロック
+     * @param handler まとめた依頼を処理する処理
+     * @return 処理結果
+     */
+    public <T, R> R submit(String key, T task, LockHolder lock, Handler<T, R> handler) {
+        Entry<T, R> entry = new Entry<T, R>(task);
+        Batch<T, R> batch = join(key);
+        try {
+            batch.add(entry);
+            try {
+                lock.acquire();
+            } catch (RuntimeException e) {
+                // 他スレッドのリーダが既に処理を始めている場合は、その結果を返す
+                if (batch.remove(entry)) {
+                    throw e;
+                }
+                return entry.await();
+            }
+            try {
+                while (!entry.isDone()) {
+                    lead(batch.drain(this.maxSize), handler);
+                }
+            } finally {
+                lock.release();
+            }
+        } finally {
+            leave(key, batch);
+        }
+        return entry.await();
+    }
+
+    private <T, R> void lead(List<Entry<T, R>> entries, Handler<T, R> handler) {
+        RuntimeException error = DcCoreException.Server.DATA_STORE_UNKNOWN_ERROR;
+        try {
+            handler.handle(entries);
+        } catch (RuntimeException e) {
+            error = e;
+        } finally {
+            // 処理結果を返していない依頼元には、発生したエラーを返す
+            for (Entry<T, R> entry : entries) {
+                entry.fail(error);
+            }
+        }
+    }
+
+    @SuppressWarnings("unchecked")
+    private <T, R> Batch<T, R> join(String key) {
+        synchronized (this.batches) {
+            Batch<T, R> batch = (Batch<T, R>) this.batches.get(key);
+            if (batch == null) {
+                batch = new Batch<T, R>();
+                this.batches.put(key, batch);
+            }
+            batch.users++;
+            return batch;
+        }
+    }
+
+    private void leave(String key, Batch<?, ?> batch) {
+        synchronized (this.batches) {
+            if (--batch.users == 0) {
+                this.batches.remove(key);
+            }
+        }
+    }
+
+    /**
+     * ロックのキーごとの依頼の待ち行列.
+     * @param <T> 依頼の型
+     * @param <R> 処理結果の型
+     */
+    static final class Batch<T, R> {
+        private final LinkedList<Entry<T, R>> entries = new LinkedList<Entry<T, R>>();
+        // 待ち行列を参照しているスレッドの数. EsWriteBatcher#batches で保護する
+        private int users;
+
+        synchronized void add(Entry<T, R> entry) {
+            this.entries.add(entry);
+        }
+
+        synchronized boolean remove(Entry<T, R> entry) {
+            return this.entries.remove(entry);
+        }
+
+        synchronized List<Entry<T, R>> drain(int maxSize) {
+            List<Entry<T, R>> drained = new ArrayList<Entry<T, R>>();
+            while (!this.entries.isEmpty() && drained.size() < maxSize) {
+                drained.add(this.entries.removeFirst());
+            }
+            return drained;
+        }
+    }
+
+    /**
+     * 依頼元ごとの依頼.
+     * @param <T> 依頼の型
+     * @param <R> 処理結果の型
+     */
+    public static final class Entry<T, R> {
+        private final T task;
+        private final CountDownLatch done = new CountDownLatch(1);
+        private volatile R result;
+        private volatile RuntimeException error;
+
+        Entry(T task) {
+            this.task = task;
+        }
+
+        /**
+         * @return 依頼
+         */
+        public T getTask() {
+            return this.task;
+        }
+
+        /**
+         * 処理結果を返す. 既に結果を返している場合は何もしない.
+         * @param res 処理結果
+         */
+        public synchronized void complete(R res) {
+            if (isDone()) {
+                return;
+            }
+            this.result = res;
+            this.done.countDown();
+        }
+
+        /**
+         * エラーを返す. 既に結果を返している場合は何もしない.
+         * @param e エラー
+         */
+        public synchronized void fail(RuntimeException e) {
+            if (isDone()) {
+                return;
+            }
+            this.error = e;
+            this.done.countDown();
+        }
+
+        boolean isDone() {
+            return this.done.getCount() == 0;
+        }
+
+        R await() {
+            boolean interrupted = false;
+            while (true) {
+                try {
+                    this.done.await();
+                    break;
+                } catch (InterruptedException e) {
+                    interrupted = true;
+                }
+            }
+            if (interrupted) {
+                Thread.currentThread().interrupt();
+            }
+            if (this.error != null) {
+                throw this.error;
+            }
+            return this.result;
+        }
+    }
+}
@@ -17,12 +17,15 @@
 package com.fujitsu.dc.core.model.impl.es.accessor;
 
 import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.List;
 
 import com.fujitsu.dc.common.ads.AdsWriteFailureLogInfo;
 import com.fujitsu.dc.common.es.EsIndex;
 import com.fujitsu.dc.core.DcCoreLog;
 import com.fujitsu.dc.core.model.impl.es.ads.AdsException;
 import com.fujitsu.dc.core.model.impl.es.doc.EntitySetDocHandler;
+import com.fujitsu.dc.core.model.impl.es.doc.LinkDocHandler;
 import com.fujitsu.dc.core.model.lock.Lock;
 import com.fujitsu.dc.core.model.lock.LockKeyComposer;
 
@@ -47,7 +50,7 @@ public class ODataEntityAccessor extends AbstractEntitySetAccessor {
      */
     protected void createAds(EntitySetDocHandler docHandler) {
         // 登録に成功した場合、マスタデータを書き込む
-        if (getAds() != null) {
+        if (getAds() != null && !replicateAds(docHandler, AdsWriteFailureLogInfo.OperationKind.CREATE, 1)) {
             String indexName = getIndex().getName();
             try {
                 getAds().createEntity(indexName, docHandler);
@@ -87,6 +90,24 @@ public class ODataEntityAccessor extends AbstractEntitySetAccessor {
         }
     }
 
+    /**
+     * マスターデータを一括登録する. 一括登録に失敗した場合は1件ずつ登録する.
+     * @param docHandlers 登録データ
+     */
+    @Override
+    protected void createAds(List<EntitySetDocHandler> docHandlers) {
+        if (getAds() == null || replicateAds(docHandlers,
+                AdsWriteFailureLogInfo.OperationKind.CREATE, new ArrayList<LinkDocHandler>())) {
+            return;
+        }
+        try {
+            getAds().bulkEntity(getIndex().getName(), docHandlers);
+        } catch (AdsException e) {
+            DcCoreLog.Server.DATA_STORE_ENTITY_BULK_CREATE_FAIL.params(e.getMessage()).reason(e).writeLog();
+            super.createAds(docHandlers);
+        }
+    }
+
     /**
      * マスターデータを更新する.
      * @param docHandler 登録データ
@@ -94,7 +115,7 @@ public class ODataEntityAccessor extends AbstractEntitySetAccessor {
      */
     protected void updateAds(EntitySetDocHandler docHandler, long version) {
         // 更新に成功した場合、マスタデータを更新する
-        if (getAds() != null) {
+        if (getAds() != null && !replicateAds(docHandler, AdsWriteFailureLogInfo.OperationKind.UPDATE, version)) {
             try {
                 getAds().updateEntity(getIndex().getName(), docHandler);
             } catch (AdsException e) {
@@ -122,7 +143,7 @@ public class ODataEntityAccessor extends AbstractEntitySetAccessor {
         String id = docHandler.getId();
 
         // 削除に成功した場合、マスタデータを削除する
-        if (getAds() != null) {
+        if (getAds() != null && !replicateAds(docHandler, AdsWriteFailureLogInfo.OperationKind.DELETE, version)) {
             try {
                 getAds().deleteEntity(getIndex().getName(), id);
             } catch (AdsException e) {
@@ -74,7 +74,7 @@ public class ODataLinkAccessor extends DataSourceAccessor {
      */
     protected void createAds(LinkDocHandler docHandler) {
         // 登録に成功した場合、マスタデータを書き込む
-        if (getAds() != null) {
+        if (getAds() != null && !replicateAds(docHandler, AdsWriteFailureLogInfo.OperationKind.CREATE, 1)) {
             try {
                 getAds().createLink(getIndex().getName(), docHandler);
             } catch (AdsException e) {
@@ -124,7 +124,7 @@ public class ODataLinkAccessor extends DataSourceAccessor {
      */
     protected void updateAds(LinkDocHandler docHandler, long version) {
         // 更新に成功した場合、マスタデータを書き込む
-        if (getAds() != null) {
+        if (getAds() != null && !replicateAds(docHandler, AdsWriteFailureLogInfo.OperationKind.UPDATE, version)) {
             try {
                 getAds().updateLink(getIndex().getName(), docHandler);
             } catch (AdsException e) {
@@ -176,7 +176,7 @@ public class ODataLinkAccessor extends DataSourceAccessor {
         String id = docHandler.getId();
 
         // 削除に成功した場合、マスタデータを書き込む
-        if (getAds() != null) {
+        if (getAds() != null && !replicateAds(docHandler, AdsWriteFailureLogInfo.OperationKind.DELETE, version)) {
             try {
                 getAds().deleteLink(getIndex().getName(), id);
             } catch (AdsException e) {
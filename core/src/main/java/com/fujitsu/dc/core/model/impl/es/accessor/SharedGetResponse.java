@@ -0,0 +1,128 @@
+/**
+ * personium.io
+ * Copyright 2014 FUJITSU LIMITED
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.fujitsu.dc.core.model.impl.es.accessor;
+
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import com.fujitsu.dc.common.es.response.DcGetResponse;
+
+/**
+ * 複数の呼び出し元で共有するドキュメントの取得結果.
+ * ソースは呼び出し元ごとに複製して返す.
+ */
+final class SharedGetResponse implements DcGetResponse {
+    private final DcGetResponse response;
+    private Map<String, Object> source;
+
+    /**
+     * コンストラクタ.
+     * @param response 共有する取得結果
+     */
+    SharedGetResponse(DcGetResponse response) {
+        this.response = response;
+    }
+
+    @Override
+    public boolean isNull() {
+        return this.response.isNull();
+    }
+
+    @Override
+    public String getId() {
+        return this.response.getId();
+    }
+
+    @Override
+    public String id() {
+        return this.response.id();
+    }
+
+    @Override
+    public String getType() {
+        return this.response.getType();
+    }
+
+    @Override
+    public boolean exists() {
+        return this.response.exists();
+    }
+
+    @Override
+    public boolean isExists() {
+        return this.response.isExists();
+    }
+
+    @Override
+    public long version() {
+        return this.response.version();
+    }
+
+    @Override
+    public long getVersion() {
+        return this.response.getVersion();
+    }
+
+    @Override
+    public Map<String, Object> getSource() {
+        // 共有している取得結果はソースの解析結果を内部に保持するため、解析と複製は排他して行う
+        synchronized (this.response) {
+            if (this.source == null) {
+                Map<String, Object> original = this.response.getSource();
+                if (original == null) {
+                    return null;
+                }
+                this.source = copyMap(original);
+            }
+            return this.source;
+        }
+    }
+
+    @Override
+    public String sourceAsString() {
+        return this.response.sourceAsString();
+    }
+
+    @Override
+    public Map<String, Object> sourceAsMap() {
+        return getSource();
+    }
+
+    private static Map<String, Object> copyMap(Map<?, ?> map) {
+        Map<String, Object> copied = new LinkedHashMap<String, Object>();
+        for (Map.Entry<?, ?> entry : map.entrySet()) {
+            copied.put((String) entry.getKey(), copy(entry.getValue()));
+        }
+        return copied;
+    }
+
+    private static Object copy(Object value) {
+        if (value instanceof Map) {
+            return copyMap((Map<?, ?>) value);
+        }
+        if (value instanceof List) {
+            List<Object> copied = new ArrayList<Object>();
+            for (Object element : (List<?>) value) {
+                copied.add(copy(element));
+            }
+            return copied;
+        }
+        return value;
+    }
+}
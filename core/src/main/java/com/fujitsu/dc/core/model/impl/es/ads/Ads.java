@@ -17,6 +17,7 @@
 package com.fujitsu.dc.core.model.impl.es.ads;
 
 import java.util.List;
+import java.util.Map;
 
 import org.json.simple.JSONObject;
 
@@ -265,6 +266,87 @@ public interface Ads {
      */
     List<JSONObject> searchDavNodeList(String index, List<String> idList) throws AdsException;
 
+    /**
+     * 整合性検証用に、ADS内の特定indexに対応するEntityのうちIDが接頭辞で始まるもののダイジェストを、接頭辞の次の1文字ごとに取得する。
+     * @param index index
+     * @param idPrefix IDの接頭辞
+     * @return 接頭辞の次の1文字とダイジェストのMap
+     * @throws AdsException 取得失敗時
+     */
+    Map<String, AdsRangeDigest> digestEntityByIdPrefix(String index, String idPrefix) throws AdsException;
+
+    /**
+     * 整合性検証用に、ADS内の特定indexに対応するEntityのうちIDが接頭辞で始まるもののダイジェストを取得する。
+     * @param index index
+     * @param idPrefix IDの接頭辞
+     * @return ダイジェスト
+     * @throws AdsException 取得失敗時
+     */
+    AdsRangeDigest digestEntity(String index, String idPrefix) throws AdsException;
+
+    /**
+     * 整合性検証用に、ADS内の特定indexに対応するEntityのうちIDが接頭辞で始まるもののID、タイプ、更新日時等を取得する。
+     * @param index index
+     * @param idPrefix IDの接頭辞
+     * @return JSONObjectのリスト.
+     * @throws AdsException 取得失敗時
+     */
+    List<JSONObject> getEntityVersionList(String index, String idPrefix) throws AdsException;
+
+    /**
+     * 整合性検証用に、ADS内の特定indexに対応するLinkのうちIDが接頭辞で始まるもののダイジェストを、接頭辞の次の1文字ごとに取得する。
+     * @param index index
+     * @param idPrefix IDの接頭辞
+     * @return 接頭辞の次の1文字とダイジェストのMap
+     * @throws AdsException 取得失敗時
+     */
+    Map<String, AdsRangeDigest> digestLinkByIdPrefix(String index, String idPrefix) throws AdsException;
+
+    /**
+     * 整合性検証用に、ADS内の特定indexに対応するLinkのうちIDが接頭辞で始まるもののダイジェストを取得する。
+     * @param index index
+     * @param idPrefix IDの接頭辞
+     * @return ダイジェスト
+     * @throws AdsException 取得失敗時
+     */
+    AdsRangeDigest digestLink(String index, String idPrefix) throws AdsException;
+
+    /**
+     * 整合性検証用に、ADS内の特定indexに対応するLinkのうちIDが接頭辞で始まるもののID、タイプ、更新日時等を取得する。
+     * @param index index
+     * @param idPrefix IDの接頭辞
+     * @return JSONObjectのリスト.
+     * @throws AdsException 取得失敗時
+     */
+    List<JSONObject> getLinkVersionList(String index, String idPrefix) throws AdsException;
+
+    /**
+     * 整合性検証用に、ADS内の特定indexに対応するDavNodeのうちIDが接頭辞で始まるもののダイジェストを、接頭辞の次の1文字ごとに取得する。
+     * @param index index
+     * @param idPrefix IDの接頭辞
+     * @return 接頭辞の次の1文字とダイジェストのMap
+     * @throws AdsException 取得失敗時
+     */
+    Map<String, AdsRangeDigest> digestDavNodeByIdPrefix(String index, String idPrefix) throws AdsException;
+
+    /**
+     * 整合性検証用に、ADS内の特定indexに対応するDavNodeのうちIDが接頭辞で始まるもののダイジェストを取得する。
+     * @param index index
+     * @param idPrefix IDの接頭辞
+     * @return ダイジェスト
+     * @throws AdsException 取得失敗時
+     */
+    AdsRangeDigest digestDavNode(String index, String idPrefix) throws AdsException;
+
+    /**
+     * 整合性検証用に、ADS内の特定indexに対応するDavNodeのうちIDが接頭辞で始まるもののID、タイプ、更新日時等を取得する。
+     * @param index index
+     * @param idPrefix IDの接頭辞
+     * @return JSONObjectのリスト.
+     * @throws AdsException 取得失敗時
+     */
+    List<JSONObject> getDavNodeVersionList(String index, String idPrefix) throws AdsException;
+
     /**
      * 指定されたIDのCellのリソースをENTITYテーブルから削除する.
      * @param index 対象インデックス
@@ -0,0 +1,365 @@
+/**
+ * personium.io
+ * Copyright 2014 FUJITSU LIMITED
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.fujitsu.dc.core.model.impl.es.ads;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.FilenameFilter;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.nio.channels.FileChannel;
+import java.nio.charset.Charset;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+import org.apache.commons.io.IOUtils;
+
+import com.fujitsu.dc.common.ads.AdsWriteFailureLogException;
+import com.fujitsu.dc.common.ads.AdsWriteFailureLogInfo;
+
+/**
+ * ADSへ反映する更新を記録するローカルのジャーナル.
+ * <p>
+ * 更新はADS書き込み失敗ログと同じ形式の1行として、連番の付いたセグメントファイルへ追記する。
+ * fsyncは複数スレッドの追記をまとめて1回で行う(グループコミット)。
+ * 反映処理は封印済みのセグメントを古い順に読み、反映済みの位置をチェックポイントファイルに記録する。
+ * 全て反映したセグメントは削除する。
+ * </p>
+ * <ul>
+ * <li>セグメントファイル名：adsJournal_【PCSバージョン】_【連番】.log</li>
+ * <li>チェックポイントファイル名：adsJournal_【PCSバージョン】.checkpoint</li>
+ * </ul>
+ */
+public final class AdsJournal {
+
+    private static final Charset CHARSET = Charset.forName("UTF-8");
+    private static final String SEGMENT_FORMAT = "adsJournal_%s_%019d.log";
+
+    private final File dir;
+    private final String pcsVersion;
+    private final long segmentMaxBytes;
+    private final Pattern segmentPattern;
+
+    // fsyncとセグメントのクローズを直列化するためのロック. thisより先に取得すること
+    private final Object syncLock = new Object();
+
+    // 以下は this で保護する
+    private long nextSequence;
+    private File activeFile;
+    private FileOutputStream activeStream;
+    private long activeBytes;
+    private long appendedPosition;
+    private long pendingBytes;
+
+    private volatile long syncedPosition;
+
+    /**
+     * 反映済みの位置.
+     */
+    public static final class Checkpoint {
+        private final String segmentName;
+        private final long records;
+
+        Checkpoint(String segmentName, long records) {
+            this.segmentName = segmentName;
+            this.records = records;
+        }
+
+        /**
+         * @param segment セグメント
+         * @return セグメントのうち反映済みの行数
+         */
+        public long recordsOf(File segment) {
+            if (segment.getName().equals(this.segmentName)) {
+                return this.records;
+            }
+            return 0;
+        }
+    }
+
+    /**
+     * コンストラクタ. ディレクトリに残っているセグメントとチェックポイントに記録されたセグメントの後に続けて記録する.
+     * @param dir ジャーナルを格納するディレクトリ
+     * @param pcsVersion PCSバージョン
+     * @param segmentMaxBytes セグメントを切り替えるサイズ(byte)
+     * @throws AdsWriteFailureLogException ディレクトリが利用できない場合
+     */
+    public AdsJournal(File dir, String pcsVersion, long segmentMaxBytes) throws AdsWriteFailureLogException {
+        this.dir = dir;
+        this.pcsVersion = pcsVersion;
+        this.segmentMaxBytes = segmentMaxBytes;
+        this.segmentPattern = Pattern.compile("adsJournal_" + Pattern.quote(pcsVersion) + "_(\\d{19})\\.log");
+        if (!dir.isDirectory() && !dir.mkdirs()) {
+            throw new AdsWriteFailureLogException(
+                    String.format("Failed to create adsJournal directory. [%s]", dir.getAbsolutePath()));
+        }
+        for (File segment : listSegments()) {
+            this.nextSequence = sequenceOf(segment) + 1;
+            this.pendingBytes += segment.length();
+        }
+        // 全セグメントの削除後に再起動した場合も、チェックポイントに記録されたセグメントの連番は再利用しない.
+        // 再利用すると、新しいセグメントの先頭の更新が反映済みとして読み飛ばされる
+        long checkpointSequence = sequenceOf(new File(this.dir, readCheckpoint().segmentName));
+        this.nextSequence = Math.max(this.nextSequence, checkpointSequence + 1);
+    }
+
+    /**
+     * 更新を追記する. 追記した更新は{@link #sync(long)}するまで永続化されない.
+     * @param records 更新
+     * @return 追記後の位置. {@link #sync(long)}に渡す
+     * @throws AdsWriteFailureLogException 書き込みに失敗した場合
+     */
+    public synchronized long append(List<AdsWriteFailureLogInfo> records) throws AdsWriteFailureLogException {
+        StringBuilder sb = new StringBuilder();
+        for (AdsWriteFailureLogInfo record : records) {
+            sb.append(record.toString());
+        }
+        byte[] bytes = sb.toString().getBytes(CHARSET);
+        try {
+            if (this.activeStream == null) {
+                this.activeFile = new File(this.dir, String.format(SEGMENT_FORMAT, this.pcsVersion,
+                        this.nextSequence++));
+                this.activeStream = new FileOutputStream(this.activeFile, true);
+                this.activeBytes = 0;
+            }
+            this.activeStream.write(bytes);
+        } catch (IOException e) {
+            throw new AdsWriteFailureLogException(
+                    String.format("Failed to write adsJournal. [%s]", this.activeFile.getAbsolutePath()), e);
+        }
+        this.activeBytes += bytes.length;
+        this.pendingBytes += bytes.length;
+        this.appendedPosition += bytes.length;
+        return this.appendedPosition;
+    }
+
+    /**
+     * 指定した位置までの追記を永続化する.
+     * 他のスレッドのfsyncで既に永続化されている場合は何もしない。fsync中に追記された更新は次のfsyncでまとめて永続化する。
+     * @param position {@link #append(List)}が返した位置
+     * @throws AdsWriteFailureLogException fsyncに失敗した場合
+     */
+    public void sync(long position) throws AdsWriteFailureLogException {
+        if (this.syncedPosition >= position) {
+            return;
+        }
+        synchronized (this.syncLock) {
+            if (this.syncedPosition >= position) {
+                return;
+            }
+            FileOutputStream stream;
+            long target;
+            synchronized (this) {
+                stream = this.activeStream;
+                target = this.appendedPosition;
+            }
+            if (stream != null) {
+                force(stream.getChannel());
+            }
+            this.syncedPosition = target;
+            synchronized (this) {
+                if (stream != null && this.activeStream == stream && this.activeBytes >= this.segmentMaxBytes) {
+                    // fsync後に他スレッドが追記した更新も、封印前に永続化される
+                    closeActive();
+                }
+            }
+        }
+    }
+
+    /**
+     * 追記中のセグメントを永続化して封印する. 以降の追記は新しいセグメントに行う.
+     * @throws AdsWriteFailureLogException fsyncに失敗した場合
+     */
+    public void roll() throws AdsWriteFailureLogException {
+        synchronized (this.syncLock) {
+            synchronized (this) {
+                if (this.activeStream == null) {
+                    return;
+                }
+                closeActive();
+                this.syncedPosition = this.appendedPosition;
+            }
+        }
+    }
+
+    private void force(FileChannel channel) throws AdsWriteFailureLogException {
+        try {
+            channel.force(false);
+        } catch (IOException e) {
+            throw new AdsWriteFailureLogException("Failed to sync adsJournal.", e);
+        }
+    }
+
+    /**
+     * 追記中のセグメントを永続化してからクローズする. thisを取得した状態で呼び出すこと.
+     * クローズ後のセグメントは{@link #sync(long)}でfsyncされないため、追記済みの更新は全てここで永続化する。
+     * @throws AdsWriteFailureLogException fsyncに失敗した場合
+     */
+    private void closeActive() throws AdsWriteFailureLogException {
+        force(this.activeStream.getChannel());
+        IOUtils.closeQuietly(this.activeStream);
+        this.activeStream = null;
+        this.activeFile = null;
+    }
+
+    /**
+     * @return 封印済みのセグメント. 古い順
+     */
+    public synchronized List<File> sealedSegments() {
+        List<File> sealed = new ArrayList<File>();
+        for (File segment : listSegments()) {
+            if (!segment.equals(this.activeFile)) {
+                sealed.add(segment);
+            }
+        }
+        return sealed;
+    }
+
+    /**
+     * @return 反映されていない更新のサイズ(byte)
+     */
+    public synchronized long getPendingBytes() {
+        return this.pendingBytes;
+    }
+
+    /**
+     * セグメントの更新を読み込む.
+     * @param segment セグメント
+     * @return 更新の文字列表現. 1行ごと
+     * @throws AdsWriteFailureLogException 読み込みに失敗した場合
+     */
+    public List<String> read(File segment) throws AdsWriteFailureLogException {
+        List<String> lines = new ArrayList<String>();
+        BufferedReader reader = null;
+        try {
+            reader = new BufferedReader(new InputStreamReader(new FileInputStream(segment), CHARSET));
+            String line;
+            while ((line = reader.readLine()) != null) {
+                if (!line.isEmpty()) {
+                    lines.add(line);
+                }
+            }
+        } catch (IOException e) {
+            throw new AdsWriteFailureLogException(
+                    String.format("Failed to read adsJournal. [%s]", segment.getAbsolutePath()), e);
+        } finally {
+            IOUtils.closeQuietly(reader);
+        }
+        return lines;
+    }
+
+    /**
+     * 全て反映したセグメントを削除する.
+     * @param segment セグメント
+     * @throws AdsWriteFailureLogException 削除に失敗した場合
+     */
+    public synchronized void delete(File segment) throws AdsWriteFailureLogException {
+        long length = segment.length();
+        if (!segment.delete()) {
+            throw new AdsWriteFailureLogException(
+                    String.format("Failed to delete adsJournal. [%s]", segment.getAbsolutePath()));
+        }
+        this.pendingBytes = Math.max(0, this.pendingBytes - length);
+    }
+
+    /**
+     * @return 反映済みの位置. 記録されていない場合は先頭
+     * @throws AdsWriteFailureLogException 読み込みに失敗した場合
+     */
+    public Checkpoint readCheckpoint() throws AdsWriteFailureLogException {
+        File file = checkpointFile();
+        if (!file.isFile()) {
+            return new Checkpoint("", 0);
+        }
+        BufferedReader reader = null;
+        try {
+            reader = new BufferedReader(new InputStreamReader(new FileInputStream(file), CHARSET));
+            String line = reader.readLine();
+            String[] fields = line == null ? new String[0] : line.split("\t");
+            if (fields.length != 2) {
+                return new Checkpoint("", 0);
+            }
+            return new Checkpoint(fields[0], Long.parseLong(fields[1]));
+        } catch (IOException e) {
+            throw new AdsWriteFailureLogException(
+                    String.format("Failed to read adsJournal checkpoint. [%s]", file.getAbsolutePath()), e);
+        } catch (NumberFormatException e) {
+            throw new AdsWriteFailureLogException(
+                    String.format("Invalid adsJournal checkpoint. [%s]", file.getAbsolutePath()), e);
+        } finally {
+            IOUtils.closeQuietly(reader);
+        }
+    }
+
+    /**
+     * 反映済みの位置を記録する. 一時ファイルに書いてから置き換えるため、記録途中で停止しても壊れない.
+     * @param segment セグメント
+     * @param records セグメントのうち反映済みの行数
+     * @throws AdsWriteFailureLogException 書き込みに失敗した場合
+     */
+    public void writeCheckpoint(File segment, long records) throws AdsWriteFailureLogException {
+        File file = checkpointFile();
+        File tmp = new File(this.dir, file.getName() + ".tmp");
+        FileOutputStream out = null;
+        try {
+            out = new FileOutputStream(tmp, false);
+            out.write((segment.getName() + "\t" + records + "\n").getBytes(CHARSET));
+            out.getFD().sync();
+        } catch (IOException e) {
+            throw new AdsWriteFailureLogException(
+                    String.format("Failed to write adsJournal checkpoint. [%s]", tmp.getAbsolutePath()), e);
+        } finally {
+            IOUtils.closeQuietly(out);
+        }
+        if (!tmp.renameTo(file)) {
+            throw new AdsWriteFailureLogException(
+                    String.format("Failed to replace adsJournal checkpoint. [%s]", file.getAbsolutePath()));
+        }
+    }
+
+    private File checkpointFile() {
+        return new File(this.dir, "adsJournal_" + this.pcsVersion + ".checkpoint");
+    }
+
+    private List<File> listSegments() {
+        File[] files = this.dir.listFiles(new FilenameFilter() {
+            @Override
+            public boolean accept(File d, String name) {
+                return segmentPattern.matcher(name).matches();
+            }
+        });
+        if (files == null) {
+            return new ArrayList<File>();
+        }
+        // 連番は固定長のため、ファイル名順が記録順となる
+        Arrays.sort(files);
+        return Arrays.asList(files);
+    }
+
+    private long sequenceOf(File segment) {
+        Matcher m = this.segmentPattern.matcher(segment.getName());
+        if (!m.matches()) {
+            return -1;
+        }
+        return Long.parseLong(m.group(1));
+    }
+}
@@ -0,0 +1,116 @@
+/**
+ * personium.io
+ * Copyright 2014 FUJITSU LIMITED
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.fujitsu.dc.core.model.impl.es.ads;
+
+import java.nio.charset.Charset;
+import java.util.zip.CRC32;
+
+/**
+ * IDの範囲に含まれるデータのダイジェスト.
+ * <p>
+ * 件数と、各データの「ID:更新日時」のCRC32の排他的論理和からなる。排他的論理和のためデータの並び順に依存せず、
+ * ADSではSQLの集約関数(CRC32, BIT_XOR)で、Elasticsearchでは取得したIDと更新日時から同じ値を算出できる。
+ * </p>
+ */
+public final class AdsRangeDigest {
+
+    private static final Charset UTF8 = Charset.forName("UTF-8");
+
+    private long count;
+    private long hash;
+
+    /**
+     * 空の範囲のダイジェストを生成する.
+     */
+    public AdsRangeDigest() {
+        this(0L, 0L);
+    }
+
+    /**
+     * コンストラクタ.
+     * @param count 件数
+     * @param hash ハッシュ値
+     */
+    public AdsRangeDigest(long count, long hash) {
+        this.count = count;
+        this.hash = hash;
+    }
+
+    /**
+     * データを加える.
+     * @param id ID
+     * @param updated 更新日時
+     */
+    public void add(String id, long updated) {
+        this.count++;
+        this.hash ^= hashOf(id, updated);
+    }
+
+    /**
+     * 別の範囲のダイジェストを加える. 重複しない範囲同士であれば、加えた結果は両方の範囲を合わせた範囲のダイジェストとなる.
+     * @param other 加えるダイジェスト
+     */
+    public void add(AdsRangeDigest other) {
+        this.count += other.count;
+        this.hash ^= other.hash;
+    }
+
+    /**
+     * 1件分のハッシュ値を算出する. ADSで算出するCRC32(CONCAT(id, ':', updated))と同じ値となる.
+     * @param id ID
+     * @param updated 更新日時
+     * @return ハッシュ値
+     */
+    static long hashOf(String id, long updated) {
+        CRC32 crc = new CRC32();
+        crc.update((id + ":" + updated).getBytes(UTF8));
+        return crc.getValue();
+    }
+
+    /**
+     * @return 件数
+     */
+    public long getCount() {
+        return this.count;
+    }
+
+    /**
+     * @return ハッシュ値
+     */
+    public long getHash() {
+        return this.hash;
+    }
+
+    @Override
+    public boolean equals(Object obj) {
+        if (!(obj instanceof AdsRangeDigest)) {
+            return false;
+        }
+        AdsRangeDigest other = (AdsRangeDigest) obj;
+        return this.count == other.count && this.hash == other.hash;
+    }
+
+    @Override
+    public int hashCode() {
+        return (int) (this.count * 31 + this.hash);
+    }
+
+    @Override
+    public String toString() {
+        return String.format("[count=%d, hash=%08x]", this.count, this.hash);
+    }
+}
@@ -283,6 +283,60 @@ public class JdbcAds implements Ads {
         return ip.getDavNodeList(offset, size);
     }
 
+    @Override
+    public Map<String, AdsRangeDigest> digestEntityByIdPrefix(String index, String idPrefix) throws AdsException {
+        IndexPeer ip = this.getIndexPeer(index);
+        return ip.digestEntityByIdPrefix(idPrefix);
+    }
+
+    @Override
+    public AdsRangeDigest digestEntity(String index, String idPrefix) throws AdsException {
+        IndexPeer ip = this.getIndexPeer(index);
+        return ip.digestEntity(idPrefix);
+    }
+
+    @Override
+    public List<JSONObject> getEntityVersionList(String index, String idPrefix) throws AdsException {
+        IndexPeer ip = this.getIndexPeer(index);
+        return ip.getEntityVersionList(idPrefix);
+    }
+
+    @Override
+    public Map<String, AdsRangeDigest> digestLinkByIdPrefix(String index, String idPrefix) throws AdsException {
+        IndexPeer ip = this.getIndexPeer(index);
+        return ip.digestLinkByIdPrefix(idPrefix);
+    }
+
+    @Override
+    public AdsRangeDigest digestLink(String index, String idPrefix) throws AdsException {
+        IndexPeer ip = this.getIndexPeer(index);
+        return ip.digestLink(idPrefix);
+    }
+
+    @Override
+    public List<JSONObject> getLinkVersionList(String index, String idPrefix) throws AdsException {
+        IndexPeer ip = this.getIndexPeer(index);
+        return ip.getLinkVersionList(idPrefix);
+    }
+
+    @Override
+    public Map<String, AdsRangeDigest> digestDavNodeByIdPrefix(String index, String idPrefix) throws AdsException {
+        IndexPeer ip = this.getIndexPeer(index);
+        return ip.digestDavNodeByIdPrefix(idPrefix);
+    }
+
+    @Override
+    public AdsRangeDigest digestDavNode(String index, String idPrefix) throws AdsException {
+        IndexPeer ip = this.getIndexPeer(index);
+        return ip.digestDavNode(idPrefix);
+    }
+
+    @Override
+    public List<JSONObject> getDavNodeVersionList(String index, String idPrefix) throws AdsException {
+        IndexPeer ip = this.getIndexPeer(index);
+        return ip.getDavNodeVersionList(idPrefix);
+    }
+
     @Override
     public void deleteCellResourceFromEntity(String index, String cellId) throws AdsException {
         IndexPeer ip = this.getIndexPeer(index);
@@ -445,6 +499,23 @@ public class JdbcAds implements Ads {
         String sqlCellSearch;
         String sqlLinkSearch;
         String sqlDavNodeSearch;
+        String sqlEntityBatchInsert;
+        String sqlEntityLinksBatchUpsert;
+        String sqlDavBatchUpsert;
+        String sqlLinkBatchInsert;
+        String sqlEntityExists;
+        String sqlDavNodeExists;
+        String sqlLinkExists;
+        int batchSize;
+        String sqlEntityRangeChildDigest;
+        String sqlEntityRangeDigest;
+        String sqlEntityRangeSelect;
+        String sqlLinkRangeChildDigest;
+        String sqlLinkRangeDigest;
+        String sqlLinkRangeSelect;
+        String sqlDavNodeRangeChildDigest;
+        String sqlDavNodeRangeDigest;
+        String sqlDavNodeRangeSelect;
 
         // 管理DB用SQL群
         String sqlCellDeleteInsert;
@@ -473,6 +544,72 @@ public class JdbcAds implements Ads {
                 throw new AdsException("No row was returened while 1 row is expected to be returned.");
             }
         };
+        static final QueryResultHandler QUERY_RESULT_HANDLER_FOR_DIGEST_BY_PREFIX = new QueryResultHandler() {
+            @Override
+            public Object handle(ResultSet resultSet) throws AdsException {
+                try {
+                    Map<String, AdsRangeDigest> ret = new HashMap<String, AdsRangeDigest>();
+                    while (resultSet.next()) {
+                        ret.put(resultSet.getString(1), new AdsRangeDigest(resultSet.getLong(2), resultSet.getLong(3)));
+                    }
+                    return ret;
+                } catch (SQLException e) {
+                    throw new AdsException(e);
+                }
+            }
+
+            @Override
+            public Object handleQueryIsEmpty() throws AdsException {
+                return new HashMap<String, AdsRangeDigest>();
+            }
+        };
+        static final QueryResultHandler QUERY_RESULT_HANDLER_FOR_DIGEST = new QueryResultHandler() {
+            @Override
+            public Object handle(ResultSet resultSet) throws AdsException {
+                try {
+                    if (!resultSet.next()) {
+                        throw new AdsException("No row was returened while 1 row is expected to be returned.");
+                    }
+                    return new AdsRangeDigest(resultSet.getLong(1), resultSet.getLong(2));
+                } catch (SQLException e) {
+                    throw new AdsException(e);
+                }
+            }
+
+            @Override
+            public Object handleQueryIsEmpty() throws AdsException {
+                throw new AdsException("No row was returened while 1 row is expected to be returned.");
+            }
+        };
+        static final QueryResultHandler QUERY_RESULT_HANDLER_FOR_VERSION_LIST = new QueryResultHandler() {
+            @SuppressWarnings("unchecked")
+            @Override
+            public Object handle(ResultSet resultSet) throws AdsException {
+                try {
+                    List<JSONObject> ret = new ArrayList<JSONObject>();
+                    while (resultSet.next()) {
+                        JSONObject json = new JSONObject();
+                        json.put("type", resultSet.getString("type"));
+                        json.put("id", resultSet.getString("id"));
+                        JSONObject source = new JSONObject();
+                        json.put("source", source);
+                        source.put(OEntityDocHandler.KEY_CELL_ID, resultSet.getString("cell_id"));
+                        source.put(OEntityDocHandler.KEY_BOX_ID, resultSet.getString("box_id"));
+                        source.put(OEntityDocHandler.KEY_NODE_ID, resultSet.getString("node_id"));
+                        source.put(OEntityDocHandler.KEY_UPDATED, resultSet.getLong("updated"));
+                        ret.add(json);
+                    }
+                    return ret;
+                } catch (SQLException e) {
+                    throw new AdsException(e);
+                }
+            }
+
+            @Override
+            public Object handleQueryIsEmpty() throws AdsException {
+                return new ArrayList<JSONObject>();
+            }
+        };
 
         IndexPeer(DataSource ds, String index) {
             this.ds = ds;
@@ -520,6 +657,27 @@ public class JdbcAds implements Ads {
             this.sqlLinkSearch = Sql.searchLink.replace(SCHEMA_NAME_REPLACING_KEY, this.index);
             this.sqlDavNodeSearch = Sql.searchDav.replace(SCHEMA_NAME_REPLACING_KEY, this.index);
 
+            // 一括登録・更新は1行分のSQLをバッチ実行する. SQLが件数によらず一定のため、PreparedStatementをキャッシュできる
+            this.sqlEntityBatchInsert = this.sqlEntityBulkInsert + Sql.ENTITY_ROW_PLACEHOLDER;
+            this.sqlEntityLinksBatchUpsert = this.sqlEntityBatchInsert + Sql.ENTITY_LINKS_ON_DUPLICATE;
+            this.sqlDavBatchUpsert = this.sqlDavBulkInsert + Sql.DAVNODE_ROW_PLACEHOLDER + Sql.DAVNODE_ON_DUPLICATE;
+            this.sqlLinkBatchInsert = this.sqlLinkBulkInsert + Sql.LINK_ROW_PLACEHOLDER;
+            this.batchSize = Math.max(1, DcCoreConfig.getEsAdsJdbcBatchSize());
+            this.sqlEntityExists = Sql.ENTITY_EXISTS.replace(SCHEMA_NAME_REPLACING_KEY, this.index);
+            this.sqlDavNodeExists = Sql.DAVNODE_EXISTS.replace(SCHEMA_NAME_REPLACING_KEY, this.index);
+            this.sqlLinkExists = Sql.LINK_EXISTS.replace(SCHEMA_NAME_REPLACING_KEY, this.index);
+
+            // 整合性検証用SQL群
+            this.sqlEntityRangeChildDigest = Sql.digestEntityByIdPrefix.replace(SCHEMA_NAME_REPLACING_KEY, this.index);
+            this.sqlEntityRangeDigest = Sql.digestEntity.replace(SCHEMA_NAME_REPLACING_KEY, this.index);
+            this.sqlEntityRangeSelect = Sql.selectEntityVersion.replace(SCHEMA_NAME_REPLACING_KEY, this.index);
+            this.sqlLinkRangeChildDigest = Sql.digestLinkByIdPrefix.replace(SCHEMA_NAME_REPLACING_KEY, this.index);
+            this.sqlLinkRangeDigest = Sql.digestLink.replace(SCHEMA_NAME_REPLACING_KEY, this.index);
+            this.sqlLinkRangeSelect = Sql.selectLinkVersion.replace(SCHEMA_NAME_REPLACING_KEY, this.index);
+            this.sqlDavNodeRangeChildDigest = Sql.digestDavByIdPrefix.replace(SCHEMA_NAME_REPLACING_KEY, this.index);
+            this.sqlDavNodeRangeDigest = Sql.digestDav.replace(SCHEMA_NAME_REPLACING_KEY, this.index);
+            this.sqlDavNodeRangeSelect = Sql.selectDavVersion.replace(SCHEMA_NAME_REPLACING_KEY, this.index);
+
             // 管理DB用SQL群
             this.sqlCellDeleteInsert = Sql.insertCellDelete.replace(SCHEMA_NAME_REPLACING_KEY, this.index);
         }
@@ -543,79 +701,26 @@ public class JdbcAds implements Ads {
         }
 
         void bulkEntity(final List<EntitySetDocHandler> bulkRequestList) throws AdsException {
-            // 一括登録のSQLを生成する
-            StringBuilder sql = new StringBuilder(this.sqlEntityBulkInsert);
-            for (int i = 0; i < bulkRequestList.size(); i++) {
-                sql.append("(?,?,?,?,?,?,?,?,?,?,?,?)");
-                if (i != bulkRequestList.size() - 1) {
-                    sql.append(",");
-                }
-            }
-            this.executeUpdateSql(sql.toString(), new StatementHandlerForBulkEntity(bulkRequestList),
-                    bulkRequestList.size());
-
+            this.executeBatchUpdateSql(this.sqlEntityBatchInsert, this.sqlEntityExists,
+                    new StatementHandlerForBulkEntity(bulkRequestList),
+                    1);
         }
 
         void bulkUpdateEntityLink(final List<EntitySetDocHandler> bulkRequestList) throws AdsException {
-            // 一括更新のSQLを生成する
-            StringBuilder sql = new StringBuilder(this.sqlEntityBulkInsert);
-            for (int i = 0; i < bulkRequestList.size(); i++) {
-                sql.append("(?,?,?,?,?,?,?,?,?,?,?,?)");
-                if (i != bulkRequestList.size() - 1) {
-                    sql.append(",");
-                }
-            }
-
-            sql.append(" on duplicate key update ");
-            sql.append("links=values(links)");
-
-            int expectedUpdateCount = bulkRequestList.size() * 2;
-            this.executeUpdateSql(sql.toString(), new StatementHandlerForBulkEntity(bulkRequestList),
-                    expectedUpdateCount);
-
+            // on duplicate key updateで更新された行は2件として数えられる
+            this.executeBatchUpdateSql(this.sqlEntityLinksBatchUpsert, this.sqlEntityExists,
+                    new StatementHandlerForBulkEntity(bulkRequestList), 2);
         }
 
         void bulkUpdateDav(List<DavNode> bulkRequestList) throws AdsException {
-            // 一括更新のSQLを生成する
-            StringBuilder sql = new StringBuilder(this.sqlDavBulkInsert);
-            for (int i = 0; i < bulkRequestList.size(); i++) {
-                sql.append("(?,?,?,?,?,?,?,?,?,?,?)");
-                if (i != bulkRequestList.size() - 1) {
-                    sql.append(",");
-                }
-            }
-
-            sql.append(" on duplicate key update ");
-            sql.append("cell_id=values(cell_id)");
-            sql.append(",box_id=values(box_id)");
-            sql.append(",parent_id=values(parent_id)");
-            sql.append(",children=values(children)");
-            sql.append(",node_type=values(node_type)");
-            sql.append(",acl=values(acl)");
-            sql.append(",properties=values(properties)");
-            sql.append(",file=values(file)");
-            sql.append(",published=values(published)");
-            sql.append(",updated=values(updated)");
-            sql.append(",id=values(id)");
-
-            int expectedUpdateCount = bulkRequestList.size() * 2;
-            this.executeUpdateSql(sql.toString(), new StatementHandlerForBulkDav(bulkRequestList),
-                    expectedUpdateCount);
-
+            // on duplicate key updateで更新された行は2件として数えられる
+            this.executeBatchUpdateSql(this.sqlDavBatchUpsert, this.sqlDavNodeExists,
+                    new StatementHandlerForBulkDav(bulkRequestList), 2);
         }
 
         void bulkCreateLink(final List<LinkDocHandler> bulkRequestList) throws AdsException {
-            // 一括登録のSQLを生成する
-            StringBuilder sql = new StringBuilder(this.sqlLinkBulkInsert);
-            for (int i = 0; i < bulkRequestList.size(); i++) {
-                sql.append("(?,?,?,?,?,?,?,?,?,?)");
-                if (i != bulkRequestList.size() - 1) {
-                    sql.append(",");
-                }
-            }
-            this.executeUpdateSql(sql.toString(), new StatementHandlerForBulkLink(bulkRequestList),
-                    bulkRequestList.size());
-
+            this.executeBatchUpdateSql(this.sqlLinkBatchInsert, this.sqlLinkExists,
+                    new StatementHandlerForBulkLink(bulkRequestList), 1);
         }
 
         void createCell(final EntitySetDocHandler docHandler) throws AdsException {
@@ -745,6 +850,65 @@ public class JdbcAds implements Ads {
             return (Long) ret;
         }
 
+        Map<String, AdsRangeDigest> digestEntityByIdPrefix(String idPrefix) throws AdsException {
+            return this.digestByNextChar(this.sqlEntityRangeChildDigest, idPrefix);
+        }
+
+        AdsRangeDigest digestEntity(String idPrefix) throws AdsException {
+            return this.digestByIdPrefix(this.sqlEntityRangeDigest, idPrefix);
+        }
+
+        List<JSONObject> getEntityVersionList(String idPrefix) throws AdsException {
+            return this.getVersionListByIdPrefix(this.sqlEntityRangeSelect, idPrefix);
+        }
+
+        Map<String, AdsRangeDigest> digestLinkByIdPrefix(String idPrefix) throws AdsException {
+            return this.digestByNextChar(this.sqlLinkRangeChildDigest, idPrefix);
+        }
+
+        AdsRangeDigest digestLink(String idPrefix) throws AdsException {
+            return this.digestByIdPrefix(this.sqlLinkRangeDigest, idPrefix);
+        }
+
+        List<JSONObject> getLinkVersionList(String idPrefix) throws AdsException {
+            return this.getVersionListByIdPrefix(this.sqlLinkRangeSelect, idPrefix);
+        }
+
+        Map<String, AdsRangeDigest> digestDavNodeByIdPrefix(String idPrefix) throws AdsException {
+            return this.digestByNextChar(this.sqlDavNodeRangeChildDigest, idPrefix);
+        }
+
+        AdsRangeDigest digestDavNode(String idPrefix) throws AdsException {
+            return this.digestByIdPrefix(this.sqlDavNodeRangeDigest, idPrefix);
+        }
+
+        List<JSONObject> getDavNodeVersionList(String idPrefix) throws AdsException {
+            return this.getVersionListByIdPrefix(this.sqlDavNodeRangeSelect, idPrefix);
+        }
+
+        @SuppressWarnings("unchecked")
+        private Map<String, AdsRangeDigest> digestByNextChar(String sql, String idPrefix) throws AdsException {
+            Object ret = this.executeQuerySql(sql,
+                    new StatementHandlerForIdPrefix(idPrefix, true),
+                    QUERY_RESULT_HANDLER_FOR_DIGEST_BY_PREFIX);
+            return (Map<String, AdsRangeDigest>) ret;
+        }
+
+        private AdsRangeDigest digestByIdPrefix(String sql, String idPrefix) throws AdsException {
+            Object ret = this.executeQuerySql(sql,
+                    new StatementHandlerForIdPrefix(idPrefix, false),
+                    QUERY_RESULT_HANDLER_FOR_DIGEST);
+            return (AdsRangeDigest) ret;
+        }
+
+        @SuppressWarnings("unchecked")
+        private List<JSONObject> getVersionListByIdPrefix(String sql, String idPrefix) throws AdsException {
+            Object ret = this.executeQuerySql(sql,
+                    new StatementHandlerForIdPrefix(idPrefix, false),
+                    QUERY_RESULT_HANDLER_FOR_VERSION_LIST);
+            return (List<JSONObject>) ret;
+        }
+
         @SuppressWarnings("unchecked")
         List<JSONObject> getEntityList(final long offset, final long size) throws AdsException {
             Object ret = this.executeQuerySql(
@@ -1234,6 +1398,117 @@ public class JdbcAds implements Ads {
             }
         }
 
+        /**
+         * 1行分のSQLを一括登録・更新対象の件数分バッチ実行する.
+         * batchSize件ごとにexecuteBatchし、全件を1トランザクションでコミットする.
+         * 更新件数はexecuteBatchごとに検証し、想定と異なる場合はロールバックする.
+         * rewriteBatchedStatementsにより件数が返却されないバッチは、各行がテーブルに存在することを1行ずつ確認する.
+         * @param sql 1行分のSQL
+         * @param existsSql idを指定して行の件数を取得するSQL
+         * @param sp 各行のプレースホルダに値を埋め込むHandler
+         * @param expectedCountPerRow 1行あたりの想定更新件数
+         * @throws AdsException 処理失敗時、または更新件数が想定と異なる場合に発生
+         */
+        void executeBatchUpdateSql(String sql, String existsSql, BatchStatementHandler sp, int expectedCountPerRow)
+                throws AdsException {
+            int size = sp.size();
+            if (size == 0) {
+                return;
+            }
+            Connection con = this.getConnection();
+            PreparedStatement stmt = null;
+            boolean autoCommit = AUTO_COMMIT;
+            try {
+                autoCommit = con.getAutoCommit();
+                con.setAutoCommit(false);
+                stmt = con.prepareStatement(sql);
+                int batchStart = 0;
+                for (int row = 0; row < size; row++) {
+                    sp.handle(stmt, row);
+                    stmt.addBatch();
+                    if ((row + 1) % this.batchSize == 0 || row == size - 1) {
+                        long count = 0;
+                        boolean countKnown = true;
+                        for (int rowCount : stmt.executeBatch()) {
+                            // rewriteBatchedStatementsにより複数行が1文にまとめられた場合、行ごとの件数は返却されない
+                            if (rowCount == Statement.SUCCESS_NO_INFO) {
+                                countKnown = false;
+                            } else {
+                                count += rowCount;
+                            }
+                        }
+                        long expectedCount = (long) (row + 1 - batchStart) * expectedCountPerRow;
+                        if (!countKnown) {
+                            count = this.countExistingRows(con, existsSql, sp, batchStart, row + 1);
+                            expectedCount = row + 1 - batchStart;
+                        }
+                        if (count != expectedCount) {
+                            con.rollback();
+                            throw new AdsException("["
+                                    + count + "] rows have been affected while " + expectedCount
+                                    + " row is expected to be affected.");
+                        }
+                        batchStart = row + 1;
+                    }
+                }
+                con.commit();
+            } catch (SQLException e) {
+                if (stmt != null) {
+                    DcCoreLog.Server.JDBC_EXEC_SQL.params(
+                            ((DelegatingPreparedStatement) stmt).getDelegate().toString()).writeLog();
+                }
+                try {
+                    con.rollback();
+                } catch (SQLException e1) {
+                    log.info("Failed to rollback.", e1);
+                }
+                throw new AdsException(e);
+            } finally {
+                try {
+                    if (stmt != null) {
+                        stmt.close();
+                    }
+                    con.setAutoCommit(autoCommit);
+                    con.close();
+                } catch (SQLException e) {
+                    DcCoreLog.Server.RDB_DISCONNECT_FAIL.params(e.getMessage()).reason(e).writeLog();
+                    throw new AdsException(e);
+                }
+            }
+        }
+
+        /**
+         * バッチ実行した行のうち、テーブルに存在する行の件数を1行ずつ確認して返す.
+         * @param con Connection
+         * @param existsSql idを指定して行の件数を取得するSQL
+         * @param sp 各行のidを返すHandler
+         * @param from 確認する先頭の行番号
+         * @param to 確認する末尾の次の行番号
+         * @return テーブルに存在する行の件数
+         * @throws SQLException SQLの実行に失敗した場合
+         */
+        private long countExistingRows(Connection con, String existsSql, BatchStatementHandler sp, int from, int to)
+                throws SQLException {
+            long count = 0;
+            PreparedStatement stmt = con.prepareStatement(existsSql);
+            try {
+                for (int row = from; row < to; row++) {
+                    stmt.setString(1, sp.id(row));
+                    ResultSet rs = stmt.executeQuery();
+                    try {
+                        if (rs.next()) {
+                            count += rs.getLong(1);
+                        }
+                    } finally {
+                        rs.close();
+                    }
+                }
+            } finally {
+                stmt.close();
+            }
+            return count;
+        }
+
         /**
          * SQLのPreparedStatementを受け取ってプレースホルダに値を埋め込むHandler.
          */
@@ -1280,10 +1555,33 @@ public class JdbcAds implements Ads {
             }
         }
 
+        /**
+         * バッチ実行するSQLのPreparedStatementを受け取って、1行分のプレースホルダに値を埋め込むHandler.
+         */
+        abstract static class BatchStatementHandler {
+            /**
+             * @return 行数
+             */
+            abstract int size();
+
+            /**
+             * @param stmt PreparedStatement
+             * @param row 行番号
+             * @throws SQLException 値の埋め込みに失敗した場合
+             */
+            abstract void handle(PreparedStatement stmt, int row) throws SQLException;
+
+            /**
+             * @param row 行番号
+             * @return 行のid
+             */
+            abstract String id(int row);
+        }
+
         /**
          * BulkEntityを扱うためのStatementHandler.
          */
-        static class StatementHandlerForBulkEntity extends StatementHandler {
+        static class StatementHandlerForBulkEntity extends BatchStatementHandler {
             List<EntitySetDocHandler> bulkRequestList;
 
             StatementHandlerForBulkEntity(List<EntitySetDocHandler> bulkRequestList) {
@@ -1291,29 +1589,38 @@ public class JdbcAds implements Ads {
             }
 
             @Override
-            public void handle(PreparedStatement stmt) throws SQLException {
+            int size() {
+                return bulkRequestList.size();
+            }
+
+            @Override
+            String id(int row) {
+                return bulkRequestList.get(row).getId();
+            }
+
+            @Override
+            public void handle(PreparedStatement stmt, int row) throws SQLException {
                 int index = 1;
-                for (EntitySetDocHandler docHandler : bulkRequestList) {
-                    stmt.setString(index++, docHandler.getType());
-                    stmt.setString(index++, docHandler.getCellId());
-                    stmt.setString(index++, docHandler.getBoxId());
-                    stmt.setString(index++, docHandler.getNodeId());
-                    stmt.setString(index++, docHandler.getEntityTypeId());
-                    stmt.setString(index++, docHandler.getStaticFieldsString());
-                    stmt.setString(index++, docHandler.getDynamicFieldsString());
-                    stmt.setString(index++, docHandler.getHiddenFieldsString());
-                    stmt.setString(index++, docHandler.getManyToOnelinkIdString());
-                    stmt.setLong(index++, docHandler.getPublished());
-                    stmt.setLong(index++, docHandler.getUpdated());
-                    stmt.setString(index++, docHandler.getId());
-                }
+                EntitySetDocHandler docHandler = bulkRequestList.get(row);
+                stmt.setString(index++, docHandler.getType());
+                stmt.setString(index++, docHandler.getCellId());
+                stmt.setString(index++, docHandler.getBoxId());
+                stmt.setString(index++, docHandler.getNodeId());
+                stmt.setString(index++, docHandler.getEntityTypeId());
+                stmt.setString(index++, docHandler.getStaticFieldsString());
+                stmt.setString(index++, docHandler.getDynamicFieldsString());
+                stmt.setString(index++, docHandler.getHiddenFieldsString());
+                stmt.setString(index++, docHandler.getManyToOnelinkIdString());
+                stmt.setLong(index++, docHandler.getPublished());
+                stmt.setLong(index++, docHandler.getUpdated());
+                stmt.setString(index++, docHandler.getId());
             }
         }
 
         /**
          * BulkLinkを扱うためのStatementHandler.
          */
-        static class StatementHandlerForBulkLink extends StatementHandler {
+        static class StatementHandlerForBulkLink extends BatchStatementHandler {
             List<LinkDocHandler> bulkRequestList;
 
             StatementHandlerForBulkLink(List<LinkDocHandler> bulkRequestList) {
@@ -1321,20 +1628,29 @@ public class JdbcAds implements Ads {
             }
 
             @Override
-            public void handle(PreparedStatement stmt) throws SQLException {
+            int size() {
+                return bulkRequestList.size();
+            }
+
+            @Override
+            String id(int row) {
+                return bulkRequestList.get(row).getId();
+            }
+
+            @Override
+            public void handle(PreparedStatement stmt, int row) throws SQLException {
                 int index = 1;
-                for (LinkDocHandler docHandler : bulkRequestList) {
-                    stmt.setString(index++, docHandler.getCellId());
-                    stmt.setString(index++, docHandler.getBoxId());
-                    stmt.setString(index++, docHandler.getNodeId());
-                    stmt.setString(index++, docHandler.getEnt1Type());
-                    stmt.setString(index++, docHandler.getEnt1Key());
-                    stmt.setString(index++, docHandler.getEnt2Type());
-                    stmt.setString(index++, docHandler.getEnt2Key());
-                    stmt.setLong(index++, docHandler.getPublished());
-                    stmt.setLong(index++, docHandler.getUpdated());
-                    stmt.setString(index++, docHandler.getId());
-                }
+                LinkDocHandler docHandler = bulkRequestList.get(row);
+                stmt.setString(index++, docHandler.getCellId());
+                stmt.setString(index++, docHandler.getBoxId());
+                stmt.setString(index++, docHandler.getNodeId());
+                stmt.setString(index++, docHandler.getEnt1Type());
+                stmt.setString(index++, docHandler.getEnt1Key());
+                stmt.setString(index++, docHandler.getEnt2Type());
+                stmt.setString(index++, docHandler.getEnt2Key());
+                stmt.setLong(index++, docHandler.getPublished());
+                stmt.setLong(index++, docHandler.getUpdated());
+                stmt.setString(index++, docHandler.getId());
             }
         }
 
@@ -1426,7 +1742,7 @@ public class JdbcAds implements Ads {
         /**
          * BulkDavを扱うためのStatementHandler.
          */
-        static class StatementHandlerForBulkDav extends StatementHandler {
+        static class StatementHandlerForBulkDav extends BatchStatementHandler {
             List<DavNode> bulkRequestList;
 
             StatementHandlerForBulkDav(List<DavNode> bulkRequestList) {
@@ -1434,25 +1750,34 @@ public class JdbcAds implements Ads {
             }
 
             @Override
-            public void handle(PreparedStatement stmt) throws SQLException {
+            int size() {
+                return bulkRequestList.size();
+            }
+
+            @Override
+            String id(int row) {
+                return bulkRequestList.get(row).getId();
+            }
+
+            @Override
+            public void handle(PreparedStatement stmt, int row) throws SQLException {
                 int index = 1;
-                for (DavNode docHandler : bulkRequestList) {
-                    stmt.setString(index++, docHandler.getCellId());
-                    stmt.setString(index++, docHandler.getBoxId());
-                    stmt.setString(index++, docHandler.getParentId());
-                    stmt.setString(index++, JSONObject.toJSONString(docHandler.getChildren()));
-                    stmt.setString(index++, docHandler.getNodeType());
-                    stmt.setString(index++, JSONObject.toJSONString(docHandler.getAcl()));
-                    stmt.setString(index++, JSONObject.toJSONString(docHandler.getProperties()));
-                    String file = null;
-                    if (docHandler.getFile() != null) {
-                        file = JSONObject.toJSONString(docHandler.getFile());
-                    }
-                    stmt.setString(index++, file);
-                    stmt.setLong(index++, docHandler.getPublished());
-                    stmt.setLong(index++, docHandler.getUpdated());
-                    stmt.setString(index++, docHandler.getId());
+                DavNode docHandler = bulkRequestList.get(row);
+                stmt.setString(index++, docHandler.getCellId());
+                stmt.setString(index++, docHandler.getBoxId());
+                stmt.setString(index++, docHandler.getParentId());
+                stmt.setString(index++, JSONObject.toJSONString(docHandler.getChildren()));
+                stmt.setString(index++, docHandler.getNodeType());
+                stmt.setString(index++, JSONObject.toJSONString(docHandler.getAcl()));
+                stmt.setString(index++, JSONObject.toJSONString(docHandler.getProperties()));
+                String file = null;
+                if (docHandler.getFile() != null) {
+                    file = JSONObject.toJSONString(docHandler.getFile());
                 }
+                stmt.setString(index++, file);
+                stmt.setLong(index++, docHandler.getPublished());
+                stmt.setLong(index++, docHandler.getUpdated());
+                stmt.setString(index++, docHandler.getId());
             }
         }
 
@@ -1498,6 +1823,31 @@ public class JdbcAds implements Ads {
             }
         }
 
+        /**
+         * IDの接頭辞で検索するSQL用のPreparedStatementの設定.
+         */
+        static class StatementHandlerForIdPrefix extends StatementHandler {
+            String idPrefix;
+            boolean groupByNextChar;
+
+            StatementHandlerForIdPrefix(String idPrefix, boolean groupByNextChar) {
+                this.idPrefix = idPrefix;
+                this.groupByNextChar = groupByNextChar;
+            }
+
+            @Override
+            public void handle(PreparedStatement stmt) throws SQLException {
+                int index = 1;
+                if (groupByNextChar) {
+                    stmt.setInt(index++, idPrefix.length() + 1);
+                }
+                // LIKEの特殊文字(\, %, _)はエスケープして前方一致とする
+                String escaped = idPrefix.replace("\\", "\\\\").replace("%", "\\%").replace("_", "\\_");
+                stmt.setString(index, escaped + "%");
+                writeLog(stmt);
+            }
+        }
+
         /**
          * PreStatementに.
          */
@@ -1602,6 +1952,46 @@ public class JdbcAds implements Ads {
         static String searchDav =
                 DcCoreUtils.readStringResource("es/ads/dav-search.sql", CharEncoding.UTF_8);
 
+        static String digestEntityByIdPrefix =
+                DcCoreUtils.readStringResource("es/ads/entity-range-child-digest.sql", CharEncoding.UTF_8);
+        static String digestEntity =
+                DcCoreUtils.readStringResource("es/ads/entity-range-digest.sql", CharEncoding.UTF_8);
+        static String selectEntityVersion =
+                DcCoreUtils.readStringResource("es/ads/entity-range-select.sql", CharEncoding.UTF_8);
+        static String digestLinkByIdPrefix =
+                DcCoreUtils.readStringResource("es/ads/link-range-child-digest.sql", CharEncoding.UTF_8);
+        static String digestLink =
+                DcCoreUtils.readStringResource("es/ads/link-range-digest.sql", CharEncoding.UTF_8);
+        static String selectLinkVersion =
+                DcCoreUtils.readStringResource("es/ads/link-range-select.sql", CharEncoding.UTF_8);
+        static String digestDavByIdPrefix =
+                DcCoreUtils.readStringResource("es/ads/dav-range-child-digest.sql", CharEncoding.UTF_8);
+        static String digestDav =
+                DcCoreUtils.readStringResource("es/ads/dav-range-digest.sql", CharEncoding.UTF_8);
+        static String selectDavVersion =
+                DcCoreUtils.readStringResource("es/ads/dav-range-select.sql", CharEncoding.UTF_8);
+
+        // 一括登録・更新で1行分のSQLを組み立てる際に付与する句
+        static final String ENTITY_ROW_PLACEHOLDER = "(?,?,?,?,?,?,?,?,?,?,?,?)";
+        static final String ENTITY_LINKS_ON_DUPLICATE = " on duplicate key update links=values(links)";
+        static final String LINK_ROW_PLACEHOLDER = "(?,?,?,?,?,?,?,?,?,?)";
+        static final String ENTITY_EXISTS = "select count(*) from `##schema##`.ENTITY where id = ?";
+        static final String LINK_EXISTS = "select count(*) from `##schema##`.LINK where id = ?";
+        static final String DAVNODE_EXISTS = "select count(*) from `##schema##`.DAV_NODE where id = ?";
+        static final String DAVNODE_ROW_PLACEHOLDER = "(?,?,?,?,?,?,?,?,?,?,?)";
+        static final String DAVNODE_ON_DUPLICATE = " on duplicate key update "
+                + "cell_id=values(cell_id)"
+                + ",box_id=values(box_id)"
+                + ",parent_id=values(parent_id)"
+                + ",children=values(children)"
+                + ",node_type=values(node_type)"
+                + ",acl=values(acl)"
+                + ",properties=values(properties)"
+                + ",file=values(file)"
+                + ",published=values(published)"
+                + ",updated=values(updated)"
+                + ",id=values(id)";
+
         // Cell管理用SQL群
         static String insertCellDelete =
                 DcCoreUtils.readStringResource("es/ads/celldelete-insert.sql", CharEncoding.UTF_8);
@@ -34,12 +34,17 @@ import com.fujitsu.dc.core.utils.MemcachedClient.MemcachedClientException;
  */
 public class BoxCache {
     static Logger log = LoggerFactory.getLogger(BoxCache.class);
-    private static MemcachedClient mcdClient = MemcachedClient.getCacheClient();
+    private static CacheClient mcdClient = MemcachedClient.getCacheClient();
+    private static NearCache nearCache = new NearCache("box");
 
     static CacheClient getMcdClient() {
         return mcdClient;
     }
 
+    static NearCache getNearCache() {
+        return nearCache;
+    }
+
     private BoxCache() {
     }
 
@@ -54,10 +59,23 @@ public class BoxCache {
             return null;
         }
 
+        String key = cacheKey(boxName, cell);
+        NearCache near = getNearCache();
+        boolean useNearCache = near.isEnabled();
         @SuppressWarnings("rawtypes")
-        HashMap obj = null;
+        Map obj = null;
         try {
-            obj = getMcdClient().get(cacheKey(boxName, cell), HashMap.class);
+            if (useNearCache) {
+                // ニアキャッシュに存在する場合はmemcachedへアクセスしない
+                obj = (Map) near.get(key, getMcdClient());
+            }
+            if (obj == null) {
+                long epoch = near.currentEpoch();
+                obj = getMcdClient().get(key, HashMap.class);
+                if (useNearCache) {
+                    near.put(key, obj, epoch);
+                }
+            }
         } catch (MemcachedClientException e) {
             // キャッシュのアクセスに失敗した場合は、DBからデータを取得させるためnullを返却
             log.info("Failed to get BoxCache.");
@@ -88,11 +106,19 @@ public class BoxCache {
         obj.put("schema", box.getSchema());
         obj.put("published", box.getPublished());
 
-        getMcdClient().put(cacheKey(box.getName(), box.getCell()), DcCoreConfig.getCacheMemcachedExpiresIn(), obj);
+        String key = cacheKey(box.getName(), box.getCell());
+        NearCache near = getNearCache();
+        long epoch = near.currentEpoch();
+        // 書き込みの応答は待たずにリクエスト処理を続ける
+        getMcdClient().asyncPut(key, DcCoreConfig.getCacheMemcachedExpiresIn(), obj);
+        if (near.isEnabled()) {
+            near.put(key, obj, epoch);
+        }
     }
 
     /**
      * 指定したBox名のキャッシュ情報を削除する.
+     * 他ノードのニアキャッシュも世代キーを介して無効化される.
      * @param boxName Box名
      * @param cell Cellオブジェクト
      */
@@ -101,6 +127,8 @@ public class BoxCache {
             return;
         }
         getMcdClient().delete(cacheKey(boxName, cell));
+        // memcachedから削除した後に世代を進めることで、他ノードが古い値を再取得しないようにする
+        getNearCache().invalidate(cacheKey(boxName, cell), getMcdClient());
     }
 
     static String cacheKey(String boxName, Cell cell) {
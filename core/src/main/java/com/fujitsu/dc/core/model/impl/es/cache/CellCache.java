@@ -32,7 +32,9 @@ import com.fujitsu.dc.core.utils.MemcachedClient.MemcachedClientException;
 public class CellCache {
     static Logger log = LoggerFactory.getLogger(CellCache.class);
 
-    static MemcachedClient mcdClient = MemcachedClient.getCacheClient();
+    static CacheClient mcdClient = MemcachedClient.getCacheClient();
+
+    static NearCache nearCache = new NearCache("cell");
 
     private CellCache() {
     }
@@ -41,6 +43,10 @@ public class CellCache {
         return mcdClient;
     }
 
+    static NearCache getNearCache() {
+        return nearCache;
+    }
+
     /**
      * Cell情報をキャッシュから取得し、Cell情報を格納したMapを返す.
      * @param cellName Cell名
@@ -50,9 +56,25 @@ public class CellCache {
         if (!DcCoreConfig.isCellCacheEnabled()) {
             return null;
         }
+        String key = cacheKey(cellName);
+        NearCache near = getNearCache();
+        boolean useNearCache = near.isEnabled();
+        long epoch = 0;
         try {
+            if (useNearCache) {
+                // ニアキャッシュに存在する場合はmemcachedへアクセスしない
+                @SuppressWarnings("unchecked")
+                Map<String, Object> nearCached = (Map<String, Object>) near.get(key, getMcdClient());
+                if (nearCached != null) {
+                    return nearCached;
+                }
+                epoch = near.currentEpoch();
+            }
             @SuppressWarnings("unchecked")
-            Map<String, Object> cache = getMcdClient().get(cacheKey(cellName), Map.class);
+            Map<String, Object> cache = getMcdClient().get(key, Map.class);
+            if (useNearCache) {
+                near.put(key, cache, epoch);
+            }
             return cache;
         } catch (MemcachedClientException e) {
             // キャッシュのアクセスに失敗した場合は、DBからデータを取得させるためnullを返却
@@ -70,11 +92,18 @@ public class CellCache {
         if (!DcCoreConfig.isCellCacheEnabled()) {
             return;
         }
-        getMcdClient().put(cacheKey(cellName), DcCoreConfig.getCacheMemcachedExpiresIn(), cell);
+        NearCache near = getNearCache();
+        long epoch = near.currentEpoch();
+        // 書き込みの応答は待たずにリクエスト処理を続ける
+        getMcdClient().asyncPut(cacheKey(cellName), DcCoreConfig.getCacheMemcachedExpiresIn(), cell);
+        if (near.isEnabled()) {
+            near.put(cacheKey(cellName), cell, epoch);
+        }
     }
 
     /**
      * 指定したCell名のキャッシュ情報を削除する.
+     * 他ノードのニアキャッシュも世代キーを介して無効化される.
      * @param cellName Cell名
      */
     public static void clear(String cellName) {
@@ -82,6 +111,8 @@ public class CellCache {
             return;
         }
         getMcdClient().delete(cacheKey(cellName));
+        // memcachedから削除した後に世代を進めることで、他ノードが古い値を再取得しないようにする
+        getNearCache().invalidate(cacheKey(cellName), getMcdClient());
     }
 
     static String cacheKey(String cellName) {
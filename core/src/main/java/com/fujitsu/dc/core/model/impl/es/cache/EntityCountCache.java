@@ -0,0 +1,488 @@
+/**
+ * personium.io
+ * Copyright 2014 FUJITSU LIMITED
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.fujitsu.dc.core.model.impl.es.cache;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.json.simple.JSONValue;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.fujitsu.dc.common.es.EsRefreshPolicy;
+import com.fujitsu.dc.core.DcCoreConfig;
+import com.fujitsu.dc.core.utils.CacheClient;
+import com.fujitsu.dc.core.utils.MemcachedClient;
+import com.fujitsu.dc.core.utils.MemcachedClient.MemcachedClientException;
+
+/**
+ * 件数取得の結果をプロセス内に保持するキャッシュ.
+ * <p>
+ * 件数は、インデックス・タイプ・スコープと、検索条件(query/filter)を正規化した文字列をキーとして保持する。
+ * スコープは暗黙の検索条件であるCell / Box / Node / EntityTypeのIDを連結したもので、
+ * 例えばUserDataの件数はEntityTypeごとのスコープとなる。
+ * 書き込みのたびに、書き込んだドキュメントを含み得るスコープ(Cell、Cell/Box、…、Cell/Box/Node/EntityType)の
+ * memcached上の世代を進め、取得時に世代が変わっていた件数は使わない。
+ * スコープが不明な書き込みはタイプ全体の世代を進め、タイプの全スコープの件数を使わないようにする。
+ * 世代を確認できない場合はキャッシュを使わずに件数を取得する。
+ * 世代を進められなかった場合は、このノードで保持している件数を全て破棄し、それまでに取得した世代も使えないようにする。
+ * 書き込みが検索に即時反映されない設定(deferred)の場合、反映前の件数を保持してしまうためキャッシュを使わない。
+ * </p>
+ */
+public final class EntityCountCache {
+    static Logger log = LoggerFactory.getLogger(EntityCountCache.class);
+
+    private static final String GENERATION_KEY_PREFIX = "count:generation:";
+    private static final String SCOPE_SEPARATOR = "/";
+    private static final int GENERATION_RANDOM_RANGE = 1000;
+    private static final Random RANDOM = new Random();
+
+    private static EntityCountCache instance = new EntityCountCache(
+            DcCoreConfig.isCountCacheEnabled() && DcCoreConfig.getEsRefreshPolicy() != EsRefreshPolicy.DEFERRED,
+            DcCoreConfig.getCountCacheMaxEntries(),
+            DcCoreConfig.getCountCacheTtlInMillis(),
+            DcCoreConfig.getCountApproximateMaxAgeInMillis(),
+            MemcachedClient.getCacheClient());
+
+    private final boolean enabled;
+    private final long ttlInMillis;
+    private final long approximateMaxAgeInMillis;
+    private final CacheClient client;
+    private final Map<String, Entry> entries;
+    /** タイプ・スコープごとの件数のキャッシュキー. 書き込み時に全件を走査せずに破棄するために保持する. */
+    private final Map<String, Map<String, Set<String>>> keysByScope = new HashMap<String, Map<String, Set<String>>>();
+    /** 世代を進められなかった場合に進める、このノード内の世代. */
+    private final AtomicLong localGeneration = new AtomicLong();
+
+    /**
+     * コンストラクタ.
+     * @param enabled キャッシュを使用するか否か
+     * @param maxEntries 保持する件数の数の上限
+     * @param ttlInMillis 件数の有効期限(ms)
+     * @param approximateMaxAgeInMillis 概算件数として古い件数を返してよい期間(ms)
+     * @param client 世代を保持するキャッシュクライアント
+     */
+    EntityCountCache(boolean enabled, final int maxEntries, long ttlInMillis, long approximateMaxAgeInMillis,
+            CacheClient client) {
+        // キャッシュクライアントを使用しない設定の場合は世代を共有できないため使用しない
+        this.enabled = enabled && maxEntries > 0 && client != null;
+        this.ttlInMillis = ttlInMillis;
+        this.approximateMaxAgeInMillis = Math.max(approximateMaxAgeInMillis, ttlInMillis);
+        this.client = client;
+        this.entries = new LinkedHashMap<String, Entry>(16, 0.75f, true) {
+            private static final long serialVersionUID = 1L;
+
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<String, Entry> eldest) {
+                if (size() > maxEntries) {
+                    unindex(eldest.getValue());
+                    return true;
+                }
+                return false;
+            }
+        };
+    }
+
+    /**
+     * @return インスタンス
+     */
+    public static EntityCountCache getInstance() {
+        return instance;
+    }
+
+    /**
+     * キャッシュが有効かを返す.
+     * @return 有効の場合はtrue
+     */
+    public boolean isEnabled() {
+        return this.enabled;
+    }
+
+    /**
+     * 暗黙の検索条件からスコープを返す. 条件の入れ子は{@code QueryMapFactory#getImplicitFilters}と同じく、
+     * 上位のIDが無い場合は下位のIDを含めない.
+     * @param cellId CellのUUID
+     * @param boxId BoxのUUID
+     * @param nodeId DavNodeのUUID
+     * @param entityTypeId EntityTypeのUUID
+     * @return スコープ
+     */
+    public static String scope(String cellId, String boxId, String nodeId, String entityTypeId) {
+        List<String> scopes = scopes(cellId, boxId, nodeId, entityTypeId);
+        return scopes.get(scopes.size() - 1);
+    }
+
+    /**
+     * ドキュメントを含み得るスコープを、広い順に返す.
+     * @param cellId CellのUUID
+     * @param boxId BoxのUUID
+     * @param nodeId DavNodeのUUID
+     * @param entityTypeId EntityTypeのUUID
+     * @return スコープのリスト
+     */
+    static List<String> scopes(String cellId, String boxId, String nodeId, String entityTypeId) {
+        List<String> scopes = new ArrayList<String>();
+        StringBuilder scope = new StringBuilder();
+        scopes.add(scope.toString());
+        for (String id : Arrays.asList(cellId, boxId, nodeId, entityTypeId)) {
+            if (id == null) {
+                break;
+            }
+            if (scope.length() > 0) {
+                scope.append(SCOPE_SEPARATOR);
+            }
+            scopes.add(scope.append(id).toString());
+        }
+        return scopes;
+    }
+
+    /**
+     * スコープの現在の世代を返す. 件数を取得する前に呼び出し、{@link #put(String, String, String, Map, String, long)}に渡す.
+     * @param indexName インデックス名
+     * @param typeName タイプ名
+     * @param scope スコープ
+     * @return このノード内の世代と、タイプ全体とスコープの世代. キャッシュが無効な場合や世代を確認できない場合はnull
+     */
+    public String getGeneration(String indexName, String typeName, String scope) {
+        if (!this.enabled) {
+            return null;
+        }
+        String typeKey = generationKey(indexName, typeName, null);
+        String scopeKey = generationKey(indexName, typeName, scope);
+        long local = this.localGeneration.get();
+        try {
+            // タイプ全体とスコープの世代を1回の問い合わせで取得する
+            Map<String, Object> generations = new HashMap<String, Object>(
+                    this.client.getBulk(Arrays.asList(typeKey, scopeKey)));
+            Map<String, Object> generationsToSet = new HashMap<String, Object>();
+            for (String key : Arrays.asList(typeKey, scopeKey)) {
+                if (!(generations.get(key) instanceof Long)) {
+                    // 世代が未登録(または追い出し済み)の場合は新たに採番する
+                    generationsToSet.put(key, newGeneration());
+                }
+            }
+            if (!generationsToSet.isEmpty()) {
+                this.client.putBulk(DcCoreConfig.getCacheMemcachedExpiresIn(), generationsToSet);
+                generations.putAll(generationsToSet);
+            }
+            return local + SCOPE_SEPARATOR + generations.get(typeKey) + SCOPE_SEPARATOR + generations.get(scopeKey);
+        } catch (MemcachedClientException e) {
+            log.info("Failed to get count generation.");
+            return null;
+        }
+    }
+
+    /**
+     * キャッシュした件数を取得する.
+     * @param indexName インデックス名
+     * @param typeName タイプ名
+     * @param scope スコープ
+     * @param query 検索クエリ
+     * @param generation {@link #getGeneration(String, String, String)}で取得した世代
+     * @param approximate 書き込み後の古い件数を概算件数として許容する場合はtrue
+     * @return 件数. 使用できる件数をキャッシュしていない場合はnull
+     */
+    public Count get(String indexName, String typeName, String scope, Map<String, Object> query,
+            String generation, boolean approximate) {
+        if (!this.enabled) {
+            return null;
+        }
+        Entry entry;
+        synchronized (this) {
+            entry = this.entries.get(cacheKey(indexName, typeName, scope, query));
+        }
+        if (entry == null) {
+            return null;
+        }
+        long age = System.currentTimeMillis() - entry.cachedAt;
+        if (generation != null && generation.equals(entry.generation) && age <= this.ttlInMillis) {
+            return new Count(entry.count, true);
+        }
+        if (approximate && age <= this.approximateMaxAgeInMillis) {
+            return new Count(entry.count, false);
+        }
+        return null;
+    }
+
+    /**
+     * 件数をキャッシュする.
+     * @param indexName インデックス名
+     * @param typeName タイプ名
+     * @param scope スコープ
+     * @param query 検索クエリ
+     * @param generation 件数を取得する前に{@link #getGeneration(String, String, String)}で取得した世代
+     * @param count 件数
+     */
+    public void put(String indexName, String typeName, String scope, Map<String, Object> query,
+            String generation, long count) {
+        if (!this.enabled || generation == null) {
+            return;
+        }
+        Entry entry = new Entry(cacheKey(indexName, typeName, scope, query), typeKey(indexName, typeName), scope,
+                count, generation, System.currentTimeMillis());
+        synchronized (this) {
+            if (this.entries.put(entry.key, entry) == null) {
+                index(entry);
+            }
+        }
+    }
+
+    /**
+     * ドキュメントへの書き込みを通知し、そのドキュメントを含み得るスコープの件数を全ノードで使わないよう世代を進める.
+     * @param indexName インデックス名
+     * @param typeName タイプ名
+     * @param cellId 書き込んだドキュメントのCellのUUID
+     * @param boxId 書き込んだドキュメントのBoxのUUID
+     * @param nodeId 書き込んだドキュメントのDavNodeのUUID
+     * @param entityTypeId 書き込んだドキュメントのEntityTypeのUUID
+     */
+    public void invalidate(String indexName, String typeName, String cellId, String boxId, String nodeId,
+            String entityTypeId) {
+        if (!this.enabled) {
+            return;
+        }
+        List<String> scopes = scopes(cellId, boxId, nodeId, entityTypeId);
+        Map<String, Object> generations = new HashMap<String, Object>();
+        for (String scope : scopes) {
+            generations.put(generationKey(indexName, typeName, scope), newGeneration());
+        }
+        removeEntries(typeKey(indexName, typeName), scopes);
+        updateGenerations(generations);
+    }
+
+    /**
+     * スコープが不明な書き込みを通知し、タイプの全スコープの件数を全ノードで使わないようタイプ全体の世代を進める.
+     * @param indexName インデックス名
+     * @param typeName タイプ名
+     */
+    public void invalidate(String indexName, String typeName) {
+        if (!this.enabled) {
+            return;
+        }
+        removeEntries(typeKey(indexName, typeName), null);
+        Map<String, Object> generations = new HashMap<String, Object>();
+        generations.put(generationKey(indexName, typeName, null), newGeneration());
+        updateGenerations(generations);
+    }
+
+    /**
+     * 件数を破棄する.
+     * @param typeKey タイプのキー
+     * @param scopes 破棄するスコープ. nullの場合はタイプの全スコープ
+     */
+    private synchronized void removeEntries(String typeKey, List<String> scopes) {
+        Map<String, Set<String>> byScope = this.keysByScope.get(typeKey);
+        if (byScope == null) {
+            return;
+        }
+        List<Set<String>> removed = new ArrayList<Set<String>>();
+        if (scopes == null) {
+            removed.addAll(byScope.values());
+            byScope.clear();
+        } else {
+            for (String scope : scopes) {
+                Set<String> keys = byScope.remove(scope);
+                if (keys != null) {
+                    removed.add(keys);
+                }
+            }
+        }
+        if (byScope.isEmpty()) {
+            this.keysByScope.remove(typeKey);
+        }
+        for (Set<String> keys : removed) {
+            for (String key : keys) {
+                this.entries.remove(key);
+            }
+        }
+    }
+
+    private void index(Entry entry) {
+        Map<String, Set<String>> byScope = this.keysByScope.get(entry.typeKey);
+        if (byScope == null) {
+            byScope = new HashMap<String, Set<String>>();
+            this.keysByScope.put(entry.typeKey, byScope);
+        }
+        Set<String> keys = byScope.get(entry.scope);
+        if (keys == null) {
+            keys = new HashSet<String>();
+            byScope.put(entry.scope, keys);
+        }
+        keys.add(entry.key);
+    }
+
+    private void unindex(Entry entry) {
+        Map<String, Set<String>> byScope = this.keysByScope.get(entry.typeKey);
+        if (byScope == null) {
+            return;
+        }
+        Set<String> keys = byScope.get(entry.scope);
+        if (keys != null && keys.remove(entry.key) && keys.isEmpty()) {
+            byScope.remove(entry.scope);
+            if (byScope.isEmpty()) {
+                this.keysByScope.remove(entry.typeKey);
+            }
+        }
+    }
+
+    private void updateGenerations(Map<String, Object> generations) {
+        try {
+            this.client.putBulk(DcCoreConfig.getCacheMemcachedExpiresIn(), generations);
+        } catch (MemcachedClientException e) {
+            // 世代を進められないと、書き込み前に取得した世代の件数が使われ続けるため、
+            // このノード内の世代を進めて件数を全て破棄する. 他ノードでは件数の有効期限が過ぎるまで古い件数が使われ得る
+            this.localGeneration.incrementAndGet();
+            synchronized (this) {
+                this.entries.clear();
+                this.keysByScope.clear();
+            }
+            log.info("Failed to update count generation. Dropped all local counts.");
+        }
+    }
+
+    /**
+     * 同一ミリ秒内に複数ノードで更新されても衝突しないよう、時刻に乱数を組み合わせて世代を採番する.
+     * @return 新しい世代
+     */
+    private static long newGeneration() {
+        return System.currentTimeMillis() * GENERATION_RANDOM_RANGE + RANDOM.nextInt(GENERATION_RANDOM_RANGE);
+    }
+
+    /**
+     * 世代のキーを生成する.
+     * @param indexName インデックス名
+     * @param typeName タイプ名
+     * @param scope スコープ. タイプ全体の世代の場合はnull
+     * @return 世代のキー
+     */
+    static String generationKey(String indexName, String typeName, String scope) {
+        if (scope == null) {
+            return GENERATION_KEY_PREFIX + indexName + ":" + typeName;
+        }
+        return GENERATION_KEY_PREFIX + entryPrefix(indexName, typeName, scope);
+    }
+
+    private static String typeKey(String indexName, String typeName) {
+        return indexName + ":" + typeName;
+    }
+
+    private static String entryPrefix(String indexName, String typeName, String scope) {
+        return indexName + ":" + typeName + ":" + scope + ":";
+    }
+
+    /**
+     * キャッシュキーを生成する. 件数に影響しない取得件数・開始位置・ソート順等は含めない.
+     * @param indexName インデックス名
+     * @param typeName タイプ名
+     * @param scope スコープ
+     * @param query 検索クエリ
+     * @return キャッシュキー
+     */
+    static String cacheKey(String indexName, String typeName, String scope, Map<String, Object> query) {
+        Map<String, Object> condition = new TreeMap<String, Object>();
+        if (query != null) {
+            condition.put("query", normalize(query.get("query")));
+            condition.put("filter", normalize(query.get("filter")));
+        }
+        return entryPrefix(indexName, typeName, scope) + JSONValue.toJSONString(condition);
+    }
+
+    /**
+     * Mapのキーの順序によらず同じ文字列になるよう、Mapをキー順に並べ替える.
+     * @param value 値
+     * @return 並べ替えた値
+     */
+    @SuppressWarnings("unchecked")
+    private static Object normalize(Object value) {
+        if (value instanceof Map) {
+            Map<String, Object> sorted = new TreeMap<String, Object>();
+            for (Map.Entry<String, Object> e : ((Map<String, Object>) value).entrySet()) {
+                sorted.put(e.getKey(), normalize(e.getValue()));
+            }
+            return sorted;
+        } else if (value instanceof List) {
+            List<Object> list = new ArrayList<Object>();
+            for (Object item : (List<Object>) value) {
+                list.add(normalize(item));
+            }
+            return list;
+        }
+        return value;
+    }
+
+    /**
+     * 件数.
+     */
+    public static final class Count {
+        private final long value;
+        private final boolean exact;
+
+        /**
+         * コンストラクタ.
+         * @param value 件数
+         * @param exact 正確な件数の場合はtrue. 書き込み後の古い件数の場合はfalse
+         */
+        public Count(long value, boolean exact) {
+            this.value = value;
+            this.exact = exact;
+        }
+
+        /**
+         * @return 件数
+         */
+        public long getValue() {
+            return this.value;
+        }
+
+        /**
+         * @return 正確な件数の場合はtrue. 書き込み後の古い件数の場合はfalse
+         */
+        public boolean isExact() {
+            return this.exact;
+        }
+    }
+
+    /**
+     * キャッシュエントリ.
+     */
+    private static final class Entry {
+        private final String key;
+        private final String typeKey;
+        private final String scope;
+        private final long count;
+        private final String generation;
+        private final long cachedAt;
+
+        Entry(String key, String typeKey, String scope, long count, String generation, long cachedAt) {
+            this.key = key;
+            this.typeKey = typeKey;
+            this.scope = scope;
+            this.count = count;
+            this.generation = generation;
+            this.cachedAt = cachedAt;
+        }
+    }
+}
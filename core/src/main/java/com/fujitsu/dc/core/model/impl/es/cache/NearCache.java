@@ -0,0 +1,439 @@
+/**
+ * personium.io
+ * Copyright 2014 FUJITSU LIMITED
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.fujitsu.dc.core.model.impl.es.cache;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.UUID;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.fujitsu.dc.core.DcCoreConfig;
+import com.fujitsu.dc.core.utils.CacheClient;
+import com.fujitsu.dc.core.utils.MemcachedClient.MemcachedClientException;
+
+/**
+ * memcachedの手前に置くプロセス内キャッシュ(ニアキャッシュ).
+ * <p>
+ * エントリ数の上限(LRU)と有効期限(TTL)で追い出しを行う。
+ * 他ノードでのキャッシュ削除は、memcached上の世代キーを一定間隔で確認することで検知し、
+ * 世代が変わっていた場合はローカルのエントリを全て破棄する。
+ * そのため、ノード間の不整合は最大で世代確認間隔の間だけ残る。
+ * 世代キーの確認は、プロセス内の全てのニアキャッシュの世代キーを1回の問い合わせでまとめて行う。
+ * memcachedへの問い合わせはロックの外で1スレッドだけが行い、その間の他スレッドはローカルのエントリをそのまま参照する。
+ * </p>
+ * <p>
+ * スコープを指定して登録したエントリは、キャッシュ全体の世代とは別にスコープごとの世代キーでも管理する。
+ * スコープ単位の無効化はそのスコープの世代のみを進めるため、他ノードでも該当スコープのエントリだけが破棄される。
+ * </p>
+ */
+public class NearCache {
+    static Logger log = LoggerFactory.getLogger(NearCache.class);
+
+    private static final String GENERATION_KEY_PREFIX = "nearcache:generation:";
+
+    /** スコープの世代を取得できなかったことを表す値. */
+    static final Object UNKNOWN_GENERATION = new Object();
+
+    /** プロセス内の全てのニアキャッシュの世代キー. */
+    private static final CopyOnWriteArrayList<String> GENERATION_KEYS = new CopyOnWriteArrayList<String>();
+    /** 最後にまとめて取得した世代. */
+    private static volatile GenerationSnapshot generationSnapshot;
+
+    private final String generationKey;
+    private final int maxEntries;
+    private final long ttlInMillis;
+    private final long generationCheckIntervalInMillis;
+
+    private final Map<String, Entry> entries;
+    /** エントリを保持しているスコープと、最後に確認したmemcached上のスコープの世代. */
+    private final Map<String, Object> scopeGenerations = new HashMap<String, Object>();
+
+    /** 最後に確認したmemcached上の世代. */
+    private Object generation;
+    /** 最後に世代を確認した時刻. */
+    private volatile long lastGenerationCheck;
+    /** 世代の確認中かどうか. */
+    private final AtomicBoolean generationCheckInProgress = new AtomicBoolean();
+    /** ローカルのエントリを全破棄するたびに進むカウンタ. */
+    private long epoch;
+    /** 世代を確認したキャッシュクライアント. */
+    private volatile CacheClient backingClient;
+
+    /**
+     * 設定値に従ってニアキャッシュを生成する.
+     * @param name キャッシュ名(世代キーの一部として使用する)
+     */
+    NearCache(String name) {
+        this(name, DcCoreConfig.getNearCacheMaxEntries(), DcCoreConfig.getNearCacheTtlInMillis(),
+                DcCoreConfig.getNearCacheGenerationCheckIntervalInMillis());
+    }
+
+    /**
+     * コンストラクタ.
+     * @param name キャッシュ名(世代キーの一部として使用する)
+     * @param maxEntries 保持するエントリ数の上限
+     * @param ttlInMillis エントリの有効期限(ms)
+     * @param generationCheckIntervalInMillis 世代キーの確認間隔(ms)
+     */
+    NearCache(String name, final int maxEntries, long ttlInMillis, long generationCheckIntervalInMillis) {
+        this.generationKey = GENERATION_KEY_PREFIX + name;
+        GENERATION_KEYS.addIfAbsent(this.generationKey);
+        this.maxEntries = maxEntries;
+        this.ttlInMillis = ttlInMillis;
+        this.generationCheckIntervalInMillis = generationCheckIntervalInMillis;
+        this.entries = new LinkedHashMap<String, Entry>(16, 0.75f, true) {
+            private static final long serialVersionUID = 1L;
+
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<String, Entry> eldest) {
+                return size() > maxEntries;
+            }
+        };
+    }
+
+    /**
+     * ニアキャッシュが有効かを返す.
+     * @return 有効の場合はtrue
+     */
+    boolean isEnabled() {
+        return DcCoreConfig.isNearCacheEnabled() && this.maxEntries > 0;
+    }
+
+    /**
+     * 現在のエポックを返す.
+     * memcachedから値を読む前に取得し、{@link #put(String, Object, long)}に渡すことで、
+     * 読み込み中に発生した無効化を取りこぼさないようにする.
+     * @return エポック
+     */
+    synchronized long currentEpoch() {
+        return this.epoch;
+    }
+
+    /**
+     * 指定キーのエントリを取得する.
+     * @param key キャッシュキー
+     * @param client 背後のキャッシュクライアント
+     * @return キャッシュされたオブジェクト。存在しない場合や期限切れの場合はnull
+     */
+    Object get(String key, CacheClient client) {
+        checkGeneration(client);
+        synchronized (this) {
+            Entry entry = this.entries.get(key);
+            if (entry == null) {
+                return null;
+            }
+            if (entry.expiresAt < System.currentTimeMillis()) {
+                this.entries.remove(key);
+                return null;
+            }
+            return entry.value;
+        }
+    }
+
+    /**
+     * エントリを登録する.
+     * 取得時のエポックから無効化が発生していた場合は登録しない.
+     * @param key キャッシュキー
+     * @param value キャッシュすべきオブジェクト
+     * @param readEpoch 値を読み込む前に取得したエポック
+     */
+    synchronized void put(String key, Object value, long readEpoch) {
+        if (value == null || readEpoch != this.epoch) {
+            return;
+        }
+        this.entries.put(key, new Entry(value, System.currentTimeMillis() + this.ttlInMillis, null));
+    }
+
+    /**
+     * 指定スコープの現在の世代を返す. memcachedから値を読む前に取得し、
+     * {@link #put(String, String, Object, long, Object)}に渡すこと.
+     * @param scope スコープ
+     * @param client 背後のキャッシュクライアント
+     * @return スコープの世代。取得できなかった場合は{@link #UNKNOWN_GENERATION}
+     */
+    Object scopeGeneration(String scope, CacheClient client) {
+        synchronized (this) {
+            if (this.scopeGenerations.containsKey(scope)) {
+                return this.scopeGenerations.get(scope);
+            }
+        }
+        try {
+            return client.get(scopeGenerationKey(scope), Object.class);
+        } catch (MemcachedClientException e) {
+            log.info("Failed to get NearCache scope generation.");
+            return UNKNOWN_GENERATION;
+        }
+    }
+
+    /**
+     * スコープを指定してエントリを登録する.
+     * 取得時のエポックやスコープの世代から無効化が発生していた場合は登録しない.
+     * @param scope スコープ
+     * @param key キャッシュキー
+     * @param value キャッシュすべきオブジェクト
+     * @param readEpoch 値を読み込む前に取得したエポック
+     * @param readScopeGeneration 値を読み込む前に{@link #scopeGeneration(String, CacheClient)}で取得した世代
+     */
+    synchronized void put(String scope, String key, Object value, long readEpoch, Object readScopeGeneration) {
+        if (value == null || readEpoch != this.epoch || readScopeGeneration == UNKNOWN_GENERATION) {
+            return;
+        }
+        if (this.scopeGenerations.containsKey(scope)
+                && !sameGeneration(this.scopeGenerations.get(scope), readScopeGeneration)) {
+            return;
+        }
+        this.scopeGenerations.put(scope, readScopeGeneration);
+        this.entries.put(key, new Entry(value, System.currentTimeMillis() + this.ttlInMillis, scope));
+    }
+
+    /**
+     * 指定キーのエントリを削除し、他ノードのニアキャッシュも無効化されるよう世代を進める.
+     * @param key キャッシュキー
+     * @param client 背後のキャッシュクライアント
+     */
+    void invalidate(String key, CacheClient client) {
+        synchronized (this) {
+            this.entries.remove(key);
+            this.epoch++;
+        }
+        advanceGeneration(client);
+    }
+
+    /**
+     * 指定した接頭辞を持つキーのエントリを全て削除し、他ノードのニアキャッシュも無効化されるよう世代を進める.
+     * @param prefix キャッシュキーの接頭辞
+     * @param client 背後のキャッシュクライアント
+     */
+    void invalidateByPrefix(String prefix, CacheClient client) {
+        synchronized (this) {
+            Iterator<String> it = this.entries.keySet().iterator();
+            while (it.hasNext()) {
+                if (it.next().startsWith(prefix)) {
+                    it.remove();
+                }
+            }
+            this.epoch++;
+        }
+        advanceGeneration(client);
+    }
+
+    /**
+     * 指定スコープのエントリを全て削除し、他ノードの同じスコープのエントリも無効化されるようスコープの世代を進める.
+     * キャッシュ全体の世代は進めないため、他のスコープのエントリは破棄されない.
+     * @param scope スコープ
+     * @param client 背後のキャッシュクライアント
+     */
+    void invalidateScope(String scope, CacheClient client) {
+        synchronized (this) {
+            removeScope(scope);
+            this.epoch++;
+        }
+        client.put(scopeGenerationKey(scope), DcCoreConfig.getCacheMemcachedExpiresIn(), UUID.randomUUID().toString());
+    }
+
+    private void removeScope(String scope) {
+        Iterator<Entry> it = this.entries.values().iterator();
+        while (it.hasNext()) {
+            if (scope.equals(it.next().scope)) {
+                it.remove();
+            }
+        }
+        this.scopeGenerations.remove(scope);
+    }
+
+    private void advanceGeneration(CacheClient client) {
+        String newGeneration = UUID.randomUUID().toString();
+        client.put(this.generationKey, DcCoreConfig.getCacheMemcachedExpiresIn(), newGeneration);
+        generationSnapshot = null;
+        synchronized (this) {
+            this.generation = newGeneration;
+        }
+    }
+
+    /**
+     * ローカルのエントリを全て破棄する.
+     */
+    synchronized void clearLocal() {
+        this.entries.clear();
+        this.scopeGenerations.clear();
+        this.epoch++;
+    }
+
+    /**
+     * memcached上の世代を確認し、変わっていればローカルのエントリを全て破棄する.
+     * memcachedへの問い合わせはロックを保持せずに行う。他スレッドが確認中の場合は確認を省略する.
+     * @param client 背後のキャッシュクライアント
+     */
+    private void checkGeneration(CacheClient client) {
+        long now = System.currentTimeMillis();
+        if (client != this.backingClient) {
+            // 背後のクライアントが差し替わった場合は保持内容を信用しない
+            synchronized (this) {
+                if (client != this.backingClient) {
+                    clearLocal();
+                    this.backingClient = client;
+                    this.lastGenerationCheck = 0;
+                }
+            }
+        } else if (now - this.lastGenerationCheck < this.generationCheckIntervalInMillis) {
+            return;
+        }
+        if (!this.generationCheckInProgress.compareAndSet(false, true)) {
+            return;
+        }
+        try {
+            this.lastGenerationCheck = now;
+            List<String> scopeKeys = new ArrayList<String>();
+            synchronized (this) {
+                pruneScopes();
+                for (String scope : this.scopeGenerations.keySet()) {
+                    scopeKeys.add(scopeGenerationKey(scope));
+                }
+            }
+            Map<String, Object> generations;
+            Object latest;
+            try {
+                generations = fetchGenerations(client, now, this.generationCheckIntervalInMillis, scopeKeys);
+                latest = generations.get(this.generationKey);
+            } catch (MemcachedClientException e) {
+                // 世代を確認できない場合は安全側に倒してローカルの内容を破棄する
+                log.info("Failed to get NearCache generation.");
+                synchronized (this) {
+                    clearLocal();
+                    this.generation = null;
+                }
+                return;
+            }
+            synchronized (this) {
+                if (client != this.backingClient) {
+                    // 確認中にクライアントが差し替わった場合は結果を捨てる
+                    return;
+                }
+                if (!sameGeneration(latest, this.generation)) {
+                    clearLocal();
+                    this.generation = latest;
+                    return;
+                }
+                // スコープの世代が変わっていた場合は、そのスコープのエントリのみ破棄する
+                boolean changed = false;
+                for (String scope : new ArrayList<String>(this.scopeGenerations.keySet())) {
+                    String scopeKey = scopeGenerationKey(scope);
+                    if (scopeKeys.contains(scopeKey)
+                            && !sameGeneration(generations.get(scopeKey), this.scopeGenerations.get(scope))) {
+                        removeScope(scope);
+                        changed = true;
+                    }
+                }
+                if (changed) {
+                    this.epoch++;
+                }
+            }
+        } finally {
+            this.generationCheckInProgress.set(false);
+        }
+    }
+
+    /**
+     * エントリが残っていないスコープの世代を破棄する. LRUや有効期限で追い出されたスコープを世代確認の対象から外す.
+     */
+    private void pruneScopes() {
+        if (this.scopeGenerations.isEmpty()) {
+            return;
+        }
+        Set<String> inUse = new HashSet<String>();
+        for (Entry entry : this.entries.values()) {
+            if (entry.scope != null) {
+                inUse.add(entry.scope);
+            }
+        }
+        this.scopeGenerations.keySet().retainAll(inUse);
+    }
+
+    /**
+     * 全てのニアキャッシュの世代をまとめて取得する. 確認間隔内に他のニアキャッシュが取得した結果があればそれを使う.
+     * スコープの世代キーを指定した場合は、それらも同じ問い合わせでまとめて取得する.
+     * @param client 背後のキャッシュクライアント
+     * @param now 現在時刻
+     * @param intervalInMillis 世代キーの確認間隔(ms)
+     * @param scopeKeys スコープの世代キー
+     * @return 世代キーと世代のMap
+     */
+    private static Map<String, Object> fetchGenerations(CacheClient client, long now, long intervalInMillis,
+            List<String> scopeKeys) {
+        GenerationSnapshot snapshot = generationSnapshot;
+        if (scopeKeys.isEmpty() && snapshot != null && snapshot.client == client
+                && now - snapshot.fetchedAt < intervalInMillis) {
+            return snapshot.generations;
+        }
+        List<String> keys = new ArrayList<String>(GENERATION_KEYS);
+        keys.addAll(scopeKeys);
+        Map<String, Object> generations = client.getBulk(keys);
+        generationSnapshot = new GenerationSnapshot(client, now, generations);
+        return generations;
+    }
+
+    private String scopeGenerationKey(String scope) {
+        return this.generationKey + ":" + scope;
+    }
+
+    private static boolean sameGeneration(Object a, Object b) {
+        if (a == null) {
+            return b == null;
+        }
+        return a.equals(b);
+    }
+
+    /**
+     * まとめて取得した世代.
+     */
+    private static final class GenerationSnapshot {
+        private final CacheClient client;
+        private final long fetchedAt;
+        private final Map<String, Object> generations;
+
+        GenerationSnapshot(CacheClient client, long fetchedAt, Map<String, Object> generations) {
+            this.client = client;
+            this.fetchedAt = fetchedAt;
+            this.generations = generations;
+        }
+    }
+
+    /**
+     * キャッシュエントリ.
+     */
+    private static final class Entry {
+        private final Object value;
+        private final long expiresAt;
+        private final String scope;
+
+        Entry(Object value, long expiresAt, String scope) {
+            this.value = value;
+            this.expiresAt = expiresAt;
+            this.scope = scope;
+        }
+    }
+}
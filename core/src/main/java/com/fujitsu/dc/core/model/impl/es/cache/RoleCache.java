@@ -0,0 +1,135 @@
+/**
+ * personium.io
+ * Copyright 2014 FUJITSU LIMITED
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.fujitsu.dc.core.model.impl.es.cache;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.fujitsu.dc.common.auth.token.Role;
+import com.fujitsu.dc.core.DcCoreConfig;
+import com.fujitsu.dc.core.utils.CacheClient;
+import com.fujitsu.dc.core.utils.MemcachedClient;
+import com.fujitsu.dc.core.utils.MemcachedClient.MemcachedClientException;
+
+/**
+ * アカウントに結びつくロールのキャッシュを扱うクラス.
+ * <p>
+ * ロールの一覧はプロセス内(ニアキャッシュ)にのみ保持する。
+ * Cell内のAccount/Role/Boxやそれらのリンクが変更された場合はCell単位で破棄し、他ノードにはCellごとの世代キーを介して伝わる。
+ * </p>
+ */
+public class RoleCache {
+    static Logger log = LoggerFactory.getLogger(RoleCache.class);
+
+    private static NearCache nearCache = new NearCache("role");
+
+    private RoleCache() {
+    }
+
+    static CacheClient getMcdClient() {
+        return MemcachedClient.getCacheClient();
+    }
+
+    static NearCache getNearCache() {
+        return nearCache;
+    }
+
+    /**
+     * ロールのキャッシュが有効かを返す.
+     * @return 有効の場合はtrue
+     */
+    public static boolean isEnabled() {
+        return DcCoreConfig.isRoleCacheEnabled() && getMcdClient() != null && getNearCache().isEnabled();
+    }
+
+    /**
+     * 現在のエポックを返す. ロールの一覧を検索する前に取得し、{@link #cache(String, String, List, long, Object)}に渡すこと.
+     * @return エポック
+     */
+    public static long currentEpoch() {
+        return getNearCache().currentEpoch();
+    }
+
+    /**
+     * 指定したCellの現在の世代を返す. ロールの一覧を検索する前に取得し、{@link #cache(String, String, List, long, Object)}に渡すこと.
+     * @param cellId CellのUUID
+     * @return 世代
+     */
+    public static Object currentGeneration(String cellId) {
+        if (!isEnabled()) {
+            return null;
+        }
+        return getNearCache().scopeGeneration(cellId, getMcdClient());
+    }
+
+    /**
+     * アカウントに結びつくロールの一覧をキャッシュから取得する.
+     * @param cellId CellのUUID
+     * @param accountName アカウント名
+     * @return ロールの一覧。キャッシュに存在しない場合はnull
+     */
+    @SuppressWarnings("unchecked")
+    public static List<Role> get(String cellId, String accountName) {
+        if (!isEnabled()) {
+            return null;
+        }
+        List<Role> cached = (List<Role>) getNearCache().get(cacheKey(cellId, accountName), getMcdClient());
+        if (cached == null) {
+            return null;
+        }
+        return new ArrayList<Role>(cached);
+    }
+
+    /**
+     * アカウントに結びつくロールの一覧をキャッシュする.
+     * @param cellId CellのUUID
+     * @param accountName アカウント名
+     * @param roles ロールの一覧
+     * @param epoch 検索前に{@link #currentEpoch()}で取得したエポック
+     * @param generation 検索前に{@link #currentGeneration(String)}で取得した世代
+     */
+    public static void cache(String cellId, String accountName, List<Role> roles, long epoch, Object generation) {
+        if (!isEnabled() || roles == null) {
+            return;
+        }
+        getNearCache().put(cellId, cacheKey(cellId, accountName), new ArrayList<Role>(roles), epoch, generation);
+    }
+
+    /**
+     * 指定したCellのキャッシュを全て削除する.
+     * 他ノードのニアキャッシュもCellごとの世代キーを介して無効化され、他のCellのキャッシュは破棄されない.
+     * @param cellId CellのUUID
+     */
+    public static void clear(String cellId) {
+        if (!isEnabled()) {
+            return;
+        }
+        try {
+            getNearCache().invalidateScope(cellId, getMcdClient());
+        } catch (MemcachedClientException e) {
+            // 他ノードにはニアキャッシュの有効期限内だけ古いロールが残る
+            log.info("Failed to clear RoleCache.");
+        }
+    }
+
+    static String cacheKey(String cellId, String accountName) {
+        return "role:" + cellId + ":" + accountName;
+    }
+}
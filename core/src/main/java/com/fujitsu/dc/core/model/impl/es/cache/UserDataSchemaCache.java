@@ -18,6 +18,7 @@ package com.fujitsu.dc.core.model.impl.es.cache;
 
 import java.util.HashMap;
 import java.util.Map;
+import java.util.Random;
 
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
@@ -32,7 +33,10 @@ import com.fujitsu.dc.core.utils.MemcachedClient.MemcachedClientException;
  */
 public class UserDataSchemaCache {
     static Logger log = LoggerFactory.getLogger(UserDataSchemaCache.class);
-    static MemcachedClient mcdClient = MemcachedClient.getCacheClient();
+    static CacheClient mcdClient = MemcachedClient.getCacheClient();
+
+    private static final int GENERATION_RANDOM_RANGE = 1000;
+    private static final Random RANDOM = new Random();
 
     static CacheClient getMcdClient() {
         return mcdClient;
@@ -70,11 +74,12 @@ public class UserDataSchemaCache {
         if (!DcCoreConfig.isSchemaCacheEnabled()) {
             return;
         }
-        getMcdClient().put(cacheKey(nodeId), DcCoreConfig.getCacheMemcachedExpiresIn(), schema);
+        // 書き込みの応答は待たずにリクエスト処理を続ける
+        getMcdClient().asyncPut(cacheKey(nodeId), DcCoreConfig.getCacheMemcachedExpiresIn(), schema);
     }
 
     /**
-     * 指定したスキーマのキャッシュ情報を削除する.
+     * 指定したスキーマのキャッシュ情報を削除し、スキーマの世代を更新する.
      * @param nodeId ノードID
      */
     public static void clear(String nodeId) {
@@ -82,10 +87,11 @@ public class UserDataSchemaCache {
             return;
         }
         getMcdClient().delete(cacheKey(nodeId));
+        updateGeneration(nodeId, newGeneration());
     }
 
     /**
-     * 指定したスキーマのキャッシュ情報を無効化する.
+     * 指定したスキーマのキャッシュ情報を無効化し、スキーマの世代を更新する.
      * @param nodeId ノードID
      */
     public static void disable(String nodeId) {
@@ -96,6 +102,52 @@ public class UserDataSchemaCache {
         Map<String, Object> schema = new HashMap<String, Object>();
         schema.put("disabledTime", System.currentTimeMillis());
         getMcdClient().put(cacheKey(nodeId), DcCoreConfig.getCacheMemcachedExpiresIn(), schema);
+        updateGeneration(nodeId, newGeneration());
+    }
+
+    /**
+     * スキーマの世代を返す.
+     * 世代はキャッシュの削除・無効化のたびに更新されるため、プロセス内に保持したパース済みスキーマの有効性判定に用いる.
+     * @param nodeId ノードID
+     * @return スキーマの世代。キャッシュが無効な場合やアクセスに失敗した場合はnull
+     */
+    public static Long getGeneration(String nodeId) {
+        if (!DcCoreConfig.isSchemaCacheEnabled()) {
+            return null;
+        }
+        try {
+            Object generation = getMcdClient().get(generationKey(nodeId), Object.class);
+            if (generation instanceof Long) {
+                return (Long) generation;
+            }
+            // 世代が未登録(または追い出し済み)の場合は新たに採番する
+            long generationToSet = newGeneration();
+            if (getMcdClient().add(generationKey(nodeId), DcCoreConfig.getCacheMemcachedExpiresIn(),
+                    generationToSet)) {
+                return generationToSet;
+            }
+            // 他ノードが先に採番した場合は、その世代に合わせる
+            generation = getMcdClient().get(generationKey(nodeId), Object.class);
+            if (generation instanceof Long) {
+                return (Long) generation;
+            }
+            return null;
+        } catch (MemcachedClientException e) {
+            log.info("Failed to get UserDataSchema generation.");
+            return null;
+        }
+    }
+
+    /**
+     * 同一ミリ秒内に複数ノードで更新されても衝突しないよう、時刻に乱数を組み合わせて世代を採番する.
+     * @return 新しい世代
+     */
+    private static long newGeneration() {
+        return System.currentTimeMillis() * GENERATION_RANDOM_RANGE + RANDOM.nextInt(GENERATION_RANDOM_RANGE);
+    }
+
+    private static void updateGeneration(String nodeId, long generation) {
+        getMcdClient().put(generationKey(nodeId), DcCoreConfig.getCacheMemcachedExpiresIn(), generation);
     }
 
     /**
@@ -158,4 +210,8 @@ public class UserDataSchemaCache {
     static String cacheKey(String nodeId) {
         return "userodata:" + nodeId;
     }
+
+    static String generationKey(String nodeId) {
+        return "userodata:generation:" + nodeId;
+    }
 }
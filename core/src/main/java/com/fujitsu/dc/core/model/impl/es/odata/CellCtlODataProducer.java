@@ -39,16 +39,19 @@ import com.fujitsu.dc.core.model.Box;
 import com.fujitsu.dc.core.model.BoxCmp;
 import com.fujitsu.dc.core.model.Cell;
 import com.fujitsu.dc.core.model.ModelFactory;
+import com.fujitsu.dc.core.model.ctl.Account;
 import com.fujitsu.dc.core.model.ctl.CtlSchema;
 import com.fujitsu.dc.core.model.ctl.ExtCell;
 import com.fujitsu.dc.core.model.ctl.ReceivedMessage;
 import com.fujitsu.dc.core.model.ctl.ReceivedMessagePort;
 import com.fujitsu.dc.core.model.ctl.Relation;
+import com.fujitsu.dc.core.model.ctl.Role;
 import com.fujitsu.dc.core.model.impl.es.EsModel;
 import com.fujitsu.dc.core.model.impl.es.accessor.DataSourceAccessor;
 import com.fujitsu.dc.core.model.impl.es.accessor.EntitySetAccessor;
 import com.fujitsu.dc.core.model.impl.es.accessor.ODataLinkAccessor;
 import com.fujitsu.dc.core.model.impl.es.cache.BoxCache;
+import com.fujitsu.dc.core.model.impl.es.cache.RoleCache;
 import com.fujitsu.dc.core.model.impl.es.doc.EntitySetDocHandler;
 import com.fujitsu.dc.core.model.impl.es.doc.OEntityDocHandler;
 import com.fujitsu.dc.core.model.lock.Lock;
@@ -132,6 +135,27 @@ public class CellCtlODataProducer extends EsODataProducer {
         }
     }
 
+    @Override
+    public void afterCreate(final String entitySetName, final OEntity oEntity, final EntitySetDocHandler docHandler) {
+        if (isRoleRelated(entitySetName)) {
+            RoleCache.clear(this.cell.getId());
+        }
+    }
+
+    @Override
+    public void afterUpdate(final String entitySetName) {
+        if (isRoleRelated(entitySetName)) {
+            RoleCache.clear(this.cell.getId());
+        }
+    }
+
+    @Override
+    public void afterDelete(final String entitySetName) {
+        if (isRoleRelated(entitySetName)) {
+            RoleCache.clear(this.cell.getId());
+        }
+    }
+
     @Override
     public void beforeDelete(final String entitySetName,
             final OEntityKey oEntityKey,
@@ -551,7 +575,21 @@ public class CellCtlODataProducer extends EsODataProducer {
     protected void checkInvalidLinks(EntitySetDocHandler sourceDocHandler, OEntity entity, String targetEntitySetName) {
     }
 
+    @Override
+    public void afterLinkChange(final String sourceEntitySetName, final String targetEntitySetName) {
+        // Account/Role/Boxのリンクの変更で、アカウントに結びつくロールが変わり得る
+        if (isRoleRelated(sourceEntitySetName) || isRoleRelated(targetEntitySetName)) {
+            RoleCache.clear(this.cell.getId());
+        }
+    }
+
     @Override
     public void onChange(String entitySetName) {
     }
+
+    private static boolean isRoleRelated(String entitySetName) {
+        return Account.EDM_TYPE_NAME.equals(entitySetName)
+                || Role.EDM_TYPE_NAME.equals(entitySetName)
+                || Box.EDM_TYPE_NAME.equals(entitySetName);
+    }
 }
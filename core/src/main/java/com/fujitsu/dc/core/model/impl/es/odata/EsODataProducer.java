@@ -16,10 +16,14 @@
  */
 package com.fujitsu.dc.core.model.impl.es.odata;
 
+import java.util.AbstractList;
 import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
 import java.util.HashMap;
 import java.util.HashSet;
 import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
 import java.util.List;
 import java.util.Map;
 import java.util.Map.Entry;
@@ -59,6 +63,7 @@ import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 import com.fujitsu.dc.common.es.EsBulkRequest;
+import com.fujitsu.dc.common.es.EsFuture;
 import com.fujitsu.dc.common.es.response.DcBulkItemResponse;
 import com.fujitsu.dc.common.es.response.DcBulkResponse;
 import com.fujitsu.dc.common.es.response.DcDeleteResponse;
@@ -81,20 +86,26 @@ import com.fujitsu.dc.core.model.ctl.Property;
 import com.fujitsu.dc.core.model.ctl.ReceivedMessage;
 import com.fujitsu.dc.core.model.ctl.SentMessage;
 import com.fujitsu.dc.core.model.impl.es.QueryMapFactory;
+import com.fujitsu.dc.core.model.impl.es.accessor.AbstractEntitySetAccessor;
 import com.fujitsu.dc.core.model.impl.es.accessor.DataSourceAccessor;
 import com.fujitsu.dc.core.model.impl.es.accessor.EntitySetAccessor;
+import com.fujitsu.dc.core.model.impl.es.accessor.EsWriteBatcher;
 import com.fujitsu.dc.core.model.impl.es.accessor.ODataLinkAccessor;
+import com.fujitsu.dc.core.model.impl.es.cache.EntityCountCache;
 import com.fujitsu.dc.core.model.impl.es.doc.EntitySetDocHandler;
 import com.fujitsu.dc.core.model.impl.es.doc.LinkDocHandler;
 import com.fujitsu.dc.core.model.impl.es.doc.LinkDocHandlerForBulkRequest;
 import com.fujitsu.dc.core.model.impl.es.doc.OEntityDocHandler;
 import com.fujitsu.dc.core.model.impl.es.odata.EsNavigationTargetKeyProperty.NTKPNotFoundException;
 import com.fujitsu.dc.core.model.lock.Lock;
+import com.fujitsu.dc.core.model.lock.LockKeyComposer;
 import com.fujitsu.dc.core.model.lock.LockManager;
+import com.fujitsu.dc.core.odata.DcEntitiesResponse;
 import com.fujitsu.dc.core.odata.DcODataProducer;
 import com.fujitsu.dc.core.odata.OEntityWrapper;
 import com.fujitsu.dc.core.rs.odata.AbstractODataResource;
 import com.fujitsu.dc.core.rs.odata.BulkRequest;
+import com.fujitsu.dc.core.rs.odata.QueryParser;
 import com.fujitsu.dc.core.rs.odata.ODataBatchResource.NavigationPropertyBulkContext;
 import com.fujitsu.dc.core.rs.odata.ODataBatchResource.NavigationPropertyLinkType;
 import com.fujitsu.dc.core.utils.ODataUtils;
@@ -210,7 +221,9 @@ public abstract class EsODataProducer implements DcODataProducer {
     protected ODataQueryHandler getODataQueryHandler(final QueryInfo queryInfo,
             EdmEntityType edmEntityType,
             List<Map<String, Object>> implicitFilters) {
-        ODataQueryHandler queryHandler = new EsQueryHandler(edmEntityType);
+        EsQueryHandler queryHandler = new EsQueryHandler(edmEntityType);
+        // 固定のスキーマ定義を用いるため、Producerの種類ごとに$filterの変換結果を再利用する
+        queryHandler.setTemplateScope(getClass().getName());
         queryHandler.initialize(queryInfo, implicitFilters);
         return queryHandler;
     }
@@ -295,14 +308,25 @@ public abstract class EsODataProducer implements DcODataProducer {
 
     /**
      * 実装サブクラスProducer更新処理を行いたいときは、ここをoverrideして、結果を返すよう実装する。
+     * @param entitySetName エンティティセット名
      */
-    public void afterUpdate() {
+    public void afterUpdate(final String entitySetName) {
     }
 
     /**
      * 実装サブクラスProducer削除処理を行いたいときは、ここをoverrideして、結果を返すよう実装する。
+     * @param entitySetName エンティティセット名
+     */
+    public void afterDelete(final String entitySetName) {
+    }
+
+    /**
+     * 実装サブクラスProducerがリンクの登録・削除後の処理を行いたいときは、ここをoverrideして実装する.
+     * リンクの書き込みが成功した場合のみ呼び出される.
+     * @param sourceEntitySetName リンク元のエンティティセット名
+     * @param targetEntitySetName リンク先のエンティティセット名
      */
-    public void afterDelete() {
+    public void afterLinkChange(final String sourceEntitySetName, final String targetEntitySetName) {
     }
 
     /**
@@ -364,6 +388,121 @@ public abstract class EsODataProducer implements DcODataProducer {
         return LockManager.getLock(Lock.CATEGORY_ODATA, this.getCellId(), null, this.getNodeId());
     }
 
+    /**
+     * @return {@link #lock()}で取得するロックのキー
+     */
+    String lockKey() {
+        return LockKeyComposer.fullKeyFromCategoryAndKey(Lock.CATEGORY_ODATA, this.getCellId(), null, this.getNodeId());
+    }
+
+    /**
+     * Entityの作成を、同じロックを待っている他リクエストの作成とまとめてバルク登録する対象か否か.
+     * 主キーのみで一意性を判定するユーザデータを対象とする。
+     * @param entityKey エンティティのキー
+     * @param esType 登録先のアクセサ
+     * @return まとめる対象の場合はtrue
+     */
+    private static boolean isWriteBatchTarget(OEntityKey entityKey, EntitySetAccessor esType) {
+        return EsWriteBatcher.getInstance().isEnabled()
+                && esType instanceof AbstractEntitySetAccessor
+                && UserDataODataProducer.USER_ODATA_NAMESPACE.equals(esType.getType())
+                && KeyType.SINGLE.equals(entityKey.getKeyType());
+    }
+
+    /**
+     * まとめて登録するEntityの作成依頼.
+     */
+    static final class CreateTask {
+        private final EsODataProducer producer;
+        private final String entitySetName;
+        private final OEntity entity;
+        private final OEntityKey entityKey;
+        private final AbstractEntitySetAccessor esType;
+        private final OEntityWrapper oew;
+        private EntitySetDocHandler oedh;
+
+        CreateTask(EsODataProducer producer, String entitySetName, OEntity entity, OEntityKey entityKey,
+                EntitySetAccessor esType, OEntityWrapper oew) {
+            this.producer = producer;
+            this.entitySetName = entitySetName;
+            this.entity = entity;
+            this.entityKey = entityKey;
+            this.esType = (AbstractEntitySetAccessor) esType;
+            this.oew = oew;
+        }
+    }
+
+    /**
+     * ロックを取得したスレッドが、まとめたEntityの作成依頼を処理する.
+     * 依頼ごとに一意性チェックと登録前処理を行った後、登録先ごとに1回のバルク登録を行い、依頼ごとに登録後処理を行う。
+     */
+    static final EsWriteBatcher.Handler<CreateTask, EntityResponse> CREATE_HANDLER =
+            new EsWriteBatcher.Handler<CreateTask, EntityResponse>() {
+                @Override
+                public void handle(List<EsWriteBatcher.Entry<CreateTask, EntityResponse>> entries) {
+                    // 登録前のため、まとめた依頼同士の主キーの重複はESへの一意性チェックで検出できない
+                    Set<String> keys = new HashSet<String>();
+                    Map<String, List<EsWriteBatcher.Entry<CreateTask, EntityResponse>>> groups =
+                            new LinkedHashMap<String, List<EsWriteBatcher.Entry<CreateTask, EntityResponse>>>();
+                    for (EsWriteBatcher.Entry<CreateTask, EntityResponse> entry : entries) {
+                        CreateTask task = entry.getTask();
+                        String key = task.entitySetName + task.entityKey.toKeyString();
+                        if (keys.contains(key)) {
+                            entry.fail(DcCoreException.OData.ENTITY_ALREADY_EXISTS);
+                            continue;
+                        }
+                        try {
+                            task.oedh = task.producer.prepareCreate(task.entitySetName, task.entity,
+                                    task.entityKey, task.esType, task.oew);
+                        } catch (RuntimeException e) {
+                            entry.fail(e);
+                            continue;
+                        }
+                        keys.add(key);
+                        // 同じロックの依頼はCellが同じため、ルーティングIDも同じとなる
+                        String group = task.esType.getIndex().getName() + "/" + task.esType.getType();
+                        if (!groups.containsKey(group)) {
+                            groups.put(group, new ArrayList<EsWriteBatcher.Entry<CreateTask, EntityResponse>>());
+                        }
+                        groups.get(group).add(entry);
+                    }
+                    for (List<EsWriteBatcher.Entry<CreateTask, EntityResponse>> group : groups.values()) {
+                        createAll(group);
+                    }
+                }
+
+                private void createAll(List<EsWriteBatcher.Entry<CreateTask, EntityResponse>> group) {
+                    List<EntitySetDocHandler> docHandlers = new ArrayList<EntitySetDocHandler>();
+                    for (EsWriteBatcher.Entry<CreateTask, EntityResponse> entry : group) {
+                        docHandlers.add(entry.getTask().oedh);
+                    }
+                    List<DcIndexResponse> responses;
+                    try {
+                        responses = group.get(0).getTask().esType.createAll(docHandlers);
+                    } catch (RuntimeException e) {
+                        for (EsWriteBatcher.Entry<CreateTask, EntityResponse> entry : group) {
+                            entry.fail(e);
+                        }
+                        return;
+                    }
+                    for (int i = 0; i < group.size(); i++) {
+                        EsWriteBatcher.Entry<CreateTask, EntityResponse> entry = group.get(i);
+                        CreateTask task = entry.getTask();
+                        try {
+                            DcIndexResponse idxRs = responses.get(i);
+                            if (idxRs == null) {
+                                // バルク登録で失敗した場合は、個別に登録し直してエラー内容を判定する
+                                idxRs = task.esType.create(task.oedh.getId(), task.oedh);
+                            }
+                            entry.complete(task.producer.completeCreate(task.entitySetName, task.entity,
+                                    task.oew, task.oedh, idxRs));
+                        } catch (RuntimeException e) {
+                            entry.fail(e);
+                        }
+                    }
+                }
+            };
+
     @Override
     public final BaseResponse callFunction(final EdmFunctionImport arg0,
             final Map<String, OFunctionParameter> arg1,
@@ -425,50 +564,113 @@ public abstract class EsODataProducer implements DcODataProducer {
      * @param eSet EntitySet
      * @param oedh EntitySetDocHandler
      */
-    @SuppressWarnings("unchecked")
     public void setNavigationTargetKeyProperty(EdmEntitySet eSet, EntitySetDocHandler oedh) {
-        // NavigationTargetKeyPropertyを設定する
-        Map<String, Object> staticFields = oedh.getStaticFields();
-        Map<String, Object> links = oedh.getManyToOnelinkId();
+        setNavigationTargetKeyProperty(eSet, Collections.singletonList(oedh));
+    }
+
+    /**
+     * 複数のEntitySetDocHandlerにNavigationTargetKeyPropertyを設定する.
+     * リンク先のエンティティは階層ごとにまとめて取得する.
+     * @param eSet EntitySet
+     * @param oedhs EntitySetDocHandlerの一覧
+     */
+    @SuppressWarnings("unchecked")
+    public void setNavigationTargetKeyProperty(EdmEntitySet eSet, List<EntitySetDocHandler> oedhs) {
         Enumerable<EdmProperty> eProps = eSet.getType().getProperties();
         for (EdmProperty eProp : eProps) {
             // リンク対象の検索情報を組み立てる
             String propertyName = eProp.getName();
             HashMap<String, String> ntkp = AbstractODataResource.convertNTKP(propertyName);
-            if (ntkp != null) {
-                String entityType = ntkp.get("entityType");
-                String propName = ntkp.get("propName");
-                String linkId = (String) links.get(getLinkskey(entityType));
-                // link情報が2階層以上かどうかをチェックする
-                while (propName.startsWith("_")) {
-                    // linkの情報を取得する
-                    String id = (String) links.get(getLinkskey(entityType));
-                    EntitySetAccessor esType = this.getAccessorForEntitySet(entityType);
-                    DcGetResponse res = esType.get(id);
+            if (ntkp == null) {
+                continue;
+            }
+            String entityType = ntkp.get("entityType");
+            String propName = ntkp.get("propName");
+            List<String> linkIds = new ArrayList<String>();
+            for (EntitySetDocHandler oedh : oedhs) {
+                linkIds.add((String) oedh.getManyToOnelinkId().get(getLinkskey(entityType)));
+            }
+            // link情報が2階層以上かどうかをチェックする
+            while (propName.startsWith("_")) {
+                // linkの情報を取得する
+                Map<String, DcGetResponse> links = multiGetByIds(entityType, linkIds);
+                // linkに紐付いているlinkのIDを取得する
+                HashMap<String, String> tmpntkp = AbstractODataResource.convertNTKP(propName);
+                entityType = tmpntkp.get("entityType");
+                propName = tmpntkp.get("propName");
+                for (int i = 0; i < linkIds.size(); i++) {
+                    DcGetResponse res = links.get(linkIds.get(i));
+                    String linkId = null;
                     if (res != null) {
-                        // linkに紐付いているlinkのIDを取得する
-                        HashMap<String, String> tmpntkp = AbstractODataResource.convertNTKP(propName);
-                        entityType = tmpntkp.get("entityType");
-                        propName = tmpntkp.get("propName");
                         linkId = (String) ((Map<String, Object>) res.getSource().get(OEntityDocHandler.KEY_LINK))
                                 .get(entityType);
-                    } else {
-                        linkId = null;
                     }
+                    linkIds.set(i, linkId);
                 }
+            }
+            Map<String, DcGetResponse> targets = multiGetByIds(entityType, linkIds);
+            for (int i = 0; i < oedhs.size(); i++) {
                 String propValue = null;
-                if (linkId != null) {
-                    EntitySetAccessor esType = this.getAccessorForEntitySet(entityType);
-                    DcGetResponse res = esType.get(linkId);
-                    if (res != null) {
-                        propValue = (String) ((Map<String, Object>) res.getSource().get(
-                                OEntityDocHandler.KEY_STATIC_FIELDS)).get(propName);
-                    }
+                DcGetResponse res = targets.get(linkIds.get(i));
+                if (res != null) {
+                    propValue = (String) ((Map<String, Object>) res.getSource().get(
+                            OEntityDocHandler.KEY_STATIC_FIELDS)).get(propName);
                 }
+                Map<String, Object> staticFields = oedhs.get(i).getStaticFields();
                 staticFields.put(propertyName, propValue);
+                oedhs.get(i).setStaticFields(staticFields);
+            }
+        }
+    }
+
+    /**
+     * 指定したIDのエンティティを1回の要求でまとめて取得する.
+     * @param entitySetName エンティティセット名
+     * @param ids エンティティのIDの一覧. nullと重複は無視する
+     * @return IDと取得結果のMap. 存在しないIDは含まない
+     */
+    private Map<String, DcGetResponse> multiGetByIds(String entitySetName, Collection<String> ids) {
+        return toResultMap(multiGetByIdsAsync(entitySetName, ids));
+    }
+
+    /**
+     * 指定したIDのエンティティを1回の要求でまとめて、応答を待たずに取得する.
+     * @param entitySetName エンティティセット名
+     * @param ids エンティティのIDの一覧. nullと重複は無視する
+     * @return 取得結果の非同期応答. 取得するIDが無い場合はnull
+     */
+    private EsFuture<List<DcGetResponse>> multiGetByIdsAsync(String entitySetName, Collection<String> ids) {
+        Set<String> idSet = new LinkedHashSet<String>(ids);
+        idSet.remove(null);
+        if (idSet.isEmpty()) {
+            return null;
+        }
+        EntitySetAccessor esType = this.getAccessorForEntitySet(entitySetName);
+        return esType.multiGetAsync(new ArrayList<String>(idSet));
+    }
+
+    /**
+     * {@link #multiGetByIdsAsync(String, Collection)}の応答を待ち、IDと取得結果のMapにする.
+     * @param future 取得結果の非同期応答
+     * @return IDと取得結果のMap. 存在しないIDは含まない
+     */
+    private static Map<String, DcGetResponse> toResultMap(EsFuture<List<DcGetResponse>> future) {
+        Map<String, DcGetResponse> ret = new HashMap<String, DcGetResponse>();
+        if (future == null) {
+            return ret;
+        }
+        List<DcGetResponse> responses;
+        try {
+            responses = future.get();
+        } catch (EsClientException.EsNoResponseException e) {
+            throw DcCoreException.Server.ES_RETRY_OVER.params(e.getMessage());
+        }
+        for (DcGetResponse res : responses) {
+            if (res != null) {
+                ret.put(res.getId(), res);
             }
         }
-        oedh.setStaticFields(staticFields);
+        return ret;
     }
 
     /**
@@ -697,6 +899,14 @@ public abstract class EsODataProducer implements DcODataProducer {
         return execEntitiesRequest(queryInfo, eSet, esType, implicitFilters);
     }
 
+    @Override
+    public EntitiesResponse getEntitiesForStreaming(final String entitySetName, final QueryInfo queryInfo) {
+        EdmEntitySet eSet = this.getMetadata().findEdmEntitySet(entitySetName);
+        EntitySetAccessor esType = this.getAccessorForEntitySet(entitySetName);
+        List<Map<String, Object>> implicitFilters = getImplicitFilters(entitySetName);
+        return execEntitiesRequest(queryInfo, eSet, esType, implicitFilters, true);
+    }
+
     /**
      * Cell / Box / Node / EntityTypeに基づいた暗黙フィルタの作成.
      * @param entitySetName エンティティセット名
@@ -722,12 +932,42 @@ public abstract class EsODataProducer implements DcODataProducer {
             EdmEntitySet eSet,
             EntitySetAccessor esType,
             List<Map<String, Object>> implicitFilters) {
+        return execEntitiesRequest(queryInfo, eSet, esType, implicitFilters, false);
+    }
+
+    /**
+     * 一覧取得検索を実行する.
+     * @param queryInfo クエリ情報
+     * @param eSet エンティティセット
+     * @param esType アクセサオブジェクト
+     * @param implicitFilters 暗黙的な検索条件
+     * @param lazy trueの場合はOEntityへの変換をエンティティ一覧の参照時まで遅延する
+     * @return EntitiesResponse エンティティ一覧
+     */
+    private EntitiesResponse execEntitiesRequest(final QueryInfo queryInfo,
+            final EdmEntitySet eSet,
+            EntitySetAccessor esType,
+            List<Map<String, Object>> implicitFilters,
+            boolean lazy) {
         final int expandMaxNum = DcCoreConfig.getMaxExpandSizeForList();
 
         // 条件検索等。
         ODataQueryHandler visitor = getODataQueryHandler(queryInfo, eSet.getType(), implicitFilters);
         Map<String, Object> source = visitor.getSource();
 
+        boolean inlineCount = queryInfo != null && queryInfo.inlineCount != null
+                && queryInfo.inlineCount.equals(InlineCount.ALLPAGES);
+        if (inlineCount && queryInfo.top != null && queryInfo.top == 0) {
+            // 件数のみを返却する場合は検索を行わず、件数のキャッシュを使用する
+            EntityCountCache.Count cached = countEntities(eSet.getName(), esType, source, queryInfo);
+            EntitiesResponse countOnly = Responses.entities(new ArrayList<OEntity>(), eSet,
+                    (int) cached.getValue(), null);
+            if (isApproximateCount(queryInfo)) {
+                return new DcEntitiesResponse(countOnly, cached.isExact());
+            }
+            return countOnly;
+        }
+
         DcSearchResponse res = null;
         try {
             res = esType.search(source);
@@ -738,7 +978,7 @@ public abstract class EsODataProducer implements DcODataProducer {
         }
         // inlinecountの指定がallpagesの場合のみヒット件数を返却する
         Integer count = null;
-        if (queryInfo != null && queryInfo.inlineCount != null && queryInfo.inlineCount.equals(InlineCount.ALLPAGES)) {
+        if (inlineCount) {
             if (res == null) {
                 count = 0;
             } else {
@@ -748,11 +988,15 @@ public abstract class EsODataProducer implements DcODataProducer {
         List<OEntity> entList = new ArrayList<OEntity>();
         if (res != null) {
             DcSearchHit[] hits = res.getHits().getHits();
-            Map<String, List<OEntity>> expandEntitiesMap = null;
+            final List<EntitySetDocHandler> entityList = new ArrayList<EntitySetDocHandler>();
+            for (DcSearchHit hit : hits) {
+                EntitySetDocHandler oedh = getDocHandler(hit, eSet.getName());
+                entityList.add(oedh);
+            }
 
             Map<String, String> ntkpProperties = new HashMap<String, String>();
             Map<String, String> ntkpValueMap = new HashMap<String, String>();
-            getNtkpValueMap(eSet, ntkpProperties, ntkpValueMap);
+            getNtkpValueMap(eSet, entityList, ntkpProperties, ntkpValueMap);
 
             List<EntitySimpleProperty> selectQuery = null;
             if (queryInfo != null) {
@@ -764,52 +1008,136 @@ public abstract class EsODataProducer implements DcODataProducer {
             if (this.propertyAliasMap != null) {
                 setEntityPropertyMap(eSet, hits, ntkpValueMap);
             }
-            List<EntitySetDocHandler> entityList = new ArrayList<EntitySetDocHandler>();
-            for (DcSearchHit hit : hits) {
-                EntitySetDocHandler oedh = getDocHandler(hit, eSet.getName());
-                entityList.add(oedh);
-            }
             ExpandEntitiesMapCreator creator =
                     new ExpandEntitiesMapCreator(queryInfo, eSet.getType(), expandMaxNum);
             creator.setCache(entityList, this);
 
-            for (EntitySetDocHandler oedh : entityList) {
-                // entityKeyの生成
-                List<String> keys = eSet.getType().getKeys();
-
-                List<String> kv = new ArrayList<String>();
-                for (String key : keys) {
-                    kv.add(key);
-                    // TODO キーがStringであることを仮定してしまってる。キーの値が文字列以外であるときは、その対応が必要。
-                    String v = (String) oedh.getStaticFields().get(key);
-                    if (v == null) {
-                        v = AbstractODataResource.DUMMY_KEY;
+            final OEntityConverter converter = new OEntityConverter(eSet, creator,
+                    ntkpProperties, ntkpValueMap, selectQuery, expandMaxNum);
+            if (lazy) {
+                // レスポンスの出力に合わせて1件ずつ変換し、変換済みのOEntityを保持しない
+                entList = new AbstractList<OEntity>() {
+                    @Override
+                    public OEntity get(int index) {
+                        return converter.convert(entityList.get(index));
                     }
-                    kv.add(v);
-                }
-                expandEntitiesMap = creator.create(oedh, this);
-
-                // NTKPHashMapから値を設定する
-                Map<String, Object> staticFields = oedh.getStaticFields();
-                Map<String, Object> links = oedh.getManyToOnelinkId();
-                for (Map.Entry<String, String> ntkpProperty : ntkpProperties.entrySet()) {
-                    String linksKey = getLinkskey(ntkpProperty.getValue());
-                    if (links.containsKey(linksKey)) {
-                        String linkId = links.get(linksKey).toString();
-                        staticFields.put(ntkpProperty.getKey(), ntkpValueMap.get(ntkpProperty.getKey() + linkId));
-                    } else {
-                        staticFields.put(ntkpProperty.getKey(), null);
+
+                    @Override
+                    public int size() {
+                        return entityList.size();
                     }
+                };
+            } else {
+                for (EntitySetDocHandler oedh : entityList) {
+                    entList.add(converter.convert(oedh));
+                }
+            }
+        }
+        EntitiesResponse entities = Responses.entities(entList, eSet, count, visitor.getNextSkipToken(res));
+        if (inlineCount && isApproximateCount(queryInfo)) {
+            // 検索で取得した件数は常に正確な件数
+            return new DcEntitiesResponse(entities, true);
+        }
+        return entities;
+    }
+
+    /**
+     * 件数のキャッシュを使用して件数を取得する.
+     * @param entitySetName エンティティセット名
+     * @param esType アクセサオブジェクト
+     * @param source 検索クエリ
+     * @param queryInfo クエリ情報
+     * @return 件数
+     */
+    private EntityCountCache.Count countEntities(String entitySetName, EntitySetAccessor esType,
+            Map<String, Object> source, QueryInfo queryInfo) {
+        // 件数のキャッシュは暗黙フィルタと同じCell / Box / Node / EntityTypeの単位で無効化される
+        String entityTypeId = null;
+        if (entitySetName != null) {
+            entityTypeId = getEntityTypeId(entitySetName);
+        }
+        String scope = EntityCountCache.scope(this.getCellId(), this.getBoxId(), this.getNodeId(), entityTypeId);
+        try {
+            return esType.count(source, scope, isApproximateCount(queryInfo));
+        } catch (EsClientException ex) {
+            if (ex.getCause() instanceof DcSearchPhaseExecutionException) {
+                throw DcCoreException.Server.DATA_STORE_SEARCH_ERROR.reason(ex);
+            }
+            return new EntityCountCache.Count(0, true);
+        }
+    }
+
+    /**
+     * 概算件数が指定されているかを返す.
+     * @param queryInfo クエリ情報
+     * @return countmodeクエリにapproximateが指定されている場合はtrue
+     */
+    private static boolean isApproximateCount(QueryInfo queryInfo) {
+        return queryInfo != null && queryInfo.customOptions != null
+                && QueryParser.COUNT_MODE_APPROXIMATE.equals(queryInfo.customOptions.get(
+                        QueryParser.COUNT_MODE_OPTION));
+    }
+
+    /**
+     * 一覧取得の検索結果をOEntityへ変換する.
+     */
+    private final class OEntityConverter {
+        private final EdmEntitySet eSet;
+        private final ExpandEntitiesMapCreator creator;
+        private final Map<String, String> ntkpProperties;
+        private final Map<String, String> ntkpValueMap;
+        private final List<EntitySimpleProperty> selectQuery;
+        private final int expandMaxNum;
+
+        OEntityConverter(EdmEntitySet eSet,
+                ExpandEntitiesMapCreator creator,
+                Map<String, String> ntkpProperties,
+                Map<String, String> ntkpValueMap,
+                List<EntitySimpleProperty> selectQuery,
+                int expandMaxNum) {
+            this.eSet = eSet;
+            this.creator = creator;
+            this.ntkpProperties = ntkpProperties;
+            this.ntkpValueMap = ntkpValueMap;
+            this.selectQuery = selectQuery;
+            this.expandMaxNum = expandMaxNum;
+        }
+
+        OEntityWrapper convert(EntitySetDocHandler oedh) {
+            // entityKeyの生成
+            List<String> keys = eSet.getType().getKeys();
+
+            List<String> kv = new ArrayList<String>();
+            for (String key : keys) {
+                kv.add(key);
+                // TODO キーがStringであることを仮定してしまってる。キーの値が文字列以外であるときは、その対応が必要。
+                String v = (String) oedh.getStaticFields().get(key);
+                if (v == null) {
+                    v = AbstractODataResource.DUMMY_KEY;
                 }
-                oedh.setStaticFields(staticFields);
+                kv.add(v);
+            }
+            Map<String, List<OEntity>> expandEntitiesMap = creator.create(oedh, EsODataProducer.this);
 
-                ((OEntityDocHandler) oedh).setExpandMaxNum(expandMaxNum);
-                OEntityWrapper oEntity = oedh.createOEntity(eSet, this.getMetadata(), expandEntitiesMap, selectQuery);
-                entList.add(oEntity);
-                setEntityTypeIds(oEntity, staticFields);
+            // NTKPHashMapから値を設定する
+            Map<String, Object> staticFields = oedh.getStaticFields();
+            Map<String, Object> links = oedh.getManyToOnelinkId();
+            for (Map.Entry<String, String> ntkpProperty : ntkpProperties.entrySet()) {
+                String linksKey = getLinkskey(ntkpProperty.getValue());
+                if (links.containsKey(linksKey)) {
+                    String linkId = links.get(linksKey).toString();
+                    staticFields.put(ntkpProperty.getKey(), ntkpValueMap.get(ntkpProperty.getKey() + linkId));
+                } else {
+                    staticFields.put(ntkpProperty.getKey(), null);
+                }
             }
+            oedh.setStaticFields(staticFields);
+
+            ((OEntityDocHandler) oedh).setExpandMaxNum(expandMaxNum);
+            OEntityWrapper oEntity = oedh.createOEntity(eSet, getMetadata(), expandEntitiesMap, selectQuery);
+            setEntityTypeIds(oEntity, staticFields);
+            return oEntity;
         }
-        return Responses.entities(entList, eSet, count, null);
     }
 
     /**
@@ -883,10 +1211,23 @@ public abstract class EsODataProducer implements DcODataProducer {
         return null;
     }
 
+    /**
+     * 一覧取得結果のリンク先から、NTKPの値を取得する.
+     * リンク先のエンティティは階層ごとにまとめて取得し、1階層目は全てのNTKPの取得要求を応答を待たずに発行する.
+     * @param eSet EdmEntitySet
+     * @param entityList 一覧取得結果
+     * @param ntkpProperties NTKPのプロパティ名とリンク先EntityType名のMap(出力)
+     * @param ntkpValueMap NTKPのプロパティ名+リンク先IDとNTKPの値のMap(出力)
+     */
     @SuppressWarnings("unchecked")
     private void getNtkpValueMap(EdmEntitySet eSet,
+            List<EntitySetDocHandler> entityList,
             Map<String, String> ntkpProperties,
             Map<String, String> ntkpValueMap) {
+        // 1階層目のNTKPのエンティティを一覧取得結果のリンク先IDでまとめて取得する
+        // NTKPごとの取得は互いに独立しているため、応答を待たずに全て発行しておく
+        Map<String, EsFuture<List<DcGetResponse>>> ntkpFutures =
+                new LinkedHashMap<String, EsFuture<List<DcGetResponse>>>();
         Enumerable<EdmProperty> eProps = eSet.getType().getProperties();
         for (EdmProperty eProp : eProps) {
             // リンク対象の検索情報を組み立てる
@@ -894,55 +1235,58 @@ public abstract class EsODataProducer implements DcODataProducer {
             HashMap<String, String> ntkp = AbstractODataResource.convertNTKP(propertyName);
             if (ntkp != null) {
                 String entityType = ntkp.get("entityType");
-                String propName = ntkp.get("propName");
                 ntkpProperties.put(propertyName, entityType);
-
-                // 1階層目のNTKPのエンティティ一覧を取得する
-                EntitySetAccessor ntkpAccessor = this.getAccessorForEntitySet(entityType);
-                // Cell、Box,NodeIDの検索条件を追加
-                List<Map<String, Object>> implicitFilters = getImplicitFilters(entityType);
-                Map<String, Object> searchQuery = new HashMap<String, Object>();
-                if (implicitFilters.size() != 0) {
-                    Map<String, Object> query = QueryMapFactory.filteredQuery(null,
-                            QueryMapFactory.mustQuery(implicitFilters));
-
-                    searchQuery.put("query", query);
+                List<String> linkIds = new ArrayList<String>();
+                for (EntitySetDocHandler oedh : entityList) {
+                    Object linkId = oedh.getManyToOnelinkId().get(getLinkskey(entityType));
+                    if (linkId != null) {
+                        linkIds.add(linkId.toString());
+                    }
                 }
+                ntkpFutures.put(propertyName, multiGetByIdsAsync(entityType, linkIds));
+            }
+        }
 
-                DcSearchHit[] ntkpSearchResults = ntkpAccessor.search(searchQuery).getHits().getHits();
-
-                // 2階層目のNTKPが存在する場合、2階層目のNTKPのエンティティ一覧を取得する
-                DcSearchHit[] nestNtkpSearchResults = null;
-                Map<String, String> nestNtkpValueMap = new HashMap<String, String>();
-                if (propName.startsWith("_")) {
-                    HashMap<String, String> tmpntkp = AbstractODataResource.convertNTKP(propName);
-                    entityType = tmpntkp.get("entityType");
-                    propName = tmpntkp.get("propName");
-                    ntkpAccessor = this.getAccessorForEntitySet(entityType);
-                    nestNtkpSearchResults = ntkpAccessor.search(searchQuery).getHits().getHits();
-                    for (DcSearchHit nestNtkpSearchResult : nestNtkpSearchResults) {
-                        String linkId = nestNtkpSearchResult.getId();
-                        String linkNtkpValue = ((Map<String, Object>) nestNtkpSearchResult.getSource().get(
-                                OEntityDocHandler.KEY_STATIC_FIELDS)).get(propName).toString();
-                        nestNtkpValueMap.put(linkId, linkNtkpValue);
-                    }
+        for (Map.Entry<String, EsFuture<List<DcGetResponse>>> ntkpFuture : ntkpFutures.entrySet()) {
+            String propertyName = ntkpFuture.getKey();
+            HashMap<String, String> ntkp = AbstractODataResource.convertNTKP(propertyName);
+            String entityType = ntkp.get("entityType");
+            String propName = ntkp.get("propName");
+            Collection<DcGetResponse> ntkpResults = toResultMap(ntkpFuture.getValue()).values();
+
+            // 2階層目のNTKPが存在する場合、2階層目のNTKPのエンティティを取得する
+            Map<String, String> nestNtkpValueMap = new HashMap<String, String>();
+            if (propName.startsWith("_")) {
+                HashMap<String, String> tmpntkp = AbstractODataResource.convertNTKP(propName);
+                entityType = tmpntkp.get("entityType");
+                propName = tmpntkp.get("propName");
+                List<String> nestLinkIds = new ArrayList<String>();
+                for (DcGetResponse ntkpResult : ntkpResults) {
+                    nestLinkIds.add((String) ((Map<String, Object>) ntkpResult.getSource().get(
+                            OEntityDocHandler.KEY_LINK)).get(entityType));
+                }
+                for (DcGetResponse nestNtkpResult : multiGetByIds(entityType, nestLinkIds).values()) {
+                    String linkId = nestNtkpResult.getId();
+                    String linkNtkpValue = ((Map<String, Object>) nestNtkpResult.getSource().get(
+                            OEntityDocHandler.KEY_STATIC_FIELDS)).get(propName).toString();
+                    nestNtkpValueMap.put(linkId, linkNtkpValue);
                 }
+            }
 
-                // LinkIDがKey,NTKPの値がValueのMapを作成する
-                for (DcSearchHit ntkpSearchResult : ntkpSearchResults) {
-                    String linkId = ntkpSearchResult.getId();
-                    Map<String, Object> linkFields = (Map<String, Object>) ntkpSearchResult.getSource().get(
-                            OEntityDocHandler.KEY_LINK);
-                    String linkNtkpValue = null;
-                    if (linkFields.containsKey(entityType)) {
-                        linkNtkpValue = nestNtkpValueMap.get(linkFields.get(entityType));
-                    } else {
-                        Map<String, Object> staticFields = (Map<String, Object>) ntkpSearchResult.getSource().get(
-                                OEntityDocHandler.KEY_STATIC_FIELDS);
-                        linkNtkpValue = staticFields.get(propName).toString();
-                    }
-                    ntkpValueMap.put(getLinkskey(propertyName) + linkId, linkNtkpValue);
+            // LinkIDがKey,NTKPの値がValueのMapを作成する
+            for (DcGetResponse ntkpResult : ntkpResults) {
+                String linkId = ntkpResult.getId();
+                Map<String, Object> linkFields = (Map<String, Object>) ntkpResult.getSource().get(
+                        OEntityDocHandler.KEY_LINK);
+                String linkNtkpValue = null;
+                if (linkFields.containsKey(entityType)) {
+                    linkNtkpValue = nestNtkpValueMap.get(linkFields.get(entityType));
+                } else {
+                    Map<String, Object> staticFields = (Map<String, Object>) ntkpResult.getSource().get(
+                            OEntityDocHandler.KEY_STATIC_FIELDS);
+                    linkNtkpValue = staticFields.get(propName).toString();
                 }
+                ntkpValueMap.put(getLinkskey(propertyName) + linkId, linkNtkpValue);
             }
         }
     }
@@ -1022,7 +1366,7 @@ public abstract class EsODataProducer implements DcODataProducer {
             }
 
             // 削除後の処理
-            this.afterDelete();
+            this.afterDelete(entitySetName);
 
         } finally {
             log.debug("unlock");
@@ -1068,6 +1412,26 @@ public abstract class EsODataProducer implements DcODataProducer {
         EntitySetAccessor esType = this.getAccessorForEntitySet(entitySetName);
         OEntityWrapper oew = (OEntityWrapper) entity;
 
+        if (isWriteBatchTarget(entityKey, esType)) {
+            // ロック待ちの間に同じODataサービスコレクションへ届いた他リクエストの登録とまとめて登録する
+            return EsWriteBatcher.getInstance().submit(lockKey(),
+                    new CreateTask(this, entitySetName, entity, entityKey, esType, oew),
+                    new EsWriteBatcher.LockHolder() {
+                        private Lock lock;
+
+                        @Override
+                        public void acquire() {
+                            this.lock = EsODataProducer.this.lock();
+                        }
+
+                        @Override
+                        public void release() {
+                            log.debug("unlock");
+                            this.lock.release();
+                        }
+                    }, CREATE_HANDLER);
+        }
+
         // ユニーク性チェックのためまずロックを行う
         // OData 空間全体をlockする(将来的に必要があればentitySetNameでロック)
         Lock lock = this.lock();
@@ -1085,6 +1449,29 @@ public abstract class EsODataProducer implements DcODataProducer {
             OEntityKey entityKey,
             EntitySetAccessor esType,
             OEntityWrapper oew) {
+        EntitySetDocHandler oedh = prepareCreate(entitySetName, entity, entityKey, esType, oew);
+
+        // データが存在しなければ、esJsonをESに保存する
+        DcIndexResponse idxRs = null;
+        idxRs = esType.create(oedh.getId(), oedh);
+
+        return completeCreate(entitySetName, entity, oew, oedh, idxRs);
+    }
+
+    /**
+     * Entityの作成のうち、ESへの登録前の処理を行う. ロックを取得した状態で呼び出すこと.
+     * @param entitySetName エンティティセット名
+     * @param entity リクエストのエンティティ
+     * @param entityKey エンティティのキー
+     * @param esType 登録先のアクセサ
+     * @param oew リクエストのエンティティ
+     * @return 登録データ
+     */
+    private EntitySetDocHandler prepareCreate(final String entitySetName,
+            final OEntity entity,
+            OEntityKey entityKey,
+            EntitySetAccessor esType,
+            OEntityWrapper oew) {
         checkUniqueness(entitySetName, oew);
 
         EntitySetDocHandler oedh = getDocHanlder(esType.getType(), oew);
@@ -1105,11 +1492,23 @@ public abstract class EsODataProducer implements DcODataProducer {
 
         // 登録前処理
         this.beforeCreate(entitySetName, entity, oedh);
+        return oedh;
+    }
 
-        // データが存在しなければ、esJsonをESに保存する
-        DcIndexResponse idxRs = null;
-        idxRs = esType.create(oedh.getId(), oedh);
-
+    /**
+     * Entityの作成のうち、ESへの登録後の処理を行う. ロックを取得した状態で呼び出すこと.
+     * @param entitySetName エンティティセット名
+     * @param entity リクエストのエンティティ
+     * @param oew リクエストのエンティティ
+     * @param oedh 登録データ
+     * @param idxRs 登録結果
+     * @return 作成したエンティティ
+     */
+    private EntityResponse completeCreate(final String entitySetName,
+            final OEntity entity,
+            OEntityWrapper oew,
+            EntitySetDocHandler oedh,
+            DcIndexResponse idxRs) {
         // 登録後処理
         this.afterCreate(entitySetName, entity, oedh);
 
@@ -1238,6 +1637,7 @@ public abstract class EsODataProducer implements DcODataProducer {
                 throw DcCoreException.OData.REQUEST_FIELD_FORMAT_ERROR.params("uri");
             }
             createLinks(sourceEntity, srcNavProp, assoc, src, tgt);
+            this.afterLinkChange(srcSetName, targetEntity.getEntitySetName());
         } finally {
             log.debug("unlock");
             lock.release();
@@ -1431,6 +1831,7 @@ public abstract class EsODataProducer implements DcODataProducer {
             // $linksの登録
             entity = createNavigationPropertyLink(sourceOEntity, entity, srcNavProp, sourceDocHandler, retrievedEntity);
             res = Responses.entity(entity);
+            this.afterLinkChange(sourceOEntity.getEntitySetName(), targetEntitySetName);
 
         } finally {
             log.debug("unlock");
@@ -1992,6 +2393,7 @@ public abstract class EsODataProducer implements DcODataProducer {
                 // n:1の場合、1のデータのリンク情報から該当する項目を削除する
                 deleteLinks(sourceEntityId, targetEntityKey, tgtSet, oneAssoc);
             }
+            this.afterLinkChange(srcSetName, tgtSet.getName());
         } finally {
             log.debug("unlock");
             lock.release();
@@ -2170,7 +2572,8 @@ public abstract class EsODataProducer implements DcODataProducer {
 
         filter.put("query", query);
 
-        // 検索の実行
+        // 検索の実行. 直前までの書き込みを検索に反映させておく
+        esType.refreshForSearch();
         return esType.count(filter);
     }
 
@@ -2353,10 +2756,15 @@ public abstract class EsODataProducer implements DcODataProducer {
         if (sHits == null) {
             return oeids;
         }
+        List<EntitySetDocHandler> oedhs = new ArrayList<EntitySetDocHandler>();
         for (DcSearchHit hit : sHits.getHits()) {
-            EntitySetDocHandler oedh = getDocHandler(hit, targetSetName);
-            OEntityId id = getOEntityId(targetSetName, tgtSet, oedh);
-            oeids.add(id);
+            oedhs.add(getDocHandler(hit, targetSetName));
+        }
+        // NavigationTargetKeyPropertyのリンク先はまとめて取得する
+        setNavigationTargetKeyProperty(tgtSet, oedhs);
+        for (EntitySetDocHandler oedh : oedhs) {
+            OEntity oe = oedh.createOEntity(tgtSet, this.getMetadata(), null);
+            oeids.add(OEntityIds.create(targetSetName, oe.getEntityKey()));
         }
         return oeids;
     }
@@ -2673,7 +3081,7 @@ public abstract class EsODataProducer implements DcODataProducer {
         }
 
         // 更新後の処理
-        this.afterUpdate();
+        this.afterUpdate(entitySetName);
 
         // Resource層でETag返還ができるよう、レスポンスから得たVersion情報を、引数のOEntityWrapperに破壊的に設定
         oedhNew.setVersion(idxRes.version());
@@ -2779,6 +3187,7 @@ public abstract class EsODataProducer implements DcODataProducer {
             List<Map<String, Object>> implicitFilters = getImplicitFilters(entitySetName);
             ODataQueryHandler visitor = getODataQueryHandler(queryInfo, eSet.getType(), implicitFilters);
             Map<String, Object> source = visitor.getSource();
+            // 削除前の空確認や重複確認など内部の判定に用いられるため、件数のキャッシュは使用しない
             try {
                 tmpCount = esType.count(source);
             } catch (EsClientException ex) {
@@ -2905,6 +3314,12 @@ public abstract class EsODataProducer implements DcODataProducer {
 
             // リンク情報を登録する
             bulkCreateLinks(npBulkContexts, getCellId());
+            for (NavigationPropertyBulkContext context : npBulkContexts) {
+                if (!context.isError()) {
+                    this.afterLinkChange(context.getSrcEntityId().getEntitySetName(),
+                            context.getOEntityWrapper().getEntitySetName());
+                }
+            }
         } finally {
             lock.release();
             log.debug("bulkCreateEntityViaNavigationProperty release lock");
@@ -30,6 +30,7 @@ import org.odata4j.expression.AggregateAllFunction;
 import org.odata4j.expression.AggregateAnyFunction;
 import org.odata4j.expression.AndExpression;
 import org.odata4j.expression.BinaryLiteral;
+import org.odata4j.expression.BoolCommonExpression;
 import org.odata4j.expression.BoolParenExpression;
 import org.odata4j.expression.BooleanLiteral;
 import org.odata4j.expression.ByteLiteral;
@@ -90,11 +91,16 @@ import org.odata4j.producer.QueryInfo;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
+import com.fujitsu.dc.common.es.response.DcSearchHit;
+import com.fujitsu.dc.common.es.response.DcSearchResponse;
 import com.fujitsu.dc.core.DcCoreConfig;
 import com.fujitsu.dc.core.DcCoreException;
 import com.fujitsu.dc.core.model.ctl.Common;
 import com.fujitsu.dc.core.model.impl.es.QueryMapFactory;
 import com.fujitsu.dc.core.model.impl.es.doc.OEntityDocHandler;
+import com.fujitsu.dc.core.model.impl.es.odata.EsQueryTemplateCache.Condition;
+import com.fujitsu.dc.core.model.impl.es.odata.EsQueryTemplateCache.Slot;
+import com.fujitsu.dc.core.odata.ParameterizedFilter;
 
 /**
  * ODataの$filterをはじめとするクエリをESのJSONベースQueryDSLに変換する.
@@ -112,6 +118,13 @@ public class EsQueryHandler implements ExpressionVisitor, ODataQueryHandler {
     Map<String, Object> current;
     Stack<Map<String, Object>> stack = new Stack<Map<String, Object>>();
     Map<String, Object> orderBy;
+    boolean skipTokenEnabled = DcCoreConfig.isSkipTokenEnabled();
+    String templateScope;
+    private List<Slot> compilingSlots;
+    private List<Object> compilingLiterals;
+    private List<Object> compilingValues;
+    private Condition validatedCondition;
+    private EdmProperty validatedProperty;
     /**
      * SORT_ASC 昇順.
      */
@@ -156,10 +169,7 @@ public class EsQueryHandler implements ExpressionVisitor, ODataQueryHandler {
         List<Map<String, Object>> filters = new ArrayList<Map<String, Object>>();
         if (queryInfo != null) {
             if (queryInfo.filter != null) {
-                this.stack.push(this.source);
-                this.current = new HashMap<String, Object>();
-                filters.add(this.current);
-                queryInfo.filter.visit(this);
+                filters.add(translateFilter(queryInfo.filter));
             }
 
             if (queryInfo.customOptions != null && !queryInfo.customOptions.isEmpty()) {
@@ -189,6 +199,7 @@ public class EsQueryHandler implements ExpressionVisitor, ODataQueryHandler {
             this.setSkip(queryInfo.skip);
             this.setOrderBy(queryInfo.orderBy);
             this.setSelect(queryInfo.select);
+            this.setSkipToken(queryInfo.skipToken, filters);
         }
         Map<String, Object> filter = new HashMap<String, Object>();
         if (!filters.isEmpty()) {
@@ -208,6 +219,90 @@ public class EsQueryHandler implements ExpressionVisitor, ODataQueryHandler {
         this.source.put("version", true);
     }
 
+    /**
+     * $filterの変換結果を再利用できる範囲を設定する.
+     * 範囲内ではエンティティタイプ名が同じであればスキーマ定義も同じである必要がある.
+     * 設定しない場合は変換結果を再利用しない.
+     * @param scope 範囲(スキーマの世代等)
+     */
+    public void setTemplateScope(String scope) {
+        this.templateScope = scope;
+    }
+
+    /**
+     * $filterをESのフィルタに変換する.
+     * 同じ形の$filterの変換結果を保持している場合は、リテラルの値を当てはめるのみとする.
+     * @param filter $filter
+     * @return ESのフィルタ
+     */
+    private Map<String, Object> translateFilter(BoolCommonExpression filter) {
+        String key = getTemplateKey(filter);
+        if (key == null) {
+            return visitFilter(filter);
+        }
+        List<Object> parameters = ((ParameterizedFilter) filter).getParameters();
+        EsQueryTemplateCache.Template template = EsQueryTemplateCache.getInstance().get(key);
+        if (template != null) {
+            List<Slot> slots = template.getSlots();
+            List<Object> values = new ArrayList<Object>();
+            for (int i = 0; i < slots.size(); i++) {
+                CommonExpression literal = EsQueryTemplateCache.toLiteral(parameters.get(i));
+                slots.get(i).validate(literal);
+                values.add(toSearchValue(literal));
+            }
+            return template.bind(values);
+        }
+
+        // 変換中に検索値とした文字列・整数リテラルをParamに置き換え、テンプレートとする
+        List<Slot> slots = new ArrayList<Slot>();
+        List<Object> literals = new ArrayList<Object>();
+        List<Object> values = new ArrayList<Object>();
+        this.compilingSlots = slots;
+        this.compilingLiterals = literals;
+        this.compilingValues = values;
+        Map<String, Object> compiled;
+        try {
+            compiled = visitFilter(filter);
+        } finally {
+            this.compilingSlots = null;
+            this.compilingLiterals = null;
+            this.compilingValues = null;
+        }
+        // リテラルの出現順とパラメータの順序が一致する場合のみ再利用する
+        if (literals.equals(parameters)) {
+            EsQueryTemplateCache.getInstance().put(key, new EsQueryTemplateCache.Template(compiled, slots));
+        }
+        return EsQueryTemplateCache.Template.bind(compiled, values);
+    }
+
+    private Map<String, Object> visitFilter(BoolCommonExpression filter) {
+        this.stack.push(this.source);
+        this.current = new HashMap<String, Object>();
+        Map<String, Object> translated = this.current;
+        filter.visit(this);
+        return translated;
+    }
+
+    private String getTemplateKey(BoolCommonExpression filter) {
+        if (this.templateScope == null || this.entityType == null || !(filter instanceof ParameterizedFilter)) {
+            return null;
+        }
+        return getClass().getName() + "\n" + this.templateScope + "\n"
+                + this.entityType.getFullyQualifiedTypeName() + "\n" + ((ParameterizedFilter) filter).getShape();
+    }
+
+    /**
+     * プロパティの型と検索条件の値の型を検証する.
+     * @param condition 検証種別
+     * @param edmProperty プロパティ
+     * @param searchValue 検索条件の値
+     */
+    private void validateCondition(Condition condition, EdmProperty edmProperty, CommonExpression searchValue) {
+        condition.validate(edmProperty, searchValue);
+        this.validatedCondition = condition;
+        this.validatedProperty = edmProperty;
+    }
+
     /**
      * @param top $topの値
      */
@@ -246,6 +341,52 @@ public class EsQueryHandler implements ExpressionVisitor, ODataQueryHandler {
         }
     }
 
+    /**
+     * $skiptokenによる続きのページの取得を設定する.
+     * ソート順を一意にするソートキーを加え、$skiptokenが指定されていれば前ページ最終件より後ろのドキュメントに絞り込む.
+     * @param skipToken $skiptokenの値
+     * @param filters 絞り込み条件の追加先
+     */
+    @SuppressWarnings("unchecked")
+    public void setSkipToken(String skipToken, List<Map<String, Object>> filters) {
+        if (!this.skipTokenEnabled) {
+            return;
+        }
+        List<Map<String, Object>> sort = EsSkipToken.addTiebreaker((List<Map<String, Object>>) this.source.get("sort"));
+        this.source.put("sort", sort);
+        if (skipToken != null) {
+            List<Object> values = EsSkipToken.decode(skipToken, sort.size());
+            filters.add(EsSkipToken.searchAfterFilter(sort, values));
+        }
+    }
+
+    /**
+     * 検索結果の続きがある場合、続きのページを取得するための$skiptokenを返す.
+     * 取得件数が設定されていない場合はデフォルトの取得件数で判定する.
+     * @param response 検索結果
+     * @return $skiptoken. 続きがない場合はnull
+     */
+    public String getNextSkipToken(DcSearchResponse response) {
+        if (!this.skipTokenEnabled || response == null || response.getHits() == null) {
+            return null;
+        }
+        DcSearchHit[] hits = response.getHits().getHits();
+        Object size = this.source.get("size");
+        int pageSize = DEFAULT_TOP_VALUE;
+        if (size != null) {
+            pageSize = ((Number) size).intValue();
+        }
+        Object from = this.source.get("from");
+        long fetched = hits.length;
+        if (from != null) {
+            fetched += ((Number) from).longValue();
+        }
+        if (hits.length == 0 || hits.length < pageSize || response.getHits().getAllPages() <= fetched) {
+            return null;
+        }
+        return EsSkipToken.encode(hits[hits.length - 1].getSortValues());
+    }
+
     /**
      * @param selects $selectの値
      */
@@ -423,7 +564,7 @@ public class EsQueryHandler implements ExpressionVisitor, ODataQueryHandler {
 
         // $filterに指定されたプロパティの型と検索条件の値として指定されたデータ型の検証
         CommonExpression searchValue = expr.getRHS();
-        FilterConditionValidator.validateFilterEqCondition(edmProperty, searchValue);
+        validateCondition(Condition.EQ, edmProperty, searchValue);
 
         // 検索クエリを設定する
         // 検索対象がnullの場合、{"missing":{"field":"xxx"}}を作成する
@@ -464,10 +605,34 @@ public class EsQueryHandler implements ExpressionVisitor, ODataQueryHandler {
 
     /**
      * elasticsearchの検索文字列を返却する.
+     * テンプレートの生成中は、文字列・整数リテラルの位置を{@link EsQueryTemplateCache.Param}とする.
      * @param expr CommonExpression
      * @return elasticsearchの検索文字列
      */
     private Object getSearchValue(CommonExpression expr) {
+        Object value = toSearchValue(expr);
+        if (this.compilingSlots == null) {
+            return value;
+        }
+        Object literal = null;
+        if (expr instanceof StringLiteral) {
+            literal = ((StringLiteral) expr).getValue();
+        } else if (expr instanceof IntegralLiteral) {
+            literal = ((IntegralLiteral) expr).getValue();
+        } else if (expr instanceof Int64Literal) {
+            literal = ((Int64Literal) expr).getValue();
+        }
+        if (literal == null) {
+            // パラメータとならないリテラルは形の一部であるため、値をそのまま埋め込む
+            return value;
+        }
+        this.compilingSlots.add(new Slot(this.validatedProperty, this.validatedCondition));
+        this.compilingLiterals.add(literal);
+        this.compilingValues.add(value);
+        return new EsQueryTemplateCache.Param(this.compilingValues.size() - 1);
+    }
+
+    private Object toSearchValue(CommonExpression expr) {
         if (expr instanceof IntegralLiteral) {
             return ((IntegralLiteral) expr).getValue();
         } else if (expr instanceof Int64Literal) {
@@ -581,7 +746,7 @@ public class EsQueryHandler implements ExpressionVisitor, ODataQueryHandler {
 
         // $filterに指定されたプロパティの型と検索条件の値として指定されたデータ型の検証
         CommonExpression searchValue = expr.getRHS();
-        FilterConditionValidator.validateFilterOpCondition(edmProperty, searchValue);
+        validateCondition(Condition.OP, edmProperty, searchValue);
 
         // ESの Range filterを設定する
         Map<String, Object> ge = new HashMap<String, Object>();
@@ -604,7 +769,7 @@ public class EsQueryHandler implements ExpressionVisitor, ODataQueryHandler {
 
         // $filterに指定されたプロパティの型と検索条件の値として指定されたデータ型の検証
         CommonExpression searchValue = expr.getRHS();
-        FilterConditionValidator.validateFilterOpCondition(edmProperty, searchValue);
+        validateCondition(Condition.OP, edmProperty, searchValue);
 
         Map<String, Object> gt = new HashMap<String, Object>();
         Map<String, Object> property = new HashMap<String, Object>();
@@ -669,7 +834,7 @@ public class EsQueryHandler implements ExpressionVisitor, ODataQueryHandler {
 
         // $filterに指定されたプロパティの型と検索条件の値として指定されたデータ型の検証
         CommonExpression searchValue = expr.getRHS();
-        FilterConditionValidator.validateFilterOpCondition(edmProperty, searchValue);
+        validateCondition(Condition.OP, edmProperty, searchValue);
 
         // ESの Range filterを設定する
         Map<String, Object> le = new HashMap<String, Object>();
@@ -697,7 +862,7 @@ public class EsQueryHandler implements ExpressionVisitor, ODataQueryHandler {
 
         // $filterに指定されたプロパティの型と検索条件の値として指定されたデータ型の検証
         CommonExpression searchValue = expr.getRHS();
-        FilterConditionValidator.validateFilterOpCondition(edmProperty, searchValue);
+        validateCondition(Condition.OP, edmProperty, searchValue);
 
         // ESの Range filterを設定する
         Map<String, Object> lt = new HashMap<String, Object>();
@@ -728,7 +893,7 @@ public class EsQueryHandler implements ExpressionVisitor, ODataQueryHandler {
 
         // $filterに指定されたプロパティの型と検索条件の値として指定されたデータ型の検証
         CommonExpression searchValue = expr.getRHS();
-        FilterConditionValidator.validateFilterEqCondition(edmProperty, searchValue);
+        validateCondition(Condition.EQ, edmProperty, searchValue);
 
         // 検索クエリ(not filter)を設定する
         // 検索対象がnullの場合、{"missing":{"field":"xxx"}}を作成する
@@ -792,7 +957,7 @@ public class EsQueryHandler implements ExpressionVisitor, ODataQueryHandler {
         }
         EdmProperty edmProperty = getEdmProprety((EntitySimpleProperty) expr.getTarget());
         // $filterに指定されたプロパティの型と検索条件の値として指定されたデータ型の検証
-        FilterConditionValidator.validateFilterFuncCondition(edmProperty, expr.getValue());
+        validateCondition(Condition.FUNC, edmProperty, expr.getValue());
 
         // 検索クエリを設定する
         Map<String, Object> prefix = new HashMap<String, Object>();
@@ -831,7 +996,7 @@ public class EsQueryHandler implements ExpressionVisitor, ODataQueryHandler {
         }
         EdmProperty edmProperty = getEdmProprety((EntitySimpleProperty) expr.getTarget());
         // $filterに指定されたプロパティの型と検索条件の値として指定されたデータ型の検証
-        FilterConditionValidator.validateFilterFuncCondition(edmProperty, expr.getValue());
+        validateCondition(Condition.FUNC, edmProperty, expr.getValue());
 
         // 検索クエリを設定する
         Map<String, Object> searchKey = new HashMap<String, Object>();
@@ -0,0 +1,235 @@
+/**
+ * personium.io
+ * Copyright 2014 FUJITSU LIMITED
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.fujitsu.dc.core.model.impl.es.odata;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.odata4j.edm.EdmProperty;
+import org.odata4j.expression.CommonExpression;
+import org.odata4j.expression.Expression;
+
+import com.fujitsu.dc.core.DcCoreConfig;
+
+/**
+ * $filterをESのフィルタに変換した結果を、クエリの形ごとに保持するキャッシュ.
+ * <p>
+ * エンティティタイプ、スキーマの世代、リテラルを取り除いた$filterの形をキーとし、
+ * リテラルの位置を{@link Param}とした変換結果(テンプレート)を保持する。
+ * 同じ形の2回目以降は$filterの解析を行わず、リテラルの検証とテンプレートへの値の当てはめのみを行う。
+ * </p>
+ */
+final class EsQueryTemplateCache {
+
+    private static EsQueryTemplateCache instance = new EsQueryTemplateCache(
+            DcCoreConfig.getQueryCacheMaxEntries());
+
+    private final Map<String, Template> entries;
+
+    /**
+     * コンストラクタ.
+     * @param maxEntries 保持するテンプレート数の上限
+     */
+    EsQueryTemplateCache(final int maxEntries) {
+        this.entries = new LinkedHashMap<String, Template>(16, 0.75f, true) {
+            private static final long serialVersionUID = 1L;
+
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<String, Template> eldest) {
+                return size() > maxEntries;
+            }
+        };
+    }
+
+    /**
+     * @return インスタンス
+     */
+    static EsQueryTemplateCache getInstance() {
+        return instance;
+    }
+
+    /**
+     * テンプレートを取得する.
+     * @param key キー
+     * @return テンプレート. 保持していない場合はnull
+     */
+    Template get(String key) {
+        synchronized (this.entries) {
+            return this.entries.get(key);
+        }
+    }
+
+    /**
+     * テンプレートを登録する.
+     * @param key キー
+     * @param template テンプレート
+     */
+    void put(String key, Template template) {
+        synchronized (this.entries) {
+            this.entries.put(key, template);
+        }
+    }
+
+    /**
+     * 保持しているテンプレートを全て破棄する.
+     */
+    void clear() {
+        synchronized (this.entries) {
+            this.entries.clear();
+        }
+    }
+
+    /**
+     * {@link com.fujitsu.dc.core.odata.ParameterizedFilter}から取り出したリテラルの値を、パーサーと同じ型のリテラルに戻す.
+     * @param value リテラルの値(String, Integer, Long)
+     * @return リテラル
+     */
+    static CommonExpression toLiteral(Object value) {
+        if (value instanceof Integer) {
+            return Expression.integral((Integer) value);
+        } else if (value instanceof Long) {
+            return Expression.int64((Long) value);
+        }
+        return Expression.string((String) value);
+    }
+
+    /**
+     * 検索条件の値の検証種別.
+     */
+    enum Condition {
+        /** eq, ne. */
+        EQ,
+        /** gt, ge, lt, le. */
+        OP,
+        /** startswith, substringof. */
+        FUNC;
+
+        /**
+         * プロパティの型と検索条件の値の型を検証する.
+         * @param edmProperty プロパティ
+         * @param searchValue 検索条件の値
+         */
+        void validate(EdmProperty edmProperty, CommonExpression searchValue) {
+            switch (this) {
+            case EQ:
+                FilterConditionValidator.validateFilterEqCondition(edmProperty, searchValue);
+                break;
+            case OP:
+                FilterConditionValidator.validateFilterOpCondition(edmProperty, searchValue);
+                break;
+            default:
+                FilterConditionValidator.validateFilterFuncCondition(edmProperty, searchValue);
+                break;
+            }
+        }
+    }
+
+    /**
+     * テンプレート中のリテラルの位置.
+     */
+    static final class Param {
+        private final int index;
+
+        Param(int index) {
+            this.index = index;
+        }
+    }
+
+    /**
+     * リテラルを当てはめる際に行う検証.
+     */
+    static final class Slot {
+        private final EdmProperty property;
+        private final Condition condition;
+
+        Slot(EdmProperty property, Condition condition) {
+            this.property = property;
+            this.condition = condition;
+        }
+
+        void validate(CommonExpression searchValue) {
+            this.condition.validate(this.property, searchValue);
+        }
+    }
+
+    /**
+     * リテラルの位置を{@link Param}としたESのフィルタ.
+     * 複数リクエストで共有するため、生成後は変更せず、当てはめの都度複製する.
+     */
+    static final class Template {
+        private final Map<String, Object> filter;
+        private final List<Slot> slots;
+
+        /**
+         * コンストラクタ.
+         * @param filter リテラルの位置を{@link Param}としたフィルタ
+         * @param slots 出現順のリテラルの検証
+         */
+        Template(Map<String, Object> filter, List<Slot> slots) {
+            this.filter = filter;
+            this.slots = Collections.unmodifiableList(new ArrayList<Slot>(slots));
+        }
+
+        List<Slot> getSlots() {
+            return this.slots;
+        }
+
+        /**
+         * リテラルの値を当てはめたフィルタを生成する.
+         * @param values 出現順の検索値
+         * @return フィルタ
+         */
+        Map<String, Object> bind(List<Object> values) {
+            return bind(this.filter, values);
+        }
+
+        /**
+         * {@link Param}の位置に値を当てはめた複製を生成する.
+         * @param template テンプレート
+         * @param values 出現順の検索値
+         * @return フィルタ
+         */
+        @SuppressWarnings("unchecked")
+        static Map<String, Object> bind(Map<String, Object> template, List<Object> values) {
+            return (Map<String, Object>) copy(template, values);
+        }
+
+        @SuppressWarnings("unchecked")
+        private static Object copy(Object node, List<Object> values) {
+            if (node instanceof Param) {
+                return values.get(((Param) node).index);
+            } else if (node instanceof Map) {
+                Map<String, Object> copied = new HashMap<String, Object>();
+                for (Map.Entry<String, Object> e : ((Map<String, Object>) node).entrySet()) {
+                    copied.put(e.getKey(), copy(e.getValue(), values));
+                }
+                return copied;
+            } else if (node instanceof List) {
+                List<Object> copied = new ArrayList<Object>();
+                for (Object item : (List<Object>) node) {
+                    copied.add(copy(item, values));
+                }
+                return copied;
+            }
+            return node;
+        }
+    }
+}
@@ -0,0 +1,244 @@
+/**
+ * personium.io
+ * Copyright 2014 FUJITSU LIMITED
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.fujitsu.dc.core.model.impl.es.odata;
+
+import java.nio.charset.Charset;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.apache.commons.codec.binary.Base64;
+import org.json.simple.JSONArray;
+import org.json.simple.parser.JSONParser;
+import org.json.simple.parser.ParseException;
+
+import com.fujitsu.dc.core.DcCoreException;
+
+/**
+ * 一覧取得の続きを示す$skiptokenを扱うクラス.
+ * <p>
+ * $skiptokenは前ページ最終件のソートキーの値を不透明な文字列に符号化したものである。
+ * 続きのページは$skipによる読み飛ばしではなく、ソートキーの値が前ページ最終件より後ろとなる条件で検索するため、
+ * 何ページ目であっても検索のコストは変わらない(search_after 相当)。
+ * ソート順を一意にするため、ソートキーの最後には必ず{@link #TIEBREAKER_KEY}を加える。
+ * </p>
+ * <p>
+ * {@link #TIEBREAKER_KEY}(_uid)はdoc valuesを持たないため、ソートにはfielddataを使用する。
+ * $skiptoken対象の一覧取得が一度でも行われたシャードでは、_uidの全値(タイプ名#ID)がセグメント単位でヒープに読み込まれ、
+ * セグメントが破棄されるまで保持される。所要メモリはドキュメント数とIDの長さに比例するため、
+ * ESのヒープサイズおよび indices.fielddata.cache.size の見積もりにはこの分を含めること。
+ * 既存のマッピングには一意なdoc valuesフィールドがなく、フィールドを追加すると既存インデックスの再作成が必要となるため、_uidを使用している。
+ * </p>
+ */
+public final class EsSkipToken {
+
+    /** ソート順を一意にするためのソートキー. */
+    public static final String TIEBREAKER_KEY = "_uid";
+
+    private static final Charset UTF8 = Charset.forName("UTF-8");
+
+    /** ESが値のない文字列型フィールドのソート値として返す値(U+10FFFF). */
+    private static final String MISSING_STRING_SORT_VALUE = new String(Character.toChars(Character.MAX_CODE_POINT));
+
+    private EsSkipToken() {
+    }
+
+    /**
+     * ソート条件の末尾に、ソート順を一意にするためのソートキーを加える.
+     * @param sort ソート条件. nullの場合は新たに作成する
+     * @return ソート条件
+     */
+    public static List<Map<String, Object>> addTiebreaker(List<Map<String, Object>> sort) {
+        List<Map<String, Object>> ret = sort;
+        if (ret == null) {
+            ret = new ArrayList<Map<String, Object>>();
+        }
+        Map<String, Object> option = new HashMap<String, Object>();
+        option.put("order", EsQueryHandler.SORT_ASC);
+        Map<String, Object> tiebreaker = new HashMap<String, Object>();
+        tiebreaker.put(TIEBREAKER_KEY, option);
+        ret.add(tiebreaker);
+        return ret;
+    }
+
+    /**
+     * 検索結果の最終件のソート値から$skiptokenを生成する.
+     * @param sortValues ESが返却したソート値
+     * @return $skiptoken
+     */
+    @SuppressWarnings("unchecked")
+    public static String encode(Object[] sortValues) {
+        JSONArray values = new JSONArray();
+        for (Object value : sortValues) {
+            if (isMissing(value)) {
+                values.add(null);
+            } else if (value instanceof Number || value instanceof Boolean) {
+                values.add(value);
+            } else {
+                values.add(value.toString());
+            }
+        }
+        return Base64.encodeBase64URLSafeString(values.toJSONString().getBytes(UTF8));
+    }
+
+    /**
+     * $skiptokenを前ページ最終件のソート値に戻す.
+     * @param skipToken $skiptoken
+     * @param sortKeyCount ソートキーの数
+     * @return ソート値. 値のないフィールドはnull
+     */
+    public static List<Object> decode(String skipToken, int sortKeyCount) {
+        Object parsed;
+        try {
+            parsed = new JSONParser().parse(new String(Base64.decodeBase64(skipToken), UTF8));
+        } catch (ParseException e) {
+            throw DcCoreException.OData.QUERY_INVALID_ERROR.params("$skiptoken", skipToken).reason(e);
+        }
+        // ソート条件の異なる一覧取得の$skiptokenは受け付けない
+        if (!(parsed instanceof JSONArray) || ((JSONArray) parsed).size() != sortKeyCount) {
+            throw DcCoreException.OData.QUERY_INVALID_ERROR.params("$skiptoken", skipToken);
+        }
+        List<Object> values = new ArrayList<Object>();
+        for (Object value : (JSONArray) parsed) {
+            values.add(value);
+        }
+        return values;
+    }
+
+    /**
+     * ソート順で指定の値より後ろとなるドキュメントを絞り込むフィルタを組み立てる.
+     * ソートキー k1..kn、値 v1..vn に対し、「k1..ki-1 が v1..vi-1 と等しく、ki が vi より後ろ」を i=1..n で OR したものとなる.
+     * @param sort ソート条件
+     * @param values 前ページ最終件のソート値
+     * @return フィルタ
+     */
+    public static Map<String, Object> searchAfterFilter(List<Map<String, Object>> sort, List<Object> values) {
+        List<Map<String, Object>> orFilters = new ArrayList<Map<String, Object>>();
+        List<Map<String, Object>> equals = new ArrayList<Map<String, Object>>();
+        for (int i = 0; i < sort.size(); i++) {
+            Map.Entry<String, Object> sortKey = sort.get(i).entrySet().iterator().next();
+            String field = sortKey.getKey();
+            Object value = values.get(i);
+
+            Map<String, Object> after = afterFilter(field, sortKey.getValue(), value);
+            if (after != null) {
+                List<Map<String, Object>> andFilters = new ArrayList<Map<String, Object>>(equals);
+                andFilters.add(after);
+                orFilters.add(and(andFilters));
+            }
+            equals.add(equalFilter(field, value));
+        }
+        Map<String, Object> filters = new HashMap<String, Object>();
+        filters.put("filters", orFilters);
+        Map<String, Object> or = new HashMap<String, Object>();
+        or.put("or", filters);
+        return or;
+    }
+
+    /**
+     * ソート順で指定の値より後ろとなるドキュメントを絞り込むフィルタを組み立てる.
+     * 値のないドキュメントは、ソート条件で"_first"の指定がない限り末尾に並ぶ.
+     * @return フィルタ. 該当するドキュメントがない場合はnull
+     */
+    @SuppressWarnings("unchecked")
+    private static Map<String, Object> afterFilter(String field, Object option, Object value) {
+        String order = EsQueryHandler.SORT_ASC;
+        boolean missingFirst = false;
+        if (option instanceof Map) {
+            Map<String, Object> optionMap = (Map<String, Object>) option;
+            if (optionMap.get("order") != null) {
+                order = optionMap.get("order").toString();
+            }
+            missingFirst = "_first".equals(optionMap.get("missing"));
+        }
+        if (value == null) {
+            // 値のないドキュメントが先頭に並ぶ場合、値のあるドキュメントは全て後ろとなる
+            return missingFirst ? fieldFilter("exists", field) : null;
+        }
+        Map<String, Object> condition = new HashMap<String, Object>();
+        condition.put(EsQueryHandler.SORT_ASC.equals(order) ? "gt" : "lt", value);
+        Map<String, Object> rangeField = new HashMap<String, Object>();
+        rangeField.put(field, condition);
+        Map<String, Object> range = new HashMap<String, Object>();
+        range.put("range", rangeField);
+        if (missingFirst || TIEBREAKER_KEY.equals(field)) {
+            return range;
+        }
+        // 値のないドキュメントは末尾に並ぶ
+        List<Map<String, Object>> orFilters = new ArrayList<Map<String, Object>>();
+        orFilters.add(range);
+        orFilters.add(fieldFilter("missing", field));
+        Map<String, Object> filters = new HashMap<String, Object>();
+        filters.put("filters", orFilters);
+        Map<String, Object> or = new HashMap<String, Object>();
+        or.put("or", filters);
+        return or;
+    }
+
+    private static Map<String, Object> equalFilter(String field, Object value) {
+        if (value == null) {
+            return fieldFilter("missing", field);
+        }
+        Map<String, Object> termField = new HashMap<String, Object>();
+        termField.put(field, value);
+        Map<String, Object> term = new HashMap<String, Object>();
+        term.put("term", termField);
+        return term;
+    }
+
+    private static Map<String, Object> fieldFilter(String type, String field) {
+        Map<String, Object> fieldMap = new HashMap<String, Object>();
+        fieldMap.put("field", field);
+        Map<String, Object> filter = new HashMap<String, Object>();
+        filter.put(type, fieldMap);
+        return filter;
+    }
+
+    private static Map<String, Object> and(List<Map<String, Object>> andFilters) {
+        if (andFilters.size() == 1) {
+            return andFilters.get(0);
+        }
+        Map<String, Object> filters = new HashMap<String, Object>();
+        filters.put("filters", andFilters);
+        Map<String, Object> and = new HashMap<String, Object>();
+        and.put("and", filters);
+        return and;
+    }
+
+    /**
+     * ESが値のないフィールドのソート値として返す値かどうかを判定する.
+     * ESは値のないドキュメントをソート順の先頭・末尾に並べるため、型ごとの最大値・最小値をソート値として返す.
+     * @param value ソート値
+     * @return 値のないフィールドのソート値であれば真
+     */
+    static boolean isMissing(Object value) {
+        if (value == null) {
+            return true;
+        }
+        if (value instanceof Long || value instanceof Integer) {
+            long l = ((Number) value).longValue();
+            return l == Long.MAX_VALUE || l == Long.MIN_VALUE;
+        }
+        if (value instanceof Double || value instanceof Float) {
+            double d = ((Number) value).doubleValue();
+            return Double.isInfinite(d) || Math.abs(d) == Double.MAX_VALUE;
+        }
+        return !(value instanceof Number || value instanceof Boolean)
+                && MISSING_STRING_SORT_VALUE.equals(value.toString());
+    }
+}
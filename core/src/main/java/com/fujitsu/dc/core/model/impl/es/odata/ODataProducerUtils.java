@@ -65,6 +65,8 @@ public final class ODataProducerUtils {
      */
     static void checkUniqueness(EsODataProducer producer, OEntityWrapper newEntity,
             OEntityWrapper originalEntity, OEntityKey originalKey) {
+        // 一意性チェックは検索で行うため、直前までの書き込みを検索に反映させておく
+        producer.getAccessorForEntitySet(newEntity.getEntitySetName()).refreshForSearch();
         boolean needsPkCheck = false;
         if (originalEntity == null) {
             needsPkCheck = true;
@@ -22,6 +22,8 @@ import java.util.Map;
 import org.odata4j.expression.EntitySimpleProperty;
 import org.odata4j.producer.QueryInfo;
 
+import com.fujitsu.dc.common.es.response.DcSearchResponse;
+
 /**
  * ODataのクエリハンドラー.
  */
@@ -47,4 +49,11 @@ public interface ODataQueryHandler {
      */
     void getSelectQuery(Map<String, Object> baseSource,
             List<EntitySimpleProperty> selects);
+
+    /**
+     * 検索結果の続きがある場合、続きのページを取得するための$skiptokenを返す.
+     * @param response 検索結果
+     * @return $skiptoken. 続きがない場合はnull
+     */
+    String getNextSkipToken(DcSearchResponse response);
 }
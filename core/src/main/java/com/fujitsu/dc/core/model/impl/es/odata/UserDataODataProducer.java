@@ -24,6 +24,7 @@ import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
 import java.util.Map.Entry;
+import java.util.concurrent.Callable;
 
 import net.spy.memcached.internal.CheckedOperationTimeoutException;
 
@@ -70,6 +71,7 @@ import com.fujitsu.dc.core.model.impl.es.doc.OEntityDocHandler;
 import com.fujitsu.dc.core.model.impl.es.doc.PropertyDocHandler;
 import com.fujitsu.dc.core.model.impl.es.doc.UserDataDocHandler;
 import com.fujitsu.dc.core.model.impl.es.doc.UserDataLinkDocHandler;
+import com.fujitsu.dc.core.model.impl.es.odata.UserDataSchemaLocalCache.CompiledSchema;
 import com.fujitsu.dc.core.odata.DcEdmxFormatParser;
 import com.fujitsu.dc.core.odata.OEntityWrapper;
 import com.fujitsu.dc.core.rs.odata.BulkRequest;
@@ -93,6 +95,7 @@ public class UserDataODataProducer extends EsODataProducer {
      * スキーマ定義.
      */
     private EdmDataServices metadata = null;
+    private Long schemaGeneration = null;
 
     Cell cell;
     DavCmp davCmp;
@@ -186,7 +189,11 @@ public class UserDataODataProducer extends EsODataProducer {
     protected ODataQueryHandler getODataQueryHandler(final QueryInfo queryInfo,
             EdmEntityType edmEntityType,
             List<Map<String, Object>> implicitFilters) {
-        ODataQueryHandler queryHandler = new UserDataQueryHandler(edmEntityType, getPropertyAliasMap());
+        UserDataQueryHandler queryHandler = new UserDataQueryHandler(edmEntityType, getPropertyAliasMap());
+        if (this.schemaGeneration != null) {
+            // スキーマの世代が同じ間は、$filterの変換結果を再利用する
+            queryHandler.setTemplateScope(this.getNodeId() + ":" + this.schemaGeneration);
+        }
         queryHandler.initialize(queryInfo, implicitFilters);
         return queryHandler;
     }
@@ -204,8 +211,36 @@ public class UserDataODataProducer extends EsODataProducer {
         return this.metadata;
     }
 
-    @SuppressWarnings("unchecked")
     private void reloadMetadata() {
+        Long generation = null;
+        if (DcCoreConfig.isSchemaLocalCacheEnabled()) {
+            generation = UserDataSchemaCache.getGeneration(this.getNodeId());
+        }
+        if (generation == null) {
+            loadMetadata();
+            return;
+        }
+
+        // 世代が変わっていなければ、プロセス内に保持しているパース済みのスキーマを用いる
+        final long currentGeneration = generation;
+        CompiledSchema schema = UserDataSchemaLocalCache.getInstance().get(this.getNodeId(), currentGeneration,
+                new Callable<CompiledSchema>() {
+                    @Override
+                    public CompiledSchema call() {
+                        loadMetadata();
+                        return new CompiledSchema(currentGeneration, metadata, getPropertyAliasMap(),
+                                getEntityTypeMap(), entityTypeIds);
+                    }
+                });
+        this.metadata = schema.getMetadata();
+        this.schemaGeneration = currentGeneration;
+        this.entityTypeIds = schema.getEntityTypeIds();
+        setPropertyAliasMap(schema.getPropertyAliasMap());
+        setEntityTypeMap(schema.getEntityTypeMap());
+    }
+
+    @SuppressWarnings("unchecked")
+    private void loadMetadata() {
         Map<String, Object> cache = UserDataSchemaCache.get(this.getNodeId());
         if (cache == null) {
             this.metadata = getMetadataFromDataSource();
@@ -0,0 +1,196 @@
+/**
+ * personium.io
+ * Copyright 2014 FUJITSU LIMITED
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.fujitsu.dc.core.model.impl.es.odata;
+
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.FutureTask;
+
+import org.odata4j.edm.EdmDataServices;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.fujitsu.dc.core.DcCoreConfig;
+import com.fujitsu.dc.core.DcCoreException;
+
+/**
+ * ODataSvcコレクション毎のユーザデータスキーマを、パース済みの状態でプロセス内に保持するキャッシュ.
+ * <p>
+ * ノードIDと{@link com.fujitsu.dc.core.model.impl.es.cache.UserDataSchemaCache}が保持する世代をキーとし、
+ * 世代が一致する間はEDMXのパースやESからのスキーマ再構築を行わない。
+ * 同一コレクション・同一世代に対する同時の読み込みは1回の再構築にまとめる。
+ * </p>
+ */
+final class UserDataSchemaLocalCache {
+    static Logger log = LoggerFactory.getLogger(UserDataSchemaLocalCache.class);
+
+    private static UserDataSchemaLocalCache instance = new UserDataSchemaLocalCache(
+            DcCoreConfig.getSchemaLocalCacheMaxEntries());
+
+    private final Map<String, CompiledSchema> entries;
+    private final ConcurrentMap<String, FutureTask<CompiledSchema>> inFlight =
+            new ConcurrentHashMap<String, FutureTask<CompiledSchema>>();
+
+    /**
+     * コンストラクタ.
+     * @param maxEntries 保持するコレクション数の上限
+     */
+    UserDataSchemaLocalCache(final int maxEntries) {
+        this.entries = new LinkedHashMap<String, CompiledSchema>(16, 0.75f, true) {
+            private static final long serialVersionUID = 1L;
+
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<String, CompiledSchema> eldest) {
+                return size() > maxEntries;
+            }
+        };
+    }
+
+    /**
+     * @return インスタンス
+     */
+    static UserDataSchemaLocalCache getInstance() {
+        return instance;
+    }
+
+    /**
+     * 指定された世代のスキーマを取得する. 保持していない場合はloaderで読み込む.
+     * 同一ノードID・同一世代の読み込みが実行中の場合は、その完了を待って結果を共有する.
+     * @param nodeId ODataSvcコレクションのノードID
+     * @param generation スキーマの世代
+     * @param loader スキーマの読み込み処理
+     * @return スキーマ
+     */
+    CompiledSchema get(String nodeId, long generation, Callable<CompiledSchema> loader) {
+        synchronized (this.entries) {
+            CompiledSchema cached = this.entries.get(nodeId);
+            if (cached != null && cached.getGeneration() == generation) {
+                return cached;
+            }
+        }
+
+        String flightKey = nodeId + ":" + generation;
+        FutureTask<CompiledSchema> task = new FutureTask<CompiledSchema>(loader);
+        FutureTask<CompiledSchema> running = this.inFlight.putIfAbsent(flightKey, task);
+        if (running != null) {
+            return await(running);
+        }
+
+        try {
+            task.run();
+            CompiledSchema loaded = await(task);
+            synchronized (this.entries) {
+                this.entries.put(nodeId, loaded);
+            }
+            return loaded;
+        } finally {
+            this.inFlight.remove(flightKey, task);
+        }
+    }
+
+    /**
+     * 保持しているスキーマを全て破棄する.
+     */
+    void clear() {
+        synchronized (this.entries) {
+            this.entries.clear();
+        }
+    }
+
+    private CompiledSchema await(FutureTask<CompiledSchema> task) {
+        try {
+            return task.get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw DcCoreException.Server.UNKNOWN_ERROR.reason(e);
+        } catch (ExecutionException e) {
+            Throwable cause = e.getCause();
+            if (cause instanceof RuntimeException) {
+                throw (RuntimeException) cause;
+            }
+            if (cause instanceof Error) {
+                throw (Error) cause;
+            }
+            log.info("Failed to load UserDataSchema.", cause);
+            throw DcCoreException.Server.UNKNOWN_ERROR.reason(cause);
+        }
+    }
+
+    /**
+     * パース済みのユーザデータスキーマ.
+     * 複数リクエストで共有するため、保持するMapは生成時に複製し、取得時も複製を返す.
+     */
+    static final class CompiledSchema {
+        private final long generation;
+        private final EdmDataServices metadata;
+        private final Map<String, PropertyAlias> propertyAliasMap;
+        private final Map<String, String> entityTypeMap;
+        private final Map<String, String> entityTypeIds;
+
+        /**
+         * コンストラクタ.
+         * @param generation スキーマの世代
+         * @param metadata スキーマ定義
+         * @param propertyAliasMap プロパティ名とエイリアスの対応Map
+         * @param entityTypeMap EntityTypeのIDと名前の対応Map
+         * @param entityTypeIds EntityType名とUUIDの対応Map
+         */
+        CompiledSchema(long generation,
+                EdmDataServices metadata,
+                Map<String, PropertyAlias> propertyAliasMap,
+                Map<String, String> entityTypeMap,
+                Map<String, String> entityTypeIds) {
+            this.generation = generation;
+            this.metadata = metadata;
+            this.propertyAliasMap = copy(propertyAliasMap);
+            this.entityTypeMap = copy(entityTypeMap);
+            this.entityTypeIds = copy(entityTypeIds);
+        }
+
+        long getGeneration() {
+            return this.generation;
+        }
+
+        EdmDataServices getMetadata() {
+            return this.metadata;
+        }
+
+        Map<String, PropertyAlias> getPropertyAliasMap() {
+            return copy(this.propertyAliasMap);
+        }
+
+        Map<String, String> getEntityTypeMap() {
+            return copy(this.entityTypeMap);
+        }
+
+        Map<String, String> getEntityTypeIds() {
+            return copy(this.entityTypeIds);
+        }
+
+        private static <V> Map<String, V> copy(Map<String, V> src) {
+            if (src == null) {
+                return new HashMap<String, V>();
+            }
+            return new HashMap<String, V>(src);
+        }
+    }
+}
@@ -47,6 +47,7 @@ import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 import com.fujitsu.dc.common.es.EsIndex;
+import com.fujitsu.dc.common.es.EsRefreshPolicy;
 import com.fujitsu.dc.common.es.response.DcSearchHit;
 import com.fujitsu.dc.common.es.response.DcSearchResponse;
 import com.fujitsu.dc.core.DcCoreConfig;
@@ -117,12 +118,17 @@ public class UserSchemaODataProducer extends EsODataProducer {
 
     @Override
     public EntitySetAccessor getAccessorForEntitySet(final String entitySetName) {
-        return EsModel.cellCtl(this.cell, entitySetName);
+        // 書き込み後にスキーマのキャッシュを無効化するため、次のスキーマ再構築の検索に書き込みを反映させておく
+        EntitySetAccessor accessor = EsModel.cellCtl(this.cell, entitySetName);
+        accessor.setRefreshPolicy(EsRefreshPolicy.IMMEDIATE);
+        return accessor;
     }
 
     @Override
     public ODataLinkAccessor getAccessorForLink() {
-        return EsModel.cellCtlLink(this.cell);
+        ODataLinkAccessor accessor = EsModel.cellCtlLink(this.cell);
+        accessor.setRefreshPolicy(EsRefreshPolicy.IMMEDIATE);
+        return accessor;
     }
 
     @Override
@@ -185,12 +191,12 @@ public class UserSchemaODataProducer extends EsODataProducer {
     }
 
     @Override
-    public void afterUpdate() {
+    public void afterUpdate(final String entitySetName) {
         UserDataSchemaCache.disable(this.davCmp.getNodeId());
     }
 
     @Override
-    public void afterDelete() {
+    public void afterDelete(final String entitySetName) {
         UserDataSchemaCache.disable(this.davCmp.getNodeId());
     }
 
@@ -19,6 +19,7 @@ package com.fujitsu.dc.core.model.impl.es.repair;
 import java.util.ArrayList;
 import java.util.HashMap;
 import java.util.List;
+import java.util.Map;
 
 import org.json.simple.JSONObject;
 import org.slf4j.Logger;
@@ -32,6 +33,7 @@ import com.fujitsu.dc.core.model.Cell;
 import com.fujitsu.dc.core.model.DavNode;
 import com.fujitsu.dc.core.model.impl.es.ads.Ads;
 import com.fujitsu.dc.core.model.impl.es.ads.AdsException;
+import com.fujitsu.dc.core.model.impl.es.ads.AdsRangeDigest;
 import com.fujitsu.dc.core.model.impl.es.ads.JdbcAds;
 import com.fujitsu.dc.core.model.impl.es.doc.CellDocHandler;
 import com.fujitsu.dc.core.model.impl.es.doc.EntitySetDocHandler;
@@ -81,9 +83,19 @@ public class AdsAccessor {
     public static List<JSONObject> getIdListOnAds(AdsWriteFailureLogInfo logInfo) throws AdsException {
         List<String> idList = new ArrayList<String>();
         idList.add(logInfo.getUuid());
+        return searchAds(logInfo.getIndexName(), logInfo.getType(), idList);
+    }
 
-        String indexName = logInfo.getIndexName();
-        String type = logInfo.getType();
+    /**
+     * ADSから指定したIDのデータを検索する.
+     * @param indexName インデックス名
+     * @param type ESのタイプ名
+     * @param idList 検索対象のuuidリスト
+     * @return 検索結果
+     * @throws AdsException AdsException
+     */
+    public static List<JSONObject> searchAds(String indexName, String type, List<String> idList)
+            throws AdsException {
         if (Cell.EDM_TYPE_NAME.equals(type)) {
             return ads.searchCellList(indexName, idList);
         } else if ("link".equals(type)) {
@@ -95,6 +107,79 @@ public class AdsAccessor {
         }
     }
 
+    /**
+     * ADSからデータの件数を取得する.
+     * @param indexName インデックス名
+     * @param type ESのタイプ名. link/dav以外(null含む)の場合はENTITYテーブルが対象となる
+     * @return 件数
+     * @throws AdsException AdsException
+     */
+    public static long countAds(String indexName, String type) throws AdsException {
+        if ("link".equals(type)) {
+            return ads.countLink(indexName);
+        } else if ("dav".equals(type)) {
+            return ads.countDavNode(indexName);
+        } else {
+            return ads.countEntity(indexName);
+        }
+    }
+
+    /**
+     * ADSからIDが接頭辞で始まるデータのダイジェストを、接頭辞の次の1文字ごとに取得する.
+     * @param indexName インデックス名
+     * @param type ESのタイプ名. link/dav以外(null含む)の場合はENTITYテーブルが対象となる
+     * @param idPrefix IDの接頭辞
+     * @return 接頭辞の次の1文字とダイジェストのMap
+     * @throws AdsException AdsException
+     */
+    public static Map<String, AdsRangeDigest> digestAdsByIdPrefix(String indexName, String type, String idPrefix)
+            throws AdsException {
+        if ("link".equals(type)) {
+            return ads.digestLinkByIdPrefix(indexName, idPrefix);
+        } else if ("dav".equals(type)) {
+            return ads.digestDavNodeByIdPrefix(indexName, idPrefix);
+        } else {
+            return ads.digestEntityByIdPrefix(indexName, idPrefix);
+        }
+    }
+
+    /**
+     * ADSからIDが接頭辞で始まるデータのダイジェストを取得する.
+     * @param indexName インデックス名
+     * @param type ESのタイプ名. link/dav以外(null含む)の場合はENTITYテーブルが対象となる
+     * @param idPrefix IDの接頭辞
+     * @return ダイジェスト
+     * @throws AdsException AdsException
+     */
+    public static AdsRangeDigest digestAds(String indexName, String type, String idPrefix) throws AdsException {
+        if ("link".equals(type)) {
+            return ads.digestLink(indexName, idPrefix);
+        } else if ("dav".equals(type)) {
+            return ads.digestDavNode(indexName, idPrefix);
+        } else {
+            return ads.digestEntity(indexName, idPrefix);
+        }
+    }
+
+    /**
+     * ADSからIDが接頭辞で始まるデータのID、タイプ、更新日時等を取得する.
+     * @param indexName インデックス名
+     * @param type ESのタイプ名. link/dav以外(null含む)の場合はENTITYテーブルが対象となる
+     * @param idPrefix IDの接頭辞
+     * @return 検索結果
+     * @throws AdsException AdsException
+     */
+    public static List<JSONObject> getVersionListOnAds(String indexName, String type, String idPrefix)
+            throws AdsException {
+        if ("link".equals(type)) {
+            return ads.getLinkVersionList(indexName, idPrefix);
+        } else if ("dav".equals(type)) {
+            return ads.getDavNodeVersionList(indexName, idPrefix);
+        } else {
+            return ads.getEntityVersionList(indexName, idPrefix);
+        }
+    }
+
     /**
      * リペア対象のデータをADSに登録する.
      * @param indexName リペア対象インデックス名
@@ -104,8 +189,19 @@ public class AdsAccessor {
      */
     public static void createAds(String indexName, String type,
             DcSearchResponse esResponse) throws AdsException {
+        createAds(indexName, type, esResponse.getHits().getHits()[0]);
+    }
+
+    /**
+     * ESから取得したデータをADSに登録する.
+     * @param indexName インデックス名
+     * @param type ESのタイプ名
+     * @param hit ESから取得したデータ
+     * @throws AdsException AdsException
+     */
+    public static void createAds(String indexName, String type, DcSearchHit hit) throws AdsException {
         // MySQLへデータ登録処理
-        DcSearchHit[] dcSearchHit = esResponse.getHits().getHits();
+        DcSearchHit[] dcSearchHit = new DcSearchHit[] {hit };
         try {
             if (Cell.EDM_TYPE_NAME.equals(type)) {
                 // CELLテーブルに登録
@@ -142,6 +238,49 @@ public class AdsAccessor {
         }
     }
 
+    /**
+     * ESから取得したデータをADSに一括登録する. 一括登録に対応していないタイプの場合は何もしない.
+     * @param indexName インデックス名
+     * @param type ESのタイプ名
+     * @param hits ESから取得したデータ
+     * @return 一括登録した場合は真. 一括登録に対応していないタイプ(Cell/dav)の場合は偽
+     * @throws AdsException AdsException
+     */
+    public static boolean bulkCreateAds(String indexName, String type, List<DcSearchHit> hits)
+            throws AdsException {
+        try {
+            if (Cell.EDM_TYPE_NAME.equals(type) || "dav".equals(type)) {
+                return false;
+            } else if ("link".equals(type)) {
+                // LINKテーブルに一括登録
+                List<LinkDocHandler> ldhs = new ArrayList<LinkDocHandler>(hits.size());
+                for (DcSearchHit hit : hits) {
+                    ldhs.add(new LinkDocHandler(hit));
+                }
+                ads.bulkCreateLink(indexName, ldhs);
+            } else {
+                // ENTITYテーブルに一括登録
+                List<EntitySetDocHandler> oedhs = new ArrayList<EntitySetDocHandler>(hits.size());
+                for (DcSearchHit hit : hits) {
+                    EntitySetDocHandler oedh;
+                    if (type.equals(UserDataODataProducer.USER_ODATA_NAMESPACE)) {
+                        oedh = new UserDataDocHandler(hit);
+                    } else {
+                        oedh = new OEntityDocHandler(hit);
+                    }
+                    if (oedh.getDynamicFields() == null) {
+                        oedh.setDynamicFields(new HashMap<String, Object>());
+                    }
+                    oedhs.add(oedh);
+                }
+                ads.bulkEntity(indexName, oedhs);
+            }
+        } catch (DcCoreException e) {
+            throw new AdsException(e);
+        }
+        return true;
+    }
+
     /**
      * リペア対象のデータをADSに更新する.
      * @param indexName リペア対象インデックス名
@@ -151,9 +290,20 @@ public class AdsAccessor {
      */
     public static void updateAds(String indexName, String type,
             DcSearchResponse esResponse) throws AdsException {
+        updateAds(indexName, type, esResponse.getHits().getHits()[0]);
+    }
+
+    /**
+     * ESから取得したデータでADSを更新する.
+     * @param indexName インデックス名
+     * @param type ESのタイプ名
+     * @param hit ESから取得したデータ
+     * @throws AdsException AdsException
+     */
+    public static void updateAds(String indexName, String type, DcSearchHit hit) throws AdsException {
         try {
             // MySQLへデータ更新処理
-            DcSearchHit[] dcSearchHit = esResponse.getHits().getHits();
+            DcSearchHit[] dcSearchHit = new DcSearchHit[] {hit };
             if (Cell.EDM_TYPE_NAME.equals(type)) {
                 // CELLテーブルに更新
                 EntitySetDocHandler oedh = new CellDocHandler(dcSearchHit[0]);
@@ -214,4 +364,13 @@ public class AdsAccessor {
             ads.deleteEntity(indexName, idList);
         }
     }
+
+    /**
+     * ADS上にインデックスを作成する.
+     * @param indexName インデックス名
+     * @throws AdsException AdsException
+     */
+    public static void createIndex(String indexName) throws AdsException {
+        ads.createIndex(indexName);
+    }
 }
@@ -0,0 +1,565 @@
+/**
+ * personium.io
+ * Copyright 2014 FUJITSU LIMITED
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.fujitsu.dc.core.model.impl.es.repair;
+
+import java.io.File;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+
+import org.json.simple.JSONObject;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.fujitsu.dc.common.ads.AdsWriteFailureLogException;
+import com.fujitsu.dc.common.ads.AdsWriteFailureLogInfo;
+import com.fujitsu.dc.common.ads.AdsWriteFailureLogWriter;
+import com.fujitsu.dc.common.es.EsIndex;
+import com.fujitsu.dc.common.es.response.DcSearchHit;
+import com.fujitsu.dc.common.es.response.EsClientException;
+import com.fujitsu.dc.core.DcCoreConfig;
+import com.fujitsu.dc.core.DcCoreException;
+import com.fujitsu.dc.core.model.Cell;
+import com.fujitsu.dc.core.model.impl.es.ads.AdsException;
+import com.fujitsu.dc.core.model.impl.es.ads.AdsJournal;
+import com.fujitsu.dc.core.model.lock.Lock;
+
+/**
+ * ADSへの書き込みをリクエストから切り離して非同期に反映する処理.
+ * <p>
+ * リクエスト処理ではESへの書き込み成功後に更新対象のキー(ADS書き込み失敗ログと同じ形式)をローカルのジャーナル({@link AdsJournal})へ
+ * 追記・fsyncしてから応答し、ADSへは書き込まない。バックグラウンドスレッドがジャーナルを古い順に読み、
+ * リペア処理と同じくElasticsearch上のデータを基準として、一定件数ごとにまとめてADSへ反映する。
+ * 反映はキーのロックを取得した上でESの最新の状態をADSへ写すため、同じ更新を再度反映しても結果は変わらない。
+ * 反映済みの位置はチェックポイントとして記録し、再起動時はその位置から再開するため、各更新の反映結果は1回分となる。
+ * </p>
+ * <p>
+ * 未反映の更新が上限を超えた場合は一定時間待ち、それでも空かなければ受け付けない。
+ * 受け付けなかった更新は、呼出し元が従来どおり同期的にADSへ書き込む(書き込み速度がADSの処理速度に抑えられる)。
+ * </p>
+ */
+public final class AdsReplicator {
+
+    static Logger log = LoggerFactory.getLogger(AdsReplicator.class);
+
+    private static AdsReplicator instance = new AdsReplicator(
+            DcCoreConfig.isAdsWriteBehindEnabled()
+                    && DcCoreConfig.ES.ADS.TYPE_JDBC.equals(DcCoreConfig.getEsAdsType()),
+            DcCoreConfig.getAdsWriteBehindJournalDir(),
+            DcCoreConfig.getAdsWriteBehindSegmentMaxBytes(),
+            DcCoreConfig.getAdsWriteBehindDrainIntervalInMillis(),
+            DcCoreConfig.getAdsWriteBehindBatchSize(),
+            DcCoreConfig.getAdsWriteBehindMaxBacklogBytes(),
+            DcCoreConfig.getAdsWriteBehindBackpressureWaitInMillis());
+
+    /**
+     * ESとADSの間でデータを写す処理.
+     */
+    interface Applier {
+        /**
+         * ESのインデックスをrefreshし、書き込み済みのドキュメントを検索対象にする.
+         * @param indexName ESのインデックス名
+         */
+        void refreshEs(String indexName);
+
+        /**
+         * ESから指定したIDのデータを取得する.
+         * @param indexName ESのインデックス名
+         * @param routingId ルーティングID
+         * @param type タイプ名
+         * @param ids ID
+         * @return IDとデータのMap. ESに存在しないIDは含まない
+         * @throws EsClientException ESへのアクセスに失敗した場合
+         */
+        Map<String, DcSearchHit> searchEs(String indexName, String routingId, String type, List<String> ids);
+
+        /**
+         * ADSに存在するIDを取得する.
+         * @param indexName ADSのインデックス名
+         * @param type タイプ名
+         * @param ids ID
+         * @return ADSに存在するID
+         * @throws AdsException ADSへのアクセスに失敗した場合
+         */
+        Set<String> searchAds(String indexName, String type, List<String> ids) throws AdsException;
+
+        /**
+         * ADSにデータを登録する.
+         * @param indexName ADSのインデックス名
+         * @param type タイプ名
+         * @param hit ESから取得したデータ
+         * @throws AdsException ADSへのアクセスに失敗した場合
+         */
+        void create(String indexName, String type, DcSearchHit hit) throws AdsException;
+
+        /**
+         * ADSのデータを更新する.
+         * @param indexName ADSのインデックス名
+         * @param type タイプ名
+         * @param hit ESから取得したデータ
+         * @throws AdsException ADSへのアクセスに失敗した場合
+         */
+        void update(String indexName, String type, DcSearchHit hit) throws AdsException;
+
+        /**
+         * ADSのデータを削除する.
+         * @param indexName ADSのインデックス名
+         * @param type タイプ名
+         * @param id ID
+         * @throws AdsException ADSへのアクセスに失敗した場合
+         */
+        void delete(String indexName, String type, String id) throws AdsException;
+
+        /**
+         * 反映中はキーのロックを取得する.
+         * @param lockKey ロックキー
+         * @return ロック. 取得できない場合はnull
+         */
+        Lock lock(String lockKey);
+    }
+
+    private final boolean enabled;
+    private final String journalDir;
+    private final long segmentMaxBytes;
+    private final long drainIntervalInMillis;
+    private final int batchSize;
+    private final long maxBacklogBytes;
+    private final long backpressureWaitInMillis;
+    private final Object backlogMonitor = new Object();
+
+    private volatile AdsJournal journal;
+    private volatile ScheduledExecutorService drainer;
+    private Applier applier = new EsToAdsApplier();
+
+    /**
+     * コンストラクタ.
+     * @param enabled 非同期に反映するか否か
+     * @param journalDir ジャーナルを格納するディレクトリ
+     * @param segmentMaxBytes ジャーナルのセグメントを切り替えるサイズ(byte)
+     * @param drainIntervalInMillis ADSへの反映間隔(ms)
+     * @param batchSize 1回にまとめて反映する件数
+     * @param maxBacklogBytes 未反映の更新の上限(byte)
+     * @param backpressureWaitInMillis 未反映の更新が上限を超えた場合に空きを待つ時間(ms)
+     */
+    AdsReplicator(boolean enabled, String journalDir, long segmentMaxBytes, long drainIntervalInMillis,
+            int batchSize, long maxBacklogBytes, long backpressureWaitInMillis) {
+        this.enabled = enabled;
+        this.journalDir = journalDir;
+        this.segmentMaxBytes = segmentMaxBytes;
+        this.drainIntervalInMillis = drainIntervalInMillis;
+        this.batchSize = Math.max(1, batchSize);
+        this.maxBacklogBytes = maxBacklogBytes;
+        this.backpressureWaitInMillis = backpressureWaitInMillis;
+    }
+
+    /**
+     * @return インスタンス
+     */
+    public static AdsReplicator getInstance() {
+        return instance;
+    }
+
+    /**
+     * @return 非同期に反映するか否か
+     */
+    public boolean isEnabled() {
+        return this.enabled;
+    }
+
+    /**
+     * @param a ESとADSの間でデータを写す処理
+     */
+    void setApplier(Applier a) {
+        this.applier = a;
+    }
+
+    /**
+     * ESへ書き込んだ更新を、ADSへ非同期に反映するよう受け付ける. 受け付けた更新はジャーナルに永続化されている.
+     * @param records 更新対象のキー
+     * @return 受け付けた場合は真. 偽の場合、呼出し元は同期的にADSへ書き込むこと
+     */
+    public boolean replicate(List<AdsWriteFailureLogInfo> records) {
+        if (!this.enabled || records.isEmpty()) {
+            return false;
+        }
+        try {
+            AdsJournal j = journal();
+            if (!awaitBacklog(j)) {
+                log.info("Ads write-behind backlog is full. Writing to ads synchronously.");
+                return false;
+            }
+            j.sync(j.append(records));
+        } catch (AdsWriteFailureLogException e) {
+            log.warn("Failed to append to adsJournal. Writing to ads synchronously.", e);
+            return false;
+        }
+        start();
+        return true;
+    }
+
+    private boolean awaitBacklog(AdsJournal j) {
+        if (j.getPendingBytes() < this.maxBacklogBytes) {
+            return true;
+        }
+        long deadline = System.currentTimeMillis() + this.backpressureWaitInMillis;
+        synchronized (this.backlogMonitor) {
+            while (j.getPendingBytes() >= this.maxBacklogBytes) {
+                long remaining = deadline - System.currentTimeMillis();
+                if (remaining <= 0) {
+                    return false;
+                }
+                try {
+                    this.backlogMonitor.wait(remaining);
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    return false;
+                }
+            }
+        }
+        return true;
+    }
+
+    private AdsJournal journal() throws AdsWriteFailureLogException {
+        if (this.journal == null) {
+            synchronized (this) {
+                if (this.journal == null) {
+                    this.journal = new AdsJournal(new File(this.journalDir), DcCoreConfig.getCoreVersion(),
+                            this.segmentMaxBytes);
+                }
+            }
+        }
+        return this.journal;
+    }
+
+    /**
+     * ADSへの反映を開始する. 前回の停止時に未反映の更新があれば反映する.
+     */
+    public void start() {
+        if (!this.enabled || this.drainer != null) {
+            return;
+        }
+        synchronized (this) {
+            if (this.drainer != null) {
+                return;
+            }
+            ScheduledExecutorService executor = Executors.newSingleThreadScheduledExecutor(new ThreadFactory() {
+                @Override
+                public Thread newThread(Runnable r) {
+                    Thread thread = new Thread(r, "AdsReplicator");
+                    thread.setDaemon(true);
+                    return thread;
+                }
+            });
+            executor.scheduleWithFixedDelay(new Runnable() {
+                @Override
+                public void run() {
+                    try {
+                        drain();
+                    } catch (RuntimeException e) {
+                        log.info("Failed to replicate to ads.", e);
+                    }
+                }
+            }, 0, this.drainIntervalInMillis, TimeUnit.MILLISECONDS);
+            this.drainer = executor;
+        }
+    }
+
+    /**
+     * ADSへの反映を停止する. 反映中のまとまりは完了を待つ.
+     * @param awaitInMillis 完了を待つ時間(ms)
+     */
+    public void shutdown(long awaitInMillis) {
+        ScheduledExecutorService executor;
+        synchronized (this) {
+            executor = this.drainer;
+            this.drainer = null;
+        }
+        if (executor == null) {
+            return;
+        }
+        executor.shutdown();
+        try {
+            if (!executor.awaitTermination(awaitInMillis, TimeUnit.MILLISECONDS)) {
+                log.warn("AdsReplicator has not been terminated. Remaining records will be replicated on restart.");
+                executor.shutdownNow();
+            }
+        } catch (InterruptedException e) {
+            executor.shutdownNow();
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    /**
+     * ジャーナルの未反映の更新をADSへ反映する.
+     * ADSまたはESへのアクセスに失敗した場合は、反映済みの位置を進めずに中断し、次回に再開する.
+     * @return 反映した更新の件数
+     */
+    int drain() {
+        AdsJournal j;
+        try {
+            j = journal();
+            j.roll();
+        } catch (AdsWriteFailureLogException e) {
+            log.warn("Failed to roll adsJournal.", e);
+            return 0;
+        }
+        int replicated = 0;
+        try {
+            List<File> segments = j.sealedSegments();
+            if (!segments.isEmpty() && this.applier instanceof EsToAdsApplier && !AdsAccessor.initializedAds()) {
+                return 0;
+            }
+            for (File segment : segments) {
+                replicated += drainSegment(j, segment);
+                j.delete(segment);
+                synchronized (this.backlogMonitor) {
+                    this.backlogMonitor.notifyAll();
+                }
+            }
+        } catch (AdsWriteFailureLogException e) {
+            log.warn("Failed to read adsJournal. Retry later.", e);
+        } catch (AdsException e) {
+            log.info("Failed to replicate to ads. Retry later.", e);
+        } catch (EsClientException e) {
+            log.info("Failed to read from Elasticsearch. Retry later.", e);
+        } catch (DcCoreException e) {
+            // ロックを取得できない等
+            log.info("Failed to replicate to ads. Retry later. " + e.getMessage());
+        }
+        return replicated;
+    }
+
+    private int drainSegment(AdsJournal j, File segment) throws AdsWriteFailureLogException, AdsException {
+        List<String> lines = j.read(segment);
+        long done = j.readCheckpoint().recordsOf(segment);
+        int replicated = 0;
+        while (done < lines.size()) {
+            int end = (int) Math.min(lines.size(), done + this.batchSize);
+            List<AdsWriteFailureLogInfo> batch = new ArrayList<AdsWriteFailureLogInfo>();
+            for (String line : lines.subList((int) done, end)) {
+                try {
+                    batch.add(AdsWriteFailureLogInfo.parse(line));
+                } catch (AdsWriteFailureLogException e) {
+                    writeErrorLog(line);
+                    log.error("Failed to parse adsJournal record.", e);
+                }
+            }
+            apply(batch);
+            replicated += batch.size();
+            done = end;
+            j.writeCheckpoint(segment, done);
+        }
+        return replicated;
+    }
+
+    /**
+     * 更新のまとまりをADSへ反映する. 同じデータへの更新は1回の反映にまとめる.
+     * @param batch 更新
+     * @throws AdsException ADSへのアクセスに失敗した場合
+     */
+    void apply(List<AdsWriteFailureLogInfo> batch) throws AdsException {
+        // ロックキーごとに、同じデータへの更新は後勝ちで集約する
+        Map<String, Map<String, AdsWriteFailureLogInfo>> byLock =
+                new LinkedHashMap<String, Map<String, AdsWriteFailureLogInfo>>();
+        Set<String> esIndexNames = new LinkedHashSet<String>();
+        for (AdsWriteFailureLogInfo record : batch) {
+            esIndexNames.add(esIndexNameOf(record));
+            String lockKey = record.getIndexName() + "\t" + record.getLockKey();
+            Map<String, AdsWriteFailureLogInfo> records = byLock.get(lockKey);
+            if (records == null) {
+                records = new LinkedHashMap<String, AdsWriteFailureLogInfo>();
+                byLock.put(lockKey, records);
+            }
+            String key = record.getType() + "\t" + record.getUuid();
+            records.remove(key);
+            records.put(key, record);
+        }
+        // 更新はESへの書き込み完了後にジャーナルへ記録されるため、ここでrefreshすれば全ての更新がESから検索できる.
+        // refresh方針によっては書き込み直後のドキュメントが検索できず、存在しない・古いデータとしてADSへ写してしまう
+        for (String esIndexName : esIndexNames) {
+            this.applier.refreshEs(esIndexName);
+        }
+        for (Map<String, AdsWriteFailureLogInfo> records : byLock.values()) {
+            applyLocked(new ArrayList<AdsWriteFailureLogInfo>(records.values()));
+        }
+    }
+
+    private void applyLocked(List<AdsWriteFailureLogInfo> records) throws AdsException {
+        String lockKey = records.get(0).getLockKey();
+        Lock lock = null;
+        if (!lockKey.isEmpty()) {
+            lock = this.applier.lock(lockKey);
+        }
+        try {
+            // インデックス・ルーティングID・タイプごとにまとめてES/ADSを検索する
+            Map<String, List<AdsWriteFailureLogInfo>> groups =
+                    new LinkedHashMap<String, List<AdsWriteFailureLogInfo>>();
+            for (AdsWriteFailureLogInfo record : records) {
+                String key = record.getIndexName() + "\t" + record.getRoutingId() + "\t" + record.getType();
+                List<AdsWriteFailureLogInfo> group = groups.get(key);
+                if (group == null) {
+                    group = new ArrayList<AdsWriteFailureLogInfo>();
+                    groups.put(key, group);
+                }
+                group.add(record);
+            }
+            for (List<AdsWriteFailureLogInfo> group : groups.values()) {
+                applyGroup(group);
+            }
+        } finally {
+            if (lock != null) {
+                lock.release();
+            }
+        }
+    }
+
+    private void applyGroup(List<AdsWriteFailureLogInfo> group) throws AdsException {
+        AdsWriteFailureLogInfo first = group.get(0);
+        String indexName = first.getIndexName();
+        String type = first.getType();
+        String routingId = first.getRoutingId();
+        if ("".equals(routingId)) {
+            routingId = EsIndex.CELL_ROUTING_KEY_NAME;
+        }
+        String esIndexName = esIndexNameOf(first);
+        List<String> ids = new ArrayList<String>();
+        for (AdsWriteFailureLogInfo record : group) {
+            ids.add(record.getUuid());
+        }
+        Map<String, DcSearchHit> esHits = this.applier.searchEs(esIndexName, routingId, type, ids);
+        Set<String> adsIds = this.applier.searchAds(indexName, type, ids);
+
+        for (AdsWriteFailureLogInfo record : group) {
+            String id = record.getUuid();
+            DcSearchHit hit = esHits.get(id);
+            try {
+                if (hit != null && !adsIds.contains(id)) {
+                    createWithIndex(indexName, type, hit);
+                } else if (hit != null) {
+                    this.applier.update(indexName, type, hit);
+                } else if (adsIds.contains(id)) {
+                    this.applier.delete(indexName, type, id);
+                }
+            } catch (AdsException e) {
+                if (!(e.getCause() instanceof DcCoreException)) {
+                    throw e;
+                }
+                // ESのデータからADSのデータを作成できない場合は、再試行しても成功しないため退避ログに出力して次へ進む
+                writeErrorLog(record.toString());
+                log.error("Failed to replicate record to ads. Invalid data is detected in Elasticsearch.", e);
+            }
+        }
+    }
+
+    /**
+     * 更新を記録したESのインデックス名を取得する.
+     * TypeがCellである場合は、Elasticsearchのインデックス名を「{UnitPrefix}_ad」に変更する.
+     * @param record 更新
+     * @return ESのインデックス名
+     */
+    private static String esIndexNameOf(AdsWriteFailureLogInfo record) {
+        if (Cell.EDM_TYPE_NAME.equals(record.getType())) {
+            return DcCoreConfig.getEsUnitPrefix() + "_" + EsIndex.CATEGORY_AD;
+        }
+        return record.getIndexName();
+    }
+
+    private void createWithIndex(String indexName, String type, DcSearchHit hit) throws AdsException {
+        try {
+            this.applier.create(indexName, type, hit);
+        } catch (AdsException e) {
+            // ADS上にインデックスが存在しない場合は作成してから登録する
+            if (!(e.getCause() instanceof SQLException)
+                    || !"42S02".equals(((SQLException) e.getCause()).getSQLState())) {
+                throw e;
+            }
+            AdsAccessor.createIndex(indexName);
+            this.applier.create(indexName, type, hit);
+        }
+    }
+
+    private void writeErrorLog(String record) {
+        AdsWriteFailureLogWriter errorLog = AdsWriteFailureLogWriter.getInstanceforError(
+                DcCoreConfig.getAdsWriteFailureLogDir(), DcCoreConfig.getCoreVersion(),
+                DcCoreConfig.getAdsWriteFailureLogPhysicalDelete());
+        try {
+            errorLog.openActiveFile(System.currentTimeMillis());
+            errorLog.writeActiveFile(record.endsWith("\n") ? record : record + "\n");
+        } catch (AdsWriteFailureLogException e) {
+            log.error("Failed to write error information.", e);
+        }
+    }
+
+    /**
+     * リペア処理と同じアクセサでESからADSへデータを写す処理.
+     */
+    static final class EsToAdsApplier implements Applier {
+        @Override
+        public void refreshEs(String indexName) {
+            EsAccessor.refresh(indexName);
+        }
+
+        @Override
+        public Map<String, DcSearchHit> searchEs(String indexName, String routingId, String type,
+                List<String> ids) {
+            Map<String, DcSearchHit> hits = new HashMap<String, DcSearchHit>();
+            for (DcSearchHit hit : EsAccessor.search(indexName, routingId, ids, type).getHits().getHits()) {
+                hits.put(hit.getId(), hit);
+            }
+            return hits;
+        }
+
+        @Override
+        public Set<String> searchAds(String indexName, String type, List<String> ids) throws AdsException {
+            Set<String> found = new HashSet<String>();
+            for (JSONObject row : AdsAccessor.searchAds(indexName, type, ids)) {
+                found.add((String) row.get("id"));
+            }
+            return found;
+        }
+
+        @Override
+        public void create(String indexName, String type, DcSearchHit hit) throws AdsException {
+            AdsAccessor.createAds(indexName, type, hit);
+        }
+
+        @Override
+        public void update(String indexName, String type, DcSearchHit hit) throws AdsException {
+            AdsAccessor.updateAds(indexName, type, hit);
+        }
+
+        @Override
+        public void delete(String indexName, String type, String id) throws AdsException {
+            AdsAccessor.deleteAds(indexName, type, id);
+        }
+
+        @Override
+        public Lock lock(String lockKey) {
+            return RepairAds.lock(lockKey);
+        }
+    }
+}
@@ -0,0 +1,592 @@
+/**
+ * personium.io
+ * Copyright 2014 FUJITSU LIMITED
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.fujitsu.dc.core.model.impl.es.repair;
+
+import java.io.File;
+import java.io.IOException;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import org.apache.commons.io.FileUtils;
+import org.apache.commons.lang.CharEncoding;
+import org.json.simple.JSONObject;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.fujitsu.dc.common.ads.AdsWriteFailureLogException;
+import com.fujitsu.dc.common.ads.AdsWriteFailureLogInfo;
+import com.fujitsu.dc.common.ads.AdsWriteFailureLogInfo.OperationKind;
+import com.fujitsu.dc.common.ads.AdsWriteFailureLogWriter;
+import com.fujitsu.dc.common.es.EsIndex;
+import com.fujitsu.dc.common.es.response.DcSearchHit;
+import com.fujitsu.dc.common.es.response.DcSearchHits;
+import com.fujitsu.dc.common.es.response.EsClientException;
+import com.fujitsu.dc.core.DcCoreConfig;
+import com.fujitsu.dc.core.model.impl.es.EsModel;
+import com.fujitsu.dc.core.model.impl.es.ads.AdsException;
+import com.fujitsu.dc.core.model.impl.es.ads.AdsRangeDigest;
+import com.fujitsu.dc.core.model.impl.es.doc.OEntityDocHandler;
+import com.fujitsu.dc.core.model.lock.Lock;
+import com.fujitsu.dc.core.model.lock.LockKeyComposer;
+
+/**
+ * ESとADSの間の不整合を検出する処理.
+ * <p>
+ * ADS書き込み失敗ログに記録されない不整合を検出するため、インデックス(ユニットユーザ)・ADSのテーブルごとに、
+ * IDの接頭辞で区切った範囲のダイジェスト({@link AdsRangeDigest}. IDと更新日時から算出)をES/ADSで比較する。
+ * 範囲のダイジェストは接頭辞を1文字延ばした範囲ごとに取得し、一致しない範囲のみをさらに分割して比較する(Merkle木と同様)。
+ * 件数が一定以下となった範囲は、IDと更新日時の一覧を突き合わせる。
+ * </p>
+ * <p>
+ * 不整合を検出したデータはADS書き込み失敗ログに出力し、{@link RepairAds}がESのデータを基準として補正する。
+ * ADSへの反映中の更新を不整合とみなさないよう、直近に更新されたデータは対象外とする。
+ * ES/ADSから読み込む件数は1秒あたりの上限で抑え、1回の実行時間にも上限を設ける。
+ * 検証済みの位置はチェックポイントとして記録し、次回の実行はその位置から続ける。
+ * </p>
+ */
+public class AdsVerifier {
+
+    static Logger logger = LoggerFactory.getLogger(AdsVerifier.class);
+
+    /** IDに使用される文字(ASCII順). ESが採番するURLセーフなBase64形式と、16進数形式のIDの文字を含む. */
+    static final String ID_CHARS = "-0123456789ABCDEFGHIJKLMNOPQRSTUVWXYZ_abcdefghijklmnopqrstuvwxyz";
+    /** 範囲を分割する接頭辞の長さの上限. */
+    static final int MAX_PREFIX_LENGTH = 8;
+
+    private static final String MYSQL_BAD_TABLE_ERROR = "42S02";
+
+    private static AdsVerifier singleton = new AdsVerifier();
+
+    /**
+     * 検証対象のADSのテーブル.
+     */
+    enum Table {
+        /** ENTITYテーブル(link/dav以外の全タイプ). */
+        ENTITY(null),
+        /** LINKテーブル. */
+        LINK(EsModel.TYPE_CTL_LINK),
+        /** DAV_NODEテーブル. */
+        DAV_NODE("dav");
+
+        private final String type;
+
+        Table(String type) {
+            this.type = type;
+        }
+    }
+
+    private String pcsVersion;
+    private File adsLogBaseDir;
+    private int leafSize;
+    private long graceInMillis;
+    private long deadline;
+    private IoBudget budget;
+    private long mismatches;
+    // 検証中の位置. 中断した場合はチェックポイントとして記録する
+    private String currentIndex;
+    private Table currentTable;
+    private String currentPrefix;
+
+    /**
+     * デフォルトコンストラクタ（使用不可）.
+     */
+    private AdsVerifier() {
+        super();
+    }
+
+    /**
+     * インスタンスの取得.
+     * @return singletonインスタンス
+     */
+    public static AdsVerifier getInstance() {
+        return singleton;
+    }
+
+    /**
+     * ESとADSの整合性検証を実施するメイン処理.
+     * 実行時間の上限に達した場合は、検証中の位置を記録して終了する。
+     */
+    public void verify() {
+        readProperties();
+        mismatches = 0;
+        currentIndex = null;
+        try {
+            logger.info("Ads verify process started.");
+            if (!AdsAccessor.initializedAds()) {
+                throw new RepairAdsException("Failed to connect MySQL master.");
+            }
+
+            String[] checkpoint = readCheckpoint();
+            for (String indexName : collectIndices()) {
+                if (null != checkpoint && indexName.compareTo(checkpoint[0]) < 0) {
+                    continue;
+                }
+                for (Table table : Table.values()) {
+                    String resumeFrom = "";
+                    if (null != checkpoint && indexName.equals(checkpoint[0])) {
+                        if (table.compareTo(Table.valueOf(checkpoint[1])) < 0) {
+                            continue;
+                        }
+                        if (table.name().equals(checkpoint[1])) {
+                            resumeFrom = checkpoint[2];
+                        }
+                    }
+                    currentIndex = indexName;
+                    currentTable = table;
+                    currentPrefix = resumeFrom;
+                    if (!verifyTable(indexName, table, resumeFrom)) {
+                        writeCheckpoint();
+                        logger.info(String.format("Ads verify process suspended at [%s,%s,%s]. mismatches=%d",
+                                currentIndex, currentTable, currentPrefix, mismatches));
+                        return;
+                    }
+                }
+            }
+            deleteCheckpoint();
+            logger.info(String.format("Ads verify process completed all indices. mismatches=%d", mismatches));
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            writeCheckpoint();
+            logger.info("Ads verify process is interrupted.");
+        } catch (Throwable e) {
+            writeCheckpoint();
+            logger.error("An error is detected in ads verify process.", e);
+        }
+    }
+
+    /**
+     * プロパティ情報を読み込む.
+     */
+    private void readProperties() {
+        pcsVersion = DcCoreConfig.getCoreVersion();
+        adsLogBaseDir = new File(DcCoreConfig.getAdsWriteFailureLogDir());
+        leafSize = Math.max(1, DcCoreConfig.getAdsVerifyLeafSize());
+        graceInMillis = DcCoreConfig.getAdsVerifyGraceInSec() * 1000L;
+        deadline = System.currentTimeMillis() + DcCoreConfig.getAdsVerifyMaxRunInSec() * 1000L;
+        budget = new IoBudget(DcCoreConfig.getAdsVerifyIoBudgetPerSec());
+    }
+
+    /**
+     * 検証対象のインデックス(ユニットユーザ)名の一覧を取得する.
+     * @return インデックス名の一覧(昇順)
+     */
+    private List<String> collectIndices() {
+        String unitPrefix = DcCoreConfig.getEsUnitPrefix() + "_";
+        String adminIndex = unitPrefix + EsIndex.CATEGORY_AD;
+        List<String> indices = new ArrayList<String>();
+        for (String indexName : EsModel.client().indicesStatus().getIndices()) {
+            if (indexName.startsWith(unitPrefix) && !indexName.equals(adminIndex)) {
+                indices.add(indexName);
+            }
+        }
+        Collections.sort(indices);
+        return indices;
+    }
+
+    /**
+     * テーブル単位で検証する.
+     * 全体の件数が少ない場合はテーブル全体を1つの範囲として比較し、多い場合はIDの先頭1文字ごとの範囲に分割する。
+     * @param indexName インデックス名
+     * @param table テーブル
+     * @param resumeFrom 検証を再開する範囲の接頭辞. 先頭から検証する場合は空文字
+     * @return 最後まで検証した場合は真. 実行時間の上限に達して中断した場合は偽
+     */
+    private boolean verifyTable(String indexName, Table table, String resumeFrom)
+            throws RepairAdsException, InterruptedException {
+        long adsCount;
+        long esCount;
+        try {
+            adsCount = AdsAccessor.countAds(indexName, table.type);
+            esCount = EsAccessor.countByIdPrefix(indexName, table.type, Arrays.asList(""))[0];
+        } catch (AdsException e) {
+            if (e.getCause() instanceof SQLException
+                    && MYSQL_BAD_TABLE_ERROR.equals(((SQLException) e.getCause()).getSQLState())) {
+                // ADS上にインデックスが作成されていない場合は、検証対象外とする
+                logger.info(String.format("Ads index does not exist. Skip verifying. [%s,%s]", indexName, table));
+                return true;
+            }
+            throw new RepairAdsException(String.format("Failed to count records on ads. [%s,%s]",
+                    indexName, table), e);
+        } catch (EsClientException e) {
+            throw new RepairAdsException(String.format("Failed to count documents on Elasticsearch. [%s,%s]",
+                    indexName, table), e);
+        }
+        if (adsCount == 0 && esCount == 0) {
+            return true;
+        }
+        if (Math.max(adsCount, esCount) <= leafSize) {
+            verifyLeaf(indexName, table, "", esCount);
+            return true;
+        }
+        for (int i = 0; i < ID_CHARS.length(); i++) {
+            String child = String.valueOf(ID_CHARS.charAt(i));
+            if (isVerified(child, resumeFrom)) {
+                continue;
+            }
+            if (isExpired(child)) {
+                return false;
+            }
+            if (!verifyRange(indexName, table, child, resumeFrom)) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * IDが接頭辞で始まる範囲を検証する.
+     * 接頭辞を1文字延ばした範囲ごとのダイジェストをES/ADSで取得し、範囲全体のダイジェストが一致する場合は終了する。
+     * 一致しない場合は、ダイジェストが異なる範囲のみ、件数が一定以下であれば一覧を突き合わせ、多ければさらに分割して検証する。
+     * @param indexName インデックス名
+     * @param table テーブル
+     * @param idPrefix IDの接頭辞
+     * @param resumeFrom 検証を再開する範囲の接頭辞. 先頭から検証する場合は空文字
+     * @return 最後まで検証した場合は真. 実行時間の上限に達して中断した場合は偽
+     */
+    private boolean verifyRange(String indexName, Table table, String idPrefix, String resumeFrom)
+            throws RepairAdsException, InterruptedException {
+        currentPrefix = idPrefix;
+        Map<String, AdsRangeDigest> adsDigests;
+        Map<String, AdsRangeDigest> esDigests;
+        try {
+            adsDigests = AdsAccessor.digestAdsByIdPrefix(indexName, table.type, idPrefix);
+            esDigests = EsAccessor.digestByIdPrefix(indexName, table.type, idPrefix);
+        } catch (AdsException e) {
+            throw new RepairAdsException(String.format("Failed to get digest from ads. [%s,%s,%s]",
+                    indexName, table, idPrefix), e);
+        } catch (EsClientException e) {
+            throw new RepairAdsException(String.format("Failed to get digest from Elasticsearch. [%s,%s,%s]",
+                    indexName, table, idPrefix), e);
+        }
+        AdsRangeDigest adsDigest = new AdsRangeDigest();
+        for (AdsRangeDigest digest : adsDigests.values()) {
+            adsDigest.add(digest);
+        }
+        AdsRangeDigest esDigest = new AdsRangeDigest();
+        for (AdsRangeDigest digest : esDigests.values()) {
+            esDigest.add(digest);
+        }
+        // ADSでは範囲内の件数分のインデックスを走査し、ESでは範囲内の全件のIDと更新日時を読み込む
+        budget.consume(adsDigest.getCount() + esDigest.getCount());
+
+        if (esDigest.equals(adsDigest)) {
+            return true;
+        }
+        if (Math.max(adsDigest.getCount(), esDigest.getCount()) <= leafSize
+                || idPrefix.length() >= MAX_PREFIX_LENGTH) {
+            verifyLeaf(indexName, table, idPrefix, esDigest.getCount());
+            return true;
+        }
+        Set<String> nexts = new HashSet<String>(adsDigests.keySet());
+        nexts.addAll(esDigests.keySet());
+        for (String next : nexts) {
+            if (next == null || next.length() != 1 || ID_CHARS.indexOf(next) < 0) {
+                if (!getDigest(esDigests, next).equals(getDigest(adsDigests, next))) {
+                    logger.info(String.format("Records with unexpected id are not verified. [%s,%s,%s%s]",
+                            indexName, table, idPrefix, next));
+                }
+            }
+        }
+        for (int i = 0; i < ID_CHARS.length(); i++) {
+            String next = String.valueOf(ID_CHARS.charAt(i));
+            String child = idPrefix + next;
+            if (isVerified(child, resumeFrom)) {
+                continue;
+            }
+            if (isExpired(child)) {
+                return false;
+            }
+            AdsRangeDigest adsChild = getDigest(adsDigests, next);
+            AdsRangeDigest esChild = getDigest(esDigests, next);
+            if (esChild.equals(adsChild)) {
+                continue;
+            }
+            if (Math.max(adsChild.getCount(), esChild.getCount()) <= leafSize) {
+                currentPrefix = child;
+                verifyLeaf(indexName, table, child, esChild.getCount());
+            } else if (!verifyRange(indexName, table, child, resumeFrom)) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private static AdsRangeDigest getDigest(Map<String, AdsRangeDigest> digests, String next) {
+        AdsRangeDigest digest = digests.get(next);
+        if (null == digest) {
+            return new AdsRangeDigest();
+        }
+        return digest;
+    }
+
+    /**
+     * 再開位置より前の検証済みの範囲か否かを判定する.
+     * @param idPrefix 範囲の接頭辞
+     * @param resumeFrom 検証を再開する範囲の接頭辞
+     * @return 検証済みの場合は真
+     */
+    private static boolean isVerified(String idPrefix, String resumeFrom) {
+        return idPrefix.compareTo(resumeFrom) < 0 && !resumeFrom.startsWith(idPrefix);
+    }
+
+    /**
+     * 実行時間の上限に達したか否かを判定する. 達した場合は、次に検証する範囲を記録する.
+     * @param next 次に検証する範囲の接頭辞
+     * @return 上限に達した場合は真
+     */
+    private boolean isExpired(String next) {
+        if (System.currentTimeMillis() < deadline) {
+            return false;
+        }
+        currentPrefix = next;
+        return true;
+    }
+
+    /**
+     * IDが接頭辞で始まる範囲について、ダイジェストを比較し、一致しない場合はIDと更新日時の一覧を突き合わせる.
+     * @param indexName インデックス名
+     * @param table テーブル
+     * @param idPrefix IDの接頭辞
+     * @param esCount ESの件数
+     */
+    private void verifyLeaf(String indexName, Table table, String idPrefix, long esCount)
+            throws RepairAdsException, InterruptedException {
+        Map<String, DcSearchHit> esHits = new LinkedHashMap<String, DcSearchHit>();
+        AdsRangeDigest esDigest = new AdsRangeDigest();
+        AdsRangeDigest adsDigest;
+        try {
+            // 件数の取得後に追加されたドキュメントも取得できるよう、余裕を持たせて取得する
+            DcSearchHits hits = EsAccessor.searchByIdPrefix(indexName, table.type, idPrefix,
+                    (int) Math.min(Integer.MAX_VALUE, esCount + leafSize));
+            if (hits.getAllPages() > hits.getCount()) {
+                logger.info(String.format("Documents increased while verifying. Skip verifying. [%s,%s,%s]",
+                        indexName, table, idPrefix));
+                return;
+            }
+            budget.consume(hits.getCount());
+            for (DcSearchHit hit : hits.getHits()) {
+                esHits.put(hit.getId(), hit);
+                esDigest.add(hit.getId(), getUpdated(hit.getSource()));
+            }
+            adsDigest = AdsAccessor.digestAds(indexName, table.type, idPrefix);
+            budget.consume(adsDigest.getCount());
+            if (esDigest.equals(adsDigest)) {
+                return;
+            }
+
+            List<JSONObject> adsRows = AdsAccessor.getVersionListOnAds(indexName, table.type, idPrefix);
+            budget.consume(adsRows.size());
+            logger.info(String.format("Digest mismatch is detected. [%s,%s,%s] es=%s, ads=%s",
+                    indexName, table, idPrefix, esDigest, adsDigest));
+            for (AdsWriteFailureLogInfo logInfo : diff(indexName, esHits, adsRows,
+                    System.currentTimeMillis() - graceInMillis)) {
+                writeAdsWriteFailureLog(logInfo);
+                mismatches++;
+            }
+        } catch (AdsException e) {
+            throw new RepairAdsException(String.format("Failed to get records from ads. [%s,%s,%s]",
+                    indexName, table, idPrefix), e);
+        } catch (EsClientException e) {
+            throw new RepairAdsException(String.format("Failed to get documents from Elasticsearch. [%s,%s,%s]",
+                    indexName, table, idPrefix), e);
+        }
+    }
+
+    /**
+     * ESとADSのIDと更新日時を突き合わせ、補正が必要なデータのADS書き込み失敗情報を生成する.
+     * @param indexName インデックス名
+     * @param esHits ESのIDとドキュメントのMap
+     * @param adsRows ADSのデータ
+     * @param graceFrom この時刻以降に更新されたデータは対象外とする
+     * @return 補正が必要なデータのADS書き込み失敗情報
+     */
+    @SuppressWarnings("unchecked")
+    static List<AdsWriteFailureLogInfo> diff(String indexName, Map<String, DcSearchHit> esHits,
+            List<JSONObject> adsRows, long graceFrom) {
+        List<AdsWriteFailureLogInfo> logInfos = new ArrayList<AdsWriteFailureLogInfo>();
+        Set<String> adsIds = new HashSet<String>();
+        for (JSONObject row : adsRows) {
+            String id = (String) row.get("id");
+            Map<String, Object> source = (Map<String, Object>) row.get("source");
+            long adsUpdated = getUpdated(source);
+            adsIds.add(id);
+            DcSearchHit hit = esHits.get(id);
+            if (null == hit) {
+                // ESに存在せずADSに存在する場合は削除
+                if (adsUpdated < graceFrom) {
+                    logInfos.add(createLogInfo(indexName, (String) row.get("type"), id, source,
+                            OperationKind.DELETE, 0, adsUpdated));
+                }
+                continue;
+            }
+            long esUpdated = getUpdated(hit.getSource());
+            if (esUpdated != adsUpdated && Math.max(esUpdated, adsUpdated) < graceFrom) {
+                // 更新日時が異なる場合はESのデータで更新
+                logInfos.add(createLogInfo(indexName, hit.getType(), id, hit.getSource(),
+                        OperationKind.UPDATE, hit.getVersion(), esUpdated));
+            }
+        }
+        for (DcSearchHit hit : esHits.values()) {
+            long esUpdated = getUpdated(hit.getSource());
+            if (!adsIds.contains(hit.getId()) && esUpdated < graceFrom) {
+                // ESに存在しADSに存在しない場合は登録
+                logInfos.add(createLogInfo(indexName, hit.getType(), hit.getId(), hit.getSource(),
+                        OperationKind.CREATE, hit.getVersion(), esUpdated));
+            }
+        }
+        return logInfos;
+    }
+
+    private static AdsWriteFailureLogInfo createLogInfo(String indexName, String type, String id,
+            Map<String, Object> source, OperationKind operation, long esVersion, long updated) {
+        String cellId = (String) source.get(OEntityDocHandler.KEY_CELL_ID);
+        String boxId = (String) source.get(OEntityDocHandler.KEY_BOX_ID);
+        String nodeId = (String) source.get(OEntityDocHandler.KEY_NODE_ID);
+        String lockKey;
+        if ("dav".equals(type)) {
+            lockKey = LockKeyComposer.fullKeyFromCategoryAndKey(Lock.CATEGORY_DAV, null, boxId, id);
+        } else {
+            lockKey = LockKeyComposer.fullKeyFromCategoryAndKey(Lock.CATEGORY_ODATA, cellId, null, nodeId);
+        }
+        String routingId = null == cellId ? "" : cellId;
+        return new AdsWriteFailureLogInfo(indexName, type, lockKey, routingId, id, operation, esVersion, updated);
+    }
+
+    static long getUpdated(Map<String, Object> source) {
+        Object updated = null == source ? null : source.get(OEntityDocHandler.KEY_UPDATED);
+        if (updated instanceof Number) {
+            return ((Number) updated).longValue();
+        }
+        return 0L;
+    }
+
+    /**
+     * 補正が必要なデータをADS書き込み失敗ログに出力する.
+     * @param logInfo ADS書き込み失敗情報
+     * @throws RepairAdsException 出力に失敗した場合
+     */
+    private void writeAdsWriteFailureLog(AdsWriteFailureLogInfo logInfo) throws RepairAdsException {
+        AdsWriteFailureLogWriter writer = AdsWriteFailureLogWriter.getInstance(
+                adsLogBaseDir.getPath(), pcsVersion, DcCoreConfig.getAdsWriteFailureLogPhysicalDelete());
+        try {
+            writer.writeActiveFile(logInfo);
+        } catch (AdsWriteFailureLogException e) {
+            // 出力できない場合は、次回この範囲から検証し直す
+            throw new RepairAdsException("Failed to write adsWriteFailureLog. " + logInfo.toString(), e);
+        }
+    }
+
+    private File getCheckpointFile() {
+        return new File(adsLogBaseDir, String.format("adsVerify_%s.checkpoint", pcsVersion));
+    }
+
+    /**
+     * 検証を再開する位置を取得する.
+     * @return インデックス名、テーブル名、接頭辞の配列. 記録されていない場合はnull
+     */
+    private String[] readCheckpoint() {
+        File checkpoint = getCheckpointFile();
+        if (!checkpoint.isFile()) {
+            return null;
+        }
+        try {
+            String[] values = FileUtils.readFileToString(checkpoint, CharEncoding.UTF_8).split("\t", -1);
+            if (values.length == 3) {
+                Table.valueOf(values[1]);
+                return values;
+            }
+            logger.warn("Verify checkpoint is broken. Verify from the beginning.");
+        } catch (IOException e) {
+            logger.warn("Failed to read verify checkpoint. Verify from the beginning.", e);
+        } catch (IllegalArgumentException e) {
+            logger.warn("Verify checkpoint is broken. Verify from the beginning.", e);
+        }
+        return null;
+    }
+
+    /**
+     * 検証中の位置を記録する.
+     */
+    private void writeCheckpoint() {
+        if (null == currentIndex) {
+            return;
+        }
+        File checkpoint = getCheckpointFile();
+        File tmp = new File(checkpoint.getPath() + ".tmp");
+        try {
+            FileUtils.writeStringToFile(tmp, currentIndex + "\t" + currentTable.name() + "\t" + currentPrefix,
+                    CharEncoding.UTF_8);
+            if (!tmp.renameTo(checkpoint) && !(checkpoint.delete() && tmp.renameTo(checkpoint))) {
+                logger.warn("Failed to rename verify checkpoint. " + checkpoint.getAbsolutePath());
+            }
+        } catch (IOException e) {
+            // 記録できない場合は、次回先頭から検証し直すのみ
+            logger.warn("Failed to write verify checkpoint.", e);
+        }
+    }
+
+    private void deleteCheckpoint() {
+        File checkpoint = getCheckpointFile();
+        if (checkpoint.exists() && !checkpoint.delete()) {
+            logger.warn("Failed to delete verify checkpoint. " + checkpoint.getAbsolutePath());
+        }
+    }
+
+    /**
+     * 1秒あたりに読み込む件数の上限. 上限を超えて読み込んだ場合は、超えた分を読み込める時間まで待つ.
+     */
+    static final class IoBudget {
+        private final long perSec;
+        private long available;
+        private long lastRefill;
+
+        /**
+         * コンストラクタ.
+         * @param perSec 1秒あたりに読み込む件数の上限. 0以下の場合は制限しない
+         */
+        IoBudget(long perSec) {
+            this.perSec = perSec;
+            this.available = perSec;
+            this.lastRefill = System.currentTimeMillis();
+        }
+
+        /**
+         * 読み込んだ件数を計上する.
+         * @param rows 読み込んだ件数
+         * @throws InterruptedException 待機中に割り込まれた場合
+         */
+        void consume(long rows) throws InterruptedException {
+            if (this.perSec <= 0) {
+                return;
+            }
+            long now = System.currentTimeMillis();
+            this.available = Math.min(this.perSec, this.available + (now - this.lastRefill) * this.perSec / 1000);
+            this.lastRefill = now;
+            this.available -= rows;
+            if (this.available < 0) {
+                Thread.sleep(-this.available * 1000 / this.perSec);
+            }
+        }
+    }
+}
@@ -17,19 +17,28 @@
 package com.fujitsu.dc.core.model.impl.es.repair;
 
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.HashMap;
+import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
 
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
+import com.fujitsu.dc.common.es.EsClient;
 import com.fujitsu.dc.common.es.EsIndex;
+import com.fujitsu.dc.common.es.response.DcItem;
+import com.fujitsu.dc.common.es.response.DcMultiSearchResponse;
+import com.fujitsu.dc.common.es.response.DcSearchHit;
+import com.fujitsu.dc.common.es.response.DcSearchHits;
 import com.fujitsu.dc.common.es.response.DcSearchResponse;
 import com.fujitsu.dc.common.es.response.EsClientException;
 import com.fujitsu.dc.core.DcCoreConfig;
 import com.fujitsu.dc.core.model.impl.es.EsModel;
 import com.fujitsu.dc.core.model.impl.es.QueryMapFactory;
+import com.fujitsu.dc.core.model.impl.es.ads.AdsRangeDigest;
+import com.fujitsu.dc.core.model.impl.es.doc.OEntityDocHandler;
 
 /**
  * データストア層(Elasticsearch)への操作処理を実装したクラス.
@@ -39,6 +48,12 @@ public class EsAccessor {
     /** ログ用オブジェクト. */
     static Logger log = LoggerFactory.getLogger(EsAccessor.class);
 
+    /** ADSのENTITYテーブル以外に格納されるタイプ名. */
+    private static final String[] NON_ENTITY_TYPES = {EsModel.TYPE_CTL_LINK, "dav" };
+
+    /** ダイジェスト算出時にスクロールサーチで1回に取得する件数(シャードごと). */
+    private static final int DIGEST_SCROLL_SIZE = 1000;
+
     /**
      * デフォルトコンストラクタ（使用不可）.
      */
@@ -59,8 +74,191 @@ public class EsAccessor {
             final List<String> idList,
             final String type)
             throws EsClientException {
+        // リペアツールでは、アクセス先が特定のインデックスに限らないため、その都度EsIndexを生成する。
+        // TODO コスト的に問題がないのかを確認する必要あり。
+        EsIndex index = getEsIndex(indexName);
+        return index.search(routingId, createIdsQuery(idList, type));
+    }
+
+    /**
+     * インデックスをrefreshし、書き込み済みのドキュメントを検索対象にする.
+     * @param indexName 対象のインデックス名
+     */
+    public static void refresh(final String indexName) {
+        getEsIndex(indexName).refresh();
+    }
+
+    /**
+     * タイプごとのドキュメントを1回のマルチサーチで検索.
+     * @param indexName 検索対象のインデックス名
+     * @param routingId 検索時のルーティングID
+     * @param idsByType タイプ名と検索対象のuuidリストのMap
+     * @return タイプ名と検索結果のMap
+     * @throws EsClientException ESへの検索に失敗した場合
+     */
+    public static Map<String, DcSearchHit[]> multiSearch(final String indexName,
+            final String routingId,
+            final Map<String, List<String>> idsByType)
+            throws EsClientException {
+        List<String> types = new ArrayList<String>(idsByType.keySet());
+        List<Map<String, Object>> queries = new ArrayList<Map<String, Object>>();
+        for (String type : types) {
+            queries.add(createIdsQuery(idsByType.get(type), type));
+        }
+        EsIndex index = getEsIndex(indexName);
+        DcMultiSearchResponse response = index.multiSearch(routingId, queries);
+
+        Map<String, DcSearchHit[]> hitsByType = new LinkedHashMap<String, DcSearchHit[]>();
+        DcItem[] items = response.getResponses();
+        for (int i = 0; i < types.size(); i++) {
+            if (items[i].getFailureMessage() != null) {
+                throw new EsClientException(items[i].getFailureMessage());
+            }
+            hitsByType.put(types.get(i), items[i].getSearchHits());
+        }
+        return hitsByType;
+    }
+
+    /**
+     * IDが接頭辞で始まるドキュメントの件数を、接頭辞ごとに1回のマルチサーチで取得する.
+     * 全てのルーティングIDのドキュメントが対象となる。
+     * @param indexName 検索対象のインデックス名
+     * @param type タイプ名. nullの場合はlink/dav以外の全タイプ
+     * @param idPrefixes IDの接頭辞のリスト
+     * @return 件数(idPrefixesと同じ順序)
+     * @throws EsClientException ESへの検索に失敗した場合
+     */
+    public static long[] countByIdPrefix(final String indexName,
+            final String type,
+            final List<String> idPrefixes)
+            throws EsClientException {
+        List<Map<String, Object>> queries = new ArrayList<Map<String, Object>>();
+        for (String idPrefix : idPrefixes) {
+            Map<String, Object> query = createIdPrefixQuery(type, idPrefix);
+            query.put("size", 0);
+            queries.add(query);
+        }
+        EsIndex index = getEsIndex(indexName);
+        DcItem[] items = index.multiSearch(null, queries).getResponses();
+
+        long[] counts = new long[idPrefixes.size()];
+        for (int i = 0; i < counts.length; i++) {
+            if (items[i].getFailureMessage() != null) {
+                throw new EsClientException(items[i].getFailureMessage());
+            }
+            counts[i] = items[i].getHits().getAllPages();
+        }
+        return counts;
+    }
+
+    /**
+     * IDが接頭辞で始まるドキュメントのダイジェストを、接頭辞の次の1文字ごとに算出する.
+     * ESではダイジェストを集計できないため、スクロールサーチでIDと更新日時のみを取得して算出する。
+     * 全てのルーティングIDのドキュメントが対象となる。
+     * @param indexName 検索対象のインデックス名
+     * @param type タイプ名. nullの場合はlink/dav以外の全タイプ
+     * @param idPrefix IDの接頭辞
+     * @return 接頭辞の次の1文字とダイジェストのMap. IDが接頭辞と一致するドキュメントは空文字に集計する
+     * @throws EsClientException ESへの検索に失敗した場合
+     */
+    public static Map<String, AdsRangeDigest> digestByIdPrefix(final String indexName,
+            final String type,
+            final String idPrefix)
+            throws EsClientException {
+        Map<String, Object> query = createIdPrefixQuery(type, idPrefix);
+        query.put("_source", Arrays.asList(OEntityDocHandler.KEY_UPDATED));
+        query.put("size", DIGEST_SCROLL_SIZE);
+        EsClient client = EsModel.client();
+        DcSearchResponse response = client.scrollSearch(indexName, null, query);
+        Map<String, AdsRangeDigest> digests = new HashMap<String, AdsRangeDigest>();
+        while (true) {
+            response = client.scrollSearch(response.getScrollId());
+            DcSearchHit[] hits = response.getHits().getHits();
+            if (hits.length == 0) {
+                return digests;
+            }
+            for (DcSearchHit hit : hits) {
+                String id = hit.getId();
+                String next = "";
+                if (id.length() > idPrefix.length()) {
+                    next = id.substring(idPrefix.length(), idPrefix.length() + 1);
+                }
+                AdsRangeDigest digest = digests.get(next);
+                if (null == digest) {
+                    digest = new AdsRangeDigest();
+                    digests.put(next, digest);
+                }
+                digest.add(id, AdsVerifier.getUpdated(hit.getSource()));
+            }
+        }
+    }
+
+    /**
+     * IDが接頭辞で始まるドキュメントのバージョンと、ID・更新日時・ロックキーの算出に必要な項目のみを検索する.
+     * 全てのルーティングIDのドキュメントが対象となる。
+     * @param indexName 検索対象のインデックス名
+     * @param type タイプ名. nullの場合はlink/dav以外の全タイプ
+     * @param idPrefix IDの接頭辞
+     * @param size 取得件数
+     * @return 検索結果
+     * @throws EsClientException ESへの検索に失敗した場合
+     */
+    public static DcSearchHits searchByIdPrefix(final String indexName,
+            final String type,
+            final String idPrefix,
+            final int size)
+            throws EsClientException {
+        Map<String, Object> query = createIdPrefixQuery(type, idPrefix);
+        query.put("_source", Arrays.asList(OEntityDocHandler.KEY_CELL_ID, OEntityDocHandler.KEY_BOX_ID,
+                OEntityDocHandler.KEY_NODE_ID, OEntityDocHandler.KEY_UPDATED));
+        query.put("version", true);
+        query.put("size", size);
+        EsIndex index = getEsIndex(indexName);
+        return index.search(null, query).getHits();
+    }
 
-        // TODO クエリを作成する箇所とESへリクエストする箇所を別のメソッドにする。
+    private static Map<String, Object> createIdPrefixQuery(final String type, final String idPrefix) {
+        List<Map<String, Object>> must = new ArrayList<Map<String, Object>>();
+        List<Map<String, Object>> mustNot = new ArrayList<Map<String, Object>>();
+        Map<String, Object> prefix = new HashMap<String, Object>();
+        if (idPrefix.length() > 0) {
+            // _idの前方一致は、ESが検索対象の各タイプの_uid(タイプ名#ID)の前方一致に変換する
+            Map<String, Object> prefixValue = new HashMap<String, Object>();
+            prefixValue.put("_id", idPrefix);
+            prefix.put("prefix", prefixValue);
+        } else {
+            prefix.put("match_all", new HashMap<String, Object>());
+        }
+        must.add(prefix);
+        if (type != null) {
+            must.add(createTypeFilter(type));
+        } else {
+            for (String nonEntityType : NON_ENTITY_TYPES) {
+                mustNot.add(createTypeFilter(nonEntityType));
+            }
+        }
+        Map<String, Object> clauses = new HashMap<String, Object>();
+        clauses.put("must", must);
+        if (!mustNot.isEmpty()) {
+            clauses.put("must_not", mustNot);
+        }
+        Map<String, Object> bool = new HashMap<String, Object>();
+        bool.put("bool", clauses);
+
+        Map<String, Object> query = new HashMap<String, Object>();
+        query.put("query", QueryMapFactory.filteredQuery(null, bool));
+        return query;
+    }
+
+    private static Map<String, Object> createTypeFilter(final String type) {
+        Map<String, Object> typeFilter = new HashMap<String, Object>();
+        Map<String, Object> typeValue = new HashMap<String, Object>();
+        typeFilter.put("type", typeValue);
+        typeValue.put("value", type);
+        return typeFilter;
+    }
+
+    private static Map<String, Object> createIdsQuery(final List<String> idList, final String type) {
         // IDとTypeで検索する。
         Map<String, Object> query = new HashMap<String, Object>();
         List<Map<String, Object>> queries = new ArrayList<Map<String, Object>>();
@@ -82,10 +280,7 @@ public class EsAccessor {
         query.put("version", true);
         // size
         query.put("size", idList.size());
-        // リペアツールでは、アクセス先が特定のインデックスに限らないため、その都度EsIndexを生成する。
-        // TODO コスト的に問題がないのかを確認する必要あり。
-        EsIndex index = getEsIndex(indexName);
-        return index.search(routingId, query);
+        return query;
     }
 
     /**
@@ -17,15 +17,26 @@
 package com.fujitsu.dc.core.model.impl.es.repair;
 
 import java.io.File;
+import java.io.IOException;
 import java.util.ArrayList;
-import java.util.HashMap;
+import java.util.Collection;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
-import java.util.Map.Entry;
+import java.util.Set;
 import java.util.TreeMap;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadFactory;
 import java.util.regex.Matcher;
 import java.util.regex.Pattern;
 
+import org.apache.commons.io.FileUtils;
+import org.apache.commons.lang.CharEncoding;
 import org.json.simple.JSONObject;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
@@ -37,6 +48,7 @@ import com.fujitsu.dc.common.ads.AdsWriteFailureLogInfo;
 import com.fujitsu.dc.common.ads.AdsWriteFailureLogWriter;
 import com.fujitsu.dc.common.ads.RollingAdsWriteFailureLog;
 import com.fujitsu.dc.common.es.EsIndex;
+import com.fujitsu.dc.common.es.response.DcSearchHit;
 import com.fujitsu.dc.common.es.response.DcSearchHits;
 import com.fujitsu.dc.common.es.response.DcSearchResponse;
 import com.fujitsu.dc.common.es.response.EsClientException;
@@ -53,6 +65,11 @@ import com.fujitsu.dc.core.model.lock.LockManager;
  * 本クラスでは、ADS書き込み失敗ログを読み込み、Elasticsearch上のデータを基準としてADSへのデータ補正を実施する。 データ補正処理は singletonとし、dc1-coreの
  * ScheduleExecutorServiceにて一定間隔で実行する。 なお、本処理の内容は、PCSのAPIとは異なるため、別ファイルとしてログを出力する。
  * </p>
+ * <p>
+ * ログは一定行数ずつ読み込み、インデックス(ユニットユーザ)ごとに分割してワーカスレッドで並行して補正する。
+ * 同じOData空間のデータはまとめてロックし、ESへの検索はマルチサーチ、ADSへの検索・登録は一括で行う。
+ * 読み込んだ行まで補正が完了するごとにチェックポイントを記録し、中断した場合は次回その位置から再開する。
+ * </p>
  */
 public class RepairAds {
 
@@ -67,6 +84,8 @@ public class RepairAds {
     private File adsLogBaseDir;
     private boolean physicalDelete;
     private int logCountPerIteration;
+    private int workerThreads;
+    private ExecutorService workers;
     // 処理中のADS書き込み失敗ログのファイル名に付加されているタイムスタンプ
     // TODO AdsWriteFailureLogWriterクラスから取得するように見直す。
     private long createTime;
@@ -119,6 +138,14 @@ public class RepairAds {
             // - ADS書き込み失敗ログファイルの読み込み（一定量での読み込み）
             // - リペア有無判定とリペア方法選別
             // - ADSへのリペア（Memcachedへのロックを含む）
+            workers = Executors.newFixedThreadPool(workerThreads, new ThreadFactory() {
+                @Override
+                public Thread newThread(Runnable r) {
+                    Thread thread = new Thread(r, "RepairAdsWorker");
+                    thread.setDaemon(true);
+                    return thread;
+                }
+            });
             for (Map.Entry<Long, File> map : logFilesMap.entrySet()) {
                 File logFile = map.getValue();
                 this.createTime = map.getKey();
@@ -139,6 +166,10 @@ public class RepairAds {
             // - 前回からのエラーも検出したいので、static変数でログ出力可否を判定する？
             logger.error("An error is detected in ads repair process.", e);
         } finally {
+            if (workers != null) {
+                workers.shutdown();
+                workers = null;
+            }
             rotateRetryAndErrorLog();
         }
     }
@@ -178,6 +209,7 @@ public class RepairAds {
         adsLogBaseDir = new File(adsLogBaseDirPath);
         physicalDelete = DcCoreConfig.getAdsWriteFailureLogPhysicalDelete();
         logCountPerIteration = DcCoreConfig.getAdsWriteFailureLogCountPerIteration();
+        workerThreads = Math.max(1, DcCoreConfig.getAdsRepairWorkerThreads());
     }
 
     /**
@@ -263,6 +295,19 @@ public class RepairAds {
         RollingAdsWriteFailureLog adsLog = new RollingAdsWriteFailureLog(
                 logFile, adsLogBaseDirPath, pcsVersion, physicalDelete);
         try {
+            // 前回中断した場合は、補正が完了した行まで読み飛ばす
+            long processed = readCheckpoint(logFile);
+            for (long skipped = 0; skipped < processed;) {
+                List<String> skippedRecords = adsLog.readAdsFailureLog(
+                        (int) Math.min(logCountPerIteration, processed - skipped));
+                if (null == skippedRecords || skippedRecords.size() == 0) {
+                    break;
+                }
+                skipped += skippedRecords.size();
+            }
+            if (processed > 0) {
+                logger.info(String.format("Resuming repair from line %d. Repairlog file: %s", processed, logFile));
+            }
             while (true) {
                 // ADS書き込み失敗ログを読み込み、ログ出力情報を作成する。
                 List<String> logRecords = adsLog.readAdsFailureLog(logCountPerIteration);
@@ -291,16 +336,29 @@ public class RepairAds {
                     }
                 }
                 Map<String, List<AdsWriteFailureLogInfo>> mapOfOdataLock =
-                        new HashMap<String, List<AdsWriteFailureLogInfo>>();
+                        new LinkedHashMap<String, List<AdsWriteFailureLogInfo>>();
                 // データ書き込み時のOData空間キーごとにADS書き込み失敗ログから読み込んだログ出力情報を集約する。
                 // 同じデータに対するログが複数存在する場合は、後勝ちとする。
                 for (AdsWriteFailureLogInfo logInfo : rowsData) {
                     String key = logInfo.getIndexName() + "_" + logInfo.getLockKey();
                     updateAdsWriteFailureLogMap(mapOfOdataLock, logInfo, key);
                 }
-                for (Entry<String, List<AdsWriteFailureLogInfo>> sourceLogInfo : mapOfOdataLock.entrySet()) {
-                    executeRepairAds(sourceLogInfo.getValue());
+                // インデックス(ユニットユーザ)ごとに分割し、ワーカスレッドで並行して補正する
+                Map<String, List<List<AdsWriteFailureLogInfo>>> partitions =
+                        new LinkedHashMap<String, List<List<AdsWriteFailureLogInfo>>>();
+                for (List<AdsWriteFailureLogInfo> logInfos : mapOfOdataLock.values()) {
+                    String indexName = logInfos.get(0).getIndexName();
+                    List<List<AdsWriteFailureLogInfo>> partition = partitions.get(indexName);
+                    if (null == partition) {
+                        partition = new ArrayList<List<AdsWriteFailureLogInfo>>();
+                        partitions.put(indexName, partition);
+                    }
+                    partition.add(logInfos);
                 }
+                executePartitions(partitions.values());
+
+                processed += logRecords.size();
+                writeCheckpoint(logFile, processed);
             }
         } catch (AdsWriteFailureLogException e) {
             // ここでエラーとなった場合は、呼び出し元に戻り、次のADS書き込み失敗ログの処理に移行する。
@@ -314,11 +372,111 @@ public class RepairAds {
         try {
             // 正常終了のため、ADS出力失敗ログのクローズおよび削除を行う
             adsLog.deleteRotatedLog();
+            deleteCheckpoint();
         } catch (AdsWriteFailureLogException e) {
             logger.error("Faild to delete adsWriteFailureLog.", e);
         }
     }
 
+    /**
+     * インデックスごとに分割したリペア情報をワーカスレッドで並行して補正する. 全ての補正が終わるまで待つ.
+     * @param partitions インデックスごとのリペア情報. 各要素はOData空間ごとのリペア情報のリスト
+     * @throws RepairAdsException いずれかの補正でツール全体を異常終了させるエラーが発生した場合
+     */
+    private void executePartitions(Collection<List<List<AdsWriteFailureLogInfo>>> partitions)
+            throws RepairAdsException {
+        List<Future<Void>> futures = new ArrayList<Future<Void>>();
+        for (final List<List<AdsWriteFailureLogInfo>> partition : partitions) {
+            futures.add(workers.submit(new Callable<Void>() {
+                @Override
+                public Void call() throws RepairAdsException {
+                    for (List<AdsWriteFailureLogInfo> logInfos : partition) {
+                        executeRepairAds(logInfos);
+                    }
+                    return null;
+                }
+            }));
+        }
+        // 全てのワーカの完了を待ってから、最初に発生したエラーで異常終了させる
+        Throwable failure = null;
+        for (Future<Void> future : futures) {
+            try {
+                future.get();
+            } catch (ExecutionException e) {
+                if (null == failure) {
+                    failure = e.getCause();
+                }
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                if (null == failure) {
+                    failure = new RepairAdsException("Interrupted while waiting for repair workers.", e);
+                }
+            }
+        }
+        if (failure instanceof RepairAdsException) {
+            throw (RepairAdsException) failure;
+        } else if (failure instanceof RuntimeException) {
+            throw (RuntimeException) failure;
+        } else if (failure instanceof Error) {
+            throw (Error) failure;
+        } else if (null != failure) {
+            throw new RepairAdsException("An error is detected in repair worker.", failure);
+        }
+    }
+
+    private File getCheckpointFile() {
+        return new File(adsLogBaseDir, String.format("adsRepair_%s.checkpoint", pcsVersion));
+    }
+
+    /**
+     * 指定したADS書き込み失敗ログの補正が完了した行数を取得する.
+     * @param logFile ADS書き込み失敗ログ
+     * @return 補正が完了した行数. 記録されていない場合は0
+     */
+    private long readCheckpoint(File logFile) {
+        File checkpoint = getCheckpointFile();
+        if (!checkpoint.isFile()) {
+            return 0;
+        }
+        try {
+            String[] values = FileUtils.readFileToString(checkpoint, CharEncoding.UTF_8).trim().split("\t");
+            if (values.length == 2 && values[0].equals(logFile.getName())) {
+                return Long.parseLong(values[1]);
+            }
+        } catch (IOException e) {
+            logger.warn("Failed to read repair checkpoint. Repair from the beginning.", e);
+        } catch (NumberFormatException e) {
+            logger.warn("Repair checkpoint is broken. Repair from the beginning.", e);
+        }
+        return 0;
+    }
+
+    /**
+     * 指定したADS書き込み失敗ログの補正が完了した行数を記録する.
+     * @param logFile ADS書き込み失敗ログ
+     * @param processed 補正が完了した行数
+     */
+    private void writeCheckpoint(File logFile, long processed) {
+        File checkpoint = getCheckpointFile();
+        File tmp = new File(checkpoint.getPath() + ".tmp");
+        try {
+            FileUtils.writeStringToFile(tmp, logFile.getName() + "\t" + processed, CharEncoding.UTF_8);
+            if (!tmp.renameTo(checkpoint) && !(checkpoint.delete() && tmp.renameTo(checkpoint))) {
+                logger.warn("Failed to rename repair checkpoint. " + checkpoint.getAbsolutePath());
+            }
+        } catch (IOException e) {
+            // 記録できない場合でも補正は冪等であるため、次回先頭から再実行されるのみ
+            logger.warn("Failed to write repair checkpoint.", e);
+        }
+    }
+
+    private void deleteCheckpoint() {
+        File checkpoint = getCheckpointFile();
+        if (checkpoint.exists() && !checkpoint.delete()) {
+            logger.warn("Failed to delete repair checkpoint. " + checkpoint.getAbsolutePath());
+        }
+    }
+
     /**
      * OData空間ごとに管理しているリペア情報を新たに読み込んだ情報で更新する.
      * @param map OData空間ごとに管理しているリペア情報のマップ
@@ -352,73 +510,179 @@ public class RepairAds {
     }
 
     private void executeRepairAds(List<AdsWriteFailureLogInfo> logInfos) throws RepairAdsException {
-        // 1件ごとに処理を行う。
-        // TODO 性能的な問題が発生した場合は、ｎ件ごとに処理を行うように修正すること。
-        for (AdsWriteFailureLogInfo logInfo : logInfos) {
-            logger.info("Starting repair. Repair record: " + logInfo.toString());
-            String indexName = logInfo.getIndexName();
-            String routingId = logInfo.getRoutingId();
-            if ("".equals(routingId)) {
-                routingId = EsIndex.CELL_ROUTING_KEY_NAME;
-            }
-
-            Lock lock = null;
-            String lockKey = logInfo.getLockKey();
-            try {
-                // lockKeyが空(Cell再帰的削除の場合)であれば、ロックしない
-                if (null != lockKey && !lockKey.isEmpty()) {
-                    try {
-                        lock = lock(lockKey);
-                    } catch (DcCoreException e) {
-                        if (e.getCode().equals(DcCoreException.Server.GET_LOCK_STATE_ERROR.getCode())
-                                || e.getCode().equals(DcCoreException.Server.DATA_STORE_UNKNOWN_ERROR.getCode())) {
-                            // 全体を異常終了させる
-                            throw e;
-                        } else {
-                            // lockが他のプロセスに取得されており、取得できなかったため、異常終了にはせず、次の行に移行する
+        // 同じOData空間のデータはまとめてロックし、ES/ADSへの検索もまとめて行う。
+        Lock lock = null;
+        String lockKey = logInfos.get(0).getLockKey();
+        try {
+            // lockKeyが空(Cell再帰的削除の場合)であれば、ロックしない
+            if (null != lockKey && !lockKey.isEmpty()) {
+                try {
+                    lock = lock(lockKey);
+                } catch (DcCoreException e) {
+                    if (e.getCode().equals(DcCoreException.Server.GET_LOCK_STATE_ERROR.getCode())
+                            || e.getCode().equals(DcCoreException.Server.DATA_STORE_UNKNOWN_ERROR.getCode())) {
+                        // 全体を異常終了させる
+                        throw e;
+                    } else {
+                        // lockが他のプロセスに取得されており、取得できなかったため、異常終了にはせず、次のOData空間に移行する
+                        for (AdsWriteFailureLogInfo logInfo : logInfos) {
                             writeAdsRetryLog(logInfo.toString());
-                            logger.info("Other process has a lockObject.");
-                            continue;
                         }
+                        logger.info("Other process has a lockObject.");
+                        return;
                     }
-                    if (null == lock) {
-                        // 該当行を不正ログファイルに退避する
+                }
+                if (null == lock) {
+                    // 該当行を不正ログファイルに退避する
+                    for (AdsWriteFailureLogInfo logInfo : logInfos) {
                         writeAdsErrorLog(logInfo.toString());
-                        String message = String.format("Faild to get lock. lockKey= [%s]", lockKey);
-                        logger.error(message);
-                        continue;
                     }
+                    String message = String.format("Faild to get lock. lockKey= [%s]", lockKey);
+                    logger.error(message);
+                    return;
                 }
+            }
 
-                List<String> idList = new ArrayList<String>();
-                idList.add(logInfo.getUuid());
-                try {
-                    // TypeがCellである場合は、Elasticsearchのインデックス名を「{UnitPrefix}_ad」に変更する
-                    if (Cell.EDM_TYPE_NAME.equals(logInfo.getType())) {
-                        indexName = DcCoreConfig.getEsUnitPrefix() + "_" + EsIndex.CATEGORY_AD;
+            // ESのインデックスとルーティングIDごとにまとめて補正する
+            Map<String, List<AdsWriteFailureLogInfo>> groups =
+                    new LinkedHashMap<String, List<AdsWriteFailureLogInfo>>();
+            for (AdsWriteFailureLogInfo logInfo : logInfos) {
+                logger.info("Starting repair. Repair record: " + logInfo.toString());
+                String key = getEsIndexName(logInfo) + "\t" + getRoutingId(logInfo);
+                List<AdsWriteFailureLogInfo> group = groups.get(key);
+                if (null == group) {
+                    group = new ArrayList<AdsWriteFailureLogInfo>();
+                    groups.put(key, group);
+                }
+                group.add(logInfo);
+            }
+            for (List<AdsWriteFailureLogInfo> group : groups.values()) {
+                repairGroup(group);
+            }
+        } finally {
+            if (null != lock) {
+                logger.debug("unlock");
+                lock.release();
+            }
+        }
+    }
+
+    private static String getEsIndexName(AdsWriteFailureLogInfo logInfo) {
+        // TypeがCellである場合は、Elasticsearchのインデックス名を「{UnitPrefix}_ad」に変更する
+        if (Cell.EDM_TYPE_NAME.equals(logInfo.getType())) {
+            return DcCoreConfig.getEsUnitPrefix() + "_" + EsIndex.CATEGORY_AD;
+        }
+        return logInfo.getIndexName();
+    }
+
+    private static String getRoutingId(AdsWriteFailureLogInfo logInfo) {
+        String routingId = logInfo.getRoutingId();
+        if ("".equals(routingId)) {
+            routingId = EsIndex.CELL_ROUTING_KEY_NAME;
+        }
+        return routingId;
+    }
+
+    /**
+     * 同じESのインデックス・ルーティングIDのリペア情報を補正する.
+     * ESへはタイプごとの検索を1回のマルチサーチで、ADSへはタイプごとに一括で検索し、登録は一括で行う。
+     * @param group リペア情報
+     * @throws RepairAdsException ES/ADSへの検索に失敗した場合
+     */
+    private void repairGroup(List<AdsWriteFailureLogInfo> group) throws RepairAdsException {
+        AdsWriteFailureLogInfo first = group.get(0);
+        String indexName = first.getIndexName();
+        Map<String, List<String>> idsByType = new LinkedHashMap<String, List<String>>();
+        for (AdsWriteFailureLogInfo logInfo : group) {
+            List<String> ids = idsByType.get(logInfo.getType());
+            if (null == ids) {
+                ids = new ArrayList<String>();
+                idsByType.put(logInfo.getType(), ids);
+            }
+            ids.add(logInfo.getUuid());
+        }
+
+        Map<String, Map<String, DcSearchHit>> esHits = new LinkedHashMap<String, Map<String, DcSearchHit>>();
+        Map<String, Set<String>> adsIds = new LinkedHashMap<String, Set<String>>();
+        try {
+            for (Map.Entry<String, DcSearchHit[]> entry
+                    : EsAccessor.multiSearch(getEsIndexName(first), getRoutingId(first), idsByType).entrySet()) {
+                Map<String, DcSearchHit> hits = new LinkedHashMap<String, DcSearchHit>();
+                for (DcSearchHit hit : entry.getValue()) {
+                    if (null != hits.put(hit.getId(), hit)) {
+                        // 同じIDで２件以上がヒットした場合は異常事態とみなし、ツール全体を異常終了させる
+                        throw new RepairAdsException(String.format(
+                                "Unexpected number of data returned from Elasticsearch. [id=%s]", hit.getId()));
                     }
-                    // ES/ADSへの検索は、一括検索ができるようなAPIを使用しているが、今のところは1件ずつ処理することを前提としている。
-                    DcSearchResponse esResponse = EsAccessor.search(indexName, routingId, idList, logInfo.getType());
-                    List<JSONObject> adsResponse = AdsAccessor.getIdListOnAds(logInfo);
-                    repairToAds(logInfo, esResponse, adsResponse);
-                } catch (EsClientException e) {
-                    String message = String.format("Failed to get response from Elasticsearch. [%s]",
-                            logInfo.toString());
-                    // Elasticsearchへの検索に失敗したため、ツール全体を異常終了させる
-                    throw new RepairAdsException(message, e);
-                } catch (AdsException e) {
-                    String message = String.format("Failed to get response from Ads. [%s]", logInfo.toString());
-                    // MySQLへの検索に失敗したため、ツール全体を異常終了させる
-                    throw new RepairAdsException(message, e);
                 }
-            } finally {
-                if (null != lock) {
-                    logger.debug("unlock");
-                    lock.release();
+                esHits.put(entry.getKey(), hits);
+            }
+            for (Map.Entry<String, List<String>> entry : idsByType.entrySet()) {
+                Set<String> ids = new HashSet<String>();
+                for (JSONObject row : AdsAccessor.searchAds(indexName, entry.getKey(), entry.getValue())) {
+                    if (!ids.add((String) row.get("id"))) {
+                        // 同じIDで２件以上がヒットした場合は異常事態とみなし、ツール全体を異常終了させる
+                        throw new RepairAdsException(String.format(
+                                "Unexpected number of data returned from ads. [id=%s]", row.get("id")));
+                    }
                 }
+                adsIds.put(entry.getKey(), ids);
             }
+        } catch (EsClientException e) {
+            String message = String.format("Failed to get response from Elasticsearch. [%s]", first.toString());
+            // Elasticsearchへの検索に失敗したため、ツール全体を異常終了させる
+            throw new RepairAdsException(message, e);
+        } catch (AdsException e) {
+            String message = String.format("Failed to get response from Ads. [%s]", first.toString());
+            // MySQLへの検索に失敗したため、ツール全体を異常終了させる
+            throw new RepairAdsException(message, e);
         }
 
+        // ESに存在しADSに存在しないデータはタイプごとにまとめて登録し、それ以外は1件ずつ補正する
+        Map<String, List<AdsWriteFailureLogInfo>> creates = new LinkedHashMap<String, List<AdsWriteFailureLogInfo>>();
+        for (AdsWriteFailureLogInfo logInfo : group) {
+            DcSearchHit hit = esHits.get(logInfo.getType()).get(logInfo.getUuid());
+            boolean existsOnAds = adsIds.get(logInfo.getType()).contains(logInfo.getUuid());
+            if (null != hit && !existsOnAds) {
+                List<AdsWriteFailureLogInfo> list = creates.get(logInfo.getType());
+                if (null == list) {
+                    list = new ArrayList<AdsWriteFailureLogInfo>();
+                    creates.put(logInfo.getType(), list);
+                }
+                list.add(logInfo);
+            } else {
+                repairToAds(logInfo, hit, existsOnAds);
+            }
+        }
+        for (Map.Entry<String, List<AdsWriteFailureLogInfo>> entry : creates.entrySet()) {
+            bulkCreateAds(indexName, entry.getKey(), entry.getValue(), esHits.get(entry.getKey()));
+        }
+    }
+
+    /**
+     * ESに存在しADSに存在しないデータをADSに一括登録する.
+     * 一括登録に失敗した場合は1件ずつ登録し、失敗したデータをリトライ用/退避用のログに振り分ける.
+     */
+    private void bulkCreateAds(String indexName, String type, List<AdsWriteFailureLogInfo> logInfos,
+            Map<String, DcSearchHit> esHits) throws RepairAdsException {
+        if (logInfos.size() > 1) {
+            List<DcSearchHit> hits = new ArrayList<DcSearchHit>(logInfos.size());
+            for (AdsWriteFailureLogInfo logInfo : logInfos) {
+                hits.add(esHits.get(logInfo.getUuid()));
+            }
+            try {
+                if (AdsAccessor.bulkCreateAds(indexName, type, hits)) {
+                    logger.info(String.format("[%d] new records are inserted into ads. type=%s",
+                            hits.size(), type));
+                    return;
+                }
+            } catch (AdsException e) {
+                logger.info("Failed to bulk insert records into ads. Retry one by one.", e);
+            }
+        }
+        for (AdsWriteFailureLogInfo logInfo : logInfos) {
+            repairToAds(logInfo, esHits.get(logInfo.getUuid()), false);
+        }
     }
 
     /**
@@ -426,12 +690,12 @@ public class RepairAds {
      * @param lockKey ロックオブジェクトのキー(カテゴリ-UUID)
      * @return ロックオブジェクト or null(ロックのカテゴリが不正である場合)
      */
-    private Lock lock(String lockKey) {
+    static Lock lock(String lockKey) {
         Lock lock = null;
         if (lockKey.startsWith(Lock.CATEGORY_DAV + "-")) {
-            // Boxレベルのロックを取得
-            String boxId = lockKey.substring((Lock.CATEGORY_DAV + "-").length());
-            lock = LockManager.getLock(Lock.CATEGORY_DAV, null, boxId, null);
+            // Davのノードレベルのロックを取得(以前のログに記録されたBoxレベルのキーの場合はBoxレベルのロックとなる)
+            String nodeId = lockKey.substring((Lock.CATEGORY_DAV + "-").length());
+            lock = LockManager.getLock(Lock.CATEGORY_DAV, null, nodeId, null);
         } else if (lockKey.startsWith(Lock.CATEGORY_ODATA + "-")) {
             // ODataレベルのロックを取得
             String nodeId = lockKey.substring((Lock.CATEGORY_ODATA + "-").length());
@@ -472,24 +736,38 @@ public class RepairAds {
             throw new RepairAdsException(message);
         }
 
+        DcSearchHit hit = null;
+        if (hits.getCount() == 1) {
+            hit = hits.getAt(0);
+        }
+        repairToAds(logInfo, hit, adsResponse.size() == 1);
+    }
+
+    /**
+     * リペア対象のデータをADSにリクエストする.
+     * @param logInfo ログから読み込んだADS書き込み失敗情報
+     * @param hit Elasticsearchにリペア対象のデータを検索した結果. 存在しない場合はnull
+     * @param existsOnAds ADSにリペア対象のデータが存在するか否か
+     */
+    private void repairToAds(AdsWriteFailureLogInfo logInfo, DcSearchHit hit, boolean existsOnAds) {
         try {
             // リペアの判断
             String repairId = logInfo.getUuid();
             String indexName = logInfo.getIndexName();
             String type = logInfo.getType();
 
-            if (hits.getCount() == 1 && adsResponse.size() == 0) {
+            if (null != hit && !existsOnAds) {
                 // Elasticsearchに存在し、MySQLにデータが存在しない場合
                 // MySQLにデータを登録する(Create)
-                AdsAccessor.createAds(indexName, type, esResponse);
-                logger.info("New recored is inserted into ads. : " + hits.getAt(0).getSource());
-            } else if (hits.getCount() == 1 && adsResponse.size() == 1
-                    && logInfo.getEsVersion() == hits.getAt(0).getVersion()) {
+                AdsAccessor.createAds(indexName, type, hit);
+                logger.info("New recored is inserted into ads. : " + hit.getSource());
+            } else if (null != hit && existsOnAds
+                    && logInfo.getEsVersion() == hit.getVersion()) {
                 // Elasticsearchにデータが存在し、データのバージョンがJournalログのバージョンと同じである場合
                 // MySQLにデータを更新する(Update)
-                AdsAccessor.updateAds(indexName, type, esResponse);
-                logger.info("Ads record is updated : " + hits.getAt(0).getSource());
-            } else if (hits.getCount() == 0 && adsResponse.size() == 1) {
+                AdsAccessor.updateAds(indexName, type, hit);
+                logger.info("Ads record is updated : " + hit.getSource());
+            } else if (null == hit && existsOnAds) {
                 // ES上にデータが存在せず、MySQLにデータが存在する場合
                 // MySQLにデータを削除する(Delete)
                 AdsAccessor.deleteAds(indexName, type, repairId);
@@ -0,0 +1,267 @@
+/**
+ * personium.io
+ * Copyright 2014 FUJITSU LIMITED
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.fujitsu.dc.core.model.lock;
+
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.fujitsu.dc.core.DcCoreConfig;
+
+/**
+ * セルへのアクセス数を自ノード内で数えるカウンタ.
+ * <p>
+ * リクエスト毎の増減はスレッド毎に分散した(ストライプ化した)ローカルのカウンタに対して行い、ロックストアへはアクセスしない。
+ * ロックストア上の参照カウントへは、前回反映時からの差分をバックグラウンドスレッドで一定間隔ごとに反映する。
+ * そのため、ロックストア上の参照カウントは全ノードの合計値を最大で反映間隔だけ遅れて表す。
+ * </p>
+ */
+final class CellAccessCounter {
+    static Logger log = LoggerFactory.getLogger(CellAccessCounter.class);
+
+    /** 増減の無くなったカウンタを破棄するまでの時間(ms). */
+    static final long COUNTER_IDLE_IN_MILLIS = 60000L;
+
+    private static final int MAX_STRIPES = 64;
+
+    private static CellAccessCounter instance = new CellAccessCounter(
+            DcCoreConfig.isCellAccessCountLocalEnabled(),
+            DcCoreConfig.getCellAccessCountPublishIntervalInMillis());
+
+    /**
+     * ロックストア上の参照カウントへ差分を反映する処理.
+     */
+    interface Publisher {
+        /**
+         * 差分を反映する.
+         * @param fullKey キー
+         * @param delta 差分
+         */
+        void publish(String fullKey, long delta);
+    }
+
+    private final boolean enabled;
+    private final long publishIntervalInMillis;
+    private final int stripeMask;
+    private final ConcurrentMap<String, Counter> counters = new ConcurrentHashMap<String, Counter>();
+    private volatile ScheduledExecutorService publisherThread;
+
+    /**
+     * コンストラクタ.
+     * @param enabled ローカルで数えるか否か
+     * @param publishIntervalInMillis ロックストアへの反映間隔(ms)
+     */
+    CellAccessCounter(boolean enabled, long publishIntervalInMillis) {
+        this.enabled = enabled;
+        this.publishIntervalInMillis = publishIntervalInMillis;
+        int stripes = 1;
+        while (stripes < Runtime.getRuntime().availableProcessors() && stripes < MAX_STRIPES) {
+            stripes <<= 1;
+        }
+        this.stripeMask = stripes - 1;
+    }
+
+    /**
+     * @return インスタンス
+     */
+    static CellAccessCounter getInstance() {
+        return instance;
+    }
+
+    /**
+     * @return ローカルで数えるか否か
+     */
+    boolean isEnabled() {
+        return this.enabled;
+    }
+
+    /**
+     * 他ノードのアクセス数がロックストアへ反映されるまでの最大時間を返す.
+     * @return 最大時間(ms)
+     */
+    long getPublishIntervalInMillis() {
+        return this.publishIntervalInMillis;
+    }
+
+    /**
+     * 指定キーのアクセス数に加算する.
+     * @param fullKey キー
+     * @param delta 加算する値
+     * @param publisher ロックストアへの反映処理
+     * @return 加算後の自ノード内のアクセス数
+     */
+    long add(String fullKey, long delta, Publisher publisher) {
+        startPublisher(publisher);
+        while (true) {
+            Counter counter = this.counters.get(fullKey);
+            if (counter == null) {
+                Counter created = new Counter(this.stripeMask + 1);
+                counter = this.counters.putIfAbsent(fullKey, created);
+                if (counter == null) {
+                    counter = created;
+                }
+            }
+            counter.add(delta, stripeIndex());
+            if (!counter.retired) {
+                return counter.sum();
+            }
+            // 破棄と競合した場合は取り消して新しいカウンタに加算し直す
+            counter.add(-delta, stripeIndex());
+        }
+    }
+
+    /**
+     * 指定キーの自ノード内のアクセス数を、ロックストアへ即時に反映する.
+     * @param fullKey キー
+     * @param publisher ロックストアへの反映処理
+     */
+    void flush(String fullKey, Publisher publisher) {
+        Counter counter = this.counters.get(fullKey);
+        if (counter != null) {
+            counter.publish(fullKey, publisher);
+        }
+    }
+
+    /**
+     * 全てのキーの自ノード内のアクセス数をロックストアへ反映する.
+     * 一定時間増減が無く、反映済みのアクセス数が0のカウンタは破棄する.
+     * @param publisher ロックストアへの反映処理
+     */
+    void flushAll(Publisher publisher) {
+        long now = System.currentTimeMillis();
+        for (Map.Entry<String, Counter> e : this.counters.entrySet()) {
+            Counter counter = e.getValue();
+            try {
+                counter.publish(e.getKey(), publisher);
+            } catch (RuntimeException ex) {
+                // 反映に失敗した差分は次回に持ち越す
+                log.info("Failed to publish cell access count. key=" + e.getKey(), ex);
+                continue;
+            }
+            if (now - counter.lastPublished > COUNTER_IDLE_IN_MILLIS && counter.retire()) {
+                this.counters.remove(e.getKey(), counter);
+            }
+        }
+    }
+
+    /**
+     * 自ノード内のアクセス数を全て破棄する.
+     */
+    void clear() {
+        this.counters.clear();
+    }
+
+    private int stripeIndex() {
+        return (int) Thread.currentThread().getId() & this.stripeMask;
+    }
+
+    private void startPublisher(final Publisher publisher) {
+        if (this.publisherThread != null) {
+            return;
+        }
+        synchronized (this) {
+            if (this.publisherThread != null) {
+                return;
+            }
+            ScheduledExecutorService executor = Executors.newSingleThreadScheduledExecutor(new ThreadFactory() {
+                @Override
+                public Thread newThread(Runnable r) {
+                    Thread thread = new Thread(r, "CellAccessCountPublisher");
+                    thread.setDaemon(true);
+                    return thread;
+                }
+            });
+            executor.scheduleWithFixedDelay(new Runnable() {
+                @Override
+                public void run() {
+                    try {
+                        flushAll(publisher);
+                    } catch (RuntimeException e) {
+                        log.info("Failed to publish cell access counts.", e);
+                    }
+                }
+            }, this.publishIntervalInMillis, this.publishIntervalInMillis, TimeUnit.MILLISECONDS);
+            this.publisherThread = executor;
+        }
+    }
+
+    /**
+     * 1セル分のストライプ化したカウンタ.
+     */
+    static final class Counter {
+        private final AtomicLong[] stripes;
+        /** ロックストアへ反映済みの値. */
+        private long published;
+        private volatile long lastPublished = System.currentTimeMillis();
+        private volatile boolean retired;
+
+        Counter(int size) {
+            this.stripes = new AtomicLong[size];
+            for (int i = 0; i < size; i++) {
+                this.stripes[i] = new AtomicLong();
+            }
+        }
+
+        void add(long delta, int index) {
+            this.stripes[index].addAndGet(delta);
+        }
+
+        long sum() {
+            long sum = 0;
+            for (AtomicLong stripe : this.stripes) {
+                sum += stripe.get();
+            }
+            return sum;
+        }
+
+        synchronized void publish(String fullKey, Publisher publisher) {
+            long current = sum();
+            long delta = current - this.published;
+            if (delta == 0) {
+                return;
+            }
+            publisher.publish(fullKey, delta);
+            this.published = current;
+            this.lastPublished = System.currentTimeMillis();
+        }
+
+        /**
+         * 破棄可能であれば破棄済みとする.
+         * 破棄済みとした後に加算されていないことを確認するため、{@link CellAccessCounter#add}と対になっている.
+         * @return 破棄済みとした場合はtrue
+         */
+        synchronized boolean retire() {
+            if (this.published != 0) {
+                return false;
+            }
+            this.retired = true;
+            if (sum() != 0) {
+                this.retired = false;
+                return false;
+            }
+            return true;
+        }
+    }
+}
@@ -16,7 +16,9 @@
  */
 package com.fujitsu.dc.core.model.lock;
 
-
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.Map;
 
 
 /**
@@ -46,14 +48,61 @@ public abstract class CellLockManager extends LockManager {
      */
     public static final String CELL_STATUS_PREFIX = "CellStatus_";
 
+    /**
+     * 自ノード内のアクセス数の差分をロックストア上の参照カウントへ反映する処理.
+     */
+    private static final CellAccessCounter.Publisher REFERENCE_COUNT_PUBLISHER = new CellAccessCounter.Publisher() {
+        @Override
+        public void publish(String fullKey, long delta) {
+            singleton.doAddReferenceCount(fullKey, delta);
+        }
+    };
+
+    /**
+     * ロックストアからセルの処理ステータスを取得する処理.
+     */
+    private static final LockStateLocalView.StateLoader CELL_STATUS_LOADER = new LockStateLocalView.BulkStateLoader() {
+        @Override
+        public long load(String fullKey) {
+            return singleton.doGetCellStatus(fullKey);
+        }
+
+        @Override
+        public Map<String, Long> loadAll(Collection<String> fullKeys) {
+            Map<String, Object> values = singleton.doGetBulk(fullKeys);
+            Map<String, Long> statuses = new HashMap<String, Long>();
+            for (String fullKey : fullKeys) {
+                statuses.put(fullKey, toStatus(values.get(fullKey)));
+            }
+            return statuses;
+        }
+    };
+
+    /**
+     * ロックストアから取得した値をセルの処理ステータスに変換する.
+     * memcachedの数値はincr/decrで扱われるため、まとめて取得した場合は文字列として返される.
+     * @param value ロックストアから取得した値
+     * @return 処理ステータス. 存在しない場合は-1
+     */
+    private static long toStatus(Object value) {
+        if (value instanceof Number) {
+            return ((Number) value).longValue();
+        }
+        if (value != null) {
+            return Long.parseLong(value.toString().trim());
+        }
+        return -1L;
+    }
+
     /**
      * 指定したIDのセルの処理ステータスを返す.
+     * ローカルに保持している状態を返すため、他ノードでの変更は最大でリース期間だけ遅れて反映される.
      * @param cellId 処理ステータスを取得する対象のセルID
      * @return 指定したセルの処理ステータス
      */
     public static long getCellStatus(String cellId) {
         String key =  CELL_STATUS_PREFIX + cellId;
-        long status = singleton.doGetCellStatus(key);
+        long status = LockStateLocalView.getInstance().get(key, CELL_STATUS_LOADER);
         if (status < 0) {
             // 存在しない場合は何もしていないので「0:通常」を返す
             status = CELL_STATUS_NORMAL;
@@ -95,39 +144,90 @@ public abstract class CellLockManager extends LockManager {
         } else {
             success = singleton.doSetCellStatus(key, status);
         }
+        if (success) {
+            LockStateLocalView.getInstance().push(key, status, CELL_STATUS_LOADER);
+        }
         return success;
     }
 
+    /**
+     * 処理ステータスの変更が全ノードのローカルな状態に反映され、各ノードのアクセス数がロックストアへ反映されるまでの最大時間を返す.
+     * 一括削除中への変更後、この時間が経過するまでは、他ノードで受け付けたアクセスが参照カウントに含まれていない可能性がある.
+     * @return 最大時間(ms)
+     */
+    public static long getCellStatusPropagationInMillis() {
+        long wait = LockStateLocalView.getInstance().getStalenessBoundInMillis();
+        CellAccessCounter counter = CellAccessCounter.getInstance();
+        if (counter.isEnabled()) {
+            wait += counter.getPublishIntervalInMillis();
+        }
+        return wait;
+    }
+
     /**
      * 指定したIDのセルに対する参照カウントを返す.
+     * 自ノード内のアクセス数は即時に反映した上で取得するが、他ノードのアクセス数は最大で反映間隔だけ遅れる.
      * @param cellId 参照カウントを取得する対象のセルID
      * @return 指定したセルの参照カウント
      */
     public static long getReferenceCount(String cellId) {
         String key =  REFERENCE_COUNT_PREFIX + cellId;
+        CellAccessCounter counter = CellAccessCounter.getInstance();
+        if (counter.isEnabled()) {
+            counter.flush(key, REFERENCE_COUNT_PUBLISHER);
+        }
         long count = singleton.doGetReferenceCount(key);
         return count;
     }
 
     /**
      * 指定したセルの参照カウントをインクリメントする.
+     * ローカルで数える場合は自ノード内のアクセス数のみを増やし、ロックストアへは後から反映する.
      * @param cellId 対象のセルID
-     * @return インクリメント後の参照カウントの値
+     * @return インクリメント後の参照カウントの値(ローカルで数える場合は自ノード内の値)
      */
     public static long incrementReferenceCount(String cellId) {
         String key =  REFERENCE_COUNT_PREFIX + cellId;
+        CellAccessCounter counter = CellAccessCounter.getInstance();
+        if (counter.isEnabled()) {
+            return counter.add(key, 1, REFERENCE_COUNT_PUBLISHER);
+        }
         long count = singleton.doIncrementReferenceCount(key);
         return count;
     }
 
+    /**
+     * 指定したセルへのアクセスを開始する.
+     * 参照カウントをインクリメントした後に処理ステータスを確認し、一括削除中の場合はインクリメントを取り消す.
+     * 確認より先にインクリメントするため、一括削除中への変更が反映される前に受け付けたアクセスは、
+     * {@link #getCellStatusPropagationInMillis()}が経過するまでに必ず参照カウントに含まれる.
+     * @param cellId 対象のセルID
+     * @return アクセスを開始した場合はtrue、一括削除中の場合はfalse
+     */
+    public static boolean tryIncrementReferenceCount(String cellId) {
+        incrementReferenceCount(cellId);
+        if (getCellStatus(cellId) == CELL_STATUS_BULK_DELETION) {
+            decrementReferenceCount(cellId);
+            return false;
+        }
+        return true;
+    }
+
     /**
      * 指定したセルの参照カウントをデクリメントする.
+     * ローカルで数える場合は自ノード内のアクセス数のみを減らし、ロックストアへは後から反映する.
      * @param cellId 対象のセルID
-     * @return デクリメント後の参照カウントの値
+     * @return デクリメント後の参照カウントの値(ローカルで数える場合は自ノード内の値)
      */
     public static long decrementReferenceCount(String cellId) {
         String key =  REFERENCE_COUNT_PREFIX + cellId;
-        long count = singleton.doDecrementReferenceCount(key);
+        long count;
+        CellAccessCounter counter = CellAccessCounter.getInstance();
+        if (counter.isEnabled()) {
+            count = counter.add(key, -1, REFERENCE_COUNT_PUBLISHER);
+        } else {
+            count = singleton.doDecrementReferenceCount(key);
+        }
         if (count < 0) {
             count = 0;
         }
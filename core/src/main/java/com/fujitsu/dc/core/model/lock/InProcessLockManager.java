@@ -16,15 +16,19 @@
  */
 package com.fujitsu.dc.core.model.lock;
 
+import java.util.Collection;
 import java.util.HashMap;
 import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
 
 /**
  * InProcessのLockManager.
+ * 複数スレッドから同時に呼び出されるため、単独の操作はConcurrentMapで、読み込みと書き込みを伴う操作は同期化して行う.
  */
 class InProcessLockManager extends LockManager {
-    Map<String, Object> inProcessLock = new HashMap<String, Object>();
-    Map<String, AccountLock> inProcessAccountLock = new HashMap<String, AccountLock>();
+    ConcurrentMap<String, Object> inProcessLock = new ConcurrentHashMap<String, Object>();
+    ConcurrentMap<String, AccountLock> inProcessAccountLock = new ConcurrentHashMap<String, AccountLock>();
 
     @Override
     Lock doGetLock(String fullKey) {
@@ -32,13 +36,8 @@ class InProcessLockManager extends LockManager {
     }
 
     @Override
-    synchronized Boolean doPutLock(String fullKey, Lock lock) {
-        if (inProcessLock.get(fullKey) == null) {
-            inProcessLock.put(fullKey, lock);
-            return Boolean.TRUE;
-        } else {
-            return Boolean.FALSE;
-        }
+    Boolean doPutLock(String fullKey, Lock lock) {
+        return inProcessLock.putIfAbsent(fullKey, lock) == null;
     }
 
     @Override
@@ -47,7 +46,7 @@ class InProcessLockManager extends LockManager {
     }
 
     @Override
-    void doDeleteAllLocks() {
+    synchronized void doDeleteAllLocks() {
         inProcessLock.clear();
     }
 
@@ -58,12 +57,7 @@ class InProcessLockManager extends LockManager {
 
     @Override
     Boolean doPutReferenceOnlyLock(String fullKey, String value) {
-        if (inProcessLock.get(fullKey) == null) {
-            inProcessLock.put(fullKey, value);
-            return Boolean.TRUE;
-        } else {
-            return Boolean.FALSE;
-        }
+        return inProcessLock.putIfAbsent(fullKey, value) == null;
     }
 
     @Override
@@ -88,16 +82,11 @@ class InProcessLockManager extends LockManager {
 
     @Override
     Boolean doPutUnituserLock(String fullKey, String value, int expired) {
-        if (inProcessLock.get(fullKey) == null) {
-            inProcessLock.put(fullKey, value);
-            return Boolean.TRUE;
-        } else {
-            return Boolean.FALSE;
-        }
+        return inProcessLock.putIfAbsent(fullKey, value) == null;
     }
 
     @Override
-    long doGetReferenceCount(String fullKey) {
+    synchronized long doGetReferenceCount(String fullKey) {
         Long value = -1L;
         if (inProcessLock.containsKey(fullKey)) {
             value = (Long) inProcessLock.get(fullKey);
@@ -106,7 +95,7 @@ class InProcessLockManager extends LockManager {
     }
 
     @Override
-    long doIncrementReferenceCount(String fullKey) {
+    synchronized long doIncrementReferenceCount(String fullKey) {
         Long value = 1L;
         if (inProcessLock.containsKey(fullKey)) {
             value = (Long) inProcessLock.get(fullKey);
@@ -117,7 +106,7 @@ class InProcessLockManager extends LockManager {
     }
 
     @Override
-    long doDecrementReferenceCount(String fullKey) {
+    synchronized long doDecrementReferenceCount(String fullKey) {
         Long value = 0L;
         if (inProcessLock.containsKey(fullKey)) {
             value = (Long) inProcessLock.get(fullKey);
@@ -131,7 +120,20 @@ class InProcessLockManager extends LockManager {
     }
 
     @Override
-    long doGetCellStatus(String fullKey) {
+    synchronized void doAddReferenceCount(String fullKey, long delta) {
+        Long value = delta;
+        if (inProcessLock.containsKey(fullKey)) {
+            value = (Long) inProcessLock.get(fullKey) + delta;
+        }
+        if (value > 0) {
+            inProcessLock.put(fullKey, value);
+        } else {
+            inProcessLock.remove(fullKey);
+        }
+    }
+
+    @Override
+    synchronized long doGetCellStatus(String fullKey) {
         Long value = -1L;
         if (inProcessLock.containsKey(fullKey)) {
             value = (Long) inProcessLock.get(fullKey);
@@ -140,18 +142,18 @@ class InProcessLockManager extends LockManager {
     }
 
     @Override
-    Boolean doSetCellStatus(String fullKey, long status) {
+    synchronized Boolean doSetCellStatus(String fullKey, long status) {
         inProcessLock.put(fullKey, status);
         return true;
     }
 
     @Override
-    void doDeleteCellStatus(String fullKey) {
+    synchronized void doDeleteCellStatus(String fullKey) {
         inProcessLock.remove(fullKey);
     }
 
     @Override
-    String doGetReadDeleteOnlyMode(String fullKey) {
+    synchronized String doGetReadDeleteOnlyMode(String fullKey) {
         String value = null;
         if (inProcessLock.containsKey(fullKey)) {
             value = (String) inProcessLock.get(fullKey);
@@ -159,6 +161,18 @@ class InProcessLockManager extends LockManager {
         return value;
     }
 
+    @Override
+    synchronized Map<String, Object> doGetBulk(Collection<String> fullKeys) {
+        Map<String, Object> values = new HashMap<String, Object>();
+        for (String fullKey : fullKeys) {
+            Object value = inProcessLock.get(fullKey);
+            if (value != null) {
+                values.put(fullKey, value);
+            }
+        }
+        return values;
+    }
+
     /**
      * InProcessでのAccountLock用の情報を保持するクラス.
      */
@@ -0,0 +1,129 @@
+/**
+ * personium.io
+ * Copyright 2014 FUJITSU LIMITED
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.fujitsu.dc.core.model.lock;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * 同一プロセス内でのロック待ちを管理するキュー.
+ * <p>
+ * キー毎に公平な(到着順に取得できる)許可を1つ持ち、同一プロセス内のスレッドはロックストアへ問い合わせる前にこれを取得する。
+ * 許可が解放されると待機中の先頭のスレッドへ通知されるため、プロセス内の競合ではロックストアへのポーリングが発生しない。
+ * </p>
+ */
+final class LocalLockQueue {
+
+    private Map<String, Gate> gates = new HashMap<String, Gate>();
+
+    /**
+     * 指定キーの許可を取得する.
+     * @param fullKey ロックのキー
+     * @param deadlineNanos 待機の期限({@link System#nanoTime()}基準)
+     * @return 取得した許可. 期限までに取得できなかった場合はnull
+     * @throws InterruptedException 待機中に割り込まれた場合
+     */
+    Holder acquire(String fullKey, long deadlineNanos) throws InterruptedException {
+        Gate gate = enter(fullKey);
+        boolean acquired = false;
+        try {
+            boolean contended = false;
+            if (!gate.permit.tryAcquire()) {
+                contended = true;
+                long remaining = deadlineNanos - System.nanoTime();
+                if (remaining <= 0 || !gate.permit.tryAcquire(remaining, TimeUnit.NANOSECONDS)) {
+                    return null;
+                }
+            }
+            acquired = true;
+            return new Holder(this, gate, contended);
+        } finally {
+            if (!acquired) {
+                leave(gate);
+            }
+        }
+    }
+
+    /**
+     * 全ての許可を破棄する. 保持中の許可は解放されても新たな待機者には影響しない.
+     */
+    synchronized void clear() {
+        this.gates = new HashMap<String, Gate>();
+    }
+
+    private synchronized Gate enter(String fullKey) {
+        Gate gate = this.gates.get(fullKey);
+        if (gate == null) {
+            gate = new Gate(fullKey);
+            this.gates.put(fullKey, gate);
+        }
+        gate.users++;
+        return gate;
+    }
+
+    private synchronized void leave(Gate gate) {
+        gate.users--;
+        if (gate.users == 0 && this.gates.get(gate.fullKey) == gate) {
+            this.gates.remove(gate.fullKey);
+        }
+    }
+
+    /**
+     * キー毎の許可と、それを保持・待機しているスレッド数.
+     */
+    private static final class Gate {
+        private final String fullKey;
+        private final Semaphore permit = new Semaphore(1, true);
+        private int users;
+
+        Gate(String fullKey) {
+            this.fullKey = fullKey;
+        }
+    }
+
+    /**
+     * 取得した許可.
+     */
+    static final class Holder {
+        private final LocalLockQueue queue;
+        private final Gate gate;
+        private final boolean contended;
+
+        Holder(LocalLockQueue queue, Gate gate, boolean contended) {
+            this.queue = queue;
+            this.gate = gate;
+            this.contended = contended;
+        }
+
+        /**
+         * @return 取得までに他のスレッドを待ったか否か
+         */
+        boolean isContended() {
+            return this.contended;
+        }
+
+        /**
+         * 許可を解放し、待機中の先頭のスレッドへ通知する.
+         */
+        void release() {
+            this.gate.permit.release();
+            this.queue.leave(this.gate);
+        }
+    }
+}
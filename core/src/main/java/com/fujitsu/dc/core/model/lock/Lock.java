@@ -34,6 +34,11 @@ public class Lock implements Serializable {
      */
     public static final String CATEGORY_DAV = "dav";
 
+    /**
+     * Box内のDavのMOVEを直列化するときに使うLockカテゴリ.
+     */
+    public static final String CATEGORY_DAV_MOVE = "davMove";
+
     /**
      * Cellを扱うときに使うLockカテゴリ.
      */
@@ -46,6 +51,10 @@ public class Lock implements Serializable {
 
     String fullKey;
     Long createdAt;
+    /** 同一プロセス内の待ち行列で取得した許可. */
+    transient LocalLockQueue.Holder holder;
+    /** ロックストアで他プロセスとの競合があったか否か. */
+    transient boolean contended;
 
     /**
      * コンストラクタ(非公開).
@@ -60,6 +69,18 @@ public class Lock implements Serializable {
      * ロックをリリースします.
      */
     public void release() {
-        LockManager.releaseLock(this.fullKey);
+        LocalLockQueue.Holder localHolder;
+        synchronized (this) {
+            localHolder = this.holder;
+            this.holder = null;
+        }
+        try {
+            LockManager.releaseLock(this.fullKey);
+        } finally {
+            // ロックストアから削除した後に、同一プロセス内で待機している次のスレッドへ通知する
+            if (localHolder != null) {
+                localHolder.release();
+            }
+        }
     }
 }
@@ -16,7 +16,14 @@
  */
 package com.fujitsu.dc.core.model.lock;
 
+import java.util.ArrayList;
+import java.util.Collection;
 import java.util.Date;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeSet;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
 
 import com.fujitsu.dc.core.DcCoreConfig;
 import com.fujitsu.dc.core.DcCoreException;
@@ -32,6 +39,8 @@ public abstract class LockManager {
     static volatile String lockType = DcCoreConfig.getLockType();
     static volatile long lockRetryInterval = Long.valueOf(DcCoreConfig.getLockRetryInterval());
     static volatile int lockRetryTimes = Integer.valueOf(DcCoreConfig.getLockRetryTimes());
+    static volatile long lockRetryBackoffInitial = DcCoreConfig.getLockRetryBackoffInitialInMillis();
+    static volatile long lockRetryBackoffMax = DcCoreConfig.getLockRetryBackoffMaxInMillis();
     static volatile String lockMemcachedHost = DcCoreConfig.getLockMemcachedHost();
     static volatile String lockMemcachedPort = DcCoreConfig.getLockMemcachedPort();
     static volatile int accountLockLifeTime = Integer.valueOf(DcCoreConfig.getAccountLockLifetime());
@@ -71,6 +80,8 @@ public abstract class LockManager {
 
     abstract long doDecrementReferenceCount(String fullKey);
 
+    abstract void doAddReferenceCount(String fullKey, long delta);
+
     abstract long doGetCellStatus(String fullKey);
 
     abstract Boolean doSetCellStatus(String fullKey, long status);
@@ -79,6 +90,18 @@ public abstract class LockManager {
 
     abstract String doGetReadDeleteOnlyMode(String fullKey);
 
+    abstract Map<String, Object> doGetBulk(Collection<String> fullKeys);
+
+    /**
+     * 同一プロセス内でのロック待ちのキュー.
+     */
+    static final LocalLockQueue LOCAL_QUEUE = new LocalLockQueue();
+
+    /**
+     * スレッドごとの最後にロックを取得した時刻({@link System#nanoTime()}基準).
+     */
+    private static final ThreadLocal<Long> LAST_ACQUIRED_AT = new ThreadLocal<Long>();
+
     static {
         if (TYPE_MEMCACHED.equals(lockType)) {
             singleton = new MemcachedLockManager();
@@ -89,6 +112,9 @@ public abstract class LockManager {
 
     /**
      * ロックを取得します.
+     * 同一プロセス内の競合はキー毎の待ち行列に並んで解放の通知を待ち、
+     * 他プロセスとの競合はジッタ付きの指数バックオフでロックストアへ再試行する.
+     * 待ち時間の上限はリトライ回数×リトライ間隔.
      * @param category ロックのカテゴリ
      * @param cellId CellのID
      * @param boxId BoxのID
@@ -96,13 +122,83 @@ public abstract class LockManager {
      * @return Lock
      */
     public static Lock getLock(String category, String cellId, String boxId, String nodeId) {
+        String fullKey = LockKeyComposer.fullKeyFromCategoryAndKey(category, cellId, boxId, nodeId);
+        return getLockWithFullKey(category, fullKey);
+    }
+
+    /**
+     * 複数のロックをまとめて取得します.
+     * 複数のロックを取得する処理同士でデッドロックしないよう、キーの昇順に取得する.
+     * いずれかのロックを取得できなかった場合は、取得済みのロックを解放する.
+     * @param category 統計に記録するロックのカテゴリ
+     * @param fullKeys ロックのキー({@link LockKeyComposer}で生成したもの)
+     * @return 取得した全てのロックをまとめたLock
+     */
+    public static Lock getLocks(String category, Collection<String> fullKeys) {
+        List<Lock> locks = new ArrayList<Lock>();
+        boolean acquired = false;
+        try {
+            for (String fullKey : new TreeSet<String>(fullKeys)) {
+                locks.add(getLockWithFullKey(category, fullKey));
+            }
+            acquired = true;
+            return new MultiLock(locks);
+        } finally {
+            if (!acquired) {
+                new MultiLock(locks).release();
+            }
+        }
+    }
+
+    private static Lock getLockWithFullKey(String category, String fullKey) {
         Long createdAt = (new Date()).getTime();
+        long start = System.nanoTime();
+        long deadline = start + TimeUnit.MILLISECONDS.toNanos(lockRetryTimes * lockRetryInterval);
+
+        // 同一プロセス内の待ち行列に並ぶ
+        LocalLockQueue.Holder holder;
+        try {
+            holder = LOCAL_QUEUE.acquire(fullKey, deadline);
+        } catch (InterruptedException e) {
+            throw DcCoreException.Server.DATA_STORE_UNKNOWN_ERROR.reason(e);
+        }
+        if (holder == null) {
+            LockMetrics.recordTimeout(category, elapsedMillis(start));
+            throw DcCoreException.Misc.TOO_MANY_CONCURRENT_REQUESTS;
+        }
+
+        boolean acquired = false;
+        try {
+            Lock lock = acquireFromStore(fullKey, createdAt, deadline);
+            if (lock == null) {
+                LockMetrics.recordTimeout(category, elapsedMillis(start));
+                throw DcCoreException.Misc.TOO_MANY_CONCURRENT_REQUESTS;
+            }
+            lock.holder = holder;
+            acquired = true;
+            LAST_ACQUIRED_AT.set(System.nanoTime());
+            LockMetrics.recordAcquired(category, elapsedMillis(start), holder.isContended() || lock.contended);
+            return lock;
+        } finally {
+            if (!acquired) {
+                holder.release();
+            }
+        }
+    }
+
+    /**
+     * ロックストアにロックを書き込む. 他プロセスが保持している場合はバックオフしながら再試行する.
+     * @param fullKey ロックのキー
+     * @param createdAt ロックの作成日時
+     * @param deadline 再試行の期限({@link System#nanoTime()}基準)
+     * @return Lock. 期限までに取得できなかった場合はnull
+     */
+    private static Lock acquireFromStore(String fullKey, Long createdAt, long deadline) {
         // memcached にキーが存在するか調べる
         // なければmemcached に書きに行く
-        // あったら、リトライする。
+        // あったら、バックオフしてリトライする。
         int timesRetry = 0;
         while (timesRetry <= lockRetryTimes) {
-            String fullKey = LockKeyComposer.fullKeyFromCategoryAndKey(category, cellId, boxId, nodeId);
             Lock lock = null;
             try {
                 lock = singleton.doGetLock(fullKey);
@@ -114,17 +210,47 @@ public abstract class LockManager {
                 lock = new Lock(fullKey, createdAt);
                 Boolean success = singleton.doPutLock(fullKey, lock);
                 if (success) {
+                    lock.contended = timesRetry > 0;
                     return lock;
                 }
             }
+            long remaining = TimeUnit.NANOSECONDS.toMillis(deadline - System.nanoTime());
+            if (remaining <= 0) {
+                break;
+            }
             try {
-                Thread.sleep(lockRetryInterval);
+                Thread.sleep(Math.min(backoff(timesRetry), remaining));
             } catch (InterruptedException e) {
                 throw DcCoreException.Server.DATA_STORE_UNKNOWN_ERROR.reason(e);
             }
             timesRetry++;
         }
-        throw DcCoreException.Misc.TOO_MANY_CONCURRENT_REQUESTS;
+        return null;
+    }
+
+    /**
+     * 再試行までの待ち時間を返す. 再試行毎に倍増させ、同時に待機している他プロセスと重ならないよう上限の半分以上の範囲で揺らす.
+     * @param timesRetry これまでのリトライ回数
+     * @return 待ち時間(ms)
+     */
+    static long backoff(int timesRetry) {
+        long cap = Math.min(lockRetryBackoffMax, lockRetryBackoffInitial << Math.min(timesRetry, 20));
+        cap = Math.max(cap, 1);
+        long half = cap / 2;
+        return half + ThreadLocalRandom.current().nextLong(cap - half + 1);
+    }
+
+    private static long elapsedMillis(long start) {
+        return TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start);
+    }
+
+    /**
+     * 現在のスレッドが最後にロックを取得した時刻を返す.
+     * ロック取得前に開始されたデータストアへの読み込みは、前のロック保持者の書き込みを反映していない可能性がある.
+     * @return {@link System#nanoTime()}基準の時刻. ロックを取得したことがない場合はnull
+     */
+    public static Long getLastAcquiredNanoTime() {
+        return LAST_ACQUIRED_AT.get();
     }
 
     /*
@@ -140,6 +266,9 @@ public abstract class LockManager {
      */
     public static void deleteAllLocks() {
         singleton.doDeleteAllLocks();
+        LOCAL_QUEUE.clear();
+        LockStateLocalView.getInstance().clear();
+        CellAccessCounter.getInstance().clear();
     }
 
     /**
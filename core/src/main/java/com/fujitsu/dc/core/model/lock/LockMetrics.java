@@ -0,0 +1,193 @@
+/**
+ * personium.io
+ * Copyright 2014 FUJITSU LIMITED
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.fujitsu.dc.core.model.lock;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * ロックのカテゴリ毎の待ち時間・競合の統計.
+ */
+public final class LockMetrics {
+
+    private static final ConcurrentMap<String, Stats> STATS = new ConcurrentHashMap<String, Stats>();
+
+    private LockMetrics() {
+    }
+
+    /**
+     * ロックの取得を記録する.
+     * @param category ロックのカテゴリ
+     * @param waitMillis 取得までの待ち時間(ms)
+     * @param contended 他の保持者を待ったか否か
+     */
+    static void recordAcquired(String category, long waitMillis, boolean contended) {
+        Stats stats = statsOf(category);
+        stats.acquired.incrementAndGet();
+        if (contended) {
+            stats.contended.incrementAndGet();
+        }
+        stats.addWait(waitMillis);
+    }
+
+    /**
+     * ロック取得のタイムアウトを記録する.
+     * @param category ロックのカテゴリ
+     * @param waitMillis タイムアウトまでの待ち時間(ms)
+     */
+    static void recordTimeout(String category, long waitMillis) {
+        Stats stats = statsOf(category);
+        stats.timedOut.incrementAndGet();
+        stats.contended.incrementAndGet();
+        stats.addWait(waitMillis);
+    }
+
+    /**
+     * カテゴリ毎の統計を返す.
+     * @return カテゴリ名と統計のMap
+     */
+    public static Map<String, Snapshot> snapshot() {
+        Map<String, Snapshot> result = new TreeMap<String, Snapshot>();
+        for (Map.Entry<String, Stats> e : STATS.entrySet()) {
+            Stats stats = e.getValue();
+            result.put(e.getKey(), new Snapshot(stats.acquired.get(), stats.contended.get(), stats.timedOut.get(),
+                    stats.totalWaitMillis.get(), stats.maxWaitMillis.get()));
+        }
+        return result;
+    }
+
+    /**
+     * ステータス表示用に、カテゴリ毎の統計を返す.
+     * @return カテゴリ名と統計値のMap
+     */
+    public static Map<String, Object> getStatus() {
+        Map<String, Object> status = new TreeMap<String, Object>();
+        for (Map.Entry<String, Snapshot> e : snapshot().entrySet()) {
+            Snapshot snapshot = e.getValue();
+            Map<String, Object> stats = new HashMap<String, Object>();
+            stats.put("acquired", snapshot.getAcquired());
+            stats.put("contended", snapshot.getContended());
+            stats.put("timedOut", snapshot.getTimedOut());
+            stats.put("totalWaitInMillis", snapshot.getTotalWaitMillis());
+            stats.put("maxWaitInMillis", snapshot.getMaxWaitMillis());
+            status.put(e.getKey(), stats);
+        }
+        return status;
+    }
+
+    /**
+     * 統計を全て破棄する.
+     */
+    public static void reset() {
+        STATS.clear();
+    }
+
+    private static Stats statsOf(String category) {
+        Stats stats = STATS.get(category);
+        if (stats == null) {
+            Stats created = new Stats();
+            stats = STATS.putIfAbsent(category, created);
+            if (stats == null) {
+                stats = created;
+            }
+        }
+        return stats;
+    }
+
+    /**
+     * 1カテゴリ分の統計値.
+     */
+    private static final class Stats {
+        private final AtomicLong acquired = new AtomicLong();
+        private final AtomicLong contended = new AtomicLong();
+        private final AtomicLong timedOut = new AtomicLong();
+        private final AtomicLong totalWaitMillis = new AtomicLong();
+        private final AtomicLong maxWaitMillis = new AtomicLong();
+
+        void addWait(long waitMillis) {
+            this.totalWaitMillis.addAndGet(waitMillis);
+            long max = this.maxWaitMillis.get();
+            while (waitMillis > max && !this.maxWaitMillis.compareAndSet(max, waitMillis)) {
+                max = this.maxWaitMillis.get();
+            }
+        }
+    }
+
+    /**
+     * ある時点の統計値.
+     */
+    public static final class Snapshot {
+        private final long acquired;
+        private final long contended;
+        private final long timedOut;
+        private final long totalWaitMillis;
+        private final long maxWaitMillis;
+
+        Snapshot(long acquired, long contended, long timedOut, long totalWaitMillis, long maxWaitMillis) {
+            this.acquired = acquired;
+            this.contended = contended;
+            this.timedOut = timedOut;
+            this.totalWaitMillis = totalWaitMillis;
+            this.maxWaitMillis = maxWaitMillis;
+        }
+
+        /**
+         * @return 取得できた回数
+         */
+        public long getAcquired() {
+            return this.acquired;
+        }
+
+        /**
+         * @return 他の保持者を待った回数(タイムアウトを含む)
+         */
+        public long getContended() {
+            return this.contended;
+        }
+
+        /**
+         * @return タイムアウトした回数
+         */
+        public long getTimedOut() {
+            return this.timedOut;
+        }
+
+        /**
+         * @return 待ち時間の合計(ms)
+         */
+        public long getTotalWaitMillis() {
+            return this.totalWaitMillis;
+        }
+
+        /**
+         * @return 待ち時間の最大値(ms)
+         */
+        public long getMaxWaitMillis() {
+            return this.maxWaitMillis;
+        }
+
+        @Override
+        public String toString() {
+            return "acquired=" + this.acquired + ", contended=" + this.contended + ", timedOut=" + this.timedOut
+                    + ", totalWaitMillis=" + this.totalWaitMillis + ", maxWaitMillis=" + this.maxWaitMillis;
+        }
+    }
+}
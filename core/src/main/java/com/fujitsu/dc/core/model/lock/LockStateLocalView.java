@@ -0,0 +1,321 @@
+/**
+ * personium.io
+ * Copyright 2014 FUJITSU LIMITED
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.fujitsu.dc.core.model.lock;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.fujitsu.dc.core.DcCoreConfig;
+
+/**
+ * ロックストア上のほとんど変化しない状態値(ReadDeleteOnlyモード、セルの処理ステータス)をローカルに保持するビュー.
+ * <p>
+ * 参照された状態値はバックグラウンドスレッドで一定間隔ごとに再取得されるため、リクエスト処理中にロックストアへアクセスしない。
+ * 再取得が滞った場合でも、リース期間を過ぎた値は使用せず同期的に再取得するため、古さの上限はリース期間となる。
+ * しばらく参照されなかった状態値は破棄する。
+ * 再取得は、まとめて取得できる処理({@link BulkStateLoader})の場合は1回の問い合わせで行う。
+ * </p>
+ */
+final class LockStateLocalView {
+    static Logger log = LoggerFactory.getLogger(LockStateLocalView.class);
+
+    /** 参照されなくなった状態値を破棄するまでの時間(ms). */
+    static final long ENTRY_IDLE_IN_MILLIS = 60000L;
+
+    private static LockStateLocalView instance = new LockStateLocalView(
+            DcCoreConfig.isLockLocalViewEnabled(),
+            DcCoreConfig.getLockLocalViewRefreshIntervalInMillis(),
+            DcCoreConfig.getLockLocalViewLeaseInMillis());
+
+    /**
+     * ロックストアから状態値を取得する処理.
+     */
+    interface StateLoader {
+        /**
+         * 状態値を取得する.
+         * @param fullKey キー
+         * @return 状態値
+         */
+        long load(String fullKey);
+    }
+
+    /**
+     * ロックストアから複数の状態値をまとめて取得する処理.
+     */
+    interface BulkStateLoader extends StateLoader {
+        /**
+         * 状態値をまとめて取得する.
+         * @param fullKeys キー
+         * @return キーと状態値のMap. 全てのキーを含む
+         */
+        Map<String, Long> loadAll(Collection<String> fullKeys);
+    }
+
+    private final boolean enabled;
+    private final long refreshIntervalInMillis;
+    private final long leaseInMillis;
+    private final ConcurrentMap<String, Entry> entries = new ConcurrentHashMap<String, Entry>();
+    private volatile ScheduledExecutorService refresher;
+
+    /**
+     * コンストラクタ.
+     * @param enabled ローカルビューを使用するか否か
+     * @param refreshIntervalInMillis 再取得間隔(ms)
+     * @param leaseInMillis 保持した値を使用できる期間(ms)
+     */
+    LockStateLocalView(boolean enabled, long refreshIntervalInMillis, long leaseInMillis) {
+        this.enabled = enabled;
+        this.refreshIntervalInMillis = refreshIntervalInMillis;
+        this.leaseInMillis = Math.max(leaseInMillis, refreshIntervalInMillis);
+    }
+
+    /**
+     * @return インスタンス
+     */
+    static LockStateLocalView getInstance() {
+        return instance;
+    }
+
+    /**
+     * 状態値を取得する. リース期間内の値を保持している場合はロックストアへアクセスしない.
+     * @param fullKey キー
+     * @param loader ロックストアから状態値を取得する処理
+     * @return 状態値
+     */
+    long get(String fullKey, StateLoader loader) {
+        if (!this.enabled) {
+            return loader.load(fullKey);
+        }
+        startRefresher();
+        long now = System.currentTimeMillis();
+        Entry entry = this.entries.get(fullKey);
+        if (entry != null && entry.isValid(now, this.leaseInMillis)) {
+            entry.lastAccess = now;
+            return entry.value;
+        }
+
+        if (entry == null) {
+            Entry created = new Entry(loader);
+            entry = this.entries.putIfAbsent(fullKey, created);
+            if (entry == null) {
+                entry = created;
+            }
+        }
+        long version = entry.currentVersion();
+        long value = loader.load(fullKey);
+        entry.update(value, version, now);
+        entry.lastAccess = now;
+        return value;
+    }
+
+    /**
+     * 状態値の変更を即時に反映する.
+     * ロックストアへの書き込み後に呼び出すことで、自ノードでは次回のバックグラウンド再取得を待たずに変更が見える.
+     * @param fullKey キー
+     * @param value 状態値
+     * @param loader ロックストアから状態値を取得する処理
+     */
+    void push(String fullKey, long value, StateLoader loader) {
+        if (!this.enabled) {
+            return;
+        }
+        Entry created = new Entry(loader);
+        Entry entry = this.entries.putIfAbsent(fullKey, created);
+        if (entry == null) {
+            entry = created;
+        }
+        entry.overwrite(value, System.currentTimeMillis());
+    }
+
+    /**
+     * 指定キーの状態値をロックストアから即時に再取得する.
+     * @param fullKey キー
+     * @param loader ロックストアから状態値を取得する処理
+     * @return 状態値
+     */
+    long reload(String fullKey, StateLoader loader) {
+        long value = loader.load(fullKey);
+        push(fullKey, value, loader);
+        return value;
+    }
+
+    /**
+     * 保持している状態値を全て破棄する.
+     */
+    void clear() {
+        this.entries.clear();
+    }
+
+    /**
+     * 他ノードが保持している状態値が、ロックストア上の最新の値に追いつくまでの最大時間を返す.
+     * @return 最大時間(ms). ローカルビューを使用しない場合は0
+     */
+    long getStalenessBoundInMillis() {
+        if (!this.enabled) {
+            return 0;
+        }
+        return this.leaseInMillis;
+    }
+
+    /**
+     * 保持している状態値を再取得する. 一定時間参照されていない状態値は破棄する.
+     */
+    void refreshAll() {
+        long now = System.currentTimeMillis();
+        Map<BulkStateLoader, List<String>> bulkKeys = new HashMap<BulkStateLoader, List<String>>();
+        Iterator<Map.Entry<String, Entry>> it = this.entries.entrySet().iterator();
+        while (it.hasNext()) {
+            Map.Entry<String, Entry> e = it.next();
+            Entry entry = e.getValue();
+            if (now - entry.lastAccess > ENTRY_IDLE_IN_MILLIS) {
+                it.remove();
+                continue;
+            }
+            if (entry.loader instanceof BulkStateLoader) {
+                BulkStateLoader loader = (BulkStateLoader) entry.loader;
+                List<String> keys = bulkKeys.get(loader);
+                if (keys == null) {
+                    keys = new ArrayList<String>();
+                    bulkKeys.put(loader, keys);
+                }
+                keys.add(e.getKey());
+                continue;
+            }
+            long version = entry.currentVersion();
+            try {
+                entry.update(entry.loader.load(e.getKey()), version, now);
+            } catch (RuntimeException ex) {
+                // 取得に失敗した場合は保持している値をリース期間内だけ使い続ける
+                log.info("Failed to refresh lock state. key=" + e.getKey(), ex);
+            }
+        }
+        for (Map.Entry<BulkStateLoader, List<String>> e : bulkKeys.entrySet()) {
+            refreshBulk(e.getKey(), e.getValue(), now);
+        }
+    }
+
+    private void refreshBulk(BulkStateLoader loader, List<String> keys, long now) {
+        Map<String, Long> versions = new HashMap<String, Long>();
+        for (String key : keys) {
+            Entry entry = this.entries.get(key);
+            if (entry != null) {
+                versions.put(key, entry.currentVersion());
+            }
+        }
+        Map<String, Long> values;
+        try {
+            values = loader.loadAll(versions.keySet());
+        } catch (RuntimeException ex) {
+            // 取得に失敗した場合は保持している値をリース期間内だけ使い続ける
+            log.info("Failed to refresh lock states. keys=" + versions.keySet(), ex);
+            return;
+        }
+        for (Map.Entry<String, Long> e : versions.entrySet()) {
+            Entry entry = this.entries.get(e.getKey());
+            Long value = values.get(e.getKey());
+            if (entry != null && value != null) {
+                entry.update(value, e.getValue(), now);
+            }
+        }
+    }
+
+    private void startRefresher() {
+        if (this.refresher != null) {
+            return;
+        }
+        synchronized (this) {
+            if (this.refresher != null) {
+                return;
+            }
+            ScheduledExecutorService executor = Executors.newSingleThreadScheduledExecutor(new ThreadFactory() {
+                @Override
+                public Thread newThread(Runnable r) {
+                    Thread thread = new Thread(r, "LockStateLocalViewRefresher");
+                    thread.setDaemon(true);
+                    return thread;
+                }
+            });
+            executor.scheduleWithFixedDelay(new Runnable() {
+                @Override
+                public void run() {
+                    try {
+                        refreshAll();
+                    } catch (RuntimeException e) {
+                        log.info("Failed to refresh lock states.", e);
+                    }
+                }
+            }, this.refreshIntervalInMillis, this.refreshIntervalInMillis, TimeUnit.MILLISECONDS);
+            this.refresher = executor;
+        }
+    }
+
+    /**
+     * ローカルに保持する状態値.
+     */
+    static final class Entry {
+        private final StateLoader loader;
+        private volatile long value;
+        private volatile long fetchedAt = -1;
+        private volatile long lastAccess = System.currentTimeMillis();
+        private long version;
+
+        Entry(StateLoader loader) {
+            this.loader = loader;
+        }
+
+        boolean isValid(long now, long leaseInMillis) {
+            return this.fetchedAt >= 0 && now - this.fetchedAt <= leaseInMillis;
+        }
+
+        synchronized long currentVersion() {
+            return this.version;
+        }
+
+        /**
+         * 取得開始時から変更されていない場合のみ値を更新する.
+         * 取得中に{@link #overwrite(long, long)}された値を古い値で上書きしないため.
+         */
+        synchronized void update(long newValue, long readVersion, long now) {
+            if (readVersion != this.version) {
+                return;
+            }
+            this.value = newValue;
+            this.fetchedAt = now;
+            this.version++;
+        }
+
+        synchronized void overwrite(long newValue, long now) {
+            this.value = newValue;
+            this.fetchedAt = now;
+            this.lastAccess = now;
+            this.version++;
+        }
+    }
+}
@@ -16,6 +16,9 @@
  */
 package com.fujitsu.dc.core.model.lock;
 
+import java.util.Collection;
+import java.util.Map;
+
 import com.fujitsu.dc.core.utils.MemcachedClient;
 
 /**
@@ -87,6 +90,15 @@ class MemcachedLockManager extends LockManager {
         return MemcachedClient.getLockClient().decrementLongValue(fullKey);
     }
 
+    @Override
+    void doAddReferenceCount(String fullKey, long delta) {
+        if (delta > 0) {
+            MemcachedClient.getLockClient().incrementLongValue(fullKey, delta);
+        } else if (delta < 0) {
+            MemcachedClient.getLockClient().decrementLongValue(fullKey, -delta);
+        }
+    }
+
     @Override
     long doGetCellStatus(String fullKey) {
         return MemcachedClient.getLockClient().getLongValue(fullKey);
@@ -107,4 +119,9 @@ class MemcachedLockManager extends LockManager {
     String doGetReadDeleteOnlyMode(String fullKey) {
         return MemcachedClient.getLockClient().get(fullKey, String.class);
     }
+
+    @Override
+    Map<String, Object> doGetBulk(Collection<String> fullKeys) {
+        return MemcachedClient.getLockClient().getBulk(fullKeys);
+    }
 }
@@ -0,0 +1,63 @@
+/**
+ * personium.io
+ * Copyright 2014 FUJITSU LIMITED
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.fujitsu.dc.core.model.lock;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * 複数のロックをまとめたLockオブジェクト.
+ */
+final class MultiLock extends Lock {
+    private static final long serialVersionUID = 1L;
+
+    private final transient List<Lock> locks;
+
+    /**
+     * コンストラクタ.
+     * @param locks 取得済みのロック(取得した順)
+     */
+    MultiLock(List<Lock> locks) {
+        super(locks.isEmpty() ? null : locks.get(0).fullKey, locks.isEmpty() ? null : locks.get(0).createdAt);
+        this.locks = new ArrayList<Lock>(locks);
+    }
+
+    /**
+     * 全てのロックを取得と逆の順にリリースします.
+     */
+    @Override
+    public void release() {
+        List<Lock> targets;
+        synchronized (this) {
+            targets = new ArrayList<Lock>(this.locks);
+            this.locks.clear();
+        }
+        RuntimeException error = null;
+        for (int i = targets.size() - 1; i >= 0; i--) {
+            try {
+                targets.get(i).release();
+            } catch (RuntimeException e) {
+                if (error == null) {
+                    error = e;
+                }
+            }
+        }
+        if (error != null) {
+            throw error;
+        }
+    }
+}
@@ -16,6 +16,10 @@
  */
 package com.fujitsu.dc.core.model.lock;
 
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.Map;
+
 import com.fujitsu.dc.core.DcCoreException;
 import com.fujitsu.dc.core.utils.MemcachedClient.MemcachedClientException;
 
@@ -29,14 +33,54 @@ public abstract class ReadDeleteModeLockManager extends LockManager {
      */
     private static final String LOCK_KEY = "PcsReadDeleteMode";
 
+    /**
+     * ロックストアからPCSの動作モードを取得する処理. ReadDeleteOnlyモードの場合は1、通常状態の場合は0を返す.
+     */
+    private static final LockStateLocalView.StateLoader MODE_LOADER = new LockStateLocalView.BulkStateLoader() {
+        @Override
+        public long load(String fullKey) {
+            if (singleton.doGetReadDeleteOnlyMode(fullKey) != null) {
+                return 1L;
+            }
+            return 0L;
+        }
+
+        @Override
+        public Map<String, Long> loadAll(Collection<String> fullKeys) {
+            Map<String, Object> values = singleton.doGetBulk(fullKeys);
+            Map<String, Long> modes = new HashMap<String, Long>();
+            for (String fullKey : fullKeys) {
+                if (values.get(fullKey) != null) {
+                    modes.put(fullKey, 1L);
+                } else {
+                    modes.put(fullKey, 0L);
+                }
+            }
+            return modes;
+        }
+    };
+
     /**
      * PCSの動作モードの状態確認.
+     * ローカルに保持している状態を返すため、他ノードでの変更は最大でリース期間だけ遅れて反映される.
      * @return TRUE：ReadDeleteOnlyモード状態／FALSE：通常状態
      */
     public static boolean isReadDeleteOnlyMode() {
         try {
-            String response = singleton.doGetReadDeleteOnlyMode(LOCK_KEY);
-            return (response != null);
+            return LockStateLocalView.getInstance().get(LOCK_KEY, MODE_LOADER) != 0L;
+        } catch (MemcachedClientException e) {
+            throw DcCoreException.Server.SERVER_CONNECTION_ERROR;
+        }
+    }
+
+    /**
+     * PCSの動作モードをロックストアから即時に再取得する.
+     * ロックストア上の動作モードを直接変更した後、ローカルの状態へ即時に反映する場合に使用する.
+     * @return TRUE：ReadDeleteOnlyモード状態／FALSE：通常状態
+     */
+    public static boolean reloadReadDeleteOnlyMode() {
+        try {
+            return LockStateLocalView.getInstance().reload(LOCK_KEY, MODE_LOADER) != 0L;
         } catch (MemcachedClientException e) {
             throw DcCoreException.Server.SERVER_CONNECTION_ERROR;
         }
@@ -0,0 +1,68 @@
+/**
+ * personium.io
+ * Copyright 2014 FUJITSU LIMITED
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.fujitsu.dc.core.odata;
+
+import java.util.List;
+
+import org.odata4j.core.OEntity;
+import org.odata4j.edm.EdmEntitySet;
+import org.odata4j.producer.EntitiesResponse;
+
+/**
+ * OData4J の EntitiesResponse に、$inlinecountの件数が正確か概算かの情報を持たせたクラス.
+ */
+public final class DcEntitiesResponse implements EntitiesResponse {
+    private final EntitiesResponse core;
+    private final boolean countExact;
+
+    /**
+     * コンストラクタ.
+     * @param core EntitiesResponse
+     * @param countExact 件数が正確な場合はtrue. 書き込み後の古い件数の場合はfalse
+     */
+    public DcEntitiesResponse(final EntitiesResponse core, final boolean countExact) {
+        this.core = core;
+        this.countExact = countExact;
+    }
+
+    /**
+     * @return 件数が正確な場合はtrue. 書き込み後の古い件数の場合はfalse
+     */
+    public boolean isCountExact() {
+        return this.countExact;
+    }
+
+    @Override
+    public EdmEntitySet getEntitySet() {
+        return this.core.getEntitySet();
+    }
+
+    @Override
+    public List<OEntity> getEntities() {
+        return this.core.getEntities();
+    }
+
+    @Override
+    public Integer getInlineCount() {
+        return this.core.getInlineCount();
+    }
+
+    @Override
+    public String getSkipToken() {
+        return this.core.getSkipToken();
+    }
+}
@@ -998,7 +998,7 @@ public class DcExpressionParser {
         return rt;
     }
 
-    private static String unquote(String singleQuotedValue) {
+    static String unquote(String singleQuotedValue) {
         return singleQuotedValue.substring(1, singleQuotedValue.length() - 1).replace("''", "'");
     }
 
@@ -1074,6 +1074,20 @@ public class DcExpressionParser {
             this.value = value;
         }
 
+        /**
+         * @return type
+         */
+        TokenType getType() {
+            return this.type;
+        }
+
+        /**
+         * @return value
+         */
+        String getValue() {
+            return this.value;
+        }
+
         @Override
         public String toString() {
             return "[" + value + "]";
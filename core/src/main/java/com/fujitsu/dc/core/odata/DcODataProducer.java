@@ -44,8 +44,10 @@ import org.odata4j.core.OEntityId;
 import org.odata4j.core.OEntityKey;
 import org.odata4j.edm.EdmDataServices;
 import org.odata4j.edm.EdmEntitySet;
+import org.odata4j.producer.EntitiesResponse;
 import org.odata4j.producer.EntityResponse;
 import org.odata4j.producer.ODataProducer;
+import org.odata4j.producer.QueryInfo;
 
 import com.fujitsu.dc.core.model.impl.es.doc.EntitySetDocHandler;
 import com.fujitsu.dc.core.rs.odata.BulkRequest;
@@ -109,6 +111,15 @@ public interface DcODataProducer extends ODataProducer {
      */
     void onChange(String entitySetName);
 
+    /**
+     * 一覧取得を実行する. 返却するエンティティ一覧は、参照時に1件ずつOEntityへ変換する.
+     * レスポンスの出力など、エンティティ一覧を1度だけ走査する用途で使用すること.
+     * @param entitySetName エンティティセット名
+     * @param queryInfo クエリ情報
+     * @return EntitiesResponse
+     */
+    EntitiesResponse getEntitiesForStreaming(String entitySetName, QueryInfo queryInfo);
+
     /**
      * バルク登録を実行する.
      * @param metadata スキーマ情報
@@ -36,7 +36,10 @@
  */
 package com.fujitsu.dc.core.odata;
 
+import java.util.Collections;
+import java.util.LinkedHashMap;
 import java.util.List;
+import java.util.Map;
 
 import org.odata4j.expression.BoolCommonExpression;
 import org.odata4j.expression.CommonExpression;
@@ -45,6 +48,7 @@ import org.odata4j.expression.MethodCallExpression;
 import org.odata4j.expression.OrderByExpression;
 import org.odata4j.producer.resources.OptionsQueryParser;
 
+import com.fujitsu.dc.core.DcCoreConfig;
 import com.fujitsu.dc.core.DcCoreException;
 
 /**
@@ -53,6 +57,16 @@ import com.fujitsu.dc.core.DcCoreException;
  */
 public final class DcOptionsQueryParser extends OptionsQueryParser {
 
+    private static final Map<String, List<OrderByExpression>> PARSED_ORDER_BY =
+            new LinkedHashMap<String, List<OrderByExpression>>(16, 0.75f, true) {
+                private static final long serialVersionUID = 1L;
+
+                @Override
+                protected boolean removeEldestEntry(Map.Entry<String, List<OrderByExpression>> eldest) {
+                    return size() > DcCoreConfig.getQueryCacheMaxEntries();
+                }
+            };
+
     /**
      * Orderbyのクエリをパースする.
      * @param orderBy orderbyクエリの値
@@ -62,11 +76,26 @@ public final class DcOptionsQueryParser extends OptionsQueryParser {
         if (orderBy == null) {
             return null;
         }
-        return DcExpressionParser.parseOrderBy(orderBy);
+        if (!DcCoreConfig.isQueryCacheEnabled()) {
+            return DcExpressionParser.parseOrderBy(orderBy);
+        }
+        // パース結果は不変のため、同じ$orderbyのリクエスト間で共有する
+        synchronized (PARSED_ORDER_BY) {
+            List<OrderByExpression> cached = PARSED_ORDER_BY.get(orderBy);
+            if (cached != null) {
+                return cached;
+            }
+        }
+        List<OrderByExpression> parsed = Collections.unmodifiableList(DcExpressionParser.parseOrderBy(orderBy));
+        synchronized (PARSED_ORDER_BY) {
+            PARSED_ORDER_BY.put(orderBy, parsed);
+        }
+        return parsed;
     }
 
     /**
      * Filterのクエリをパースする.
+     * クエリのキャッシュが有効な場合は、リテラルをパラメータとして取り出した{@link ParameterizedFilter}を返す.
      * @param filter filterクエリの値
      * @return パース結果
      */
@@ -74,6 +103,21 @@ public final class DcOptionsQueryParser extends OptionsQueryParser {
         if (filter == null) {
             return null;
         }
+        if (DcCoreConfig.isQueryCacheEnabled()) {
+            ParameterizedFilter parameterized = ParameterizedFilter.of(filter);
+            if (parameterized != null) {
+                return parameterized;
+            }
+        }
+        return parseFilterExpression(filter);
+    }
+
+    /**
+     * Filterのクエリを式にパースする.
+     * @param filter filterクエリの値
+     * @return パース結果
+     */
+    static BoolCommonExpression parseFilterExpression(String filter) {
         CommonExpression ce = DcExpressionParser.parse(filter);
         if (ce instanceof BoolCommonExpression) {
             return (BoolCommonExpression) ce;
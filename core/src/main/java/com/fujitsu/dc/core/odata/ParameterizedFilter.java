@@ -0,0 +1,217 @@
+/**
+ * personium.io
+ * Copyright 2014 FUJITSU LIMITED
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.fujitsu.dc.core.odata;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.odata4j.expression.BoolCommonExpression;
+import org.odata4j.expression.ExpressionParser.TokenType;
+import org.odata4j.expression.ExpressionVisitor;
+
+import com.fujitsu.dc.core.DcCoreConfig;
+import com.fujitsu.dc.core.DcCoreException;
+import com.fujitsu.dc.core.odata.DcExpressionParser.Token;
+
+/**
+ * 文字列リテラルと整数リテラルをパラメータとして取り出した$filter.
+ * <p>
+ * $filterをトークンに分割し、リテラルをプレースホルダに置き換えた文字列をクエリの形とする。
+ * リテラルの値はパース結果に影響しないため、一度パースできた形は値が異なってもパースできる。
+ * そのため同じ形の2回目以降はパースを行わず、式が必要になった時点で初めてパースする。
+ * ESクエリへの変換では、形をキーとして変換結果を再利用し、パラメータの値だけを当てはめる。
+ * </p>
+ */
+public final class ParameterizedFilter implements BoolCommonExpression {
+
+    private static final char PLACEHOLDER = '\u0000';
+
+    private static final Map<String, Boolean> PARSED_SHAPES = createShapeMap(DcCoreConfig.getQueryCacheMaxEntries());
+
+    private final String filter;
+    private final String shape;
+    private final List<Object> parameters;
+    private volatile BoolCommonExpression expression;
+
+    private ParameterizedFilter(String filter, String shape, List<Object> parameters,
+            BoolCommonExpression expression) {
+        this.filter = filter;
+        this.shape = shape;
+        this.parameters = Collections.unmodifiableList(parameters);
+        this.expression = expression;
+    }
+
+    /**
+     * $filterからパラメータを取り出す.
+     * 初めての形の場合はその場でパースし、パースできない場合は例外をスローする.
+     * @param filter $filterの値
+     * @return パラメータ化した$filter. リテラルを取り出せない場合はnull
+     */
+    static ParameterizedFilter of(String filter) {
+        List<Object> parameters = new ArrayList<Object>();
+        String shape = toShape(filter, parameters);
+        if (shape == null) {
+            return null;
+        }
+        synchronized (PARSED_SHAPES) {
+            if (PARSED_SHAPES.containsKey(shape)) {
+                return new ParameterizedFilter(filter, shape, parameters, null);
+            }
+        }
+        BoolCommonExpression parsed = DcOptionsQueryParser.parseFilterExpression(filter);
+        synchronized (PARSED_SHAPES) {
+            PARSED_SHAPES.put(shape, Boolean.TRUE);
+        }
+        return new ParameterizedFilter(filter, shape, parameters, parsed);
+    }
+
+    /**
+     * $filterをトークンに分割し、リテラルをプレースホルダに置き換えた形を返す.
+     * @param filter $filterの値
+     * @param parameters 取り出したリテラルの値(String, Integer, Long)の格納先
+     * @return クエリの形. トークンに分割できない場合はnull
+     */
+    static String toShape(String filter, List<Object> parameters) {
+        if (filter.indexOf(PLACEHOLDER) >= 0) {
+            return null;
+        }
+        List<Token> tokens;
+        try {
+            tokens = DcExpressionParser.tokenize(filter);
+        } catch (RuntimeException e) {
+            // 分割できない$filterは通常のパースでエラーとする
+            return null;
+        }
+        StringBuilder shape = new StringBuilder();
+        for (int i = 0; i < tokens.size(); i++) {
+            Token token = tokens.get(i);
+            Token prev = null;
+            if (i > 0) {
+                prev = tokens.get(i - 1);
+            }
+            Token next = null;
+            if (i < tokens.size() - 1) {
+                next = tokens.get(i + 1);
+            }
+            Object parameter = null;
+            if (token.getType() == TokenType.QUOTED_STRING
+                    && (prev == null || prev.getType() != TokenType.WORD)) {
+                // datetime'...'等の型指定付きリテラルはパラメータにしない
+                parameter = DcExpressionParser.unquote(token.getValue());
+            } else if (token.getType() == TokenType.NUMBER && isSeparator(prev) && isSeparator(next)) {
+                // 1.5や1234L等、複数トークンからなる数値リテラルはパラメータにしない
+                parameter = toIntegral(token.getValue());
+            }
+            if (parameter == null) {
+                shape.append(token.getValue());
+            } else {
+                parameters.add(parameter);
+                shape.append(PLACEHOLDER).append(parameter.getClass().getSimpleName().charAt(0));
+            }
+        }
+        return shape.toString();
+    }
+
+    private static boolean isSeparator(Token token) {
+        return token == null
+                || token.getType() == TokenType.WHITESPACE
+                || token.getType() == TokenType.OPENPAREN
+                || token.getType() == TokenType.CLOSEPAREN
+                || (token.getType() == TokenType.SYMBOL && ",".equals(token.getValue()));
+    }
+
+    /**
+     * パーサーと同じ規則で整数リテラルの値を返す.
+     * @param value トークンの値
+     * @return Integer、Integerに収まらない場合はLong. Longにも収まらない場合はnull
+     */
+    private static Object toIntegral(String value) {
+        try {
+            return Integer.parseInt(value);
+        } catch (NumberFormatException e) {
+            try {
+                return Long.parseLong(value);
+            } catch (NumberFormatException e1) {
+                return null;
+            }
+        }
+    }
+
+    private static Map<String, Boolean> createShapeMap(final int maxEntries) {
+        return new LinkedHashMap<String, Boolean>(16, 0.75f, true) {
+            private static final long serialVersionUID = 1L;
+
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<String, Boolean> eldest) {
+                return size() > maxEntries;
+            }
+        };
+    }
+
+    /**
+     * @return $filterの値
+     */
+    public String getFilter() {
+        return this.filter;
+    }
+
+    /**
+     * @return リテラルをプレースホルダに置き換えたクエリの形
+     */
+    public String getShape() {
+        return this.shape;
+    }
+
+    /**
+     * @return 出現順のリテラルの値(String, Integer, Long)
+     */
+    public List<Object> getParameters() {
+        return this.parameters;
+    }
+
+    /**
+     * パース結果を返す. 未パースの場合はここでパースする.
+     * @return パース結果
+     */
+    public BoolCommonExpression getExpression() {
+        BoolCommonExpression parsed = this.expression;
+        if (parsed == null) {
+            try {
+                parsed = DcOptionsQueryParser.parseFilterExpression(this.filter);
+            } catch (DcCoreException e) {
+                throw e;
+            } catch (Exception e) {
+                throw DcCoreException.OData.FILTER_PARSE_ERROR.reason(e);
+            }
+            this.expression = parsed;
+        }
+        return parsed;
+    }
+
+    @Override
+    public void visit(ExpressionVisitor visitor) {
+        getExpression().visit(visitor);
+    }
+
+    @Override
+    public String toString() {
+        return this.filter;
+    }
+}
@@ -35,6 +35,7 @@ public class DcCoreApplication extends Application {
         try {
             TransCellAccessToken.configureX509(DcCoreConfig.getX509PrivateKey(), DcCoreConfig.getX509Certificate(),
                     DcCoreConfig.getX509RootCertificate());
+            TransCellAccessToken.configureVerifiedTokenCache(DcCoreConfig.getTransCellTokenCacheMaxEntries());
             LocalToken.setKeyString(DcCoreConfig.getTokenSecretKey());
         } catch (Exception e) {
             DcCoreLog.Server.FAILED_TO_START_SERVER.reason(e).writeLog();
@@ -83,12 +83,10 @@ public class FacadeResource {
             throw DcCoreException.Dav.CELL_NOT_FOUND;
         }
 
-        long cellStatus = CellLockManager.getCellStatus(cell.getId());
-        if (cellStatus == CellLockManager.CELL_STATUS_BULK_DELETION) {
+        // 一括削除中のセルへはアクセスさせない
+        if (!CellLockManager.tryIncrementReferenceCount(cell.getId())) {
             throw DcCoreException.Dav.CELL_NOT_FOUND;
         }
-
-        CellLockManager.incrementReferenceCount(cell.getId());
         httpServletRequest.setAttribute("cellId", cell.getId());
         return new CellResource(ac);
     }
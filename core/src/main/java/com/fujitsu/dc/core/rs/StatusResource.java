@@ -32,6 +32,8 @@ import org.slf4j.LoggerFactory;
 import com.fujitsu.dc.common.es.EsClient;
 import com.fujitsu.dc.core.DcCoreConfig;
 import com.fujitsu.dc.core.model.impl.es.EsModel;
+import com.fujitsu.dc.core.model.lock.LockMetrics;
+import com.fujitsu.dc.core.model.lock.ReadDeleteModeLockManager;
 
 /**
  * StatusResourceに対応するJAX-RS Resource クラス.
@@ -72,8 +74,12 @@ public class StatusResource {
         EsClient client = EsModel.client();
         JSONObject esJson = new JSONObject();
         esJson.put("health", client.checkHealth());
+        esJson.put("circuitBreakers", client.getCircuitBreakerStatus());
         responseJson.put("ElasticSearch", esJson);
 
+        // ロックのカテゴリ毎の待ち時間・競合の統計
+        responseJson.put("lock", LockMetrics.getStatus());
+
         sb.append(responseJson.toJSONString());
         return Response.status(HttpStatus.SC_OK).entity(sb.toString()).build();
     }
@@ -86,6 +92,8 @@ public class StatusResource {
     public Response post() {
         // プロパティリロード
         DcCoreConfig.reload();
+        // ロックストア上で変更されたPCSの動作モードを、リース期間を待たずに反映する
+        ReadDeleteModeLockManager.reloadReadDeleteOnlyMode();
         return Response.status(HttpStatus.SC_NO_CONTENT).build();
     }
 
@@ -165,16 +165,22 @@ public final class CellResource {
         }
 
         // Cellに対するアクセス数を確認して、アクセスをロックする
+        // アクセス中の場合は処理ステータスを変更せずにエラーとする
         int maxLoopCount = Integer.valueOf(DcCoreConfig.getCellLockRetryTimes());
         long interval = Long.valueOf(DcCoreConfig.getCellLockRetryInterval());
-        waitCellAccessible(cellId, maxLoopCount, interval);
-
-        CellLockManager.setBulkDeletionStatus(cellId);
+        waitCellAccessible(cellId, maxLoopCount, interval, 0);
 
         // Cellエンティティを削除する
         CellAccessor cellAccessor = (CellAccessor) EsModel.cell();
         CellDocHandler docHandler = new CellDocHandler(cellAccessor.get(cell.getId()));
+
+        CellLockManager.setBulkDeletionStatus(cellId);
+        // 全ノードで新たなアクセスが拒否され、受け付け済みのアクセス数が参照カウントに反映される時刻
+        long propagatedAt = System.currentTimeMillis() + CellLockManager.getCellStatusPropagationInMillis();
         try {
+            // ステータス変更の反映前に他ノードで受け付けたアクセスが終了したことを確認する
+            waitCellAccessible(cellId, maxLoopCount, interval, propagatedAt);
+
             cellAccessor.delete(docHandler);
             log.info("Cell Entity Deletion End.");
         } finally {
@@ -206,20 +212,32 @@ public final class CellResource {
         accessor.insertCellDeleteRecord(unitUserName, cellId);
     }
 
-    private void waitCellAccessible(String cellId, int maxLoopCount, long interval) {
-        for (int loopCount = 0; loopCount < maxLoopCount; loopCount++) {
+    /**
+     * セルへのアクセスが終了するまで待つ.
+     * 処理ステータスの変更が全ノードに反映される時刻までは、参照カウントが1以下でも確定とせず確認を続ける.
+     * 待ち時間の上限は、確認の最大回数分の時間と反映時刻までの時間の長い方となる.
+     * @param cellId 対象のセルID
+     * @param maxLoopCount 確認の最大回数
+     * @param interval 確認の間隔(ms)
+     * @param propagatedAt 処理ステータスの変更が全ノードに反映される時刻
+     */
+    private void waitCellAccessible(String cellId, int maxLoopCount, long interval, long propagatedAt) {
+        for (int loopCount = 0;; loopCount++) {
             long count = CellLockManager.getReferenceCount(cellId);
+            boolean propagated = System.currentTimeMillis() >= propagatedAt;
             // 自分のリクエスト分も含まれるので他のリクエストが存在する場合は１より大きくなる
-            if (count <= 1) {
+            if (count <= 1 && propagated) {
                 return;
             }
+            if (loopCount + 1 >= maxLoopCount && propagated) {
+                throw DcCoreException.Misc.CONFLICT_CELLACCESS;
+            }
             try {
                 Thread.sleep(interval);
             } catch (InterruptedException e) {
                 throw DcCoreException.Misc.CONFLICT_CELLACCESS;
             }
         }
-        throw DcCoreException.Misc.CONFLICT_CELLACCESS;
     }
 
     private void checkAccessContextForCellBulkDeletion(String cellOwner) {
@@ -16,8 +16,13 @@
  */
 package com.fujitsu.dc.core.rs.odata;
 
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
 import java.io.Reader;
 import java.io.StringWriter;
+import java.io.Writer;
 import java.util.ArrayList;
 import java.util.HashMap;
 import java.util.List;
@@ -36,8 +41,10 @@ import javax.ws.rs.core.MediaType;
 import javax.ws.rs.core.MultivaluedMap;
 import javax.ws.rs.core.Response;
 import javax.ws.rs.core.Response.ResponseBuilder;
+import javax.ws.rs.core.StreamingOutput;
 import javax.ws.rs.core.UriInfo;
 
+import org.apache.commons.lang.CharEncoding;
 import org.odata4j.core.ODataConstants;
 import org.odata4j.core.ODataVersion;
 import org.odata4j.core.OEntity;
@@ -51,6 +58,7 @@ import org.odata4j.producer.EntityResponse;
 import org.odata4j.producer.InlineCount;
 import org.odata4j.producer.QueryInfo;
 
+import com.fujitsu.dc.common.es.EsRequestDeadline;
 import com.fujitsu.dc.common.utils.DcCoreUtils;
 import com.fujitsu.dc.core.DcCoreConfig;
 import com.fujitsu.dc.core.DcCoreException;
@@ -58,7 +66,9 @@ import com.fujitsu.dc.core.auth.AccessContext;
 import com.fujitsu.dc.core.model.ctl.Common;
 import com.fujitsu.dc.core.model.ctl.ReceivedMessage;
 import com.fujitsu.dc.core.model.ctl.SentMessage;
+import com.fujitsu.dc.core.odata.DcEntitiesResponse;
 import com.fujitsu.dc.core.odata.DcFormatWriterFactory;
+import com.fujitsu.dc.core.utils.EscapeControlCodeWriter;
 
 /**
  * ODataのEntitiesリソース( id 指定がなくentitySetが指定されたURL）を扱うJAX-RSリソース.
@@ -66,6 +76,8 @@ import com.fujitsu.dc.core.odata.DcFormatWriterFactory;
 public final class ODataEntitiesResource extends AbstractODataResource {
 
     private static final int Q_MAX_LENGTH = Common.MAX_Q_VALUE_LENGTH;
+    /** $inlinecountの件数が正確か概算かを返すヘッダ. */
+    private static final String X_DC_COUNT_ACCURACY = "X-Dc-Count-Accuracy";
     ODataResource odataResource;
     AccessContext accessContext;
 
@@ -103,19 +115,54 @@ public final class ODataEntitiesResource extends AbstractODataResource {
         this.odataResource.checkAccessContext(this.accessContext,
                 this.odataResource.getNecessaryReadPrivilege(getEntitySetName()));
 
+        boolean streaming = DcCoreConfig.isFeedStreamingEnabled();
+
         // リクエストの取得をProducerに依頼
-        EntitiesResponse resp = getEntities(uriInfo, q);
-        StringWriter sw = new StringWriter();
+        final EntitiesResponse resp;
+        if (streaming) {
+            resp = getOdataProducer().getEntitiesForStreaming(getEntitySetName(), queryInfo(uriInfo, q));
+        } else {
+            resp = getEntities(uriInfo, q);
+        }
 
         // $formatとAcceptヘッダの値から出力形式を決定
         List<MediaType> acceptableMediaTypes = new ArrayList<MediaType>();
         MediaType contentType = decideOutputFormat(accept, format);
         acceptableMediaTypes.add(contentType);
 
-        FormatWriter<EntitiesResponse> fw = DcFormatWriterFactory.getFormatWriter(EntitiesResponse.class,
+        final FormatWriter<EntitiesResponse> fw = DcFormatWriterFactory.getFormatWriter(EntitiesResponse.class,
                 acceptableMediaTypes, null, callback);
-        UriInfo uriInfo2 = DcCoreUtils.createUriInfo(uriInfo, 1);
+        final UriInfo uriInfo2 = DcCoreUtils.createUriInfo(uriInfo, 1);
+
+        // TODO remove this hack, check whether we are Version 2.0 compatible anyway
+        ODataVersion version = null;
+        version = ODataVersion.V2;
 
+        if (streaming) {
+            // レスポンスボディの出力はレスポンスフィルタで期限が解除された後に行われるため、出力の間も同じ期限を適用する
+            final long deadline = EsRequestDeadline.get();
+            // レスポンスボディを文字列として組み立てず、OEntityへの変換と出力を1件ずつ行う
+            StreamingOutput output = new StreamingOutput() {
+                @Override
+                public void write(OutputStream os) throws IOException {
+                    EsRequestDeadline.set(deadline);
+                    try {
+                        // 制御コードはエスケープしながら出力する
+                        Writer writer = new EscapeControlCodeWriter(
+                                new BufferedWriter(new OutputStreamWriter(os, CharEncoding.UTF_8)));
+                        fw.write(uriInfo2, writer, resp);
+                        writer.flush();
+                    } finally {
+                        EsRequestDeadline.clear();
+                    }
+                }
+            };
+            return Response.ok(output, fw.getContentType())
+                    .header(ODataConstants.Headers.DATA_SERVICE_VERSION, version.asString)
+                    .header(X_DC_COUNT_ACCURACY, getCountAccuracy(resp)).build();
+        }
+
+        StringWriter sw = new StringWriter();
         fw.write(uriInfo2, sw, resp);
         String entity = null;
         entity = sw.toString();
@@ -123,12 +170,24 @@ public final class ODataEntitiesResource extends AbstractODataResource {
         // 制御コードのエスケープ処理
         entity = escapeResponsebody(entity);
 
-        // TODO remove this hack, check whether we are Version 2.0 compatible anyway
-        ODataVersion version = null;
-        version = ODataVersion.V2;
-
         return Response.ok(entity, fw.getContentType())
-                .header(ODataConstants.Headers.DATA_SERVICE_VERSION, version.asString).build();
+                .header(ODataConstants.Headers.DATA_SERVICE_VERSION, version.asString)
+                .header(X_DC_COUNT_ACCURACY, getCountAccuracy(resp)).build();
+    }
+
+    /**
+     * countmodeクエリが指定された場合に、$inlinecountの件数が正確か概算かを返す.
+     * @param resp レスポンス
+     * @return exact/approximate. countmodeクエリが指定されていない場合はnull(ヘッダを付与しない)
+     */
+    private static String getCountAccuracy(EntitiesResponse resp) {
+        if (!(resp instanceof DcEntitiesResponse)) {
+            return null;
+        }
+        if (((DcEntitiesResponse) resp).isCountExact()) {
+            return QueryParser.COUNT_MODE_EXACT;
+        }
+        return QueryParser.COUNT_MODE_APPROXIMATE;
     }
 
     /**
@@ -216,6 +275,7 @@ public final class ODataEntitiesResource extends AbstractODataResource {
         InlineCount inlineCount = QueryParser.parseInlinecountQuery(mm.getFirst("$inlinecount"));
         String skipToken = QueryParser.parseSkipTokenQuery(mm.getFirst("$skiptoken"));
         List<OrderByExpression> orderBy = QueryParser.parseOderByQuery(mm.getFirst("$orderby"));
+        String countMode = QueryParser.parseCountModeQuery(mm.getFirst(QueryParser.COUNT_MODE_OPTION));
 
         // 全文検索クエリqのバリデート
         if (fullTextSearchKeyword != null && (fullTextSearchKeyword.getBytes().length < 1
@@ -231,6 +291,7 @@ public final class ODataEntitiesResource extends AbstractODataResource {
 
         Map<String, String> customOptions = new HashMap<String, String>();
         customOptions.put("q", fullTextSearchKeyword);
+        customOptions.put(QueryParser.COUNT_MODE_OPTION, countMode);
         return new QueryInfo(
                 inlineCount,
                 top,
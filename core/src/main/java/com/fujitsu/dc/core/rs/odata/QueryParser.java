@@ -40,6 +40,13 @@ import com.sun.jersey.api.uri.UriComponent;
  */
 public class QueryParser {
 
+    /** $inlinecountの件数の取得方法を指定するカスタムクエリオプション. */
+    public static final String COUNT_MODE_OPTION = "countmode";
+    /** 正確な件数を返す(デフォルト). */
+    public static final String COUNT_MODE_EXACT = "exact";
+    /** 書き込み後の古い件数を概算件数として返すことを許容する. */
+    public static final String COUNT_MODE_APPROXIMATE = "approximate";
+
     private QueryParser() {
     }
 
@@ -134,6 +141,21 @@ public class QueryParser {
         return inlineCount;
     }
 
+    /**
+     * countmodeクエリをパースして値を返却する.
+     * @param query クエリ文字列("countmode=VALUE")
+     * @return クエリで指定された値
+     */
+    public static String parseCountModeQuery(String query) {
+        if (query == null) {
+            return null;
+        }
+        if (!COUNT_MODE_EXACT.equals(query) && !COUNT_MODE_APPROXIMATE.equals(query)) {
+            throw DcCoreException.OData.QUERY_INVALID_ERROR.params(COUNT_MODE_OPTION, query);
+        }
+        return query;
+    }
+
     /**
      * expandクエリをパースして値を返却する.
      * @param query クエリ文字列("$expand=VALUE")
@@ -216,6 +238,7 @@ public class QueryParser {
         String skipToken = QueryParser.parseSkipTokenQuery(queryParams.getFirst("$skiptoken"));
         List<OrderByExpression> orderBy = QueryParser.parseOderByQuery(queryParams.getFirst("$orderby"));
         parseFullTextSearchQuery(queryParams.getFirst("q"));
+        String countMode = QueryParser.parseCountModeQuery(queryParams.getFirst(COUNT_MODE_OPTION));
 
         // $expand指定時は$topの最大値が変わるためチェックする
         if (expand != null && top != null && top > DcCoreConfig.getTopQueryMaxSizeWithExpand()) {
@@ -225,6 +248,7 @@ public class QueryParser {
 
         Map<String, String> customOptions = new HashMap<String, String>();
         customOptions.put("q", queryParams.getFirst("q"));
+        customOptions.put(COUNT_MODE_OPTION, countMode);
         QueryInfo queryInfo = new QueryInfo(
                 inlineCount,
                 top,
@@ -16,6 +16,10 @@
  */
 package com.fujitsu.dc.core.utils;
 
+import java.util.Collection;
+import java.util.Map;
+import java.util.concurrent.Future;
+
 /**
  * Cache操作用のインタフェースクラス.
  */
@@ -39,10 +43,55 @@ public interface CacheClient {
      */
     Boolean put(String key, int expiresIn, Object object);
 
+    /**
+     * 指定キーのキャッシュが存在しない場合のみ、オブジェクトを一定の有効期限のみキャッシュします.
+     * @param key キャッシュのキー
+     * @param expiresIn 有効期間
+     * @param object キャッシュすべきオブジェクト
+     * @return 登録した場合はTrue/既にキャッシュが存在する場合や失敗時はFalseを返す.
+     */
+    Boolean add(String key, int expiresIn, Object object);
+
     /**
      * 指定キーのキャッシュを削除.
      * @param key キャッシュキー
      */
     void delete(String key);
 
+    /**
+     * キャッシュをすべてクリアします.
+     */
+    void clear();
+
+    /**
+     * 複数キーのキャッシュを1回の問い合わせでまとめて取得.
+     * @param keys キャッシュキー
+     * @return キーとキャッシュされたオブジェクトのMap. キャッシュが存在しないキーは含まない
+     */
+    Map<String, Object> getBulk(Collection<String> keys);
+
+    /**
+     * 複数キーのキャッシュを非同期にまとめて取得.
+     * @param keys キャッシュキー
+     * @return 取得結果(キーとキャッシュされたオブジェクトのMap)のFuture
+     */
+    Future<Map<String, Object>> asyncGetBulk(Collection<String> keys);
+
+    /**
+     * 複数のオブジェクトを一定の有効期限のみまとめてキャッシュします. 各キーの書き込みは応答を待たずに送信する.
+     * @param expiresIn 有効期間
+     * @param objects キャッシュのキーとキャッシュすべきオブジェクトのMap
+     * @return 全て成功した場合はTrue/いずれかが失敗した場合はFalseを返す.
+     */
+    Boolean putBulk(int expiresIn, Map<String, ?> objects);
+
+    /**
+     * 指定キーでオブジェクトを一定の有効期限のみ非同期にキャッシュします.
+     * @param key キャッシュのキー
+     * @param expiresIn 有効期間
+     * @param object キャッシュすべきオブジェクト
+     * @return 処理結果(成功時はTrue/失敗時はFalse)のFuture
+     */
+    Future<Boolean> asyncPut(String key, int expiresIn, Object object);
+
 }
@@ -0,0 +1,80 @@
+/**
+ * personium.io
+ * Copyright 2014 FUJITSU LIMITED
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.fujitsu.dc.core.utils;
+
+import java.io.FilterWriter;
+import java.io.IOException;
+import java.io.Writer;
+
+/**
+ * 書き込まれた文字列の制御コードをエスケープしながら出力するWriter.
+ * <p>
+ * {@link EscapeControlCode#escape(String)}と同じ変換を、レスポンス全体を文字列として保持せずに行う。
+ * </p>
+ */
+public class EscapeControlCodeWriter extends FilterWriter {
+
+    /**
+     * コンストラクタ.
+     * @param out 出力先
+     */
+    public EscapeControlCodeWriter(Writer out) {
+        super(out);
+    }
+
+    @Override
+    public void write(int c) throws IOException {
+        if (isControlChar((char) c)) {
+            this.out.write(String.format("\\u%04X", c));
+        } else {
+            this.out.write(c);
+        }
+    }
+
+    @Override
+    public void write(char[] cbuf, int off, int len) throws IOException {
+        int start = off;
+        int end = off + len;
+        for (int i = off; i < end; i++) {
+            if (isControlChar(cbuf[i])) {
+                this.out.write(cbuf, start, i - start);
+                this.out.write(String.format("\\u%04X", (int) cbuf[i]));
+                start = i + 1;
+            }
+        }
+        this.out.write(cbuf, start, end - start);
+    }
+
+    @Override
+    public void write(String str, int off, int len) throws IOException {
+        int start = off;
+        int end = off + len;
+        for (int i = off; i < end; i++) {
+            char c = str.charAt(i);
+            if (isControlChar(c)) {
+                this.out.write(str, start, i - start);
+                this.out.write(String.format("\\u%04X", (int) c));
+                start = i + 1;
+            }
+        }
+        this.out.write(str, start, end - start);
+    }
+
+    private static boolean isControlChar(char c) {
+        return c <= '\u001F' || c == '\u007F';
+    }
+}
@@ -0,0 +1,611 @@
+/**
+ * personium.io
+ * Copyright 2014 FUJITSU LIMITED
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.fujitsu.dc.core.utils;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.util.ArrayDeque;
+import java.util.Collection;
+import java.util.Deque;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.Future;
+import java.util.concurrent.FutureTask;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * プロセス内にオブジェクトを保持するCacheClient.
+ * <p>
+ * memcachedと同様にオブジェクトはシリアライズして保持するため、取得したオブジェクトを変更してもキャッシュには影響しない。
+ * 保持するバイト数の上限を超えた場合はW-TinyLFUで追い出しを行う。
+ * 新しいエントリは小さなウィンドウ(LRU)に入り、ウィンドウから溢れたエントリは、
+ * メイン領域の追い出し候補よりも参照頻度の推定値が高い場合のみメイン領域に残る。
+ * メイン領域はprobation/protectedの2区分のLRUで、probationで再度参照されたエントリがprotectedに昇格する。
+ * </p>
+ */
+public class InProcessCacheClient implements CacheClient {
+    static Logger log = LoggerFactory.getLogger(InProcessCacheClient.class);
+
+    /** エントリ毎の管理情報の概算バイト数. */
+    static final int ENTRY_OVERHEAD = 64;
+    /** ウィンドウに割り当てる割合(%). */
+    static final int WINDOW_PERCENT = 1;
+    /** メイン領域のうちprotectedに割り当てる割合(%). */
+    static final int PROTECTED_PERCENT = 80;
+    /** 参照頻度の推定に用いるエントリの平均サイズの想定値. */
+    static final int ASSUMED_ENTRY_BYTES = 1024;
+    /** memcachedで有効期間を相対秒数として扱う上限(30日). これを超える値はUNIX時刻として扱う. */
+    static final int MAX_RELATIVE_EXPIRES_IN = 60 * 60 * 24 * 30;
+
+    private final long maxBytes;
+    private final long windowMaxBytes;
+    private final long protectedMaxBytes;
+    private final int defaultExpiresIn;
+    private final FrequencySketch sketch;
+
+    private final Map<String, Node> nodes = new HashMap<String, Node>();
+    private final LinkedHashMap<String, Node> window = new LinkedHashMap<String, Node>();
+    private final LinkedHashMap<String, Node> probation = new LinkedHashMap<String, Node>();
+    private final LinkedHashMap<String, Node> protectedSegment = new LinkedHashMap<String, Node>();
+    private long windowBytes;
+    private long probationBytes;
+    private long protectedBytes;
+
+    private long hitCount;
+    private long missCount;
+    private long evictionCount;
+    private long expirationCount;
+
+    /**
+     * コンストラクタ.
+     * @param maxBytes 保持するバイト数の上限
+     * @param defaultExpiresIn 有効期間が指定されない(0以下)場合に用いる有効期間(秒)
+     */
+    public InProcessCacheClient(long maxBytes, int defaultExpiresIn) {
+        this.maxBytes = maxBytes;
+        this.windowMaxBytes = Math.max(1, maxBytes * WINDOW_PERCENT / 100);
+        this.protectedMaxBytes = (maxBytes - this.windowMaxBytes) * PROTECTED_PERCENT / 100;
+        this.defaultExpiresIn = defaultExpiresIn;
+        this.sketch = new FrequencySketch((int) Math.min(1 << 20, Math.max(16, maxBytes / ASSUMED_ENTRY_BYTES)));
+    }
+
+    /**
+     * 指定キーのキャッシュを取得.
+     * @param <T> 取得する型
+     * @param key キャッシュキー
+     * @param clazz 取得する型、 型に問題があるときはClassCastExcetpion発生
+     * @return キャッシュされたオブジェクト / null キャッシュが存在しないとき
+     */
+    @Override
+    @SuppressWarnings("unchecked")
+    public <T> T get(String key, Class<T> clazz) {
+        byte[] bytes = getBytes(key);
+        if (bytes == null) {
+            return null;
+        }
+        return (T) deserialize(key, bytes);
+    }
+
+    /**
+     * 指定キーでオブジェクトを一定の有効期限のみキャッシュします.
+     * @param key キャッシュのキー
+     * @param expiresIn 有効期間(秒). 0以下の場合はキャッシュ有効期限の設定値を用いる
+     * @param object キャッシュすべきオブジェクト
+     * @return 処理成功時はTrue/失敗時はFalseを返す.
+     */
+    @Override
+    public Boolean put(String key, int expiresIn, Object object) {
+        byte[] bytes = serialize(key, object);
+        if (bytes == null) {
+            return Boolean.FALSE;
+        }
+        return putBytes(key, bytes, expiresAt(expiresIn, System.currentTimeMillis()));
+    }
+
+    /**
+     * 指定キーのキャッシュが存在しない場合のみ、オブジェクトを一定の有効期限のみキャッシュします.
+     * @param key キャッシュのキー
+     * @param expiresIn 有効期間(秒). 0以下の場合はキャッシュ有効期限の設定値を用いる
+     * @param object キャッシュすべきオブジェクト
+     * @return 登録した場合はTrue/既にキャッシュが存在する場合や失敗時はFalseを返す.
+     */
+    @Override
+    public Boolean add(String key, int expiresIn, Object object) {
+        byte[] bytes = serialize(key, object);
+        if (bytes == null) {
+            return Boolean.FALSE;
+        }
+        long now = System.currentTimeMillis();
+        synchronized (this) {
+            Node node = this.nodes.get(key);
+            if (node != null && node.expiresAt > now) {
+                return Boolean.FALSE;
+            }
+            return putBytes(key, bytes, expiresAt(expiresIn, now));
+        }
+    }
+
+    /**
+     * 指定キーのキャッシュを削除.
+     * @param key キャッシュキー
+     */
+    @Override
+    public synchronized void delete(String key) {
+        Node node = this.nodes.get(key);
+        if (node != null) {
+            remove(node);
+        }
+    }
+
+    /**
+     * キャッシュをすべてクリアします.
+     */
+    @Override
+    public synchronized void clear() {
+        this.nodes.clear();
+        this.window.clear();
+        this.probation.clear();
+        this.protectedSegment.clear();
+        this.windowBytes = 0;
+        this.probationBytes = 0;
+        this.protectedBytes = 0;
+    }
+
+    /**
+     * 複数キーのキャッシュをまとめて取得.
+     * @param keys キャッシュキー
+     * @return キーとキャッシュされたオブジェクトのMap. キャッシュが存在しないキーは含まない
+     */
+    @Override
+    public Map<String, Object> getBulk(Collection<String> keys) {
+        Map<String, Object> ret = new HashMap<String, Object>();
+        for (String key : keys) {
+            Object value = get(key, Object.class);
+            if (value != null) {
+                ret.put(key, value);
+            }
+        }
+        return ret;
+    }
+
+    /**
+     * 複数キーのキャッシュをまとめて取得する. プロセス内で完結するため、取得済みのFutureを返す.
+     * @param keys キャッシュキー
+     * @return 取得結果(キーとキャッシュされたオブジェクトのMap)のFuture
+     */
+    @Override
+    public Future<Map<String, Object>> asyncGetBulk(final Collection<String> keys) {
+        return completed(new Callable<Map<String, Object>>() {
+            @Override
+            public Map<String, Object> call() {
+                return getBulk(keys);
+            }
+        });
+    }
+
+    /**
+     * 複数のオブジェクトを一定の有効期限のみまとめてキャッシュします.
+     * @param expiresIn 有効期間(秒). 0以下の場合はキャッシュ有効期限の設定値を用いる
+     * @param objects キャッシュのキーとキャッシュすべきオブジェクトのMap
+     * @return 全て成功した場合はTrue/いずれかが失敗した場合はFalseを返す.
+     */
+    @Override
+    public Boolean putBulk(int expiresIn, Map<String, ?> objects) {
+        boolean success = true;
+        for (Map.Entry<String, ?> entry : objects.entrySet()) {
+            success &= put(entry.getKey(), expiresIn, entry.getValue());
+        }
+        return success;
+    }
+
+    /**
+     * 指定キーでオブジェクトを一定の有効期限のみキャッシュする. プロセス内で完結するため、処理済みのFutureを返す.
+     * @param key キャッシュのキー
+     * @param expiresIn 有効期間(秒). 0以下の場合はキャッシュ有効期限の設定値を用いる
+     * @param object キャッシュすべきオブジェクト
+     * @return 処理結果(成功時はTrue/失敗時はFalse)のFuture
+     */
+    @Override
+    public Future<Boolean> asyncPut(final String key, final int expiresIn, final Object object) {
+        return completed(new Callable<Boolean>() {
+            @Override
+            public Boolean call() {
+                return put(key, expiresIn, object);
+            }
+        });
+    }
+
+    /**
+     * 統計を返す.
+     * @return 統計
+     */
+    public synchronized Stats getStats() {
+        return new Stats(this.hitCount, this.missCount, this.evictionCount, this.expirationCount,
+                this.nodes.size(), this.windowBytes + this.probationBytes + this.protectedBytes);
+    }
+
+    private synchronized byte[] getBytes(String key) {
+        this.sketch.increment(key);
+        Node node = this.nodes.get(key);
+        if (node == null) {
+            this.missCount++;
+            return null;
+        }
+        if (node.expiresAt <= System.currentTimeMillis()) {
+            remove(node);
+            this.expirationCount++;
+            this.missCount++;
+            return null;
+        }
+        this.hitCount++;
+        onAccess(node);
+        return node.bytes;
+    }
+
+    private synchronized boolean putBytes(String key, byte[] bytes, long expiresAt) {
+        long weight = (long) bytes.length + key.length() * 2 + ENTRY_OVERHEAD;
+        Node old = this.nodes.get(key);
+        if (old != null) {
+            remove(old);
+        }
+        if (weight > this.maxBytes) {
+            // 上限を超える大きさのエントリは保持しない(memcachedのアイテムサイズ上限と同様に失敗とする)
+            return false;
+        }
+        this.sketch.increment(key);
+        Node node = new Node(key, bytes, weight, expiresAt);
+        this.nodes.put(key, node);
+        this.window.put(key, node);
+        this.windowBytes += weight;
+        evict();
+        return true;
+    }
+
+    /**
+     * 参照されたエントリを各区分のLRUの末尾へ移動する. probationのエントリはprotectedへ昇格させる.
+     */
+    private void onAccess(Node node) {
+        if (node.segment == Segment.WINDOW) {
+            this.window.remove(node.key);
+            this.window.put(node.key, node);
+        } else if (node.segment == Segment.PROTECTED) {
+            this.protectedSegment.remove(node.key);
+            this.protectedSegment.put(node.key, node);
+        } else {
+            this.probation.remove(node.key);
+            this.probationBytes -= node.weight;
+            node.segment = Segment.PROTECTED;
+            this.protectedSegment.put(node.key, node);
+            this.protectedBytes += node.weight;
+            // protectedが溢れた場合は古いものからprobationへ戻す
+            Iterator<Node> it = this.protectedSegment.values().iterator();
+            while (this.protectedBytes > this.protectedMaxBytes && it.hasNext()) {
+                Node demoted = it.next();
+                if (demoted == node) {
+                    break;
+                }
+                it.remove();
+                this.protectedBytes -= demoted.weight;
+                demoted.segment = Segment.PROBATION;
+                this.probation.put(demoted.key, demoted);
+                this.probationBytes += demoted.weight;
+            }
+        }
+    }
+
+    /**
+     * ウィンドウから溢れたエントリをprobationへ移し、上限を超えている間、
+     * ウィンドウから移したエントリ(候補)とprobationの先頭(追い出し対象)の参照頻度を比較して低い方を追い出す.
+     */
+    private void evict() {
+        Deque<Node> candidates = new ArrayDeque<Node>();
+        Iterator<Node> it = this.window.values().iterator();
+        while (this.windowBytes > this.windowMaxBytes && it.hasNext()) {
+            Node node = it.next();
+            it.remove();
+            this.windowBytes -= node.weight;
+            node.segment = Segment.PROBATION;
+            this.probation.put(node.key, node);
+            this.probationBytes += node.weight;
+            candidates.addLast(node);
+        }
+
+        while (this.windowBytes + this.probationBytes + this.protectedBytes > this.maxBytes) {
+            Node victim = first(this.probation);
+            if (victim == null) {
+                victim = first(this.protectedSegment);
+            }
+            if (victim == null) {
+                victim = first(this.window);
+            }
+            Node candidate = candidates.peekLast();
+            while (candidate != null && candidate.segment == null) {
+                // 既に追い出された候補は比較対象としない
+                candidates.pollLast();
+                candidate = candidates.peekLast();
+            }
+            if (candidate != null && candidate != victim && victim.segment == Segment.PROBATION
+                    && this.sketch.frequency(candidate.key) <= this.sketch.frequency(victim.key)) {
+                victim = candidate;
+            }
+            if (victim == candidate) {
+                candidates.pollLast();
+            }
+            remove(victim);
+            this.evictionCount++;
+        }
+    }
+
+    private void remove(Node node) {
+        this.nodes.remove(node.key);
+        if (node.segment == Segment.WINDOW) {
+            this.window.remove(node.key);
+            this.windowBytes -= node.weight;
+        } else if (node.segment == Segment.PROBATION) {
+            this.probation.remove(node.key);
+            this.probationBytes -= node.weight;
+        } else if (node.segment == Segment.PROTECTED) {
+            this.protectedSegment.remove(node.key);
+            this.protectedBytes -= node.weight;
+        }
+        node.segment = null;
+    }
+
+    private static Node first(LinkedHashMap<String, Node> segment) {
+        Iterator<Node> it = segment.values().iterator();
+        if (it.hasNext()) {
+            return it.next();
+        }
+        return null;
+    }
+
+    /**
+     * memcachedと同様に有効期間を解釈し、失効時刻を返す.
+     * @param expiresIn 有効期間(秒). 30日を超える値はUNIX時刻. 0以下の場合はキャッシュ有効期限の設定値を用いる
+     * @param now 現在時刻(ms)
+     * @return 失効時刻(ms)
+     */
+    long expiresAt(int expiresIn, long now) {
+        int seconds = expiresIn;
+        if (seconds <= 0) {
+            seconds = this.defaultExpiresIn;
+        }
+        if (seconds <= 0) {
+            return Long.MAX_VALUE;
+        }
+        if (seconds > MAX_RELATIVE_EXPIRES_IN) {
+            return seconds * 1000L;
+        }
+        return now + seconds * 1000L;
+    }
+
+    private static byte[] serialize(String key, Object object) {
+        try {
+            ByteArrayOutputStream baos = new ByteArrayOutputStream();
+            ObjectOutputStream oos = new ObjectOutputStream(baos);
+            oos.writeObject(object);
+            oos.close();
+            return baos.toByteArray();
+        } catch (IOException e) {
+            log.info("Failed to serialize cache object. key=" + key, e);
+            return null;
+        }
+    }
+
+    private static Object deserialize(String key, byte[] bytes) {
+        try {
+            ObjectInputStream ois = new ObjectInputStream(new ByteArrayInputStream(bytes));
+            try {
+                return ois.readObject();
+            } finally {
+                ois.close();
+            }
+        } catch (IOException e) {
+            log.info("Failed to deserialize cache object. key=" + key, e);
+        } catch (ClassNotFoundException e) {
+            log.info("Failed to deserialize cache object. key=" + key, e);
+        }
+        return null;
+    }
+
+    private static <V> Future<V> completed(Callable<V> callable) {
+        FutureTask<V> task = new FutureTask<V>(callable);
+        task.run();
+        return task;
+    }
+
+    /**
+     * エントリの区分.
+     */
+    private enum Segment {
+        WINDOW, PROBATION, PROTECTED
+    }
+
+    /**
+     * キャッシュエントリ.
+     */
+    private static final class Node {
+        private final String key;
+        private final byte[] bytes;
+        private final long weight;
+        private final long expiresAt;
+        private Segment segment = Segment.WINDOW;
+
+        Node(String key, byte[] bytes, long weight, long expiresAt) {
+            this.key = key;
+            this.bytes = bytes;
+            this.weight = weight;
+            this.expiresAt = expiresAt;
+        }
+    }
+
+    /**
+     * キーの参照頻度を推定するCount-Min Sketch.
+     * 各カウンタは15で頭打ちとし、一定回数記録するたびに全カウンタを半減させることで古い参照の影響を減らす.
+     */
+    static final class FrequencySketch {
+        private static final int DEPTH = 4;
+        private static final int MAX_COUNT = 15;
+        private static final int[] SEEDS = {0x97cb3127, 0xc2b2ae35, 0x27d4eb2f, 0x165667b1 };
+
+        private final byte[] table;
+        private final int mask;
+        private final int sampleSize;
+        private int additions;
+
+        /**
+         * コンストラクタ.
+         * @param expectedEntries 想定するエントリ数
+         */
+        FrequencySketch(int expectedEntries) {
+            int width = Integer.highestOneBit(Math.max(16, expectedEntries) - 1) << 1;
+            this.table = new byte[width * DEPTH];
+            this.mask = width - 1;
+            this.sampleSize = width * 10;
+        }
+
+        /**
+         * 参照を記録する.
+         * @param key キー
+         */
+        void increment(String key) {
+            int hash = spread(key.hashCode());
+            boolean added = false;
+            for (int i = 0; i < DEPTH; i++) {
+                int index = indexOf(hash, i);
+                if (this.table[index] < MAX_COUNT) {
+                    this.table[index]++;
+                    added = true;
+                }
+            }
+            if (added && ++this.additions >= this.sampleSize) {
+                reset();
+            }
+        }
+
+        /**
+         * 参照頻度の推定値を返す.
+         * @param key キー
+         * @return 推定値
+         */
+        int frequency(String key) {
+            int hash = spread(key.hashCode());
+            int frequency = MAX_COUNT;
+            for (int i = 0; i < DEPTH; i++) {
+                frequency = Math.min(frequency, this.table[indexOf(hash, i)]);
+            }
+            return frequency;
+        }
+
+        private void reset() {
+            for (int i = 0; i < this.table.length; i++) {
+                this.table[i] = (byte) (this.table[i] >>> 1);
+            }
+            this.additions /= 2;
+        }
+
+        private int indexOf(int hash, int row) {
+            int h = (hash ^ SEEDS[row]) * SEEDS[row];
+            h ^= h >>> 16;
+            return row * (this.mask + 1) + (h & this.mask);
+        }
+
+        private static int spread(int hash) {
+            int h = hash * 0x9e3779b9;
+            return h ^ (h >>> 16);
+        }
+    }
+
+    /**
+     * キャッシュの統計.
+     */
+    public static final class Stats {
+        private final long hitCount;
+        private final long missCount;
+        private final long evictionCount;
+        private final long expirationCount;
+        private final int entryCount;
+        private final long weightedBytes;
+
+        Stats(long hitCount, long missCount, long evictionCount, long expirationCount, int entryCount,
+                long weightedBytes) {
+            this.hitCount = hitCount;
+            this.missCount = missCount;
+            this.evictionCount = evictionCount;
+            this.expirationCount = expirationCount;
+            this.entryCount = entryCount;
+            this.weightedBytes = weightedBytes;
+        }
+
+        /**
+         * @return ヒット数
+         */
+        public long getHitCount() {
+            return this.hitCount;
+        }
+
+        /**
+         * @return ミス数
+         */
+        public long getMissCount() {
+            return this.missCount;
+        }
+
+        /**
+         * @return 上限を超えたため追い出した数
+         */
+        public long getEvictionCount() {
+            return this.evictionCount;
+        }
+
+        /**
+         * @return 有効期限切れで破棄した数
+         */
+        public long getExpirationCount() {
+            return this.expirationCount;
+        }
+
+        /**
+         * @return 保持しているエントリ数
+         */
+        public int getEntryCount() {
+            return this.entryCount;
+        }
+
+        /**
+         * @return 保持しているエントリの概算バイト数
+         */
+        public long getWeightedBytes() {
+            return this.weightedBytes;
+        }
+
+        @Override
+        public String toString() {
+            return "hit=" + this.hitCount + ", miss=" + this.missCount + ", eviction=" + this.evictionCount
+                    + ", expiration=" + this.expirationCount + ", entries=" + this.entryCount
+                    + ", bytes=" + this.weightedBytes;
+        }
+    }
+}
@@ -19,8 +19,11 @@ package com.fujitsu.dc.core.utils;
 import java.io.IOException;
 import java.net.InetSocketAddress;
 import java.util.ArrayList;
+import java.util.Collection;
 import java.util.List;
+import java.util.Map;
 import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
 
 import net.spy.memcached.ConnectionFactoryBuilder;
 import net.spy.memcached.DefaultConnectionFactory;
@@ -86,6 +89,86 @@ public class MemcachedClient implements CacheClient {
         }
     }
 
+    /**
+     * 複数キーのキャッシュを1回の問い合わせでまとめて取得.
+     * @param keys キャッシュキー
+     * @return キーとキャッシュされたオブジェクトのMap. キャッシュが存在しないキーは含まない
+     */
+    @Override
+    public Map<String, Object> getBulk(Collection<String> keys) {
+        try {
+            Map<String, Object> ret = this.spyClient.getBulk(keys);
+            if (isReportError) {
+                isReportError = false;
+            }
+            return ret;
+        } catch (RuntimeException e) {
+            log.info(e.getMessage(), e);
+            throw new MemcachedClientException(e);
+        }
+    }
+
+    /**
+     * 複数キーのキャッシュを非同期にまとめて取得.
+     * @param keys キャッシュキー
+     * @return 取得結果(キーとキャッシュされたオブジェクトのMap)のFuture
+     */
+    @Override
+    public Future<Map<String, Object>> asyncGetBulk(Collection<String> keys) {
+        try {
+            return this.spyClient.asyncGetBulk(keys);
+        } catch (RuntimeException e) {
+            log.info(e.getMessage(), e);
+            throw new MemcachedClientException(e);
+        }
+    }
+
+    /**
+     * 複数のオブジェクトを一定の有効期限のみまとめてキャッシュします. 各キーの書き込みは応答を待たずに送信する.
+     * @param expiresIn 有効期間
+     * @param objects キャッシュのキーとキャッシュすべきオブジェクトのMap
+     * @return 全て成功した場合はTrue/いずれかが失敗した場合はFalseを返す.
+     */
+    @Override
+    public Boolean putBulk(int expiresIn, Map<String, ?> objects) {
+        try {
+            List<Future<Boolean>> futures = new ArrayList<Future<Boolean>>();
+            for (Map.Entry<String, ?> entry : objects.entrySet()) {
+                futures.add(this.spyClient.set(entry.getKey(), expiresIn, entry.getValue()));
+            }
+            boolean success = true;
+            for (Future<Boolean> future : futures) {
+                success &= future.get();
+            }
+            return success;
+        } catch (InterruptedException e) {
+            DcCoreLog.Server.MEMCACHED_SET_FAIL.params(e.getMessage()).reason(e).writeLog();
+        } catch (ExecutionException e) {
+            DcCoreLog.Server.MEMCACHED_SET_FAIL.params(e.getMessage()).reason(e).writeLog();
+        } catch (RuntimeException e) {
+            log.info(e.getMessage(), e);
+            throw new MemcachedClientException(e);
+        }
+        return Boolean.FALSE;
+    }
+
+    /**
+     * 指定キーでオブジェクトを一定の有効期限のみ非同期にキャッシュします.
+     * @param key キャッシュのキー
+     * @param expiresIn 有効期間
+     * @param object キャッシュすべきオブジェクト
+     * @return 処理結果(成功時はTrue/失敗時はFalse)のFuture
+     */
+    @Override
+    public Future<Boolean> asyncPut(String key, int expiresIn, Object object) {
+        try {
+            return this.spyClient.set(key, expiresIn, object);
+        } catch (RuntimeException e) {
+            log.info(e.getMessage(), e);
+            throw new MemcachedClientException(e);
+        }
+    }
+
     /**
      * 指定キーでオブジェクトを一定の有効期限のみキャッシュします.
      * @param key キャッシュのキー
@@ -93,6 +176,7 @@ public class MemcachedClient implements CacheClient {
      * @param object キャッシュすべきオブジェクト
      * @return 処理成功時はTrue/失敗時はFalseを返す.
      */
+    @Override
     public Boolean add(String key, int expiresIn, Object object) {
         try {
             return this.spyClient.add(key, expiresIn, object).get();
@@ -146,6 +230,7 @@ public class MemcachedClient implements CacheClient {
     /**
      * キャッシュをすべてクリアします.
      */
+    @Override
     public void clear() {
         try {
             this.spyClient.flush().get();
@@ -222,6 +307,21 @@ public class MemcachedClient implements CacheClient {
         }
     }
 
+    /**
+     * 指定キーの値に加算する. キーが存在しない場合は加算する値で作成する.
+     * @param key キャッシュキー
+     * @param delta 加算する値
+     * @return 加算後の値
+     */
+    public long incrementLongValue(String key, long delta) {
+        try {
+            return this.spyClient.incr(key, delta, delta);
+        } catch (RuntimeException e) {
+            log.info(e.getMessage(), e);
+            throw new MemcachedClientException(e);
+        }
+    }
+
     /**
      * 指定キーの値をデクリメント.
      * @param key キャッシュキー
@@ -240,6 +340,25 @@ public class MemcachedClient implements CacheClient {
         }
     }
 
+    /**
+     * 指定キーの値から減算する. 減算後の値が0となった場合はキーを削除する.
+     * @param key キャッシュキー
+     * @param delta 減算する値
+     * @return 減算後の値
+     */
+    public long decrementLongValue(String key, long delta) {
+        try {
+            long count = this.spyClient.decr(key, delta);
+            if (count == 0) {
+                delete(key);
+            }
+            return count;
+        } catch (RuntimeException e) {
+            log.info(e.getMessage(), e);
+            throw new MemcachedClientException(e);
+        }
+    }
+
     /**
      * 指定キーの値を削除する.
      * @param key キャッシュキー
@@ -255,6 +374,9 @@ public class MemcachedClient implements CacheClient {
             cacheClient = new MemcachedClient(DcCoreConfig.getCacheMemcachedHost(),
                     DcCoreConfig.getCacheMemcachedPort(),
                     DcCoreConfig.getCacheMemcachedOpTimeout());
+        } else if ("inProcess".equals(DcCoreConfig.getCacheType())) {
+            cacheClient = new InProcessCacheClient(DcCoreConfig.getCacheInProcessMaxBytes(),
+                    DcCoreConfig.getCacheMemcachedExpiresIn());
         }
         if ("memcached".equals(DcCoreConfig.getLockType())) {
             lockClient = new MemcachedClient(DcCoreConfig.getLockMemcachedHost(),
@@ -263,9 +385,9 @@ public class MemcachedClient implements CacheClient {
         }
     }
     /**
-     * キャッシュに用いるクライアント.
+     * キャッシュに用いるクライアント. cache.typeがinProcessの場合はプロセス内のキャッシュ.
      */
-    static MemcachedClient cacheClient;
+    static CacheClient cacheClient;
     /**
      * ロックに用いるクライアント.
      */
@@ -274,7 +396,7 @@ public class MemcachedClient implements CacheClient {
     /**
      * @return キャッシュに用いるクライアント.
      */
-    public static final MemcachedClient getCacheClient() {
+    public static final CacheClient getCacheClient() {
         return cacheClient;
     }
 
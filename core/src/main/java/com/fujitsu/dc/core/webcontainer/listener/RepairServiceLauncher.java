@@ -26,6 +26,8 @@ import org.slf4j.LoggerFactory;
 import com.fujitsu.dc.common.ads.AdsWriteFailureLogException;
 import com.fujitsu.dc.common.ads.AdsWriteFailureLogWriter;
 import com.fujitsu.dc.core.DcCoreConfig;
+import com.fujitsu.dc.core.model.impl.es.repair.AdsReplicator;
+import com.fujitsu.dc.core.model.impl.es.repair.AdsVerifier;
 import com.fujitsu.dc.core.model.impl.es.repair.RepairAds;
 
 /**
@@ -87,6 +89,22 @@ public class RepairServiceLauncher {
         }
     }
 
+    /**
+     * ESとAdsの整合性検証を行うクラス.
+     */
+    public static class AdsVerifyService implements Runnable {
+
+        @Override
+        public void run() {
+            try {
+                AdsVerifier.getInstance().verify();
+            } catch (Throwable t) {
+                // 例外を飛ばすとそれ以降のスケジュールが無効になるため、外部には飛ばさない。
+                logger.info("Ads verify process reported an error.", t);
+            }
+        }
+    }
+
     ScheduledThreadPoolExecutor executor;
 
     /**
@@ -104,12 +122,25 @@ public class RepairServiceLauncher {
                 TimeUnit.SECONDS);
         logger.info(String.format("RepairAds scheduled with delay interval %d sec.",
                 DcCoreConfig.getAdsRepairIntervalInSec()));
+        // 整合性検証はリペアと同じThreadで実行し、同時には実行しない.
+        if (DcCoreConfig.isAdsVerifyEnabled()
+                && DcCoreConfig.ES.ADS.TYPE_JDBC.equals(DcCoreConfig.getEsAdsType())) {
+            executor.scheduleWithFixedDelay(new AdsVerifyService(),
+                    DcCoreConfig.getAdsRepairInitialDelayInSec(),
+                    DcCoreConfig.getAdsVerifyIntervalInSec(),
+                    TimeUnit.SECONDS);
+            logger.info(String.format("AdsVerifier scheduled with delay interval %d sec.",
+                    DcCoreConfig.getAdsVerifyIntervalInSec()));
+        }
+        // 前回停止時にADSへ未反映の更新が残っていれば反映する.
+        AdsReplicator.getInstance().start();
     }
 
     /**
      * Webコンテナ終了時に呼ばれるメソッド.
      */
     public void shutdown() {
+        AdsReplicator.getInstance().shutdown(DcCoreConfig.getAdsRepairAwaitShutdownInSec() * 1000L);
         if (null != executor && !executor.isTerminated()) {
             logger.info("Shutting down RepairAds scheduler.");
             executor.shutdown();
@@ -0,0 +1,8 @@
+select 
+    'dav' as type,
+    cell_id,
+    box_id,
+    null as node_id,
+    updated,
+    id 
+from `##schema##`.DAV_NODE where id like ?
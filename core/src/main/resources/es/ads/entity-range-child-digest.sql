@@ -0,0 +1,5 @@
+select 
+    substring(id, ?, 1) as prefix,
+    count(*),
+    coalesce(bit_xor(crc32(concat(id, ':', ifnull(updated, 0)))), 0) 
+from `##schema##`.ENTITY where id like ? group by prefix
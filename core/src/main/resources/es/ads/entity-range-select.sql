@@ -0,0 +1,8 @@
+select 
+    type,
+    cell_id,
+    box_id,
+    node_id,
+    updated,
+    id 
+from `##schema##`.ENTITY where id like ?
@@ -0,0 +1,4 @@
+select 
+    count(*),
+    coalesce(bit_xor(crc32(concat(id, ':', ifnull(updated, 0)))), 0) 
+from `##schema##`.LINK where id like ?
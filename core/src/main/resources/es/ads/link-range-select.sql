@@ -0,0 +1,8 @@
+select 
+    'link' as type,
+    cell_id,
+    box_id,
+    node_id,
+    updated,
+    id 
+from `##schema##`.LINK where id like ?
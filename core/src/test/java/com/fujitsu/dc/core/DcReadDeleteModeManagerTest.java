@@ -366,6 +366,34 @@ public class DcReadDeleteModeManagerTest {
         }
     }
 
+    /**
+     * ReadDeleteOnlyモード時に__statusに対するPOSTメソッドが実行された場合はDcCoreExceptionが発生しないこと.
+     * @throws Exception .
+     */
+    @Test
+    public void ReadDeleteOnlyモード時に__statusに対するPOSTメソッドが実行された場合はDcCoreExceptionが発生しないこと() throws Exception {
+        PowerMockito.spy(ReadDeleteModeLockManager.class);
+        PowerMockito.when(ReadDeleteModeLockManager.class, "isReadDeleteOnlyMode").thenReturn(true);
+        List<PathSegment> pathSegment = getPathSegmentList(new String[] {"__status" });
+        try {
+            DcReadDeleteModeManager.checkReadDeleteOnlyMode(HttpMethod.POST, pathSegment);
+        } catch (DcCoreException e) {
+            fail(e.getMessage());
+        }
+    }
+
+    /**
+     * ReadDeleteOnlyモード時にセル配下の__statusに対するPOSTメソッドが実行された場合はDcCoreExceptionが発生すること.
+     * @throws Exception .
+     */
+    @Test(expected = DcCoreException.class)
+    public void ReadDeleteOnlyモード時にセル配下の__statusに対するPOSTメソッドが実行された場合は503が返却されること() throws Exception {
+        PowerMockito.spy(ReadDeleteModeLockManager.class);
+        PowerMockito.when(ReadDeleteModeLockManager.class, "isReadDeleteOnlyMode").thenReturn(true);
+        List<PathSegment> pathSegment = getPathSegmentList(new String[] {"cell", "__status" });
+        DcReadDeleteModeManager.checkReadDeleteOnlyMode(HttpMethod.POST, pathSegment);
+    }
+
     private List<PathSegment> getPathSegmentList(String[] pathSegmentList) {
         List<PathSegment> pathSegment = new ArrayList<PathSegment>();
         for (String path : pathSegmentList) {
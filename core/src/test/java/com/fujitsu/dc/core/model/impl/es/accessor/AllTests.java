@@ -28,6 +28,8 @@ import org.junit.runners.Suite.SuiteClasses;
     CellAccessorTest.class,
     DataSourceAccessorTest.class,
     DavNodeAccessorTest.class,
+    EsGetCoalescerTest.class,
+    EsWriteBatcherTest.class,
     ODataEntityAccessorTest.class,
     ODataLinkAccessorTest.class
     })
@@ -0,0 +1,337 @@
+/**
+ * personium.io
+ * Copyright 2014 FUJITSU LIMITED
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.fujitsu.dc.core.model.impl.es.accessor;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
+
+import org.junit.Test;
+import org.junit.experimental.categories.Category;
+
+import com.fujitsu.dc.common.es.response.DcGetResponse;
+import com.fujitsu.dc.test.categories.Unit;
+
+/**
+ * EsGetCoalescerユニットテストクラス.
+ */
+@Category({Unit.class })
+public class EsGetCoalescerTest {
+
+    /**
+     * テスト用の取得結果.
+     */
+    static class TestGetResponse implements DcGetResponse {
+        private final Map<String, Object> source = new HashMap<String, Object>();
+        private final long version;
+
+        TestGetResponse(long version) {
+            this.version = version;
+            this.source.put("v", version);
+        }
+
+        @Override
+        public boolean isNull() {
+            return false;
+        }
+
+        @Override
+        public String getId() {
+            return "id";
+        }
+
+        @Override
+        public String id() {
+            return "id";
+        }
+
+        @Override
+        public String getType() {
+            return "type";
+        }
+
+        @Override
+        public boolean exists() {
+            return true;
+        }
+
+        @Override
+        public boolean isExists() {
+            return true;
+        }
+
+        @Override
+        public long version() {
+            return this.version;
+        }
+
+        @Override
+        public long getVersion() {
+            return this.version;
+        }
+
+        @Override
+        public Map<String, Object> getSource() {
+            return this.source;
+        }
+
+        @Override
+        public String sourceAsString() {
+            return "{\"v\":" + this.version + "}";
+        }
+
+        @Override
+        public Map<String, Object> sourceAsMap() {
+            return this.source;
+        }
+    }
+
+    /**
+     * 取得回数を数えるローダ. 取得のたびにバージョンを1つ進める.
+     * 現在のバージョンは、他ノードでの書き込みを模擬して変更できる.
+     */
+    static class CountingLoader implements EsGetCoalescer.Loader {
+        private final AtomicInteger count = new AtomicInteger();
+        private final AtomicInteger versionChecks = new AtomicInteger();
+        private final AtomicReference<Long> currentVersion = new AtomicReference<Long>();
+        private final CountDownLatch entered = new CountDownLatch(1);
+        private final CountDownLatch release;
+
+        CountingLoader(CountDownLatch release) {
+            this.release = release;
+        }
+
+        @Override
+        public DcGetResponse load() {
+            int version = count.incrementAndGet();
+            entered.countDown();
+            if (release != null) {
+                try {
+                    release.await();
+                } catch (InterruptedException e) {
+                    throw new IllegalStateException(e);
+                }
+            }
+            currentVersion.set((long) version);
+            return new TestGetResponse(version);
+        }
+
+        @Override
+        public Long loadVersion() {
+            versionChecks.incrementAndGet();
+            return currentVersion.get();
+        }
+    }
+
+    private static Thread startGet(final EsGetCoalescer coalescer, final EsGetCoalescer.Loader loader,
+            final AtomicReference<DcGetResponse> result) {
+        Thread thread = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                result.set(coalescer.get("key", loader));
+            }
+        });
+        thread.start();
+        return thread;
+    }
+
+    /**
+     * 同時の取得要求が1回の問い合わせにまとめられること.
+     * @throws Exception 異常が発生した場合の例外
+     */
+    @Test
+    public void 同時の取得要求が1回の問い合わせにまとめられること() throws Exception {
+        EsGetCoalescer coalescer = new EsGetCoalescer(true, 0);
+        CountDownLatch release = new CountDownLatch(1);
+        CountingLoader first = new CountingLoader(release);
+        CountingLoader second = new CountingLoader(null);
+        AtomicReference<DcGetResponse> firstResult = new AtomicReference<DcGetResponse>();
+        AtomicReference<DcGetResponse> secondResult = new AtomicReference<DcGetResponse>();
+
+        Thread firstThread = startGet(coalescer, first, firstResult);
+        assertTrue(first.entered.await(10, TimeUnit.SECONDS));
+        Thread secondThread = startGet(coalescer, second, secondResult);
+        while (secondThread.getState() != Thread.State.WAITING && second.count.get() == 0) {
+            Thread.sleep(10);
+        }
+        release.countDown();
+        firstThread.join();
+        secondThread.join();
+
+        assertEquals(1, first.count.get());
+        assertEquals(0, second.count.get());
+        assertEquals(1L, firstResult.get().version());
+        assertEquals(1L, secondResult.get().version());
+    }
+
+    /**
+     * 書き込み後の取得が書き込み前に開始された取得にまとめられないこと.
+     * @throws Exception 異常が発生した場合の例外
+     */
+    @Test
+    public void 書き込み後の取得が書き込み前に開始された取得にまとめられないこと() throws Exception {
+        EsGetCoalescer coalescer = new EsGetCoalescer(true, 60000);
+        CountDownLatch release = new CountDownLatch(1);
+        CountingLoader first = new CountingLoader(release);
+        AtomicReference<DcGetResponse> firstResult = new AtomicReference<DcGetResponse>();
+
+        Thread firstThread = startGet(coalescer, first, firstResult);
+        assertTrue(first.entered.await(10, TimeUnit.SECONDS));
+        coalescer.invalidate("key");
+
+        CountingLoader second = new CountingLoader(null);
+        assertEquals(1L, coalescer.get("key", second).version());
+        assertEquals(1, second.count.get());
+
+        release.countDown();
+        firstThread.join();
+
+        // 書き込み前に開始された取得の結果はスナップショットとして使い回さない
+        CountingLoader third = new CountingLoader(null);
+        // ESのドキュメントは2番目の取得時点から変わっていない
+        third.currentVersion.set(1L);
+        coalescer.get("key", third);
+        assertEquals(0, third.count.get());
+        assertEquals(1L, coalescer.get("key", third).version());
+        coalescer.invalidate("key");
+        coalescer.get("key", third);
+        assertEquals(1, third.count.get());
+    }
+
+    /**
+     * スナップショットの有効期間内は再取得しないこと.
+     */
+    @Test
+    public void スナップショットの有効期間内は再取得しないこと() {
+        EsGetCoalescer coalescer = new EsGetCoalescer(true, 60000);
+        CountingLoader loader = new CountingLoader(null);
+
+        assertEquals(1L, coalescer.get("key", loader).version());
+        assertEquals(1L, coalescer.get("key", loader).version());
+        assertEquals(1, loader.count.get());
+        assertEquals(1, loader.versionChecks.get());
+    }
+
+    /**
+     * 他ノードで書き込まれた場合はスナップショットの有効期間内でも再取得すること.
+     */
+    @Test
+    public void 他ノードで書き込まれた場合はスナップショットの有効期間内でも再取得すること() {
+        EsGetCoalescer coalescer = new EsGetCoalescer(true, 60000);
+        CountingLoader loader = new CountingLoader(null);
+
+        assertEquals(1L, coalescer.get("key", loader).version());
+        // 他ノードでの更新
+        loader.currentVersion.set(5L);
+        assertEquals(2L, coalescer.get("key", loader).version());
+        assertEquals(2, loader.count.get());
+        // 取得し直した結果はスナップショットとして使い回す
+        assertEquals(2L, coalescer.get("key", loader).version());
+        assertEquals(2, loader.count.get());
+    }
+
+    /**
+     * 他ノードで削除された場合はスナップショットの有効期間内でも再取得すること.
+     */
+    @Test
+    public void 他ノードで削除された場合はスナップショットの有効期間内でも再取得すること() {
+        EsGetCoalescer coalescer = new EsGetCoalescer(true, 60000);
+        CountingLoader loader = new CountingLoader(null);
+
+        assertEquals(1L, coalescer.get("key", loader).version());
+        // 他ノードでの削除
+        loader.currentVersion.set(null);
+        assertEquals(2L, coalescer.get("key", loader).version());
+        assertEquals(2, loader.count.get());
+    }
+
+    /**
+     * スナップショットの有効期間を過ぎた場合は再取得すること.
+     * @throws Exception 異常が発生した場合の例外
+     */
+    @Test
+    public void スナップショットの有効期間を過ぎた場合は再取得すること() throws Exception {
+        EsGetCoalescer coalescer = new EsGetCoalescer(true, 1);
+        CountingLoader loader = new CountingLoader(null);
+
+        assertEquals(1L, coalescer.get("key", loader).version());
+        Thread.sleep(10);
+        assertEquals(2L, coalescer.get("key", loader).version());
+    }
+
+    /**
+     * 全て切り離した場合は保持している取得結果を使い回さないこと.
+     */
+    @Test
+    public void 全て切り離した場合は保持している取得結果を使い回さないこと() {
+        EsGetCoalescer coalescer = new EsGetCoalescer(true, 60000);
+        CountingLoader loader = new CountingLoader(null);
+
+        assertEquals(1L, coalescer.get("key", loader).version());
+        assertEquals(2L, coalescer.get("other", loader).version());
+        assertEquals(2, loader.count.get());
+        coalescer.invalidateAll();
+        assertEquals(3L, coalescer.get("key", loader).version());
+        assertEquals(4L, coalescer.get("other", loader).version());
+    }
+
+    /**
+     * スナップショットを使用しない場合は逐次の取得要求ごとに問い合わせること.
+     */
+    @Test
+    public void スナップショットを使用しない場合は逐次の取得要求ごとに問い合わせること() {
+        EsGetCoalescer coalescer = new EsGetCoalescer(true, 0);
+        CountingLoader loader = new CountingLoader(null);
+
+        assertEquals(1L, coalescer.get("key", loader).version());
+        assertEquals(2L, coalescer.get("key", loader).version());
+    }
+
+    /**
+     * 無効の場合は取得要求をまとめないこと.
+     */
+    @Test
+    public void 無効の場合は取得要求をまとめないこと() {
+        EsGetCoalescer coalescer = new EsGetCoalescer(false, 60000);
+        CountingLoader loader = new CountingLoader(null);
+
+        coalescer.get("key", loader);
+        coalescer.get("key", loader);
+        assertEquals(2, loader.count.get());
+    }
+
+    /**
+     * 共有した取得結果のソースを変更しても他の呼び出し元に影響しないこと.
+     */
+    @Test
+    public void 共有した取得結果のソースを変更しても他の呼び出し元に影響しないこと() {
+        EsGetCoalescer coalescer = new EsGetCoalescer(true, 60000);
+        CountingLoader loader = new CountingLoader(null);
+
+        DcGetResponse first = coalescer.get("key", loader);
+        first.getSource().put("v", 100L);
+        DcGetResponse second = coalescer.get("key", loader);
+        assertEquals(1L, second.getSource().get("v"));
+        assertEquals(1, loader.count.get());
+    }
+}
@@ -0,0 +1,236 @@
+/**
+ * personium.io
+ * Copyright 2014 FUJITSU LIMITED
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.fujitsu.dc.core.model.impl.es.accessor;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.ReentrantLock;
+
+import org.junit.Test;
+import org.junit.experimental.categories.Category;
+
+import com.fujitsu.dc.test.categories.Unit;
+
+/**
+ * EsWriteBatcherユニットテストクラス.
+ */
+@Category({Unit.class })
+public class EsWriteBatcherTest {
+
+    /**
+     * テスト用のロック. 取得を開始した回数を数える.
+     */
+    static class TestLockHolder implements EsWriteBatcher.LockHolder {
+        private final ReentrantLock lock;
+        private final CountDownLatch acquiring;
+
+        TestLockHolder(ReentrantLock lock, CountDownLatch acquiring) {
+            this.lock = lock;
+            this.acquiring = acquiring;
+        }
+
+        @Override
+        public void acquire() {
+            this.acquiring.countDown();
+            this.lock.lock();
+        }
+
+        @Override
+        public void release() {
+            this.lock.unlock();
+        }
+    }
+
+    /**
+     * テスト用の処理. 依頼の2倍の値を返し、まとめた件数を記録する.
+     */
+    static class DoubleHandler implements EsWriteBatcher.Handler<Integer, Integer> {
+        private final List<Integer> sizes = Collections.synchronizedList(new ArrayList<Integer>());
+
+        @Override
+        public void handle(List<EsWriteBatcher.Entry<Integer, Integer>> entries) {
+            this.sizes.add(entries.size());
+            for (EsWriteBatcher.Entry<Integer, Integer> entry : entries) {
+                entry.complete(entry.getTask() * 2);
+            }
+        }
+    }
+
+    private static List<Future<Integer>> submitAll(ExecutorService executor, final EsWriteBatcher batcher,
+            final ReentrantLock lock, final CountDownLatch acquiring,
+            final EsWriteBatcher.Handler<Integer, Integer> handler, int count) {
+        List<Future<Integer>> futures = new ArrayList<Future<Integer>>();
+        for (int i = 0; i < count; i++) {
+            final int task = i;
+            futures.add(executor.submit(new Callable<Integer>() {
+                @Override
+                public Integer call() {
+                    return batcher.submit("key", task, new TestLockHolder(lock, acquiring), handler);
+                }
+            }));
+        }
+        return futures;
+    }
+
+    /**
+     * 同時に依頼がない場合は1件ずつ処理されること.
+     */
+    @Test
+    public void 同時に依頼がない場合は1件ずつ処理されること() {
+        EsWriteBatcher batcher = new EsWriteBatcher(true, 100);
+        DoubleHandler handler = new DoubleHandler();
+        ReentrantLock lock = new ReentrantLock();
+
+        assertEquals(Integer.valueOf(2), batcher.submit("key", 1, new TestLockHolder(lock, new CountDownLatch(1)),
+                handler));
+        assertEquals(Integer.valueOf(4), batcher.submit("key", 2, new TestLockHolder(lock, new CountDownLatch(1)),
+                handler));
+        assertEquals(2, handler.sizes.size());
+        assertEquals(Integer.valueOf(1), handler.sizes.get(0));
+        assertEquals(Integer.valueOf(1), handler.sizes.get(1));
+        assertTrue(!lock.isLocked());
+    }
+
+    /**
+     * ロック待ちの間に積まれた依頼がロックを取得したスレッドにまとめて処理されること.
+     * @throws Exception Exception
+     */
+    @Test
+    public void ロック待ちの間に積まれた依頼がロックを取得したスレッドにまとめて処理されること() throws Exception {
+        final int count = 5;
+        EsWriteBatcher batcher = new EsWriteBatcher(true, 100);
+        DoubleHandler handler = new DoubleHandler();
+        ReentrantLock lock = new ReentrantLock();
+        CountDownLatch acquiring = new CountDownLatch(count);
+        ExecutorService executor = Executors.newFixedThreadPool(count);
+        try {
+            // 他のリクエストがロックを保持している間に依頼を積む
+            lock.lock();
+            List<Future<Integer>> futures = submitAll(executor, batcher, lock, acquiring, handler, count);
+            assertTrue(acquiring.await(10, TimeUnit.SECONDS));
+            lock.unlock();
+
+            for (int i = 0; i < count; i++) {
+                assertEquals(Integer.valueOf(i * 2), futures.get(i).get(10, TimeUnit.SECONDS));
+            }
+            // 最初にロックを取得したスレッドが全ての依頼を処理し、他のスレッドは処理しない
+            assertEquals(1, handler.sizes.size());
+            assertEquals(Integer.valueOf(count), handler.sizes.get(0));
+        } finally {
+            executor.shutdownNow();
+        }
+    }
+
+    /**
+     * まとめる件数の上限を超えた依頼は次にロックを取得したスレッドが処理すること.
+     * @throws Exception Exception
+     */
+    @Test
+    public void まとめる件数の上限を超えた依頼は次にロックを取得したスレッドが処理すること() throws Exception {
+        final int count = 5;
+        EsWriteBatcher batcher = new EsWriteBatcher(true, 2);
+        DoubleHandler handler = new DoubleHandler();
+        ReentrantLock lock = new ReentrantLock();
+        CountDownLatch acquiring = new CountDownLatch(count);
+        ExecutorService executor = Executors.newFixedThreadPool(count);
+        try {
+            lock.lock();
+            List<Future<Integer>> futures = submitAll(executor, batcher, lock, acquiring, handler, count);
+            assertTrue(acquiring.await(10, TimeUnit.SECONDS));
+            lock.unlock();
+
+            for (int i = 0; i < count; i++) {
+                assertEquals(Integer.valueOf(i * 2), futures.get(i).get(10, TimeUnit.SECONDS));
+            }
+            int total = 0;
+            for (int size : handler.sizes) {
+                assertTrue(size <= 2);
+                total += size;
+            }
+            assertEquals(count, total);
+        } finally {
+            executor.shutdownNow();
+        }
+    }
+
+    /**
+     * 処理中に例外が発生した場合は結果を返していない依頼元に例外が返ること.
+     */
+    @Test
+    public void 処理中に例外が発生した場合は結果を返していない依頼元に例外が返ること() {
+        EsWriteBatcher batcher = new EsWriteBatcher(true, 100);
+        final RuntimeException error = new RuntimeException("failed");
+        ReentrantLock lock = new ReentrantLock();
+        try {
+            batcher.submit("key", 1, new TestLockHolder(lock, new CountDownLatch(1)),
+                    new EsWriteBatcher.Handler<Integer, Integer>() {
+                        @Override
+                        public void handle(List<EsWriteBatcher.Entry<Integer, Integer>> entries) {
+                            throw error;
+                        }
+                    });
+            fail("Exception not thrown.");
+        } catch (RuntimeException e) {
+            assertSame(error, e);
+        }
+        assertTrue(!lock.isLocked());
+    }
+
+    /**
+     * ロックの取得に失敗した場合は依頼が処理されないこと.
+     */
+    @Test
+    public void ロックの取得に失敗した場合は依頼が処理されないこと() {
+        EsWriteBatcher batcher = new EsWriteBatcher(true, 100);
+        DoubleHandler handler = new DoubleHandler();
+        final RuntimeException error = new RuntimeException("lock timeout");
+        try {
+            batcher.submit("key", 1, new EsWriteBatcher.LockHolder() {
+                @Override
+                public void acquire() {
+                    throw error;
+                }
+
+                @Override
+                public void release() {
+                    fail("Lock not acquired.");
+                }
+            }, handler);
+            fail("Exception not thrown.");
+        } catch (RuntimeException e) {
+            assertSame(error, e);
+        }
+
+        // 取得に失敗した依頼は、次にロックを取得したスレッドにも処理されない
+        assertEquals(Integer.valueOf(4), batcher.submit("key", 2,
+                new TestLockHolder(new ReentrantLock(), new CountDownLatch(1)), handler));
+        assertEquals(1, handler.sizes.size());
+        assertEquals(Integer.valueOf(1), handler.sizes.get(0));
+    }
+}
@@ -0,0 +1,219 @@
+/**
+ * personium.io
+ * Copyright 2014 FUJITSU LIMITED
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.fujitsu.dc.core.model.impl.es.ads;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.experimental.categories.Category;
+
+import com.fujitsu.dc.common.ads.AdsWriteFailureLogInfo;
+import com.fujitsu.dc.test.categories.Unit;
+
+/**
+ * AdsJournalユニットテストクラス.
+ */
+@Category({ Unit.class })
+public class AdsJournalTest {
+
+    private File dir;
+
+    /**
+     * テストの前処理. ジャーナルを格納する一時ディレクトリを作成する.
+     * @throws Exception Exception
+     */
+    @Before
+    public void before() throws Exception {
+        dir = File.createTempFile("adsJournal", "");
+        assertTrue(dir.delete());
+        assertTrue(dir.mkdir());
+    }
+
+    /**
+     * テストの後処理. 一時ディレクトリを削除する.
+     */
+    @After
+    public void after() {
+        File[] files = dir.listFiles();
+        if (files != null) {
+            for (File file : files) {
+                file.delete();
+            }
+        }
+        dir.delete();
+    }
+
+    private static List<AdsWriteFailureLogInfo> records(String... ids) {
+        List<AdsWriteFailureLogInfo> list = new ArrayList<AdsWriteFailureLogInfo>();
+        for (String id : ids) {
+            list.add(new AdsWriteFailureLogInfo("u0_anon", "UserData", "odata-cell-node", "cell", id,
+                    AdsWriteFailureLogInfo.OperationKind.CREATE, 1, 1408595358931L));
+        }
+        return list;
+    }
+
+    /**
+     * 追記した更新がrollした後にシール済みセグメントから読み込めること.
+     * @throws Exception Exception
+     */
+    @Test
+    public void 追記した更新がrollした後にシール済みセグメントから読み込めること() throws Exception {
+        AdsJournal journal = new AdsJournal(dir, "1.0", 1024 * 1024);
+        journal.sync(journal.append(records("id1", "id2")));
+        assertTrue(journal.sealedSegments().isEmpty());
+        assertTrue(journal.getPendingBytes() > 0);
+
+        journal.roll();
+        List<File> segments = journal.sealedSegments();
+        assertEquals(1, segments.size());
+        List<String> lines = journal.read(segments.get(0));
+        assertEquals(2, lines.size());
+        assertEquals("id1", AdsWriteFailureLogInfo.parse(lines.get(0)).getUuid());
+        assertEquals("id2", AdsWriteFailureLogInfo.parse(lines.get(1)).getUuid());
+    }
+
+    /**
+     * セグメントが上限サイズを超えた場合は次のセグメントに記録されること.
+     * @throws Exception Exception
+     */
+    @Test
+    public void セグメントが上限サイズを超えた場合は次のセグメントに記録されること() throws Exception {
+        AdsJournal journal = new AdsJournal(dir, "1.0", 1);
+        journal.sync(journal.append(records("id1")));
+        journal.sync(journal.append(records("id2")));
+        journal.roll();
+        List<File> segments = journal.sealedSegments();
+        assertEquals(2, segments.size());
+        assertEquals("id1", AdsWriteFailureLogInfo.parse(journal.read(segments.get(0)).get(0)).getUuid());
+        assertEquals("id2", AdsWriteFailureLogInfo.parse(journal.read(segments.get(1)).get(0)).getUuid());
+    }
+
+    /**
+     * セグメントの切り替えと並行して追記した更新が全て読み込めること.
+     * @throws Exception Exception
+     */
+    @Test
+    public void セグメントの切り替えと並行して追記した更新が全て読み込めること() throws Exception {
+        final AdsJournal journal = new AdsJournal(dir, "1.0", 256);
+        final int threads = 8;
+        final int recordsPerThread = 50;
+        ExecutorService executor = Executors.newFixedThreadPool(threads);
+        try {
+            List<Future<Void>> futures = new ArrayList<Future<Void>>();
+            for (int t = 0; t < threads; t++) {
+                final int threadNo = t;
+                futures.add(executor.submit(new Callable<Void>() {
+                    @Override
+                    public Void call() throws Exception {
+                        for (int i = 0; i < recordsPerThread; i++) {
+                            journal.sync(journal.append(records("id" + threadNo + "_" + i)));
+                        }
+                        return null;
+                    }
+                }));
+            }
+            for (Future<Void> future : futures) {
+                future.get();
+            }
+        } finally {
+            executor.shutdown();
+        }
+        journal.roll();
+
+        List<File> segments = journal.sealedSegments();
+        assertTrue(segments.size() > 1);
+        int count = 0;
+        for (File segment : segments) {
+            for (String line : journal.read(segment)) {
+                AdsWriteFailureLogInfo.parse(line);
+                count++;
+            }
+        }
+        assertEquals(threads * recordsPerThread, count);
+    }
+
+    /**
+     * チェックポイントに記録した反映済みの位置を再起動後に読み込めること.
+     * @throws Exception Exception
+     */
+    @Test
+    public void チェックポイントに記録した反映済みの位置を再起動後に読み込めること() throws Exception {
+        AdsJournal journal = new AdsJournal(dir, "1.0", 1024 * 1024);
+        journal.sync(journal.append(records("id1", "id2", "id3")));
+        journal.roll();
+        File segment = journal.sealedSegments().get(0);
+        assertEquals(0, journal.readCheckpoint().recordsOf(segment));
+        journal.writeCheckpoint(segment, 2);
+
+        AdsJournal restarted = new AdsJournal(dir, "1.0", 1024 * 1024);
+        List<File> segments = restarted.sealedSegments();
+        assertEquals(1, segments.size());
+        assertEquals(2, restarted.readCheckpoint().recordsOf(segments.get(0)));
+        assertTrue(restarted.getPendingBytes() > 0);
+    }
+
+    /**
+     * 全てのセグメントを削除した後に再起動してもチェックポイントにより更新が読み飛ばされないこと.
+     * @throws Exception Exception
+     */
+    @Test
+    public void 全てのセグメントを削除した後に再起動してもチェックポイントにより更新が読み飛ばされないこと() throws Exception {
+        AdsJournal journal = new AdsJournal(dir, "1.0", 1024 * 1024);
+        journal.sync(journal.append(records("id1", "id2")));
+        journal.roll();
+        File segment = journal.sealedSegments().get(0);
+        journal.writeCheckpoint(segment, 2);
+        journal.delete(segment);
+
+        AdsJournal restarted = new AdsJournal(dir, "1.0", 1024 * 1024);
+        restarted.sync(restarted.append(records("id3")));
+        restarted.roll();
+        List<File> segments = restarted.sealedSegments();
+        assertEquals(1, segments.size());
+        assertFalse(segments.get(0).getName().equals(segment.getName()));
+        assertEquals(0, restarted.readCheckpoint().recordsOf(segments.get(0)));
+        assertEquals(1, restarted.read(segments.get(0)).size());
+    }
+
+    /**
+     * 反映済みのセグメントを削除すると未反映のサイズが減ること.
+     * @throws Exception Exception
+     */
+    @Test
+    public void 反映済みのセグメントを削除すると未反映のサイズが減ること() throws Exception {
+        AdsJournal journal = new AdsJournal(dir, "1.0", 1024 * 1024);
+        journal.sync(journal.append(records("id1")));
+        journal.roll();
+        File segment = journal.sealedSegments().get(0);
+        journal.delete(segment);
+        assertFalse(segment.exists());
+        assertTrue(journal.sealedSegments().isEmpty());
+        assertEquals(0, journal.getPendingBytes());
+    }
+}
@@ -0,0 +1,115 @@
+/**
+ * personium.io
+ * Copyright 2014 FUJITSU LIMITED
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.fujitsu.dc.core.model.impl.es.ads;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+
+import org.junit.Test;
+import org.junit.experimental.categories.Category;
+
+import com.fujitsu.dc.test.categories.Unit;
+
+/**
+ * AdsRangeDigestユニットテストクラス.
+ */
+@Category({ Unit.class })
+public class AdsRangeDigestTest {
+
+    /**
+     * 追加順序が異なっても同じダイジェストとなること.
+     */
+    @Test
+    public void 追加順序が異なっても同じダイジェストとなること() {
+        AdsRangeDigest digest1 = new AdsRangeDigest();
+        digest1.add("aaaaaaaaaaaaaaaaaaaaaa", 1408595358931L);
+        digest1.add("bbbbbbbbbbbbbbbbbbbbbb", 1408595358932L);
+        digest1.add("cccccccccccccccccccccc", 0L);
+        AdsRangeDigest digest2 = new AdsRangeDigest();
+        digest2.add("cccccccccccccccccccccc", 0L);
+        digest2.add("aaaaaaaaaaaaaaaaaaaaaa", 1408595358931L);
+        digest2.add("bbbbbbbbbbbbbbbbbbbbbb", 1408595358932L);
+
+        assertEquals(digest1, digest2);
+        assertEquals(digest1.hashCode(), digest2.hashCode());
+        assertEquals(3L, digest1.getCount());
+    }
+
+    /**
+     * 件数とハッシュ値を指定して生成したダイジェストと一致すること.
+     */
+    @Test
+    public void 件数とハッシュ値を指定して生成したダイジェストと一致すること() {
+        AdsRangeDigest digest = new AdsRangeDigest();
+        digest.add("aaaaaaaaaaaaaaaaaaaaaa", 1408595358931L);
+        digest.add("bbbbbbbbbbbbbbbbbbbbbb", 1408595358932L);
+        long hash = AdsRangeDigest.hashOf("aaaaaaaaaaaaaaaaaaaaaa", 1408595358931L)
+                ^ AdsRangeDigest.hashOf("bbbbbbbbbbbbbbbbbbbbbb", 1408595358932L);
+
+        assertEquals(new AdsRangeDigest(2L, hash), digest);
+        assertEquals(hash, digest.getHash());
+    }
+
+    /**
+     * 更新日時が異なる場合は異なるダイジェストとなること.
+     */
+    @Test
+    public void 更新日時が異なる場合は異なるダイジェストとなること() {
+        AdsRangeDigest digest1 = new AdsRangeDigest();
+        digest1.add("aaaaaaaaaaaaaaaaaaaaaa", 1408595358931L);
+        AdsRangeDigest digest2 = new AdsRangeDigest();
+        digest2.add("aaaaaaaaaaaaaaaaaaaaaa", 1408595358932L);
+
+        assertFalse(digest1.equals(digest2));
+    }
+
+    /**
+     * 範囲ごとのダイジェストを合わせると範囲全体のダイジェストと一致すること.
+     */
+    @Test
+    public void 範囲ごとのダイジェストを合わせると範囲全体のダイジェストと一致すること() {
+        AdsRangeDigest whole = new AdsRangeDigest();
+        whole.add("aaaaaaaaaaaaaaaaaaaaaa", 1408595358931L);
+        whole.add("abaaaaaaaaaaaaaaaaaaaa", 1408595358932L);
+        whole.add("bbbbbbbbbbbbbbbbbbbbbb", 0L);
+        AdsRangeDigest rangeA = new AdsRangeDigest();
+        rangeA.add("aaaaaaaaaaaaaaaaaaaaaa", 1408595358931L);
+        rangeA.add("abaaaaaaaaaaaaaaaaaaaa", 1408595358932L);
+        AdsRangeDigest rangeB = new AdsRangeDigest();
+        rangeB.add("bbbbbbbbbbbbbbbbbbbbbb", 0L);
+
+        AdsRangeDigest merged = new AdsRangeDigest();
+        merged.add(rangeA);
+        merged.add(rangeB);
+        merged.add(new AdsRangeDigest());
+
+        assertEquals(whole, merged);
+        assertEquals(3L, merged.getCount());
+    }
+
+    /**
+     * データが存在しない範囲のダイジェストは件数0かつハッシュ値0となること.
+     */
+    @Test
+    public void データが存在しない範囲のダイジェストは件数0かつハッシュ値0となること() {
+        AdsRangeDigest digest = new AdsRangeDigest();
+
+        assertEquals(0L, digest.getCount());
+        assertEquals(0L, digest.getHash());
+        assertEquals(new AdsRangeDigest(0L, 0L), digest);
+    }
+}
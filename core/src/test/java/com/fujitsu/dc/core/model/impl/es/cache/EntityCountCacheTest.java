@@ -0,0 +1,221 @@
+/**
+ * personium.io
+ * Copyright 2014 FUJITSU LIMITED
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.fujitsu.dc.core.model.impl.es.cache;
+
+import static org.fest.assertions.Assertions.assertThat;
+
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+import org.junit.Test;
+import org.junit.experimental.categories.Category;
+
+import com.fujitsu.dc.core.utils.MemcachedClient.MemcachedClientException;
+import com.fujitsu.dc.test.categories.Unit;
+
+/**
+ * EntityCountCache ユニットテストクラス.
+ */
+@Category({Unit.class })
+public class EntityCountCacheTest {
+
+    private static final String SCOPE = EntityCountCache.scope("cell", "box", "node", "entityType");
+
+    private static Map<String, Object> query(String name) {
+        Map<String, Object> term = new HashMap<String, Object>();
+        term.put("s.Name.untouched", name);
+        Map<String, Object> filter = new HashMap<String, Object>();
+        filter.put("term", term);
+        Map<String, Object> query = new HashMap<String, Object>();
+        query.put("filter", filter);
+        return query;
+    }
+
+    /**
+     * 書き込みが無い場合はキャッシュした件数を返すこと.
+     */
+    @Test
+    public void 書き込みが無い場合はキャッシュした件数を返すこと() {
+        EntityCountCache cache = new EntityCountCache(true, 10, 60000, 60000, new MockMemcachedClient());
+        String generation = cache.getGeneration("index", "type", SCOPE);
+        assertThat(cache.get("index", "type", SCOPE, query("a"), generation, false)).isNull();
+
+        cache.put("index", "type", SCOPE, query("a"), generation, 5);
+        EntityCountCache.Count count = cache.get("index", "type", SCOPE, query("a"),
+                cache.getGeneration("index", "type", SCOPE), false);
+        assertThat(count.getValue()).isEqualTo(5);
+        assertThat(count.isExact()).isTrue();
+        assertThat(cache.get("index", "type", SCOPE, query("b"), generation, false)).isNull();
+    }
+
+    /**
+     * 他ノードでの書き込み後はキャッシュした件数を返さないこと.
+     */
+    @Test
+    public void 他ノードでの書き込み後はキャッシュした件数を返さないこと() {
+        MockMemcachedClient client = new MockMemcachedClient();
+        EntityCountCache cache = new EntityCountCache(true, 10, 60000, 60000, client);
+        EntityCountCache other = new EntityCountCache(true, 10, 60000, 60000, client);
+        cache.put("index", "type", SCOPE, query("a"), cache.getGeneration("index", "type", SCOPE), 5);
+
+        other.invalidate("index", "type", "cell", "box", "node", "entityType");
+        assertThat(cache.get("index", "type", SCOPE, query("a"), cache.getGeneration("index", "type", SCOPE),
+                false)).isNull();
+    }
+
+    /**
+     * 他のEntityTypeへの書き込み後もキャッシュした件数を返すこと.
+     */
+    @Test
+    public void 他のEntityTypeへの書き込み後もキャッシュした件数を返すこと() {
+        MockMemcachedClient client = new MockMemcachedClient();
+        EntityCountCache cache = new EntityCountCache(true, 10, 60000, 60000, client);
+        EntityCountCache other = new EntityCountCache(true, 10, 60000, 60000, client);
+        cache.put("index", "type", SCOPE, query("a"), cache.getGeneration("index", "type", SCOPE), 5);
+
+        other.invalidate("index", "type", "cell", "box", "node", "otherEntityType");
+        cache.invalidate("index", "type", "otherCell", "box", "node", "entityType");
+        EntityCountCache.Count count = cache.get("index", "type", SCOPE, query("a"),
+                cache.getGeneration("index", "type", SCOPE), false);
+        assertThat(count.getValue()).isEqualTo(5);
+        assertThat(count.isExact()).isTrue();
+    }
+
+    /**
+     * 書き込んだドキュメントを含む広いスコープの件数は返さないこと.
+     */
+    @Test
+    public void 書き込んだドキュメントを含む広いスコープの件数は返さないこと() {
+        MockMemcachedClient client = new MockMemcachedClient();
+        EntityCountCache cache = new EntityCountCache(true, 10, 60000, 60000, client);
+        EntityCountCache other = new EntityCountCache(true, 10, 60000, 60000, client);
+        String cellScope = EntityCountCache.scope("cell", null, "node", "entityType");
+        assertThat(cellScope).isEqualTo(EntityCountCache.scope("cell", null, null, null));
+        cache.put("index", "type", cellScope, query("a"), cache.getGeneration("index", "type", cellScope), 5);
+        cache.put("index", "type", "", query("a"), cache.getGeneration("index", "type", ""), 7);
+
+        other.invalidate("index", "type", "cell", "box", "node", "entityType");
+        assertThat(cache.get("index", "type", cellScope, query("a"),
+                cache.getGeneration("index", "type", cellScope), false)).isNull();
+        assertThat(cache.get("index", "type", "", query("a"),
+                cache.getGeneration("index", "type", ""), false)).isNull();
+    }
+
+    /**
+     * スコープが不明な書き込み後はタイプの全スコープの件数を返さないこと.
+     */
+    @Test
+    public void スコープが不明な書き込み後はタイプの全スコープの件数を返さないこと() {
+        MockMemcachedClient client = new MockMemcachedClient();
+        EntityCountCache cache = new EntityCountCache(true, 10, 60000, 60000, client);
+        EntityCountCache other = new EntityCountCache(true, 10, 60000, 60000, client);
+        cache.put("index", "type", SCOPE, query("a"), cache.getGeneration("index", "type", SCOPE), 5);
+
+        other.invalidate("index", "type");
+        assertThat(cache.get("index", "type", SCOPE, query("a"), cache.getGeneration("index", "type", SCOPE),
+                false)).isNull();
+    }
+
+    /**
+     * 概算件数の指定時は書き込み後も古い件数を概算件数として返すこと.
+     */
+    @Test
+    public void 概算件数の指定時は書き込み後も古い件数を概算件数として返すこと() {
+        MockMemcachedClient client = new MockMemcachedClient();
+        EntityCountCache cache = new EntityCountCache(true, 10, 60000, 60000, client);
+        EntityCountCache other = new EntityCountCache(true, 10, 60000, 60000, client);
+        cache.put("index", "type", SCOPE, query("a"), cache.getGeneration("index", "type", SCOPE), 5);
+
+        other.invalidate("index", "type", "cell", "box", "node", "entityType");
+        EntityCountCache.Count count = cache.get("index", "type", SCOPE, query("a"),
+                cache.getGeneration("index", "type", SCOPE), true);
+        assertThat(count.getValue()).isEqualTo(5);
+        assertThat(count.isExact()).isFalse();
+    }
+
+    /**
+     * 書き込んだドキュメントを含み得るスコープの件数のみ破棄すること.
+     */
+    @Test
+    public void 書き込んだドキュメントを含み得るスコープの件数のみ破棄すること() {
+        EntityCountCache cache = new EntityCountCache(true, 10, 60000, 60000, new MockMemcachedClient());
+        String otherScope = EntityCountCache.scope("cell", "box", "node", "otherEntityType");
+        cache.put("index", "type", SCOPE, query("a"), cache.getGeneration("index", "type", SCOPE), 5);
+        cache.put("index", "type", otherScope, query("a"), cache.getGeneration("index", "type", otherScope), 7);
+        cache.put("index", "otherType", SCOPE, query("a"), cache.getGeneration("index", "otherType", SCOPE), 9);
+
+        // 破棄された件数は概算件数としても返さない
+        cache.invalidate("index", "type", "cell", "box", "node", "entityType");
+        assertThat(cache.get("index", "type", SCOPE, query("a"), null, true)).isNull();
+        assertThat(cache.get("index", "type", otherScope, query("a"), null, true).getValue()).isEqualTo(7);
+
+        cache.invalidate("index", "type");
+        assertThat(cache.get("index", "type", otherScope, query("a"), null, true)).isNull();
+        assertThat(cache.get("index", "otherType", SCOPE, query("a"), null, true).getValue()).isEqualTo(9);
+    }
+
+    /**
+     * 世代を進められなかった場合は書き込み前に取得した世代の件数を返さないこと.
+     */
+    @Test
+    public void 世代を進められなかった場合は書き込み前に取得した世代の件数を返さないこと() {
+        final boolean[] failure = new boolean[] {false};
+        MockMemcachedClient client = new MockMemcachedClient() {
+            @Override
+            public Boolean putBulk(int expiresIn, Map<String, ?> objects) {
+                if (failure[0]) {
+                    throw new MemcachedClientException(null);
+                }
+                return super.putBulk(expiresIn, objects);
+            }
+        };
+        EntityCountCache cache = new EntityCountCache(true, 10, 60000, 60000, client);
+        String generation = cache.getGeneration("index", "type", SCOPE);
+        cache.put("index", "type", SCOPE, query("a"), generation, 5);
+
+        failure[0] = true;
+        cache.invalidate("index", "type", "cell", "box", "node", "otherEntityType");
+        assertThat(cache.get("index", "type", SCOPE, query("a"), cache.getGeneration("index", "type", SCOPE),
+                false)).isNull();
+        assertThat(cache.get("index", "type", SCOPE, query("a"), null, true)).isNull();
+
+        // 書き込み前に取得した世代で件数を保持しても使わない
+        cache.put("index", "type", SCOPE, query("a"), generation, 5);
+        assertThat(cache.get("index", "type", SCOPE, query("a"), cache.getGeneration("index", "type", SCOPE),
+                false)).isNull();
+    }
+
+    /**
+     * 取得件数やソート順が異なっても同じ件数を使うこと.
+     */
+    @Test
+    public void 取得件数やソート順が異なっても同じ件数を使うこと() {
+        Map<String, Object> first = new LinkedHashMap<String, Object>();
+        first.put("size", 0);
+        first.put("filter", query("a").get("filter"));
+        first.put("query", query("b").get("filter"));
+        Map<String, Object> second = new LinkedHashMap<String, Object>();
+        second.put("query", query("b").get("filter"));
+        second.put("filter", query("a").get("filter"));
+        second.put("size", 25);
+        second.put("sort", "s.Name.untouched");
+
+        assertThat(EntityCountCache.cacheKey("index", "type", SCOPE, first))
+                .isEqualTo(EntityCountCache.cacheKey("index", "type", SCOPE, second));
+    }
+}
@@ -16,8 +16,12 @@
  */
 package com.fujitsu.dc.core.model.impl.es.cache;
 
+import java.util.Collection;
 import java.util.HashMap;
 import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.Future;
+import java.util.concurrent.FutureTask;
 
 import com.fujitsu.dc.core.utils.CacheClient;
 
@@ -40,8 +44,65 @@ public class MockMemcachedClient implements CacheClient {
         return true;
     }
 
+    @Override
+    public Boolean add(String key, int expiresIn, Object object) {
+        if (cache.containsKey(key)) {
+            return false;
+        }
+        cache.put(key, object);
+        return true;
+    }
+
     @Override
     public void delete(String key) {
         cache.remove(key);
     }
+
+    @Override
+    public void clear() {
+        cache.clear();
+    }
+
+    @Override
+    public Map<String, Object> getBulk(Collection<String> keys) {
+        Map<String, Object> ret = new HashMap<String, Object>();
+        for (String key : keys) {
+            if (cache.containsKey(key)) {
+                ret.put(key, cache.get(key));
+            }
+        }
+        return ret;
+    }
+
+    @Override
+    public Future<Map<String, Object>> asyncGetBulk(final Collection<String> keys) {
+        return done(new Callable<Map<String, Object>>() {
+            @Override
+            public Map<String, Object> call() {
+                return getBulk(keys);
+            }
+        });
+    }
+
+    @Override
+    public Boolean putBulk(int expiresIn, Map<String, ?> objects) {
+        cache.putAll(objects);
+        return true;
+    }
+
+    @Override
+    public Future<Boolean> asyncPut(final String key, final int expiresIn, final Object object) {
+        return done(new Callable<Boolean>() {
+            @Override
+            public Boolean call() {
+                return put(key, expiresIn, object);
+            }
+        });
+    }
+
+    private static <V> Future<V> done(Callable<V> callable) {
+        FutureTask<V> task = new FutureTask<V>(callable);
+        task.run();
+        return task;
+    }
 }
@@ -0,0 +1,241 @@
+/**
+ * personium.io
+ * Copyright 2014 FUJITSU LIMITED
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.fujitsu.dc.core.model.impl.es.cache;
+
+import static org.fest.assertions.Assertions.assertThat;
+
+import java.util.Collection;
+import java.util.Map;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicReference;
+
+import org.junit.Test;
+import org.junit.experimental.categories.Category;
+
+import com.fujitsu.dc.test.categories.Unit;
+
+/**
+ * NearCache ユニットテストクラス.
+ */
+@Category({Unit.class })
+public class NearCacheTest {
+
+    /**
+     * 登録したエントリを取得できること.
+     */
+    @Test
+    public void 登録したエントリを取得できること() {
+        MockMemcachedClient client = new MockMemcachedClient();
+        NearCache near = new NearCache("test", 10, 60000, 60000);
+        near.get("key", client);
+
+        near.put("key", "value", near.currentEpoch());
+        assertThat(near.get("key", client)).isEqualTo("value");
+    }
+
+    /**
+     * 上限を超えた場合に最も古いエントリが追い出されること.
+     */
+    @Test
+    public void 上限を超えた場合に最も古いエントリが追い出されること() {
+        MockMemcachedClient client = new MockMemcachedClient();
+        NearCache near = new NearCache("test", 2, 60000, 60000);
+        near.get("key1", client);
+
+        near.put("key1", "value1", near.currentEpoch());
+        near.put("key2", "value2", near.currentEpoch());
+        near.put("key3", "value3", near.currentEpoch());
+        assertThat(near.get("key1", client)).isNull();
+        assertThat(near.get("key2", client)).isEqualTo("value2");
+        assertThat(near.get("key3", client)).isEqualTo("value3");
+    }
+
+    /**
+     * 有効期限を過ぎたエントリは取得できないこと.
+     * @throws Exception テスト中の例外
+     */
+    @Test
+    public void 有効期限を過ぎたエントリは取得できないこと() throws Exception {
+        MockMemcachedClient client = new MockMemcachedClient();
+        NearCache near = new NearCache("test", 10, 1, 60000);
+        near.get("key", client);
+
+        near.put("key", "value", near.currentEpoch());
+        Thread.sleep(10);
+        assertThat(near.get("key", client)).isNull();
+    }
+
+    /**
+     * 接頭辞を指定して無効化した場合は一致するエントリのみ削除されること.
+     */
+    @Test
+    public void 接頭辞を指定して無効化した場合は一致するエントリのみ削除されること() {
+        MockMemcachedClient client = new MockMemcachedClient();
+        NearCache near = new NearCache("test", 10, 60000, 60000);
+        near.get("cell1:key", client);
+
+        near.put("cell1:key", "value1", near.currentEpoch());
+        near.put("cell2:key", "value2", near.currentEpoch());
+        near.invalidateByPrefix("cell1:", client);
+        assertThat(near.get("cell1:key", client)).isNull();
+        assertThat(near.get("cell2:key", client)).isEqualTo("value2");
+    }
+
+    /**
+     * 読み込み中に無効化された場合はエントリが登録されないこと.
+     */
+    @Test
+    public void 読み込み中に無効化された場合はエントリが登録されないこと() {
+        MockMemcachedClient client = new MockMemcachedClient();
+        NearCache near = new NearCache("test", 10, 60000, 60000);
+        near.get("key", client);
+
+        long epoch = near.currentEpoch();
+        near.invalidate("key", client);
+        near.put("key", "stale", epoch);
+        assertThat(near.get("key", client)).isNull();
+    }
+
+    /**
+     * 他ノードで世代が進められた場合はローカルのエントリが破棄されること.
+     */
+    @Test
+    public void 他ノードで世代が進められた場合はローカルのエントリが破棄されること() {
+        MockMemcachedClient client = new MockMemcachedClient();
+        NearCache near = new NearCache("test", 10, 60000, 0);
+        NearCache otherNode = new NearCache("test", 10, 60000, 0);
+        near.get("key", client);
+
+        near.put("key", "value", near.currentEpoch());
+        assertThat(near.get("key", client)).isEqualTo("value");
+
+        otherNode.invalidate("key", client);
+        assertThat(near.get("key", client)).isNull();
+    }
+
+    /**
+     * 他ノードでスコープを無効化した場合は該当スコープのエントリのみ破棄されること.
+     */
+    @Test
+    public void 他ノードでスコープを無効化した場合は該当スコープのエントリのみ破棄されること() {
+        MockMemcachedClient client = new MockMemcachedClient();
+        NearCache near = new NearCache("scoped", 10, 60000, 0);
+        NearCache otherNode = new NearCache("scoped", 10, 60000, 0);
+        near.get("cell1:key", client);
+
+        near.put("cell1", "cell1:key", "value1", near.currentEpoch(), near.scopeGeneration("cell1", client));
+        near.put("cell2", "cell2:key", "value2", near.currentEpoch(), near.scopeGeneration("cell2", client));
+        near.put("global", "value3", near.currentEpoch());
+
+        otherNode.invalidateScope("cell1", client);
+        assertThat(near.get("cell1:key", client)).isNull();
+        assertThat(near.get("cell2:key", client)).isEqualTo("value2");
+        assertThat(near.get("global", client)).isEqualTo("value3");
+    }
+
+    /**
+     * 読み込み中に他ノードでスコープが無効化された場合はエントリが登録されないこと.
+     */
+    @Test
+    public void 読み込み中に他ノードでスコープが無効化された場合はエントリが登録されないこと() {
+        MockMemcachedClient client = new MockMemcachedClient();
+        NearCache near = new NearCache("scopedRead", 10, 60000, 0);
+        NearCache otherNode = new NearCache("scopedRead", 10, 60000, 0);
+        near.get("cell1:key1", client);
+        near.put("cell1", "cell1:key1", "value1", near.currentEpoch(), near.scopeGeneration("cell1", client));
+
+        long epoch = near.currentEpoch();
+        Object generation = near.scopeGeneration("cell1", client);
+        otherNode.invalidateScope("cell1", client);
+        // 世代の確認で無効化を検知するため、読み込み前に取得したエポックと世代では登録されない
+        near.get("cell1:key2", client);
+        near.put("cell1", "cell1:key2", "stale", epoch, generation);
+        assertThat(near.get("cell1:key2", client)).isNull();
+    }
+
+    /**
+     * 世代の確認中に他スレッドが確認を待たずにエントリを取得できること.
+     * @throws Exception テスト中の例外
+     */
+    @Test
+    public void 世代の確認中に他スレッドが確認を待たずにエントリを取得できること() throws Exception {
+        final CountDownLatch fetching = new CountDownLatch(1);
+        final CountDownLatch release = new CountDownLatch(1);
+        final BlockingMemcachedClient client = new BlockingMemcachedClient(fetching, release);
+        final NearCache near = new NearCache("blocking", 10, 60000, 0);
+        near.get("key", client);
+        near.put("key", "value", near.currentEpoch());
+
+        client.blocking = true;
+        Thread checker = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                near.get("key", client);
+            }
+        });
+        checker.start();
+        final AtomicReference<Object> read = new AtomicReference<Object>();
+        final CountDownLatch readDone = new CountDownLatch(1);
+        Thread reader = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                read.set(near.get("key", client));
+                readDone.countDown();
+            }
+        });
+        try {
+            assertThat(fetching.await(10, TimeUnit.SECONDS)).isTrue();
+            reader.start();
+            // 確認中のスレッドが解放される前に取得が完了すること
+            assertThat(readDone.await(5, TimeUnit.SECONDS)).isTrue();
+            assertThat(read.get()).isEqualTo("value");
+        } finally {
+            release.countDown();
+            checker.join(10000);
+            reader.join(10000);
+        }
+        assertThat(checker.isAlive()).isFalse();
+    }
+
+    /**
+     * 有効化されている間、getBulkの呼び出しを解放されるまで止めるキャッシュクライアント.
+     */
+    static class BlockingMemcachedClient extends MockMemcachedClient {
+        volatile boolean blocking;
+        private final CountDownLatch fetching;
+        private final CountDownLatch release;
+
+        BlockingMemcachedClient(CountDownLatch fetching, CountDownLatch release) {
+            this.fetching = fetching;
+            this.release = release;
+        }
+
+        @Override
+        public Map<String, Object> getBulk(Collection<String> keys) {
+            if (this.blocking) {
+                this.fetching.countDown();
+                try {
+                    this.release.await(10, TimeUnit.SECONDS);
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                }
+            }
+            return super.getBulk(keys);
+        }
+    }
+}
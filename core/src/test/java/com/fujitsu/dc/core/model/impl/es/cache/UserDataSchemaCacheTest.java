@@ -426,4 +426,40 @@ public class UserDataSchemaCacheTest {
         UserDataSchemaCache.clear(nodeId);
         assertThat(mockMemcachedClient.get(cacheKeyForMock, Map.class)).isNull();
     }
+
+    /**
+     * 世代の採番が他ノードと競合した場合に先に登録された世代を返すこと.
+     * @throws Exception 実行エラー
+     */
+    @Test
+    public void 世代の採番が他ノードと競合した場合に先に登録された世代を返すこと() throws Exception {
+        String nodeId = "node_ZZZZZZZZZZ2";
+        final String generationKeyForMock = "userodata:generation:" + nodeId;
+        final Long otherGeneration = 123L;
+
+        // 世代の取得直後に他ノードが世代を採番するキャッシュクライアント
+        MockMemcachedClient mockMemcachedClient = new MockMemcachedClient() {
+            private boolean first = true;
+
+            @Override
+            public <T> T get(String key, Class<T> clazz) {
+                T ret = super.get(key, clazz);
+                if (first && key.equals(generationKeyForMock)) {
+                    first = false;
+                    put(key, 0, otherGeneration);
+                }
+                return ret;
+            }
+        };
+        PowerMockito.spy(UserDataSchemaCache.class);
+        PowerMockito.when(UserDataSchemaCache.class, "getMcdClient").thenReturn(mockMemcachedClient);
+
+        // キャッシュの設定を有効にする
+        PowerMockito.spy(DcCoreConfig.class);
+        PowerMockito.when(DcCoreConfig.class, "isSchemaCacheEnabled").thenReturn(true);
+
+        // 他ノードの世代が上書きされず、その世代が返却されること
+        assertEquals(otherGeneration, UserDataSchemaCache.getGeneration(nodeId));
+        assertEquals(otherGeneration, mockMemcachedClient.get(generationKeyForMock, Long.class));
+    }
 }
@@ -0,0 +1,131 @@
+/**
+ * personium.io
+ * Copyright 2014 FUJITSU LIMITED
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.fujitsu.dc.core.model.impl.es.odata;
+
+import static org.fest.assertions.Assertions.assertThat;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.junit.Test;
+import org.junit.experimental.categories.Category;
+
+import com.fujitsu.dc.core.model.impl.es.odata.UserDataSchemaLocalCache.CompiledSchema;
+import com.fujitsu.dc.test.categories.Unit;
+
+/**
+ * UserDataSchemaLocalCache ユニットテストクラス.
+ */
+@Category({Unit.class })
+public class UserDataSchemaLocalCacheTest {
+
+    /**
+     * 読み込み処理の呼び出し回数を数えるローダ.
+     */
+    static class CountingLoader implements Callable<CompiledSchema> {
+        private final AtomicInteger count = new AtomicInteger();
+        private final long generation;
+        private final CountDownLatch latch;
+
+        CountingLoader(long generation, CountDownLatch latch) {
+            this.generation = generation;
+            this.latch = latch;
+        }
+
+        @Override
+        public CompiledSchema call() throws Exception {
+            count.incrementAndGet();
+            if (latch != null) {
+                latch.await();
+            }
+            Map<String, String> entityTypeIds = new HashMap<String, String>();
+            entityTypeIds.put("Type", "id");
+            return new CompiledSchema(generation, null, null, null, entityTypeIds);
+        }
+    }
+
+    /**
+     * 同一世代の場合は読み込み処理が1回しか呼ばれないこと.
+     */
+    @Test
+    public void 同一世代の場合は読み込み処理が1回しか呼ばれないこと() {
+        UserDataSchemaLocalCache cache = new UserDataSchemaLocalCache(10);
+        CountingLoader loader = new CountingLoader(1L, null);
+
+        cache.get("node", 1L, loader);
+        cache.get("node", 1L, loader);
+        assertThat(loader.count.get()).isEqualTo(1);
+    }
+
+    /**
+     * 世代が変わった場合は再度読み込むこと.
+     */
+    @Test
+    public void 世代が変わった場合は再度読み込むこと() {
+        UserDataSchemaLocalCache cache = new UserDataSchemaLocalCache(10);
+        CountingLoader loader1 = new CountingLoader(1L, null);
+        CountingLoader loader2 = new CountingLoader(2L, null);
+
+        cache.get("node", 1L, loader1);
+        CompiledSchema schema = cache.get("node", 2L, loader2);
+        assertThat(loader2.count.get()).isEqualTo(1);
+        assertThat(schema.getGeneration()).isEqualTo(2L);
+    }
+
+    /**
+     * 取得したMapを変更してもキャッシュの内容に影響しないこと.
+     */
+    @Test
+    public void 取得したMapを変更してもキャッシュの内容に影響しないこと() {
+        UserDataSchemaLocalCache cache = new UserDataSchemaLocalCache(10);
+        CountingLoader loader = new CountingLoader(1L, null);
+
+        cache.get("node", 1L, loader).getEntityTypeIds().put("Other", "id2");
+        assertThat(cache.get("node", 1L, loader).getEntityTypeIds()).hasSize(1);
+    }
+
+    /**
+     * 同時に読み込みが要求された場合は1回の読み込みにまとめられること.
+     * @throws Exception テスト中の例外
+     */
+    @Test
+    public void 同時に読み込みが要求された場合は1回の読み込みにまとめられること() throws Exception {
+        final UserDataSchemaLocalCache cache = new UserDataSchemaLocalCache(10);
+        final CountDownLatch latch = new CountDownLatch(1);
+        final CountingLoader loader = new CountingLoader(1L, latch);
+
+        Thread[] threads = new Thread[5];
+        for (int i = 0; i < threads.length; i++) {
+            threads[i] = new Thread(new Runnable() {
+                @Override
+                public void run() {
+                    cache.get("node", 1L, loader);
+                }
+            });
+            threads[i].start();
+        }
+        Thread.sleep(200);
+        latch.countDown();
+        for (Thread thread : threads) {
+            thread.join();
+        }
+        assertThat(loader.count.get()).isEqualTo(1);
+    }
+}
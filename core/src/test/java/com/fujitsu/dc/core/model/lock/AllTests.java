@@ -27,7 +27,9 @@ import org.junit.runners.Suite.SuiteClasses;
 @SuiteClasses({
     LockManagerTest.class,
     AccountLockManagerTest.class,
-    CellLockManagerTest.class
+    CellLockManagerTest.class,
+    LockStateLocalViewTest.class,
+    CellAccessCounterTest.class
     })
 public class AllTests {
 }
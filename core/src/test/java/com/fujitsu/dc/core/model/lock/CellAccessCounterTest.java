@@ -0,0 +1,129 @@
+/**
+ * personium.io
+ * Copyright 2014 FUJITSU LIMITED
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.fujitsu.dc.core.model.lock;
+
+import static org.junit.Assert.assertEquals;
+
+import java.util.HashMap;
+import java.util.Map;
+
+import org.junit.Test;
+import org.junit.experimental.categories.Category;
+
+import com.fujitsu.dc.test.categories.Unit;
+
+/**
+ * CellAccessCounterユニットテストクラス.
+ */
+@Category({ Unit.class })
+public class CellAccessCounterTest {
+
+    /**
+     * 反映された差分を合計するPublisher.
+     */
+    static class SummingPublisher implements CellAccessCounter.Publisher {
+        private final Map<String, Long> store = new HashMap<String, Long>();
+        private int calls;
+
+        @Override
+        public synchronized void publish(String fullKey, long delta) {
+            calls++;
+            Long value = store.get(fullKey);
+            store.put(fullKey, (value == null ? 0 : value) + delta);
+        }
+
+        synchronized long get(String fullKey) {
+            Long value = store.get(fullKey);
+            return value == null ? 0 : value;
+        }
+    }
+
+    /**
+     * 加算結果として自ノード内のアクセス数が返却されること.
+     */
+    @Test
+    public void 加算結果として自ノード内のアクセス数が返却されること() {
+        CellAccessCounter counter = new CellAccessCounter(true, 60000);
+        SummingPublisher publisher = new SummingPublisher();
+
+        assertEquals(1, counter.add("key", 1, publisher));
+        assertEquals(2, counter.add("key", 1, publisher));
+        assertEquals(1, counter.add("key", -1, publisher));
+        assertEquals(0, publisher.calls);
+    }
+
+    /**
+     * 反映時には前回からの差分のみが反映されること.
+     */
+    @Test
+    public void 反映時には前回からの差分のみが反映されること() {
+        CellAccessCounter counter = new CellAccessCounter(true, 60000);
+        SummingPublisher publisher = new SummingPublisher();
+
+        counter.add("key", 1, publisher);
+        counter.add("key", 1, publisher);
+        counter.flush("key", publisher);
+        assertEquals(2, publisher.get("key"));
+
+        counter.add("key", -1, publisher);
+        counter.flushAll(publisher);
+        assertEquals(1, publisher.get("key"));
+        assertEquals(2, publisher.calls);
+    }
+
+    /**
+     * 増減が相殺された場合は反映しないこと.
+     */
+    @Test
+    public void 増減が相殺された場合は反映しないこと() {
+        CellAccessCounter counter = new CellAccessCounter(true, 60000);
+        SummingPublisher publisher = new SummingPublisher();
+
+        counter.add("key", 1, publisher);
+        counter.add("key", -1, publisher);
+        counter.flushAll(publisher);
+        assertEquals(0, publisher.calls);
+    }
+
+    /**
+     * 複数スレッドからの増減が失われないこと.
+     * @throws Exception テスト中の例外
+     */
+    @Test
+    public void 複数スレッドからの増減が失われないこと() throws Exception {
+        final CellAccessCounter counter = new CellAccessCounter(true, 60000);
+        final SummingPublisher publisher = new SummingPublisher();
+
+        Thread[] threads = new Thread[8];
+        for (int i = 0; i < threads.length; i++) {
+            threads[i] = new Thread(new Runnable() {
+                @Override
+                public void run() {
+                    for (int j = 0; j < 1000; j++) {
+                        counter.add("key", 1, publisher);
+                    }
+                }
+            });
+            threads[i].start();
+        }
+        for (Thread thread : threads) {
+            thread.join();
+        }
+        counter.flush("key", publisher);
+        assertEquals(8000, publisher.get("key"));
+    }
+}
@@ -17,6 +17,7 @@
 package com.fujitsu.dc.core.model.lock;
 
 import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
 import static org.junit.Assert.assertTrue;
 import static org.junit.Assert.fail;
 
@@ -140,6 +141,27 @@ public class CellLockManagerTest {
         }
     }
 
+    /**
+     * 通常状態のセルへのアクセスを開始すると参照カウントがインクリメントされることの確認.
+     */
+    @Test
+    public void 通常状態のセルへのアクセスを開始すると参照カウントがインクリメントされる() {
+        assertTrue(CellLockManager.tryIncrementReferenceCount("TestingCellId"));
+        assertEquals(1, CellLockManager.getReferenceCount("TestingCellId"));
+    }
+
+    /**
+     * 一括削除中のセルへのアクセスは開始できず参照カウントが変化しないことの確認.
+     */
+    @Test
+    public void 一括削除中のセルへのアクセスは開始できず参照カウントが変化しない() {
+        CellLockManager.incrementReferenceCount("TestingCellId");
+        CellLockManager.setBulkDeletionStatus("TestingCellId");
+
+        assertFalse(CellLockManager.tryIncrementReferenceCount("TestingCellId"));
+        assertEquals(1, CellLockManager.getReferenceCount("TestingCellId"));
+    }
+
     /**
      * セルの処理状態を一括削除処理中に設定できることを確認.
      */
@@ -18,8 +18,13 @@ package com.fujitsu.dc.core.model.lock;
 
 import static org.junit.Assert.assertEquals;
 import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertTrue;
 
+import java.util.ArrayList;
+import java.util.Collections;
 import java.util.Date;
+import java.util.List;
+import java.util.Map;
 
 import org.junit.Before;
 import org.junit.Ignore;
@@ -148,6 +153,121 @@ public class LockManagerTest {
         this.違うカテゴリであれば同キー名での連続取得が可能();
     }
 
+    /**
+     * 同一プロセス内で待機しているスレッドは到着順にロックを取得する.
+     * @throws InterruptedException InterruptedException
+     */
+    @Test
+    public void 同一プロセス内で待機しているスレッドは到着順にロックを取得する() throws InterruptedException {
+        final String lockName = "fifo" + new Date().getTime();
+        final List<Integer> order = Collections.synchronizedList(new ArrayList<Integer>());
+        Lock first = LockManager.getLock(Lock.CATEGORY_ODATA, lockName, null, null);
+        Thread[] waiters = new Thread[3];
+        for (int i = 0; i < waiters.length; i++) {
+            final int index = i;
+            waiters[i] = new Thread(new Runnable() {
+                public void run() {
+                    Lock lock = LockManager.getLock(Lock.CATEGORY_ODATA, lockName, null, null);
+                    order.add(index);
+                    lock.release();
+                }
+            });
+            waiters[i].start();
+            // 到着順を確定させるため、待ち行列に並ぶまで待つ
+            Thread.sleep(100);
+        }
+        first.release();
+        for (Thread waiter : waiters) {
+            waiter.join();
+        }
+        assertEquals(3, order.size());
+        assertEquals(Integer.valueOf(0), order.get(0));
+        assertEquals(Integer.valueOf(1), order.get(1));
+        assertEquals(Integer.valueOf(2), order.get(2));
+    }
+
+    /**
+     * ロック待ちがカテゴリ毎の統計に記録される.
+     * @throws InterruptedException InterruptedException
+     */
+    @Test
+    public void ロック待ちがカテゴリ毎の統計に記録される() throws InterruptedException {
+        LockMetrics.reset();
+        final Lock lock = LockManager.getLock(Lock.CATEGORY_DAV, "metrics", null, null);
+        Thread waiter = new Thread(new Runnable() {
+            public void run() {
+                LockManager.getLock(Lock.CATEGORY_DAV, "metrics", null, null).release();
+            }
+        });
+        waiter.start();
+        Thread.sleep(100);
+        lock.release();
+        waiter.join();
+
+        LockMetrics.Snapshot snapshot = LockMetrics.snapshot().get(Lock.CATEGORY_DAV);
+        assertEquals(2, snapshot.getAcquired());
+        assertEquals(1, snapshot.getContended());
+        assertEquals(0, snapshot.getTimedOut());
+        assertTrue(snapshot.getMaxWaitMillis() > 0);
+
+        // ステータス表示用の統計にも反映されること
+        Map<?, ?> status = (Map<?, ?>) LockMetrics.getStatus().get(Lock.CATEGORY_DAV);
+        assertEquals(2L, status.get("acquired"));
+        assertEquals(1L, status.get("contended"));
+        assertEquals(0L, status.get("timedOut"));
+    }
+
+    /**
+     * 複数のロックを逆順に要求してもデッドロックしない.
+     * @throws InterruptedException InterruptedException
+     */
+    @Test
+    public void 複数のロックを逆順に要求してもデッドロックしない() throws InterruptedException {
+        final String keyA = LockKeyComposer.fullKeyFromCategoryAndKey(Lock.CATEGORY_DAV, "multiA");
+        final String keyB = LockKeyComposer.fullKeyFromCategoryAndKey(Lock.CATEGORY_DAV, "multiB");
+        final List<Integer> done = Collections.synchronizedList(new ArrayList<Integer>());
+        Thread[] threads = new Thread[2];
+        for (int i = 0; i < threads.length; i++) {
+            final int index = i;
+            threads[i] = new Thread(new Runnable() {
+                public void run() {
+                    for (int j = 0; j < 20; j++) {
+                        List<String> keys = new ArrayList<String>();
+                        keys.add(index == 0 ? keyA : keyB);
+                        keys.add(index == 0 ? keyB : keyA);
+                        LockManager.getLocks(Lock.CATEGORY_DAV, keys).release();
+                    }
+                    done.add(index);
+                }
+            });
+            threads[i].start();
+        }
+        for (Thread thread : threads) {
+            thread.join();
+        }
+        assertEquals(2, done.size());
+
+        // 全て解放されていること
+        Lock lockA = LockManager.getLock(Lock.CATEGORY_DAV, "multiA", null, null);
+        Lock lockB = LockManager.getLock(Lock.CATEGORY_DAV, "multiB", null, null);
+        lockA.release();
+        lockB.release();
+    }
+
+    /**
+     * バックオフはリトライ毎に増加し上限を超えない.
+     */
+    @Test
+    public void バックオフはリトライ毎に増加し上限を超えない() {
+        for (int i = 0; i < 30; i++) {
+            long cap = Math.min(LockManager.lockRetryBackoffMax,
+                    LockManager.lockRetryBackoffInitial << Math.min(i, 20));
+            long wait = LockManager.backoff(i);
+            assertTrue(wait >= cap / 2);
+            assertTrue(wait <= cap);
+        }
+    }
+
     /**
      * Retryが指定回数行われる.
      * @throws InterruptedException InterruptedException
@@ -0,0 +1,161 @@
+/**
+ * personium.io
+ * Copyright 2014 FUJITSU LIMITED
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.fujitsu.dc.core.model.lock;
+
+import static org.junit.Assert.assertEquals;
+
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.junit.Test;
+import org.junit.experimental.categories.Category;
+
+import com.fujitsu.dc.test.categories.Unit;
+
+/**
+ * LockStateLocalViewユニットテストクラス.
+ */
+@Category({ Unit.class })
+public class LockStateLocalViewTest {
+
+    /**
+     * 取得回数を数えるローダ.
+     */
+    static class CountingLoader implements LockStateLocalView.StateLoader {
+        private final AtomicInteger count = new AtomicInteger();
+        private volatile long value;
+
+        @Override
+        public long load(String fullKey) {
+            count.incrementAndGet();
+            return value;
+        }
+    }
+
+    /**
+     * リース期間内はロックストアから再取得しないこと.
+     */
+    @Test
+    public void リース期間内はロックストアから再取得しないこと() {
+        LockStateLocalView view = new LockStateLocalView(true, 60000, 60000);
+        CountingLoader loader = new CountingLoader();
+        loader.value = 1;
+
+        assertEquals(1, view.get("key", loader));
+        loader.value = 0;
+        assertEquals(1, view.get("key", loader));
+        assertEquals(1, loader.count.get());
+    }
+
+    /**
+     * 書き込んだ値が即時に反映されること.
+     */
+    @Test
+    public void 書き込んだ値が即時に反映されること() {
+        LockStateLocalView view = new LockStateLocalView(true, 60000, 60000);
+        CountingLoader loader = new CountingLoader();
+
+        assertEquals(0, view.get("key", loader));
+        view.push("key", 1, loader);
+        assertEquals(1, view.get("key", loader));
+        assertEquals(1, loader.count.get());
+    }
+
+    /**
+     * 再取得によりロックストア上の変更が反映されること.
+     */
+    @Test
+    public void 再取得によりロックストア上の変更が反映されること() {
+        LockStateLocalView view = new LockStateLocalView(true, 60000, 60000);
+        CountingLoader loader = new CountingLoader();
+
+        assertEquals(0, view.get("key", loader));
+        loader.value = 1;
+        view.refreshAll();
+        assertEquals(1, view.get("key", loader));
+    }
+
+    /**
+     * 再取得に失敗した場合は保持している値を使い続けること.
+     */
+    @Test
+    public void 再取得に失敗した場合は保持している値を使い続けること() {
+        LockStateLocalView view = new LockStateLocalView(true, 60000, 60000);
+        final CountingLoader loader = new CountingLoader();
+        loader.value = 1;
+        view.get("key", loader);
+
+        view.push("key", 1, new LockStateLocalView.StateLoader() {
+            @Override
+            public long load(String fullKey) {
+                throw new RuntimeException("unavailable");
+            }
+        });
+        view.refreshAll();
+        assertEquals(1, view.get("key", loader));
+    }
+
+    /**
+     * まとめて取得できるローダの状態値は1回の問い合わせで再取得されること.
+     */
+    @Test
+    public void まとめて取得できるローダの状態値は1回の問い合わせで再取得されること() {
+        LockStateLocalView view = new LockStateLocalView(true, 60000, 60000);
+        final AtomicInteger bulkCount = new AtomicInteger();
+        LockStateLocalView.BulkStateLoader loader = new LockStateLocalView.BulkStateLoader() {
+            @Override
+            public long load(String fullKey) {
+                return 0;
+            }
+
+            @Override
+            public Map<String, Long> loadAll(Collection<String> fullKeys) {
+                bulkCount.incrementAndGet();
+                Map<String, Long> values = new HashMap<String, Long>();
+                for (String fullKey : fullKeys) {
+                    values.put(fullKey, 1L);
+                }
+                return values;
+            }
+        };
+        view.get("key1", loader);
+        view.get("key2", loader);
+        view.get("key3", loader);
+
+        view.refreshAll();
+        assertEquals(1, bulkCount.get());
+        assertEquals(1, view.get("key1", loader));
+        assertEquals(1, view.get("key2", loader));
+        assertEquals(1, view.get("key3", loader));
+    }
+
+    /**
+     * 無効の場合は毎回ロックストアから取得すること.
+     */
+    @Test
+    public void 無効の場合は毎回ロックストアから取得すること() {
+        LockStateLocalView view = new LockStateLocalView(false, 60000, 60000);
+        CountingLoader loader = new CountingLoader();
+
+        view.get("key", loader);
+        view.get("key", loader);
+        assertEquals(2, loader.count.get());
+        assertEquals(0, view.getStalenessBoundInMillis());
+    }
+}
@@ -25,6 +25,7 @@ import org.junit.runners.Suite.SuiteClasses;
  */
 @RunWith(Suite.class)
 @SuiteClasses({
+        InProcessCacheClientTest.class,
         ODataUtilsTest.class
 })
 public class AllTests {
@@ -0,0 +1,159 @@
+/**
+ * personium.io
+ * Copyright 2014 FUJITSU LIMITED
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.fujitsu.dc.core.utils;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.util.HashMap;
+import java.util.Map;
+
+import org.junit.Test;
+import org.junit.experimental.categories.Category;
+
+import com.fujitsu.dc.test.categories.Unit;
+
+/**
+ * InProcessCacheClientユニットテストクラス.
+ */
+@Category({Unit.class })
+public class InProcessCacheClientTest {
+
+    /**
+     * 登録したオブジェクトを取得できること.
+     */
+    @Test
+    public void 登録したオブジェクトを取得できること() {
+        InProcessCacheClient client = new InProcessCacheClient(1024 * 1024, 86400);
+        Map<String, Object> cell = new HashMap<String, Object>();
+        cell.put("Name", "cell1");
+
+        assertTrue(client.put("cell:cell1", 0, cell));
+        @SuppressWarnings("unchecked")
+        Map<String, Object> cached = client.get("cell:cell1", Map.class);
+        assertEquals(cell, cached);
+        assertNull(client.get("cell:cell2", Map.class));
+
+        InProcessCacheClient.Stats stats = client.getStats();
+        assertEquals(1, stats.getHitCount());
+        assertEquals(1, stats.getMissCount());
+    }
+
+    /**
+     * addは既存のエントリを上書きしないこと.
+     */
+    @Test
+    public void addは既存のエントリを上書きしないこと() {
+        InProcessCacheClient client = new InProcessCacheClient(1024 * 1024, 86400);
+        assertTrue(client.add("generation", 0, 1L));
+        assertFalse(client.add("generation", 0, 2L));
+        assertEquals(Long.valueOf(1L), client.get("generation", Long.class));
+
+        // 有効期限切れのエントリは存在しないものとして登録できること
+        long now = System.currentTimeMillis();
+        client.put("expired", (int) (now / 1000) - 1, 1L);
+        assertTrue(client.add("expired", 0, 2L));
+        assertEquals(Long.valueOf(2L), client.get("expired", Long.class));
+    }
+
+    /**
+     * 取得したオブジェクトを変更してもキャッシュに影響しないこと.
+     */
+    @Test
+    public void 取得したオブジェクトを変更してもキャッシュに影響しないこと() {
+        InProcessCacheClient client = new InProcessCacheClient(1024 * 1024, 86400);
+        Map<String, Object> cell = new HashMap<String, Object>();
+        cell.put("Name", "cell1");
+        client.put("cell:cell1", 0, cell);
+
+        @SuppressWarnings("unchecked")
+        Map<String, Object> cached = client.get("cell:cell1", Map.class);
+        cached.put("Name", "changed");
+        assertEquals("cell1", client.get("cell:cell1", Map.class).get("Name"));
+    }
+
+    /**
+     * 有効期限を過ぎたエントリは取得できないこと.
+     */
+    @Test
+    public void 有効期限を過ぎたエントリは取得できないこと() {
+        InProcessCacheClient client = new InProcessCacheClient(1024 * 1024, 86400);
+        long now = System.currentTimeMillis();
+        assertEquals(now + 10000L, client.expiresAt(10, now));
+        assertEquals(now + 86400000L, client.expiresAt(0, now));
+        // 30日を超える値はUNIX時刻として扱う
+        assertEquals(2000000000L * 1000, client.expiresAt(2000000000, now));
+
+        client.put("key", (int) (now / 1000) - 1, "value");
+        assertNull(client.get("key", String.class));
+        assertEquals(1, client.getStats().getExpirationCount());
+    }
+
+    /**
+     * 上限を超えた場合は参照頻度の低いエントリが追い出されること.
+     */
+    @Test
+    public void 上限を超えた場合は参照頻度の低いエントリが追い出されること() {
+        InProcessCacheClient client = new InProcessCacheClient(32 * 1024, 86400);
+        byte[] value = new byte[512];
+        client.put("hot", 0, value);
+        for (int i = 0; i < 10; i++) {
+            client.get("hot", byte[].class);
+        }
+        for (int i = 0; i < 200; i++) {
+            client.put("cold" + i, 0, value);
+        }
+
+        assertNotNull(client.get("hot", byte[].class));
+        InProcessCacheClient.Stats stats = client.getStats();
+        assertTrue(stats.getEvictionCount() > 0);
+        assertTrue(stats.getWeightedBytes() <= 32 * 1024);
+    }
+
+    /**
+     * 上限を超える大きさのオブジェクトは登録できないこと.
+     */
+    @Test
+    public void 上限を超える大きさのオブジェクトは登録できないこと() {
+        InProcessCacheClient client = new InProcessCacheClient(1024, 86400);
+        assertFalse(client.put("key", 0, new byte[2048]));
+        assertNull(client.get("key", byte[].class));
+    }
+
+    /**
+     * まとめて登録したオブジェクトをまとめて取得できること.
+     */
+    @Test
+    public void まとめて登録したオブジェクトをまとめて取得できること() {
+        InProcessCacheClient client = new InProcessCacheClient(1024 * 1024, 86400);
+        Map<String, Object> objects = new HashMap<String, Object>();
+        objects.put("key1", "value1");
+        objects.put("key2", "value2");
+        assertTrue(client.putBulk(0, objects));
+
+        client.delete("key2");
+        Map<String, Object> cached = client.getBulk(objects.keySet());
+        assertEquals(1, cached.size());
+        assertEquals("value1", cached.get("key1"));
+
+        client.clear();
+        assertEquals(0, client.getStats().getEntryCount());
+    }
+}
@@ -27,6 +27,7 @@ import org.junit.runners.Suite.SuiteClasses;
 @SuiteClasses({
         CellCtlODataProducerTest.class,
         EsQueryHandlerTest.class,
+        EsSkipTokenTest.class,
         UnitCtlODataProducerTest.class,
         PropertyLimitCheckerTest.class
     })
@@ -588,4 +588,51 @@ public class EsQueryHandlerTest {
             }
         }
     }
+
+    /**
+     * 同じ形のfilterクエリでは変換結果を再利用しリテラルの値のみ置き換えたクエリに変換されること.
+     */
+    @Test
+    public void 同じ形のfilterクエリでは変換結果を再利用しリテラルの値のみ置き換えたクエリに変換されること() {
+        String scope = "templateTest";
+        EsQueryHandler first = new EsQueryHandler(entityType);
+        first.setTemplateScope(scope);
+        first.initialize(new QueryInfo(null, null, null,
+                DcOptionsQueryParser.parseFilter("item eq 'a' and (itemKey ge 'b' or startswith(itemKey2, 'c'))"),
+                null, null, null, null, null), null);
+
+        String filterStr = "item eq 'x' and (itemKey ge 'y' or startswith(itemKey2, 'z'))";
+        EsQueryHandler cached = new EsQueryHandler(entityType);
+        cached.setTemplateScope(scope);
+        cached.initialize(new QueryInfo(null, null, null, DcOptionsQueryParser.parseFilter(filterStr),
+                null, null, null, null, null), null);
+
+        EsQueryHandler notCached = new EsQueryHandler(entityType);
+        notCached.initialize(new QueryInfo(null, null, null, DcOptionsQueryParser.parseFilter(filterStr),
+                null, null, null, null, null), null);
+
+        assertEquals(notCached.getSource(), cached.getSource());
+    }
+
+    /**
+     * 変換結果を再利用する場合もリテラルの値の検証が行われること.
+     */
+    @Test
+    public void 変換結果を再利用する場合もリテラルの値の検証が行われること() {
+        String scope = "templateValidationTest";
+        EsQueryHandler first = new EsQueryHandler(entityType);
+        first.setTemplateScope(scope);
+        first.initialize(new QueryInfo(null, null, null, DcOptionsQueryParser.parseFilter("item eq 'abc'"),
+                null, null, null, null, null), null);
+
+        EsQueryHandler cached = new EsQueryHandler(entityType);
+        cached.setTemplateScope(scope);
+        try {
+            cached.initialize(new QueryInfo(null, null, null, DcOptionsQueryParser.parseFilter("item eq '\\u12'"),
+                    null, null, null, null, null), null);
+            fail("Not Throw Exception");
+        } catch (DcCoreException e) {
+            assertEquals(DcCoreException.OData.OPERATOR_AND_OPERAND_UNABLE_TO_UNESCAPE.getCode(), e.getCode());
+        }
+    }
 }
@@ -0,0 +1,192 @@
+/**
+ * personium.io
+ * Copyright 2014 FUJITSU LIMITED
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.fujitsu.dc.test.unit.core.model.impl.es.odata;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.junit.Test;
+import org.junit.experimental.categories.Category;
+import org.mockito.Mockito;
+
+import com.fujitsu.dc.common.es.response.DcSearchHit;
+import com.fujitsu.dc.common.es.response.DcSearchHits;
+import com.fujitsu.dc.common.es.response.DcSearchResponse;
+import com.fujitsu.dc.core.DcCoreConfig;
+import com.fujitsu.dc.core.DcCoreConfig.OData;
+import com.fujitsu.dc.core.DcCoreException;
+import com.fujitsu.dc.core.model.impl.es.odata.EsQueryHandler;
+import com.fujitsu.dc.core.model.impl.es.odata.EsSkipToken;
+import com.fujitsu.dc.test.categories.Unit;
+
+/**
+ * EsSkipTokenユニットテストクラス.
+ */
+@Category({Unit.class })
+public class EsSkipTokenTest {
+
+    /**
+     * ソート値を符号化したskiptokenから同じソート値が得られること.
+     */
+    @Test
+    public void ソート値を符号化したskiptokenから同じソート値が得られること() {
+        String token = EsSkipToken.encode(new Object[] {"name", 1400000000000L, 1.5, "UserData#abc"});
+        List<Object> values = EsSkipToken.decode(token, 4);
+        assertEquals("name", values.get(0));
+        assertEquals(1400000000000L, values.get(1));
+        assertEquals(1.5, values.get(2));
+        assertEquals("UserData#abc", values.get(3));
+    }
+
+    /**
+     * 値のないフィールドのソート値はnullとして符号化されること.
+     */
+    @Test
+    public void 値のないフィールドのソート値はnullとして符号化されること() {
+        String missingString = new String(Character.toChars(Character.MAX_CODE_POINT));
+        String token = EsSkipToken.encode(new Object[] {missingString, Long.MAX_VALUE,
+                Double.NEGATIVE_INFINITY, null, "UserData#abc"});
+        List<Object> values = EsSkipToken.decode(token, 5);
+        assertNull(values.get(0));
+        assertNull(values.get(1));
+        assertNull(values.get(2));
+        assertNull(values.get(3));
+        assertEquals("UserData#abc", values.get(4));
+    }
+
+    /**
+     * ソートキーの数が異なるskiptokenを指定した場合DcCoreExceptionが発生すること.
+     */
+    @Test(expected = DcCoreException.class)
+    public void ソートキーの数が異なるskiptokenを指定した場合DcCoreExceptionが発生すること() {
+        String token = EsSkipToken.encode(new Object[] {"name", "UserData#abc"});
+        EsSkipToken.decode(token, 3);
+    }
+
+    /**
+     * 不正なskiptokenを指定した場合DcCoreExceptionが発生すること.
+     */
+    @Test(expected = DcCoreException.class)
+    public void 不正なskiptokenを指定した場合DcCoreExceptionが発生すること() {
+        EsSkipToken.decode("invalid", 1);
+    }
+
+    /**
+     * 前ページ最終件より後ろのドキュメントに絞り込むフィルタが組み立てられること.
+     */
+    @Test
+    public void 前ページ最終件より後ろのドキュメントに絞り込むフィルタが組み立てられること() {
+        List<Map<String, Object>> sort = new ArrayList<Map<String, Object>>();
+        sort.add(sortKey("s.name.untouched", "desc"));
+        sort = EsSkipToken.addTiebreaker(sort);
+        List<Object> values = new ArrayList<Object>();
+        values.add("name");
+        values.add("UserData#abc");
+
+        // s.name.untouched < 'name' または s.name.untouched が存在しない
+        List<Map<String, Object>> firstKey = new ArrayList<Map<String, Object>>();
+        firstKey.add(filter("range", "s.name.untouched", map("lt", "name")));
+        firstKey.add(filter("missing", "field", "s.name.untouched"));
+        // s.name.untouched = 'name' かつ _uid > 'UserData#abc'
+        List<Map<String, Object>> secondKey = new ArrayList<Map<String, Object>>();
+        secondKey.add(filter("term", "s.name.untouched", "name"));
+        secondKey.add(filter("range", "_uid", map("gt", "UserData#abc")));
+        List<Map<String, Object>> expected = new ArrayList<Map<String, Object>>();
+        expected.add(filter("or", "filters", firstKey));
+        expected.add(filter("and", "filters", secondKey));
+
+        assertEquals(filter("or", "filters", expected), EsSkipToken.searchAfterFilter(sort, values));
+    }
+
+    /**
+     * 前ページ最終件のソートキーに値がない場合は同じく値のないドキュメントのみに絞り込まれること.
+     */
+    @Test
+    public void 前ページ最終件のソートキーに値がない場合は同じく値のないドキュメントのみに絞り込まれること() {
+        List<Map<String, Object>> sort = new ArrayList<Map<String, Object>>();
+        sort.add(sortKey("s.name.untouched", "asc"));
+        sort = EsSkipToken.addTiebreaker(sort);
+        List<Object> values = new ArrayList<Object>();
+        values.add(null);
+        values.add("UserData#abc");
+
+        List<Map<String, Object>> secondKey = new ArrayList<Map<String, Object>>();
+        secondKey.add(filter("missing", "field", "s.name.untouched"));
+        secondKey.add(filter("range", "_uid", map("gt", "UserData#abc")));
+        List<Map<String, Object>> expected = new ArrayList<Map<String, Object>>();
+        expected.add(filter("and", "filters", secondKey));
+
+        assertEquals(filter("or", "filters", expected), EsSkipToken.searchAfterFilter(sort, values));
+    }
+
+    /**
+     * 取得件数が設定されていない場合はデフォルトの取得件数で続きの有無が判定されること.
+     */
+    @Test
+    public void 取得件数が設定されていない場合はデフォルトの取得件数で続きの有無が判定されること() {
+        boolean skipTokenEnabled = DcCoreConfig.isSkipTokenEnabled();
+        DcCoreConfig.set(OData.SKIPTOKEN_ENABLED, "true");
+        try {
+            EsQueryHandler handler = new EsQueryHandler(null);
+            int defaultSize = DcCoreConfig.getTopQueryDefaultSize();
+
+            String token = handler.getNextSkipToken(searchResponse(defaultSize, defaultSize + 1));
+            List<Object> values = EsSkipToken.decode(token, 2);
+            assertEquals("name", values.get(0));
+            assertEquals("UserData#abc", values.get(1));
+
+            assertNull(handler.getNextSkipToken(searchResponse(defaultSize - 1, defaultSize + 1)));
+        } finally {
+            DcCoreConfig.set(OData.SKIPTOKEN_ENABLED, String.valueOf(skipTokenEnabled));
+        }
+    }
+
+    private static DcSearchResponse searchResponse(int hitCount, long allPages) {
+        DcSearchHit[] hits = new DcSearchHit[hitCount];
+        for (int i = 0; i < hitCount; i++) {
+            hits[i] = Mockito.mock(DcSearchHit.class);
+            Mockito.when(hits[i].getSortValues()).thenReturn(new Object[] {"name", "UserData#abc"});
+        }
+        DcSearchHits searchHits = Mockito.mock(DcSearchHits.class);
+        Mockito.when(searchHits.getHits()).thenReturn(hits);
+        Mockito.when(searchHits.getAllPages()).thenReturn(allPages);
+        DcSearchResponse response = Mockito.mock(DcSearchResponse.class);
+        Mockito.when(response.getHits()).thenReturn(searchHits);
+        return response;
+    }
+
+    private static Map<String, Object> sortKey(String field, String order) {
+        Map<String, Object> sortKey = new HashMap<String, Object>();
+        sortKey.put(field, map("order", order));
+        return sortKey;
+    }
+
+    private static Map<String, Object> filter(String type, String key, Object value) {
+        return map(type, map(key, value));
+    }
+
+    private static Map<String, Object> map(String key, Object value) {
+        Map<String, Object> map = new HashMap<String, Object>();
+        map.put(key, value);
+        return map;
+    }
+}
@@ -17,10 +17,22 @@
 package com.fujitsu.dc.test.unit.core.model.impl.es.repair;
 
 import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
 import static org.junit.Assert.fail;
 
+import java.io.File;
+import java.lang.reflect.Field;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
 import java.util.ArrayList;
+import java.util.HashMap;
 import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+import org.apache.commons.io.FileUtils;
 
 import org.json.simple.JSONObject;
 import org.junit.After;
@@ -31,10 +43,13 @@ import org.junit.experimental.categories.Category;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
+import com.fujitsu.dc.common.ads.AbstractAdsWriteFailureLog;
 import com.fujitsu.dc.common.ads.AdsWriteFailureLogException;
 import com.fujitsu.dc.common.ads.AdsWriteFailureLogInfo;
+import com.fujitsu.dc.common.ads.AdsWriteFailureLogWriter;
 import com.fujitsu.dc.common.es.EsType;
 import com.fujitsu.dc.common.es.response.DcIndexResponse;
+import com.fujitsu.dc.common.es.response.DcSearchHit;
 import com.fujitsu.dc.common.es.response.DcSearchResponse;
 import com.fujitsu.dc.common.es.util.DcUUID;
 import com.fujitsu.dc.core.DcCoreConfig;
@@ -58,6 +73,8 @@ import com.fujitsu.dc.test.categories.Unit;
 public class RepairAdsTest {
 
     private static final String ROUTING_ID = "routingId";
+    private static final String PIO_VERSION_DUMMY = "1.3.18-test";
+    private static final String TEST_ADS_LOGDIR = "./testdir";
 
     static Logger log = LoggerFactory.getLogger(RepairAdsTest.class);
 
@@ -485,4 +502,152 @@ public class RepairAdsTest {
         }
     }
 
+    /**
+     * 補正済みの行数が記録されている場合にその行数までの補正が読み飛ばされること.
+     * @throws Exception Exception
+     */
+    @Test
+    public void 補正済みの行数が記録されている場合にその行数までの補正が読み飛ばされること() throws Exception {
+        AdsAccessor.initializedAds();
+        RepairAds repair = RepairAds.getInstance();
+        String id2 = "repair_" + DcUUID.randomUUID();
+        File dir = createTestDir();
+        ExecutorService workers = Executors.newSingleThreadExecutor();
+        try {
+            createEsDocument(id2);
+            setUpRepairAds(repair, workers);
+            AdsWriteFailureLogInfo logInfo1 = createLogInfo(id);
+            AdsWriteFailureLogInfo logInfo2 = createLogInfo(id2);
+
+            // 2行のADS書き込み失敗ログのうち、1行目まで補正済みと記録する
+            File logFile = new File(dir, String.format(AbstractAdsWriteFailureLog.LOGNAME_FORMAT_ROTATE,
+                    PIO_VERSION_DUMMY, System.currentTimeMillis()));
+            FileUtils.writeStringToFile(logFile, logInfo1.toString() + logInfo2.toString(), "UTF-8");
+            invoke(repair, "writeCheckpoint", new Class<?>[] {File.class, long.class }, logFile, 1L);
+
+            invoke(repair, "readAdsWriteFialureLog", new Class<?>[] {File.class }, logFile);
+
+            // 1行目は補正されず、2行目のみ補正されること
+            assertEquals(0, AdsAccessor.getIdListOnAds(logInfo1).size());
+            assertEquals(1, AdsAccessor.getIdListOnAds(logInfo2).size());
+            // 補正が完了したログと補正済みの行数の記録は削除されること
+            assertFalse(logFile.exists());
+            assertFalse(new File(dir, String.format("adsRepair_%s.checkpoint", PIO_VERSION_DUMMY)).exists());
+        } finally {
+            workers.shutdown();
+            ads.deleteEntity(idxName, id2);
+            EsModel.type(idxName, "UserData", ROUTING_ID, 0, 0).delete(id2);
+            FileUtils.deleteQuietly(dir);
+        }
+    }
+
+    /**
+     * ADSへの一括登録に失敗した場合に1件ずつ登録し直されること.
+     * @throws Exception Exception
+     */
+    @Test
+    public void ADSへの一括登録に失敗した場合に1件ずつ登録し直されること() throws Exception {
+        AdsAccessor.initializedAds();
+        RepairAds repair = RepairAds.getInstance();
+        String id2 = "repair_" + DcUUID.randomUUID();
+        File dir = createTestDir();
+        long createTime = System.currentTimeMillis();
+        try {
+            createEsDocument(id2);
+            setUpRepairAds(repair, null);
+            Field createTimeField = RepairAds.class.getDeclaredField("createTime");
+            createTimeField.setAccessible(true);
+            createTimeField.set(repair, createTime);
+
+            List<String> list = new ArrayList<String>();
+            list.add(id);
+            list.add(id2);
+            Map<String, DcSearchHit> esHits = new HashMap<String, DcSearchHit>();
+            for (DcSearchHit hit : EsAccessor.search(idxName, ROUTING_ID, list, "UserData").getHits().getHits()) {
+                esHits.put(hit.getId(), hit);
+            }
+            // 1件目をADSに登録しておき、一括登録をキー重複で失敗させる
+            AdsAccessor.createAds(idxName, "UserData", esHits.get(id));
+
+            List<AdsWriteFailureLogInfo> logInfos = new ArrayList<AdsWriteFailureLogInfo>();
+            logInfos.add(createLogInfo(id));
+            logInfos.add(createLogInfo(id2));
+            invoke(repair, "bulkCreateAds", new Class<?>[] {String.class, String.class, List.class, Map.class },
+                    idxName, "UserData", logInfos, esHits);
+
+            // 2件目は1件ずつの登録で補正されること
+            assertEquals(1, AdsAccessor.getIdListOnAds(logInfos.get(1)).size());
+            // 1件目は1件ずつの登録でもキー重複となるため、リトライ用のログに出力されること
+            File retryLog = new File(dir, String.format(AbstractAdsWriteFailureLog.LOGNAME_FORMAT_ACTIVE
+                    + AbstractAdsWriteFailureLog.RETRY_LOGNAME_SUFFIX, PIO_VERSION_DUMMY, createTime));
+            assertTrue(retryLog.isFile());
+            assertEquals(logInfos.get(0).toString(), FileUtils.readFileToString(retryLog, "UTF-8"));
+        } finally {
+            AdsWriteFailureLogWriter.getInstanceforRetry(TEST_ADS_LOGDIR, PIO_VERSION_DUMMY, true).closeActiveFile();
+            ads.deleteEntity(idxName, id);
+            ads.deleteEntity(idxName, id2);
+            EsModel.type(idxName, "UserData", ROUTING_ID, 0, 0).delete(id2);
+            FileUtils.deleteQuietly(dir);
+        }
+    }
+
+    private File createTestDir() {
+        File dir = new File(TEST_ADS_LOGDIR);
+        FileUtils.deleteQuietly(dir);
+        if (!dir.mkdir()) {
+            fail("mkdir failed(environment error): " + dir.getAbsolutePath());
+        }
+        return dir;
+    }
+
+    @SuppressWarnings("unchecked")
+    private void createEsDocument(String docId) {
+        EsType type = EsModel.type(idxName, "UserData", ROUTING_ID, 0, 0);
+        JSONObject json = new JSONObject();
+        json.put("c", ROUTING_ID);
+        json.put("p", Long.parseLong("1406595596944"));
+        json.put("u", Long.parseLong("1406595596944"));
+        type.create(docId, json);
+        EsAccessor.refresh(idxName);
+    }
+
+    private AdsWriteFailureLogInfo createLogInfo(String docId) {
+        return new AdsWriteFailureLogInfo(idxName, "UserData", "odata-gsX3t2q3Qz6jdIn30fFMaQ", ROUTING_ID, docId,
+                AdsWriteFailureLogInfo.OperationKind.CREATE, 1, 1408595358931L);
+    }
+
+    /**
+     * テスト用のログディレクトリでリペア処理を実行できるよう、リペアツールの設定を行う.
+     * @param repair リペアツール
+     * @param workers ワーカスレッド
+     * @throws Exception Exception
+     */
+    private void setUpRepairAds(RepairAds repair, ExecutorService workers) throws Exception {
+        Map<String, Object> fields = new HashMap<String, Object>();
+        fields.put("pcsVersion", PIO_VERSION_DUMMY);
+        fields.put("adsLogBaseDirPath", TEST_ADS_LOGDIR);
+        fields.put("adsLogBaseDir", new File(TEST_ADS_LOGDIR));
+        fields.put("physicalDelete", true);
+        fields.put("logCountPerIteration", 10);
+        fields.put("workers", workers);
+        for (Map.Entry<String, Object> entry : fields.entrySet()) {
+            Field field = RepairAds.class.getDeclaredField(entry.getKey());
+            field.setAccessible(true);
+            field.set(repair, entry.getValue());
+        }
+    }
+
+    private Object invoke(RepairAds repair, String name, Class<?>[] parameterTypes, Object... args)
+            throws Exception {
+        Method method = RepairAds.class.getDeclaredMethod(name, parameterTypes);
+        method.setAccessible(true);
+        try {
+            return method.invoke(repair, args);
+        } catch (InvocationTargetException e) {
+            if (e.getCause() instanceof Exception) {
+                throw (Exception) e.getCause();
+            }
+            throw e;
+        }
+    }
 }
@@ -25,7 +25,8 @@ import org.junit.runners.Suite.SuiteClasses;
  */
 @RunWith(Suite.class)
 @SuiteClasses({
-    DcExpressionParserTest.class
+    DcExpressionParserTest.class,
+    ParameterizedFilterTest.class
     })
 public class AllTests {
 }
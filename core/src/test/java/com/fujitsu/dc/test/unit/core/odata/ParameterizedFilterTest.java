@@ -0,0 +1,82 @@
+/**
+ * personium.io
+ * Copyright 2014 FUJITSU LIMITED
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.fujitsu.dc.test.unit.core.odata;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.fail;
+
+import java.util.Arrays;
+
+import org.junit.Test;
+import org.junit.experimental.categories.Category;
+
+import com.fujitsu.dc.core.DcCoreException;
+import com.fujitsu.dc.core.odata.DcOptionsQueryParser;
+import com.fujitsu.dc.core.odata.ParameterizedFilter;
+import com.fujitsu.dc.test.categories.Unit;
+
+/**
+ * ParameterizedFilter ユニットテストクラス.
+ */
+@Category({ Unit.class })
+public class ParameterizedFilterTest {
+
+    /**
+     * リテラルの値のみ異なるfilterが同じ形となること.
+     */
+    @Test
+    public void リテラルの値のみ異なるfilterが同じ形となること() {
+        ParameterizedFilter first = (ParameterizedFilter) DcOptionsQueryParser
+                .parseFilter("name eq 'a' and (age gt 10 or substringof('x''y', name))");
+        ParameterizedFilter second = (ParameterizedFilter) DcOptionsQueryParser
+                .parseFilter("name eq 'bcd' and (age gt -3000000000 or substringof('z', name))");
+
+        assertEquals(Arrays.<Object>asList("a", 10, "x'y"), first.getParameters());
+        assertEquals(Arrays.<Object>asList("bcd", -3000000000L, "z"), second.getParameters());
+        // Integerに収まらない整数はLongとなるため、形が異なる
+        assertEquals(first.getShape().replace("\u0000I", "\u0000L"), second.getShape());
+        assertNotNull(second.getExpression());
+    }
+
+    /**
+     * 型指定付きリテラルや小数はパラメータとならないこと.
+     */
+    @Test
+    public void 型指定付きリテラルや小数はパラメータとならないこと() {
+        String filter = "updated ge datetime'2014-01-01T00:00:00' and rate lt 1.5 and count eq 10L";
+        ParameterizedFilter parameterized = (ParameterizedFilter) DcOptionsQueryParser.parseFilter(filter);
+
+        assertEquals(0, parameterized.getParameters().size());
+        assertEquals(filter, parameterized.getShape());
+    }
+
+    /**
+     * パースできない形のfilterは毎回エラーとなること.
+     */
+    @Test
+    public void パースできない形のfilterは毎回エラーとなること() {
+        for (String filter : Arrays.asList("length('a')", "length('b')")) {
+            try {
+                DcOptionsQueryParser.parseFilter(filter);
+                fail("Not Throw Exception, filter = " + filter);
+            } catch (DcCoreException e) {
+                assertEquals(DcCoreException.OData.UNSUPPORTED_QUERY_FUNCTION.getCode(), e.getCode());
+            }
+        }
+    }
+}
@@ -25,6 +25,7 @@ import org.junit.runners.Suite.SuiteClasses;
  */
 @RunWith(Suite.class)
 @SuiteClasses({
+        EscapeControlCodeWriterTest.class,
         ResourceUtilTest.class
 })
 public class AllTests {
@@ -0,0 +1,82 @@
+/**
+ * personium.io
+ * Copyright 2014 FUJITSU LIMITED
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.fujitsu.dc.test.unit.core.utils;
+
+import static org.junit.Assert.assertEquals;
+
+import java.io.IOException;
+import java.io.StringWriter;
+import java.io.Writer;
+
+import org.junit.Test;
+import org.junit.experimental.categories.Category;
+
+import com.fujitsu.dc.core.utils.EscapeControlCode;
+import com.fujitsu.dc.core.utils.EscapeControlCodeWriter;
+import com.fujitsu.dc.test.categories.Unit;
+
+/**
+ * EscapeControlCodeWriterユニットテストクラス.
+ */
+@Category({Unit.class })
+public class EscapeControlCodeWriterTest {
+
+    private static String write(String input) throws IOException {
+        StringWriter sw = new StringWriter();
+        Writer writer = new EscapeControlCodeWriter(sw);
+        writer.write(input);
+        writer.flush();
+        return sw.toString();
+    }
+
+    /**
+     * 制御コードを含まない文字列がそのまま出力されること.
+     * @throws IOException IOException
+     */
+    @Test
+    public void 制御コードを含まない文字列がそのまま出力されること() throws IOException {
+        assertEquals("{\"Name\":\"テスト\"}", write("{\"Name\":\"テスト\"}"));
+    }
+
+    /**
+     * 制御コードがEscapeControlCodeと同じ形式でエスケープされること.
+     * @throws IOException IOException
+     */
+    @Test
+    public void 制御コードがEscapeControlCodeと同じ形式でエスケープされること() throws IOException {
+        String input = "\u0000abc\u0009def\u001F\u007Fghi ";
+        assertEquals(EscapeControlCode.escape(input), write(input));
+        assertEquals("\\u0000abc\\u0009def\\u001F\\u007Fghi ", write(input));
+    }
+
+    /**
+     * 文字単位と配列単位の書き込みでも制御コードがエスケープされること.
+     * @throws IOException IOException
+     */
+    @Test
+    public void 文字単位と配列単位の書き込みでも制御コードがエスケープされること() throws IOException {
+        StringWriter sw = new StringWriter();
+        Writer writer = new EscapeControlCodeWriter(sw);
+        writer.write('a');
+        writer.write('\n');
+        char[] chars = "xy\rz".toCharArray();
+        writer.write(chars, 1, 3);
+        writer.write("\u0001bc", 0, 2);
+        writer.flush();
+        assertEquals("a\\u000Ay\\u000Dz\\u0001b", sw.toString());
+    }
+}
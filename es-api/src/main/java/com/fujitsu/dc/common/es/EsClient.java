@@ -21,6 +21,7 @@ import java.util.Map;
 
 import org.elasticsearch.indices.IndexMissingException;
 
+import com.fujitsu.dc.common.es.impl.EsCircuitBreaker;
 import com.fujitsu.dc.common.es.impl.EsIndexImpl;
 import com.fujitsu.dc.common.es.impl.EsTypeImpl;
 import com.fujitsu.dc.common.es.impl.InternalEsClient;
@@ -47,6 +48,42 @@ public class EsClient {
         internalClient = InternalEsClient.getInstance(cluster, hosts);
     }
 
+    /**
+     * 書き込み時のrefresh方針を指定しない操作で用いるrefresh方針を設定する.
+     * @param policy refresh方針
+     */
+    public void setRefreshPolicy(EsRefreshPolicy policy) {
+        internalClient.setRefreshPolicy(policy);
+    }
+
+    /**
+     * ESへのリトライの総量を制限する予算を設定する.
+     * 設定しない場合、リトライの総量は制限しない.
+     * @param ratio リクエスト1件あたりに許可するリトライ回数
+     * @param minRetriesPerSecond 予算によらず許可する1秒あたりのリトライ回数
+     */
+    public void setRetryBudget(double ratio, int minRetriesPerSecond) {
+        internalClient.setRetryBudget(ratio, minRetriesPerSecond);
+    }
+
+    /**
+     * ESへの操作種別ごとのサーキットブレーカを設定する.
+     * 設定しない場合、サーキットブレーカは適用しない.
+     * @param windowInMillis エラー率・遅延した要求の割合を集計する期間(ms)
+     * @param minimumRequests 開状態への遷移を判定する最小の要求数
+     * @param errorRateThreshold 開状態へ遷移するエラー率
+     * @param slowCallThresholdInMillis 遅延とみなす応答時間(ms)
+     * @param slowCallRateThreshold 開状態へ遷移する遅延した要求の割合
+     * @param openDurationInMillis 開状態を維持する時間(ms)
+     * @param halfOpenProbes 半開状態で通す試行要求の数
+     */
+    public void setCircuitBreaker(long windowInMillis, int minimumRequests, double errorRateThreshold,
+            long slowCallThresholdInMillis, double slowCallRateThreshold, long openDurationInMillis,
+            int halfOpenProbes) {
+        internalClient.setCircuitBreaker(windowInMillis, minimumRequests, errorRateThreshold,
+                slowCallThresholdInMillis, slowCallRateThreshold, openDurationInMillis, halfOpenProbes);
+    }
+
     /**
      * ESとのコネクションを一度明示的に閉じる.
      */
@@ -186,6 +223,34 @@ public class EsClient {
         return internalClient.checkHealth();
     }
 
+    /**
+     * 操作種別ごとのサーキットブレーカの状態と統計を取得する.
+     * @return 操作種別名と、状態・状態ごとの遷移回数・状態ごとの累計時間(ms)・要求数のMap
+     */
+    public Map<String, Object> getCircuitBreakerStatus() {
+        Map<String, Object> status = new HashMap<String, Object>();
+        for (Map.Entry<EsCircuitBreaker.Operation, EsCircuitBreaker.Snapshot> e
+                : EsCircuitBreaker.snapshot().entrySet()) {
+            EsCircuitBreaker.Snapshot snapshot = e.getValue();
+            Map<String, Object> transitions = new HashMap<String, Object>();
+            Map<String, Object> timeInState = new HashMap<String, Object>();
+            for (EsCircuitBreaker.State state : EsCircuitBreaker.State.values()) {
+                transitions.put(state.name(), snapshot.getTransitions(state));
+                timeInState.put(state.name(), snapshot.getTimeInState(state));
+            }
+            Map<String, Object> breaker = new HashMap<String, Object>();
+            breaker.put("state", snapshot.getState().name());
+            breaker.put("transitions", transitions);
+            breaker.put("timeInStateInMillis", timeInState);
+            breaker.put("succeeded", snapshot.getSucceeded());
+            breaker.put("failed", snapshot.getFailed());
+            breaker.put("slowCalls", snapshot.getSlowCalls());
+            breaker.put("rejected", snapshot.getRejected());
+            status.put(e.getKey().name(), breaker);
+        }
+        return status;
+    }
+
     /**
      * インデックスステータスを取得する.
      * @return インデックスステータス
@@ -0,0 +1,100 @@
+/**
+ * personium.io
+ * Copyright 2014 FUJITSU LIMITED
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.fujitsu.dc.common.es;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * ESへの非同期リクエストの応答.
+ * <p>
+ * 応答の受け取りは{@link #get()}による待ち合わせ、または{@link #addListener(Listener)}による通知で行う。
+ * 通知はESの通信スレッドではなく非同期処理用のワーカスレッドで行われる。
+ * リスナ内で別の同期リクエストの完了を待たないこと。その応答も同じワーカスレッドで通知されるため、
+ * 待ち合わせでワーカスレッドが埋まると処理が進まなくなる。続けてリクエストを発行する場合は、その非同期応答にリスナを登録すること。
+ * </p>
+ * @param <T> 応答の型
+ */
+public interface EsFuture<T> {
+
+    /**
+     * 応答の通知を受けるリスナ.
+     * @param <T> 応答の型
+     */
+    interface Listener<T> {
+        /**
+         * 正常に応答を受け取った場合に呼び出される.
+         * @param response 応答
+         */
+        void onResponse(T response);
+
+        /**
+         * リクエストが失敗した場合に呼び出される.
+         * @param e 同期処理で投げられるのと同じ例外
+         */
+        void onFailure(RuntimeException e);
+    }
+
+    /**
+     * 応答を変換する関数.
+     * @param <F> 変換前の型
+     * @param <R> 変換後の型
+     */
+    interface Function<F, R> {
+        /**
+         * 変換する.
+         * @param input 変換前の値
+         * @return 変換後の値
+         */
+        R apply(F input);
+    }
+
+    /**
+     * @return 完了(正常・異常を問わない)していれば真
+     */
+    boolean isDone();
+
+    /**
+     * 完了まで待ち、応答を返す.
+     * @return 応答
+     * @throws RuntimeException リクエストが失敗した場合. 同期処理で投げられるのと同じ例外
+     */
+    T get();
+
+    /**
+     * 指定時間まで完了を待ち、応答を返す.
+     * @param timeout 待ち時間
+     * @param unit 待ち時間の単位
+     * @return 応答
+     * @throws RuntimeException リクエストが失敗した場合、または指定時間内に完了しなかった場合
+     */
+    T get(long timeout, TimeUnit unit);
+
+    /**
+     * 完了時に通知を受けるリスナを登録する. 既に完了している場合は呼び出したスレッドで直ちに通知する.
+     * @param listener リスナ
+     */
+    void addListener(Listener<? super T> listener);
+
+    /**
+     * 応答を変換した結果を返す非同期応答を返す.
+     * 変換関数が例外を投げた場合、返却した非同期応答はその例外で失敗する.
+     * @param function 変換関数
+     * @param <R> 変換後の型
+     * @return 変換後の非同期応答
+     */
+    <R> EsFuture<R> transform(Function<? super T, ? extends R> function);
+}
@@ -53,6 +53,12 @@ public interface EsIndex {
      */
     String getCategory();
 
+    /**
+     * このIndexへの書き込みで、refresh方針を指定しない操作が用いるrefresh方針を返す.
+     * @return refresh方針
+     */
+    EsRefreshPolicy getRefreshPolicy();
+
     /**
      * Indexを生成する.
      */
@@ -87,6 +93,22 @@ public interface EsIndex {
      */
     DcMultiSearchResponse multiSearch(String routingId, List<Map<String, Object>> queryList);
 
+    /**
+     * ドキュメントの検索を非同期で行う.
+     * @param routingId routingId
+     * @param query クエリ情報
+     * @return 非同期応答
+     */
+    EsFuture<DcSearchResponse> searchAsync(String routingId, DcQueryBuilder query);
+
+    /**
+     * ドキュメントのマルチ検索を非同期で行う.
+     * @param routingId routingId
+     * @param queryList クエリ情報一覧
+     * @return 非同期応答
+     */
+    EsFuture<DcMultiSearchResponse> multiSearchAsync(String routingId, List<Map<String, Object>> queryList);
+
     /**
      * クエリ指定の一括削除機能.
      * @param routingId routingId
@@ -103,6 +125,35 @@ public interface EsIndex {
      */
     DcBulkResponse bulkRequest(final String routingId, final List<EsBulkRequest> datas, boolean isWriteLog);
 
+    /**
+     * refresh方針を指定してバルクでドキュメントを登録/更新/削除する.
+     * @param routingId routingId
+     * @param datas バルクドキュメント
+     * @param isWriteLog リクエスト情報のログ出力有無
+     * @param policy refresh方針
+     * @return ES応答
+     */
+    DcBulkResponse bulkRequest(final String routingId, final List<EsBulkRequest> datas, boolean isWriteLog,
+            EsRefreshPolicy policy);
+
+    /**
+     * refresh方針を指定してバルクでドキュメントを登録/更新/削除する処理を非同期で行う.
+     * @param routingId routingId
+     * @param datas バルクドキュメント
+     * @param isWriteLog リクエスト情報のログ出力有無
+     * @param policy refresh方針
+     * @return 非同期応答
+     */
+    EsFuture<DcBulkResponse> bulkRequestAsync(String routingId, List<EsBulkRequest> datas, boolean isWriteLog,
+            EsRefreshPolicy policy);
+
+    /**
+     * 呼び出し時点までに完了した書き込みを検索に反映させる.
+     * 書き込み直後に検索を行う処理で、refresh方針が{@link EsRefreshPolicy#IMMEDIATE}でない書き込みを検索対象にするために用いる.
+     * 同時に呼び出された場合、refreshは1回にまとめて実行する.
+     */
+    void refresh();
+
     /**
      * インデックスの設定を更新する.
      * @param index インデックス名
@@ -0,0 +1,63 @@
+/**
+ * personium.io
+ * Copyright 2014 FUJITSU LIMITED
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.fujitsu.dc.common.es;
+
+/**
+ * ESへの書き込み(登録・更新・削除)を検索に反映させる方針.
+ */
+public enum EsRefreshPolicy {
+    /**
+     * 書き込みリクエストごとにrefreshを行う. 書き込み完了時点で検索に反映されている.
+     */
+    IMMEDIATE("immediate"),
+    /**
+     * refreshを行わない. ESのrefresh_intervalによる定期的なrefreshで検索に反映される.
+     */
+    DEFERRED("deferred"),
+    /**
+     * 書き込み完了後、その書き込みを含むrefreshが完了するまで待つ. 書き込み完了時点で検索に反映されている.
+     * 同時に行われた書き込みは1回のrefreshにまとめられる.
+     */
+    WAIT_FOR_VISIBLE("waitForVisible");
+
+    private final String value;
+
+    EsRefreshPolicy(String value) {
+        this.value = value;
+    }
+
+    /**
+     * @return 設定値での表記
+     */
+    public String getValue() {
+        return this.value;
+    }
+
+    /**
+     * 設定値の表記から方針を取得する.
+     * @param value 設定値(immediate/deferred/waitForVisible)
+     * @return 方針. 該当しない場合は{@link #IMMEDIATE}
+     */
+    public static EsRefreshPolicy fromValue(String value) {
+        for (EsRefreshPolicy policy : values()) {
+            if (policy.value.equalsIgnoreCase(value)) {
+                return policy;
+            }
+        }
+        return IMMEDIATE;
+    }
+}
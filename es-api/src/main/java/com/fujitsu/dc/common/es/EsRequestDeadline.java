@@ -0,0 +1,76 @@
+/**
+ * personium.io
+ * Copyright 2014 FUJITSU LIMITED
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.fujitsu.dc.common.es;
+
+/**
+ * 処理中のリクエストがESの応答を待てる期限を、スレッドごとに保持する.
+ * <p>
+ * 期限が設定されたスレッドから発行したESへの読み込み要求(取得・検索)は、期限までに応答がなければ待機をやめて失敗する。
+ * また、期限までに完了できないリトライは行わない。期限が設定されていない場合は応答を待ち続ける。
+ * 書き込み要求には期限を適用しない。
+ * </p>
+ */
+public final class EsRequestDeadline {
+
+    private static final ThreadLocal<Long> DEADLINE = new ThreadLocal<Long>();
+
+    private EsRequestDeadline() {
+    }
+
+    /**
+     * 現在のスレッドに、現在時刻から指定した時間後の期限を設定する.
+     * @param budgetInMillis リクエストがESの応答を待てる時間(ms). 0以下の場合は期限を設定しない
+     */
+    public static void start(long budgetInMillis) {
+        if (budgetInMillis <= 0) {
+            DEADLINE.remove();
+            return;
+        }
+        DEADLINE.set(System.currentTimeMillis() + budgetInMillis);
+    }
+
+    /**
+     * 現在のスレッドに、{@link #get()}で取得した期限を設定する.
+     * レスポンスボディの出力など、期限を設定したスレッドの外で処理を続ける場合に用いる.
+     * @param deadline 期限(ms). 0以下の場合は期限を設定しない
+     */
+    public static void set(long deadline) {
+        if (deadline <= 0) {
+            DEADLINE.remove();
+            return;
+        }
+        DEADLINE.set(deadline);
+    }
+
+    /**
+     * 現在のスレッドの期限を解除する.
+     */
+    public static void clear() {
+        DEADLINE.remove();
+    }
+
+    /**
+     * @return 現在のスレッドの期限(ms). 設定されていない場合は0
+     */
+    public static long get() {
+        Long deadline = DEADLINE.get();
+        if (deadline == null) {
+            return 0;
+        }
+        return deadline;
+    }
+}
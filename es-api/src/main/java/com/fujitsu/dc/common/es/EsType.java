@@ -59,6 +59,20 @@ public interface EsType {
      */
     DcGetResponse get(String id, boolean realtime);
 
+    /**
+     * realtimeモード指定で、ソースを取得せずにドキュメントのバージョンを取得する.
+     * @param id ドキュメントのID
+     * @return バージョン. ドキュメントが存在しない場合はnull
+     */
+    Long getVersion(String id);
+
+    /**
+     * realtimeモード指定で複数のドキュメントを1回の要求でまとめて取得する.
+     * @param ids ドキュメントのIDのリスト
+     * @return idsと同じ順序の応答のリスト. 存在しないドキュメントの位置はnull
+     */
+    List<DcGetResponse> multiGet(List<String> ids);
+
     /**
      * ドキュメント新規作成.
      * @param data ドキュメント
@@ -74,6 +88,15 @@ public interface EsType {
      */
     DcIndexResponse create(String id, @SuppressWarnings("rawtypes") Map data);
 
+    /**
+     * refresh方針を指定してドキュメント新規作成.
+     * @param id ID
+     * @param data ドキュメント
+     * @param policy refresh方針
+     * @return ES応答
+     */
+    DcIndexResponse create(String id, @SuppressWarnings("rawtypes") Map data, EsRefreshPolicy policy);
+
     /**
      * ドキュメント更新.
      * @param id ID
@@ -83,6 +106,16 @@ public interface EsType {
      */
     DcIndexResponse update(String id, @SuppressWarnings("rawtypes") Map data, long version);
 
+    /**
+     * refresh方針を指定してドキュメント更新.
+     * @param id ID
+     * @param data ドキュメント
+     * @param version version番号
+     * @param policy refresh方針
+     * @return ES応答
+     */
+    DcIndexResponse update(String id, @SuppressWarnings("rawtypes") Map data, long version, EsRefreshPolicy policy);
+
     /**
      * ドキュメント更新.
      * @param id ID
@@ -120,6 +153,75 @@ public interface EsType {
      */
     DcDeleteResponse delete(String docId, long version);
 
+    /**
+     * Delete a document with refresh policy.
+     * @param docId Document id to delete
+     * @param version The version of the document to delete
+     * @param policy refresh方針
+     * @return 応答
+     */
+    DcDeleteResponse delete(String docId, long version, EsRefreshPolicy policy);
+
+    /**
+     * ドキュメントの１件取得を非同期で行う.
+     * @param id ドキュメントのID
+     * @param realtime リアルタイムモードなら真
+     * @return 非同期応答. 応答の値は{@link #get(String, boolean)}と同じ
+     */
+    EsFuture<DcGetResponse> getAsync(String id, boolean realtime);
+
+    /**
+     * 複数のドキュメントのまとめての取得を非同期で行う.
+     * @param ids ドキュメントのIDのリスト
+     * @param realtime リアルタイムモードなら真
+     * @return 非同期応答. idsと同じ順序の応答のリストで、存在しないドキュメントの位置はnull
+     */
+    EsFuture<List<DcGetResponse>> multiGetAsync(List<String> ids, boolean realtime);
+
+    /**
+     * refresh方針を指定してドキュメント新規作成を非同期で行う.
+     * @param id ID
+     * @param data ドキュメント
+     * @param policy refresh方針
+     * @return 非同期応答
+     */
+    EsFuture<DcIndexResponse> createAsync(String id, @SuppressWarnings("rawtypes") Map data,
+            EsRefreshPolicy policy);
+
+    /**
+     * refresh方針を指定してドキュメント更新を非同期で行う.
+     * @param id ID
+     * @param data ドキュメント
+     * @param version version番号
+     * @param policy refresh方針
+     * @return 非同期応答
+     */
+    EsFuture<DcIndexResponse> updateAsync(String id, @SuppressWarnings("rawtypes") Map data, long version,
+            EsRefreshPolicy policy);
+
+    /**
+     * ドキュメントの検索を非同期で行う.
+     * @param query クエリ情報
+     * @return 非同期応答
+     */
+    EsFuture<DcSearchResponse> searchAsync(Map<String, Object> query);
+
+    /**
+     * ドキュメントのマルチ検索を非同期で行う.
+     * @param queryList マルチ検索用のクエリ情報リスト
+     * @return 非同期応答
+     */
+    EsFuture<DcMultiSearchResponse> multiSearchAsync(List<Map<String, Object>> queryList);
+
+    /**
+     * Delete a document asynchronously with refresh policy.
+     * @param docId Document id to delete
+     * @param version The version of the document to delete
+     * @param policy refresh方針
+     * @return 非同期応答
+     */
+    EsFuture<DcDeleteResponse> deleteAsync(String docId, long version, EsRefreshPolicy policy);
+
     /**
      * Mapping定義を取得する.
      * @return Mapping定義
@@ -16,7 +16,14 @@
  */
 package com.fujitsu.dc.common.es.impl;
 
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+
 import org.elasticsearch.ElasticsearchException;
+import org.elasticsearch.ElasticsearchTimeoutException;
+import org.elasticsearch.action.ActionListener;
+import org.elasticsearch.action.ListenableActionFuture;
 import org.elasticsearch.action.NoShardAvailableActionException;
 import org.elasticsearch.client.transport.NoNodeAvailableException;
 import org.elasticsearch.cluster.block.ClusterBlockException;
@@ -25,24 +32,41 @@ import org.elasticsearch.transport.NodeDisconnectedException;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
+import com.fujitsu.dc.common.es.EsFuture;
+import com.fujitsu.dc.common.es.EsRequestDeadline;
 import com.fujitsu.dc.common.es.response.EsClientException;
 
 /**
  * Elasticsearchへリトライ可能な処理を記述する抽象クラス.
  * リクエストの実際の実装は、抽象メソッド {@link #doProcess()} に記述すること.
- * 呼出し元は、#doRequest()メソッドを呼び出すこと。
+ * ESの応答を待たずに発行できる場合は {@link #doProcessAsync(ActionListener)} もオーバーライドすること.
+ * 呼出し元は、#doRequest()メソッド、または#doRequestAsync()メソッドを呼び出すこと。
+ * リトライは呼出し元のスレッドを待機させず、タイマで指数的に間隔を広げながら行う。
+ * また、リトライの総量は全リクエストで共有する予算の範囲に制限する。
+ * 操作種別({@link #operation()})を持つリクエストは、操作種別ごとのサーキットブレーカが開いている間は発行せずに失敗させる。
+ * 呼出し元スレッドに{@link EsRequestDeadline}の期限が設定されている場合、読み込み要求は期限を超えて応答を待たず、リトライも行わない。
+ * 書き込み要求には期限を適用しない(応答を待たずに失敗させると、ESへの書き込みが完了していてもADSへ反映されないため)。
  * @param <T> 正常終了時のレスポンスの型. void の場合は Void
  */
 abstract class AbstractRetryableEsRequest<T> {
 
     static Logger log = LoggerFactory.getLogger(AbstractRetryableEsRequest.class);
 
+    /** リトライ間隔を広げる上限(初回リトライ間隔に対する倍数の2の指数). */
+    static final int MAX_BACKOFF_EXPONENT = 3;
+
+    /** 全リクエストで共有するリトライの予算. 設定されるまでは制限しない. */
+    static volatile EsRetryBudget retryBudget = EsRetryBudget.unlimited();
+
     int retryCount = 0;
     long retryInterval = 0;
     String description;
 
     // 初回呼び出し時のみ true. リトライに入っている間は falseとなる。
-    boolean firstAttempt = true;
+    volatile boolean firstAttempt = true;
+
+    // 応答を待てる期限(ms). 0の場合は期限なし
+    volatile long deadline = 0;
 
     /**
      * コンストラクタ.
@@ -71,6 +95,19 @@ abstract class AbstractRetryableEsRequest<T> {
 
     /**
      * ESへのリクエストを実行する.
+     * {@link #doRequestAsync()}の完了を待つ.
+     * @return レスポンスオブジェクト
+     */
+    public T doRequest() {
+        EsFuture<T> future = doRequestAsync();
+        if (deadline == 0) {
+            return future.get();
+        }
+        return future.get(Math.max(0, deadline - System.currentTimeMillis()), TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * ESへのリクエストを非同期で実行する.
      * リクエスト初回に以下の4種の例外のいずれかが発生した場合、リトライ処理を行う.
      * <ul>
      * <li>NodeDisconnectedException</li>
@@ -78,46 +115,38 @@ abstract class AbstractRetryableEsRequest<T> {
      * <li>NoShardAvailableActionException</li>
      * <li>ClusterBlockException</li>
      * </ul>
-     * @return レスポンスオブジェクト
+     * @return 非同期応答
      */
-    public T doRequest() {
+    public EsFuture<T> doRequestAsync() {
         firstAttempt = true;
-        boolean continueRetry = false;
-        try {
-            return doProcess();
-        } catch (ElasticsearchException e) {
-            if (isParticularError(e)) {
-                // 検出された例外を特別扱いする場合の処理呼び出し
-                try {
-                    return onParticularError(e);
-                } catch (ContinueRetry e2) {
-                    // リトライ処理へ移行する.
-                    continueRetry = true;
-                } catch (ElasticsearchException e2) {
-                    // #onParticulorError()内で適切に対処されなかった ElasticsearchExceptionは
-                    // EsClientExceptionラップして投げる.
-                    throw new EsClientException(description + " failed", e);
-                }
-            }
-            // translogのRead時のポインタ位置不正による例外(ES1.2.1のバグ)の場合には、flushを実行しリトライする
-            // UncategorizedExecutionExceptionはtranslog読込以外の例外の場合にもスローされてくる可能性があるが、
-            // 判別できないため、それらの場合にも本ルートに乗せる
-            if (e instanceof UncategorizedExecutionException) {
-                flushTransLog();
-            }
-            log.info(e.getClass().getName() + " : " + e.getMessage());
-            // 以下の例外の場合はリトライをする。
-            if (continueRetry
-                    || e instanceof NodeDisconnectedException || e instanceof NoNodeAvailableException
-                    || e instanceof NoShardAvailableActionException || e instanceof ClusterBlockException
-                    || e instanceof UncategorizedExecutionException) {
-                log.info("Proceed to retry loop.");
-                continueRetry = false; // 念のため
-                return retryRequest();
-            }
-            // 上記以外の場合、リトライの意味はないため、EsClientExceptionにラップしてそのまま投げる。
-            throw new EsClientException(description + " failed", e);
+        deadline = isRead() ? EsRequestDeadline.get() : 0;
+        EsSettableFuture<T> future = new EsSettableFuture<T>();
+        if (deadline != 0 && System.currentTimeMillis() >= deadline) {
+            future.setException(new EsClientException.EsNoResponseException(
+                    description + " failed: request deadline exceeded", null));
+            return future;
         }
+        retryBudget.onRequest();
+        attempt(future, 0, null);
+        return future;
+    }
+
+    /**
+     * サーキットブレーカを適用する操作種別を返す.
+     * 標準実装では null を返し、サーキットブレーカを適用しない(インデックス作成等の管理操作).
+     * @return 操作種別
+     */
+    EsCircuitBreaker.Operation operation() {
+        return null;
+    }
+
+    /**
+     * 読み込み要求か否かを返す. {@link EsRequestDeadline}の期限は読み込み要求のみに適用する.
+     * @return 取得・検索の場合は真
+     */
+    boolean isRead() {
+        EsCircuitBreaker.Operation op = operation();
+        return op == EsCircuitBreaker.Operation.GET || op == EsCircuitBreaker.Operation.SEARCH;
     }
 
     /**
@@ -127,6 +156,64 @@ abstract class AbstractRetryableEsRequest<T> {
      */
     abstract T doProcess();
 
+    /**
+     * Elasticsearchへのリクエストを応答を待たずに発行する.
+     * 標準実装では、ワーカスレッドで{@link #doProcess()}を実行する.
+     * ワーカスレッドが上限に達している場合は、リクエストを発行せずに応答なしとして失敗させる.
+     * @param listener 応答の通知先
+     */
+    void doProcessAsync(final ActionListener<T> listener) {
+        try {
+            EsRetryScheduler.execute(new Runnable() {
+                @Override
+                public void run() {
+                    T response;
+                    try {
+                        response = doProcess();
+                    } catch (RuntimeException e) {
+                        listener.onFailure(e);
+                        return;
+                    }
+                    listener.onResponse(response);
+                }
+            });
+        } catch (RejectedExecutionException e) {
+            listener.onFailure(new EsClientException.EsNoResponseException(
+                    description + " failed: async worker pool is saturated", e));
+        }
+    }
+
+    /**
+     * ESの非同期応答をワーカスレッドでlistenerに通知する.
+     * ESの通信スレッドで応答処理(特定例外の処理やリトライの判定)を行わないため.
+     * @param future ESの非同期応答
+     * @param listener 応答の通知先
+     * @param <R> 応答の型
+     */
+    static <R> void relay(ListenableActionFuture<R> future, final ActionListener<R> listener) {
+        future.addListener(new ActionListener<R>() {
+            @Override
+            public void onResponse(final R response) {
+                EsRetryScheduler.deliver(new Runnable() {
+                    @Override
+                    public void run() {
+                        listener.onResponse(response);
+                    }
+                });
+            }
+
+            @Override
+            public void onFailure(final Throwable e) {
+                EsRetryScheduler.deliver(new Runnable() {
+                    @Override
+                    public void run() {
+                        listener.onFailure(e);
+                    }
+                });
+            }
+        });
+    }
+
     /**
      * リトライ時、引数に指定された例外を特別扱いする場合、trueを返すようにオーバーライドすること.
      * これにより、#onParticularErrorメソッドが呼び出される.
@@ -155,7 +242,93 @@ abstract class AbstractRetryableEsRequest<T> {
     }
 
     /**
-     * Elasticsearchへのリクエストをリトライする.
+     * 特定の例外が発生した場合の処理を非同期で行う. 本メソッドは応答処理のワーカスレッドで呼び出される.
+     * 特定の例外の処理でESへ別のリクエストを発行する場合は、このメソッドをオーバーライドし、その応答を待たずに非同期応答を返すこと.
+     * ワーカスレッドで別のリクエストの応答を待つと、その応答を通知するワーカスレッドが枯渇した場合に処理が進まなくなるため.
+     * 返却した非同期応答の結果は、{@link #onParticularError(ElasticsearchException)}の復帰値・例外と同様に扱う.
+     * 標準実装では{@link #onParticularError(ElasticsearchException)}を呼び出し、その結果を返す.
+     * @param e 特定例外
+     * @return レスポンスの非同期応答
+     */
+    EsFuture<T> onParticularErrorAsync(ElasticsearchException e) {
+        EsSettableFuture<T> result = new EsSettableFuture<T>();
+        try {
+            result.set(onParticularError(e));
+        } catch (RuntimeException e2) {
+            result.setException(e2);
+        }
+        return result;
+    }
+
+    /**
+     * リクエストを発行する.
+     * @param future 呼出し元に返却した非同期応答
+     * @param retried これまでのリトライ回数
+     * @param lastError 前回の試行で発生した例外. 初回はnull
+     */
+    private void attempt(final EsSettableFuture<T> future, final int retried, ElasticsearchException lastError) {
+        EsCircuitBreaker.Operation op = operation();
+        final EsCircuitBreaker breaker;
+        final EsCircuitBreaker.Permit permit;
+        if (op == null) {
+            breaker = null;
+            permit = null;
+        } else {
+            breaker = EsCircuitBreaker.of(op);
+            permit = breaker.tryAcquire(System.currentTimeMillis());
+            if (permit == null) {
+                // 劣化したESノードへの要求で待ち時間を広げないため、ブレーカが開いている間は即座に失敗させる。
+                future.setException(new EsClientException.EsNoResponseException(
+                        description + " failed: circuit breaker for " + op + " is open", lastError));
+                return;
+            }
+        }
+        ActionListener<T> listener = new ActionListener<T>() {
+            @Override
+            public void onResponse(T response) {
+                if (breaker != null) {
+                    breaker.onSuccess(permit, System.currentTimeMillis());
+                }
+                future.set(response);
+            }
+
+            @Override
+            public void onFailure(Throwable e) {
+                if (breaker != null) {
+                    if (isNodeFailure(e)) {
+                        breaker.onFailure(permit, System.currentTimeMillis());
+                    } else {
+                        breaker.onSuccess(permit, System.currentTimeMillis());
+                    }
+                }
+                try {
+                    onAttemptFailure(future, retried, e);
+                } catch (RuntimeException e2) {
+                    future.setException(e2);
+                }
+            }
+        };
+        try {
+            doProcessAsync(listener);
+        } catch (RuntimeException e) {
+            // リクエストの発行自体に失敗した場合
+            listener.onFailure(e);
+        }
+    }
+
+    /**
+     * ESノードの障害または応答なしによる失敗かを判定する. それ以外の例外はESが応答したものとみなす.
+     * @param t 発生した例外
+     * @return ESノードの障害による失敗の場合は真
+     */
+    static boolean isNodeFailure(Throwable t) {
+        return t instanceof NodeDisconnectedException || t instanceof NoNodeAvailableException
+                || t instanceof NoShardAvailableActionException || t instanceof ClusterBlockException
+                || t instanceof UncategorizedExecutionException || t instanceof ElasticsearchTimeoutException;
+    }
+
+    /**
+     * リクエスト失敗時の処理.
      * 以下の4つの例外が発生した場合のみリトライし、それ以外は、EsClientExceptionを投げて中断する。
      * <ul>
      * <li>NodeDisconnectedException</li>
@@ -163,59 +336,160 @@ abstract class AbstractRetryableEsRequest<T> {
      * <li>NoShardAvailableActionException</li>
      * <li>ClusterBlockException</li>
      * </ul>
-     * @return レスポンス
+     * @param future 呼出し元に返却した非同期応答
+     * @param retried これまでのリトライ回数
+     * @param t 発生した例外
      */
-    private T retryRequest() {
-        firstAttempt = false;
-        Exception lastError = null;
-        for (int i = 0; i < retryCount; i++) {
-            log.info(description + ": retry " + (i + 1));
-            try {
-                // 少し待機
-                Thread.sleep(retryInterval);
-                // 再度リクエストを実行する。
-                return doProcess();
-            } catch (ElasticsearchException e) {
-                lastError = e;
-                if (isParticularError(e)) {
-                    // 検出された例外を特別扱いする場合の処理呼び出し
+    private void onAttemptFailure(final EsSettableFuture<T> future, final int retried, Throwable t) {
+        if (!(t instanceof ElasticsearchException)) {
+            if (t instanceof RuntimeException) {
+                future.setException((RuntimeException) t);
+            } else {
+                future.setException(new EsClientException(description + " failed", t));
+            }
+            return;
+        }
+        final ElasticsearchException e = (ElasticsearchException) t;
+        if (!isParticularError(e)) {
+            onRetryableFailure(future, retried, e, false);
+            return;
+        }
+        // 検出された例外を特別扱いする場合の処理呼び出し
+        onParticularErrorAsync(e).addListener(new EsFuture.Listener<T>() {
+            @Override
+            public void onResponse(T response) {
+                future.set(response);
+            }
+
+            @Override
+            public void onFailure(RuntimeException e2) {
+                if (e2 instanceof ContinueRetry) {
+                    // リトライ処理へ移行する.
                     try {
-                        return onParticularError(e);
-                    } catch (ContinueRetry e2) {
-                        continue;
-                    } catch (ElasticsearchException e2) {
-                        // #onParticulorError()内で適切に対処されなかった ElasticsearchExceptionは
-                        // EsClientExceptionラップして投げる.
-                        throw new EsClientException(description + " failed", e);
+                        onRetryableFailure(future, retried, e, true);
+                    } catch (RuntimeException e3) {
+                        future.setException(e3);
                     }
-                } else if (e instanceof UncategorizedExecutionException) {
-                    // translogのRead時のポインタ位置不正による例外(ES1.2.1のバグ)の場合には、flushを実行しリトライする
-                    // UncategorizedExecutionExceptionはtranslog読込以外の例外の場合にもスローされてくる可能性があるが、
-                    // 判別できないため、それらの場合にも本ルートに乗せる
-                    flushTransLog();
-                    continue;
-                } else if (e instanceof NodeDisconnectedException || e instanceof NoNodeAvailableException
-                        || e instanceof NoShardAvailableActionException || e instanceof ClusterBlockException) {
-                    // これらの例外の場合、ESの状態が不正か通信エラー等の原因が考えられるため、リトライを継続。
-                    continue;
+                } else if (e2 instanceof ElasticsearchException) {
+                    // #onParticulorError()内で適切に対処されなかった ElasticsearchExceptionは
+                    // EsClientExceptionラップして投げる.
+                    future.setException(new EsClientException(description + " failed", e));
+                } else {
+                    future.setException(e2);
                 }
-                // 上記以外の例外は、明確なエラー発生と考えられるため、例外を返す。
-                throw new EsClientException(description + " failed", e);
-            } catch (InterruptedException e) {
-                // #sleep()中の例外。外部から中断された場合などが想定される。
-                throw new EsClientException(description + " failed", e);
             }
+        });
+    }
+
+    /**
+     * 特定の例外として処理しなかった失敗について、translogのflushとリトライの要否を判定する.
+     * @param future 呼出し元に返却した非同期応答
+     * @param retried これまでのリトライ回数
+     * @param e 発生した例外
+     * @param continueRetry {@link #onParticularError(ElasticsearchException)}がリトライの継続を指示した場合は真
+     */
+    private void onRetryableFailure(final EsSettableFuture<T> future, final int retried,
+            final ElasticsearchException e, final boolean continueRetry) {
+        if (retried == 0) {
+            log.info(e.getClass().getName() + " : " + e.getMessage());
+        }
+        if (e instanceof UncategorizedExecutionException && (retried == 0 || !continueRetry)) {
+            // translogのRead時のポインタ位置不正による例外(ES1.2.1のバグ)の場合には、flushを実行しリトライする
+            // UncategorizedExecutionExceptionはtranslog読込以外の例外の場合にもスローされてくる可能性があるが、
+            // 判別できないため、それらの場合にも本ルートに乗せる
+            // ワーカスレッドを待機させないよう、flushの完了を待たずに後続の処理を登録する
+            flushTransLog().addListener(new EsFuture.Listener<Object>() {
+                @Override
+                public void onResponse(Object response) {
+                    try {
+                        retryOrFail(future, retried, e, continueRetry);
+                    } catch (RuntimeException e2) {
+                        future.setException(e2);
+                    }
+                }
+
+                @Override
+                public void onFailure(RuntimeException e2) {
+                    future.setException(e2);
+                }
+            });
+            return;
+        }
+        retryOrFail(future, retried, e, continueRetry);
+    }
+
+    /**
+     * リトライが可能であればリトライを予約し、そうでなければ非同期応答を失敗させる.
+     * @param future 呼出し元に返却した非同期応答
+     * @param retried これまでのリトライ回数
+     * @param e 発生した例外
+     * @param continueRetry {@link #onParticularError(ElasticsearchException)}がリトライの継続を指示した場合は真
+     */
+    private void retryOrFail(final EsSettableFuture<T> future, final int retried, ElasticsearchException e,
+            boolean continueRetry) {
+        // 以下の例外の場合はリトライをする。
+        if (!(continueRetry
+                || e instanceof NodeDisconnectedException || e instanceof NoNodeAvailableException
+                || e instanceof NoShardAvailableActionException || e instanceof ClusterBlockException
+                || e instanceof UncategorizedExecutionException)) {
+            // 上記以外の場合、リトライの意味はないため、EsClientExceptionにラップしてそのまま投げる。
+            future.setException(new EsClientException(description + " failed", e));
+            return;
+        }
+        if (retried == 0) {
+            log.info("Proceed to retry loop.");
+            firstAttempt = false;
+        }
+        if (retried >= retryCount) {
+            // リトライ回数を超えた場合、最後のエラーを返却する。
+            future.setException(new EsClientException.EsNoResponseException(description + " failed", e));
+            return;
+        }
+        if (!retryBudget.tryAcquire(System.currentTimeMillis())) {
+            // ES障害時にリトライで負荷を増幅させないため、予算を超えたリトライは行わない。
+            log.info(description + ": retry budget exhausted");
+            future.setException(new EsClientException.EsNoResponseException(description + " failed", e));
+            return;
+        }
+        final long delay = backoff(retried);
+        if (deadline != 0 && System.currentTimeMillis() + delay >= deadline) {
+            // 呼出し元が応答を待てる期限までに完了できないリトライは行わない。
+            log.info(description + ": request deadline exceeded");
+            future.setException(new EsClientException.EsNoResponseException(description + " failed", e));
+            return;
+        }
+        final ElasticsearchException lastError = e;
+        EsRetryScheduler.schedule(new Runnable() {
+            @Override
+            public void run() {
+                log.info(description + ": retry " + (retried + 1));
+                attempt(future, retried + 1, lastError);
+            }
+        }, delay);
+    }
+
+    /**
+     * リトライまでの待ち時間を返す.
+     * 初回リトライ間隔から倍々に広げ、ゆらぎを加える(同時に失敗したリクエストのリトライが集中しないため).
+     * @param retried これまでのリトライ回数
+     * @return 待ち時間(ms)
+     */
+    long backoff(int retried) {
+        long delay = retryInterval << Math.min(retried, MAX_BACKOFF_EXPONENT);
+        if (delay <= 1) {
+            return delay;
         }
-        // リトライ回数を超えた場合、最後のエラーを返却する。
-        throw new EsClientException.EsNoResponseException(description + " failed", lastError);
+        long half = delay / 2;
+        return half + ThreadLocalRandom.current().nextLong(delay - half + 1);
     }
 
     abstract EsTranslogHandler getEsTranslogHandler();
 
     /**
-     * translogをflushする.
+     * translogをflushする. flushの完了は待たない.
+     * @return flushの非同期応答
      */
-    protected void flushTransLog() {
-        getEsTranslogHandler().flushTranslog();
+    protected EsFuture<?> flushTransLog() {
+        return getEsTranslogHandler().flushTranslogAsync();
     }
 }
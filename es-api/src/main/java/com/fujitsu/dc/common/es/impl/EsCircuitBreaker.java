@@ -0,0 +1,468 @@
+/**
+ * personium.io
+ * Copyright 2014 FUJITSU LIMITED
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.fujitsu.dc.common.es.impl;
+
+import java.util.ArrayList;
+import java.util.EnumMap;
+import java.util.List;
+import java.util.Map;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * ESへの操作種別ごとのサーキットブレーカ.
+ * <p>
+ * 直近一定時間の要求を1秒単位の区間で集計し、エラー率または遅延した要求の割合が閾値を超えた場合に開状態へ遷移する。
+ * 開状態の間はESへ要求を送らず即座に失敗させる(劣化したESノードへ要求を送り続け、待ち時間が全テナントに広がることを防ぐ)。
+ * 一定時間経過後は半開状態となり、限られた数の試行要求のみを通す。試行が全て成功すれば閉状態へ戻り、失敗すれば再び開状態となる。
+ * 開状態を維持する時間を過ぎても応答が返らない試行要求は失敗とみなす。
+ * 設定されるまでは全ての要求を通す。
+ * </p>
+ */
+public final class EsCircuitBreaker {
+
+    static Logger log = LoggerFactory.getLogger(EsCircuitBreaker.class);
+
+    /** 集計区間の長さ(ms). */
+    static final long BUCKET_IN_MILLIS = 1000L;
+
+    /**
+     * 操作種別.
+     */
+    public enum Operation {
+        /** ドキュメントの取得. */
+        GET,
+        /** 検索. */
+        SEARCH,
+        /** ドキュメントの登録・更新・削除. */
+        INDEX,
+        /** バルク操作. */
+        BULK
+    }
+
+    /**
+     * ブレーカの状態.
+     */
+    public enum State {
+        /** 閉状態. 全ての要求を通す. */
+        CLOSED,
+        /** 開状態. 全ての要求を即座に失敗させる. */
+        OPEN,
+        /** 半開状態. 試行要求のみを通す. */
+        HALF_OPEN
+    }
+
+    private static volatile Map<Operation, EsCircuitBreaker> breakers = disabled();
+
+    private final Operation operation;
+    private final boolean enabled;
+    private final int minimumRequests;
+    private final double errorRateThreshold;
+    private final long slowCallThresholdInMillis;
+    private final double slowCallRateThreshold;
+    private final long openDurationInMillis;
+    private final int halfOpenProbes;
+
+    private final long[] bucketEpochs;
+    private final int[] bucketRequests;
+    private final int[] bucketFailures;
+    private final int[] bucketSlowCalls;
+
+    private State state = State.CLOSED;
+    private long stateChangedAt;
+    private long stateEpoch;
+    /** 応答待ちの試行要求の開始時刻. */
+    private final List<Long> probesInFlight = new ArrayList<Long>();
+    private int probesSucceeded;
+
+    private final Map<State, Long> transitions = new EnumMap<State, Long>(State.class);
+    private final Map<State, Long> timeInState = new EnumMap<State, Long>(State.class);
+    private long succeeded;
+    private long failed;
+    private long slowCalls;
+    private long rejected;
+
+    /**
+     * コンストラクタ.
+     * @param operation 操作種別
+     * @param windowInMillis 集計する期間(ms)
+     * @param minimumRequests 開状態への遷移を判定する最小の要求数
+     * @param errorRateThreshold 開状態へ遷移するエラー率
+     * @param slowCallThresholdInMillis 遅延とみなす応答時間(ms)
+     * @param slowCallRateThreshold 開状態へ遷移する遅延した要求の割合
+     * @param openDurationInMillis 開状態を維持する時間(ms)
+     * @param halfOpenProbes 半開状態で通す試行要求の数
+     */
+    EsCircuitBreaker(Operation operation, long windowInMillis, int minimumRequests, double errorRateThreshold,
+            long slowCallThresholdInMillis, double slowCallRateThreshold, long openDurationInMillis,
+            int halfOpenProbes) {
+        this(operation, true, windowInMillis, minimumRequests, errorRateThreshold, slowCallThresholdInMillis,
+                slowCallRateThreshold, openDurationInMillis, halfOpenProbes);
+    }
+
+    private EsCircuitBreaker(Operation operation, boolean enabled, long windowInMillis, int minimumRequests,
+            double errorRateThreshold, long slowCallThresholdInMillis, double slowCallRateThreshold,
+            long openDurationInMillis, int halfOpenProbes) {
+        this.operation = operation;
+        this.enabled = enabled;
+        this.minimumRequests = Math.max(1, minimumRequests);
+        this.errorRateThreshold = errorRateThreshold;
+        this.slowCallThresholdInMillis = slowCallThresholdInMillis;
+        this.slowCallRateThreshold = slowCallRateThreshold;
+        this.openDurationInMillis = openDurationInMillis;
+        this.halfOpenProbes = Math.max(1, halfOpenProbes);
+        int buckets = (int) Math.max(1, windowInMillis / BUCKET_IN_MILLIS);
+        this.bucketEpochs = new long[buckets];
+        this.bucketRequests = new int[buckets];
+        this.bucketFailures = new int[buckets];
+        this.bucketSlowCalls = new int[buckets];
+        for (int i = 0; i < buckets; i++) {
+            this.bucketEpochs[i] = -1;
+        }
+        for (State s : State.values()) {
+            this.transitions.put(s, 0L);
+            this.timeInState.put(s, 0L);
+        }
+        this.stateChangedAt = System.currentTimeMillis();
+    }
+
+    private static Map<Operation, EsCircuitBreaker> disabled() {
+        Map<Operation, EsCircuitBreaker> map = new EnumMap<Operation, EsCircuitBreaker>(Operation.class);
+        for (Operation op : Operation.values()) {
+            map.put(op, new EsCircuitBreaker(op, false, BUCKET_IN_MILLIS, 1, 1, Long.MAX_VALUE, 1, 0, 1));
+        }
+        return map;
+    }
+
+    /**
+     * 全操作種別のブレーカを設定する. 設定前の状態と統計は破棄する.
+     * @param windowInMillis 集計する期間(ms)
+     * @param minimumRequests 開状態への遷移を判定する最小の要求数
+     * @param errorRateThreshold 開状態へ遷移するエラー率
+     * @param slowCallThresholdInMillis 遅延とみなす応答時間(ms)
+     * @param slowCallRateThreshold 開状態へ遷移する遅延した要求の割合
+     * @param openDurationInMillis 開状態を維持する時間(ms)
+     * @param halfOpenProbes 半開状態で通す試行要求の数
+     */
+    static void configure(long windowInMillis, int minimumRequests, double errorRateThreshold,
+            long slowCallThresholdInMillis, double slowCallRateThreshold, long openDurationInMillis,
+            int halfOpenProbes) {
+        Map<Operation, EsCircuitBreaker> map = new EnumMap<Operation, EsCircuitBreaker>(Operation.class);
+        for (Operation op : Operation.values()) {
+            map.put(op, new EsCircuitBreaker(op, windowInMillis, minimumRequests, errorRateThreshold,
+                    slowCallThresholdInMillis, slowCallRateThreshold, openDurationInMillis, halfOpenProbes));
+        }
+        breakers = map;
+    }
+
+    /**
+     * 全操作種別のブレーカを無効にする.
+     */
+    static void disable() {
+        breakers = disabled();
+    }
+
+    /**
+     * @param operation 操作種別
+     * @return 操作種別のブレーカ
+     */
+    static EsCircuitBreaker of(Operation operation) {
+        return breakers.get(operation);
+    }
+
+    /**
+     * 要求を通してよいかを判定する.
+     * @param now 現在時刻(ms)
+     * @return 通してよい場合は許可. 開状態の場合はnull
+     */
+    synchronized Permit tryAcquire(long now) {
+        if (!this.enabled) {
+            return new Permit(now, this.stateEpoch, false);
+        }
+        if (this.state == State.OPEN && now - this.stateChangedAt >= this.openDurationInMillis) {
+            transitionTo(State.HALF_OPEN, now);
+        }
+        if (this.state == State.HALF_OPEN && hasTimedOutProbe(now)) {
+            // 試行要求の応答が返らないまま時間が経過した場合は、失敗とみなして開状態へ戻す
+            transitionTo(State.OPEN, now);
+        }
+        switch (this.state) {
+        case CLOSED:
+            return new Permit(now, this.stateEpoch, false);
+        case HALF_OPEN:
+            if (this.probesInFlight.size() + this.probesSucceeded < this.halfOpenProbes) {
+                this.probesInFlight.add(now);
+                return new Permit(now, this.stateEpoch, true);
+            }
+            this.rejected++;
+            return null;
+        default:
+            this.rejected++;
+            return null;
+        }
+    }
+
+    /**
+     * 要求の成功を記録する. ESが応答した場合は、処理上のエラーであっても成功とみなす.
+     * @param permit {@link #tryAcquire(long)}で得た許可
+     * @param now 現在時刻(ms)
+     */
+    synchronized void onSuccess(Permit permit, long now) {
+        if (!this.enabled) {
+            return;
+        }
+        boolean slow = now - permit.startedAt >= this.slowCallThresholdInMillis;
+        this.succeeded++;
+        if (slow) {
+            this.slowCalls++;
+        }
+        if (permit.probe) {
+            if (permit.epoch != this.stateEpoch) {
+                return;
+            }
+            this.probesInFlight.remove(Long.valueOf(permit.startedAt));
+            if (slow) {
+                // 試行要求が遅延した場合はまだ回復していないとみなす
+                transitionTo(State.OPEN, now);
+                return;
+            }
+            this.probesSucceeded++;
+            if (this.probesSucceeded >= this.halfOpenProbes) {
+                transitionTo(State.CLOSED, now);
+            }
+            return;
+        }
+        if (this.state == State.CLOSED && permit.epoch == this.stateEpoch) {
+            record(now, false, slow);
+        }
+    }
+
+    /**
+     * 要求の失敗(ESノードの障害・応答なし)を記録する.
+     * @param permit {@link #tryAcquire(long)}で得た許可
+     * @param now 現在時刻(ms)
+     */
+    synchronized void onFailure(Permit permit, long now) {
+        if (!this.enabled) {
+            return;
+        }
+        boolean slow = now - permit.startedAt >= this.slowCallThresholdInMillis;
+        this.failed++;
+        if (slow) {
+            this.slowCalls++;
+        }
+        if (permit.probe) {
+            if (permit.epoch == this.stateEpoch) {
+                this.probesInFlight.remove(Long.valueOf(permit.startedAt));
+                transitionTo(State.OPEN, now);
+            }
+            return;
+        }
+        if (this.state == State.CLOSED && permit.epoch == this.stateEpoch) {
+            record(now, true, slow);
+        }
+    }
+
+    private boolean hasTimedOutProbe(long now) {
+        for (long startedAt : this.probesInFlight) {
+            if (now - startedAt >= this.openDurationInMillis) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private void record(long now, boolean failure, boolean slow) {
+        long epoch = now / BUCKET_IN_MILLIS;
+        int idx = (int) (epoch % this.bucketEpochs.length);
+        if (this.bucketEpochs[idx] != epoch) {
+            this.bucketEpochs[idx] = epoch;
+            this.bucketRequests[idx] = 0;
+            this.bucketFailures[idx] = 0;
+            this.bucketSlowCalls[idx] = 0;
+        }
+        this.bucketRequests[idx]++;
+        if (failure) {
+            this.bucketFailures[idx]++;
+        }
+        if (slow) {
+            this.bucketSlowCalls[idx]++;
+        }
+
+        int requests = 0;
+        int failures = 0;
+        int slows = 0;
+        long oldest = epoch - this.bucketEpochs.length;
+        for (int i = 0; i < this.bucketEpochs.length; i++) {
+            if (this.bucketEpochs[i] > oldest) {
+                requests += this.bucketRequests[i];
+                failures += this.bucketFailures[i];
+                slows += this.bucketSlowCalls[i];
+            }
+        }
+        if (requests < this.minimumRequests) {
+            return;
+        }
+        if ((double) failures / requests >= this.errorRateThreshold
+                || (double) slows / requests >= this.slowCallRateThreshold) {
+            log.info("Circuit breaker for ES " + this.operation + " opened. requests=" + requests
+                    + ", failures=" + failures + ", slowCalls=" + slows);
+            transitionTo(State.OPEN, now);
+        }
+    }
+
+    private void transitionTo(State newState, long now) {
+        this.timeInState.put(this.state, this.timeInState.get(this.state) + Math.max(0, now - this.stateChangedAt));
+        if (newState == State.CLOSED) {
+            log.info("Circuit breaker for ES " + this.operation + " closed.");
+            for (int i = 0; i < this.bucketEpochs.length; i++) {
+                this.bucketEpochs[i] = -1;
+            }
+        }
+        this.state = newState;
+        this.stateChangedAt = now;
+        this.stateEpoch++;
+        this.probesInFlight.clear();
+        this.probesSucceeded = 0;
+        this.transitions.put(newState, this.transitions.get(newState) + 1);
+    }
+
+    /**
+     * @return 現在の状態
+     */
+    synchronized State getState() {
+        return this.state;
+    }
+
+    /**
+     * 操作種別ごとの状態と統計を返す.
+     * @return 操作種別と統計のMap
+     */
+    public static Map<Operation, Snapshot> snapshot() {
+        Map<Operation, Snapshot> result = new EnumMap<Operation, Snapshot>(Operation.class);
+        long now = System.currentTimeMillis();
+        for (Map.Entry<Operation, EsCircuitBreaker> e : breakers.entrySet()) {
+            result.put(e.getKey(), e.getValue().snapshot(now));
+        }
+        return result;
+    }
+
+    synchronized Snapshot snapshot(long now) {
+        Map<State, Long> time = new EnumMap<State, Long>(this.timeInState);
+        time.put(this.state, time.get(this.state) + Math.max(0, now - this.stateChangedAt));
+        return new Snapshot(this.state, new EnumMap<State, Long>(this.transitions), time,
+                this.succeeded, this.failed, this.slowCalls, this.rejected);
+    }
+
+    /**
+     * 要求の許可.
+     */
+    static final class Permit {
+        private final long startedAt;
+        private final long epoch;
+        private final boolean probe;
+
+        Permit(long startedAt, long epoch, boolean probe) {
+            this.startedAt = startedAt;
+            this.epoch = epoch;
+            this.probe = probe;
+        }
+    }
+
+    /**
+     * ある時点のブレーカの状態と統計.
+     */
+    public static final class Snapshot {
+        private final State state;
+        private final Map<State, Long> transitions;
+        private final Map<State, Long> timeInState;
+        private final long succeeded;
+        private final long failed;
+        private final long slowCalls;
+        private final long rejected;
+
+        Snapshot(State state, Map<State, Long> transitions, Map<State, Long> timeInState,
+                long succeeded, long failed, long slowCalls, long rejected) {
+            this.state = state;
+            this.transitions = transitions;
+            this.timeInState = timeInState;
+            this.succeeded = succeeded;
+            this.failed = failed;
+            this.slowCalls = slowCalls;
+            this.rejected = rejected;
+        }
+
+        /**
+         * @return 現在の状態
+         */
+        public State getState() {
+            return state;
+        }
+
+        /**
+         * @param s 状態
+         * @return 状態へ遷移した回数
+         */
+        public long getTransitions(State s) {
+            return transitions.get(s);
+        }
+
+        /**
+         * @param s 状態
+         * @return 状態にあった累計時間(ms)
+         */
+        public long getTimeInState(State s) {
+            return timeInState.get(s);
+        }
+
+        /**
+         * @return 成功した要求数
+         */
+        public long getSucceeded() {
+            return succeeded;
+        }
+
+        /**
+         * @return 失敗した要求数
+         */
+        public long getFailed() {
+            return failed;
+        }
+
+        /**
+         * @return 遅延した要求数
+         */
+        public long getSlowCalls() {
+            return slowCalls;
+        }
+
+        /**
+         * @return 開状態のため即座に失敗させた要求数
+         */
+        public long getRejected() {
+            return rejected;
+        }
+
+        @Override
+        public String toString() {
+            return "state=" + state + ", transitions=" + transitions + ", timeInState=" + timeInState
+                    + ", succeeded=" + succeeded + ", failed=" + failed + ", slowCalls=" + slowCalls
+                    + ", rejected=" + rejected;
+        }
+    }
+}
@@ -26,7 +26,8 @@ import java.util.Map;
 
 import org.apache.commons.lang.CharEncoding;
 import org.elasticsearch.ElasticsearchException;
-import org.elasticsearch.action.ActionFuture;
+import org.elasticsearch.action.ActionListener;
+import org.elasticsearch.action.ListenableActionFuture;
 import org.elasticsearch.action.admin.indices.create.CreateIndexResponse;
 import org.elasticsearch.action.admin.indices.delete.DeleteIndexResponse;
 import org.elasticsearch.action.bulk.BulkResponse;
@@ -44,7 +45,9 @@ import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 import com.fujitsu.dc.common.es.EsBulkRequest;
+import com.fujitsu.dc.common.es.EsFuture;
 import com.fujitsu.dc.common.es.EsIndex;
+import com.fujitsu.dc.common.es.EsRefreshPolicy;
 import com.fujitsu.dc.common.es.query.DcQueryBuilder;
 import com.fujitsu.dc.common.es.response.DcBulkResponse;
 import com.fujitsu.dc.common.es.response.DcMultiSearchResponse;
@@ -101,6 +104,11 @@ public class EsIndexImpl extends EsTranslogHandler implements EsIndex {
         return this.name;
     }
 
+    @Override
+    public EsRefreshPolicy getRefreshPolicy() {
+        return esClient.getRefreshPolicy();
+    }
+
     @Override
     public String getCategory() {
         return this.category;
@@ -138,18 +146,40 @@ public class EsIndexImpl extends EsTranslogHandler implements EsIndex {
 
     @Override
     public DcSearchResponse search(String routingId, final DcQueryBuilder query) {
+        return this.searchAsync(routingId, query).get();
+    }
+
+    @Override
+    public EsFuture<DcSearchResponse> searchAsync(String routingId, final DcQueryBuilder query) {
         SearchRetryableRequest request = new SearchRetryableRequest(retryCount, retryInterval, routingId,
                 getQueryBuilder(query));
-        // 必要な場合、メソッド内でリトライが行われる.
-        return DcSearchResponseImpl.getInstance(request.doRequest());
+        // 必要な場合、リトライが行われる.
+        return request.doRequestAsync().transform(new EsFuture.Function<SearchResponse, DcSearchResponse>() {
+            @Override
+            public DcSearchResponse apply(SearchResponse response) {
+                return DcSearchResponseImpl.getInstance(response);
+            }
+        });
     }
 
     @Override
     public DcMultiSearchResponse multiSearch(String routingId, final List<Map<String, Object>> queryList) {
+        return this.multiSearchAsync(routingId, queryList).get();
+    }
+
+    @Override
+    public EsFuture<DcMultiSearchResponse> multiSearchAsync(String routingId,
+            final List<Map<String, Object>> queryList) {
         MultiSearchRetryableRequest request =
                 new MultiSearchRetryableRequest(retryCount, retryInterval, routingId, queryList);
-        // 必要な場合、メソッド内でリトライが行われる.
-        return DcMultiSearchResponseImpl.getInstance(request.doRequest());
+        // 必要な場合、リトライが行われる.
+        return request.doRequestAsync().transform(
+                new EsFuture.Function<MultiSearchResponse, DcMultiSearchResponse>() {
+                    @Override
+                    public DcMultiSearchResponse apply(MultiSearchResponse response) {
+                        return DcMultiSearchResponseImpl.getInstance(response);
+                    }
+                });
     }
 
     @Override
@@ -180,10 +210,39 @@ public class EsIndexImpl extends EsTranslogHandler implements EsIndex {
 
     @Override
     public DcBulkResponse bulkRequest(final String routingId, final List<EsBulkRequest> datas, boolean isWriteLog) {
+        return bulkRequest(routingId, datas, isWriteLog, esClient.getRefreshPolicy());
+    }
+
+    @Override
+    public DcBulkResponse bulkRequest(final String routingId, final List<EsBulkRequest> datas, boolean isWriteLog,
+            EsRefreshPolicy policy) {
+        return bulkRequestAsync(routingId, datas, isWriteLog, policy).get();
+    }
+
+    @Override
+    public EsFuture<DcBulkResponse> bulkRequestAsync(final String routingId, final List<EsBulkRequest> datas,
+            boolean isWriteLog, EsRefreshPolicy policy) {
         BulkRetryableRequest request = new BulkRetryableRequest(retryCount, retryInterval,
-                this.name, routingId, datas, isWriteLog);
-        // 必要な場合、メソッド内でリトライが行われる.
-        return DcBulkResponseImpl.getInstance(request.doRequest());
+                this.name, routingId, datas, isWriteLog, policy);
+        // 必要な場合、リトライが行われる. バルク処理はワーカスレッドで実行する.
+        return request.doRequestAsync().transform(new EsFuture.Function<BulkResponse, DcBulkResponse>() {
+            @Override
+            public DcBulkResponse apply(BulkResponse response) {
+                return DcBulkResponseImpl.getInstance(response);
+            }
+        });
+    }
+
+    @Override
+    public void refresh() {
+        try {
+            esClient.awaitVisible(this.name);
+        } catch (ElasticsearchException e) {
+            // インデックスが存在しない場合は反映すべき書き込みもない
+            if (!(e instanceof IndexMissingException || e.getCause() instanceof IndexMissingException)) {
+                throw e;
+            }
+        }
     }
 
     /**
@@ -382,6 +441,11 @@ public class EsIndexImpl extends EsTranslogHandler implements EsIndex {
             routingId = argRoutingId;
         }
 
+        @Override
+        EsCircuitBreaker.Operation operation() {
+            return EsCircuitBreaker.Operation.SEARCH;
+        }
+
         @Override
         SearchResponse doProcess() {
             return asyncIndexSearch(routingId, query).actionGet();
@@ -425,6 +489,11 @@ public class EsIndexImpl extends EsTranslogHandler implements EsIndex {
             query = argQuery;
         }
 
+        @Override
+        EsCircuitBreaker.Operation operation() {
+            return EsCircuitBreaker.Operation.SEARCH;
+        }
+
         @Override
         boolean isParticularError(ElasticsearchException e) {
             return e instanceof IndexMissingException
@@ -437,6 +506,11 @@ public class EsIndexImpl extends EsTranslogHandler implements EsIndex {
             return asyncIndexSearch(routingId, query).actionGet();
         }
 
+        @Override
+        void doProcessAsync(ActionListener<SearchResponse> listener) {
+            relay(asyncIndexSearch(routingId, query), listener);
+        }
+
         @Override
         SearchResponse onParticularError(ElasticsearchException e) {
             if (e instanceof IndexMissingException || e.getCause() instanceof IndexMissingException) {
@@ -468,11 +542,21 @@ public class EsIndexImpl extends EsTranslogHandler implements EsIndex {
             queryList = argQueryList;
         }
 
+        @Override
+        EsCircuitBreaker.Operation operation() {
+            return EsCircuitBreaker.Operation.SEARCH;
+        }
+
         @Override
         MultiSearchResponse doProcess() {
             return asyncMultiIndexSearch(routingId, queryList).actionGet();
         }
 
+        @Override
+        void doProcessAsync(ActionListener<MultiSearchResponse> listener) {
+            relay(asyncMultiIndexSearch(routingId, queryList), listener);
+        }
+
         @Override
         boolean isParticularError(ElasticsearchException e) {
             return e instanceof SearchPhaseExecutionException;
@@ -506,6 +590,11 @@ public class EsIndexImpl extends EsTranslogHandler implements EsIndex {
             deleteQuery = argDeleteQuery;
         }
 
+        @Override
+        EsCircuitBreaker.Operation operation() {
+            return EsCircuitBreaker.Operation.BULK;
+        }
+
         @Override
         DeleteByQueryResponse doProcess() {
             return esClient.deleteByQuery(name, deleteQuery);
@@ -549,7 +638,7 @@ public class EsIndexImpl extends EsTranslogHandler implements EsIndex {
      * @param query クエリ情報
      * @return ES応答
      */
-    public ActionFuture<SearchResponse> asyncIndexSearch(String routingId, final Map<String, Object> query) {
+    public ListenableActionFuture<SearchResponse> asyncIndexSearch(String routingId, final Map<String, Object> query) {
         return esClient.asyncSearch(this.name, routingId, query);
     }
 
@@ -559,7 +648,7 @@ public class EsIndexImpl extends EsTranslogHandler implements EsIndex {
      * @param query クエリ情報
      * @return ES応答
      */
-    public ActionFuture<SearchResponse> asyncIndexSearch(String routingId, final QueryBuilder query) {
+    public ListenableActionFuture<SearchResponse> asyncIndexSearch(String routingId, final QueryBuilder query) {
         return esClient.asyncSearch(this.name, routingId, query);
     }
 
@@ -569,7 +658,7 @@ public class EsIndexImpl extends EsTranslogHandler implements EsIndex {
      * @param queryList クエリ情報一覧
      * @return ES応答
      */
-    public ActionFuture<MultiSearchResponse> asyncMultiIndexSearch(String routingId,
+    public ListenableActionFuture<MultiSearchResponse> asyncMultiIndexSearch(String routingId,
             final List<Map<String, Object>> queryList) {
         return esClient.asyncMultiSearch(this.name, routingId, queryList);
     }
@@ -582,19 +671,27 @@ public class EsIndexImpl extends EsTranslogHandler implements EsIndex {
         String routingId;
         List<EsBulkRequest> datas;
         boolean isWriteLog;
+        EsRefreshPolicy policy;
 
         public BulkRetryableRequest(int retryCount, long retryInterval,
-                String argName, String argRoutingId, List<EsBulkRequest> argDatas, boolean isWriteLog) {
+                String argName, String argRoutingId, List<EsBulkRequest> argDatas, boolean isWriteLog,
+                EsRefreshPolicy argPolicy) {
             super(retryCount, retryInterval, "EsIndex bulkCreate");
             this.name = argName;
             this.routingId = argRoutingId;
             this.datas = argDatas;
             this.isWriteLog = isWriteLog;
+            this.policy = argPolicy;
+        }
+
+        @Override
+        EsCircuitBreaker.Operation operation() {
+            return EsCircuitBreaker.Operation.BULK;
         }
 
         @Override
         BulkResponse doProcess() {
-            return esClient.bulkRequest(name, routingId, datas, isWriteLog);
+            return esClient.bulkRequest(name, routingId, datas, isWriteLog, policy);
         }
 
         @Override
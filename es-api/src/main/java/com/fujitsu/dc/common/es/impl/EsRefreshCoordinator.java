@@ -0,0 +1,107 @@
+/**
+ * personium.io
+ * Copyright 2014 FUJITSU LIMITED
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.fujitsu.dc.common.es.impl;
+
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+/**
+ * インデックスごとのrefreshをまとめて実行するクラス.
+ * <p>
+ * 呼び出し元は、呼び出し時点までに完了した書き込みが検索に反映されるまで待つ。
+ * 他スレッドのrefreshが実行中の場合、そのrefreshは呼び出し前に開始されているため完了を待ってから次のrefreshを行うが、
+ * 待機中に集まった呼び出しは1回のrefreshにまとめる。
+ * </p>
+ */
+abstract class EsRefreshCoordinator {
+
+    private final ConcurrentMap<String, State> states = new ConcurrentHashMap<String, State>();
+
+    /**
+     * インデックスのrefreshを実行する.
+     * @param index インデックス名
+     */
+    abstract void doRefresh(String index);
+
+    /**
+     * 呼び出し時点までに完了した書き込みが検索に反映されるまで待つ.
+     * @param index インデックス名
+     */
+    void awaitVisible(String index) {
+        State state = getState(index);
+        long ticket;
+        synchronized (state) {
+            ticket = ++state.requested;
+        }
+        while (true) {
+            long target;
+            synchronized (state) {
+                while (state.running && state.completed < ticket) {
+                    try {
+                        state.wait();
+                    } catch (InterruptedException e) {
+                        Thread.currentThread().interrupt();
+                        throw new IllegalStateException("interrupted while waiting for refresh of " + index, e);
+                    }
+                }
+                if (state.completed >= ticket) {
+                    return;
+                }
+                // 実行中のrefreshがないので、ここまでに集まった呼び出しをまとめてrefreshする
+                state.running = true;
+                target = state.requested;
+            }
+            boolean succeeded = false;
+            try {
+                doRefresh(index);
+                succeeded = true;
+            } finally {
+                synchronized (state) {
+                    if (succeeded && state.completed < target) {
+                        state.completed = target;
+                    }
+                    state.running = false;
+                    state.notifyAll();
+                }
+            }
+        }
+    }
+
+    private State getState(String index) {
+        State state = this.states.get(index);
+        if (state == null) {
+            State created = new State();
+            state = this.states.putIfAbsent(index, created);
+            if (state == null) {
+                state = created;
+            }
+        }
+        return state;
+    }
+
+    /**
+     * インデックスごとのrefresh状況.
+     */
+    static final class State {
+        /** 受け付けた呼び出しの通番. */
+        private long requested;
+        /** 反映済みの呼び出しの通番. */
+        private long completed;
+        /** refresh実行中か否か. */
+        private boolean running;
+    }
+}
@@ -0,0 +1,97 @@
+/**
+ * personium.io
+ * Copyright 2014 FUJITSU LIMITED
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.fujitsu.dc.common.es.impl;
+
+/**
+ * ESへのリトライの総量を制限する予算.
+ * <p>
+ * リクエストごとに一定割合の予算が貯まり、リトライごとに1ずつ消費する。
+ * これに加えて1秒あたり一定回数までは予算によらずリトライを許可するため、リクエストの少ない状況でもリトライは行える。
+ * ES障害時にリトライが新規リクエストを上回る勢いで増え、負荷を増幅させることを防ぐ。
+ * </p>
+ */
+final class EsRetryBudget {
+
+    private static final long WINDOW_IN_MILLIS = 1000L;
+
+    /** 貯められる予算の上限の、1秒あたりに予算によらず許可するリトライ回数に対する倍数. */
+    private static final int MAX_TOKENS_FACTOR = 10;
+
+    private final double ratio;
+    private final int minRetriesPerSecond;
+    private final double maxTokens;
+
+    private double tokens;
+    private long windowStart;
+    private int windowRetries;
+
+    /**
+     * コンストラクタ.
+     * @param ratio リクエスト1件あたりに貯まる予算
+     * @param minRetriesPerSecond 予算によらず許可する1秒あたりのリトライ回数
+     * @param maxTokens 貯められる予算の上限
+     */
+    EsRetryBudget(double ratio, int minRetriesPerSecond, double maxTokens) {
+        this.ratio = ratio;
+        this.minRetriesPerSecond = minRetriesPerSecond;
+        this.maxTokens = maxTokens;
+    }
+
+    /**
+     * コンストラクタ. 予算の上限は、予算によらず許可するリトライ回数の10秒分とする.
+     * @param ratio リクエスト1件あたりに貯まる予算
+     * @param minRetriesPerSecond 予算によらず許可する1秒あたりのリトライ回数
+     */
+    EsRetryBudget(double ratio, int minRetriesPerSecond) {
+        this(ratio, minRetriesPerSecond, (double) minRetriesPerSecond * MAX_TOKENS_FACTOR);
+    }
+
+    /**
+     * @return リトライを制限しない予算
+     */
+    static EsRetryBudget unlimited() {
+        return new EsRetryBudget(0, Integer.MAX_VALUE, 0);
+    }
+
+    /**
+     * リクエストの発行を記録する.
+     */
+    synchronized void onRequest() {
+        this.tokens = Math.min(this.maxTokens, this.tokens + this.ratio);
+    }
+
+    /**
+     * リトライを行ってよいかを判定し、よい場合は予算を消費する.
+     * @param now 現在時刻(ms)
+     * @return リトライしてよい場合は真
+     */
+    synchronized boolean tryAcquire(long now) {
+        if (now - this.windowStart >= WINDOW_IN_MILLIS) {
+            this.windowStart = now;
+            this.windowRetries = 0;
+        }
+        if (this.windowRetries < this.minRetriesPerSecond) {
+            this.windowRetries++;
+            return true;
+        }
+        if (this.tokens >= 1) {
+            this.tokens -= 1;
+            return true;
+        }
+        return false;
+    }
+}
@@ -0,0 +1,151 @@
+/**
+ * personium.io
+ * Copyright 2014 FUJITSU LIMITED
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.fujitsu.dc.common.es.impl;
+
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * ESへの非同期リクエストの応答処理とリトライの実行を行うスレッドを管理するクラス.
+ * <p>
+ * リトライの待機はタイマで行い、リクエスト処理スレッドを待機させない。
+ * ESの通信スレッドを塞がないよう、応答処理とリトライの実行はワーカスレッドで行う。
+ * ワーカスレッドの数と待ち行列の長さには上限があり、上限を超えた新規のリクエストは発行せずに失敗させる。
+ * 発行済のリクエストの応答処理は破棄できないため、上限を超えた場合は少し待ってから再度ワーカスレッドに渡す。
+ * ワーカスレッドでは他のリクエストの応答を待たない。書き込みの検索への反映待ち等、待機を伴う処理は待機用のスレッドで行う。
+ * </p>
+ */
+final class EsRetryScheduler {
+
+    /** ワーカスレッド数の上限. */
+    static final int MAX_WORKER_THREADS = 64;
+    /** ワーカスレッドの待ち行列の長さの上限. */
+    static final int MAX_QUEUED_TASKS = 10000;
+    /** 上限を超えた応答処理を再度ワーカスレッドに渡すまでの待ち時間(ms). */
+    static final long REDELIVERY_DELAY_MILLIS = 10;
+
+    private static final ScheduledExecutorService TIMER = Executors.newSingleThreadScheduledExecutor(
+            new DaemonThreadFactory("EsRetryTimer"));
+    private static final ThreadPoolExecutor WORKER = newWorker(MAX_WORKER_THREADS, MAX_QUEUED_TASKS);
+    /** 待機を伴う処理を実行するスレッド. 待機中の処理がワーカスレッドの応答処理を待つことがあるため、上限を設けない. */
+    private static final ExecutorService BLOCKING = Executors.newCachedThreadPool(
+            new DaemonThreadFactory("EsBlockingWorker"));
+
+    private EsRetryScheduler() {
+    }
+
+    /**
+     * 上限付きのワーカスレッドプールを作成する. 上限を超えた処理はRejectedExecutionExceptionで拒否する.
+     * @param maxThreads スレッド数の上限
+     * @param maxQueuedTasks 待ち行列の長さの上限
+     * @return ワーカスレッドプール
+     */
+    static ThreadPoolExecutor newWorker(int maxThreads, int maxQueuedTasks) {
+        ThreadPoolExecutor worker = new ThreadPoolExecutor(maxThreads, maxThreads, 60L, TimeUnit.SECONDS,
+                new LinkedBlockingQueue<Runnable>(maxQueuedTasks), new DaemonThreadFactory("EsAsyncWorker"),
+                new ThreadPoolExecutor.AbortPolicy());
+        // 負荷が無い間はスレッドを保持しない
+        worker.allowCoreThreadTimeOut(true);
+        return worker;
+    }
+
+    /**
+     * ワーカスレッドで新規のリクエストを実行する.
+     * @param task 処理
+     * @throws RejectedExecutionException ワーカスレッドと待ち行列が上限に達している場合
+     */
+    static void execute(Runnable task) {
+        WORKER.execute(task);
+    }
+
+    /**
+     * ワーカスレッドで発行済のリクエストの応答処理を実行する.
+     * ワーカスレッドと待ち行列が上限に達している場合は、呼出し元(ESの通信スレッド)では実行せず、待ってから再度渡す.
+     * @param task 処理
+     */
+    static void deliver(Runnable task) {
+        deliver(WORKER, TIMER, task);
+    }
+
+    /**
+     * ワーカスレッドで発行済のリクエストの応答処理を実行する.
+     * @param worker ワーカスレッドプール
+     * @param timer 再度渡すまでの待機に使用するタイマ
+     * @param task 処理
+     */
+    static void deliver(final ThreadPoolExecutor worker, final ScheduledExecutorService timer, final Runnable task) {
+        try {
+            worker.execute(task);
+        } catch (RejectedExecutionException e) {
+            timer.schedule(new Runnable() {
+                @Override
+                public void run() {
+                    deliver(worker, timer, task);
+                }
+            }, REDELIVERY_DELAY_MILLIS, TimeUnit.MILLISECONDS);
+        }
+    }
+
+    /**
+     * 待機を伴う処理を、ワーカスレッドとは別のスレッドで実行する.
+     * @param task 処理
+     */
+    static void executeBlocking(Runnable task) {
+        BLOCKING.execute(task);
+    }
+
+    /**
+     * 指定時間後にワーカスレッドで処理を実行する.
+     * 待機後の処理は受付済のリトライのため、ワーカスレッドが上限に達していても破棄しない.
+     * @param task 処理
+     * @param delayInMillis 待ち時間(ms)
+     */
+    static void schedule(final Runnable task, long delayInMillis) {
+        TIMER.schedule(new Runnable() {
+            @Override
+            public void run() {
+                deliver(task);
+            }
+        }, delayInMillis, TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * デーモンスレッドを作成するThreadFactory.
+     */
+    static final class DaemonThreadFactory implements ThreadFactory {
+        private final String prefix;
+        private final AtomicInteger count = new AtomicInteger();
+
+        DaemonThreadFactory(String prefix) {
+            this.prefix = prefix;
+        }
+
+        @Override
+        public Thread newThread(Runnable r) {
+            Thread thread = new Thread(r, this.prefix + "-" + this.count.incrementAndGet());
+            thread.setDaemon(true);
+            return thread;
+        }
+    }
+}
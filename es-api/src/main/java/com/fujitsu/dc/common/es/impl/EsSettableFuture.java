@@ -0,0 +1,184 @@
+/**
+ * personium.io
+ * Copyright 2014 FUJITSU LIMITED
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.fujitsu.dc.common.es.impl;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.fujitsu.dc.common.es.EsFuture;
+import com.fujitsu.dc.common.es.response.EsClientException;
+
+/**
+ * 応答または例外を後から設定する{@link EsFuture}の実装.
+ * @param <T> 応答の型
+ */
+class EsSettableFuture<T> implements EsFuture<T> {
+
+    static Logger log = LoggerFactory.getLogger(EsSettableFuture.class);
+
+    private final CountDownLatch done = new CountDownLatch(1);
+    private List<Listener<? super T>> listeners = new ArrayList<Listener<? super T>>();
+    private T response;
+    private RuntimeException failure;
+
+    /**
+     * 正常な応答を設定して完了させる.
+     * @param value 応答
+     * @return 完了させた場合は真. 既に完了していた場合は偽
+     */
+    boolean set(T value) {
+        List<Listener<? super T>> toNotify;
+        synchronized (this) {
+            if (this.listeners == null) {
+                return false;
+            }
+            this.response = value;
+            toNotify = complete();
+        }
+        for (Listener<? super T> listener : toNotify) {
+            notifyResponse(listener, value);
+        }
+        return true;
+    }
+
+    /**
+     * 例外を設定して完了させる.
+     * @param e 例外
+     * @return 完了させた場合は真. 既に完了していた場合は偽
+     */
+    boolean setException(RuntimeException e) {
+        List<Listener<? super T>> toNotify;
+        synchronized (this) {
+            if (this.listeners == null) {
+                return false;
+            }
+            this.failure = e;
+            toNotify = complete();
+        }
+        for (Listener<? super T> listener : toNotify) {
+            notifyFailure(listener, e);
+        }
+        return true;
+    }
+
+    private List<Listener<? super T>> complete() {
+        List<Listener<? super T>> toNotify = this.listeners;
+        this.listeners = null;
+        this.done.countDown();
+        return toNotify;
+    }
+
+    @Override
+    public boolean isDone() {
+        return this.done.getCount() == 0;
+    }
+
+    @Override
+    public T get() {
+        try {
+            this.done.await();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new EsClientException("interrupted while waiting for es response", e);
+        }
+        return result();
+    }
+
+    @Override
+    public T get(long timeout, TimeUnit unit) {
+        try {
+            if (!this.done.await(timeout, unit)) {
+                throw new EsClientException.EsNoResponseException("es response timed out", null);
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new EsClientException("interrupted while waiting for es response", e);
+        }
+        return result();
+    }
+
+    private synchronized T result() {
+        if (this.failure != null) {
+            throw this.failure;
+        }
+        return this.response;
+    }
+
+    @Override
+    public void addListener(Listener<? super T> listener) {
+        T value;
+        RuntimeException e;
+        synchronized (this) {
+            if (this.listeners != null) {
+                this.listeners.add(listener);
+                return;
+            }
+            value = this.response;
+            e = this.failure;
+        }
+        if (e != null) {
+            notifyFailure(listener, e);
+        } else {
+            notifyResponse(listener, value);
+        }
+    }
+
+    @Override
+    public <R> EsFuture<R> transform(final Function<? super T, ? extends R> function) {
+        final EsSettableFuture<R> transformed = new EsSettableFuture<R>();
+        addListener(new Listener<T>() {
+            @Override
+            public void onResponse(T value) {
+                R converted;
+                try {
+                    converted = function.apply(value);
+                } catch (RuntimeException e) {
+                    transformed.setException(e);
+                    return;
+                }
+                transformed.set(converted);
+            }
+
+            @Override
+            public void onFailure(RuntimeException e) {
+                transformed.setException(e);
+            }
+        });
+        return transformed;
+    }
+
+    private void notifyResponse(Listener<? super T> listener, T value) {
+        try {
+            listener.onResponse(value);
+        } catch (RuntimeException e) {
+            log.info("Listener threw an exception.", e);
+        }
+    }
+
+    private void notifyFailure(Listener<? super T> listener, RuntimeException e) {
+        try {
+            listener.onFailure(e);
+        } catch (RuntimeException e2) {
+            log.info("Listener threw an exception.", e2);
+        }
+    }
+}
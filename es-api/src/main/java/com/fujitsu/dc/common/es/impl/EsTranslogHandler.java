@@ -23,6 +23,8 @@ import org.elasticsearch.index.engine.FlushNotAllowedEngineException;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
+import com.fujitsu.dc.common.es.EsFuture;
+
 /**
  * ESのTranslogをflushするリクエストを飛ばす機能を追加するための基底クラス.
  */
@@ -53,8 +55,17 @@ public class EsTranslogHandler {
      * translogをflushする.
      */
     protected void flushTranslog() {
+        flushTranslogAsync().get();
+    }
+
+    /**
+     * translogのflushを非同期で行う.
+     * リクエストの応答処理(ワーカスレッド)から呼び出す場合は、完了を待たずにリスナで後続の処理を行うこと.
+     * @return 非同期応答
+     */
+    protected EsFuture<FlushResponse> flushTranslogAsync() {
         FlushTranslogRetryableRequest request = new FlushTranslogRetryableRequest(retryCount, retryInterval);
-        request.doRequest();
+        return request.doRequestAsync();
     }
 
     /**
@@ -104,10 +115,14 @@ public class EsTranslogHandler {
 
         /**
          * translogをflushする.
+         * @return 完了済みの非同期応答
          */
         @Override
-        protected void flushTransLog() {
+        protected EsFuture<?> flushTransLog() {
             // Flushに失敗した場合、更にFlushしても意味がないため、何もしない。
+            EsSettableFuture<FlushResponse> done = new EsSettableFuture<FlushResponse>();
+            done.set(null);
+            return done;
         }
 
         @Override
@@ -16,30 +16,36 @@
  */
 package com.fujitsu.dc.common.es.impl;
 
+import java.util.ArrayList;
 import java.util.List;
 import java.util.Map;
 
 import org.elasticsearch.ElasticsearchException;
-import org.elasticsearch.action.ActionFuture;
+import org.elasticsearch.ExceptionsHelper;
+import org.elasticsearch.action.ActionListener;
 import org.elasticsearch.action.ListenableActionFuture;
 import org.elasticsearch.action.admin.indices.mapping.put.PutMappingResponse;
 import org.elasticsearch.action.delete.DeleteResponse;
 import org.elasticsearch.action.get.GetResponse;
+import org.elasticsearch.action.get.MultiGetItemResponse;
+import org.elasticsearch.action.get.MultiGetResponse;
 import org.elasticsearch.action.index.IndexRequest.OpType;
 import org.elasticsearch.action.index.IndexResponse;
 import org.elasticsearch.action.search.MultiSearchResponse;
 import org.elasticsearch.action.search.SearchPhaseExecutionException;
 import org.elasticsearch.action.search.SearchResponse;
 import org.elasticsearch.common.Strings;
+import org.elasticsearch.index.Index;
 import org.elasticsearch.index.engine.DocumentAlreadyExistsException;
 import org.elasticsearch.index.engine.VersionConflictEngineException;
 import org.elasticsearch.index.mapper.MapperParsingException;
 import org.elasticsearch.indices.IndexMissingException;
 import org.elasticsearch.search.builder.SearchSourceBuilder;
-import org.json.simple.JSONObject;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
+import com.fujitsu.dc.common.es.EsFuture;
+import com.fujitsu.dc.common.es.EsRefreshPolicy;
 import com.fujitsu.dc.common.es.EsType;
 import com.fujitsu.dc.common.es.response.DcDeleteResponse;
 import com.fujitsu.dc.common.es.response.DcGetResponse;
@@ -69,6 +75,15 @@ public class EsTypeImpl extends EsTranslogHandler implements EsType {
      */
     static Logger log = LoggerFactory.getLogger(EsType.class);
 
+    /** 登録応答を変換する関数. */
+    private static final EsFuture.Function<IndexResponse, DcIndexResponse> INDEX_RESPONSE_FUNCTION =
+            new EsFuture.Function<IndexResponse, DcIndexResponse>() {
+                @Override
+                public DcIndexResponse apply(IndexResponse response) {
+                    return DcIndexResponseImpl.getInstance(response);
+                }
+            };
+
     private InternalEsClient esClient;
 
     // Typeが属するindex
@@ -133,9 +148,67 @@ public class EsTypeImpl extends EsTranslogHandler implements EsType {
         // 一方、そのときも、０件である旨をしめすResponseをシミュレートして返せればよかったが、
         // ElasticSearchのレスポンスクラスを手動で作成する実装が困難そうなので、やむをえず、nullを返すようにした。
         // そのため、get()メソッドを使う場合は、これがnullを返すことがあることを前提としたコードを書かなくてはならない。
+        return this.getAsync(id, realtime).get();
+    }
+
+    @Override
+    public Long getVersion(final String id) {
+        GetRetryableRequest request = new GetRetryableRequest(retryCount, retryInterval, id, true, false);
+        GetResponse response = request.doRequestAsync().get();
+        if (response == null) {
+            return null;
+        }
+        return response.getVersion();
+    }
+
+    @Override
+    public EsFuture<DcGetResponse> getAsync(final String id, final boolean realtime) {
         GetRetryableRequest request = new GetRetryableRequest(retryCount, retryInterval, id, realtime);
-        // 必要な場合、メソッド内でリトライが行われる.
-        return DcGetResponseImpl.getInstance(request.doRequest());
+        // 必要な場合、リトライが行われる.
+        return request.doRequestAsync().transform(new EsFuture.Function<GetResponse, DcGetResponse>() {
+            @Override
+            public DcGetResponse apply(GetResponse response) {
+                return DcGetResponseImpl.getInstance(response);
+            }
+        });
+    }
+
+    @Override
+    public List<DcGetResponse> multiGet(final List<String> ids) {
+        return this.multiGetAsync(ids, true).get();
+    }
+
+    @Override
+    public EsFuture<List<DcGetResponse>> multiGetAsync(final List<String> ids, final boolean realtime) {
+        if (ids.isEmpty()) {
+            // 空の要求はESでエラーとなるため発行しない
+            EsSettableFuture<List<DcGetResponse>> empty = new EsSettableFuture<List<DcGetResponse>>();
+            empty.set(new ArrayList<DcGetResponse>());
+            return empty;
+        }
+        MultiGetRetryableRequest request = new MultiGetRetryableRequest(retryCount, retryInterval, ids, realtime);
+        // 必要な場合、リトライが行われる.
+        return request.doRequestAsync().transform(new EsFuture.Function<MultiGetResponse, List<DcGetResponse>>() {
+            @Override
+            public List<DcGetResponse> apply(MultiGetResponse response) {
+                List<DcGetResponse> list = new ArrayList<DcGetResponse>();
+                if (response == null) {
+                    // Indexが存在しない場合は全て存在しないものとする
+                    for (int i = 0; i < ids.size(); i++) {
+                        list.add(null);
+                    }
+                    return list;
+                }
+                for (MultiGetItemResponse item : response.getResponses()) {
+                    if (item.isFailed() || !item.getResponse().isExists()) {
+                        list.add(null);
+                    } else {
+                        list.add(DcGetResponseImpl.getInstance(item.getResponse()));
+                    }
+                }
+                return list;
+            }
+        });
     }
 
     @Override
@@ -147,16 +220,41 @@ public class EsTypeImpl extends EsTranslogHandler implements EsType {
 
     @Override
     public DcIndexResponse create(final String id, @SuppressWarnings("rawtypes") final Map data) {
-        CreateRetryableRequest request = new CreateRetryableRequest(retryCount, retryInterval, id, data);
-        // 必要な場合、メソッド内でリトライが行われる.
-        return DcIndexResponseImpl.getInstance(request.doRequest());
+        return this.create(id, data, esClient.getRefreshPolicy());
+    }
+
+    @Override
+    public DcIndexResponse create(final String id, @SuppressWarnings("rawtypes") final Map data,
+            final EsRefreshPolicy policy) {
+        return this.createAsync(id, data, policy).get();
+    }
+
+    @Override
+    public EsFuture<DcIndexResponse> createAsync(final String id, @SuppressWarnings("rawtypes") final Map data,
+            final EsRefreshPolicy policy) {
+        CreateRetryableRequest request = new CreateRetryableRequest(retryCount, retryInterval, id, data, policy);
+        // 必要な場合、リトライが行われる.
+        return whenVisible(request.doRequestAsync().transform(INDEX_RESPONSE_FUNCTION), policy);
     }
 
     @Override
     public DcIndexResponse update(final String id, @SuppressWarnings("rawtypes") final Map data, final long version) {
-        UpdateRetryableRequest request = new UpdateRetryableRequest(retryCount, retryInterval, id, data, version);
-        // 必要な場合、メソッド内でリトライが行われる.
-        return DcIndexResponseImpl.getInstance(request.doRequest());
+        return this.update(id, data, version, esClient.getRefreshPolicy());
+    }
+
+    @Override
+    public DcIndexResponse update(final String id, @SuppressWarnings("rawtypes") final Map data, final long version,
+            final EsRefreshPolicy policy) {
+        return this.updateAsync(id, data, version, policy).get();
+    }
+
+    @Override
+    public EsFuture<DcIndexResponse> updateAsync(final String id, @SuppressWarnings("rawtypes") final Map data,
+            final long version, final EsRefreshPolicy policy) {
+        UpdateRetryableRequest request = new UpdateRetryableRequest(retryCount, retryInterval, id, data, version,
+                policy);
+        // 必要な場合、リトライが行われる.
+        return whenVisible(request.doRequestAsync().transform(INDEX_RESPONSE_FUNCTION), policy);
     }
 
     @Override
@@ -167,16 +265,37 @@ public class EsTypeImpl extends EsTranslogHandler implements EsType {
 
     @Override
     public DcSearchResponse search(final Map<String, Object> query) {
+        return this.searchAsync(query).get();
+    }
+
+    @Override
+    public EsFuture<DcSearchResponse> searchAsync(final Map<String, Object> query) {
         SearchRetryableRequest request = new SearchRetryableRequest(retryCount, retryInterval, query);
-        // 必要な場合、メソッド内でリトライが行われる.
-        return DcSearchResponseImpl.getInstance(request.doRequest());
+        // 必要な場合、リトライが行われる.
+        return request.doRequestAsync().transform(new EsFuture.Function<SearchResponse, DcSearchResponse>() {
+            @Override
+            public DcSearchResponse apply(SearchResponse response) {
+                return DcSearchResponseImpl.getInstance(response);
+            }
+        });
     }
 
     @Override
     public DcMultiSearchResponse multiSearch(final List<Map<String, Object>> queryList) {
+        return this.multiSearchAsync(queryList).get();
+    }
+
+    @Override
+    public EsFuture<DcMultiSearchResponse> multiSearchAsync(final List<Map<String, Object>> queryList) {
         MultiSearchRetryableRequest request = new MultiSearchRetryableRequest(retryCount, retryInterval, queryList);
-        // 必要な場合、メソッド内でリトライが行われる.
-        return DcMultiSearchResponseImpl.getInstance(request.doRequest());
+        // 必要な場合、リトライが行われる.
+        return request.doRequestAsync().transform(
+                new EsFuture.Function<MultiSearchResponse, DcMultiSearchResponse>() {
+                    @Override
+                    public DcMultiSearchResponse apply(MultiSearchResponse response) {
+                        return DcMultiSearchResponseImpl.getInstance(response);
+                    }
+                });
     }
 
     @Override
@@ -186,9 +305,64 @@ public class EsTypeImpl extends EsTranslogHandler implements EsType {
 
     @Override
     public DcDeleteResponse delete(final String docId, final long version) {
-        DeleteRetryableRequest request = new DeleteRetryableRequest(retryCount, retryInterval, docId, version);
-        // 必要な場合、メソッド内でリトライが行われる.
-        return DcDeleteResponseImpl.getInstance(request.doRequest());
+        return this.delete(docId, version, esClient.getRefreshPolicy());
+    }
+
+    @Override
+    public DcDeleteResponse delete(final String docId, final long version, final EsRefreshPolicy policy) {
+        return this.deleteAsync(docId, version, policy).get();
+    }
+
+    @Override
+    public EsFuture<DcDeleteResponse> deleteAsync(final String docId, final long version,
+            final EsRefreshPolicy policy) {
+        DeleteRetryableRequest request = new DeleteRetryableRequest(retryCount, retryInterval, docId, version, policy);
+        // 必要な場合、リトライが行われる.
+        return whenVisible(request.doRequestAsync().transform(
+                new EsFuture.Function<DeleteResponse, DcDeleteResponse>() {
+                    @Override
+                    public DcDeleteResponse apply(DeleteResponse response) {
+                        return DcDeleteResponseImpl.getInstance(response);
+                    }
+                }), policy);
+    }
+
+    /**
+     * refresh方針が{@link EsRefreshPolicy#WAIT_FOR_VISIBLE}の場合、書き込みが検索に反映されてから完了する非同期応答を返す.
+     * 反映の待機はESの応答を通知するワーカスレッドを塞がないよう、待機用のスレッドで行う.
+     * @param written 書き込みの非同期応答
+     * @param policy refresh方針
+     * @param <R> 応答の型
+     * @return 非同期応答
+     */
+    private <R> EsFuture<R> whenVisible(EsFuture<R> written, EsRefreshPolicy policy) {
+        if (policy != EsRefreshPolicy.WAIT_FOR_VISIBLE) {
+            return written;
+        }
+        final EsSettableFuture<R> visible = new EsSettableFuture<R>();
+        written.addListener(new EsFuture.Listener<R>() {
+            @Override
+            public void onResponse(final R response) {
+                EsRetryScheduler.executeBlocking(new Runnable() {
+                    @Override
+                    public void run() {
+                        try {
+                            esClient.awaitVisible(indexName);
+                        } catch (RuntimeException e) {
+                            visible.setException(e);
+                            return;
+                        }
+                        visible.set(response);
+                    }
+                });
+            }
+
+            @Override
+            public void onFailure(RuntimeException e) {
+                visible.setException(e);
+            }
+        });
+        return visible;
     }
 
     @Override
@@ -209,17 +383,36 @@ public class EsTypeImpl extends EsTranslogHandler implements EsType {
     class GetRetryableRequest extends AbstractRetryableEsRequest<GetResponse> {
         String id;
         boolean realTime;
+        boolean fetchSource;
 
         public GetRetryableRequest(int retryCount, long retryInterval,
                 String argId, boolean argRealTime) {
+            this(retryCount, retryInterval, argId, argRealTime, true);
+        }
+
+        GetRetryableRequest(int retryCount, long retryInterval,
+                String argId, boolean argRealTime, boolean argFetchSource) {
             super(retryCount, retryInterval, "ES get");
             id = argId;
             realTime = argRealTime;
+            fetchSource = argFetchSource;
+        }
+
+        private ListenableActionFuture<GetResponse> asyncGet() {
+            if (fetchSource) {
+                return EsTypeImpl.this.asyncGet(id, realTime);
+            }
+            return esClient.asyncGet(indexName, name, id, routingId, realTime, false);
+        }
+
+        @Override
+        EsCircuitBreaker.Operation operation() {
+            return EsCircuitBreaker.Operation.GET;
         }
 
         @Override
         GetResponse doProcess() {
-            GetResponse response = asyncGet(id, realTime).actionGet();
+            GetResponse response = asyncGet().actionGet();
             if (!response.isExists()) {
                 // データがなかったらｎullを返す
                 return null;
@@ -227,6 +420,22 @@ public class EsTypeImpl extends EsTranslogHandler implements EsType {
             return response;
         }
 
+        @Override
+        void doProcessAsync(final ActionListener<GetResponse> listener) {
+            relay(asyncGet(), new ActionListener<GetResponse>() {
+                @Override
+                public void onResponse(GetResponse response) {
+                    // データがなかったらｎullを返す
+                    listener.onResponse(response.isExists() ? response : null);
+                }
+
+                @Override
+                public void onFailure(Throwable e) {
+                    listener.onFailure(e);
+                }
+            });
+        }
+
         @Override
         boolean isParticularError(ElasticsearchException e) {
             return e instanceof IndexMissingException || e.getCause() instanceof IndexMissingException;
@@ -246,6 +455,113 @@ public class EsTypeImpl extends EsTranslogHandler implements EsType {
         }
     }
 
+    /**
+     * Elasticsearchへの multi get処理実装.
+     * 一部のドキュメントの取得に失敗した場合は、Indexが存在しない場合を除き要求全体をリトライする.
+     */
+    class MultiGetRetryableRequest extends AbstractRetryableEsRequest<MultiGetResponse> {
+        List<String> ids;
+        boolean realTime;
+
+        public MultiGetRetryableRequest(int retryCount, long retryInterval,
+                List<String> argIds, boolean argRealTime) {
+            super(retryCount, retryInterval, "EsType multiGet");
+            ids = argIds;
+            realTime = argRealTime;
+        }
+
+        @Override
+        EsCircuitBreaker.Operation operation() {
+            return EsCircuitBreaker.Operation.GET;
+        }
+
+        @Override
+        MultiGetResponse doProcess() {
+            MultiGetResponse response = asyncMultiGet(ids, realTime).actionGet();
+            checkItemFailures(response);
+            return response;
+        }
+
+        @Override
+        void doProcessAsync(final ActionListener<MultiGetResponse> listener) {
+            relay(asyncMultiGet(ids, realTime), new ActionListener<MultiGetResponse>() {
+                @Override
+                public void onResponse(MultiGetResponse response) {
+                    try {
+                        checkItemFailures(response);
+                    } catch (ElasticsearchException e) {
+                        listener.onFailure(e);
+                        return;
+                    }
+                    listener.onResponse(response);
+                }
+
+                @Override
+                public void onFailure(Throwable e) {
+                    listener.onFailure(e);
+                }
+            });
+        }
+
+        private void checkItemFailures(MultiGetResponse response) {
+            for (MultiGetItemResponse item : response.getResponses()) {
+                if (item.isFailed() && !isIndexMissing(item.getFailure())) {
+                    throw new MultiGetItemFailedException(item.getId() + ": " + item.getFailure().getMessage());
+                }
+            }
+        }
+
+        /**
+         * 取得失敗が対象Indexの IndexMissingException によるものかを判定する.
+         * multi getの項目毎の失敗は例外ではなくメッセージのみで返されるため、
+         * 対象Indexの IndexMissingException から生成されるメッセージと一致するかで判定する.
+         * @param failure 項目毎の取得失敗
+         * @return Indexが存在しないことによる失敗の場合はtrue
+         */
+        boolean isIndexMissing(MultiGetResponse.Failure failure) {
+            if (failure.getIndex() == null || failure.getMessage() == null) {
+                return false;
+            }
+            IndexMissingException missing = new IndexMissingException(new Index(failure.getIndex()));
+            return failure.getMessage().equals(missing.getMessage())
+                    || failure.getMessage().equals(ExceptionsHelper.detailedMessage(missing));
+        }
+
+        @Override
+        boolean isParticularError(ElasticsearchException e) {
+            return e instanceof IndexMissingException
+                    || e.getCause() instanceof IndexMissingException
+                    || e instanceof MultiGetItemFailedException;
+        }
+
+        @Override
+        MultiGetResponse onParticularError(ElasticsearchException e) {
+            if (e instanceof IndexMissingException || e.getCause() instanceof IndexMissingException) {
+                return null;
+            }
+            if (e instanceof MultiGetItemFailedException) {
+                // シャードの一時的な障害等で一部の取得に失敗した場合はリトライする
+                throw new ContinueRetry();
+            }
+            throw e;
+        }
+
+        @Override
+        EsTranslogHandler getEsTranslogHandler() {
+            return requestOwner;
+        }
+    }
+
+    /**
+     * multi getで一部のドキュメントの取得に失敗したことを示す例外.
+     */
+    @SuppressWarnings("serial")
+    static class MultiGetItemFailedException extends ElasticsearchException {
+        MultiGetItemFailedException(String msg) {
+            super(msg);
+        }
+    }
+
     /**
      * Elasticsearchへの create処理実装.
      */
@@ -253,18 +569,31 @@ public class EsTypeImpl extends EsTranslogHandler implements EsType {
         String id;
         @SuppressWarnings("rawtypes")
         Map data;
+        EsRefreshPolicy policy;
 
         public CreateRetryableRequest(int retryCount, long retryInterval,
-                String argId, @SuppressWarnings("rawtypes") Map argData) {
+                String argId, @SuppressWarnings("rawtypes") Map argData, EsRefreshPolicy argPolicy) {
             super(retryCount, retryInterval, "EsType create");
             id = argId;
             data = argData;
+            policy = argPolicy;
+        }
+
+        @Override
+        EsCircuitBreaker.Operation operation() {
+            return EsCircuitBreaker.Operation.INDEX;
         }
 
         @SuppressWarnings("unchecked")
         @Override
         IndexResponse doProcess() {
-            return asyncIndex(id, data, OpType.CREATE, -1).actionGet();
+            return asyncIndex(id, data, OpType.CREATE, -1, policy).actionGet();
+        }
+
+        @SuppressWarnings("unchecked")
+        @Override
+        void doProcessAsync(ActionListener<IndexResponse> listener) {
+            relay(asyncIndex(id, data, OpType.CREATE, -1, policy), listener);
         }
 
         @Override
@@ -277,6 +606,30 @@ public class EsTypeImpl extends EsTranslogHandler implements EsType {
 
         @Override
         IndexResponse onParticularError(ElasticsearchException e) {
+            checkCreateError(e);
+            // 例外が発生した場合でもドキュメントが登録されている可能性がある。
+            // そのため、登録チェックを行い、データが登録済の場合は正常なレスポンスを返却する。
+            return checkDocumentCreated(id, data, e);
+        }
+
+        @Override
+        EsFuture<IndexResponse> onParticularErrorAsync(ElasticsearchException e) {
+            try {
+                checkCreateError(e);
+            } catch (RuntimeException e2) {
+                EsSettableFuture<IndexResponse> failed = new EsSettableFuture<IndexResponse>();
+                failed.setException(e2);
+                return failed;
+            }
+            // 登録チェックの取得はワーカスレッドで応答を待たずに行う
+            return checkDocumentCreatedAsync(id, data, e);
+        }
+
+        /**
+         * 登録チェックを行わずに失敗とする例外の場合は、呼出し元に返す例外を投げる. それ以外の場合はログを出力する.
+         * @param e 特定例外
+         */
+        private void checkCreateError(ElasticsearchException e) {
             if (e instanceof IndexMissingException || e.getCause() instanceof IndexMissingException) {
                 throw new EsClientException.EsIndexMissingException(e);
             }
@@ -298,9 +651,6 @@ public class EsTypeImpl extends EsTranslogHandler implements EsType {
                     log.warn(e.getMessage());
                 }
             }
-            // 例外が発生した場合でもドキュメントが登録されている可能性がある。
-            // そのため、登録チェックを行い、データが登録済の場合は正常なレスポンスを返却する。
-            return checkDocumentCreated(id, data, e);
         }
 
         @Override
@@ -318,7 +668,30 @@ public class EsTypeImpl extends EsTranslogHandler implements EsType {
      */
     @SuppressWarnings("rawtypes")
     protected IndexResponse checkDocumentCreated(String id, Map data, ElasticsearchException ese) {
-        DcGetResponse getResponse = get(id);
+        return toCreatedResponse(id, data, get(id), ese);
+    }
+
+    /**
+     * ドキュメントが登録されているかのチェックを非同期で行う.
+     * @param id UUID
+     * @param data Request body
+     * @param ese ElasticSearchException
+     * @return ES応答の非同期応答
+     */
+    @SuppressWarnings("rawtypes")
+    EsFuture<IndexResponse> checkDocumentCreatedAsync(final String id, final Map data,
+            final ElasticsearchException ese) {
+        return getAsync(id, true).transform(new EsFuture.Function<DcGetResponse, IndexResponse>() {
+            @Override
+            public IndexResponse apply(DcGetResponse getResponse) {
+                return toCreatedResponse(id, data, getResponse, ese);
+            }
+        });
+    }
+
+    @SuppressWarnings("rawtypes")
+    private IndexResponse toCreatedResponse(String id, Map data, DcGetResponse getResponse,
+            ElasticsearchException ese) {
         if (getResponse != null) {
             Object reqUpdated = data.get("u");
             Object getUpdated = getResponse.getSource().get("u");
@@ -342,19 +715,32 @@ public class EsTypeImpl extends EsTranslogHandler implements EsType {
         String id;
         Map data;
         long version;
+        EsRefreshPolicy policy;
 
         public UpdateRetryableRequest(int retryCount, long retryInterval,
-                String argId, Map argData, long argVersion) {
+                String argId, Map argData, long argVersion, EsRefreshPolicy argPolicy) {
             super(retryCount, retryInterval, "EsType update");
             id = argId;
             data = argData;
             version = argVersion;
+            policy = argPolicy;
+        }
+
+        @Override
+        EsCircuitBreaker.Operation operation() {
+            return EsCircuitBreaker.Operation.INDEX;
         }
 
         @SuppressWarnings("unchecked")
         @Override
         IndexResponse doProcess() {
-            return asyncIndex(id, data, OpType.INDEX, version).actionGet();
+            return asyncIndex(id, data, OpType.INDEX, version, policy).actionGet();
+        }
+
+        @SuppressWarnings("unchecked")
+        @Override
+        void doProcessAsync(ActionListener<IndexResponse> listener) {
+            relay(asyncIndex(id, data, OpType.INDEX, version, policy), listener);
         }
 
         @Override
@@ -396,11 +782,21 @@ public class EsTypeImpl extends EsTranslogHandler implements EsType {
             query = argQuery;
         }
 
+        @Override
+        EsCircuitBreaker.Operation operation() {
+            return EsCircuitBreaker.Operation.SEARCH;
+        }
+
         @Override
         SearchResponse doProcess() {
             return asyncSearch(query).actionGet();
         }
 
+        @Override
+        void doProcessAsync(ActionListener<SearchResponse> listener) {
+            relay(asyncSearch(query), listener);
+        }
+
         @Override
         boolean isParticularError(ElasticsearchException e) {
             return e instanceof IndexMissingException
@@ -436,11 +832,21 @@ public class EsTypeImpl extends EsTranslogHandler implements EsType {
             queryList = argQueryList;
         }
 
+        @Override
+        EsCircuitBreaker.Operation operation() {
+            return EsCircuitBreaker.Operation.SEARCH;
+        }
+
         @Override
         MultiSearchResponse doProcess() {
             return asyncMultiSearch(queryList).actionGet();
         }
 
+        @Override
+        void doProcessAsync(ActionListener<MultiSearchResponse> listener) {
+            relay(asyncMultiSearch(queryList), listener);
+        }
+
         @Override
         boolean isParticularError(ElasticsearchException e) {
             return e instanceof SearchPhaseExecutionException;
@@ -466,16 +872,29 @@ public class EsTypeImpl extends EsTranslogHandler implements EsType {
     class DeleteRetryableRequest extends AbstractRetryableEsRequest<DeleteResponse> {
         String docId;
         long version;
+        EsRefreshPolicy policy;
 
-        public DeleteRetryableRequest(int retryCount, long retryInterval, String argDocId, long argVersion) {
+        public DeleteRetryableRequest(int retryCount, long retryInterval, String argDocId, long argVersion,
+                EsRefreshPolicy argPolicy) {
             super(retryCount, retryInterval, "EsType delete");
             docId = argDocId;
             version = argVersion;
+            policy = argPolicy;
+        }
+
+        @Override
+        EsCircuitBreaker.Operation operation() {
+            return EsCircuitBreaker.Operation.INDEX;
         }
 
         @Override
         DeleteResponse doProcess() {
-            return asyncDelete(docId, version).actionGet();
+            return asyncDelete(docId, version, policy).actionGet();
+        }
+
+        @Override
+        void doProcessAsync(ActionListener<DeleteResponse> listener) {
+            relay(asyncDelete(docId, version, policy), listener);
         }
 
         @Override
@@ -518,6 +937,11 @@ public class EsTypeImpl extends EsTranslogHandler implements EsType {
             return asyncPutMapping(mappings).actionGet();
         }
 
+        @Override
+        void doProcessAsync(ActionListener<PutMappingResponse> listener) {
+            relay(asyncPutMapping(mappings), listener);
+        }
+
         @Override
         boolean isParticularError(ElasticsearchException e) {
             return e instanceof IndexMissingException
@@ -548,7 +972,7 @@ public class EsTypeImpl extends EsTranslogHandler implements EsType {
      * @param realtime リアルタイムモードなら真
      * @return 非同期応答
      */
-    public ActionFuture<GetResponse> asyncGet(final String id, final boolean realtime) {
+    public ListenableActionFuture<GetResponse> asyncGet(final String id, final boolean realtime) {
         return esClient.asyncGet(this.indexName, this.name, id, this.routingId, realtime);
     }
 
@@ -557,7 +981,7 @@ public class EsTypeImpl extends EsTranslogHandler implements EsType {
      * @param builder クエリ情報
      * @return 非同期ES応答
      */
-    public ActionFuture<SearchResponse> asyncSearch(final SearchSourceBuilder builder) {
+    public ListenableActionFuture<SearchResponse> asyncSearch(final SearchSourceBuilder builder) {
         return esClient.asyncSearch(this.indexName, this.name, this.routingId, builder);
     }
 
@@ -566,7 +990,7 @@ public class EsTypeImpl extends EsTranslogHandler implements EsType {
      * @param query クエリ情報
      * @return ES応答
      */
-    public ActionFuture<SearchResponse> asyncSearch(final Map<String, Object> query) {
+    public ListenableActionFuture<SearchResponse> asyncSearch(final Map<String, Object> query) {
         return esClient.asyncSearch(this.indexName, this.name, this.routingId, query);
     }
 
@@ -575,7 +999,7 @@ public class EsTypeImpl extends EsTranslogHandler implements EsType {
      * @param queryList マルチ検索用のクエリ情報リスト
      * @return ES応答
      */
-    public ActionFuture<MultiSearchResponse> asyncMultiSearch(final List<Map<String, Object>> queryList) {
+    public ListenableActionFuture<MultiSearchResponse> asyncMultiSearch(final List<Map<String, Object>> queryList) {
         return esClient.asyncMultiSearch(this.indexName, this.name, this.routingId, queryList);
     }
 
@@ -587,7 +1011,7 @@ public class EsTypeImpl extends EsTranslogHandler implements EsType {
      * @param version version番号
      * @return ES非同期応答
      */
-    public ActionFuture<IndexResponse> asyncIndex(final String id,
+    public ListenableActionFuture<IndexResponse> asyncIndex(final String id,
             final Map<String, Object> data,
             final OpType opType,
             final long version) {
@@ -595,24 +1019,52 @@ public class EsTypeImpl extends EsTranslogHandler implements EsType {
         return esClient.asyncIndex(this.indexName, this.name, id, this.routingId, data, opType, version);
     }
 
+    /**
+     * 非同期でドキュメントを登録する.
+     * @param id ドキュメントのid
+     * @param data データ
+     * @param opType 操作タイプ
+     * @param version version番号
+     * @param policy refresh方針
+     * @return ES非同期応答
+     */
+    public ListenableActionFuture<IndexResponse> asyncIndex(final String id,
+            final Map<String, Object> data,
+            final OpType opType,
+            final long version,
+            final EsRefreshPolicy policy) {
+        return esClient.asyncIndex(this.indexName, this.name, id, this.routingId, data, opType, version, policy);
+    }
+
     /**
      * 非同期でversionつきでdocumentを削除します.
      * @param id Document id to delete
      * @param version The version of the document to delete
      * @return 非同期応答
      */
-    public ActionFuture<DeleteResponse> asyncDelete(final String id, final long version) {
+    public ListenableActionFuture<DeleteResponse> asyncDelete(final String id, final long version) {
         return esClient.asyncDelete(this.indexName, this.name, id, this.routingId, version);
     }
 
     /**
-     * Bulk Get.
-     * @param ids IDのリスト
-     * @return 応答
+     * 非同期でversionつきでdocumentを削除します.
+     * @param id Document id to delete
+     * @param version The version of the document to delete
+     * @param policy refresh方針
+     * @return 非同期応答
+     */
+    public ListenableActionFuture<DeleteResponse> asyncDelete(final String id, final long version, final EsRefreshPolicy policy) {
+        return esClient.asyncDelete(this.indexName, this.name, id, this.routingId, version, policy);
+    }
+
+    /**
+     * 非同期で複数のドキュメントをまとめて取得.
+     * @param ids ドキュメントのIDのリスト
+     * @param realtime リアルタイムモードなら真
+     * @return 非同期応答
      */
-    public JSONObject bulkGet(final List<String> ids) {
-        // BulkRequest req = new BulkRequest();
-        return null;
+    public ListenableActionFuture<MultiGetResponse> asyncMultiGet(final List<String> ids, final boolean realtime) {
+        return esClient.asyncMultiGet(this.indexName, this.name, ids, this.routingId, realtime);
     }
 
     /**
@@ -24,6 +24,7 @@ import java.util.Map.Entry;
 import java.util.StringTokenizer;
 
 import org.elasticsearch.action.ActionFuture;
+import org.elasticsearch.action.ActionResponse;
 import org.elasticsearch.action.ListenableActionFuture;
 import org.elasticsearch.action.WriteConsistencyLevel;
 import org.elasticsearch.action.admin.cluster.health.ClusterHealthRequest;
@@ -47,6 +48,8 @@ import org.elasticsearch.action.delete.DeleteResponse;
 import org.elasticsearch.action.deletebyquery.DeleteByQueryResponse;
 import org.elasticsearch.action.get.GetRequest;
 import org.elasticsearch.action.get.GetResponse;
+import org.elasticsearch.action.get.MultiGetRequest;
+import org.elasticsearch.action.get.MultiGetResponse;
 import org.elasticsearch.action.index.IndexRequest.OpType;
 import org.elasticsearch.action.index.IndexRequestBuilder;
 import org.elasticsearch.action.index.IndexResponse;
@@ -55,6 +58,7 @@ import org.elasticsearch.action.search.MultiSearchResponse;
 import org.elasticsearch.action.search.SearchRequest;
 import org.elasticsearch.action.search.SearchResponse;
 import org.elasticsearch.action.search.SearchType;
+import org.elasticsearch.action.support.PlainListenableActionFuture;
 import org.elasticsearch.client.transport.TransportClient;
 import org.elasticsearch.cluster.ClusterState;
 import org.elasticsearch.cluster.metadata.MappingMetaData;
@@ -66,12 +70,14 @@ import org.elasticsearch.common.transport.InetSocketTransportAddress;
 import org.elasticsearch.common.unit.TimeValue;
 import org.elasticsearch.index.query.QueryBuilder;
 import org.elasticsearch.search.builder.SearchSourceBuilder;
+import org.elasticsearch.search.fetch.source.FetchSourceContext;
 import org.json.simple.JSONArray;
 import org.json.simple.JSONObject;
 
 import com.fujitsu.dc.common.es.EsBulkRequest;
 import com.fujitsu.dc.common.es.EsClient.Event;
 import com.fujitsu.dc.common.es.EsClient.EventHandler;
+import com.fujitsu.dc.common.es.EsRefreshPolicy;
 import com.fujitsu.dc.common.es.EsRequestLogInfo;
 import com.fujitsu.dc.common.es.response.DcBulkResponse;
 import com.fujitsu.dc.common.es.response.DcRefreshResponse;
@@ -88,6 +94,13 @@ public class InternalEsClient {
 
     private TransportClient esTransportClient;
     private boolean routingFlag;
+    private volatile EsRefreshPolicy refreshPolicy = EsRefreshPolicy.IMMEDIATE;
+    private final EsRefreshCoordinator refreshCoordinator = new EsRefreshCoordinator() {
+        @Override
+        void doRefresh(String index) {
+            refresh(index);
+        }
+    };
 
     /**
      * デフォルトコンストラクタ.
@@ -116,6 +129,47 @@ public class InternalEsClient {
         return new InternalEsClient(cluster, hosts);
     }
 
+    /**
+     * 書き込み時のrefresh方針を指定しない操作で用いるrefresh方針を設定する.
+     * @param policy refresh方針
+     */
+    public void setRefreshPolicy(EsRefreshPolicy policy) {
+        this.refreshPolicy = policy;
+    }
+
+    /**
+     * ESへのリトライの総量を制限する予算を設定する. 予算はプロセス内の全リクエストで共有する.
+     * @param ratio リクエスト1件あたりに許可するリトライ回数
+     * @param minRetriesPerSecond 予算によらず許可する1秒あたりのリトライ回数
+     */
+    public void setRetryBudget(double ratio, int minRetriesPerSecond) {
+        AbstractRetryableEsRequest.retryBudget = new EsRetryBudget(ratio, minRetriesPerSecond);
+    }
+
+    /**
+     * ESへの操作種別(取得・検索・登録・バルク)ごとのサーキットブレーカを設定する. ブレーカはプロセス内の全リクエストで共有する.
+     * @param windowInMillis エラー率・遅延した要求の割合を集計する期間(ms)
+     * @param minimumRequests 開状態への遷移を判定する最小の要求数
+     * @param errorRateThreshold 開状態へ遷移するエラー率
+     * @param slowCallThresholdInMillis 遅延とみなす応答時間(ms)
+     * @param slowCallRateThreshold 開状態へ遷移する遅延した要求の割合
+     * @param openDurationInMillis 開状態を維持する時間(ms)
+     * @param halfOpenProbes 半開状態で通す試行要求の数
+     */
+    public void setCircuitBreaker(long windowInMillis, int minimumRequests, double errorRateThreshold,
+            long slowCallThresholdInMillis, double slowCallRateThreshold, long openDurationInMillis,
+            int halfOpenProbes) {
+        EsCircuitBreaker.configure(windowInMillis, minimumRequests, errorRateThreshold, slowCallThresholdInMillis,
+                slowCallRateThreshold, openDurationInMillis, halfOpenProbes);
+    }
+
+    /**
+     * @return 書き込み時のrefresh方針を指定しない操作で用いるrefresh方針
+     */
+    public EsRefreshPolicy getRefreshPolicy() {
+        return this.refreshPolicy;
+    }
+
     /**
      * ESとのコネクションを一度明示的に閉じる.
      */
@@ -334,6 +388,16 @@ public class InternalEsClient {
         return cirb.execute();
     }
 
+    /**
+     * 応答の通知を受けられる非同期応答を作成する.
+     * 通知はESの通信スレッドで行われるため、通知先で待ち合わせを行わないこと.
+     * @param <T> 応答の型
+     * @return 非同期応答
+     */
+    private <T extends ActionResponse> PlainListenableActionFuture<T> newFuture() {
+        return new PlainListenableActionFuture<T>(false, esTransportClient.threadPool());
+    }
+
     /**
      * 非同期でドキュメントを取得.
      * @param index インデックス名
@@ -343,20 +407,66 @@ public class InternalEsClient {
      * @param realtime リアルタイムモードなら真
      * @return 非同期応答
      */
-    public ActionFuture<GetResponse> asyncGet(String index, String type, String id, String routingId,
+    public ListenableActionFuture<GetResponse> asyncGet(String index, String type, String id, String routingId,
             boolean realtime) {
+        return asyncGet(index, type, id, routingId, realtime, true);
+    }
+
+    /**
+     * 非同期でドキュメントを取得.
+     * @param index インデックス名
+     * @param type タイプ名
+     * @param id ドキュメントのID
+     * @param routingId routingId
+     * @param realtime リアルタイムモードなら真
+     * @param fetchSource ソースを取得するなら真. 偽の場合はバージョンなどのメタデータのみを取得する
+     * @return 非同期応答
+     */
+    public ListenableActionFuture<GetResponse> asyncGet(String index, String type, String id, String routingId,
+            boolean realtime, boolean fetchSource) {
         GetRequest req = new GetRequest(index, type, id);
+        if (!fetchSource) {
+            req.fetchSourceContext(new FetchSourceContext(false));
+        }
 
         if (routingFlag) {
             req = req.routing(routingId);
         }
 
         req.realtime(realtime);
-        ActionFuture<GetResponse> ret = esTransportClient.get(req);
+        PlainListenableActionFuture<GetResponse> ret = newFuture();
+        esTransportClient.get(req, ret);
         this.fireEvent(Event.afterRequest, index, type, id, null, "Get");
         return ret;
     }
 
+    /**
+     * 非同期で複数のドキュメントをまとめて取得.
+     * @param index インデックス名
+     * @param type タイプ名
+     * @param ids ドキュメントのIDのリスト
+     * @param routingId routingId
+     * @param realtime リアルタイムモードなら真
+     * @return 非同期応答
+     */
+    public ListenableActionFuture<MultiGetResponse> asyncMultiGet(String index, String type, List<String> ids,
+            String routingId, boolean realtime) {
+        MultiGetRequest req = new MultiGetRequest();
+        for (String id : ids) {
+            MultiGetRequest.Item item = new MultiGetRequest.Item(index, type, id);
+            if (routingFlag) {
+                item.routing(routingId);
+            }
+            req.add(item);
+        }
+
+        req.realtime(realtime);
+        PlainListenableActionFuture<MultiGetResponse> ret = newFuture();
+        esTransportClient.multiGet(req, ret);
+        this.fireEvent(Event.afterRequest, index, type, null, JSONArray.toJSONString(ids), "MultiGet");
+        return ret;
+    }
+
     /**
      * 非同期でドキュメントを検索.
      * @param index インデックス名
@@ -365,7 +475,7 @@ public class InternalEsClient {
      * @param builder クエリ情報
      * @return 非同期応答
      */
-    public ActionFuture<SearchResponse> asyncSearch(
+    public ListenableActionFuture<SearchResponse> asyncSearch(
             String index,
             String type,
             String routingId,
@@ -374,7 +484,8 @@ public class InternalEsClient {
         if (routingFlag) {
             req = req.routing(routingId);
         }
-        ActionFuture<SearchResponse> ret = esTransportClient.search(req);
+        PlainListenableActionFuture<SearchResponse> ret = newFuture();
+        esTransportClient.search(req, ret);
         this.fireEvent(Event.afterRequest, index, type, null,
                 new String(builder.buildAsBytes().toBytes()), "Search");
         return ret;
@@ -388,7 +499,7 @@ public class InternalEsClient {
      * @param query クエリ情報
      * @return 非同期応答
      */
-    public ActionFuture<SearchResponse> asyncSearch(
+    public ListenableActionFuture<SearchResponse> asyncSearch(
             String index,
             String type,
             String routingId,
@@ -400,7 +511,8 @@ public class InternalEsClient {
         if (routingFlag) {
             req = req.routing(routingId);
         }
-        ActionFuture<SearchResponse> ret = esTransportClient.search(req);
+        PlainListenableActionFuture<SearchResponse> ret = newFuture();
+        esTransportClient.search(req, ret);
         this.fireEvent(Event.afterRequest, index, type, null, JSONObject.toJSONString(query), "Search");
         return ret;
     }
@@ -413,7 +525,7 @@ public class InternalEsClient {
      * @param query クエリ情報
      * @return 非同期応答
      */
-    public ActionFuture<SearchResponse> asyncSearch(
+    public ListenableActionFuture<SearchResponse> asyncSearch(
             String index,
             String routingId,
             Map<String, Object> query) {
@@ -424,7 +536,8 @@ public class InternalEsClient {
         if (routingFlag) {
             req = req.routing(routingId);
         }
-        ActionFuture<SearchResponse> ret = esTransportClient.search(req);
+        PlainListenableActionFuture<SearchResponse> ret = newFuture();
+        esTransportClient.search(req, ret);
         this.fireEvent(Event.afterRequest, index, null, null, JSONObject.toJSONString(query), "Search");
         return ret;
     }
@@ -436,7 +549,7 @@ public class InternalEsClient {
      * @param query クエリ情報
      * @return 非同期応答
      */
-    public ActionFuture<SearchResponse> asyncSearch(
+    public ListenableActionFuture<SearchResponse> asyncSearch(
             String index,
             String routingId,
             QueryBuilder query) {
@@ -450,7 +563,8 @@ public class InternalEsClient {
         if (routingFlag) {
             req = req.routing(routingId);
         }
-        ActionFuture<SearchResponse> ret = esTransportClient.search(req);
+        PlainListenableActionFuture<SearchResponse> ret = newFuture();
+        esTransportClient.search(req, ret);
         this.fireEvent(Event.afterRequest, index, null, null, queryString, "Search");
         return ret;
     }
@@ -463,7 +577,7 @@ public class InternalEsClient {
      * @param queryList マルチ検索用のクエリ情報リスト
      * @return 非同期応答
      */
-    public ActionFuture<MultiSearchResponse> asyncMultiSearch(
+    public ListenableActionFuture<MultiSearchResponse> asyncMultiSearch(
             String index,
             String routingId,
             List<Map<String, Object>> queryList) {
@@ -479,7 +593,7 @@ public class InternalEsClient {
      * @param queryList マルチ検索用のクエリ情報リスト
      * @return 非同期応答
      */
-    public ActionFuture<MultiSearchResponse> asyncMultiSearch(
+    public ListenableActionFuture<MultiSearchResponse> asyncMultiSearch(
             String index,
             String type,
             String routingId,
@@ -503,7 +617,8 @@ public class InternalEsClient {
             mrequest.add(req);
         }
 
-        ActionFuture<MultiSearchResponse> ret = esTransportClient.multiSearch(mrequest);
+        PlainListenableActionFuture<MultiSearchResponse> ret = newFuture();
+        esTransportClient.multiSearch(mrequest, ret);
         this.fireEvent(Event.afterRequest, index, type, null, JSONArray.toJSONString(queryList), "MultiSearch");
         return ret;
     }
@@ -571,15 +686,39 @@ public class InternalEsClient {
      * @param version version番号
      * @return 非同期応答
      */
-    public ActionFuture<IndexResponse> asyncIndex(String index,
+    public ListenableActionFuture<IndexResponse> asyncIndex(String index,
             String type,
             String id,
             String routingId,
             Map<String, Object> data,
             OpType opType,
             long version) {
+        return asyncIndex(index, type, id, routingId, data, opType, version, this.refreshPolicy);
+    }
+
+    /**
+     * 非同期でドキュメントを登録する.
+     * {@link EsRefreshPolicy#WAIT_FOR_VISIBLE}の場合、応答を受け取った後に{@link #awaitVisible(String)}を呼び出すこと.
+     * @param index インデックス名
+     * @param type タイプ名
+     * @param id ドキュメントのid
+     * @param routingId routingId
+     * @param data データ
+     * @param opType 操作タイプ
+     * @param version version番号
+     * @param policy refresh方針
+     * @return 非同期応答
+     */
+    public ListenableActionFuture<IndexResponse> asyncIndex(String index,
+            String type,
+            String id,
+            String routingId,
+            Map<String, Object> data,
+            OpType opType,
+            long version,
+            EsRefreshPolicy policy) {
         IndexRequestBuilder req = esTransportClient.prepareIndex(index, type, id).setSource(data).setOpType(opType)
-                .setConsistencyLevel(WriteConsistencyLevel.DEFAULT).setRefresh(true);
+                .setConsistencyLevel(WriteConsistencyLevel.DEFAULT).setRefresh(policy == EsRefreshPolicy.IMMEDIATE);
         if (routingFlag) {
             req = req.setRouting(routingId);
         }
@@ -587,7 +726,7 @@ public class InternalEsClient {
             req.setVersion(version);
         }
 
-        ActionFuture<IndexResponse> ret = req.execute();
+        ListenableActionFuture<IndexResponse> ret = req.execute();
         EsRequestLogInfo logInfo = new EsRequestLogInfo(index, type, id, routingId, data, opType.toString(),
                 version);
         this.fireEvent(Event.afterCreate, logInfo);
@@ -604,17 +743,33 @@ public class InternalEsClient {
      * @param version The version of the document to delete
      * @return 非同期応答
      */
-    public ActionFuture<DeleteResponse> asyncDelete(String index, String type,
+    public ListenableActionFuture<DeleteResponse> asyncDelete(String index, String type,
             String id, String routingId, long version) {
+        return asyncDelete(index, type, id, routingId, version, this.refreshPolicy);
+    }
+
+    /**
+     * 非同期でversionつきでdocumentを削除します.
+     * {@link EsRefreshPolicy#WAIT_FOR_VISIBLE}の場合、応答を受け取った後に{@link #awaitVisible(String)}を呼び出すこと.
+     * @param index インデックス名
+     * @param type タイプ名
+     * @param id Document id to delete
+     * @param routingId routingId
+     * @param version The version of the document to delete
+     * @param policy refresh方針
+     * @return 非同期応答
+     */
+    public ListenableActionFuture<DeleteResponse> asyncDelete(String index, String type,
+            String id, String routingId, long version, EsRefreshPolicy policy) {
         DeleteRequestBuilder req = esTransportClient.prepareDelete(index, type, id)
-                .setRefresh(true);
+                .setRefresh(policy == EsRefreshPolicy.IMMEDIATE);
         if (routingFlag) {
             req = req.setRouting(routingId);
         }
         if (version > -1) {
             req.setVersion(version);
         }
-        ActionFuture<DeleteResponse> ret = req.execute();
+        ListenableActionFuture<DeleteResponse> ret = req.execute();
         this.fireEvent(Event.afterRequest, index, type, id, null, "Delete");
         return ret;
     }
@@ -627,8 +782,22 @@ public class InternalEsClient {
      * @param isWriteLog リクエスト情報のログ出力有無
      * @return ES応答
      */
-    @SuppressWarnings("unchecked")
     public BulkResponse bulkRequest(String index, String routingId, List<EsBulkRequest> datas, boolean isWriteLog) {
+        return bulkRequest(index, routingId, datas, isWriteLog, this.refreshPolicy);
+    }
+
+    /**
+     * バルクでドキュメントを登録/更新/削除.
+     * @param index インデックス名
+     * @param routingId routingId
+     * @param datas バルクドキュメント
+     * @param isWriteLog リクエスト情報のログ出力有無
+     * @param policy refresh方針
+     * @return ES応答
+     */
+    @SuppressWarnings("unchecked")
+    public BulkResponse bulkRequest(String index, String routingId, List<EsBulkRequest> datas, boolean isWriteLog,
+            EsRefreshPolicy policy) {
         BulkRequestBuilder bulkRequest = esTransportClient.prepareBulk();
         List<Map<String, Object>> bulkList = new ArrayList<Map<String, Object>>();
         for (EsBulkRequest data : datas) {
@@ -648,10 +817,13 @@ public class InternalEsClient {
         Map<String, Object> debug = new HashMap<String, Object>();
         debug.put("bulk", bulkList);
 
-        BulkResponse ret = bulkRequest.setRefresh(true).execute().actionGet();
+        BulkResponse ret = bulkRequest.setRefresh(policy == EsRefreshPolicy.IMMEDIATE).execute().actionGet();
         if (isWriteLog) {
             this.fireEvent(Event.afterRequest, index, "none", "none", debug, "bulkRequest");
         }
+        if (policy == EsRefreshPolicy.WAIT_FOR_VISIBLE) {
+            awaitVisible(index);
+        }
         return ret;
     }
 
@@ -723,6 +895,15 @@ public class InternalEsClient {
         return DcRefreshResponseImpl.getInstance(response);
     }
 
+    /**
+     * 呼び出し時点までに完了した書き込みが検索に反映されるまで待つ.
+     * 同時に呼び出された場合、refreshは1回にまとめて実行する.
+     * @param index インデックス名
+     */
+    public void awaitVisible(String index) {
+        this.refreshCoordinator.awaitVisible(index);
+    }
+
     /**
      * 指定されたクエリを使用してデータの削除を行う.
      * @param index 削除対象のインデックス
@@ -28,4 +28,16 @@ public interface DcItem {
      */
     DcSearchHit[] getSearchHits();
 
+    /**
+     * getHits.
+     * @return DcSearchHits
+     */
+    DcSearchHits getHits();
+
+    /**
+     * 検索に失敗した場合のエラーメッセージ.
+     * @return エラーメッセージ. 成功した場合はnull
+     */
+    String getFailureMessage();
+
 }
@@ -21,6 +21,7 @@ import org.elasticsearch.action.search.SearchResponse;
 
 import com.fujitsu.dc.common.es.response.DcItem;
 import com.fujitsu.dc.common.es.response.DcSearchHit;
+import com.fujitsu.dc.common.es.response.DcSearchHits;
 /**
  * .
  */
@@ -48,4 +49,9 @@ public class DcItemImpl extends MultiSearchResponse.Item implements DcItem {
         return DcSearchHitsImpl.getInstance(getResponse().getHits()).getHits();
     }
 
+    @Override
+    public DcSearchHits getHits() {
+        return DcSearchHitsImpl.getInstance(getResponse().getHits());
+    }
+
 }
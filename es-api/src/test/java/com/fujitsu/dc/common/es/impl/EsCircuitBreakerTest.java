@@ -0,0 +1,177 @@
+/**
+ * personium.io
+ * Copyright 2014 FUJITSU LIMITED
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.fujitsu.dc.common.es.impl;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+
+import org.junit.Test;
+
+import com.fujitsu.dc.common.es.impl.EsCircuitBreaker.Operation;
+import com.fujitsu.dc.common.es.impl.EsCircuitBreaker.Permit;
+import com.fujitsu.dc.common.es.impl.EsCircuitBreaker.State;
+
+/**
+ * EsCircuitBreakerのテスト.
+ */
+public class EsCircuitBreakerTest {
+
+    private static EsCircuitBreaker newBreaker() {
+        // 集計期間10秒、最小4要求、エラー率50%、遅延1秒・割合100%、開状態1秒、試行2要求
+        return new EsCircuitBreaker(Operation.GET, 10000L, 4, 0.5, 1000L, 1.0, 1000L, 2);
+    }
+
+    /**
+     * エラー率が閾値を超えると開状態となり要求を即座に拒否すること.
+     */
+    @Test
+    public void エラー率が閾値を超えると開状態となり要求を即座に拒否すること() {
+        EsCircuitBreaker breaker = newBreaker();
+        breaker.onSuccess(breaker.tryAcquire(1000L), 1010L);
+        breaker.onFailure(breaker.tryAcquire(1000L), 1010L);
+        // 最小要求数に満たない間は閉状態のまま
+        breaker.onFailure(breaker.tryAcquire(1000L), 1010L);
+        assertEquals(State.CLOSED, breaker.getState());
+        breaker.onSuccess(breaker.tryAcquire(1000L), 1010L);
+        assertEquals(State.OPEN, breaker.getState());
+        assertNull(breaker.tryAcquire(1500L));
+        assertEquals(1L, EsCircuitBreakerTest.snapshotOf(breaker).getRejected());
+    }
+
+    /**
+     * 集計期間を過ぎた失敗は判定に含めないこと.
+     */
+    @Test
+    public void 集計期間を過ぎた失敗は判定に含めないこと() {
+        EsCircuitBreaker breaker = newBreaker();
+        breaker.onFailure(breaker.tryAcquire(1000L), 1010L);
+        breaker.onFailure(breaker.tryAcquire(1000L), 1010L);
+        breaker.onFailure(breaker.tryAcquire(1000L), 1010L);
+        breaker.onSuccess(breaker.tryAcquire(20000L), 20010L);
+        assertEquals(State.CLOSED, breaker.getState());
+    }
+
+    /**
+     * 遅延した要求の割合が閾値を超えると開状態となること.
+     */
+    @Test
+    public void 遅延した要求の割合が閾値を超えると開状態となること() {
+        EsCircuitBreaker breaker = newBreaker();
+        for (int i = 0; i < 4; i++) {
+            breaker.onSuccess(breaker.tryAcquire(1000L), 3000L);
+        }
+        assertEquals(State.OPEN, breaker.getState());
+    }
+
+    /**
+     * 開状態の時間経過後は試行要求のみを通し全て成功すると閉状態に戻ること.
+     */
+    @Test
+    public void 開状態の時間経過後は試行要求のみを通し全て成功すると閉状態に戻ること() {
+        EsCircuitBreaker breaker = tripped();
+        Permit p1 = breaker.tryAcquire(2100L);
+        Permit p2 = breaker.tryAcquire(2100L);
+        assertNotNull(p1);
+        assertNotNull(p2);
+        assertEquals(State.HALF_OPEN, breaker.getState());
+        assertNull(breaker.tryAcquire(2100L));
+        breaker.onSuccess(p1, 2110L);
+        assertEquals(State.HALF_OPEN, breaker.getState());
+        breaker.onSuccess(p2, 2110L);
+        assertEquals(State.CLOSED, breaker.getState());
+        assertNotNull(breaker.tryAcquire(2200L));
+    }
+
+    /**
+     * 試行要求が失敗すると再び開状態となること.
+     */
+    @Test
+    public void 試行要求が失敗すると再び開状態となること() {
+        EsCircuitBreaker breaker = tripped();
+        Permit probe = breaker.tryAcquire(2100L);
+        breaker.onFailure(probe, 2110L);
+        assertEquals(State.OPEN, breaker.getState());
+        assertNull(breaker.tryAcquire(2500L));
+        assertNotNull(breaker.tryAcquire(3200L));
+        assertEquals(2L, EsCircuitBreakerTest.snapshotOf(breaker).getTransitions(State.OPEN));
+    }
+
+    /**
+     * 試行要求の間隔が開いても全て成功すれば閉状態に戻ること.
+     */
+    @Test
+    public void 試行要求の間隔が開いても全て成功すれば閉状態に戻ること() {
+        EsCircuitBreaker breaker = tripped();
+        Permit p1 = breaker.tryAcquire(2100L);
+        breaker.onSuccess(p1, 2900L);
+        // 半開状態になってから開状態を維持する時間を過ぎても、応答待ちの試行要求がなければ開状態に戻さない
+        Permit p2 = breaker.tryAcquire(3500L);
+        assertNotNull(p2);
+        assertEquals(State.HALF_OPEN, breaker.getState());
+        breaker.onSuccess(p2, 4300L);
+        assertEquals(State.CLOSED, breaker.getState());
+    }
+
+    /**
+     * 応答が返らない試行要求は時間経過後に失敗とみなし開状態に戻ること.
+     */
+    @Test
+    public void 応答が返らない試行要求は時間経過後に失敗とみなし開状態に戻ること() {
+        EsCircuitBreaker breaker = tripped();
+        Permit p1 = breaker.tryAcquire(2100L);
+        breaker.onSuccess(p1, 2200L);
+        Permit p2 = breaker.tryAcquire(2500L);
+        assertNotNull(p2);
+        assertNull(breaker.tryAcquire(3400L));
+        assertEquals(State.HALF_OPEN, breaker.getState());
+        assertNull(breaker.tryAcquire(3500L));
+        assertEquals(State.OPEN, breaker.getState());
+        // 開状態に戻った後の応答は試行として扱わない
+        breaker.onSuccess(p2, 3600L);
+        assertEquals(State.OPEN, breaker.getState());
+    }
+
+    /**
+     * 開状態になる前に発行した要求の結果は試行として扱わないこと.
+     */
+    @Test
+    public void 開状態になる前に発行した要求の結果は試行として扱わないこと() {
+        EsCircuitBreaker breaker = newBreaker();
+        Permit stale = breaker.tryAcquire(1000L);
+        for (int i = 0; i < 4; i++) {
+            breaker.onFailure(breaker.tryAcquire(1000L), 1010L);
+        }
+        Permit probe = breaker.tryAcquire(2100L);
+        breaker.onFailure(stale, 2110L);
+        assertEquals(State.HALF_OPEN, breaker.getState());
+        assertNotNull(probe);
+    }
+
+    private static EsCircuitBreaker tripped() {
+        EsCircuitBreaker breaker = newBreaker();
+        for (int i = 0; i < 4; i++) {
+            breaker.onFailure(breaker.tryAcquire(1000L), 1010L);
+        }
+        assertEquals(State.OPEN, breaker.getState());
+        return breaker;
+    }
+
+    private static EsCircuitBreaker.Snapshot snapshotOf(EsCircuitBreaker breaker) {
+        return breaker.snapshot(System.currentTimeMillis());
+    }
+}
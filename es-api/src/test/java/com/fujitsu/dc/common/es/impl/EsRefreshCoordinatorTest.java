@@ -0,0 +1,133 @@
+/**
+ * personium.io
+ * Copyright 2014 FUJITSU LIMITED
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.fujitsu.dc.common.es.impl;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.junit.Test;
+
+/**
+ * EsRefreshCoordinatorのテスト.
+ */
+public class EsRefreshCoordinatorTest {
+
+    /**
+     * 呼び出しごとにrefreshが実行されること.
+     */
+    @Test
+    public void 呼び出しごとにrefreshが実行されること() {
+        final AtomicInteger count = new AtomicInteger();
+        EsRefreshCoordinator coordinator = new EsRefreshCoordinator() {
+            @Override
+            void doRefresh(String index) {
+                count.incrementAndGet();
+            }
+        };
+        coordinator.awaitVisible("index");
+        coordinator.awaitVisible("index");
+        coordinator.awaitVisible("other");
+        assertEquals(3, count.get());
+    }
+
+    /**
+     * refresh実行中の呼び出しが1回のrefreshにまとめられること.
+     * @throws Exception 異常時
+     */
+    @Test
+    public void refresh実行中の呼び出しが1回のrefreshにまとめられること() throws Exception {
+        final AtomicInteger count = new AtomicInteger();
+        final CountDownLatch started = new CountDownLatch(1);
+        final CountDownLatch release = new CountDownLatch(1);
+        final EsRefreshCoordinator coordinator = new EsRefreshCoordinator() {
+            @Override
+            void doRefresh(String index) {
+                if (count.incrementAndGet() == 1) {
+                    started.countDown();
+                    try {
+                        release.await();
+                    } catch (InterruptedException e) {
+                        Thread.currentThread().interrupt();
+                    }
+                }
+            }
+        };
+        Thread first = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                coordinator.awaitVisible("index");
+            }
+        });
+        first.start();
+        assertTrue(started.await(5, TimeUnit.SECONDS));
+
+        final int waiters = 5;
+        final CountDownLatch done = new CountDownLatch(waiters);
+        List<Thread> threads = new ArrayList<Thread>();
+        for (int i = 0; i < waiters; i++) {
+            Thread t = new Thread(new Runnable() {
+                @Override
+                public void run() {
+                    coordinator.awaitVisible("index");
+                    done.countDown();
+                }
+            });
+            threads.add(t);
+            t.start();
+        }
+        // 待機中の呼び出しが揃ってから実行中のrefreshを完了させる
+        Thread.sleep(200);
+        release.countDown();
+        assertTrue(done.await(5, TimeUnit.SECONDS));
+        first.join();
+        for (Thread t : threads) {
+            t.join();
+        }
+        assertEquals(2, count.get());
+    }
+
+    /**
+     * refreshが失敗した場合は例外が通知され次の呼び出しで再実行されること.
+     */
+    @Test
+    public void refreshが失敗した場合は例外が通知され次の呼び出しで再実行されること() {
+        final AtomicInteger count = new AtomicInteger();
+        EsRefreshCoordinator coordinator = new EsRefreshCoordinator() {
+            @Override
+            void doRefresh(String index) {
+                if (count.incrementAndGet() == 1) {
+                    throw new IllegalStateException("refresh failed");
+                }
+            }
+        };
+        try {
+            coordinator.awaitVisible("index");
+            fail("exception not thrown");
+        } catch (IllegalStateException e) {
+            assertEquals("refresh failed", e.getMessage());
+        }
+        coordinator.awaitVisible("index");
+        assertEquals(2, count.get());
+    }
+}
@@ -0,0 +1,81 @@
+/**
+ * personium.io
+ * Copyright 2014 FUJITSU LIMITED
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.fujitsu.dc.common.es.impl;
+
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import org.junit.Test;
+
+/**
+ * EsRetryBudgetのテスト.
+ */
+public class EsRetryBudgetTest {
+
+    /**
+     * リクエストがなくても1秒あたりの許可回数まではリトライできること.
+     */
+    @Test
+    public void リクエストがなくても1秒あたりの許可回数まではリトライできること() {
+        EsRetryBudget budget = new EsRetryBudget(0.1, 2);
+        assertTrue(budget.tryAcquire(1000L));
+        assertTrue(budget.tryAcquire(1001L));
+        assertFalse(budget.tryAcquire(1002L));
+        // 1秒経過すると再びリトライできる
+        assertTrue(budget.tryAcquire(2000L));
+    }
+
+    /**
+     * 許可回数を超えたリトライはリクエスト数に応じた予算の範囲でできること.
+     */
+    @Test
+    public void 許可回数を超えたリトライはリクエスト数に応じた予算の範囲でできること() {
+        EsRetryBudget budget = new EsRetryBudget(0.5, 1);
+        budget.onRequest();
+        budget.onRequest();
+        budget.onRequest();
+        assertTrue(budget.tryAcquire(1000L));
+        // 予算 1.5 のうち 1 を消費する
+        assertTrue(budget.tryAcquire(1000L));
+        assertFalse(budget.tryAcquire(1000L));
+    }
+
+    /**
+     * 予算は上限を超えて貯まらないこと.
+     */
+    @Test
+    public void 予算は上限を超えて貯まらないこと() {
+        EsRetryBudget budget = new EsRetryBudget(1, 0, 2);
+        for (int i = 0; i < 10; i++) {
+            budget.onRequest();
+        }
+        assertTrue(budget.tryAcquire(1000L));
+        assertTrue(budget.tryAcquire(1000L));
+        assertFalse(budget.tryAcquire(1000L));
+    }
+
+    /**
+     * 制限しない予算では常にリトライできること.
+     */
+    @Test
+    public void 制限しない予算では常にリトライできること() {
+        EsRetryBudget budget = EsRetryBudget.unlimited();
+        for (int i = 0; i < 10000; i++) {
+            assertTrue(budget.tryAcquire(1000L));
+        }
+    }
+}
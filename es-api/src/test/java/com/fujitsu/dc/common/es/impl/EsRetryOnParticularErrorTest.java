@@ -17,11 +17,17 @@
 package com.fujitsu.dc.common.es.impl;
 
 import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
 import static org.junit.Assert.assertTrue;
 import static org.junit.Assert.fail;
 
+import java.util.Arrays;
 import java.util.Map;
 
+import org.elasticsearch.action.ListenableActionFuture;
+import org.elasticsearch.action.get.GetResponse;
+import org.elasticsearch.action.get.MultiGetItemResponse;
+import org.elasticsearch.action.get.MultiGetResponse;
 import org.elasticsearch.action.index.IndexRequest.OpType;
 import org.elasticsearch.action.search.SearchPhaseExecutionException;
 import org.elasticsearch.common.settings.SettingsException;
@@ -445,4 +451,100 @@ public class EsRetryOnParticularErrorTest {
         }
     }
 
+    /**
+     * EsType_multiGetで対象Indexが存在しないことによる取得失敗はリトライ対象とならないこと.
+     */
+    @Test
+    public void EsType_multiGetで対象Indexが存在しないことによる取得失敗はリトライ対象とならないこと() {
+        EsTypeImpl esTypeObject = Mockito.spy(new EsTypeImpl("dummy", "Test", "TestRoutingId", 0, 0, null));
+        MultiGetResponse response = createFailedMultiGetResponse("dummy", "[dummy] missing");
+        stubMultiGet(esTypeObject, response);
+
+        // メソッド呼び出し
+        EsTypeImpl.MultiGetRetryableRequest request = esTypeObject.new MultiGetRetryableRequest(
+                0, 0, Arrays.asList("dummyId"), true);
+        assertSame(response, request.doProcess());
+    }
+
+    /**
+     * EsType_multiGetで対象IndexのIndexMissingExceptionの詳細メッセージによる取得失敗はリトライ対象とならないこと.
+     */
+    @Test
+    public void EsType_multiGetで対象IndexのIndexMissingExceptionの詳細メッセージによる取得失敗はリトライ対象とならないこと() {
+        EsTypeImpl esTypeObject = Mockito.spy(new EsTypeImpl("dummy", "Test", "TestRoutingId", 0, 0, null));
+        MultiGetResponse response = createFailedMultiGetResponse("dummy", "IndexMissingException[[dummy] missing]");
+        stubMultiGet(esTypeObject, response);
+
+        // メソッド呼び出し
+        EsTypeImpl.MultiGetRetryableRequest request = esTypeObject.new MultiGetRetryableRequest(
+                0, 0, Arrays.asList("dummyId"), true);
+        assertSame(response, request.doProcess());
+    }
+
+    /**
+     * EsType_multiGetで対象Index以外に関する取得失敗はリトライ対象となること.
+     */
+    @Test
+    public void EsType_multiGetで対象Index以外に関する取得失敗はリトライ対象となること() {
+        EsTypeImpl esTypeObject = Mockito.spy(new EsTypeImpl("dummy", "Test", "TestRoutingId", 0, 0, null));
+        // 末尾が「] missing」であっても、対象Indexの IndexMissingException 以外はIndexの不在とみなさない
+        stubMultiGet(esTypeObject, createFailedMultiGetResponse("dummy", "[dummy][0] shard [other] missing"));
+
+        // メソッド呼び出し
+        EsTypeImpl.MultiGetRetryableRequest request = esTypeObject.new MultiGetRetryableRequest(
+                0, 0, Arrays.asList("dummyId"), true);
+        try {
+            request.doProcess();
+            fail("MultiGetItemFailedException should be thrown.");
+        } catch (EsTypeImpl.MultiGetItemFailedException e) {
+            assertTrue(request.isParticularError(e));
+        }
+    }
+
+    /**
+     * EsType_multiGetでシャードの障害による取得失敗はリトライ対象となること.
+     */
+    @Test
+    public void EsType_multiGetでシャードの障害による取得失敗はリトライ対象となること() {
+        EsTypeImpl esTypeObject = Mockito.spy(new EsTypeImpl("dummy", "Test", "TestRoutingId", 0, 0, null));
+        stubMultiGet(esTypeObject,
+                createFailedMultiGetResponse("dummy", "NoShardAvailableActionException[[dummy][0] null]"));
+
+        // メソッド呼び出し
+        EsTypeImpl.MultiGetRetryableRequest request = esTypeObject.new MultiGetRetryableRequest(
+                0, 0, Arrays.asList("dummyId"), true);
+        try {
+            request.doProcess();
+            fail("MultiGetItemFailedException should be thrown.");
+        } catch (EsTypeImpl.MultiGetItemFailedException e) {
+            assertTrue(request.isParticularError(e));
+        }
+    }
+
+    /**
+     * 1件の取得に失敗したmulti getのレスポンスを作成する.
+     * @param index 失敗したIndex名
+     * @param message 失敗メッセージ
+     * @return multi getのレスポンス
+     */
+    private MultiGetResponse createFailedMultiGetResponse(String index, String message) {
+        MultiGetResponse.Failure failure = new MultiGetResponse.Failure(index, "Test", "dummyId", message);
+        return new MultiGetResponse(new MultiGetItemResponse[] {new MultiGetItemResponse((GetResponse) null,
+                failure) });
+    }
+
+    /**
+     * EsType#asyncMultiGet()が指定のレスポンスを返すようにする.
+     * @param esTypeObject 対象のEsType
+     * @param response 返却するレスポンス
+     */
+    @SuppressWarnings("unchecked")
+    private void stubMultiGet(EsTypeImpl esTypeObject, MultiGetResponse response) {
+        ListenableActionFuture<MultiGetResponse> future = Mockito.mock(ListenableActionFuture.class);
+        Mockito.doReturn(response).when(future).actionGet();
+        Mockito.doReturn(future)
+                .when(esTypeObject)
+                .asyncMultiGet(Mockito.anyListOf(String.class), Mockito.anyBoolean());
+    }
+
 }
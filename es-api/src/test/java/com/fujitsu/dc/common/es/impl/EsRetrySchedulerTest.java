@@ -0,0 +1,126 @@
+/**
+ * personium.io
+ * Copyright 2014 FUJITSU LIMITED
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.fujitsu.dc.common.es.impl;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+/**
+ * EsRetrySchedulerのテスト.
+ */
+public class EsRetrySchedulerTest {
+
+    private ThreadPoolExecutor worker;
+    private ScheduledExecutorService timer;
+    private CountDownLatch release;
+
+    /**
+     * スレッド数1・待ち行列1のワーカを、実行中1件・待ち1件で埋めておく.
+     * @throws Exception 例外
+     */
+    @Before
+    public void before() throws Exception {
+        this.worker = EsRetryScheduler.newWorker(1, 1);
+        this.timer = Executors.newSingleThreadScheduledExecutor();
+        this.release = new CountDownLatch(1);
+        final CountDownLatch started = new CountDownLatch(1);
+        this.worker.execute(new Runnable() {
+            @Override
+            public void run() {
+                started.countDown();
+                await(release);
+            }
+        });
+        started.await();
+        this.worker.execute(new Runnable() {
+            @Override
+            public void run() {
+            }
+        });
+    }
+
+    /**
+     * 後処理.
+     */
+    @After
+    public void after() {
+        this.release.countDown();
+        this.worker.shutdownNow();
+        this.timer.shutdownNow();
+    }
+
+    /**
+     * 上限に達したワーカは新規の処理を拒否しスレッドを増やさないこと.
+     */
+    @Test
+    public void 上限に達したワーカは新規の処理を拒否しスレッドを増やさないこと() {
+        try {
+            this.worker.execute(new Runnable() {
+                @Override
+                public void run() {
+                }
+            });
+            fail("RejectedExecutionException was not thrown.");
+        } catch (RejectedExecutionException e) {
+            assertEquals(1, this.worker.getPoolSize());
+        }
+    }
+
+    /**
+     * 上限に達したワーカに渡した応答処理は空きができてからワーカスレッドで実行されること.
+     * @throws Exception 例外
+     */
+    @Test
+    public void 上限に達したワーカに渡した応答処理は空きができてからワーカスレッドで実行されること() throws Exception {
+        final CountDownLatch delivered = new CountDownLatch(1);
+        final String[] threadName = new String[1];
+        EsRetryScheduler.deliver(this.worker, this.timer, new Runnable() {
+            @Override
+            public void run() {
+                threadName[0] = Thread.currentThread().getName();
+                delivered.countDown();
+            }
+        });
+        // 空きができるまでは実行されない
+        Thread.sleep(EsRetryScheduler.REDELIVERY_DELAY_MILLIS * 5);
+        assertEquals(1, delivered.getCount());
+
+        this.release.countDown();
+        assertTrue(delivered.await(5, TimeUnit.SECONDS));
+        assertTrue(threadName[0].startsWith("EsAsyncWorker-"));
+    }
+
+    private static void await(CountDownLatch latch) {
+        try {
+            latch.await();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+}
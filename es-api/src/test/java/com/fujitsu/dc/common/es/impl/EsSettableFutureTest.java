@@ -0,0 +1,148 @@
+/**
+ * personium.io
+ * Copyright 2014 FUJITSU LIMITED
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.fujitsu.dc.common.es.impl;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicReference;
+
+import org.junit.Test;
+
+import com.fujitsu.dc.common.es.EsFuture;
+import com.fujitsu.dc.common.es.response.EsClientException;
+
+/**
+ * EsSettableFutureのテスト.
+ */
+public class EsSettableFutureTest {
+
+    /**
+     * 別スレッドで設定された応答を取得できること.
+     * @throws Exception 異常時
+     */
+    @Test
+    public void 別スレッドで設定された応答を取得できること() throws Exception {
+        final EsSettableFuture<String> future = new EsSettableFuture<String>();
+        Thread thread = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                future.set("response");
+            }
+        });
+        thread.start();
+        assertEquals("response", future.get());
+        assertTrue(future.isDone());
+        thread.join();
+    }
+
+    /**
+     * 設定された例外が取得時にそのまま投げられること.
+     */
+    @Test
+    public void 設定された例外が取得時にそのまま投げられること() {
+        EsSettableFuture<String> future = new EsSettableFuture<String>();
+        IllegalStateException e = new IllegalStateException();
+        assertTrue(future.setException(e));
+        // 完了後の設定は無視される
+        assertFalse(future.set("response"));
+        try {
+            future.get();
+            fail("no exception");
+        } catch (IllegalStateException e2) {
+            assertSame(e, e2);
+        }
+    }
+
+    /**
+     * 指定時間内に完了しない場合EsNoResponseExceptionが投げられること.
+     */
+    @Test(expected = EsClientException.EsNoResponseException.class)
+    public void 指定時間内に完了しない場合EsNoResponseExceptionが投げられること() {
+        new EsSettableFuture<String>().get(10, TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * 完了前後に登録したリスナに通知されること.
+     */
+    @Test
+    public void 完了前後に登録したリスナに通知されること() {
+        EsSettableFuture<String> future = new EsSettableFuture<String>();
+        final AtomicReference<String> before = new AtomicReference<String>();
+        final AtomicReference<String> after = new AtomicReference<String>();
+        future.addListener(new Listener(before));
+        future.set("response");
+        future.addListener(new Listener(after));
+        assertEquals("response", before.get());
+        assertEquals("response", after.get());
+    }
+
+    /**
+     * 変換後の非同期応答に変換結果と例外が伝わること.
+     */
+    @Test
+    public void 変換後の非同期応答に変換結果と例外が伝わること() {
+        EsFuture.Function<String, Integer> length = new EsFuture.Function<String, Integer>() {
+            @Override
+            public Integer apply(String input) {
+                if (input == null) {
+                    throw new IllegalArgumentException();
+                }
+                return input.length();
+            }
+        };
+        EsSettableFuture<String> future = new EsSettableFuture<String>();
+        EsFuture<Integer> transformed = future.transform(length);
+        assertFalse(transformed.isDone());
+        future.set("response");
+        assertEquals(Integer.valueOf(8), transformed.get());
+
+        EsSettableFuture<String> failed = new EsSettableFuture<String>();
+        failed.set(null);
+        try {
+            failed.transform(length).get();
+            fail("no exception");
+        } catch (IllegalArgumentException e) {
+            assertTrue(true);
+        }
+    }
+
+    /**
+     * 応答を記録するリスナ.
+     */
+    static class Listener implements EsFuture.Listener<String> {
+        private final AtomicReference<String> received;
+
+        Listener(AtomicReference<String> received) {
+            this.received = received;
+        }
+
+        @Override
+        public void onResponse(String response) {
+            this.received.set(response);
+        }
+
+        @Override
+        public void onFailure(RuntimeException e) {
+            this.received.set(e.getClass().getName());
+        }
+    }
+}
@@ -0,0 +1,221 @@
+/**
+ * personium.io
+ * Copyright 2014 FUJITSU LIMITED
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.fujitsu.dc.common.es.impl;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import org.elasticsearch.ElasticsearchException;
+import org.elasticsearch.action.ActionListener;
+import org.elasticsearch.common.util.concurrent.UncategorizedExecutionException;
+import org.junit.After;
+import org.junit.Test;
+
+import com.fujitsu.dc.common.es.EsFuture;
+
+/**
+ * ワーカスレッドが埋まった状態でのAbstractRetryableEsRequestのテスト.
+ * 特定例外の処理やtranslogのflushで発行したリクエストの応答も同じワーカスレッドで通知されるため、
+ * 応答処理がワーカスレッド上でその完了を待つと処理が進まなくなる.
+ */
+public class EsWorkerSaturationTest {
+
+    private static final String SUCCESS_RESPONSE = "success";
+    private static final String RECOVERED_RESPONSE = "recovered";
+    private static final long TIMEOUT_SECONDS = 10;
+
+    private final CountDownLatch release = new CountDownLatch(1);
+
+    /**
+     * 後処理.
+     */
+    @After
+    public void after() {
+        this.release.countDown();
+    }
+
+    /**
+     * ワーカスレッドが埋まっていても特定例外の処理で発行したリクエストの応答を受け取れること.
+     * @throws Exception 例外
+     */
+    @Test
+    public void ワーカスレッドが埋まっていても特定例外の処理で発行したリクエストの応答を受け取れること() throws Exception {
+        List<EsFuture<String>> futures = new ArrayList<EsFuture<String>>();
+        occupyWorkers();
+        for (int i = 0; i < EsRetryScheduler.MAX_WORKER_THREADS; i++) {
+            futures.add(new ParticularErrorRequest().doRequestAsync());
+        }
+        // 全ワーカスレッドが同時に特定例外の処理を行う状態にする
+        this.release.countDown();
+        for (EsFuture<String> future : futures) {
+            assertEquals(RECOVERED_RESPONSE, future.get(TIMEOUT_SECONDS, TimeUnit.SECONDS));
+        }
+    }
+
+    /**
+     * ワーカスレッドが埋まっていてもtranslogのflush後にリトライできること.
+     * @throws Exception 例外
+     */
+    @Test
+    public void ワーカスレッドが埋まっていてもtranslogのflush後にリトライできること() throws Exception {
+        List<FlushingRequest> requests = new ArrayList<FlushingRequest>();
+        List<EsFuture<String>> futures = new ArrayList<EsFuture<String>>();
+        occupyWorkers();
+        for (int i = 0; i < EsRetryScheduler.MAX_WORKER_THREADS; i++) {
+            FlushingRequest request = new FlushingRequest();
+            requests.add(request);
+            futures.add(request.doRequestAsync());
+        }
+        this.release.countDown();
+        for (EsFuture<String> future : futures) {
+            assertEquals(SUCCESS_RESPONSE, future.get(TIMEOUT_SECONDS, TimeUnit.SECONDS));
+        }
+        for (FlushingRequest request : requests) {
+            assertTrue(request.flushed);
+        }
+    }
+
+    /**
+     * 全てのワーカスレッドを解放されるまで待機させる.
+     * @throws InterruptedException 割り込み
+     */
+    private void occupyWorkers() throws InterruptedException {
+        final CountDownLatch started = new CountDownLatch(EsRetryScheduler.MAX_WORKER_THREADS);
+        for (int i = 0; i < EsRetryScheduler.MAX_WORKER_THREADS; i++) {
+            EsRetryScheduler.execute(new Runnable() {
+                @Override
+                public void run() {
+                    started.countDown();
+                    try {
+                        release.await();
+                    } catch (InterruptedException e) {
+                        Thread.currentThread().interrupt();
+                    }
+                }
+            });
+        }
+        assertTrue(started.await(TIMEOUT_SECONDS, TimeUnit.SECONDS));
+    }
+
+    /**
+     * テスト用の例外.
+     */
+    static class EsExceptionForTest extends ElasticsearchException {
+        private static final long serialVersionUID = 1L;
+
+        EsExceptionForTest(String msg) {
+            super(msg);
+        }
+    }
+
+    /**
+     * ESの応答をワーカスレッドで通知するテスト用のリクエスト.
+     * 発行ごとに、あらかじめ指定した例外で失敗させるか、成功させる.
+     */
+    abstract static class DeliveredRequest extends AbstractRetryableEsRequest<String> {
+        private final List<RuntimeException> failures;
+
+        DeliveredRequest(RuntimeException... failures) {
+            super(1, 0, "DeliveredRequest");
+            this.failures = new ArrayList<RuntimeException>();
+            for (RuntimeException e : failures) {
+                this.failures.add(e);
+            }
+        }
+
+        @Override
+        String doProcess() {
+            return SUCCESS_RESPONSE;
+        }
+
+        @Override
+        void doProcessAsync(final ActionListener<String> listener) {
+            final RuntimeException failure;
+            synchronized (this.failures) {
+                failure = this.failures.isEmpty() ? null : this.failures.remove(0);
+            }
+            EsRetryScheduler.deliver(new Runnable() {
+                @Override
+                public void run() {
+                    if (failure != null) {
+                        listener.onFailure(failure);
+                    } else {
+                        listener.onResponse(SUCCESS_RESPONSE);
+                    }
+                }
+            });
+        }
+
+        @Override
+        EsTranslogHandler getEsTranslogHandler() {
+            return null;
+        }
+    }
+
+    /**
+     * 特定例外の処理で別のリクエストを発行するリクエスト.
+     */
+    static class ParticularErrorRequest extends DeliveredRequest {
+        ParticularErrorRequest() {
+            super(new EsExceptionForTest("particular"));
+        }
+
+        @Override
+        boolean isParticularError(ElasticsearchException e) {
+            return e instanceof EsExceptionForTest;
+        }
+
+        @Override
+        EsFuture<String> onParticularErrorAsync(ElasticsearchException e) {
+            return new DeliveredRequest() {
+            }.doRequestAsync().transform(new EsFuture.Function<String, String>() {
+                @Override
+                public String apply(String input) {
+                    return RECOVERED_RESPONSE;
+                }
+            });
+        }
+    }
+
+    /**
+     * 初回にtranslogのflushが必要な例外で失敗するリクエスト. flushはワーカスレッドで応答を通知するリクエストで行う.
+     */
+    static class FlushingRequest extends DeliveredRequest {
+        volatile boolean flushed;
+
+        FlushingRequest() {
+            super(new UncategorizedExecutionException("translog", null));
+        }
+
+        @Override
+        protected EsFuture<?> flushTransLog() {
+            return new DeliveredRequest() {
+            }.doRequestAsync().transform(new EsFuture.Function<String, String>() {
+                @Override
+                public String apply(String input) {
+                    flushed = true;
+                    return input;
+                }
+            });
+        }
+    }
+}
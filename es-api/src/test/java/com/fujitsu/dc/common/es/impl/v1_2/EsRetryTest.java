@@ -51,6 +51,7 @@ import org.junit.Test;
 import com.fujitsu.dc.common.es.EsBulkRequest;
 import com.fujitsu.dc.common.es.EsClient;
 import com.fujitsu.dc.common.es.EsIndex;
+import com.fujitsu.dc.common.es.EsRefreshPolicy;
 import com.fujitsu.dc.common.es.EsType;
 import com.fujitsu.dc.common.es.impl.EsIndexImpl;
 import com.fujitsu.dc.common.es.impl.EsTypeImpl;
@@ -899,14 +900,14 @@ public class EsRetryTest {
         }
 
         @Override
-        public ActionFuture<GetResponse> asyncGet(String index, String type, String id, String routingId,
+        public ListenableActionFuture<GetResponse> asyncGet(String index, String type, String id, String routingId,
                 boolean realtime) {
             throwException();
             return super.asyncGet(index, type, id, routingId, realtime);
         }
 
         @Override
-        public ActionFuture<SearchResponse> asyncSearch(
+        public ListenableActionFuture<SearchResponse> asyncSearch(
                 String index,
                 String type,
                 String routingId,
@@ -916,7 +917,7 @@ public class EsRetryTest {
         }
 
         @Override
-        public ActionFuture<SearchResponse> asyncSearch(
+        public ListenableActionFuture<SearchResponse> asyncSearch(
                 String index,
                 String routingId,
                 Map<String, Object> query) {
@@ -925,7 +926,7 @@ public class EsRetryTest {
         }
 
         @Override
-        public ActionFuture<SearchResponse> asyncSearch(
+        public ListenableActionFuture<SearchResponse> asyncSearch(
                 String index,
                 String type,
                 String routingId,
@@ -935,22 +936,23 @@ public class EsRetryTest {
         }
 
         @Override
-        public ActionFuture<IndexResponse> asyncIndex(String index,
+        public ListenableActionFuture<IndexResponse> asyncIndex(String index,
                 String type,
                 String id,
                 String routingId,
                 Map<String, Object> data,
                 OpType opType,
-                long version) {
+                long version,
+                EsRefreshPolicy policy) {
             throwException();
-            return super.asyncIndex(index, type, id, routingId, data, opType, version);
+            return super.asyncIndex(index, type, id, routingId, data, opType, version, policy);
         }
 
         @Override
-        public ActionFuture<DeleteResponse> asyncDelete(String index, String type, String id, String routingId,
-                long version) {
+        public ListenableActionFuture<DeleteResponse> asyncDelete(String index, String type, String id, String routingId,
+                long version, EsRefreshPolicy policy) {
             throwException();
-            return super.asyncDelete(index, type, id, routingId, version);
+            return super.asyncDelete(index, type, id, routingId, version, policy);
         }
 
         @Override
@@ -973,9 +975,10 @@ public class EsRetryTest {
         }
 
         @Override
-        public BulkResponse bulkRequest(String index, String routingId, List<EsBulkRequest> datas, boolean isWriteLog) {
+        public BulkResponse bulkRequest(String index, String routingId, List<EsBulkRequest> datas, boolean isWriteLog,
+                EsRefreshPolicy policy) {
             throwException();
-            return super.bulkRequest(index, routingId, datas, isWriteLog);
+            return super.bulkRequest(index, routingId, datas, isWriteLog, policy);
         }
 
         @Override
@@ -1018,14 +1021,14 @@ public class EsRetryTest {
         }
 
         @Override
-        public ActionFuture<GetResponse> asyncGet(String index, String type, String id, String routingId,
+        public ListenableActionFuture<GetResponse> asyncGet(String index, String type, String id, String routingId,
                 boolean realtime) {
             throwException();
             return super.asyncGet(index, type, id, routingId, realtime);
         }
 
         @Override
-        public ActionFuture<SearchResponse> asyncSearch(
+        public ListenableActionFuture<SearchResponse> asyncSearch(
                 String index,
                 String type,
                 String routingId,
@@ -1035,7 +1038,7 @@ public class EsRetryTest {
         }
 
         @Override
-        public ActionFuture<SearchResponse> asyncSearch(
+        public ListenableActionFuture<SearchResponse> asyncSearch(
                 String index,
                 String routingId,
                 Map<String, Object> query) {
@@ -1044,7 +1047,7 @@ public class EsRetryTest {
         }
 
         @Override
-        public ActionFuture<SearchResponse> asyncSearch(
+        public ListenableActionFuture<SearchResponse> asyncSearch(
                 String index,
                 String type,
                 String routingId,
@@ -1054,22 +1057,23 @@ public class EsRetryTest {
         }
 
         @Override
-        public ActionFuture<IndexResponse> asyncIndex(String index,
+        public ListenableActionFuture<IndexResponse> asyncIndex(String index,
                 String type,
                 String id,
                 String routingId,
                 Map<String, Object> data,
                 OpType opType,
-                long version) {
+                long version,
+                EsRefreshPolicy policy) {
             throwException();
-            return super.asyncIndex(index, type, id, routingId, data, opType, version);
+            return super.asyncIndex(index, type, id, routingId, data, opType, version, policy);
         }
 
         @Override
-        public ActionFuture<DeleteResponse> asyncDelete(String index, String type, String id, String routingId,
-                long version) {
+        public ListenableActionFuture<DeleteResponse> asyncDelete(String index, String type, String id, String routingId,
+                long version, EsRefreshPolicy policy) {
             throwException();
-            return super.asyncDelete(index, type, id, routingId, version);
+            return super.asyncDelete(index, type, id, routingId, version, policy);
         }
 
         @Override
@@ -1092,9 +1096,10 @@ public class EsRetryTest {
         }
 
         @Override
-        public BulkResponse bulkRequest(String index, String routingId, List<EsBulkRequest> datas, boolean isWriteLog) {
+        public BulkResponse bulkRequest(String index, String routingId, List<EsBulkRequest> datas, boolean isWriteLog,
+                EsRefreshPolicy policy) {
             throwException();
-            return super.bulkRequest(index, routingId, datas, isWriteLog);
+            return super.bulkRequest(index, routingId, datas, isWriteLog, policy);
         }
 
         @Override